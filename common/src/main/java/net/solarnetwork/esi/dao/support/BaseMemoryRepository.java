@@ -0,0 +1,325 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.dao.support;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.springframework.beans.DirectFieldAccessor;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Order;
+import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.util.ReflectionUtils;
+
+import net.solarnetwork.esi.domain.jpa.BaseEntity;
+
+/**
+ * Base {@link PagingAndSortingRepository} implementation that holds entities in memory.
+ * 
+ * <p>
+ * Entities are stored by reference in a concurrent map keyed by primary key, so changes made to a
+ * saved entity are visible immediately and are not rolled back if a transaction fails. Saving an
+ * entity without a primary key assigns one via {@link #generateId(BaseEntity)}, and every save
+ * updates the entity's modification date. Extending classes maintain any secondary indexes they
+ * need by overriding {@link #indexEntity(BaseEntity)} and {@link #unindexEntity(BaseEntity)}.
+ * </p>
+ * 
+ * <p>
+ * Sorting follows the JPA attribute (field) names used by Spring Data query derivation.
+ * </p>
+ * 
+ * @param <T>
+ *        the entity type
+ * @param <K>
+ *        the primary key type
+ * @author matt
+ * @version 1.0
+ */
+public abstract class BaseMemoryRepository<T extends BaseEntity<K>,
+    K extends Serializable & Comparable<K>> implements PagingAndSortingRepository<T, K> {
+
+  private final ConcurrentMap<K, T> data = new ConcurrentHashMap<>();
+
+  /**
+   * Generate a primary key for an entity being saved without one.
+   * 
+   * <p>
+   * This implementation throws an {@link IllegalArgumentException}. Extending classes for entities
+   * with generated keys must override.
+   * </p>
+   * 
+   * @param entity
+   *        the entity to generate the key for
+   * @return the new key
+   */
+  protected K generateId(T entity) {
+    throw new IllegalArgumentException("The entity ID must be provided.");
+  }
+
+  /**
+   * Update secondary indexes after an entity is saved.
+   * 
+   * @param entity
+   *        the saved entity
+   */
+  protected void indexEntity(T entity) {
+    // extending classes can override
+  }
+
+  /**
+   * Update secondary indexes after an entity is deleted.
+   * 
+   * @param entity
+   *        the deleted entity
+   */
+  protected void unindexEntity(T entity) {
+    // extending classes can override
+  }
+
+  /**
+   * Get an entity by primary key.
+   * 
+   * @param id
+   *        the primary key
+   * @return the entity, or {@literal null} if not found
+   */
+  protected T entity(K id) {
+    return (id != null ? data.get(id) : null);
+  }
+
+  /**
+   * Get a stream of entities for a stream of primary keys, skipping any keys not found.
+   * 
+   * @param ids
+   *        the primary keys
+   * @return the entities
+   */
+  protected Stream<T> entities(Stream<K> ids) {
+    return ids.map(data::get).filter(e -> e != null);
+  }
+
+  /**
+   * Get a stream of all entities.
+   * 
+   * @return the entities, in no particular order
+   */
+  protected Stream<T> entities() {
+    return data.values().stream();
+  }
+
+  /**
+   * Get a page of results from a stream of entities.
+   * 
+   * @param <E>
+   *        the result type
+   * @param entities
+   *        the entities
+   * @param pageable
+   *        the page criteria, or {@literal null} for all results
+   * @return the page of results
+   */
+  protected static <E> List<E> page(Stream<E> entities, Pageable pageable) {
+    return page(entities, pageable, null);
+  }
+
+  /**
+   * Get a page of results from a stream of entities that is already in a known order.
+   * 
+   * <p>
+   * If {@code pageable} is sorted in a different order than {@code streamOrder}, the stream is
+   * sorted first. Otherwise the stream order is preserved, which allows ordered secondary indexes
+   * to return pages without sorting all matching entities.
+   * </p>
+   * 
+   * @param <E>
+   *        the result type
+   * @param entities
+   *        the entities
+   * @param pageable
+   *        the page criteria, or {@literal null} for all results
+   * @param streamOrder
+   *        the order of {@code entities}, or {@literal null} if not known
+   * @return the page of results
+   */
+  protected static <E> List<E> page(Stream<E> entities, Pageable pageable, Sort streamOrder) {
+    Stream<E> s = entities;
+    if (pageable != null) {
+      Sort sort = pageable.getSort();
+      if (sort.isSorted() && !sort.equals(streamOrder)) {
+        s = s.sorted(comparator(sort));
+      }
+      if (pageable.isPaged()) {
+        s = s.skip(pageable.getOffset()).limit(pageable.getPageSize());
+      }
+    }
+    return s.collect(Collectors.toList());
+  }
+
+  /**
+   * Create a comparator for a sort specification.
+   * 
+   * @param <E>
+   *        the entity type
+   * @param sort
+   *        the sort specification; property paths refer to entity fields
+   * @return the comparator
+   */
+  protected static <E> Comparator<E> comparator(Sort sort) {
+    Comparator<E> result = null;
+    for (Order order : sort) {
+      Comparator<Comparable<Object>> values = Comparator.naturalOrder();
+      if (order.isDescending()) {
+        values = values.reversed();
+      }
+      Comparator<E> c = Comparator.comparing(e -> property(e, order.getProperty()),
+          Comparator.nullsLast(values));
+      result = (result == null ? c : result.thenComparing(c));
+    }
+    return (result != null ? result : (l, r) -> 0);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Comparable<Object> property(Object entity, String path) {
+    return (Comparable<Object>) new DirectFieldAccessor(entity).getPropertyValue(path);
+  }
+
+  private void assignId(T entity, K id) {
+    Field field = ReflectionUtils.findField(entity.getClass(), "id");
+    if (field == null) {
+      throw new IllegalArgumentException(
+          "The entity " + entity.getClass().getName() + " has no id field.");
+    }
+    ReflectionUtils.makeAccessible(field);
+    ReflectionUtils.setField(field, entity, id);
+  }
+
+  @Override
+  public <S extends T> S save(S entity) {
+    if (entity == null) {
+      throw new IllegalArgumentException("The entity must be provided.");
+    }
+    K id = entity.getId();
+    if (id == null) {
+      id = generateId(entity);
+      assignId(entity, id);
+    }
+    entity.setModified(Instant.now());
+    data.put(id, entity);
+    indexEntity(entity);
+    return entity;
+  }
+
+  @Override
+  public <S extends T> Iterable<S> saveAll(Iterable<S> entities) {
+    List<S> result = new ArrayList<>();
+    for (S entity : entities) {
+      result.add(save(entity));
+    }
+    return result;
+  }
+
+  @Override
+  public Optional<T> findById(K id) {
+    return Optional.ofNullable(entity(id));
+  }
+
+  @Override
+  public boolean existsById(K id) {
+    return (entity(id) != null);
+  }
+
+  @Override
+  public Iterable<T> findAll() {
+    return entities().collect(Collectors.toList());
+  }
+
+  @Override
+  public Iterable<T> findAll(Sort sort) {
+    if (sort == null || sort.isUnsorted()) {
+      return findAll();
+    }
+    return entities().sorted(comparator(sort)).collect(Collectors.toList());
+  }
+
+  @Override
+  public Page<T> findAll(Pageable pageable) {
+    List<T> content = page(entities(), pageable);
+    if (pageable == null || pageable.isUnpaged()) {
+      return new PageImpl<>(content);
+    }
+    return new PageImpl<>(content, pageable, data.size());
+  }
+
+  @Override
+  public Iterable<T> findAllById(Iterable<K> ids) {
+    return entities(StreamSupport.stream(ids.spliterator(), false)).collect(Collectors.toList());
+  }
+
+  @Override
+  public long count() {
+    return data.size();
+  }
+
+  @Override
+  public void deleteById(K id) {
+    T entity = (id != null ? data.remove(id) : null);
+    if (entity == null) {
+      throw new EmptyResultDataAccessException(
+          String.format("No entity with id %s exists!", id), 1);
+    }
+    unindexEntity(entity);
+  }
+
+  @Override
+  public void delete(T entity) {
+    if (entity == null) {
+      throw new IllegalArgumentException("The entity must be provided.");
+    }
+    K id = entity.getId();
+    if (id != null && data.remove(id) != null) {
+      unindexEntity(entity);
+    }
+  }
+
+  @Override
+  public void deleteAll(Iterable<? extends T> entities) {
+    for (T entity : entities) {
+      delete(entity);
+    }
+  }
+
+  @Override
+  public void deleteAll() {
+    deleteAll(new ArrayList<>(data.values()));
+  }
+
+}
@@ -0,0 +1,100 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.dao.support;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+
+/**
+ * Iterator over the results of a keyset (seek) paginated query.
+ * 
+ * <p>
+ * Results are fetched one page at a time by a page function that is passed the last result of the
+ * previous page (or {@literal null} for the first page) and the maximum number of results to
+ * return. Only one page of results is held in memory at a time, so the iterator can be used to
+ * process arbitrarily large result sets. A page with fewer results than the page size is treated
+ * as the final page.
+ * </p>
+ * 
+ * @param <T>
+ *        the result type
+ * @author matt
+ * @version 1.0
+ */
+public class KeysetPageIterator<T> implements Iterator<T> {
+
+  private final BiFunction<T, Integer, List<? extends T>> pageFunction;
+  private final int pageSize;
+
+  private List<? extends T> page;
+  private int pageIndex;
+  private T last;
+  private boolean finalPage;
+
+  /**
+   * Constructor.
+   * 
+   * @param pageFunction
+   *        the function to fetch a page of results after a given result
+   * @param pageSize
+   *        the maximum number of results to fetch per page
+   * @throws IllegalArgumentException
+   *         if {@code pageFunction} is {@literal null} or {@code pageSize} is less than
+   *         {@literal 1}
+   */
+  public KeysetPageIterator(BiFunction<T, Integer, List<? extends T>> pageFunction,
+      int pageSize) {
+    super();
+    if (pageFunction == null) {
+      throw new IllegalArgumentException("The page function must be provided.");
+    }
+    this.pageFunction = pageFunction;
+    if (pageSize < 1) {
+      throw new IllegalArgumentException("The page size must be at least 1.");
+    }
+    this.pageSize = pageSize;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (page != null && pageIndex < page.size()) {
+      return true;
+    }
+    if (finalPage) {
+      return false;
+    }
+    List<? extends T> next = pageFunction.apply(last, pageSize);
+    page = (next != null ? next : Collections.emptyList());
+    pageIndex = 0;
+    finalPage = page.size() < pageSize;
+    return !page.isEmpty();
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    last = page.get(pageIndex++);
+    return last;
+  }
+
+}
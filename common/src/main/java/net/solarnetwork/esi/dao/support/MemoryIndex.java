@@ -0,0 +1,218 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.dao.support;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * A secondary index over in-memory entities, mapping index keys to entity primary keys.
+ * 
+ * <p>
+ * An index can be either unordered (hash based) or ordered (skip-list based); only ordered indexes
+ * support range queries like {@link #headIds(Object, boolean)}. Index keys may be shared by any
+ * number of entities. Lookups are lock-free; updates are serialized on the index so the key sets
+ * stay consistent.
+ * </p>
+ * 
+ * @param <I>
+ *        the index key type
+ * @param <K>
+ *        the entity primary key type
+ * @author matt
+ * @version 1.0
+ */
+public class MemoryIndex<I, K> {
+
+  private final ConcurrentMap<I, Set<K>> index;
+  private final ConcurrentMap<K, I> keys = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor for an unordered index.
+   */
+  public MemoryIndex() {
+    super();
+    this.index = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Constructor for an ordered index.
+   * 
+   * @param order
+   *        the index key order, or {@literal null} for the natural order of the keys
+   */
+  public MemoryIndex(Comparator<? super I> order) {
+    super();
+    this.index = new ConcurrentSkipListMap<>(order);
+  }
+
+  /**
+   * Add or update the index key of an entity.
+   * 
+   * @param id
+   *        the entity primary key
+   * @param key
+   *        the index key, or {@literal null} to remove the entity from the index
+   */
+  public synchronized void put(K id, I key) {
+    I old = (key != null ? keys.put(id, key) : keys.remove(id));
+    if (old != null) {
+      if (old.equals(key)) {
+        return;
+      }
+      Set<K> ids = index.get(old);
+      if (ids != null) {
+        ids.remove(id);
+        if (ids.isEmpty()) {
+          index.remove(old);
+        }
+      }
+    }
+    if (key != null) {
+      index.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(id);
+    }
+  }
+
+  /**
+   * Remove an entity from the index.
+   * 
+   * @param id
+   *        the entity primary key
+   */
+  public void remove(K id) {
+    put(id, null);
+  }
+
+  /**
+   * Remove all entities from the index.
+   */
+  public synchronized void clear() {
+    keys.clear();
+    index.clear();
+  }
+
+  /**
+   * Get the primary keys of all entities with a given index key.
+   * 
+   * @param key
+   *        the index key
+   * @return the primary keys, never {@literal null}
+   */
+  public Set<K> get(I key) {
+    Set<K> ids = (key != null ? index.get(key) : null);
+    return (ids != null ? Collections.unmodifiableSet(ids) : Collections.emptySet());
+  }
+
+  /**
+   * Get the primary key of the first entity with a given index key.
+   * 
+   * <p>
+   * This is designed for unique indexes, where at most one entity has any given key.
+   * </p>
+   * 
+   * @param key
+   *        the index key
+   * @return the primary key, or {@literal null} if no entity has the given key
+   */
+  public K getFirst(I key) {
+    Set<K> ids = get(key);
+    for (K id : ids) {
+      return id;
+    }
+    return null;
+  }
+
+  /**
+   * Get the index key of an entity.
+   * 
+   * @param id
+   *        the entity primary key
+   * @return the index key, or {@literal null} if the entity is not indexed
+   */
+  public I keyFor(K id) {
+    return keys.get(id);
+  }
+
+  /**
+   * Get the number of entities in the index.
+   * 
+   * @return the number of entities
+   */
+  public int size() {
+    return keys.size();
+  }
+
+  /**
+   * Get the primary keys of all entities in the index, in index key order for ordered indexes.
+   * 
+   * @return the primary keys
+   */
+  public Stream<K> ids() {
+    return idsOf(index);
+  }
+
+  /**
+   * Get the primary keys of all entities with index keys less than a given key, in index key order.
+   * 
+   * @param key
+   *        the index key to get the entities before
+   * @param inclusive
+   *        {@literal true} to include entities with index key equal to {@code key}
+   * @return the primary keys
+   * @throws UnsupportedOperationException
+   *         if this index is not ordered
+   */
+  public Stream<K> headIds(I key, boolean inclusive) {
+    return idsOf(navigable().headMap(key, inclusive));
+  }
+
+  /**
+   * Get the primary keys of all entities with index keys greater than a given key, in index key
+   * order.
+   * 
+   * @param key
+   *        the index key to get the entities after
+   * @param inclusive
+   *        {@literal true} to include entities with index key equal to {@code key}
+   * @return the primary keys
+   * @throws UnsupportedOperationException
+   *         if this index is not ordered
+   */
+  public Stream<K> tailIds(I key, boolean inclusive) {
+    return idsOf(navigable().tailMap(key, inclusive));
+  }
+
+  private NavigableMap<I, Set<K>> navigable() {
+    if (!(index instanceof NavigableMap)) {
+      throw new UnsupportedOperationException("Range queries require an ordered index.");
+    }
+    return (NavigableMap<I, Set<K>>) index;
+  }
+
+  private static <I, K> Stream<K> idsOf(Map<I, Set<K>> map) {
+    return map.values().stream().flatMap(Set::stream);
+  }
+
+}
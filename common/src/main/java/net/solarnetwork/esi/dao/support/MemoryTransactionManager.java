@@ -0,0 +1,98 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.dao.support;
+
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Transaction manager for in-memory repositories that have no transactional resources.
+ * 
+ * <p>
+ * This manager tracks transaction boundaries and propagation so that {@code @Transactional}
+ * methods, {@link org.springframework.transaction.support.TransactionTemplate}, and transaction
+ * synchronizations (such as {@link TransactionUtils} callbacks) behave as they do with a database,
+ * but commit and rollback do nothing: changes made to in-memory entities are never rolled back.
+ * Nested transactions are not supported.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class MemoryTransactionManager extends AbstractPlatformTransactionManager {
+
+  private static final long serialVersionUID = -1536046411476372596L;
+
+  private static final class MemoryTransaction {
+
+    private final boolean existing;
+
+    private MemoryTransaction(boolean existing) {
+      super();
+      this.existing = existing;
+    }
+  }
+
+  @Override
+  protected Object doGetTransaction() {
+    return new MemoryTransaction(TransactionSynchronizationManager.hasResource(this));
+  }
+
+  @Override
+  protected boolean isExistingTransaction(Object transaction) {
+    return ((MemoryTransaction) transaction).existing;
+  }
+
+  @Override
+  protected void doBegin(Object transaction, TransactionDefinition definition) {
+    TransactionSynchronizationManager.bindResource(this, transaction);
+  }
+
+  @Override
+  protected Object doSuspend(Object transaction) {
+    return TransactionSynchronizationManager.unbindResource(this);
+  }
+
+  @Override
+  protected void doResume(Object transaction, Object suspendedResources) {
+    TransactionSynchronizationManager.bindResource(this, suspendedResources);
+  }
+
+  @Override
+  protected void doCommit(DefaultTransactionStatus status) {
+    // nothing to commit
+  }
+
+  @Override
+  protected void doRollback(DefaultTransactionStatus status) {
+    // nothing to roll back
+  }
+
+  @Override
+  protected void doSetRollbackOnly(DefaultTransactionStatus status) {
+    // nothing to roll back
+  }
+
+  @Override
+  protected void doCleanupAfterCompletion(Object transaction) {
+    TransactionSynchronizationManager.unbindResourceIfPossible(this);
+  }
+
+}
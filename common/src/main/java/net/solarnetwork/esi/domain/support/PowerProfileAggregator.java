@@ -0,0 +1,266 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.domain.support;
+
+import java.util.Arrays;
+
+import com.google.protobuf.Timestamp;
+
+import net.solarnetwork.esi.domain.PowerComponents;
+import net.solarnetwork.esi.domain.PowerProfileDatum;
+import net.solarnetwork.esi.domain.TimeUnit;
+import net.solarnetwork.esi.grpc.FlowControlledStreamer.Source;
+import net.solarnetwork.esi.util.TimeSpanUtils;
+
+/**
+ * Produce power profile datum from a stream of power samples, aggregating them over time spans.
+ * 
+ * <p>
+ * Samples must be provided in timestamp order, and may come from any number of sources whose
+ * sample timestamps need not line up. For all time units other than {@link TimeUnit#INSTANT} the
+ * samples of each source are first averaged over spans of {@code coalescence} time units, and the
+ * source averages are then summed into one datum per span. Spans are aligned by
+ * {@link TimeSpanUtils}. For the {@link TimeUnit#INSTANT} time unit one datum is produced per
+ * distinct sample timestamp, as the sum of the most recent sample of every source seen so far.
+ * </p>
+ * 
+ * <p>
+ * Only one span of samples is held at a time, and the same builders are used for every datum, so
+ * any number of samples can be aggregated in memory proportional to the number of sources.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class PowerProfileAggregator implements Source<PowerProfileDatum> {
+
+  private static final long SECOND_MS = 1000L;
+
+  /**
+   * API for a cursor over power samples.
+   */
+  public interface Samples {
+
+    /**
+     * Move to the next sample.
+     * 
+     * @return {@literal true} if there is another sample, {@literal false} if all samples have
+     *         been read
+     * @throws Exception
+     *         if any error occurs
+     */
+    boolean next() throws Exception;
+
+    /**
+     * Get the current sample date.
+     * 
+     * @return the timestamp, in milliseconds since the epoch
+     */
+    long timestamp();
+
+    /**
+     * Get the current sample real power.
+     * 
+     * @return the real power, in watts
+     */
+    double realPower();
+
+    /**
+     * Get the current sample reactive power.
+     * 
+     * @return the reactive power, in volt-amperes reactive
+     */
+    double reactivePower();
+
+    /**
+     * Get the current sample source.
+     * 
+     * <p>
+     * Sources are identified by small, non-negative indexes. This default implementation returns
+     * {@literal 0}, which suits samples that all come from a single source.
+     * </p>
+     * 
+     * @return the source index
+     */
+    default int source() {
+      return 0;
+    }
+
+  }
+
+  private final Samples samples;
+  private final TimeUnit timeUnit;
+  private final int coalescence;
+  private final PowerProfileDatum.Builder datum;
+  private final Timestamp.Builder ts;
+  private final PowerComponents.Builder power;
+  private boolean started;
+  private boolean available;
+  private long spanStart;
+  private long spanEnd;
+
+  // per-source sums of the current span, indexed by source
+  private double[] spanReal = new double[4];
+  private double[] spanReactive = new double[4];
+  private int[] spanCount = new int[4];
+
+  // the sources with samples in the current span
+  private int[] spanSources = new int[4];
+  private int spanSourceCount;
+
+  // the most recent average of every source, for INSTANT datum
+  private double[] heldReal = new double[4];
+  private double[] heldReactive = new double[4];
+  private int sourceCount;
+
+  /**
+   * Constructor.
+   * 
+   * @param samples
+   *        the samples to aggregate
+   * @param timeUnit
+   *        the time unit of the datum to produce
+   * @param coalescence
+   *        the number of time units to aggregate into each datum; values less than {@literal 1}
+   *        are treated as {@literal 1}
+   * @throws IllegalArgumentException
+   *         if any argument is {@literal null} or {@code timeUnit} is not supported
+   */
+  public PowerProfileAggregator(Samples samples, TimeUnit timeUnit, int coalescence) {
+    super();
+    if (samples == null) {
+      throw new IllegalArgumentException("The samples must be provided.");
+    }
+    if (timeUnit == null || timeUnit == TimeUnit.UNRECOGNIZED) {
+      throw new IllegalArgumentException("The time unit is not supported.");
+    }
+    this.samples = samples;
+    this.timeUnit = timeUnit;
+    this.coalescence = (timeUnit == TimeUnit.INSTANT ? 0 : Math.max(1, coalescence));
+    this.datum = PowerProfileDatum.newBuilder().setTimeUnit(timeUnit)
+        .setTimeLength(this.coalescence);
+    this.ts = datum.getTsBuilder();
+    this.power = datum.getPowerComponentsBuilder();
+  }
+
+  @Override
+  public PowerProfileDatum next() throws Exception {
+    if (!started) {
+      started = true;
+      available = samples.next();
+    }
+    if (!available) {
+      return null;
+    }
+    final long start = samples.timestamp();
+    if (timeUnit == TimeUnit.INSTANT) {
+      spanStart = start;
+      spanEnd = start + 1;
+    } else {
+      startSpan(start);
+    }
+    long t = start;
+    do {
+      add(samples.source(), samples.realPower(), samples.reactivePower());
+      available = samples.next();
+      if (available) {
+        t = samples.timestamp();
+      }
+    } while (available && t >= spanStart && t < spanEnd);
+
+    double real = 0;
+    double reactive = 0;
+    for (int i = 0; i < spanSourceCount; i++) {
+      final int s = spanSources[i];
+      final double avgReal = spanReal[s] / spanCount[s];
+      final double avgReactive = spanReactive[s] / spanCount[s];
+      heldReal[s] = avgReal;
+      heldReactive[s] = avgReactive;
+      real += avgReal;
+      reactive += avgReactive;
+      spanReal[s] = 0;
+      spanReactive[s] = 0;
+      spanCount[s] = 0;
+    }
+    spanSourceCount = 0;
+    if (timeUnit == TimeUnit.INSTANT) {
+      real = 0;
+      reactive = 0;
+      for (int s = 0; s < sourceCount; s++) {
+        real += heldReal[s];
+        reactive += heldReactive[s];
+      }
+    }
+    return build(spanStart, real, reactive);
+  }
+
+  private void add(int source, double real, double reactive) {
+    if (source < 0) {
+      throw new IllegalArgumentException("The sample source must not be negative.");
+    }
+    if (source >= spanCount.length) {
+      final int len = Math.max(spanCount.length * 2, source + 1);
+      spanReal = Arrays.copyOf(spanReal, len);
+      spanReactive = Arrays.copyOf(spanReactive, len);
+      spanCount = Arrays.copyOf(spanCount, len);
+      spanSources = Arrays.copyOf(spanSources, len);
+      heldReal = Arrays.copyOf(heldReal, len);
+      heldReactive = Arrays.copyOf(heldReactive, len);
+    }
+    if (source >= sourceCount) {
+      sourceCount = source + 1;
+    }
+    if (spanCount[source]++ == 0) {
+      spanSources[spanSourceCount++] = source;
+    }
+    spanReal[source] += real;
+    spanReactive[source] += reactive;
+  }
+
+  private PowerProfileDatum build(long timestamp, double realPower, double reactivePower) {
+    ts.setSeconds(Math.floorDiv(timestamp, SECOND_MS))
+        .setNanos((int) Math.floorMod(timestamp, SECOND_MS) * 1000000);
+    power.setRealPower(Math.round(realPower)).setReactivePower(Math.round(reactivePower));
+    return datum.build();
+  }
+
+  private void startSpan(long t) {
+    spanStart = TimeSpanUtils.spanStart(t, timeUnit, coalescence);
+    spanEnd = TimeSpanUtils.spanEnd(spanStart, timeUnit, coalescence);
+  }
+
+  /**
+   * Get the time unit of the produced datum.
+   * 
+   * @return the time unit
+   */
+  public TimeUnit getTimeUnit() {
+    return timeUnit;
+  }
+
+  /**
+   * Get the number of time units aggregated into each produced datum.
+   * 
+   * @return the coalescence, or {@literal 0} for {@link TimeUnit#INSTANT}
+   */
+  public int getCoalescence() {
+    return coalescence;
+  }
+
+}
@@ -0,0 +1,545 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.domain.support;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+import net.solarnetwork.esi.domain.jpa.PowerComponentsEmbed;
+import net.solarnetwork.esi.domain.jpa.PriceMapEmbed;
+
+/**
+ * Immutable snapshot of configured price maps, indexed for matching price map offers.
+ * 
+ * <p>
+ * A configured price map supports an offer when the offer's apparent power is no larger than the
+ * price map's, the offer's duration is no longer, and the offer's minimum and maximum response
+ * times are no shorter. When power direction matching is enabled, an offer with a non-zero real or
+ * reactive power component is only supported by price maps with the same direction for that
+ * component. If the supporting price map has a higher apparent energy price than the offer, the
+ * match is a counter-offer using that price.
+ * </p>
+ * 
+ * <p>
+ * The price maps are grouped by power direction, and each group is sorted by apparent power,
+ * duration, and response time into primitive arrays. Finding a match is a binary search for the
+ * smallest supporting apparent power followed by a scan of the remaining entries, pruned with
+ * precomputed suffix bounds on duration and response time. When more than one price map supports
+ * an offer, the one that came first in the list the matcher was created from is used.
+ * </p>
+ * 
+ * <p>
+ * {@link #bestFit(PriceMapEmbed)} negotiates instead of matching: every price map with a
+ * compatible power direction is turned into the closest offer it supports, by scaling the offer's
+ * power down to the price map's apparent power, shortening its duration, and raising its response
+ * times and price to the price map's. Each of these is scored by the fraction of the offer's
+ * power, duration, response time, and price it keeps, and the highest scoring one is used. This
+ * produces a single counter-offer the facility will accept as-is, even for offers no price map
+ * fully supports, rather than one that only adjusts the price and may need further rounds. Groups
+ * of at least {@link #PARALLEL_THRESHOLD} price maps are scored in parallel.
+ * </p>
+ * 
+ * @param <T>
+ *        the configured price map type
+ * @author matt
+ * @version 1.0
+ */
+public final class PriceMapMatcher<T> {
+
+  /** The minimum number of price maps in a power direction group to score in parallel. */
+  public static final int PARALLEL_THRESHOLD = 512;
+
+  private static final int DIRECTION_COUNT = 4;
+  private static final int REAL_NEGATIVE = 2;
+  private static final int REACTIVE_NEGATIVE = 1;
+
+  private final int size;
+  private final boolean matchPowerDirection;
+  private final Group<T>[] groups;
+
+  /**
+   * The result of matching an offer.
+   * 
+   * @param <T>
+   *        the configured price map type
+   */
+  public static final class Match<T> {
+
+    private final T entry;
+    private final PriceMapEmbed priceMap;
+    private final boolean counterOffer;
+
+    private Match(T entry, PriceMapEmbed priceMap, boolean counterOffer) {
+      super();
+      this.entry = entry;
+      this.priceMap = priceMap;
+      this.counterOffer = counterOffer;
+    }
+
+    /**
+     * Get the configured price map that supports the offer.
+     * 
+     * @return the configured price map
+     */
+    public T getEntry() {
+      return entry;
+    }
+
+    /**
+     * Get the acceptable price map.
+     * 
+     * @return the offer price map itself, or a counter-offer copy of it if
+     *         {@link #isCounterOffer()} is {@literal true}
+     */
+    public PriceMapEmbed getPriceMap() {
+      return priceMap;
+    }
+
+    /**
+     * Test if the match is a counter-offer.
+     * 
+     * @return {@literal true} if the offer price is too low and {@link #getPriceMap()} is a
+     *         counter-offer
+     */
+    public boolean isCounterOffer() {
+      return counterOffer;
+    }
+
+  }
+
+  /**
+   * Create a matcher.
+   * 
+   * @param <T>
+   *        the configured price map type
+   * @param entries
+   *        the configured price maps, in order of preference
+   * @param priceMapFn
+   *        a function to get the price map details from each configured price map
+   * @param matchPowerDirection
+   *        {@literal true} to require offers to match the power direction of a price map
+   * @return the matcher
+   */
+  public static <T> PriceMapMatcher<T> of(Iterable<T> entries,
+      Function<? super T, PriceMapEmbed> priceMapFn, boolean matchPowerDirection) {
+    List<Item<T>> items = new ArrayList<>();
+    if (entries != null) {
+      for (T entry : entries) {
+        PriceMapEmbed pm = (entry != null ? priceMapFn.apply(entry) : null);
+        if (pm != null) {
+          items.add(new Item<>(items.size(), entry, pm));
+        }
+      }
+    }
+    return new PriceMapMatcher<>(items, matchPowerDirection);
+  }
+
+  @SuppressWarnings("unchecked")
+  private PriceMapMatcher(List<Item<T>> items, boolean matchPowerDirection) {
+    super();
+    this.size = items.size();
+    this.matchPowerDirection = matchPowerDirection;
+    this.groups = (Group<T>[]) new Group<?>[matchPowerDirection ? DIRECTION_COUNT : 1];
+    for (int d = 0; d < groups.length; d++) {
+      List<Item<T>> groupItems = new ArrayList<>();
+      for (Item<T> item : items) {
+        if (!matchPowerDirection || direction(item.priceMap.powerComponents()) == d) {
+          groupItems.add(item);
+        }
+      }
+      groups[d] = new Group<>(groupItems);
+    }
+  }
+
+  private static int direction(PowerComponentsEmbed power) {
+    return (power.isRealPowerNegative() ? REAL_NEGATIVE : 0)
+        | (power.isReactivePowerNegative() ? REACTIVE_NEGATIVE : 0);
+  }
+
+  /**
+   * Get the number of configured price maps.
+   * 
+   * @return the count
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Find the configured price map that supports an offer.
+   * 
+   * @param offer
+   *        the offer price map
+   * @return the match, or {@literal null} if no configured price map supports the offer
+   */
+  public Match<T> match(PriceMapEmbed offer) {
+    if (offer == null || size < 1) {
+      return null;
+    }
+    final PowerComponentsEmbed power = offer.powerComponents();
+    final double apparentPower = power.derivedApparentPower();
+    final long duration = nanos(offer.duration());
+    final long responseMin = nanos(offer.responseTime().min());
+    final long responseMax = nanos(offer.responseTime().max());
+    Item<T> best = null;
+    for (int d = 0; d < groups.length; d++) {
+      if (!directionSupports(d, power)) {
+        continue;
+      }
+      Item<T> item = groups[d].find(apparentPower, duration, responseMin, responseMax,
+          best != null ? best.order : Integer.MAX_VALUE);
+      if (item != null) {
+        best = item;
+      }
+    }
+    if (best == null) {
+      return null;
+    }
+    BigDecimal price = best.priceMap.priceComponents().apparentEnergyPrice();
+    if (offer.priceComponents().apparentEnergyPrice().compareTo(price) < 0) {
+      PriceMapEmbed counterOffer = offer.copy();
+      counterOffer.priceComponents().setApparentEnergyPrice(price);
+      return new Match<>(best.entry, counterOffer, true);
+    }
+    return new Match<>(best.entry, offer, false);
+  }
+
+  /**
+   * Find the configured price map that best fits an offer, countering the offer if needed.
+   * 
+   * <p>
+   * Unlike {@link #match(PriceMapEmbed)}, a counter-offer may change the offer's power, duration,
+   * and response time as well as its price, so offers that no configured price map fully supports
+   * can be countered rather than declined. An offer fully supported by any configured price map at
+   * the offered price is always accepted, preferring the earliest configured price map.
+   * </p>
+   * 
+   * @param offer
+   *        the offer price map
+   * @return the match, or {@literal null} if no configured price map can support any part of the
+   *         offer
+   */
+  public Match<T> bestFit(PriceMapEmbed offer) {
+    if (offer == null || size < 1) {
+      return null;
+    }
+    final Offer o = new Offer(offer);
+    Candidate<T> best = null;
+    for (int d = 0; d < groups.length; d++) {
+      if (!directionSupports(d, offer.powerComponents())) {
+        continue;
+      }
+      Candidate<T> c = groups[d].bestFit(o);
+      if (c != null) {
+        best = (best != null ? Candidate.better(best, c) : c);
+      }
+    }
+    return (best != null ? best.toMatch(offer) : null);
+  }
+
+  private boolean directionSupports(int d, PowerComponentsEmbed power) {
+    if (!matchPowerDirection) {
+      return true;
+    }
+    if (power.hasRealPower() && power.isRealPowerNegative() != ((d & REAL_NEGATIVE) != 0)) {
+      return false;
+    }
+    return !(power.hasReactivePower()
+        && power.isReactivePowerNegative() != ((d & REACTIVE_NEGATIVE) != 0));
+  }
+
+  private static long nanos(Duration d) {
+    if (d.getSeconds() >= Long.MAX_VALUE / 1_000_000_000L) {
+      return Long.MAX_VALUE;
+    }
+    if (d.getSeconds() <= Long.MIN_VALUE / 1_000_000_000L) {
+      return Long.MIN_VALUE;
+    }
+    return d.toNanos();
+  }
+
+  private static final class Item<T> {
+
+    private final int order;
+    private final T entry;
+    private final PriceMapEmbed priceMap;
+    private final double apparentPower;
+    private final long duration;
+    private final long responseMin;
+    private final long responseMax;
+    private final BigDecimal price;
+
+    private Item(int order, T entry, PriceMapEmbed priceMap) {
+      super();
+      this.order = order;
+      this.entry = entry;
+      this.priceMap = priceMap;
+      this.apparentPower = priceMap.powerComponents().derivedApparentPower();
+      this.duration = nanos(priceMap.duration());
+      this.responseMin = nanos(priceMap.responseTime().min());
+      this.responseMax = nanos(priceMap.responseTime().max());
+      this.price = priceMap.priceComponents().apparentEnergyPrice();
+    }
+
+  }
+
+  /**
+   * The offer details used for scoring.
+   */
+  private static final class Offer {
+
+    private final long realPower;
+    private final long reactivePower;
+    private final double apparentPower;
+    private final long duration;
+    private final long responseMin;
+    private final long responseMax;
+    private final BigDecimal price;
+
+    private Offer(PriceMapEmbed offer) {
+      super();
+      PowerComponentsEmbed power = offer.powerComponents();
+      this.realPower = (power.getRealPower() != null ? power.getRealPower() : 0L);
+      this.reactivePower = (power.getReactivePower() != null ? power.getReactivePower() : 0L);
+      this.apparentPower = power.derivedApparentPower();
+      this.duration = nanos(offer.duration());
+      this.responseMin = nanos(offer.responseTime().min());
+      this.responseMax = nanos(offer.responseTime().max());
+      this.price = offer.priceComponents().apparentEnergyPrice();
+    }
+
+  }
+
+  /**
+   * A scored counter-offer derived from a configured price map.
+   */
+  private static final class Candidate<T> {
+
+    private final Item<T> item;
+    private final double score;
+    private final boolean changed;
+    private final long realPower;
+    private final long reactivePower;
+
+    private Candidate(Item<T> item, double score, boolean changed, long realPower,
+        long reactivePower) {
+      super();
+      this.item = item;
+      this.score = score;
+      this.changed = changed;
+      this.realPower = realPower;
+      this.reactivePower = reactivePower;
+    }
+
+    /**
+     * Score an item against an offer.
+     * 
+     * @return the candidate, or {@literal null} if the item cannot support any part of the offer
+     */
+    private static <T> Candidate<T> of(Item<T> item, Offer offer) {
+      double score = 1.0;
+      boolean changed = false;
+      long realPower = offer.realPower;
+      long reactivePower = offer.reactivePower;
+      if (item.apparentPower < offer.apparentPower) {
+        double ratio = item.apparentPower / offer.apparentPower;
+        realPower = (long) (realPower * ratio);
+        reactivePower = (long) (reactivePower * ratio);
+        if (realPower == 0 && reactivePower == 0) {
+          return null;
+        }
+        score *= ratio;
+        changed = true;
+      }
+      if (item.duration < offer.duration) {
+        if (item.duration <= 0) {
+          return null;
+        }
+        score *= (double) item.duration / offer.duration;
+        changed = true;
+      }
+      if (item.responseMin > offer.responseMin) {
+        score *= (offer.responseMin + 1.0) / (item.responseMin + 1.0);
+        changed = true;
+      }
+      if (item.responseMax > offer.responseMax) {
+        score *= (offer.responseMax + 1.0) / (item.responseMax + 1.0);
+        changed = true;
+      }
+      if (item.price.compareTo(offer.price) > 0) {
+        score *= Math.max(0.0, offer.price.doubleValue()) / item.price.doubleValue();
+        changed = true;
+      }
+      return new Candidate<>(item, score, changed, realPower, reactivePower);
+    }
+
+    /**
+     * Choose the better of two candidates: the highest score, then an unchanged offer, then the
+     * earliest configured.
+     */
+    private static <T> Candidate<T> better(Candidate<T> a, Candidate<T> b) {
+      if (a.score != b.score) {
+        return (a.score > b.score ? a : b);
+      }
+      if (a.changed != b.changed) {
+        return (a.changed ? b : a);
+      }
+      return (a.item.order <= b.item.order ? a : b);
+    }
+
+    private Match<T> toMatch(PriceMapEmbed offer) {
+      if (!changed) {
+        return new Match<>(item.entry, offer, false);
+      }
+      final PriceMapEmbed pm = item.priceMap;
+      PriceMapEmbed counterOffer = offer.copy();
+      PowerComponentsEmbed power = counterOffer.powerComponents();
+      if (power.getRealPower() != null || realPower != 0) {
+        power.setRealPower(realPower);
+      }
+      if (power.getReactivePower() != null || reactivePower != 0) {
+        power.setReactivePower(reactivePower);
+      }
+      if (pm.duration().compareTo(offer.duration()) < 0) {
+        counterOffer.setDuration(pm.duration());
+      }
+      if (pm.responseTime().min().compareTo(offer.responseTime().min()) > 0) {
+        counterOffer.responseTime().setMin(pm.responseTime().min());
+      }
+      if (pm.responseTime().max().compareTo(offer.responseTime().max()) > 0) {
+        counterOffer.responseTime().setMax(pm.responseTime().max());
+      }
+      if (item.price.compareTo(offer.priceComponents().apparentEnergyPrice()) > 0) {
+        counterOffer.priceComponents().setApparentEnergyPrice(item.price);
+      }
+      return new Match<>(item.entry, counterOffer, true);
+    }
+
+  }
+
+  /**
+   * Price maps sharing a power direction, sorted by apparent power, duration, and response time.
+   */
+  private static final class Group<T> {
+
+    private final Item<T>[] items;
+    private final double[] apparentPowers;
+    private final long[] durations;
+    private final long[] responseMins;
+    private final long[] responseMaxes;
+    private final long[] suffixMaxDurations;
+    private final long[] suffixMinResponseMins;
+    private final long[] suffixMinResponseMaxes;
+
+    @SuppressWarnings("unchecked")
+    private Group(List<Item<T>> list) {
+      super();
+      final int n = list.size();
+      this.items = list.toArray((Item<T>[]) new Item<?>[n]);
+      // @formatter:off
+      Arrays.sort(items, Comparator.<Item<T>>comparingDouble(e -> e.apparentPower)
+          .thenComparingLong(e -> e.duration)
+          .thenComparingLong(e -> e.responseMin)
+          .thenComparingLong(e -> e.responseMax)
+          .thenComparingInt(e -> e.order));
+      // @formatter:on
+      this.apparentPowers = new double[n];
+      this.durations = new long[n];
+      this.responseMins = new long[n];
+      this.responseMaxes = new long[n];
+      this.suffixMaxDurations = new long[n + 1];
+      this.suffixMinResponseMins = new long[n + 1];
+      this.suffixMinResponseMaxes = new long[n + 1];
+      suffixMaxDurations[n] = Long.MIN_VALUE;
+      suffixMinResponseMins[n] = Long.MAX_VALUE;
+      suffixMinResponseMaxes[n] = Long.MAX_VALUE;
+      for (int i = n - 1; i >= 0; i--) {
+        Item<T> item = items[i];
+        apparentPowers[i] = item.apparentPower;
+        durations[i] = item.duration;
+        responseMins[i] = item.responseMin;
+        responseMaxes[i] = item.responseMax;
+        suffixMaxDurations[i] = Math.max(item.duration, suffixMaxDurations[i + 1]);
+        suffixMinResponseMins[i] = Math.min(item.responseMin, suffixMinResponseMins[i + 1]);
+        suffixMinResponseMaxes[i] = Math.min(item.responseMax, suffixMinResponseMaxes[i + 1]);
+      }
+    }
+
+    /**
+     * Find the earliest ordered item supporting an offer, that is ordered before {@code before}.
+     */
+    private Item<T> find(double apparentPower, long duration, long responseMin, long responseMax,
+        int before) {
+      // find the first item with enough apparent power
+      int lo = 0;
+      int hi = apparentPowers.length;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (apparentPowers[mid] < apparentPower) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      Item<T> best = null;
+      int bestOrder = before;
+      for (int i = lo; i < items.length; i++) {
+        if (suffixMaxDurations[i] < duration || suffixMinResponseMins[i] > responseMin
+            || suffixMinResponseMaxes[i] > responseMax) {
+          // no remaining item can support the offer
+          break;
+        }
+        if (items[i].order < bestOrder && durations[i] >= duration
+            && responseMins[i] <= responseMin && responseMaxes[i] <= responseMax) {
+          best = items[i];
+          bestOrder = best.order;
+          if (bestOrder == 0) {
+            break;
+          }
+        }
+      }
+      return best;
+    }
+
+    /**
+     * Find the best scoring candidate for an offer.
+     */
+    private Candidate<T> bestFit(Offer offer) {
+      if (items.length >= PARALLEL_THRESHOLD) {
+        return Arrays.stream(items).parallel().map(item -> Candidate.of(item, offer))
+            .filter(Objects::nonNull).reduce(Candidate::better).orElse(null);
+      }
+      Candidate<T> best = null;
+      for (Item<T> item : items) {
+        Candidate<T> c = Candidate.of(item, offer);
+        if (c != null) {
+          best = (best != null ? Candidate.better(best, c) : c);
+        }
+      }
+      return best;
+    }
+
+  }
+
+}
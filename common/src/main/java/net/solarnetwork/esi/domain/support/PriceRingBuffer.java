@@ -0,0 +1,318 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.domain.support;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.solarnetwork.esi.domain.Money;
+import net.solarnetwork.esi.domain.PriceDatum;
+import net.solarnetwork.esi.domain.TimeUnit;
+
+/**
+ * Bounded, lock-free buffer of the most recent prices in a single currency.
+ * 
+ * <p>
+ * Prices are stored in primitive arrays indexed by a sequence number modulo the buffer capacity,
+ * so once the buffer is full each new price overwrites the oldest one. Writers claim a sequence
+ * number with an atomic increment and then publish the price by storing its sequence number in the
+ * price's slot, so any number of threads can append prices without locking. Readers check the slot
+ * sequence number before and after reading a price, and skip prices that are still being written or
+ * have been overwritten while being read.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class PriceRingBuffer {
+
+  /** The default capacity. */
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  /** The maximum supported price time length. */
+  public static final int MAX_TIME_LENGTH = 0xFFFFFF;
+
+  private static final long WRITING = -1L;
+  private static final long NANOS_PER_UNIT = 1000000000L;
+
+  /**
+   * API for visiting the prices in a buffer.
+   */
+  @FunctionalInterface
+  public interface Visitor {
+
+    /**
+     * Visit a price.
+     * 
+     * @param timestamp
+     *        the price start date, in milliseconds since the epoch
+     * @param timeLength
+     *        the number of {@code timeUnit} units of time the price covers
+     * @param timeUnit
+     *        the time unit of {@code timeLength}
+     * @param units
+     *        the whole units of the price
+     * @param nanos
+     *        the nano units of the price
+     */
+    void visit(long timestamp, int timeLength, TimeUnit timeUnit, long units, int nanos);
+
+  }
+
+  private final String currencyCode;
+  private final int mask;
+  private final AtomicLong claimed;
+  private final AtomicLongArray sequences;
+  private final AtomicLongArray timestamps;
+  private final AtomicLongArray units;
+  private final AtomicLongArray meta;
+
+  /**
+   * Constructor.
+   * 
+   * @param currencyCode
+   *        the currency code of all prices in the buffer
+   * @param capacity
+   *        the maximum number of prices to hold; will be rounded up to a power of two
+   * @throws IllegalArgumentException
+   *         if {@code currencyCode} is {@literal null} or empty or {@code capacity} is less than
+   *         {@literal 1}
+   */
+  public PriceRingBuffer(String currencyCode, int capacity) {
+    super();
+    if (currencyCode == null || currencyCode.isEmpty()) {
+      throw new IllegalArgumentException("The currency code must be provided.");
+    }
+    if (capacity < 1 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("The capacity must be between 1 and 2^30.");
+    }
+    this.currencyCode = currencyCode;
+    int size = (capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1);
+    this.mask = size - 1;
+    this.claimed = new AtomicLong();
+    this.sequences = new AtomicLongArray(size);
+    this.timestamps = new AtomicLongArray(size);
+    this.units = new AtomicLongArray(size);
+    this.meta = new AtomicLongArray(size);
+  }
+
+  /**
+   * Append a price.
+   * 
+   * @param timestamp
+   *        the price start date, in milliseconds since the epoch
+   * @param timeLength
+   *        the number of {@code timeUnit} units of time the price covers
+   * @param timeUnit
+   *        the time unit of {@code timeLength}
+   * @param units
+   *        the whole units of the price
+   * @param nanos
+   *        the nano units of the price
+   * @throws IllegalArgumentException
+   *         if {@code timeLength} or {@code timeUnit} are not valid
+   */
+  public void append(long timestamp, int timeLength, TimeUnit timeUnit, long units, int nanos) {
+    if (timeUnit == null || timeUnit == TimeUnit.UNRECOGNIZED) {
+      throw new IllegalArgumentException("A valid time unit must be provided.");
+    }
+    if (timeLength < 0 || timeLength > MAX_TIME_LENGTH) {
+      throw new IllegalArgumentException("The time length must be between 0 and "
+          + MAX_TIME_LENGTH + ".");
+    }
+    final long seq = claimed.getAndIncrement();
+    final int slot = (int) (seq & mask);
+    final long published = seq + 1;
+    while (true) {
+      final long current = sequences.get(slot);
+      if (current >= published) {
+        // a writer that lapped this one has already stored a newer price here
+        return;
+      }
+      if (current != WRITING && sequences.compareAndSet(slot, current, WRITING)) {
+        break;
+      }
+      Thread.yield();
+    }
+    this.timestamps.set(slot, timestamp);
+    this.units.set(slot, units);
+    this.meta.set(slot, ((long) nanos << 32) | ((long) timeLength << 8) | timeUnit.getNumber());
+    sequences.set(slot, published);
+  }
+
+  /**
+   * Visit the prices in the buffer, from oldest to newest.
+   * 
+   * @param visitor
+   *        the visitor
+   * @return the number of prices visited
+   */
+  public int forEach(Visitor visitor) {
+    final long end = claimed.get();
+    final long start = Math.max(0, end - (mask + 1));
+    int count = 0;
+    for (long seq = start; seq < end; seq++) {
+      if (read(seq, visitor)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private boolean read(long seq, Visitor visitor) {
+    final int slot = (int) (seq & mask);
+    final long published = seq + 1;
+    if (sequences.get(slot) != published) {
+      return false;
+    }
+    final long ts = timestamps.get(slot);
+    final long u = units.get(slot);
+    final long m = meta.get(slot);
+    if (sequences.get(slot) != published) {
+      return false;
+    }
+    visitor.visit(ts, (int) ((m >>> 8) & MAX_TIME_LENGTH), TimeUnit.forNumber((int) (m & 0xFF)),
+        u, (int) (m >> 32));
+    return true;
+  }
+
+  /**
+   * Get the most recently appended price.
+   * 
+   * @return the price, or {@literal null} if no price is available
+   */
+  public PriceDatum latest() {
+    final long end = claimed.get();
+    final long start = Math.max(0, end - (mask + 1));
+    final Latest latest = new Latest();
+    for (long seq = end - 1; seq >= start; seq--) {
+      if (read(seq, latest)) {
+        PriceDatum.Builder result = PriceDatum.newBuilder()
+            .setTs(ProtobufUtils.timestampForInstant(Instant.ofEpochMilli(latest.timestamp)))
+            .setTimeLength(latest.timeLength).setTimeUnit(latest.timeUnit);
+        result.getPriceComponentsBuilder().setApparentEnergyPrice(Money.newBuilder()
+            .setCurrencyCode(currencyCode).setUnits(latest.units).setNanos(latest.nanos));
+        return result.build();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Compute statistics on the prices that start on or after a given date.
+   * 
+   * @param minTimestamp
+   *        the minimum price start date, in milliseconds since the epoch
+   * @return the statistics, or {@literal null} if no price is available
+   */
+  public PriceStatistics statistics(long minTimestamp) {
+    final Accumulator acc = new Accumulator(minTimestamp);
+    forEach(acc);
+    if (acc.count < 1) {
+      return null;
+    }
+    return new PriceStatistics(currencyCode, acc.count, Instant.ofEpochMilli(acc.startDate),
+        Instant.ofEpochMilli(acc.endDate), decimal(acc.minimum), decimal(acc.maximum),
+        decimal(Math.round(acc.sum / acc.count)));
+  }
+
+  private static BigDecimal decimal(long nanoUnits) {
+    return BigDecimal.valueOf(nanoUnits, 9).stripTrailingZeros();
+  }
+
+  private static final class Latest implements Visitor {
+
+    private long timestamp;
+    private int timeLength;
+    private TimeUnit timeUnit;
+    private long units;
+    private int nanos;
+
+    @Override
+    public void visit(long timestamp, int timeLength, TimeUnit timeUnit, long units, int nanos) {
+      this.timestamp = timestamp;
+      this.timeLength = timeLength;
+      this.timeUnit = timeUnit;
+      this.units = units;
+      this.nanos = nanos;
+    }
+
+  }
+
+  private static final class Accumulator implements Visitor {
+
+    private final long minTimestamp;
+    private int count;
+    private long minimum = Long.MAX_VALUE;
+    private long maximum = Long.MIN_VALUE;
+    private long startDate = Long.MAX_VALUE;
+    private long endDate = Long.MIN_VALUE;
+    private double sum;
+
+    private Accumulator(long minTimestamp) {
+      super();
+      this.minTimestamp = minTimestamp;
+    }
+
+    @Override
+    public void visit(long timestamp, int timeLength, TimeUnit timeUnit, long units, int nanos) {
+      if (timestamp < minTimestamp) {
+        return;
+      }
+      final long price = units * NANOS_PER_UNIT + nanos;
+      count++;
+      minimum = Math.min(minimum, price);
+      maximum = Math.max(maximum, price);
+      startDate = Math.min(startDate, timestamp);
+      endDate = Math.max(endDate, timestamp);
+      sum += price;
+    }
+
+  }
+
+  /**
+   * Get the currency code of all prices in the buffer.
+   * 
+   * @return the currency code
+   */
+  public String getCurrencyCode() {
+    return currencyCode;
+  }
+
+  /**
+   * Get the maximum number of prices the buffer holds.
+   * 
+   * @return the capacity
+   */
+  public int getCapacity() {
+    return mask + 1;
+  }
+
+  /**
+   * Get the total number of prices appended to the buffer.
+   * 
+   * @return the number of prices appended, including those since overwritten
+   */
+  public long getAppendCount() {
+    return claimed.get();
+  }
+
+}
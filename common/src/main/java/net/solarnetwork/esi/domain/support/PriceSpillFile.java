@@ -0,0 +1,316 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.domain.support;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import net.solarnetwork.esi.domain.Money;
+import net.solarnetwork.esi.domain.PriceDatum;
+import net.solarnetwork.esi.domain.TimeUnit;
+import net.solarnetwork.esi.domain.support.PriceRingBuffer.Visitor;
+
+/**
+ * Append-only file of prices in a compact binary form.
+ * 
+ * <p>
+ * The file starts with a header holding a key and currency code, followed by fixed-size
+ * {@link #RECORD_SIZE} byte price records of the price timestamp, units, nanos, time length, and
+ * time unit. Each call to {@link #append(Iterable)} writes all the given prices with a single
+ * write. A partial record left at the end of the file, for example by a crash, is discarded when
+ * the file is opened. The file grows until {@link #compact(int)} rewrites it with just the most
+ * recent prices.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class PriceSpillFile implements Closeable {
+
+  /** The size of each price record, in bytes. */
+  public static final int RECORD_SIZE = 25;
+
+  private static final int MAGIC = 0x45534950; // ESIP
+
+  private final Path path;
+  private final String key;
+  private final String currencyCode;
+  private final long dataOffset;
+  private FileChannel channel;
+  private ByteBuffer buffer;
+
+  private PriceSpillFile(Path path, FileChannel channel, String key, String currencyCode,
+      long dataOffset) {
+    super();
+    this.path = path;
+    this.channel = channel;
+    this.key = key;
+    this.currencyCode = currencyCode;
+    this.dataOffset = dataOffset;
+    this.buffer = ByteBuffer.allocate(RECORD_SIZE * 64);
+  }
+
+  /**
+   * Create a new spill file, replacing any existing file.
+   * 
+   * @param path
+   *        the path of the file to create
+   * @param key
+   *        the key of the prices stored in the file, such as a route identifier
+   * @param currencyCode
+   *        the currency code of the prices stored in the file
+   * @return the new file
+   * @throws IOException
+   *         if an IO error occurs
+   */
+  public static PriceSpillFile create(Path path, String key, String currencyCode)
+      throws IOException {
+    FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING);
+    try {
+      writeHeader(ch, key, currencyCode);
+      return new PriceSpillFile(path, ch, key, currencyCode, ch.position());
+    } catch (IOException | RuntimeException e) {
+      ch.close();
+      throw e;
+    }
+  }
+
+  private static void writeHeader(FileChannel ch, String key, String currencyCode)
+      throws IOException {
+    byte[] k = key.getBytes(StandardCharsets.UTF_8);
+    byte[] c = currencyCode.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer header = ByteBuffer.allocate(8 + k.length + c.length);
+    header.putInt(MAGIC).putShort((short) k.length).put(k).putShort((short) c.length).put(c);
+    header.flip();
+    while (header.hasRemaining()) {
+      ch.write(header);
+    }
+  }
+
+  /**
+   * Open an existing spill file.
+   * 
+   * @param path
+   *        the path of the file to open
+   * @return the file
+   * @throws IOException
+   *         if an IO error occurs or the file is not a valid spill file
+   */
+  public static PriceSpillFile open(Path path) throws IOException {
+    FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.READ);
+    try {
+      ByteBuffer header = ByteBuffer.allocate(1024);
+      ch.read(header, 0);
+      header.flip();
+      if (header.remaining() < 8 || header.getInt() != MAGIC) {
+        throw new IOException("Not a price spill file: " + path);
+      }
+      String k = readString(header, path);
+      String c = readString(header, path);
+      long offset = header.position();
+      long records = (ch.size() - offset) / RECORD_SIZE;
+      ch.truncate(offset + records * RECORD_SIZE);
+      ch.position(offset + records * RECORD_SIZE);
+      return new PriceSpillFile(path, ch, k, c, offset);
+    } catch (IOException | RuntimeException e) {
+      ch.close();
+      throw e;
+    }
+  }
+
+  private static String readString(ByteBuffer buf, Path path) throws IOException {
+    if (buf.remaining() < 2) {
+      throw new IOException("Truncated price spill file header: " + path);
+    }
+    int len = buf.getShort() & 0xFFFF;
+    if (buf.remaining() < len) {
+      throw new IOException("Truncated price spill file header: " + path);
+    }
+    byte[] b = new byte[len];
+    buf.get(b);
+    return new String(b, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Append prices to the file.
+   * 
+   * <p>
+   * Only the timestamp, time length, time unit, and apparent energy price units and nanos of each
+   * price are stored.
+   * </p>
+   * 
+   * @param prices
+   *        the prices to append
+   * @throws IOException
+   *         if an IO error occurs
+   */
+  public synchronized void append(Iterable<PriceDatum> prices) throws IOException {
+    ByteBuffer buf = buffer;
+    buf.clear();
+    for (PriceDatum d : prices) {
+      if (buf.remaining() < RECORD_SIZE) {
+        ByteBuffer bigger = ByteBuffer.allocate(buf.capacity() * 2);
+        buf.flip();
+        bigger.put(buf);
+        buf = bigger;
+        buffer = bigger;
+      }
+      Money price = d.getPriceComponents().getApparentEnergyPrice();
+      buf.putLong(d.getTs().getSeconds() * 1000L + d.getTs().getNanos() / 1000000)
+          .putLong(price.getUnits()).putInt(price.getNanos()).putInt(d.getTimeLength())
+          .put((byte) d.getTimeUnitValue());
+    }
+    buf.flip();
+    while (buf.hasRemaining()) {
+      channel.write(buf);
+    }
+  }
+
+  /**
+   * Visit the most recent prices in the file, from oldest to newest.
+   * 
+   * @param max
+   *        the maximum number of prices to visit
+   * @param visitor
+   *        the visitor
+   * @return the number of prices visited
+   * @throws IOException
+   *         if an IO error occurs
+   */
+  public synchronized int replay(int max, Visitor visitor) throws IOException {
+    final long end = channel.position();
+    final long records = (end - dataOffset) / RECORD_SIZE;
+    long pos = dataOffset + Math.max(0, records - max) * RECORD_SIZE;
+    final ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE * 1024);
+    int count = 0;
+    while (pos < end) {
+      buf.clear();
+      buf.limit((int) Math.min(buf.capacity(), end - pos));
+      int read = channel.read(buf, pos);
+      if (read < 0) {
+        break;
+      }
+      pos += read;
+      buf.flip();
+      while (buf.remaining() >= RECORD_SIZE) {
+        long ts = buf.getLong();
+        long units = buf.getLong();
+        int nanos = buf.getInt();
+        int timeLength = buf.getInt();
+        TimeUnit timeUnit = TimeUnit.forNumber(buf.get());
+        visitor.visit(ts, timeLength, (timeUnit != null ? timeUnit : TimeUnit.INSTANT), units,
+            nanos);
+        count++;
+      }
+      pos -= buf.remaining();
+    }
+    return count;
+  }
+
+  /**
+   * Get the number of prices in the file.
+   * 
+   * @return the number of prices
+   * @throws IOException
+   *         if an IO error occurs
+   */
+  public synchronized long getCount() throws IOException {
+    return (channel.position() - dataOffset) / RECORD_SIZE;
+  }
+
+  /**
+   * Rewrite the file to hold only its most recent prices.
+   * 
+   * <p>
+   * The most recent prices are copied to a new file next to this one, which then replaces this
+   * file, so a crash while compacting leaves either the old or the new file in place.
+   * </p>
+   * 
+   * @param max
+   *        the maximum number of prices to keep
+   * @return the number of prices removed
+   * @throws IOException
+   *         if an IO error occurs
+   */
+  public synchronized long compact(int max) throws IOException {
+    final long end = channel.position();
+    final long records = (end - dataOffset) / RECORD_SIZE;
+    final long removed = records - Math.max(0, max);
+    if (removed <= 0) {
+      return 0;
+    }
+    final Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      writeHeader(ch, key, currencyCode);
+      long pos = dataOffset + removed * RECORD_SIZE;
+      while (pos < end) {
+        pos += channel.transferTo(pos, end - pos, ch);
+      }
+      ch.force(true);
+    }
+    channel.close();
+    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.READ);
+    channel.position(channel.size());
+    return removed;
+  }
+
+  /**
+   * Flush appended prices to the storage device.
+   * 
+   * @throws IOException
+   *         if an IO error occurs
+   */
+  public synchronized void force() throws IOException {
+    channel.force(false);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Get the key of the prices stored in the file.
+   * 
+   * @return the key
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Get the currency code of the prices stored in the file.
+   * 
+   * @return the currency code
+   */
+  public String getCurrencyCode() {
+    return currencyCode;
+  }
+
+}
@@ -0,0 +1,140 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.domain.support;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * Immutable summary statistics for a set of prices.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class PriceStatistics {
+
+  private final String currencyCode;
+  private final int count;
+  private final Instant startDate;
+  private final Instant endDate;
+  private final BigDecimal minimum;
+  private final BigDecimal maximum;
+  private final BigDecimal average;
+
+  /**
+   * Constructor.
+   * 
+   * @param currencyCode
+   *        the currency code of the prices
+   * @param count
+   *        the number of prices
+   * @param startDate
+   *        the start date of the earliest price
+   * @param endDate
+   *        the start date of the latest price
+   * @param minimum
+   *        the minimum price
+   * @param maximum
+   *        the maximum price
+   * @param average
+   *        the average price
+   */
+  public PriceStatistics(String currencyCode, int count, Instant startDate, Instant endDate,
+      BigDecimal minimum, BigDecimal maximum, BigDecimal average) {
+    super();
+    this.currencyCode = currencyCode;
+    this.count = count;
+    this.startDate = startDate;
+    this.endDate = endDate;
+    this.minimum = minimum;
+    this.maximum = maximum;
+    this.average = average;
+  }
+
+  @Override
+  public String toString() {
+    return "PriceStatistics{currencyCode=" + currencyCode + ", count=" + count + ", startDate="
+        + startDate + ", endDate=" + endDate + ", minimum=" + minimum + ", maximum=" + maximum
+        + ", average=" + average + "}";
+  }
+
+  /**
+   * Get the currency code of the prices.
+   * 
+   * @return the currency code
+   */
+  public String getCurrencyCode() {
+    return currencyCode;
+  }
+
+  /**
+   * Get the number of prices.
+   * 
+   * @return the count
+   */
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * Get the start date of the earliest price.
+   * 
+   * @return the start date
+   */
+  public Instant getStartDate() {
+    return startDate;
+  }
+
+  /**
+   * Get the start date of the latest price.
+   * 
+   * @return the end date
+   */
+  public Instant getEndDate() {
+    return endDate;
+  }
+
+  /**
+   * Get the minimum price.
+   * 
+   * @return the minimum
+   */
+  public BigDecimal getMinimum() {
+    return minimum;
+  }
+
+  /**
+   * Get the maximum price.
+   * 
+   * @return the maximum
+   */
+  public BigDecimal getMaximum() {
+    return maximum;
+  }
+
+  /**
+   * Get the average price.
+   * 
+   * @return the arithmetic mean of the prices
+   */
+  public BigDecimal getAverage() {
+    return average;
+  }
+
+}
@@ -19,6 +19,8 @@ package net.solarnetwork.esi.domain.support;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.Currency;
 import java.util.Locale;
@@ -36,6 +38,7 @@ import net.solarnetwork.esi.domain.Money;
 import net.solarnetwork.esi.domain.MoneyOrBuilder;
 import net.solarnetwork.esi.domain.PowerComponents;
 import net.solarnetwork.esi.domain.PriceComponents;
+import net.solarnetwork.esi.domain.PriceDatumOrBuilder;
 import net.solarnetwork.esi.domain.PriceMap;
 import net.solarnetwork.esi.domain.PriceMapOrBuilder;
 import net.solarnetwork.esi.domain.Uuid;
@@ -189,6 +192,32 @@ public final class ProtobufUtils {
     return new UUID(hi, lo);
   }
 
+  /**
+   * Get the signature message bytes for a {@link net.solarnetwork.esi.domain.PriceDatum}.
+   * 
+   * <p>
+   * The message is made up of the datum's start date (a long of seconds and an int of nanos), its
+   * time unit number and time length (as ints), and its apparent energy price (the currency code
+   * bytes followed by a long of units and an int of nanos, as {@link PriceComponentsEmbed} encodes
+   * prices). A route signature computed over this message is thus bound to a single datum.
+   * </p>
+   * 
+   * @param datum
+   *        the datum to get the signature message for
+   * @return the signature message bytes
+   */
+  @Nonnull
+  public static byte[] priceDatumSignatureMessageBytes(PriceDatumOrBuilder datum) {
+    final Money price = datum.getPriceComponents().getApparentEnergyPrice();
+    final byte[] cc = price.getCurrencyCode().getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buf = ByteBuffer.allocate(Long.BYTES + Integer.BYTES * 3 + cc.length + Long.BYTES
+        + Integer.BYTES);
+    buf.putLong(datum.getTs().getSeconds()).putInt(datum.getTs().getNanos());
+    buf.putInt(datum.getTimeUnitValue()).putInt(datum.getTimeLength());
+    buf.put(cc).putLong(price.getUnits()).putInt(price.getNanos());
+    return buf.array();
+  }
+
   /**
    * Derive a {@link PriceMap} from a {@link PriceMapEmbed}.
    * 
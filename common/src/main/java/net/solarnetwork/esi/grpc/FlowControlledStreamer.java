@@ -0,0 +1,221 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.grpc;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * Stream the results of a server-streaming call while honouring gRPC flow control.
+ * 
+ * <p>
+ * Results are pulled from a {@link Source} only while the call's outbound buffer is ready to accept
+ * more, and pulling resumes each time the call becomes ready again. This means a large response is
+ * never held in memory all at once, and a slow client slows down the source instead of the server
+ * buffering everything on its behalf. Use is like this:
+ * </p>
+ * 
+ * <pre>
+ * <code>
+ * public void listThings(Request request, StreamObserver&lt;Thing&gt; responseObserver) {
+ *   FlowControlledStreamer.stream(responseObserver, thingSource(request));
+ * }
+ * </code>
+ * </pre>
+ * 
+ * <p>
+ * If the source throws an {@link IllegalArgumentException} the call fails with
+ * {@link Status#INVALID_ARGUMENT}; any other exception fails it with {@link Status#INTERNAL}. If
+ * the observer is not a {@link ServerCallStreamObserver} then the source is drained in one go.
+ * </p>
+ * 
+ * @param <T>
+ *        the result type
+ * @author matt
+ * @version 1.0
+ */
+public class FlowControlledStreamer<T> implements Runnable {
+
+  /**
+   * API for a pull-based source of results.
+   * 
+   * @param <T>
+   *        the result type
+   */
+  @FunctionalInterface
+  public interface Source<T> {
+
+    /**
+     * Get the next result.
+     * 
+     * @return the next result, or {@literal null} if there are no more results
+     * @throws Exception
+     *         if any error occurs
+     */
+    T next() throws Exception;
+
+  }
+
+  private static final Logger log = LoggerFactory.getLogger(FlowControlledStreamer.class);
+
+  private final StreamObserver<T> observer;
+  private final ServerCallStreamObserver<T> serverObserver;
+  private final Source<T> source;
+  private final AtomicInteger wip = new AtomicInteger();
+  private volatile boolean cancelled;
+  private volatile boolean done;
+  private volatile long count;
+
+  /**
+   * Constructor.
+   * 
+   * @param observer
+   *        the observer to stream results to
+   * @param source
+   *        the source of results
+   * @throws IllegalArgumentException
+   *         if any parameter is {@literal null}
+   */
+  public FlowControlledStreamer(StreamObserver<T> observer, Source<T> source) {
+    super();
+    if (observer == null) {
+      throw new IllegalArgumentException("The observer must be provided.");
+    }
+    this.observer = observer;
+    if (source == null) {
+      throw new IllegalArgumentException("The source must be provided.");
+    }
+    this.source = source;
+    this.serverObserver = (observer instanceof ServerCallStreamObserver
+        ? (ServerCallStreamObserver<T>) observer
+        : null);
+  }
+
+  /**
+   * Stream all results from a source to an observer.
+   * 
+   * <p>
+   * This must be called from within the service method handling the call, so the flow control
+   * handlers can be registered.
+   * </p>
+   * 
+   * @param <T>
+   *        the result type
+   * @param observer
+   *        the observer to stream results to
+   * @param source
+   *        the source of results
+   * @return the streamer
+   */
+  public static <T> FlowControlledStreamer<T> stream(StreamObserver<T> observer,
+      Source<T> source) {
+    FlowControlledStreamer<T> streamer = new FlowControlledStreamer<>(observer, source);
+    streamer.start();
+    return streamer;
+  }
+
+  /**
+   * Register the flow control handlers and start streaming.
+   */
+  public void start() {
+    if (serverObserver != null) {
+      serverObserver.setOnCancelHandler(() -> {
+        cancelled = true;
+      });
+      serverObserver.setOnReadyHandler(this);
+    }
+    run();
+  }
+
+  /**
+   * Stream results until the call is no longer ready or all results have been streamed.
+   * 
+   * <p>
+   * This is invoked each time the call becomes ready; concurrent invocations are collapsed into one
+   * so results are always streamed by a single thread at a time.
+   * </p>
+   */
+  @Override
+  public void run() {
+    if (wip.getAndIncrement() != 0) {
+      return;
+    }
+    do {
+      drain();
+    } while (wip.decrementAndGet() != 0);
+  }
+
+  private void drain() {
+    if (done) {
+      return;
+    }
+    try {
+      while (!cancelled && (serverObserver == null || serverObserver.isReady())) {
+        T value = source.next();
+        if (value == null) {
+          done = true;
+          log.debug("Streamed {} results", count);
+          observer.onCompleted();
+          return;
+        }
+        observer.onNext(value);
+        count++;
+      }
+      if (cancelled) {
+        done = true;
+        log.debug("Streaming cancelled after {} results", count);
+      }
+    } catch (IllegalArgumentException e) {
+      done = true;
+      observer.onError(
+          Status.INVALID_ARGUMENT.withDescription(e.getMessage()).withCause(e).asException());
+    } catch (Exception e) {
+      done = true;
+      log.warn("Error streaming results after {} results: {}", count, e.toString());
+      observer
+          .onError(Status.INTERNAL.withDescription("Internal error").withCause(e).asException());
+    }
+  }
+
+  /**
+   * Get the number of results streamed so far.
+   * 
+   * @return the count
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Test if streaming has finished, because all results were streamed, the call was cancelled, or
+   * an error occurred.
+   * 
+   * @return {@literal true} if streaming has finished
+   */
+  public boolean isDone() {
+    return done;
+  }
+
+}
@@ -0,0 +1,247 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.grpc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.Marshaller;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.ServiceDescriptor;
+import io.grpc.Status;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.ServerCalls.ServerStreamingMethod;
+import io.grpc.stub.ServerCalls.UnaryMethod;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * Builder for a {@link ServerServiceDefinition} where some methods respond with pre-serialized
+ * message bytes.
+ * 
+ * <p>
+ * A service whose responses rarely change can serialize them once and then bind the affected
+ * methods here, so each call writes the cached bytes through a pass-through {@link Marshaller}
+ * instead of marshalling the same message again. Requests are still parsed with the original
+ * method's request marshaller. The bytes written must be a valid serialized form of the method's
+ * response type, so clients see no difference.
+ * </p>
+ * 
+ * <p>
+ * A typical use is to override {@code bindService()} in a generated service base class:
+ * </p>
+ * 
+ * <pre>
+ * <code>
+ * public ServerServiceDefinition bindService() {
+ *   return PreSerializedServiceDefinition.of(super.bindService())
+ *       .unary(MyServiceGrpc.getGetThingMethod(), (req, out) -&gt; {
+ *         out.onNext(cachedThingBytes);
+ *         out.onCompleted();
+ *       }).build();
+ * }
+ * </code>
+ * </pre>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public final class PreSerializedServiceDefinition {
+
+  /** A marshaller that passes serialized message bytes through unchanged. */
+  public static final Marshaller<byte[]> BYTES_MARSHALLER = new BytesMarshaller();
+
+  private final ServerServiceDefinition service;
+  private final Map<String, ServerMethodDefinition<?, ?>> methods;
+
+  private PreSerializedServiceDefinition(ServerServiceDefinition service) {
+    super();
+    this.service = service;
+    this.methods = new LinkedHashMap<>(8);
+  }
+
+  /**
+   * Create a new builder.
+   * 
+   * @param service
+   *        the service definition to replace methods in
+   * @return the builder
+   * @throws IllegalArgumentException
+   *         if {@code service} is {@literal null}
+   */
+  public static PreSerializedServiceDefinition of(ServerServiceDefinition service) {
+    if (service == null) {
+      throw new IllegalArgumentException("The service definition must be provided.");
+    }
+    return new PreSerializedServiceDefinition(service);
+  }
+
+  /**
+   * Bind a unary method to a handler that responds with serialized message bytes.
+   * 
+   * @param <ReqT>
+   *        the request type
+   * @param method
+   *        the method to bind
+   * @param handler
+   *        the handler
+   * @return this object
+   * @throws IllegalArgumentException
+   *         if {@code method} is not a unary method of the service
+   */
+  public <ReqT> PreSerializedServiceDefinition unary(MethodDescriptor<ReqT, ?> method,
+      UnaryMethod<ReqT, byte[]> handler) {
+    return bind(method, MethodDescriptor.MethodType.UNARY, ServerCalls.asyncUnaryCall(handler));
+  }
+
+  /**
+   * Bind a server streaming method to a handler that responds with serialized message bytes.
+   * 
+   * @param <ReqT>
+   *        the request type
+   * @param method
+   *        the method to bind
+   * @param handler
+   *        the handler
+   * @return this object
+   * @throws IllegalArgumentException
+   *         if {@code method} is not a server streaming method of the service
+   */
+  public <ReqT> PreSerializedServiceDefinition serverStreaming(MethodDescriptor<ReqT, ?> method,
+      ServerStreamingMethod<ReqT, byte[]> handler) {
+    return bind(method, MethodDescriptor.MethodType.SERVER_STREAMING,
+        ServerCalls.asyncServerStreamingCall(handler));
+  }
+
+  private <ReqT> PreSerializedServiceDefinition bind(MethodDescriptor<ReqT, ?> method,
+      MethodDescriptor.MethodType type, ServerCallHandler<ReqT, byte[]> handler) {
+    if (method == null || service.getMethod(method.getFullMethodName()) == null) {
+      throw new IllegalArgumentException("The method must be part of the service.");
+    }
+    if (method.getType() != type) {
+      throw new IllegalArgumentException(
+          "The method " + method.getFullMethodName() + " is not " + type + ".");
+    }
+    MethodDescriptor<ReqT, byte[]> bytesMethod = method
+        .toBuilder(method.getRequestMarshaller(), BYTES_MARSHALLER).build();
+    methods.put(method.getFullMethodName(), ServerMethodDefinition.create(bytesMethod, handler));
+    return this;
+  }
+
+  /**
+   * Build the service definition.
+   * 
+   * @return the new service definition, with all methods not bound by this builder unchanged
+   */
+  public ServerServiceDefinition build() {
+    ServiceDescriptor orig = service.getServiceDescriptor();
+    ServiceDescriptor.Builder desc = ServiceDescriptor.newBuilder(orig.getName())
+        .setSchemaDescriptor(orig.getSchemaDescriptor());
+    Map<String, ServerMethodDefinition<?, ?>> all = new LinkedHashMap<>(
+        service.getMethods().size());
+    for (ServerMethodDefinition<?, ?> m : service.getMethods()) {
+      String name = m.getMethodDescriptor().getFullMethodName();
+      ServerMethodDefinition<?, ?> bound = methods.get(name);
+      all.put(name, bound != null ? bound : m);
+    }
+    for (ServerMethodDefinition<?, ?> m : all.values()) {
+      desc.addMethod(m.getMethodDescriptor());
+    }
+    ServerServiceDefinition.Builder def = ServerServiceDefinition.builder(desc.build());
+    for (ServerMethodDefinition<?, ?> m : all.values()) {
+      def.addMethod(m);
+    }
+    return def.build();
+  }
+
+  /**
+   * Respond to a unary call with serialized message bytes.
+   * 
+   * <p>
+   * If {@code bytes} is {@literal null} the call fails with {@link Status#NOT_FOUND}.
+   * </p>
+   * 
+   * @param bytes
+   *        the serialized message
+   * @param out
+   *        the response observer
+   */
+  public static void respond(byte[] bytes, StreamObserver<byte[]> out) {
+    if (bytes == null) {
+      out.onError(Status.NOT_FOUND.asException());
+      return;
+    }
+    out.onNext(bytes);
+    out.onCompleted();
+  }
+
+  private static final class BytesMarshaller implements Marshaller<byte[]> {
+
+    @Override
+    public InputStream stream(byte[] value) {
+      return new BytesInputStream(value);
+    }
+
+    @Override
+    public byte[] parse(InputStream stream) {
+      try {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(stream.available(), 32));
+        byte[] buf = new byte[4096];
+        int len;
+        while ((len = stream.read(buf)) >= 0) {
+          out.write(buf, 0, len);
+        }
+        return out.toByteArray();
+      } catch (IOException e) {
+        throw Status.INTERNAL.withDescription("Error reading message.").withCause(e)
+            .asRuntimeException();
+      }
+    }
+
+  }
+
+  /**
+   * Input stream over a byte array that gRPC can size and copy directly to the transport.
+   */
+  private static final class BytesInputStream extends ByteArrayInputStream
+      implements KnownLength, Drainable {
+
+    private BytesInputStream(byte[] buf) {
+      super(buf);
+    }
+
+    @Override
+    public int drainTo(OutputStream target) throws IOException {
+      int len = count - pos;
+      target.write(buf, pos, len);
+      pos = count;
+      return len;
+    }
+
+  }
+
+}
@@ -0,0 +1,303 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.util;
+
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.TaskScheduler;
+
+/**
+ * Publishes the latest value of each key through an asynchronous sender, coalescing values that
+ * arrive while an earlier value for the same key is still being sent.
+ * 
+ * <p>
+ * At most one send is in flight for any given key, and only the most recent value published for a
+ * key is sent once that send completes, so the receiver observes the values for a key in the order
+ * they were published, minus any superseded in between. The number of sends in flight across all
+ * keys is bounded, and keys waiting for a free slot are served in the order they became ready.
+ * </p>
+ * 
+ * <p>
+ * Failed sends are retried with exponential back-off using a {@link TaskScheduler}, up to a
+ * maximum number of attempts. If a newer value is published while a retry is pending, the retry
+ * sends the newer value instead. A send that fails with an {@link IllegalArgumentException} is not
+ * retried.
+ * </p>
+ * 
+ * @param <K>
+ *        the key type
+ * @param <V>
+ *        the value type
+ * @author matt
+ * @version 1.0
+ */
+public class CoalescingPublisher<K, V> {
+
+  /** The default maximum number of sends in flight. */
+  public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+
+  /** The default maximum number of send attempts for a value. */
+  public static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+  /** The default initial retry delay, in milliseconds. */
+  public static final long DEFAULT_RETRY_DELAY_MS = 500L;
+
+  /** The default maximum retry delay, in milliseconds. */
+  public static final long DEFAULT_MAX_RETRY_DELAY_MS = 30000L;
+
+  /**
+   * API for sending a single value.
+   * 
+   * @param <K>
+   *        the key type
+   * @param <V>
+   *        the value type
+   */
+  @FunctionalInterface
+  public interface Sender<K, V> {
+
+    /**
+     * Send a value without blocking.
+     * 
+     * @param key
+     *        the key
+     * @param value
+     *        the value to send
+     * @return a future that completes when the value has been sent
+     */
+    CompletableFuture<?> send(K key, V value);
+
+  }
+
+  private static final Logger log = LoggerFactory.getLogger(CoalescingPublisher.class);
+
+  private final TaskScheduler taskScheduler;
+  private final Sender<K, V> sender;
+
+  // the following are guarded by this
+  private final Map<K, Slot> slots;
+  private final Queue<K> ready;
+  private int inFlight;
+
+  private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+  private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+  private long retryDelayMs = DEFAULT_RETRY_DELAY_MS;
+  private long maxRetryDelayMs = DEFAULT_MAX_RETRY_DELAY_MS;
+
+  private final class Slot {
+
+    private V value;
+    private boolean busy;
+    private int attempts;
+
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param taskScheduler
+   *        the scheduler to retry failed sends with
+   * @param sender
+   *        the sender to publish values with
+   * @throws IllegalArgumentException
+   *         if any argument is {@literal null}
+   */
+  public CoalescingPublisher(TaskScheduler taskScheduler, Sender<K, V> sender) {
+    super();
+    if (taskScheduler == null) {
+      throw new IllegalArgumentException("The task scheduler must be provided.");
+    }
+    if (sender == null) {
+      throw new IllegalArgumentException("The sender must be provided.");
+    }
+    this.taskScheduler = taskScheduler;
+    this.sender = sender;
+    this.slots = new HashMap<>(16);
+    this.ready = new ArrayDeque<>(16);
+  }
+
+  /**
+   * Publish a value, replacing any value for the same key that has not been sent yet.
+   * 
+   * <p>
+   * This method does not block on the sender.
+   * </p>
+   * 
+   * @param key
+   *        the key
+   * @param value
+   *        the value
+   */
+  public void publish(K key, V value) {
+    if (key == null || value == null) {
+      throw new IllegalArgumentException("The key and value must be provided.");
+    }
+    synchronized (this) {
+      Slot slot = slots.computeIfAbsent(key, k -> new Slot());
+      boolean idle = (slot.value == null && !slot.busy);
+      slot.value = value;
+      if (idle) {
+        ready.add(key);
+      }
+    }
+    dispatch();
+  }
+
+  private void dispatch() {
+    while (true) {
+      K key;
+      V value;
+      synchronized (this) {
+        if (inFlight >= maxInFlight || ready.isEmpty()) {
+          return;
+        }
+        key = ready.poll();
+        Slot slot = slots.get(key);
+        value = slot.value;
+        slot.value = null;
+        slot.busy = true;
+        inFlight++;
+      }
+      send(key, value);
+    }
+  }
+
+  private void send(K key, V value) {
+    CompletableFuture<?> f;
+    try {
+      f = sender.send(key, value);
+    } catch (RuntimeException e) {
+      CompletableFuture<Object> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+      f = failed;
+    }
+    f.whenComplete((r, t) -> sent(key, value, t));
+  }
+
+  private void sent(K key, V value, Throwable t) {
+    Throwable cause = (t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+    long retryDelay = 0;
+    synchronized (this) {
+      inFlight--;
+      Slot slot = slots.get(key);
+      slot.attempts++;
+      if (cause != null && !(cause instanceof IllegalArgumentException)
+          && slot.attempts < maxAttempts) {
+        if (slot.value == null) {
+          slot.value = value;
+        }
+        retryDelay = Math.min(retryDelayMs << Math.min(slot.attempts - 1, 30), maxRetryDelayMs);
+      } else {
+        if (cause != null) {
+          log.warn("Giving up publishing {} for {} after {} attempts: {}", value, key,
+              slot.attempts, cause.toString());
+        }
+        slot.attempts = 0;
+        slot.busy = false;
+        if (slot.value != null) {
+          ready.add(key);
+        } else {
+          slots.remove(key);
+        }
+      }
+    }
+    if (retryDelay > 0) {
+      log.info("Retrying publish of {} in {}ms after attempt failed: {}", key, retryDelay,
+          cause.toString());
+      taskScheduler.schedule(() -> retry(key),
+          new Date(System.currentTimeMillis() + retryDelay));
+    }
+    dispatch();
+  }
+
+  private void retry(K key) {
+    synchronized (this) {
+      Slot slot = slots.get(key);
+      slot.busy = false;
+      ready.add(key);
+    }
+    dispatch();
+  }
+
+  /**
+   * Get the number of keys with a value waiting to be sent, being sent, or waiting to be retried.
+   * 
+   * @return the number of keys
+   */
+  public synchronized int getPendingCount() {
+    return slots.size();
+  }
+
+  /**
+   * Get the number of sends in flight.
+   * 
+   * @return the number of sends
+   */
+  public synchronized int getInFlightCount() {
+    return inFlight;
+  }
+
+  /**
+   * Set the maximum number of sends to have in flight at once.
+   * 
+   * @param maxInFlight
+   *        the maximum; defaults to {@link #DEFAULT_MAX_IN_FLIGHT}
+   */
+  public synchronized void setMaxInFlight(int maxInFlight) {
+    this.maxInFlight = Math.max(1, maxInFlight);
+  }
+
+  /**
+   * Set the maximum number of attempts to send a value.
+   * 
+   * @param maxAttempts
+   *        the maximum; defaults to {@link #DEFAULT_MAX_ATTEMPTS}
+   */
+  public synchronized void setMaxAttempts(int maxAttempts) {
+    this.maxAttempts = Math.max(1, maxAttempts);
+  }
+
+  /**
+   * Set the delay before the first retry of a failed send, which doubles for each further retry.
+   * 
+   * @param retryDelayMs
+   *        the delay, in milliseconds; defaults to {@link #DEFAULT_RETRY_DELAY_MS}
+   */
+  public synchronized void setRetryDelayMs(long retryDelayMs) {
+    this.retryDelayMs = Math.max(1, retryDelayMs);
+  }
+
+  /**
+   * Set the maximum delay between retries of a failed send.
+   * 
+   * @param maxRetryDelayMs
+   *        the maximum delay, in milliseconds; defaults to {@link #DEFAULT_MAX_RETRY_DELAY_MS}
+   */
+  public synchronized void setMaxRetryDelayMs(long maxRetryDelayMs) {
+    this.maxRetryDelayMs = Math.max(1, maxRetryDelayMs);
+  }
+
+}
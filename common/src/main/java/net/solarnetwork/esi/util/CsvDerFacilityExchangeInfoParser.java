@@ -17,12 +17,22 @@
 
 package net.solarnetwork.esi.util;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.Reader;
-import java.time.Instant;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import net.solarnetwork.esi.domain.DerFacilityExchangeInfo;
+import net.solarnetwork.esi.domain.DerProgramType;
+import net.solarnetwork.esi.domain.LatLng;
+import net.solarnetwork.esi.domain.Location;
 
 /**
  * Parse {@link DerFacilityExchangeInfo} data from a CSV resource.
@@ -40,13 +50,48 @@ import net.solarnetwork.esi.domain.DerFacilityExchangeInfo;
  * <dd>The gRPC-compliant URI of the DER exchange to use.</dd>
  * </dl>
  * 
+ * <p>
+ * The following optional CSV column names are also supported:
+ * </p>
+ * 
+ * <dl>
+ * <dt>programTypes</dt>
+ * <dd>A space or semicolon delimited list of supported {@link DerProgramType} names.</dd>
+ * <dt>country</dt>
+ * <dd>The location country code.</dd>
+ * <dt>region</dt>
+ * <dd>The location region.</dd>
+ * <dt>stateProvince</dt>
+ * <dd>The location state or province.</dd>
+ * <dt>postalCode</dt>
+ * <dd>The location postal code.</dd>
+ * <dt>lat</dt>
+ * <dd>The location latitude, in degrees.</dd>
+ * <dt>lng</dt>
+ * <dd>The location longitude, in degrees.</dd>
+ * </dl>
+ * 
+ * <p>
+ * Rows missing a required column, or with invalid program types or coordinates, are skipped. The
+ * data is read with a {@link CsvRecordReader}, one row at a time, so any number of rows can be
+ * parsed without buffering them.
+ * </p>
+ * 
  * @author matt
  * @version 1.0
  */
 public class CsvDerFacilityExchangeInfoParser
-    extends AbstractCsvIteratorParser<DerFacilityExchangeInfo> {
+    implements Iterable<DerFacilityExchangeInfo>, Closeable {
+
+  private static final Logger log = LoggerFactory
+      .getLogger(CsvDerFacilityExchangeInfoParser.class);
+
+  private static final Pattern LIST_DELIMITER = Pattern.compile("[\\s;]+");
 
+  private final CsvRecordReader reader;
   private final DerFacilityExchangeInfo.Builder builder;
+  private final Location.Builder locationBuilder;
+  private int[] columns;
 
   /**
    * Constructor.
@@ -55,8 +100,10 @@ public class CsvDerFacilityExchangeInfoParser
    *        the CSV data to parse
    */
   public CsvDerFacilityExchangeInfoParser(Reader in) {
-    super(in);
+    super();
+    reader = new CsvRecordReader(in);
     builder = DerFacilityExchangeInfo.newBuilder();
+    locationBuilder = Location.newBuilder();
   }
 
   public static enum Columns {
@@ -65,7 +112,21 @@ public class CsvDerFacilityExchangeInfoParser
 
     UID("uid"),
 
-    URI("uri");
+    URI("uri"),
+
+    PROGRAM_TYPES("programTypes"),
+
+    COUNTRY("country"),
+
+    REGION("region"),
+
+    STATE_PROVINCE("stateProvince"),
+
+    POSTAL_CODE("postalCode"),
+
+    LATITUDE("lat"),
+
+    LONGITUDE("lng");
 
     private final String key;
 
@@ -80,15 +141,138 @@ public class CsvDerFacilityExchangeInfoParser
   }
 
   @Override
-  protected DerFacilityExchangeInfo parseRow(Instant start, Map<Integer, String> headers,
-      Map<String, String> row) throws IOException {
+  public Iterator<DerFacilityExchangeInfo> iterator() {
+    return new InfoIterator();
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  private void readHeader() throws IOException {
+    columns = new int[Columns.values().length];
+    Arrays.fill(columns, -1);
+    if (!reader.next()) {
+      throw new IOException("CSV headers not available");
+    }
+    for (int i = 0, len = reader.size(); i < len; i++) {
+      String header = reader.get(i);
+      for (Columns col : Columns.values()) {
+        if (col.getKey().equals(header != null ? header.trim() : null)) {
+          columns[col.ordinal()] = i;
+        }
+      }
+    }
+  }
+
+  private String value(Columns col) {
+    return reader.get(columns[col.ordinal()]);
+  }
+
+  private DerFacilityExchangeInfo parseRow() {
+    String name = value(Columns.NAME);
+    String uid = value(Columns.UID);
+    String uri = value(Columns.URI);
+    if (name == null || uid == null || uri == null) {
+      log.warn("Skipping CSV row {} missing a name, uid, or uri.", reader.getRecordNumber());
+      return null;
+    }
     builder.clear();
     // @formatter:off
-    builder.setName(row.get(Columns.NAME.getKey()))
-      .setUid(row.get(Columns.UID.getKey()))
-      .setEndpointUri(row.get(Columns.URI.getKey()));
+    builder.setName(name)
+      .setUid(uid)
+      .setEndpointUri(uri);
     // @formatter:on
+    try {
+      String programTypes = value(Columns.PROGRAM_TYPES);
+      if (programTypes != null && !programTypes.trim().isEmpty()) {
+        for (String type : LIST_DELIMITER.split(programTypes.trim())) {
+          builder.addProgramTypes(DerProgramType.valueOf(type.toUpperCase(Locale.ENGLISH)));
+        }
+      }
+      if (parseLocation()) {
+        builder.setLocation(locationBuilder);
+      }
+    } catch (IllegalArgumentException e) {
+      log.warn("Skipping exchange [{}] with invalid data: {}", uid, e.getMessage());
+      return null;
+    }
     return builder.build();
   }
 
+  private boolean parseLocation() {
+    locationBuilder.clear();
+    boolean empty = true;
+    String val = value(Columns.COUNTRY);
+    if (val != null) {
+      locationBuilder.setCountry(val);
+      empty = false;
+    }
+    val = value(Columns.REGION);
+    if (val != null) {
+      locationBuilder.setRegion(val);
+      empty = false;
+    }
+    val = value(Columns.STATE_PROVINCE);
+    if (val != null) {
+      locationBuilder.setStateProvince(val);
+      empty = false;
+    }
+    val = value(Columns.POSTAL_CODE);
+    if (val != null) {
+      locationBuilder.setPostalCode(val);
+      empty = false;
+    }
+    String lat = value(Columns.LATITUDE);
+    String lng = value(Columns.LONGITUDE);
+    if (lat != null && lng != null) {
+      double latitude = Double.parseDouble(lat);
+      double longitude = Double.parseDouble(lng);
+      if (Math.abs(latitude) > 90.0 || Math.abs(longitude) > 180.0) {
+        throw new IllegalArgumentException("Coordinate " + lat + "," + lng + " out of range.");
+      }
+      locationBuilder
+          .setLatlng(LatLng.newBuilder().setLatitude(latitude).setLongitude(longitude));
+      empty = false;
+    }
+    return !empty;
+  }
+
+  private class InfoIterator implements Iterator<DerFacilityExchangeInfo> {
+
+    private DerFacilityExchangeInfo next;
+    private boolean done;
+
+    @Override
+    public boolean hasNext() {
+      if (next == null && !done) {
+        try {
+          if (columns == null) {
+            readHeader();
+          }
+          // read in rows of data until we parse a non-null value
+          while (next == null && reader.next()) {
+            next = parseRow();
+          }
+        } catch (IOException e) {
+          log.warn("IO error reading CSV DerFacilityExchangeInfo data: {}", e.getMessage());
+        }
+        done = (next == null);
+      }
+      return next != null;
+    }
+
+    @Override
+    public DerFacilityExchangeInfo next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      DerFacilityExchangeInfo result = next;
+      next = null;
+      return result;
+    }
+
+  }
+
 }
@@ -0,0 +1,211 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Streaming reader of CSV records.
+ * 
+ * <p>
+ * Records are read one at a time into a field array that is reused for every record, so the only
+ * per-field allocation is the field string itself, and empty fields are returned as
+ * {@literal null} without allocating anything. Fields may be quoted with {@literal "} characters,
+ * and quoted fields may contain delimiters, line breaks, and doubled {@literal ""} quotes.
+ * </p>
+ * 
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class CsvRecordReader implements Closeable {
+
+  private static final int EOF = -1;
+
+  private final Reader in;
+  private final char[] buf;
+  private final StringBuilder field = new StringBuilder(64);
+  private int pos;
+  private int limit;
+  private String[] fields = new String[16];
+  private int size;
+  private long recordNumber;
+
+  /**
+   * Constructor.
+   * 
+   * @param in
+   *        the CSV data to read
+   */
+  public CsvRecordReader(Reader in) {
+    this(in, 8192);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param in
+   *        the CSV data to read
+   * @param bufferSize
+   *        the read buffer size
+   */
+  public CsvRecordReader(Reader in, int bufferSize) {
+    super();
+    if (in == null) {
+      throw new IllegalArgumentException("The input must be provided.");
+    }
+    this.in = in;
+    this.buf = new char[bufferSize];
+  }
+
+  private int read() throws IOException {
+    if (pos >= limit) {
+      limit = in.read(buf, 0, buf.length);
+      pos = 0;
+      if (limit < 1) {
+        limit = 0;
+        return EOF;
+      }
+    }
+    return buf[pos++];
+  }
+
+  private int peek() throws IOException {
+    int c = read();
+    if (c != EOF) {
+      pos--;
+    }
+    return c;
+  }
+
+  /**
+   * Read the next record.
+   * 
+   * <p>
+   * Blank lines are skipped.
+   * </p>
+   * 
+   * @return {@literal true} if a record was read, {@literal false} at the end of the input
+   * @throws IOException
+   *         if any IO error occurs
+   */
+  public boolean next() throws IOException {
+    while (true) {
+      size = 0;
+      int c = read();
+      if (c == EOF) {
+        return false;
+      }
+      if (c == '\r' || c == '\n') {
+        if (c == '\r' && peek() == '\n') {
+          read();
+        }
+        continue;
+      }
+      pos--;
+      readRecord();
+      recordNumber++;
+      return true;
+    }
+  }
+
+  private void readRecord() throws IOException {
+    while (true) {
+      field.setLength(0);
+      int c = read();
+      if (c == '"') {
+        // quoted field
+        while (true) {
+          c = read();
+          if (c == EOF) {
+            break;
+          } else if (c == '"') {
+            if (peek() == '"') {
+              field.append((char) read());
+            } else {
+              c = read();
+              break;
+            }
+          } else {
+            field.append((char) c);
+          }
+        }
+      }
+      while (c != ',' && c != '\r' && c != '\n' && c != EOF) {
+        field.append((char) c);
+        c = read();
+      }
+      addField();
+      if (c == ',') {
+        continue;
+      }
+      if (c == '\r' && peek() == '\n') {
+        read();
+      }
+      return;
+    }
+  }
+
+  private void addField() {
+    if (size == fields.length) {
+      fields = Arrays.copyOf(fields, size * 2);
+    }
+    fields[size++] = (field.length() > 0 ? field.toString() : null);
+  }
+
+  /**
+   * Get the number of fields in the current record.
+   * 
+   * @return the number of fields
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get a field value from the current record.
+   * 
+   * @param index
+   *        the 0-based field index
+   * @return the value, or {@literal null} if the field is empty or not present
+   */
+  public String get(int index) {
+    return (index >= 0 && index < size ? fields[index] : null);
+  }
+
+  /**
+   * Get the current record number.
+   * 
+   * @return the 1-based number of the current record, or {@literal 0} before the first record
+   */
+  public long getRecordNumber() {
+    return recordNumber;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+}
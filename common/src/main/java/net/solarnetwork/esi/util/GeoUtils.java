@@ -0,0 +1,168 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.util;
+
+import net.solarnetwork.esi.domain.LatLng;
+
+/**
+ * Utilities for dealing with geographic coordinates.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public final class GeoUtils {
+
+  /** The mean radius of the Earth, in meters. */
+  public static final double EARTH_RADIUS_METERS = 6_371_008.8;
+
+  /** The maximum supported geohash precision. */
+  public static final int MAX_GEOHASH_PRECISION = 12;
+
+  private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+  private GeoUtils() {
+    // not available
+  }
+
+  /**
+   * Encode a coordinate as a geohash.
+   * 
+   * @param latitude
+   *        the latitude, in degrees
+   * @param longitude
+   *        the longitude, in degrees
+   * @param precision
+   *        the number of geohash characters to generate, from 1 to
+   *        {@link #MAX_GEOHASH_PRECISION}
+   * @return the geohash
+   * @throws IllegalArgumentException
+   *         if {@code precision} is out of range
+   */
+  public static String geohash(double latitude, double longitude, int precision) {
+    if (precision < 1 || precision > MAX_GEOHASH_PRECISION) {
+      throw new IllegalArgumentException("The precision must be between 1 and "
+          + MAX_GEOHASH_PRECISION + ".");
+    }
+    double minLat = -90.0;
+    double maxLat = 90.0;
+    double minLng = -180.0;
+    double maxLng = 180.0;
+    char[] result = new char[precision];
+    boolean lngBit = true;
+    for (int i = 0; i < precision; i++) {
+      int ch = 0;
+      for (int b = 0; b < 5; b++) {
+        ch <<= 1;
+        if (lngBit) {
+          double mid = (minLng + maxLng) / 2;
+          if (longitude >= mid) {
+            ch |= 1;
+            minLng = mid;
+          } else {
+            maxLng = mid;
+          }
+        } else {
+          double mid = (minLat + maxLat) / 2;
+          if (latitude >= mid) {
+            ch |= 1;
+            minLat = mid;
+          } else {
+            maxLat = mid;
+          }
+        }
+        lngBit = !lngBit;
+      }
+      result[i] = BASE32[ch];
+    }
+    return new String(result);
+  }
+
+  /**
+   * Encode a coordinate as a geohash.
+   * 
+   * @param latLng
+   *        the coordinate
+   * @param precision
+   *        the number of geohash characters to generate
+   * @return the geohash
+   * @see #geohash(double, double, int)
+   */
+  public static String geohash(LatLng latLng, int precision) {
+    return geohash(latLng.getLatitude(), latLng.getLongitude(), precision);
+  }
+
+  /**
+   * Get the height of a geohash cell.
+   * 
+   * @param precision
+   *        the geohash precision
+   * @return the cell height, in degrees of latitude
+   */
+  public static double geohashCellHeight(int precision) {
+    return 180.0 / (1L << ((precision * 5) / 2));
+  }
+
+  /**
+   * Get the width of a geohash cell.
+   * 
+   * @param precision
+   *        the geohash precision
+   * @return the cell width, in degrees of longitude
+   */
+  public static double geohashCellWidth(int precision) {
+    return 360.0 / (1L << ((precision * 5 + 1) / 2));
+  }
+
+  /**
+   * Get the great-circle distance between two coordinates.
+   * 
+   * @param fromLatitude
+   *        the first coordinate latitude, in degrees
+   * @param fromLongitude
+   *        the first coordinate longitude, in degrees
+   * @param toLatitude
+   *        the second coordinate latitude, in degrees
+   * @param toLongitude
+   *        the second coordinate longitude, in degrees
+   * @return the distance, in meters
+   */
+  public static double distance(double fromLatitude, double fromLongitude, double toLatitude,
+      double toLongitude) {
+    double lat1 = Math.toRadians(fromLatitude);
+    double lat2 = Math.toRadians(toLatitude);
+    double sinLat = Math.sin((lat2 - lat1) / 2);
+    double sinLng = Math.sin(Math.toRadians(toLongitude - fromLongitude) / 2);
+    double a = sinLat * sinLat + Math.cos(lat1) * Math.cos(lat2) * sinLng * sinLng;
+    return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1.0, Math.sqrt(a)));
+  }
+
+  /**
+   * Get the great-circle distance between two coordinates.
+   * 
+   * @param from
+   *        the first coordinate
+   * @param to
+   *        the second coordinate
+   * @return the distance, in meters
+   */
+  public static double distance(LatLng from, LatLng to) {
+    return distance(from.getLatitude(), from.getLongitude(), to.getLatitude(),
+        to.getLongitude());
+  }
+
+}
@@ -0,0 +1,191 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.util;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes tasks on a delegate {@link Executor}, running tasks that share a key one at a time in
+ * submission order while tasks for different keys run in parallel.
+ * 
+ * <p>
+ * Each key with pending tasks occupies at most one thread of the delegate executor. After each
+ * task completes the key is resubmitted to the delegate, so a key with a long queue does not
+ * starve other keys. Keys without any pending tasks are discarded, so the number of keys tracked
+ * is bounded by the number of keys with pending work.
+ * </p>
+ * 
+ * @param <K>
+ *        the key type
+ * @author matt
+ * @version 1.0
+ */
+public class KeyedSerialExecutor<K> {
+
+  private static final Logger log = LoggerFactory.getLogger(KeyedSerialExecutor.class);
+
+  private final Executor executor;
+  private final ConcurrentMap<K, KeyQueue> queues;
+
+  /**
+   * Constructor.
+   * 
+   * @param executor
+   *        the executor to run tasks with
+   * @throws IllegalArgumentException
+   *         if {@code executor} is {@literal null}
+   */
+  public KeyedSerialExecutor(Executor executor) {
+    super();
+    if (executor == null) {
+      throw new IllegalArgumentException("The executor must be provided.");
+    }
+    this.executor = executor;
+    this.queues = new ConcurrentHashMap<>(16, 0.75f, 4);
+  }
+
+  private final class KeyQueue implements Runnable {
+
+    private final K key;
+
+    // the following are only modified within a ConcurrentMap.compute() call for the key
+    private final Queue<Runnable> tasks;
+    private Runnable active;
+    private volatile int size;
+
+    private KeyQueue(K key) {
+      super();
+      this.key = key;
+      this.tasks = new ArrayDeque<>(4);
+    }
+
+    @Override
+    public void run() {
+      Runnable task = active;
+      try {
+        task.run();
+      } catch (Throwable t) {
+        log.error("Task for key {} threw an exception", key, t);
+      }
+      queues.computeIfPresent(key, (k, q) -> {
+        q.active = q.tasks.poll();
+        q.size = q.tasks.size() + (q.active != null ? 1 : 0);
+        return (q.active != null ? q : null);
+      });
+      if (active != null) {
+        submit();
+      }
+    }
+
+    private void submit() {
+      try {
+        executor.execute(this);
+      } catch (RejectedExecutionException e) {
+        queues.computeIfPresent(key, (k, q) -> {
+          q.active = null;
+          q.tasks.clear();
+          q.size = 0;
+          return null;
+        });
+        throw e;
+      }
+    }
+
+  }
+
+  /**
+   * Execute a task after all tasks previously submitted with the same key have completed.
+   * 
+   * <p>
+   * Exceptions thrown by {@code task} are logged and do not prevent later tasks for the same key
+   * from running.
+   * </p>
+   * 
+   * @param key
+   *        the key to serialize the task with
+   * @param task
+   *        the task to execute
+   * @throws RejectedExecutionException
+   *         if the delegate executor rejects the task; any other tasks pending for the same key
+   *         are discarded as well
+   */
+  public void execute(K key, Runnable task) {
+    if (key == null || task == null) {
+      throw new IllegalArgumentException("The key and task must be provided.");
+    }
+    final boolean[] start = new boolean[] { false };
+    KeyQueue queue = queues.compute(key, (k, q) -> {
+      KeyQueue result = (q != null ? q : new KeyQueue(k));
+      if (result.active == null) {
+        result.active = task;
+        start[0] = true;
+      } else {
+        result.tasks.add(task);
+      }
+      result.size++;
+      return result;
+    });
+    if (start[0]) {
+      queue.submit();
+    }
+  }
+
+  /**
+   * Get the number of tasks waiting for or running on a key.
+   * 
+   * @param key
+   *        the key to get the queue size for
+   * @return the number of tasks
+   */
+  public int getQueueSize(K key) {
+    KeyQueue q = queues.get(key);
+    return (q != null ? q.size : 0);
+  }
+
+  /**
+   * Get the number of tasks waiting for or running on any key.
+   * 
+   * @return the number of tasks
+   */
+  public int getQueuedCount() {
+    int count = 0;
+    for (KeyQueue q : queues.values()) {
+      count += q.size;
+    }
+    return count;
+  }
+
+  /**
+   * Get the number of keys with tasks waiting or running.
+   * 
+   * @return the number of keys
+   */
+  public int getActiveKeyCount() {
+    return queues.size();
+  }
+
+}
@@ -0,0 +1,280 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A concurrent, bounded cache of recently seen keys, backed by a Bloom filter over a larger window
+ * of recent keys.
+ * 
+ * <p>
+ * The cache holds a value for at most {@code capacity} keys, evicting the oldest keys first. Every
+ * key added is also added to the Bloom filter, which remembers keys long after they have been
+ * evicted from the cache. {@link #mightContain(Object)} never returns {@literal false} for a key
+ * added within the last {@code filterCapacity} keys, but may return {@literal true} for a key that
+ * was never added, so callers must confirm a positive result against some authoritative store.
+ * </p>
+ * 
+ * <p>
+ * The Bloom filter is split into two generations of {@code filterCapacity} keys each. Once the
+ * current generation is full it becomes the previous generation, and the oldest generation is
+ * discarded, so the false positive rate stays bounded no matter how many keys are added.
+ * </p>
+ * 
+ * @param <K>
+ *        the key type
+ * @param <V>
+ *        the value type
+ * @author matt
+ * @version 1.0
+ */
+public class RecentKeyCache<K, V> {
+
+  /** The default maximum number of keys to cache values for. */
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  /** The default number of keys each Bloom filter generation holds. */
+  public static final int DEFAULT_FILTER_CAPACITY = 65536;
+
+  /** The default false positive rate of each Bloom filter generation. */
+  public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+  private final int capacity;
+  private final int filterCapacity;
+  private final int bitCount;
+  private final int hashCount;
+  private final ConcurrentMap<K, V> entries;
+  private final Queue<K> order;
+  private volatile Generation current;
+  private volatile Generation previous;
+
+  /**
+   * Constructor.
+   * 
+   * <p>
+   * The default capacity, filter capacity, and false positive rate will be used.
+   * </p>
+   */
+  public RecentKeyCache() {
+    this(DEFAULT_CAPACITY, DEFAULT_FILTER_CAPACITY, DEFAULT_FALSE_POSITIVE_RATE);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param capacity
+   *        the maximum number of keys to cache values for
+   * @param filterCapacity
+   *        the number of keys each Bloom filter generation holds
+   * @param falsePositiveRate
+   *        the desired false positive rate of each Bloom filter generation, between {@literal 0}
+   *        and {@literal 1}
+   * @throws IllegalArgumentException
+   *         if any argument is out of range
+   */
+  public RecentKeyCache(int capacity, int filterCapacity, double falsePositiveRate) {
+    super();
+    if (capacity < 1) {
+      throw new IllegalArgumentException("The capacity must be greater than zero.");
+    }
+    if (filterCapacity < 1) {
+      throw new IllegalArgumentException("The filter capacity must be greater than zero.");
+    }
+    if (!(falsePositiveRate > 0.0 && falsePositiveRate < 1.0)) {
+      throw new IllegalArgumentException("The false positive rate must be between 0 and 1.");
+    }
+    this.capacity = capacity;
+    this.filterCapacity = filterCapacity;
+    double ln2 = Math.log(2.0);
+    long bits = (long) Math.ceil(-filterCapacity * Math.log(falsePositiveRate) / (ln2 * ln2));
+    bits = Math.min(Math.max(64L, (bits + 63L) & ~63L), 1L << 30);
+    this.bitCount = (int) bits;
+    this.hashCount = Math.max(1, (int) Math.round((double) bits / filterCapacity * ln2));
+    this.entries = new ConcurrentHashMap<>(Math.min(capacity, DEFAULT_CAPACITY));
+    this.order = new ConcurrentLinkedQueue<>();
+    this.current = new Generation(bitCount);
+    this.previous = new Generation(bitCount);
+  }
+
+  /**
+   * Get the value cached for a key.
+   * 
+   * @param key
+   *        the key to look up
+   * @return the cached value, or {@literal null} if the key is not cached
+   */
+  public V get(K key) {
+    return entries.get(key);
+  }
+
+  /**
+   * Test if a key might have been added recently.
+   * 
+   * @param key
+   *        the key to test
+   * @return {@literal false} if the key has definitely not been added recently, {@literal true} if
+   *         it might have been
+   */
+  public boolean mightContain(K key) {
+    if (entries.containsKey(key)) {
+      return true;
+    }
+    final long hash = hash(key);
+    return current.mightContain(hash, bitCount, hashCount)
+        || previous.mightContain(hash, bitCount, hashCount);
+  }
+
+  /**
+   * Add a key to the Bloom filter only, without caching a value for it.
+   * 
+   * <p>
+   * This can be used to seed the filter with keys known to exist in an authoritative store.
+   * </p>
+   * 
+   * @param key
+   *        the key to add
+   */
+  public void add(K key) {
+    final Generation gen = current;
+    gen.add(hash(key), bitCount, hashCount);
+    if (gen.count.incrementAndGet() >= filterCapacity) {
+      rotate(gen);
+    }
+  }
+
+  /**
+   * Add a key to the Bloom filter and cache a value for it.
+   * 
+   * <p>
+   * If adding the key causes the cache to exceed its capacity, the oldest cached keys are evicted.
+   * Evicted keys remain in the Bloom filter.
+   * </p>
+   * 
+   * @param key
+   *        the key to add
+   * @param value
+   *        the value to cache
+   */
+  public void put(K key, V value) {
+    add(key);
+    if (entries.put(key, value) == null) {
+      order.add(key);
+      while (entries.size() > capacity) {
+        K oldest = order.poll();
+        if (oldest == null) {
+          break;
+        }
+        entries.remove(oldest);
+      }
+    }
+  }
+
+  /**
+   * Get the number of keys with cached values.
+   * 
+   * @return the number of cached keys
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Get the number of bits used by each Bloom filter generation.
+   * 
+   * @return the number of bits
+   */
+  public int getFilterBitCount() {
+    return bitCount;
+  }
+
+  /**
+   * Get the number of hash functions used by the Bloom filter.
+   * 
+   * @return the number of hash functions
+   */
+  public int getFilterHashCount() {
+    return hashCount;
+  }
+
+  private synchronized void rotate(Generation full) {
+    if (current == full) {
+      previous = full;
+      current = new Generation(bitCount);
+    }
+  }
+
+  private static long hash(Object key) {
+    // the MurmurHash3 64-bit finalizer, to spread weak hash codes over all bits
+    long h = key.hashCode();
+    h ^= (h >>> 33);
+    h *= 0xff51afd7ed558ccdL;
+    h ^= (h >>> 33);
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= (h >>> 33);
+    return h;
+  }
+
+  /**
+   * A single Bloom filter generation.
+   */
+  private static final class Generation {
+
+    private final AtomicLongArray bits;
+    private final AtomicInteger count = new AtomicInteger();
+
+    private Generation(int bitCount) {
+      super();
+      this.bits = new AtomicLongArray(bitCount >>> 6);
+    }
+
+    private void add(long hash, int bitCount, int hashCount) {
+      int h1 = (int) hash;
+      final int h2 = (int) (hash >>> 32) | 1;
+      for (int i = 0; i < hashCount; i++, h1 += h2) {
+        int bit = (h1 & Integer.MAX_VALUE) % bitCount;
+        int word = bit >>> 6;
+        long mask = 1L << bit;
+        long curr = bits.get(word);
+        while ((curr & mask) == 0 && !bits.compareAndSet(word, curr, curr | mask)) {
+          curr = bits.get(word);
+        }
+      }
+    }
+
+    private boolean mightContain(long hash, int bitCount, int hashCount) {
+      int h1 = (int) hash;
+      final int h2 = (int) (hash >>> 32) | 1;
+      for (int i = 0; i < hashCount; i++, h1 += h2) {
+        int bit = (h1 & Integer.MAX_VALUE) % bitCount;
+        if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+  }
+
+}
@@ -0,0 +1,122 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.util;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+
+import net.solarnetwork.esi.domain.TimeUnit;
+
+/**
+ * Utilities for aligning times to spans of {@link TimeUnit} units.
+ * 
+ * <p>
+ * Spans are aligned to the epoch in UTC, with weeks starting on Monday and months and years
+ * starting on the first day of the month.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public final class TimeSpanUtils {
+
+  private static final long SECOND_MS = 1000L;
+  private static final long MINUTE_MS = 60L * SECOND_MS;
+  private static final long HOUR_MS = 60L * MINUTE_MS;
+  private static final long DAY_MS = 24L * HOUR_MS;
+  private static final long WEEK_MS = 7L * DAY_MS;
+
+  /** The epoch was a Thursday, so weeks starting on Monday are offset by 4 days. */
+  private static final long WEEK_OFFSET_MS = 4L * DAY_MS;
+
+  private TimeSpanUtils() {
+    // not available
+  }
+
+  /**
+   * Get the start of the time span that contains a given time.
+   * 
+   * @param t
+   *        the time, in milliseconds since the epoch
+   * @param timeUnit
+   *        the span time unit; must not be {@link TimeUnit#INSTANT}
+   * @param coalescence
+   *        the number of time units in each span
+   * @return the span start, in milliseconds since the epoch
+   */
+  public static long spanStart(long t, TimeUnit timeUnit, int coalescence) {
+    if (timeUnit == TimeUnit.MONTH || timeUnit == TimeUnit.YEAR) {
+      final int months = (timeUnit == TimeUnit.YEAR ? 12 : 1) * coalescence;
+      LocalDate d = LocalDate.ofEpochDay(Math.floorDiv(t, DAY_MS));
+      long monthIdx = d.getYear() * 12L + d.getMonthValue() - 1;
+      monthIdx = Math.floorDiv(monthIdx, months) * months;
+      LocalDate start = LocalDate.of((int) Math.floorDiv(monthIdx, 12),
+          (int) Math.floorMod(monthIdx, 12) + 1, 1);
+      return start.atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+    final long spanMs = unitMillis(timeUnit) * coalescence;
+    final long offset = (timeUnit == TimeUnit.WEEK ? WEEK_OFFSET_MS : 0L);
+    return Math.floorDiv(t - offset, spanMs) * spanMs + offset;
+  }
+
+  /**
+   * Get the end of a time span.
+   * 
+   * @param spanStart
+   *        the span start, as returned by {@link #spanStart(long, TimeUnit, int)}
+   * @param timeUnit
+   *        the span time unit; must not be {@link TimeUnit#INSTANT}
+   * @param coalescence
+   *        the number of time units in each span
+   * @return the span end (exclusive), in milliseconds since the epoch
+   */
+  public static long spanEnd(long spanStart, TimeUnit timeUnit, int coalescence) {
+    if (timeUnit == TimeUnit.MONTH || timeUnit == TimeUnit.YEAR) {
+      final int months = (timeUnit == TimeUnit.YEAR ? 12 : 1) * coalescence;
+      return LocalDate.ofEpochDay(Math.floorDiv(spanStart, DAY_MS)).plusMonths(months)
+          .atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+    return spanStart + unitMillis(timeUnit) * coalescence;
+  }
+
+  /**
+   * Get the duration of a fixed-length time unit.
+   * 
+   * @param timeUnit
+   *        the time unit
+   * @return the duration, in milliseconds, or {@literal 0} for {@link TimeUnit#INSTANT} or
+   *         variable-length units like {@link TimeUnit#MONTH}
+   */
+  public static long unitMillis(TimeUnit timeUnit) {
+    switch (timeUnit) {
+      case SECOND:
+        return SECOND_MS;
+      case MINUTE:
+        return MINUTE_MS;
+      case HOUR:
+        return HOUR_MS;
+      case DAY:
+        return DAY_MS;
+      case WEEK:
+        return WEEK_MS;
+      default:
+        return 0L;
+    }
+  }
+
+}
@@ -0,0 +1,299 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel for scheduling large numbers of timed tasks.
+ * 
+ * <p>
+ * The first wheel has {@code wheelSize} buckets of {@code tickMs} milliseconds each. Tasks due
+ * beyond the range of a wheel are placed in an overflow wheel whose buckets each span the range of
+ * the wheel below it, and so on, with overflow wheels created as needed. Scheduling a task is
+ * therefore constant time no matter how many tasks are scheduled. As time advances, the buckets of
+ * an overflow wheel are redistributed into the wheels below it, until their tasks reach the first
+ * wheel and are returned as due by {@link #advance(long)}.
+ * </p>
+ * 
+ * <p>
+ * Tasks become due once time advances to the start of the tick they are scheduled in, so a task
+ * may be returned up to {@code tickMs} milliseconds before its scheduled time. The wheel does not
+ * keep time on its own: {@link #advance(long)} must be called periodically, typically once per
+ * tick. This class is thread safe.
+ * </p>
+ * 
+ * @param <T>
+ *        the task type
+ * @author matt
+ * @version 1.0
+ */
+public class TimingWheel<T> {
+
+  /**
+   * The default {@code tickMs} value.
+   */
+  public static final long DEFAULT_TICK_MS = 100L;
+
+  /**
+   * The default {@code wheelSize} value.
+   */
+  public static final int DEFAULT_WHEEL_SIZE = 512;
+
+  private final long tickMs;
+  private final int wheelSize;
+  private final Wheel<T> root;
+  private List<Entry<T>> due;
+  private int size;
+
+  /**
+   * A scheduled task.
+   * 
+   * @param <T>
+   *        the task type
+   */
+  public static final class Entry<T> {
+
+    private final long time;
+    private final T task;
+
+    private Entry(long time, T task) {
+      super();
+      this.time = time;
+      this.task = task;
+    }
+
+    /**
+     * Get the time the task was scheduled for.
+     * 
+     * @return the time, as milliseconds since the epoch
+     */
+    public long getTime() {
+      return time;
+    }
+
+    /**
+     * Get the task.
+     * 
+     * @return the task
+     */
+    public T getTask() {
+      return task;
+    }
+
+  }
+
+  /**
+   * Constructor.
+   * 
+   * <p>
+   * The default tick and wheel size will be used.
+   * </p>
+   * 
+   * @param startMs
+   *        the starting time, as milliseconds since the epoch
+   */
+  public TimingWheel(long startMs) {
+    this(DEFAULT_TICK_MS, DEFAULT_WHEEL_SIZE, startMs);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param tickMs
+   *        the duration of each bucket in the first wheel, in milliseconds
+   * @param wheelSize
+   *        the number of buckets in each wheel
+   * @param startMs
+   *        the starting time, as milliseconds since the epoch
+   * @throws IllegalArgumentException
+   *         if {@code tickMs} or {@code wheelSize} is less than {@literal 1}
+   */
+  public TimingWheel(long tickMs, int wheelSize, long startMs) {
+    super();
+    if (tickMs < 1) {
+      throw new IllegalArgumentException("The tick must be greater than zero.");
+    }
+    if (wheelSize < 2) {
+      throw new IllegalArgumentException("The wheel size must be greater than one.");
+    }
+    this.tickMs = tickMs;
+    this.wheelSize = wheelSize;
+    this.root = new Wheel<>(tickMs, wheelSize, startMs);
+    this.due = new ArrayList<>();
+  }
+
+  /**
+   * Schedule a task.
+   * 
+   * <p>
+   * A task scheduled for a time that is already due will be returned by the next call to
+   * {@link #advance(long)}.
+   * </p>
+   * 
+   * @param timeMs
+   *        the time to schedule the task for, as milliseconds since the epoch
+   * @param task
+   *        the task
+   */
+  public synchronized void schedule(long timeMs, T task) {
+    Entry<T> entry = new Entry<>(timeMs, task);
+    if (!root.add(entry)) {
+      due.add(entry);
+    }
+    size++;
+  }
+
+  /**
+   * Advance the wheel's time, returning all tasks that have become due.
+   * 
+   * @param nowMs
+   *        the current time, as milliseconds since the epoch
+   * @return the due tasks, in no particular order; never {@literal null}
+   */
+  public synchronized List<Entry<T>> advance(long nowMs) {
+    if (size == due.size()) {
+      // nothing in the wheels, so jump straight to the current time
+      root.reset(nowMs);
+    } else {
+      root.advance(nowMs, root, due);
+    }
+    if (due.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Entry<T>> result = due;
+    due = new ArrayList<>();
+    size -= result.size();
+    return result;
+  }
+
+  /**
+   * Get the number of scheduled tasks that have not been returned by {@link #advance(long)}.
+   * 
+   * @return the number of tasks
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Get the duration of each bucket in the first wheel.
+   * 
+   * @return the tick, in milliseconds
+   */
+  public long getTickMs() {
+    return tickMs;
+  }
+
+  /**
+   * Get the number of buckets in each wheel.
+   * 
+   * @return the wheel size
+   */
+  public int getWheelSize() {
+    return wheelSize;
+  }
+
+  /**
+   * A single wheel, holding tasks due within {@code tickMs * wheelSize} of its current time.
+   */
+  private static final class Wheel<T> {
+
+    private final long tickMs;
+    private final int wheelSize;
+    private final long interval;
+    private final List<Entry<T>>[] buckets;
+    private long currentTime;
+    private Wheel<T> overflow;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Wheel(long tickMs, int wheelSize, long startMs) {
+      super();
+      this.tickMs = tickMs;
+      this.wheelSize = wheelSize;
+      this.interval = (tickMs > Long.MAX_VALUE / wheelSize ? Long.MAX_VALUE : tickMs * wheelSize);
+      this.buckets = new List[wheelSize];
+      this.currentTime = startMs - Math.floorMod(startMs, tickMs);
+    }
+
+    /**
+     * Add an entry to this wheel or an overflow wheel.
+     * 
+     * @return {@literal false} if the entry is already due
+     */
+    private boolean add(Entry<T> entry) {
+      if (entry.time < currentTime + tickMs) {
+        return false;
+      }
+      if (entry.time - currentTime < interval) {
+        int idx = (int) Math.floorMod(Math.floorDiv(entry.time, tickMs), (long) wheelSize);
+        List<Entry<T>> bucket = buckets[idx];
+        if (bucket == null) {
+          bucket = new ArrayList<>(4);
+          buckets[idx] = bucket;
+        }
+        bucket.add(entry);
+        return true;
+      }
+      if (overflow == null) {
+        overflow = new Wheel<>(interval, wheelSize, currentTime);
+      }
+      return overflow.add(entry);
+    }
+
+    /**
+     * Advance this wheel one tick at a time, redistributing each bucket reached from the root.
+     */
+    private void advance(long nowMs, Wheel<T> root, List<Entry<T>> due) {
+      while (nowMs - currentTime >= tickMs) {
+        currentTime += tickMs;
+        if (overflow != null) {
+          overflow.advance(currentTime, root, due);
+        }
+        int idx = (int) Math.floorMod(Math.floorDiv(currentTime, tickMs), (long) wheelSize);
+        List<Entry<T>> bucket = buckets[idx];
+        if (bucket != null) {
+          buckets[idx] = null;
+          for (Entry<T> entry : bucket) {
+            if (!root.add(entry)) {
+              due.add(entry);
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Jump to a new time; only valid when no entries are held.
+     */
+    private void reset(long nowMs) {
+      long t = nowMs - Math.floorMod(nowMs, tickMs);
+      if (t > currentTime) {
+        currentTime = t;
+      }
+      if (overflow != null) {
+        overflow.reset(currentTime);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,137 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.dao.support.test;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.StreamSupport;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+
+import net.solarnetwork.esi.dao.support.BaseMemoryRepository;
+import net.solarnetwork.esi.domain.jpa.BaseLongEntity;
+
+/**
+ * Test cases for the {@link BaseMemoryRepository} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class BaseMemoryRepositoryTests {
+
+  private static class TestEntity extends BaseLongEntity {
+
+    private static final long serialVersionUID = 1L;
+
+    private String name;
+
+    private TestEntity(String name) {
+      super(Instant.now());
+      this.name = name;
+    }
+
+  }
+
+  private static class TestRepository extends BaseMemoryRepository<TestEntity, Long> {
+
+    private final AtomicLong ids = new AtomicLong();
+
+    @Override
+    protected Long generateId(TestEntity entity) {
+      return ids.incrementAndGet();
+    }
+
+  }
+
+  private TestRepository repo;
+
+  @Before
+  public void setup() {
+    repo = new TestRepository();
+  }
+
+  private static List<String> names(Iterable<TestEntity> entities) {
+    return StreamSupport.stream(entities.spliterator(), false).map(e -> e.name).collect(toList());
+  }
+
+  @Test
+  public void saveGeneratesId() {
+    TestEntity entity = new TestEntity("a");
+    TestEntity saved = repo.save(entity);
+    assertThat("Same instance", saved, sameInstance(entity));
+    assertThat("ID generated", saved.getId(), equalTo(1L));
+    assertThat("Modified set", saved.getModified(), notNullValue());
+    assertThat("Found", repo.findById(1L).get(), sameInstance(entity));
+    assertThat("Count", repo.count(), equalTo(1L));
+  }
+
+  @Test
+  public void saveExistingKeepsId() {
+    TestEntity entity = repo.save(new TestEntity("a"));
+    repo.save(entity);
+    assertThat("ID unchanged", entity.getId(), equalTo(1L));
+    assertThat("Count", repo.count(), equalTo(1L));
+  }
+
+  @Test
+  public void findAllSorted() {
+    repo.save(new TestEntity("b"));
+    repo.save(new TestEntity("c"));
+    repo.save(new TestEntity("a"));
+    assertThat("Ascending", names(repo.findAll(Sort.by("name"))), contains("a", "b", "c"));
+    assertThat("Descending", names(repo.findAll(Sort.by(Direction.DESC, "name"))),
+        contains("c", "b", "a"));
+  }
+
+  @Test
+  public void findAllPaged() {
+    for (String name : new String[] { "e", "d", "c", "b", "a" }) {
+      repo.save(new TestEntity(name));
+    }
+    Page<TestEntity> page = repo.findAll(PageRequest.of(1, 2, Sort.by("name")));
+    assertThat("Page content", names(page.getContent()), contains("c", "d"));
+    assertThat("Total", page.getTotalElements(), equalTo(5L));
+  }
+
+  @Test
+  public void delete() {
+    TestEntity entity = repo.save(new TestEntity("a"));
+    repo.delete(entity);
+    assertThat("Deleted", repo.existsById(entity.getId()), equalTo(false));
+  }
+
+  @Test(expected = EmptyResultDataAccessException.class)
+  public void deleteByIdMissing() {
+    repo.deleteById(1L);
+  }
+
+}
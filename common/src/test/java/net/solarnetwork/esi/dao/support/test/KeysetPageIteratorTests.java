@@ -0,0 +1,96 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.dao.support.test;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import net.solarnetwork.esi.dao.support.KeysetPageIterator;
+
+/**
+ * Test cases for the {@link KeysetPageIterator} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class KeysetPageIteratorTests {
+
+  private static List<Integer> range(int start, int end) {
+    return IntStream.range(start, end).boxed().collect(toList());
+  }
+
+  @Test
+  public void empty() {
+    List<Integer> cursors = new ArrayList<>();
+    KeysetPageIterator<Integer> itr = new KeysetPageIterator<>((after, max) -> {
+      cursors.add(after);
+      return Collections.emptyList();
+    }, 10);
+    assertThat("No results", itr.hasNext(), equalTo(false));
+    assertThat("Still no results", itr.hasNext(), equalTo(false));
+    assertThat("Fetched only once", cursors, contains(nullValue()));
+  }
+
+  @Test(expected = NoSuchElementException.class)
+  public void nextPastEnd() {
+    new KeysetPageIterator<Integer>((after, max) -> null, 10).next();
+  }
+
+  @Test
+  public void multiplePages() {
+    List<Integer> data = range(0, 7);
+    List<Integer> cursors = new ArrayList<>();
+    KeysetPageIterator<Integer> itr = new KeysetPageIterator<>((after, max) -> {
+      cursors.add(after);
+      int start = (after == null ? 0 : after + 1);
+      return data.subList(Math.min(start, data.size()), Math.min(start + max, data.size()));
+    }, 3);
+    List<Integer> results = new ArrayList<>();
+    itr.forEachRemaining(results::add);
+    assertThat("All results", results, equalTo(data));
+    assertThat("Page cursors", cursors, contains(null, 2, 5));
+  }
+
+  @Test
+  public void exactMultipleOfPageSize() {
+    List<Integer> data = range(0, 4);
+    List<Integer> cursors = new ArrayList<>();
+    KeysetPageIterator<Integer> itr = new KeysetPageIterator<>((after, max) -> {
+      cursors.add(after);
+      int start = (after == null ? 0 : after + 1);
+      return data.subList(Math.min(start, data.size()), Math.min(start + max, data.size()));
+    }, 2);
+    List<Integer> results = new ArrayList<>();
+    itr.forEachRemaining(results::add);
+    assertThat("All results", results, equalTo(Arrays.asList(0, 1, 2, 3)));
+    assertThat("Trailing empty page fetched", cursors, contains(null, 1, 3));
+  }
+
+}
@@ -0,0 +1,108 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.dao.support.test;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.Comparator;
+
+import org.junit.Test;
+
+import net.solarnetwork.esi.dao.support.MemoryIndex;
+
+/**
+ * Test cases for the {@link MemoryIndex} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class MemoryIndexTests {
+
+  @Test
+  public void putAndGet() {
+    MemoryIndex<String, Long> index = new MemoryIndex<>();
+    index.put(1L, "a");
+    index.put(2L, "a");
+    index.put(3L, "b");
+    assertThat("Key a", index.get("a"), containsInAnyOrder(1L, 2L));
+    assertThat("Key b", index.get("b"), contains(3L));
+    assertThat("Unknown key", index.get("c"), empty());
+    assertThat("Null key", index.get(null), empty());
+    assertThat("Size", index.size(), equalTo(3));
+    assertThat("Key for id", index.keyFor(2L), equalTo("a"));
+  }
+
+  @Test
+  public void putChangesKey() {
+    MemoryIndex<String, Long> index = new MemoryIndex<>();
+    index.put(1L, "a");
+    index.put(1L, "b");
+    assertThat("Old key removed", index.get("a"), empty());
+    assertThat("New key", index.getFirst("b"), equalTo(1L));
+    assertThat("Size", index.size(), equalTo(1));
+  }
+
+  @Test
+  public void putNullKeyRemoves() {
+    MemoryIndex<String, Long> index = new MemoryIndex<>();
+    index.put(1L, "a");
+    index.put(1L, null);
+    assertThat("Removed", index.getFirst("a"), nullValue());
+    assertThat("Size", index.size(), equalTo(0));
+  }
+
+  @Test
+  public void remove() {
+    MemoryIndex<String, Long> index = new MemoryIndex<>();
+    index.put(1L, "a");
+    index.put(2L, "a");
+    index.remove(1L);
+    index.remove(3L);
+    assertThat("Remaining", index.get("a"), contains(2L));
+    assertThat("Key for removed id", index.keyFor(1L), nullValue());
+  }
+
+  @Test
+  public void orderedRanges() {
+    MemoryIndex<Integer, String> index = new MemoryIndex<>(Comparator.naturalOrder());
+    index.put("c", 3);
+    index.put("a", 1);
+    index.put("d", 4);
+    index.put("b", 2);
+    assertThat("All in order", index.ids().collect(toList()), contains("a", "b", "c", "d"));
+    assertThat("Head exclusive", index.headIds(3, false).collect(toList()), contains("a", "b"));
+    assertThat("Head inclusive", index.headIds(3, true).collect(toList()),
+        contains("a", "b", "c"));
+    assertThat("Tail exclusive", index.tailIds(2, false).collect(toList()), contains("c", "d"));
+    assertThat("Tail inclusive", index.tailIds(2, true).collect(toList()),
+        contains("b", "c", "d"));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void unorderedRange() {
+    MemoryIndex<Integer, String> index = new MemoryIndex<>();
+    index.headIds(1, true);
+  }
+
+}
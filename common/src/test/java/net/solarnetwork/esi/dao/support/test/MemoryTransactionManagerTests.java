@@ -0,0 +1,90 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.dao.support.test;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import net.solarnetwork.esi.dao.support.MemoryTransactionManager;
+import net.solarnetwork.esi.dao.support.TransactionUtils;
+
+/**
+ * Test cases for the {@link MemoryTransactionManager} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class MemoryTransactionManagerTests {
+
+  private final MemoryTransactionManager txManager = new MemoryTransactionManager();
+
+  @Test
+  public void afterCommitCallback() {
+    List<String> calls = new ArrayList<>();
+    new TransactionTemplate(txManager).execute(status -> {
+      assertThat("Transaction active",
+          TransactionSynchronizationManager.isActualTransactionActive(), equalTo(true));
+      TransactionUtils.afterCommit(() -> calls.add("commit"));
+      calls.add("work");
+      return null;
+    });
+    assertThat("Callback after work", calls, contains("work", "commit"));
+    assertThat("Transaction ended", TransactionSynchronizationManager.isActualTransactionActive(),
+        equalTo(false));
+  }
+
+  @Test
+  public void requiresNewSuspendsOuter() {
+    List<String> calls = new ArrayList<>();
+    TransactionTemplate outer = new TransactionTemplate(txManager);
+    TransactionTemplate inner = new TransactionTemplate(txManager);
+    inner.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    outer.execute(status -> {
+      TransactionUtils.afterCommit(() -> calls.add("outer"));
+      inner.execute(innerStatus -> {
+        assertThat("New transaction", innerStatus.isNewTransaction(), equalTo(true));
+        TransactionUtils.afterCommit(() -> calls.add("inner"));
+        return null;
+      });
+      return null;
+    });
+    assertThat("Inner commits first", calls, contains("inner", "outer"));
+  }
+
+  @Test
+  public void requiredJoinsOuter() {
+    TransactionTemplate tt = new TransactionTemplate(txManager);
+    tt.execute(status -> {
+      tt.execute(innerStatus -> {
+        assertThat("Joined transaction", innerStatus.isNewTransaction(), equalTo(false));
+        return null;
+      });
+      return null;
+    });
+  }
+
+}
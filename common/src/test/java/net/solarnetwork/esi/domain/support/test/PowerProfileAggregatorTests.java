@@ -0,0 +1,299 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.domain.support.test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.solarnetwork.esi.domain.PowerProfileDatum;
+import net.solarnetwork.esi.domain.TimeUnit;
+import net.solarnetwork.esi.domain.support.PowerProfileAggregator;
+
+/**
+ * Test cases for the {@link PowerProfileAggregator} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class PowerProfileAggregatorTests {
+
+  private static final long MINUTE_MS = 60000L;
+
+  private static class ArraySamples implements PowerProfileAggregator.Samples {
+
+    private final long[] timestamps;
+    private final double[] real;
+    private final int[] sources;
+    private int idx = -1;
+
+    private ArraySamples(long[] timestamps, double[] real) {
+      this(timestamps, real, null);
+    }
+
+    private ArraySamples(long[] timestamps, double[] real, int[] sources) {
+      super();
+      this.timestamps = timestamps;
+      this.real = real;
+      this.sources = sources;
+    }
+
+    @Override
+    public boolean next() {
+      return ++idx < timestamps.length;
+    }
+
+    @Override
+    public long timestamp() {
+      return timestamps[idx];
+    }
+
+    @Override
+    public double realPower() {
+      return real[idx];
+    }
+
+    @Override
+    public double reactivePower() {
+      return real[idx] / 10;
+    }
+
+    @Override
+    public int source() {
+      return (sources != null ? sources[idx] : 0);
+    }
+
+  }
+
+  private static List<PowerProfileDatum> drain(PowerProfileAggregator agg) throws Exception {
+    List<PowerProfileDatum> result = new ArrayList<>();
+    for (PowerProfileDatum d = agg.next(); d != null; d = agg.next()) {
+      result.add(d);
+    }
+    return result;
+  }
+
+  private static long millis(PowerProfileDatum d) {
+    return d.getTs().getSeconds() * 1000L + d.getTs().getNanos() / 1000000;
+  }
+
+  private static long millis(String date) {
+    return Instant.parse(date).toEpochMilli();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unrecognizedTimeUnit() {
+    new PowerProfileAggregator(new ArraySamples(new long[0], new double[0]),
+        TimeUnit.UNRECOGNIZED, 1);
+  }
+
+  @Test
+  public void empty() throws Exception {
+    PowerProfileAggregator agg = new PowerProfileAggregator(
+        new ArraySamples(new long[0], new double[0]), TimeUnit.MINUTE, 15);
+    assertThat("No datum", agg.next(), nullValue());
+    assertThat("Still no datum", agg.next(), nullValue());
+  }
+
+  @Test
+  public void instantSumsLatestOfEachSource() throws Exception {
+    // given
+    long t = millis("2019-06-01T00:00:00Z");
+    ArraySamples samples = new ArraySamples(new long[] { t, t, t + MINUTE_MS },
+        new double[] { 100, 200, 50 }, new int[] { 0, 1, 0 });
+
+    // when
+    List<PowerProfileDatum> result = drain(
+        new PowerProfileAggregator(samples, TimeUnit.INSTANT, 15));
+
+    // then
+    assertThat("Datum count", result.size(), equalTo(2));
+    assertThat("Datum 1 date", millis(result.get(0)), equalTo(t));
+    assertThat("Datum 1 time unit", result.get(0).getTimeUnit(), equalTo(TimeUnit.INSTANT));
+    assertThat("Datum 1 time length", result.get(0).getTimeLength(), equalTo(0));
+    assertThat("Datum 1 real", result.get(0).getPowerComponents().getRealPower(),
+        equalTo(300L));
+    assertThat("Datum 1 reactive", result.get(0).getPowerComponents().getReactivePower(),
+        equalTo(30L));
+    assertThat("Datum 2 date", millis(result.get(1)), equalTo(t + MINUTE_MS));
+    assertThat("Datum 2 real with held source 1",
+        result.get(1).getPowerComponents().getRealPower(), equalTo(250L));
+  }
+
+  @Test
+  public void coalescedMinutes() throws Exception {
+    // given 5-minute samples from 00:05 to 00:40
+    long t = millis("2019-06-01T00:05:00Z");
+    long[] ts = new long[8];
+    double[] real = new double[8];
+    for (int i = 0; i < ts.length; i++) {
+      ts[i] = t + i * 5 * MINUTE_MS;
+      real[i] = (i + 1) * 100;
+    }
+
+    // when
+    List<PowerProfileDatum> result = drain(
+        new PowerProfileAggregator(new ArraySamples(ts, real), TimeUnit.MINUTE, 15));
+
+    // then spans 00:00, 00:15, 00:30
+    assertThat("Datum count", result.size(), equalTo(3));
+    assertThat("Span 1 date", millis(result.get(0)), equalTo(millis("2019-06-01T00:00:00Z")));
+    assertThat("Span 1 time unit", result.get(0).getTimeUnit(), equalTo(TimeUnit.MINUTE));
+    assertThat("Span 1 time length", result.get(0).getTimeLength(), equalTo(15));
+    assertThat("Span 1 average", result.get(0).getPowerComponents().getRealPower(),
+        equalTo(150L));
+    assertThat("Span 2 date", millis(result.get(1)), equalTo(millis("2019-06-01T00:15:00Z")));
+    assertThat("Span 2 average", result.get(1).getPowerComponents().getRealPower(),
+        equalTo(400L));
+    assertThat("Span 3 date", millis(result.get(2)), equalTo(millis("2019-06-01T00:30:00Z")));
+    assertThat("Span 3 average", result.get(2).getPowerComponents().getRealPower(),
+        equalTo(700L));
+  }
+
+  @Test
+  public void coalescedSourcesAveragedAfterSumming() throws Exception {
+    // given two sources at each of two timestamps
+    long t = millis("2019-06-01T01:00:00Z");
+    ArraySamples samples = new ArraySamples(new long[] { t, t, t + MINUTE_MS, t + MINUTE_MS },
+        new double[] { 100, 200, 300, 400 }, new int[] { 0, 1, 0, 1 });
+
+    // when
+    List<PowerProfileDatum> result = drain(
+        new PowerProfileAggregator(samples, TimeUnit.HOUR, 1));
+
+    // then the average of the 300 and 700 sums
+    assertThat("Datum count", result.size(), equalTo(1));
+    assertThat("Span date", millis(result.get(0)), equalTo(t));
+    assertThat("Span average", result.get(0).getPowerComponents().getRealPower(),
+        equalTo(500L));
+    assertThat("Span reactive average", result.get(0).getPowerComponents().getReactivePower(),
+        equalTo(50L));
+  }
+
+  @Test
+  public void coalescedSourcesWithUnalignedTimestamps() throws Exception {
+    // given two sources sampled at different times within the same span
+    long t = millis("2019-06-01T01:00:00Z");
+    ArraySamples samples = new ArraySamples(
+        new long[] { t, t + MINUTE_MS, t + 2 * MINUTE_MS, t + 3 * MINUTE_MS, t + 4 * MINUTE_MS },
+        new double[] { 100, 1000, 300, 2000, 200 }, new int[] { 0, 1, 0, 1, 0 });
+
+    // when
+    List<PowerProfileDatum> result = drain(
+        new PowerProfileAggregator(samples, TimeUnit.HOUR, 1));
+
+    // then the sum of the source 0 average 200 and source 1 average 1500
+    assertThat("Datum count", result.size(), equalTo(1));
+    assertThat("Span sum of source averages",
+        result.get(0).getPowerComponents().getRealPower(), equalTo(1700L));
+    assertThat("Span reactive sum of source averages",
+        result.get(0).getPowerComponents().getReactivePower(), equalTo(170L));
+  }
+
+  @Test
+  public void weeksStartMonday() throws Exception {
+    // given a Sunday and the following Monday
+    ArraySamples samples = new ArraySamples(
+        new long[] { millis("2019-06-02T12:00:00Z"), millis("2019-06-03T12:00:00Z") },
+        new double[] { 100, 200 });
+
+    // when
+    List<PowerProfileDatum> result = drain(
+        new PowerProfileAggregator(samples, TimeUnit.WEEK, 1));
+
+    // then
+    assertThat("Datum count", result.size(), equalTo(2));
+    assertThat("Week 1 date", millis(result.get(0)), equalTo(millis("2019-05-27T00:00:00Z")));
+    assertThat("Week 2 date", millis(result.get(1)), equalTo(millis("2019-06-03T00:00:00Z")));
+  }
+
+  @Test
+  public void calendarMonths() throws Exception {
+    // given
+    ArraySamples samples = new ArraySamples(
+        new long[] { millis("2019-01-31T23:00:00Z"), millis("2019-02-01T00:00:00Z"),
+            millis("2019-03-15T00:00:00Z"), millis("2019-07-01T00:00:00Z") },
+        new double[] { 100, 200, 400, 800 });
+
+    // when
+    List<PowerProfileDatum> result = drain(
+        new PowerProfileAggregator(samples, TimeUnit.MONTH, 3));
+
+    // then quarters
+    assertThat("Datum count", result.size(), equalTo(2));
+    assertThat("Quarter 1 date", millis(result.get(0)), equalTo(millis("2019-01-01T00:00:00Z")));
+    assertThat("Quarter 1 time length", result.get(0).getTimeLength(), equalTo(3));
+    assertThat("Quarter 1 average", result.get(0).getPowerComponents().getRealPower(),
+        equalTo(233L));
+    assertThat("Quarter 3 date", millis(result.get(1)), equalTo(millis("2019-07-01T00:00:00Z")));
+  }
+
+  @Test
+  public void yearOfMinutes() throws Exception {
+    // given a year of 1-minute samples, generated without storing them
+    final long start = millis("2019-01-01T00:00:00Z");
+    final long end = millis("2020-01-01T00:00:00Z");
+    PowerProfileAggregator.Samples samples = new PowerProfileAggregator.Samples() {
+
+      private long time = start - MINUTE_MS;
+
+      @Override
+      public boolean next() {
+        time += MINUTE_MS;
+        return time < end;
+      }
+
+      @Override
+      public long timestamp() {
+        return time;
+      }
+
+      @Override
+      public double realPower() {
+        return 1000;
+      }
+
+      @Override
+      public double reactivePower() {
+        return 100;
+      }
+    };
+
+    // when
+    PowerProfileAggregator agg = new PowerProfileAggregator(samples, TimeUnit.MINUTE, 15);
+    int count = 0;
+    long last = 0;
+    for (PowerProfileDatum d = agg.next(); d != null; d = agg.next()) {
+      count++;
+      assertThat("Average", d.getPowerComponents().getRealPower(), equalTo(1000L));
+      last = millis(d);
+    }
+
+    // then
+    assertThat("Datum count", count, equalTo(365 * 96));
+    assertThat("Last date", last, equalTo(end - 15 * MINUTE_MS));
+  }
+
+}
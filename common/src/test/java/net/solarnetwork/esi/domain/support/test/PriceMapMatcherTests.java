@@ -0,0 +1,263 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.domain.support.test;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.solarnetwork.esi.domain.jpa.DurationRangeEmbed;
+import net.solarnetwork.esi.domain.jpa.PowerComponentsEmbed;
+import net.solarnetwork.esi.domain.jpa.PriceComponentsEmbed;
+import net.solarnetwork.esi.domain.jpa.PriceMapEmbed;
+import net.solarnetwork.esi.domain.support.PriceMapMatcher;
+import net.solarnetwork.esi.domain.support.PriceMapMatcher.Match;
+
+/**
+ * Test cases for the {@link PriceMapMatcher} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class PriceMapMatcherTests {
+
+  private static PriceMapEmbed priceMap(long p, long q, long durationSecs, long minSecs,
+      long maxSecs, String price) {
+    PriceMapEmbed pm = new PriceMapEmbed();
+    pm.setPowerComponents(new PowerComponentsEmbed(p, q));
+    pm.setDuration(Duration.ofSeconds(durationSecs));
+    pm.setResponseTime(DurationRangeEmbed.ofSeconds(minSecs, maxSecs));
+    pm.setPriceComponents(PriceComponentsEmbed.of("USD", price));
+    return pm;
+  }
+
+  /**
+   * Find a supporting price map the way each configured price map used to be tested in turn.
+   */
+  private static PriceMapEmbed bruteForce(List<PriceMapEmbed> priceMaps, PriceMapEmbed offer,
+      boolean matchPowerDirection) {
+    PowerComponentsEmbed op = offer.powerComponents();
+    for (PriceMapEmbed pm : priceMaps) {
+      PowerComponentsEmbed pp = pm.powerComponents();
+      if (matchPowerDirection && ((op.hasRealPower()
+          && op.isRealPowerNegative() != pp.isRealPowerNegative())
+          || (op.hasReactivePower() && op.isReactivePowerNegative() != pp
+              .isReactivePowerNegative()))) {
+        continue;
+      }
+      if (offer.duration().compareTo(pm.duration()) > 0
+          || op.derivedApparentPower() > pp.derivedApparentPower()
+          || offer.responseTime().min().compareTo(pm.responseTime().min()) < 0
+          || offer.responseTime().max().compareTo(pm.responseTime().max()) < 0) {
+        continue;
+      }
+      return pm;
+    }
+    return null;
+  }
+
+  @Test
+  public void empty() {
+    PriceMapMatcher<PriceMapEmbed> m = PriceMapMatcher.of(Collections.emptyList(), pm -> pm,
+        false);
+    assertThat("Size", m.size(), equalTo(0));
+    assertThat("No match", m.match(priceMap(1, 1, 1, 1, 1, "1")), nullValue());
+  }
+
+  @Test
+  public void acceptExact() {
+    PriceMapEmbed pm = priceMap(1, 2, 3, 4, 5, "6.78");
+    PriceMapEmbed offer = pm.copy();
+    Match<PriceMapEmbed> match = PriceMapMatcher.of(asList(pm), e -> e, false).match(offer);
+    assertThat("Match", match, notNullValue());
+    assertThat("Entry", match.getEntry(), sameInstance(pm));
+    assertThat("Offer accepted as-is", match.getPriceMap(), sameInstance(offer));
+    assertThat("Not counter offer", match.isCounterOffer(), equalTo(false));
+  }
+
+  @Test
+  public void counterOfferPriceTooLow() {
+    PriceMapEmbed pm = priceMap(1, 2, 3, 4, 5, "9.99");
+    PriceMapEmbed offer = priceMap(1, 2, 3, 4, 5, "6.78");
+    Match<PriceMapEmbed> match = PriceMapMatcher.of(asList(pm), e -> e, false).match(offer);
+    assertThat("Counter offer", match.isCounterOffer(), equalTo(true));
+    assertThat("Counter price", match.getPriceMap().priceComponents().apparentEnergyPrice(),
+        equalTo(new BigDecimal("9.99")));
+    assertThat("Offer unchanged", offer.priceComponents().apparentEnergyPrice(),
+        equalTo(new BigDecimal("6.78")));
+  }
+
+  @Test
+  public void rejectTooMuchPower() {
+    PriceMapEmbed pm = priceMap(1, 2, 3, 4, 5, "1");
+    assertThat("No match", PriceMapMatcher.of(asList(pm), e -> e, false)
+        .match(priceMap(2, 2, 3, 4, 5, "1")), nullValue());
+  }
+
+  @Test
+  public void firstSupportingPriceMapPreferred() {
+    PriceMapEmbed big = priceMap(100, 0, 100, 0, 0, "2");
+    PriceMapEmbed small = priceMap(10, 0, 10, 0, 0, "1");
+    PriceMapEmbed offer = priceMap(5, 0, 5, 0, 0, "5");
+    assertThat("First in list", PriceMapMatcher.of(asList(big, small), e -> e, false)
+        .match(offer).getEntry(), sameInstance(big));
+    assertThat("First in list", PriceMapMatcher.of(asList(small, big), e -> e, false)
+        .match(offer).getEntry(), sameInstance(small));
+  }
+
+  @Test
+  public void powerDirection() {
+    PriceMapEmbed gen = priceMap(10, 0, 10, 0, 0, "1");
+    PriceMapEmbed load = priceMap(-10, 0, 10, 0, 0, "1");
+    PriceMapMatcher<PriceMapEmbed> m = PriceMapMatcher.of(asList(gen, load), e -> e, true);
+    assertThat("Load matches load", m.match(priceMap(-5, 0, 5, 0, 0, "1")).getEntry(),
+        sameInstance(load));
+    assertThat("Generation matches generation", m.match(priceMap(5, 0, 5, 0, 0, "1")).getEntry(),
+        sameInstance(gen));
+    assertThat("Direction ignored", PriceMapMatcher.of(asList(gen, load), e -> e, false)
+        .match(priceMap(-5, 0, 5, 0, 0, "1")).getEntry(), sameInstance(gen));
+  }
+
+  @Test
+  public void matchesBruteForce() {
+    Random rng = new Random(123);
+    for (int run = 0; run < 20; run++) {
+      List<PriceMapEmbed> priceMaps = new ArrayList<>();
+      for (int i = 0, n = 1 + rng.nextInt(30); i < n; i++) {
+        int min = rng.nextInt(10);
+        priceMaps.add(priceMap(rng.nextInt(200) - 100, rng.nextInt(200) - 100,
+            1 + rng.nextInt(100), min, min + rng.nextInt(10), "1"));
+      }
+      for (boolean direction : new boolean[] { false, true }) {
+        PriceMapMatcher<PriceMapEmbed> m = PriceMapMatcher.of(priceMaps, e -> e, direction);
+        for (int q = 0; q < 100; q++) {
+          int min = rng.nextInt(10);
+          PriceMapEmbed offer = priceMap(rng.nextInt(200) - 100, rng.nextInt(200) - 100,
+              1 + rng.nextInt(100), min, min + rng.nextInt(10), "1");
+          Match<PriceMapEmbed> match = m.match(offer);
+          assertThat("Run " + run + " query " + q + " direction " + direction,
+              match != null ? match.getEntry() : null,
+              sameInstance(bruteForce(priceMaps, offer, direction)));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void bestFitAcceptsAnySupportingPriceMap() {
+    PriceMapEmbed expensive = priceMap(100, 0, 100, 0, 0, "9");
+    PriceMapEmbed cheap = priceMap(10, 0, 10, 0, 0, "1");
+    PriceMapEmbed offer = priceMap(5, 0, 5, 0, 0, "5");
+    PriceMapMatcher<PriceMapEmbed> m = PriceMapMatcher.of(asList(expensive, cheap), e -> e, false);
+    assertThat("Match counters with first", m.match(offer).isCounterOffer(), equalTo(true));
+    Match<PriceMapEmbed> match = m.bestFit(offer);
+    assertThat("Best fit entry", match.getEntry(), sameInstance(cheap));
+    assertThat("Offer accepted as-is", match.getPriceMap(), sameInstance(offer));
+    assertThat("Not counter offer", match.isCounterOffer(), equalTo(false));
+  }
+
+  @Test
+  public void bestFitFirstSupportingPriceMapPreferred() {
+    PriceMapEmbed big = priceMap(100, 0, 100, 0, 0, "2");
+    PriceMapEmbed small = priceMap(10, 0, 10, 0, 0, "1");
+    PriceMapEmbed offer = priceMap(5, 0, 5, 0, 0, "5");
+    assertThat("First in list", PriceMapMatcher.of(asList(big, small), e -> e, false)
+        .bestFit(offer).getEntry(), sameInstance(big));
+    assertThat("First in list", PriceMapMatcher.of(asList(small, big), e -> e, false)
+        .bestFit(offer).getEntry(), sameInstance(small));
+  }
+
+  @Test
+  public void bestFitCountersTooMuchPower() {
+    PriceMapEmbed pm = priceMap(3, 4, 10, 1, 2, "1");
+    PriceMapEmbed offer = priceMap(6, 8, 20, 0, 1, "1");
+    PriceMapMatcher<PriceMapEmbed> m = PriceMapMatcher.of(asList(pm), e -> e, false);
+    assertThat("No match", m.match(offer), nullValue());
+    Match<PriceMapEmbed> match = m.bestFit(offer);
+    assertThat("Counter offer", match.isCounterOffer(), equalTo(true));
+    PriceMapEmbed counter = match.getPriceMap();
+    assertThat("Counter offer", counter, equalTo(priceMap(3, 4, 10, 1, 2, "1")));
+    assertThat("Offer unchanged", offer, equalTo(priceMap(6, 8, 20, 0, 1, "1")));
+  }
+
+  @Test
+  public void bestFitPrefersHighestScore() {
+    PriceMapEmbed fullPower = priceMap(10, 0, 10, 0, 0, "10");
+    PriceMapEmbed mostPower = priceMap(9, 0, 10, 0, 0, "5");
+    PriceMapEmbed offer = priceMap(10, 0, 10, 0, 0, "5");
+    Match<PriceMapEmbed> match = PriceMapMatcher.of(asList(fullPower, mostPower), e -> e, false)
+        .bestFit(offer);
+    assertThat("Entry keeping most of offer", match.getEntry(), sameInstance(mostPower));
+    assertThat("Counter offer", match.getPriceMap(), equalTo(priceMap(9, 0, 10, 0, 0, "5")));
+  }
+
+  @Test
+  public void bestFitPowerDirection() {
+    PriceMapEmbed load = priceMap(-10, 0, 10, 0, 0, "1");
+    PriceMapEmbed offer = priceMap(5, 0, 5, 0, 0, "1");
+    assertThat("No match in other direction", PriceMapMatcher.of(asList(load), e -> e, true)
+        .bestFit(offer), nullValue());
+    assertThat("Direction ignored", PriceMapMatcher.of(asList(load), e -> e, false)
+        .bestFit(offer).getEntry(), sameInstance(load));
+  }
+
+  @Test
+  public void bestFitCounterOfferAcceptedNextRound() {
+    Random rng = new Random(456);
+    for (int n : new int[] { 10, PriceMapMatcher.PARALLEL_THRESHOLD * 2 }) {
+      List<PriceMapEmbed> priceMaps = new ArrayList<>();
+      for (int i = 0; i < n; i++) {
+        int min = rng.nextInt(10);
+        priceMaps.add(priceMap(rng.nextInt(200) - 100, rng.nextInt(200) - 100,
+            1 + rng.nextInt(100), min, min + rng.nextInt(10), String.valueOf(1 + rng.nextInt(9))));
+      }
+      for (boolean direction : new boolean[] { false, true }) {
+        PriceMapMatcher<PriceMapEmbed> m = PriceMapMatcher.of(priceMaps, e -> e, direction);
+        for (int q = 0; q < 100; q++) {
+          int min = rng.nextInt(10);
+          PriceMapEmbed offer = priceMap(rng.nextInt(200) - 100, rng.nextInt(200) - 100,
+              1 + rng.nextInt(100), min, min + rng.nextInt(10), String.valueOf(1 + rng.nextInt(9)));
+          Match<PriceMapEmbed> match = m.bestFit(offer);
+          if (match == null) {
+            continue;
+          }
+          String msg = "Size " + n + " query " + q + " direction " + direction;
+          assertThat(msg + " same result", m.bestFit(offer).getEntry(),
+              sameInstance(match.getEntry()));
+          if (match.isCounterOffer()) {
+            Match<PriceMapEmbed> next = m.bestFit(match.getPriceMap());
+            assertThat(msg + " counter offer accepted", next.isCounterOffer(), equalTo(false));
+          }
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,193 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.domain.support.test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import net.solarnetwork.esi.domain.PriceDatum;
+import net.solarnetwork.esi.domain.TimeUnit;
+import net.solarnetwork.esi.domain.support.PriceRingBuffer;
+import net.solarnetwork.esi.domain.support.PriceStatistics;
+
+/**
+ * Test cases for the {@link PriceRingBuffer} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class PriceRingBufferTests {
+
+  private static final String TEST_CURRENCY = "USD";
+
+  private static List<Long> timestamps(PriceRingBuffer buf) {
+    List<Long> result = new ArrayList<>();
+    buf.forEach((timestamp, timeLength, timeUnit, units, nanos) -> result.add(timestamp));
+    return result;
+  }
+
+  @Test
+  public void capacityRoundedToPowerOfTwo() {
+    assertThat(new PriceRingBuffer(TEST_CURRENCY, 100).getCapacity(), equalTo(128));
+    assertThat(new PriceRingBuffer(TEST_CURRENCY, 128).getCapacity(), equalTo(128));
+    assertThat(new PriceRingBuffer(TEST_CURRENCY, 1).getCapacity(), equalTo(1));
+  }
+
+  @Test
+  public void empty() {
+    PriceRingBuffer buf = new PriceRingBuffer(TEST_CURRENCY, 8);
+    assertThat("Latest", buf.latest(), nullValue());
+    assertThat("Statistics", buf.statistics(Long.MIN_VALUE), nullValue());
+    assertThat("Visited", timestamps(buf).size(), equalTo(0));
+  }
+
+  @Test
+  public void latest() {
+    // given
+    PriceRingBuffer buf = new PriceRingBuffer(TEST_CURRENCY, 8);
+    buf.append(1000L, 5, TimeUnit.MINUTE, 1, 250000000);
+    buf.append(2000L, 15, TimeUnit.MINUTE, 2, -500000000);
+
+    // when
+    PriceDatum d = buf.latest();
+
+    // then
+    assertThat("Latest", d, notNullValue());
+    assertThat("Timestamp", d.getTs().getSeconds(), equalTo(2L));
+    assertThat("Time length", d.getTimeLength(), equalTo(15));
+    assertThat("Time unit", d.getTimeUnit(), equalTo(TimeUnit.MINUTE));
+    assertThat("Currency", d.getPriceComponents().getApparentEnergyPrice().getCurrencyCode(),
+        equalTo(TEST_CURRENCY));
+    assertThat("Units", d.getPriceComponents().getApparentEnergyPrice().getUnits(), equalTo(2L));
+    assertThat("Nanos", d.getPriceComponents().getApparentEnergyPrice().getNanos(),
+        equalTo(-500000000));
+  }
+
+  @Test
+  public void overwritesOldest() {
+    // given
+    PriceRingBuffer buf = new PriceRingBuffer(TEST_CURRENCY, 4);
+
+    // when
+    for (int i = 0; i < 10; i++) {
+      buf.append(i, 1, TimeUnit.MINUTE, i, 0);
+    }
+
+    // then
+    assertThat("Append count", buf.getAppendCount(), equalTo(10L));
+    List<Long> ts = timestamps(buf);
+    assertThat("Most recent kept", ts.size(), equalTo(4));
+    assertThat("Oldest", ts.get(0), equalTo(6L));
+    assertThat("Newest", ts.get(3), equalTo(9L));
+  }
+
+  @Test
+  public void statistics() {
+    // given
+    PriceRingBuffer buf = new PriceRingBuffer(TEST_CURRENCY, 8);
+    buf.append(1000L, 5, TimeUnit.MINUTE, 9, 0);
+    buf.append(2000L, 5, TimeUnit.MINUTE, 1, 500000000);
+    buf.append(3000L, 5, TimeUnit.MINUTE, 2, 0);
+    buf.append(4000L, 5, TimeUnit.MINUTE, 3, 0);
+
+    // when
+    PriceStatistics s = buf.statistics(2000L);
+
+    // then
+    assertThat("Currency", s.getCurrencyCode(), equalTo(TEST_CURRENCY));
+    assertThat("Count", s.getCount(), equalTo(3));
+    assertThat("Start", s.getStartDate(), equalTo(Instant.ofEpochMilli(2000L)));
+    assertThat("End", s.getEndDate(), equalTo(Instant.ofEpochMilli(4000L)));
+    assertThat("Min", s.getMinimum(), equalTo(new BigDecimal("1.5")));
+    assertThat("Max", s.getMaximum(), equalTo(new BigDecimal("3")));
+    assertThat("Average", s.getAverage(), equalTo(new BigDecimal("2.166666667")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void appendInvalidTimeLength() {
+    new PriceRingBuffer(TEST_CURRENCY, 8).append(0L, -1,
+        TimeUnit.MINUTE, 1, 0);
+  }
+
+  @Test
+  public void concurrentAppends() throws Exception {
+    // given
+    final int threads = 4;
+    final int perThread = 10000;
+    final PriceRingBuffer buf = new PriceRingBuffer(TEST_CURRENCY, 64);
+    final ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<String> errors = new ArrayList<>();
+
+    // when
+    try {
+      for (int t = 0; t < threads; t++) {
+        executor.execute(() -> {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int i = 0; i < perThread; i++) {
+            // store the same value in the timestamp and price so torn reads can be detected
+            buf.append(i, i & 0xFF, TimeUnit.SECOND, i, i);
+          }
+        });
+      }
+      executor.execute(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        while (buf.getAppendCount() < threads * perThread) {
+          buf.forEach((timestamp, timeLength, timeUnit, units, nanos) -> {
+            if (units != timestamp || nanos != timestamp || timeLength != (timestamp & 0xFF)) {
+              synchronized (errors) {
+                errors.add(timestamp + "/" + units + "/" + nanos + "/" + timeLength);
+              }
+            }
+          });
+        }
+      });
+      start.countDown();
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(1, java.util.concurrent.TimeUnit.MINUTES);
+    }
+
+    // then
+    assertThat("No torn reads", errors, equalTo(new ArrayList<>()));
+    assertThat("Append count", buf.getAppendCount(), equalTo((long) threads * perThread));
+    assertThat("Buffer full", timestamps(buf).size(), equalTo(64));
+  }
+
+}
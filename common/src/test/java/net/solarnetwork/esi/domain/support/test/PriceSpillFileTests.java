@@ -0,0 +1,181 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.domain.support.test;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.protobuf.Timestamp;
+
+import net.solarnetwork.esi.domain.Money;
+import net.solarnetwork.esi.domain.PriceComponents;
+import net.solarnetwork.esi.domain.PriceDatum;
+import net.solarnetwork.esi.domain.TimeUnit;
+import net.solarnetwork.esi.domain.support.PriceSpillFile;
+
+/**
+ * Test cases for the {@link PriceSpillFile} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class PriceSpillFileTests {
+
+  private static final String TEST_KEY = "test.exchange";
+  private static final String TEST_CURRENCY = "USD";
+
+  private Path path;
+
+  @Before
+  public void setup() throws IOException {
+    path = Files.createTempFile("price-spill-", ".dat");
+  }
+
+  @After
+  public void teardown() throws IOException {
+    Files.deleteIfExists(path);
+  }
+
+  private static PriceDatum price(long seconds, long units, int nanos) {
+    return PriceDatum.newBuilder().setTs(Timestamp.newBuilder().setSeconds(seconds))
+        .setTimeLength(5).setTimeUnit(TimeUnit.MINUTE)
+        .setPriceComponents(PriceComponents.newBuilder().setApparentEnergyPrice(
+            Money.newBuilder().setCurrencyCode(TEST_CURRENCY).setUnits(units).setNanos(nanos)))
+        .build();
+  }
+
+  private static List<String> replay(PriceSpillFile f, int max) throws IOException {
+    List<String> result = new ArrayList<>();
+    f.replay(max, (timestamp, timeLength, timeUnit, units, nanos) -> result
+        .add(timestamp + "," + timeLength + "," + timeUnit + "," + units + "," + nanos));
+    return result;
+  }
+
+  @Test
+  public void appendAndReplay() throws IOException {
+    // given
+    try (PriceSpillFile f = PriceSpillFile.create(path, TEST_KEY, TEST_CURRENCY)) {
+      // when
+      f.append(asList(price(1, 1, 100), price(2, 2, 200)));
+      f.append(asList(price(3, 3, 300)));
+
+      // then
+      assertThat("Replayed", replay(f, 10), equalTo(
+          asList("1000,5,MINUTE,1,100", "2000,5,MINUTE,2,200", "3000,5,MINUTE,3,300")));
+      assertThat("Replayed tail", replay(f, 1), equalTo(asList("3000,5,MINUTE,3,300")));
+    }
+    assertThat("File size", Files.size(path),
+        equalTo(8L + TEST_KEY.length() + TEST_CURRENCY.length() + 3 * PriceSpillFile.RECORD_SIZE));
+  }
+
+  @Test
+  public void appendLargeBatch() throws IOException {
+    // given
+    List<PriceDatum> prices = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      prices.add(price(i, i, 0));
+    }
+    try (PriceSpillFile f = PriceSpillFile.create(path, TEST_KEY, TEST_CURRENCY)) {
+      // when
+      f.append(prices);
+
+      // then
+      List<String> result = replay(f, Integer.MAX_VALUE);
+      assertThat("Replayed", result.size(), equalTo(5000));
+      assertThat("Last", result.get(4999), equalTo("4999000,5,MINUTE,4999,0"));
+    }
+  }
+
+  @Test
+  public void reopenDiscardsPartialRecord() throws IOException {
+    // given
+    try (PriceSpillFile f = PriceSpillFile.create(path, TEST_KEY, TEST_CURRENCY)) {
+      f.append(asList(price(1, 1, 0), price(2, 2, 0)));
+    }
+    try (FileChannel ch = FileChannel.open(path, StandardOpenOption.APPEND)) {
+      ch.write(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+    }
+
+    // when
+    try (PriceSpillFile f = PriceSpillFile.open(path)) {
+      f.append(asList(price(3, 3, 0)));
+
+      // then
+      assertThat("Key", f.getKey(), equalTo(TEST_KEY));
+      assertThat("Currency", f.getCurrencyCode(), equalTo(TEST_CURRENCY));
+      assertThat("Replayed", replay(f, 10), equalTo(
+          asList("1000,5,MINUTE,1,0", "2000,5,MINUTE,2,0", "3000,5,MINUTE,3,0")));
+    }
+  }
+
+  @Test
+  public void compactKeepsMostRecent() throws IOException {
+    // given
+    try (PriceSpillFile f = PriceSpillFile.create(path, TEST_KEY, TEST_CURRENCY)) {
+      f.append(asList(price(1, 1, 0), price(2, 2, 0), price(3, 3, 0), price(4, 4, 0)));
+
+      // when
+      long removed = f.compact(2);
+      f.append(asList(price(5, 5, 0)));
+
+      // then
+      assertThat("Removed", removed, equalTo(2L));
+      assertThat("Count", f.getCount(), equalTo(3L));
+      assertThat("Replayed", replay(f, 10), equalTo(
+          asList("3000,5,MINUTE,3,0", "4000,5,MINUTE,4,0", "5000,5,MINUTE,5,0")));
+    }
+    try (PriceSpillFile f = PriceSpillFile.open(path)) {
+      assertThat("Key after reopen", f.getKey(), equalTo(TEST_KEY));
+      assertThat("Replayed after reopen", replay(f, 10), equalTo(
+          asList("3000,5,MINUTE,3,0", "4000,5,MINUTE,4,0", "5000,5,MINUTE,5,0")));
+    }
+    assertThat("Temporary file removed",
+        Files.exists(path.resolveSibling(path.getFileName() + ".tmp")), equalTo(false));
+  }
+
+  @Test
+  public void compactUnderMaxDoesNothing() throws IOException {
+    try (PriceSpillFile f = PriceSpillFile.create(path, TEST_KEY, TEST_CURRENCY)) {
+      f.append(asList(price(1, 1, 0), price(2, 2, 0)));
+      assertThat("Removed", f.compact(2), equalTo(0L));
+      assertThat("Count", f.getCount(), equalTo(2L));
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void openInvalidFile() throws IOException {
+    Files.write(path, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+    PriceSpillFile.open(path).close();
+  }
+
+}
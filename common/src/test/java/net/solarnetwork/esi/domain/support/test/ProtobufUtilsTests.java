@@ -18,10 +18,14 @@
 package net.solarnetwork.esi.domain.support.test;
 
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.Assert.assertThat;
 
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.Currency;
 import java.util.concurrent.TimeUnit;
 
@@ -30,6 +34,8 @@ import org.junit.Test;
 import com.google.protobuf.Duration;
 
 import net.solarnetwork.esi.domain.Money;
+import net.solarnetwork.esi.domain.PriceComponents;
+import net.solarnetwork.esi.domain.PriceDatum;
 import net.solarnetwork.esi.domain.support.ProtobufUtils;
 
 /**
@@ -148,4 +154,32 @@ public class ProtobufUtilsTests {
     assertThat("Seconds", value.getSeconds(), equalTo(123456L));
     assertThat("Nanos", value.getNano(), equalTo((int) TimeUnit.MILLISECONDS.toNanos(789)));
   }
+
+  @Test
+  public void priceDatumSignatureMessageBytes() {
+    // given
+    final Instant date = Instant.ofEpochSecond(1559347200L, 123);
+    final PriceDatum datum = PriceDatum.newBuilder()
+        .setTs(ProtobufUtils.timestampForInstant(date)).setTimeLength(5)
+        .setTimeUnit(net.solarnetwork.esi.domain.TimeUnit.MINUTE)
+        .setPriceComponents(PriceComponents.newBuilder().setApparentEnergyPrice(
+            Money.newBuilder().setCurrencyCode("USD").setUnits(9L).setNanos(990000000)))
+        .build();
+
+    // when
+    final byte[] bytes = ProtobufUtils.priceDatumSignatureMessageBytes(datum);
+
+    // then
+    ByteBuffer expected = ByteBuffer.allocate(35);
+    expected.putLong(1559347200L).putInt(123);
+    expected.putInt(net.solarnetwork.esi.domain.TimeUnit.MINUTE_VALUE).putInt(5);
+    expected.put("USD".getBytes(StandardCharsets.UTF_8)).putLong(9L).putInt(990000000);
+    assertThat("Signature message", bytes, equalTo(expected.array()));
+    assertThat("Price is signed",
+        ProtobufUtils.priceDatumSignatureMessageBytes(datum.toBuilder().setPriceComponents(
+            datum.getPriceComponents().toBuilder().setApparentEnergyPrice(
+                datum.getPriceComponents().getApparentEnergyPrice().toBuilder().setUnits(10L)))),
+        not(equalTo(bytes)));
+  }
+
 }
@@ -0,0 +1,218 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.grpc.test;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import io.grpc.Status;
+import io.grpc.StatusException;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import net.solarnetwork.esi.grpc.FlowControlledStreamer;
+import net.solarnetwork.esi.grpc.FlowControlledStreamer.Source;
+
+/**
+ * Test cases for the {@link FlowControlledStreamer} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class FlowControlledStreamerTests {
+
+  private static class TestObserver extends ServerCallStreamObserver<Integer> {
+
+    private final List<Integer> values = new ArrayList<>();
+    private int readyLimit = Integer.MAX_VALUE;
+    private Runnable onReadyHandler;
+    private Runnable onCancelHandler;
+    private boolean completed;
+    private Throwable error;
+
+    @Override
+    public void onNext(Integer value) {
+      values.add(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      error = t;
+    }
+
+    @Override
+    public void onCompleted() {
+      completed = true;
+    }
+
+    @Override
+    public boolean isReady() {
+      return values.size() < readyLimit;
+    }
+
+    @Override
+    public void setOnReadyHandler(Runnable onReadyHandler) {
+      this.onReadyHandler = onReadyHandler;
+    }
+
+    @Override
+    public void disableAutoInboundFlowControl() {
+      // not used
+    }
+
+    @Override
+    public void request(int count) {
+      // not used
+    }
+
+    @Override
+    public void setMessageCompression(boolean enable) {
+      // not used
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    @Override
+    public void setOnCancelHandler(Runnable onCancelHandler) {
+      this.onCancelHandler = onCancelHandler;
+    }
+
+    @Override
+    public void setCompression(String compression) {
+      // not used
+    }
+
+    private void becomeReady(int readyLimit) {
+      this.readyLimit = readyLimit;
+      onReadyHandler.run();
+    }
+
+  }
+
+  private static Source<Integer> countTo(int max) {
+    AtomicInteger i = new AtomicInteger();
+    return () -> (i.get() < max ? i.incrementAndGet() : null);
+  }
+
+  @Test
+  public void streamOnlyWhileReady() {
+    // given
+    TestObserver observer = new TestObserver();
+    observer.readyLimit = 2;
+
+    // when
+    final FlowControlledStreamer<Integer> streamer = FlowControlledStreamer.stream(observer,
+        countTo(5));
+
+    // then
+    assertThat("Streamed until not ready", observer.values, contains(1, 2));
+    assertThat("Not completed", observer.completed, equalTo(false));
+    assertThat("Ready handler registered", observer.onReadyHandler, notNullValue());
+
+    observer.becomeReady(4);
+    assertThat("Resumed when ready", observer.values, contains(1, 2, 3, 4));
+    assertThat("Not completed", observer.completed, equalTo(false));
+
+    observer.becomeReady(Integer.MAX_VALUE);
+    assertThat("Streamed all", observer.values, contains(1, 2, 3, 4, 5));
+    assertThat("Completed", observer.completed, equalTo(true));
+    assertThat("Done", streamer.isDone(), equalTo(true));
+    assertThat("Count", streamer.getCount(), equalTo(5L));
+  }
+
+  @Test
+  public void stopWhenCancelled() {
+    // given
+    TestObserver observer = new TestObserver();
+    observer.readyLimit = 2;
+    final FlowControlledStreamer<Integer> streamer = FlowControlledStreamer.stream(observer,
+        countTo(5));
+
+    // when
+    observer.onCancelHandler.run();
+    observer.becomeReady(Integer.MAX_VALUE);
+
+    // then
+    assertThat("Nothing streamed after cancel", observer.values, contains(1, 2));
+    assertThat("Not completed", observer.completed, equalTo(false));
+    assertThat("Done", streamer.isDone(), equalTo(true));
+  }
+
+  @Test
+  public void sourceInvalidArgument() {
+    // given
+    TestObserver observer = new TestObserver();
+
+    // when
+    FlowControlledStreamer.stream(observer, () -> {
+      throw new IllegalArgumentException("Bad request.");
+    });
+
+    // then
+    assertThat("Error", observer.error, instanceOf(StatusException.class));
+    assertThat("Error status", ((StatusException) observer.error).getStatus().getCode(),
+        equalTo(Status.Code.INVALID_ARGUMENT));
+    assertThat("Not completed", observer.completed, equalTo(false));
+  }
+
+  @Test
+  public void plainObserverDrainsSource() {
+    // given
+    List<Integer> values = new ArrayList<>();
+    AtomicInteger completed = new AtomicInteger();
+    StreamObserver<Integer> observer = new StreamObserver<Integer>() {
+
+      @Override
+      public void onNext(Integer value) {
+        values.add(value);
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        throw new AssertionError(t);
+      }
+
+      @Override
+      public void onCompleted() {
+        completed.incrementAndGet();
+      }
+    };
+
+    // when
+    final FlowControlledStreamer<Integer> streamer = FlowControlledStreamer.stream(observer,
+        countTo(3));
+
+    // then
+    assertThat("Streamed all", values, contains(1, 2, 3));
+    assertThat("Completed once", completed.get(), equalTo(1));
+    assertThat("Count", streamer.getCount(), equalTo(3L));
+  }
+
+}
@@ -0,0 +1,92 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.grpc.test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.Test;
+
+import com.google.protobuf.Empty;
+
+import io.grpc.ServerServiceDefinition;
+import io.grpc.stub.StreamObserver;
+import net.solarnetwork.esi.domain.CryptoKey;
+import net.solarnetwork.esi.grpc.PreSerializedServiceDefinition;
+import net.solarnetwork.esi.service.DerFacilityExchangeGrpc;
+import net.solarnetwork.esi.service.DerFacilityExchangeGrpc.DerFacilityExchangeImplBase;
+
+/**
+ * Test cases for the {@link PreSerializedServiceDefinition} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class PreSerializedServiceDefinitionTests {
+
+  private static final class TestService extends DerFacilityExchangeImplBase {
+
+    @Override
+    public void getPublicCryptoKey(Empty request, StreamObserver<CryptoKey> responseObserver) {
+      responseObserver.onNext(CryptoKey.getDefaultInstance());
+      responseObserver.onCompleted();
+    }
+
+  }
+
+  @Test
+  public void bytesMarshallerRoundTrip() throws Exception {
+    byte[] data = CryptoKey.newBuilder().setAlgorithm("EC").build().toByteArray();
+    byte[] result = PreSerializedServiceDefinition.BYTES_MARSHALLER
+        .parse(PreSerializedServiceDefinition.BYTES_MARSHALLER.stream(data));
+    assertThat("Bytes passed through", result, equalTo(data));
+    assertThat("Parsed from stream", PreSerializedServiceDefinition.BYTES_MARSHALLER
+        .parse(new ByteArrayInputStream(data)), equalTo(data));
+  }
+
+  @Test
+  public void replaceUnaryMethod() {
+    ServerServiceDefinition orig = new TestService().bindService();
+    ServerServiceDefinition def = PreSerializedServiceDefinition.of(orig)
+        .unary(DerFacilityExchangeGrpc.getGetPublicCryptoKeyMethod(), (req, out) -> {
+          PreSerializedServiceDefinition.respond(new byte[0], out);
+        }).build();
+
+    String name = DerFacilityExchangeGrpc.getGetPublicCryptoKeyMethod().getFullMethodName();
+    assertThat("Method count", def.getMethods().size(), equalTo(orig.getMethods().size()));
+    assertThat("Replaced response marshaller",
+        def.getMethod(name).getMethodDescriptor().getResponseMarshaller(),
+        sameInstance(PreSerializedServiceDefinition.BYTES_MARSHALLER));
+    String other = DerFacilityExchangeGrpc.getListPricesMethod().getFullMethodName();
+    assertThat("Other method unchanged", def.getMethod(other), sameInstance(orig.getMethod(other)));
+    assertThat("Schema descriptor preserved", def.getServiceDescriptor().getSchemaDescriptor(),
+        sameInstance(orig.getServiceDescriptor().getSchemaDescriptor()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void replaceUnaryMethodWrongType() {
+    PreSerializedServiceDefinition.of(new TestService().bindService())
+        .unary(DerFacilityExchangeGrpc.getListPricesMethod(), (req, out) -> {
+          out.onCompleted();
+        });
+  }
+
+}
@@ -0,0 +1,191 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.util.test;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import net.solarnetwork.esi.util.CoalescingPublisher;
+
+/**
+ * Test cases for the {@link CoalescingPublisher} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class CoalescingPublisherTests {
+
+  private ThreadPoolTaskScheduler scheduler;
+  private List<String> sent;
+  private List<CompletableFuture<Object>> futures;
+
+  @Before
+  public void setup() {
+    scheduler = new ThreadPoolTaskScheduler();
+    scheduler.initialize();
+    sent = Collections.synchronizedList(new ArrayList<>());
+    futures = Collections.synchronizedList(new ArrayList<>());
+  }
+
+  @After
+  public void teardown() {
+    scheduler.shutdown();
+  }
+
+  private CompletableFuture<?> pendingSend(String key, Integer value) {
+    sent.add(key + value);
+    CompletableFuture<Object> f = new CompletableFuture<>();
+    futures.add(f);
+    return f;
+  }
+
+  private static CompletableFuture<?> failed(Throwable t) {
+    CompletableFuture<Object> f = new CompletableFuture<>();
+    f.completeExceptionally(t);
+    return f;
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void missingSender() {
+    new CoalescingPublisher<String, Integer>(scheduler, null);
+  }
+
+  @Test
+  public void latestValueWinsWhileInFlight() {
+    CoalescingPublisher<String, Integer> publisher = new CoalescingPublisher<>(scheduler,
+        this::pendingSend);
+
+    publisher.publish("a", 1);
+    publisher.publish("a", 2);
+    publisher.publish("a", 3);
+    assertThat("Only first value sent while in flight", sent, contains("a1"));
+    assertThat("Pending count", publisher.getPendingCount(), equalTo(1));
+
+    futures.get(0).complete(null);
+    assertThat("Latest value sent next", sent, contains("a1", "a3"));
+
+    futures.get(1).complete(null);
+    assertThat("Nothing left to send", sent, contains("a1", "a3"));
+    assertThat("Pending count", publisher.getPendingCount(), equalTo(0));
+    assertThat("In flight count", publisher.getInFlightCount(), equalTo(0));
+  }
+
+  @Test
+  public void inFlightBounded() {
+    CoalescingPublisher<String, Integer> publisher = new CoalescingPublisher<>(scheduler,
+        this::pendingSend);
+    publisher.setMaxInFlight(2);
+
+    publisher.publish("a", 1);
+    publisher.publish("b", 1);
+    publisher.publish("c", 1);
+    publisher.publish("c", 2);
+    assertThat("Sends bounded", sent, contains("a1", "b1"));
+    assertThat("In flight count", publisher.getInFlightCount(), equalTo(2));
+    assertThat("Pending count", publisher.getPendingCount(), equalTo(3));
+
+    futures.get(1).complete(null);
+    assertThat("Waiting key sent when slot frees", sent, contains("a1", "b1", "c2"));
+    assertThat("In flight count", publisher.getInFlightCount(), equalTo(2));
+  }
+
+  @Test
+  public void retryWithBackoff() throws InterruptedException {
+    final AtomicInteger attempts = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(1);
+    CoalescingPublisher<String, Integer> publisher = new CoalescingPublisher<>(scheduler,
+        (k, v) -> {
+          if (attempts.incrementAndGet() < 3) {
+            return failed(new RuntimeException("Unavailable"));
+          }
+          done.countDown();
+          return CompletableFuture.completedFuture(null);
+        });
+    publisher.setRetryDelayMs(10);
+
+    publisher.publish("a", 1);
+    assertThat("Sent after retries", done.await(5, TimeUnit.SECONDS), equalTo(true));
+    assertThat("Attempts", attempts.get(), equalTo(3));
+  }
+
+  @Test
+  public void retrySendsLatestValue() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    CoalescingPublisher<String, Integer> publisher = new CoalescingPublisher<>(scheduler,
+        (k, v) -> {
+          sent.add(k + v);
+          if (v == 1) {
+            return failed(new RuntimeException("Unavailable"));
+          }
+          done.countDown();
+          return CompletableFuture.completedFuture(null);
+        });
+    publisher.setRetryDelayMs(200);
+
+    publisher.publish("a", 1);
+    publisher.publish("a", 2);
+    assertThat("Sent after retry", done.await(5, TimeUnit.SECONDS), equalTo(true));
+    assertThat("Retry sent latest value", sent, contains("a1", "a2"));
+  }
+
+  @Test
+  public void giveUpAfterMaxAttempts() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(3);
+    CoalescingPublisher<String, Integer> publisher = new CoalescingPublisher<>(scheduler,
+        (k, v) -> {
+          done.countDown();
+          return failed(new RuntimeException("Unavailable"));
+        });
+    publisher.setRetryDelayMs(5);
+    publisher.setMaxAttempts(3);
+
+    publisher.publish("a", 1);
+    assertThat("Attempted max times", done.await(5, TimeUnit.SECONDS), equalTo(true));
+    Thread.sleep(100);
+    assertThat("Pending count", publisher.getPendingCount(), equalTo(0));
+  }
+
+  @Test
+  public void noRetryForIllegalArgument() {
+    final AtomicInteger attempts = new AtomicInteger();
+    CoalescingPublisher<String, Integer> publisher = new CoalescingPublisher<>(scheduler,
+        (k, v) -> {
+          attempts.incrementAndGet();
+          throw new IllegalArgumentException("Invalid");
+        });
+
+    publisher.publish("a", 1);
+    assertThat("Attempts", attempts.get(), equalTo(1));
+    assertThat("Pending count", publisher.getPendingCount(), equalTo(0));
+  }
+
+}
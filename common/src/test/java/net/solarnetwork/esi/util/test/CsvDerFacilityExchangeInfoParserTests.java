@@ -17,6 +17,7 @@
 
 package net.solarnetwork.esi.util.test;
 
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertThat;
@@ -30,6 +31,8 @@ import java.util.List;
 import org.junit.Test;
 
 import net.solarnetwork.esi.domain.DerFacilityExchangeInfo;
+import net.solarnetwork.esi.domain.DerProgramType;
+import net.solarnetwork.esi.domain.Location;
 import net.solarnetwork.esi.util.CsvDerFacilityExchangeInfoParser;
 
 /**
@@ -66,4 +69,36 @@ public class CsvDerFacilityExchangeInfoParserTests {
         "dns://1.1.1.1/foo.example.com:443");
   }
 
+  @Test
+  public void parseCsvWithProgramTypesAndLocation() throws IOException {
+    // given
+    Reader in = new InputStreamReader(getClass().getResourceAsStream("registry-02.csv"), "UTF-8");
+
+    // when
+    List<DerFacilityExchangeInfo> results = new ArrayList<>(8);
+    try (CsvDerFacilityExchangeInfoParser parser = new CsvDerFacilityExchangeInfoParser(in)) {
+      for (DerFacilityExchangeInfo info : parser) {
+        results.add(info);
+      }
+    }
+
+    // then
+    assertThat("Invalid row skipped", results, hasSize(2));
+
+    DerFacilityExchangeInfo info = results.get(0);
+    assertThat("Exchange 1 program types", info.getProgramTypesList(),
+        contains(DerProgramType.ARTIFICIAL_INERTIA, DerProgramType.RAMPING));
+    Location loc = info.getLocation();
+    assertThat("Exchange 1 country", loc.getCountry(), equalTo("NZ"));
+    assertThat("Exchange 1 region", loc.getRegion(), equalTo("Wellington"));
+    assertThat("Exchange 1 postal code", loc.getPostalCode(), equalTo("6011"));
+    assertThat("Exchange 1 latitude", loc.getLatlng().getLatitude(), equalTo(-41.2865));
+    assertThat("Exchange 1 longitude", loc.getLatlng().getLongitude(), equalTo(174.7762));
+
+    info = results.get(1);
+    assertThat("Exchange 2 name", info.getName(), equalTo("Foo Utility"));
+    assertThat("Exchange 2 program types", info.getProgramTypesCount(), equalTo(0));
+    assertThat("Exchange 2 location", info.hasLocation(), equalTo(false));
+  }
+
 }
@@ -0,0 +1,103 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.util.test;
+
+import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.solarnetwork.esi.util.CsvRecordReader;
+
+/**
+ * Test cases for the {@link CsvRecordReader} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class CsvRecordReaderTests {
+
+  private static List<String[]> readAll(String csv, int bufferSize) throws IOException {
+    List<String[]> result = new ArrayList<>();
+    try (CsvRecordReader reader = new CsvRecordReader(new StringReader(csv), bufferSize)) {
+      while (reader.next()) {
+        String[] rec = new String[reader.size()];
+        for (int i = 0; i < rec.length; i++) {
+          rec[i] = reader.get(i);
+        }
+        result.add(rec);
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void simple() throws IOException {
+    List<String[]> recs = readAll("a,b,c\n1,2,3\n", 8192);
+    assertThat("Record count", recs.size(), equalTo(2));
+    assertThat("Header", recs.get(0), arrayContaining("a", "b", "c"));
+    assertThat("Row", recs.get(1), arrayContaining("1", "2", "3"));
+  }
+
+  @Test
+  public void emptyFieldsAreNull() throws IOException {
+    List<String[]> recs = readAll("a,,c,\r\n", 8192);
+    assertThat("Fields", recs.get(0), arrayContaining("a", null, "c", null));
+  }
+
+  @Test
+  public void quotedFields() throws IOException {
+    List<String[]> recs = readAll("\"a,1\",\"say \"\"hi\"\"\",\"line\nbreak\"\n", 8192);
+    assertThat("Record count", recs.size(), equalTo(1));
+    assertThat("Fields", recs.get(0), arrayContaining("a,1", "say \"hi\"", "line\nbreak"));
+  }
+
+  @Test
+  public void blankLinesSkippedAndNoTrailingNewline() throws IOException {
+    List<String[]> recs = readAll("\n\r\na,b\r\n\r\nc,d", 8192);
+    assertThat("Record count", recs.size(), equalTo(2));
+    assertThat("First", recs.get(0), arrayContaining("a", "b"));
+    assertThat("Last", recs.get(1), arrayContaining("c", "d"));
+  }
+
+  @Test
+  public void smallBuffer() throws IOException {
+    List<String[]> recs = readAll("name,uid\r\n\"Foo, Inc.\",foo\r\nBar,bar\r\n", 3);
+    assertThat("Record count", recs.size(), equalTo(3));
+    assertThat("Quoted across buffers", recs.get(1), arrayContaining("Foo, Inc.", "foo"));
+    assertThat("Last", recs.get(2), arrayContaining("Bar", "bar"));
+  }
+
+  @Test
+  public void getOutOfRange() throws IOException {
+    try (CsvRecordReader reader = new CsvRecordReader(new StringReader("a"))) {
+      reader.next();
+      assertThat("Record number", reader.getRecordNumber(), equalTo(1L));
+      assertThat("Missing field", reader.get(1), nullValue());
+      assertThat("Negative index", reader.get(-1), nullValue());
+    }
+  }
+
+}
@@ -0,0 +1,68 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.util.test;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import net.solarnetwork.esi.domain.LatLng;
+import net.solarnetwork.esi.util.GeoUtils;
+
+/**
+ * Test cases for the {@link GeoUtils} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class GeoUtilsTests {
+
+  @Test
+  public void geohash() {
+    assertThat("Full precision", GeoUtils.geohash(57.64911, 10.40744, 11),
+        equalTo("u4pruydqqvj"));
+    assertThat("Low precision", GeoUtils.geohash(57.64911, 10.40744, 3), equalTo("u4p"));
+    assertThat("Southern hemisphere", GeoUtils.geohash(-41.2865, 174.7762, 5),
+        equalTo("rbsm1"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void geohashBadPrecision() {
+    GeoUtils.geohash(0, 0, 0);
+  }
+
+  @Test
+  public void geohashCellSize() {
+    assertThat("Precision 1 height", GeoUtils.geohashCellHeight(1), equalTo(45.0));
+    assertThat("Precision 1 width", GeoUtils.geohashCellWidth(1), equalTo(45.0));
+    assertThat("Precision 2 height", GeoUtils.geohashCellHeight(2), equalTo(5.625));
+    assertThat("Precision 2 width", GeoUtils.geohashCellWidth(2), equalTo(11.25));
+  }
+
+  @Test
+  public void distance() {
+    LatLng wellington = LatLng.newBuilder().setLatitude(-41.2865).setLongitude(174.7762).build();
+    LatLng auckland = LatLng.newBuilder().setLatitude(-36.8485).setLongitude(174.7633).build();
+    assertThat("Same point", GeoUtils.distance(wellington, wellington), equalTo(0.0));
+    assertThat("Wellington to Auckland", GeoUtils.distance(wellington, auckland),
+        closeTo(493_500, 1_000));
+  }
+
+}
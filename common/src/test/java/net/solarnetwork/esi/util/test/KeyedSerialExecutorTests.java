@@ -0,0 +1,139 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.util.test;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.solarnetwork.esi.util.KeyedSerialExecutor;
+
+/**
+ * Test cases for the {@link KeyedSerialExecutor} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class KeyedSerialExecutorTests {
+
+  private ExecutorService pool;
+  private KeyedSerialExecutor<String> executor;
+
+  @Before
+  public void setup() {
+    pool = Executors.newFixedThreadPool(4);
+    executor = new KeyedSerialExecutor<>(pool);
+  }
+
+  @After
+  public void teardown() {
+    pool.shutdownNow();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void missingExecutor() {
+    new KeyedSerialExecutor<String>(null);
+  }
+
+  @Test
+  public void sameKeyRunsInOrder() throws InterruptedException {
+    final int count = 200;
+    final List<Integer> results = Collections.synchronizedList(new ArrayList<>());
+    final List<Integer> expected = new ArrayList<>();
+    final CountDownLatch done = new CountDownLatch(count);
+    for (int i = 0; i < count; i++) {
+      final int n = i;
+      expected.add(n);
+      executor.execute("a", () -> {
+        results.add(n);
+        done.countDown();
+      });
+    }
+    assertThat("All tasks run", done.await(5, TimeUnit.SECONDS), equalTo(true));
+    assertThat("Tasks run in order", results, equalTo(expected));
+  }
+
+  @Test
+  public void differentKeysRunInParallel() throws InterruptedException {
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(1);
+    executor.execute("slow", () -> {
+      blocked.countDown();
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        // ignore
+      }
+    });
+    executor.execute("slow", () -> {
+    });
+    assertThat("Slow task started", blocked.await(5, TimeUnit.SECONDS), equalTo(true));
+    assertThat("Slow queue size", executor.getQueueSize("slow"), equalTo(2));
+    assertThat("Queued count", executor.getQueuedCount(), equalTo(2));
+    assertThat("Active key count", executor.getActiveKeyCount(), equalTo(1));
+
+    executor.execute("fast", done::countDown);
+
+    assertThat("Fast key not blocked by slow key", done.await(5, TimeUnit.SECONDS),
+        equalTo(true));
+    assertThat("Slow queue still blocked", executor.getQueueSize("slow"), equalTo(2));
+    release.countDown();
+  }
+
+  @Test
+  public void exceptionDoesNotStopQueue() throws InterruptedException {
+    final List<String> results = Collections.synchronizedList(new ArrayList<>());
+    final CountDownLatch done = new CountDownLatch(1);
+    executor.execute("a", () -> {
+      throw new RuntimeException("test");
+    });
+    executor.execute("a", () -> {
+      results.add("ok");
+      done.countDown();
+    });
+    assertThat("Later task run", done.await(5, TimeUnit.SECONDS), equalTo(true));
+    assertThat("Results", results, contains("ok"));
+  }
+
+  @Test
+  public void idleKeysDiscarded() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(2);
+    executor.execute("a", done::countDown);
+    executor.execute("b", done::countDown);
+    assertThat("Tasks run", done.await(5, TimeUnit.SECONDS), equalTo(true));
+    pool.shutdown();
+    pool.awaitTermination(5, TimeUnit.SECONDS);
+    assertThat("No active keys", executor.getActiveKeyCount(), equalTo(0));
+    assertThat("Queue size", executor.getQueueSize("a"), equalTo(0));
+  }
+
+}
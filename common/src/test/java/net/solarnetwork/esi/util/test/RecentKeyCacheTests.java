@@ -0,0 +1,140 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.util.test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.UUID;
+
+import org.junit.Test;
+
+import net.solarnetwork.esi.util.RecentKeyCache;
+
+/**
+ * Test cases for the {@link RecentKeyCache} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class RecentKeyCacheTests {
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidCapacity() {
+    new RecentKeyCache<UUID, String>(0, 10, 0.01);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidFalsePositiveRate() {
+    new RecentKeyCache<UUID, String>(10, 10, 1.0);
+  }
+
+  @Test
+  public void emptyCache() {
+    RecentKeyCache<UUID, String> cache = new RecentKeyCache<>();
+    UUID key = UUID.randomUUID();
+    assertThat("Value", cache.get(key), nullValue());
+    assertThat("Might contain", cache.mightContain(key), equalTo(false));
+    assertThat("Size", cache.size(), equalTo(0));
+  }
+
+  @Test
+  public void putAndGet() {
+    RecentKeyCache<UUID, String> cache = new RecentKeyCache<>();
+    UUID key = UUID.randomUUID();
+    cache.put(key, "foo");
+    assertThat("Value", cache.get(key), equalTo("foo"));
+    assertThat("Might contain", cache.mightContain(key), equalTo(true));
+    assertThat("Size", cache.size(), equalTo(1));
+  }
+
+  @Test
+  public void addDoesNotCacheValue() {
+    RecentKeyCache<UUID, String> cache = new RecentKeyCache<>();
+    UUID key = UUID.randomUUID();
+    cache.add(key);
+    assertThat("Value", cache.get(key), nullValue());
+    assertThat("Might contain", cache.mightContain(key), equalTo(true));
+    assertThat("Size", cache.size(), equalTo(0));
+  }
+
+  @Test
+  public void evictOldestButRememberInFilter() {
+    RecentKeyCache<UUID, String> cache = new RecentKeyCache<>(2, 100, 0.01);
+    UUID k1 = UUID.randomUUID();
+    UUID k2 = UUID.randomUUID();
+    UUID k3 = UUID.randomUUID();
+    cache.put(k1, "1");
+    cache.put(k2, "2");
+    cache.put(k3, "3");
+    assertThat("Size", cache.size(), equalTo(2));
+    assertThat("Oldest evicted", cache.get(k1), nullValue());
+    assertThat("Value 2", cache.get(k2), equalTo("2"));
+    assertThat("Value 3", cache.get(k3), equalTo("3"));
+    assertThat("Evicted key remembered", cache.mightContain(k1), equalTo(true));
+  }
+
+  @Test
+  public void replaceValueDoesNotEvict() {
+    RecentKeyCache<UUID, String> cache = new RecentKeyCache<>(2, 100, 0.01);
+    UUID k1 = UUID.randomUUID();
+    UUID k2 = UUID.randomUUID();
+    cache.put(k1, "1");
+    cache.put(k2, "2");
+    cache.put(k2, "22");
+    assertThat("Size", cache.size(), equalTo(2));
+    assertThat("Value 1", cache.get(k1), equalTo("1"));
+    assertThat("Value 2", cache.get(k2), equalTo("22"));
+  }
+
+  @Test
+  public void filterRemembersRecentGenerations() {
+    final int filterCapacity = 1000;
+    RecentKeyCache<UUID, String> cache = new RecentKeyCache<>(10, filterCapacity, 0.01);
+    UUID[] keys = new UUID[filterCapacity * 3];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = UUID.randomUUID();
+      cache.add(keys[i]);
+    }
+    for (int i = keys.length - filterCapacity; i < keys.length; i++) {
+      assertThat("Recent key " + i + " remembered", cache.mightContain(keys[i]), equalTo(true));
+    }
+  }
+
+  @Test
+  public void falsePositiveRateBounded() {
+    final int filterCapacity = 10000;
+    RecentKeyCache<UUID, String> cache = new RecentKeyCache<>(10, filterCapacity, 0.01);
+    for (int i = 0; i < filterCapacity * 5; i++) {
+      cache.add(UUID.randomUUID());
+    }
+    int falsePositives = 0;
+    final int tests = 10000;
+    for (int i = 0; i < tests; i++) {
+      if (cache.mightContain(UUID.randomUUID())) {
+        falsePositives++;
+      }
+    }
+    // two generations are tested, so allow for twice the configured rate plus some slack
+    assertThat("False positives", falsePositives, lessThan(tests * 3 / 100));
+  }
+
+}
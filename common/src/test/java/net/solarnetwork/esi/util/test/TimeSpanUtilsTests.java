@@ -0,0 +1,80 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.util.test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.time.Instant;
+
+import org.junit.Test;
+
+import net.solarnetwork.esi.domain.TimeUnit;
+import net.solarnetwork.esi.util.TimeSpanUtils;
+
+/**
+ * Test cases for the {@link TimeSpanUtils} class.
+ *
+ * @author matt
+ * @version 1.0
+ */
+public class TimeSpanUtilsTests {
+
+  private static long millis(String date) {
+    return Instant.parse(date).toEpochMilli();
+  }
+
+  @Test
+  public void minutes() {
+    long start = TimeSpanUtils.spanStart(millis("2019-06-01T10:22:33Z"), TimeUnit.MINUTE, 15);
+    assertThat("Start", start, equalTo(millis("2019-06-01T10:15:00Z")));
+    assertThat("End", TimeSpanUtils.spanEnd(start, TimeUnit.MINUTE, 15),
+        equalTo(millis("2019-06-01T10:30:00Z")));
+  }
+
+  @Test
+  public void weekStartsOnMonday() {
+    long start = TimeSpanUtils.spanStart(millis("2019-06-01T10:00:00Z"), TimeUnit.WEEK, 1);
+    assertThat("Start", start, equalTo(millis("2019-05-27T00:00:00Z")));
+    assertThat("End", TimeSpanUtils.spanEnd(start, TimeUnit.WEEK, 1),
+        equalTo(millis("2019-06-03T00:00:00Z")));
+  }
+
+  @Test
+  public void months() {
+    long start = TimeSpanUtils.spanStart(millis("2019-05-15T10:00:00Z"), TimeUnit.MONTH, 3);
+    assertThat("Start", start, equalTo(millis("2019-04-01T00:00:00Z")));
+    assertThat("End", TimeSpanUtils.spanEnd(start, TimeUnit.MONTH, 3),
+        equalTo(millis("2019-07-01T00:00:00Z")));
+  }
+
+  @Test
+  public void year() {
+    long start = TimeSpanUtils.spanStart(millis("2019-05-15T10:00:00Z"), TimeUnit.YEAR, 1);
+    assertThat("Start", start, equalTo(millis("2019-01-01T00:00:00Z")));
+    assertThat("End", TimeSpanUtils.spanEnd(start, TimeUnit.YEAR, 1),
+        equalTo(millis("2020-01-01T00:00:00Z")));
+  }
+
+  @Test
+  public void unitMillis() {
+    assertThat("Hour", TimeSpanUtils.unitMillis(TimeUnit.HOUR), equalTo(3600000L));
+    assertThat("Month is variable", TimeSpanUtils.unitMillis(TimeUnit.MONTH), equalTo(0L));
+  }
+
+}
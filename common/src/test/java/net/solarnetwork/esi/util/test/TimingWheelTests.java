@@ -0,0 +1,139 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.util.test;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.solarnetwork.esi.util.TimingWheel;
+import net.solarnetwork.esi.util.TimingWheel.Entry;
+
+/**
+ * Test cases for the {@link TimingWheel} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class TimingWheelTests {
+
+  private static List<String> tasks(List<Entry<String>> entries) {
+    return entries.stream().map(Entry::getTask).collect(toList());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidTick() {
+    new TimingWheel<String>(0, 8, 0);
+  }
+
+  @Test
+  public void emptyWheel() {
+    TimingWheel<String> wheel = new TimingWheel<>(1000L);
+    assertThat("Size", wheel.size(), equalTo(0));
+    assertThat("Nothing due", wheel.advance(100000L), empty());
+  }
+
+  @Test
+  public void scheduleAlreadyDue() {
+    TimingWheel<String> wheel = new TimingWheel<>(10, 8, 1000L);
+    wheel.schedule(500L, "past");
+    wheel.schedule(1005L, "now");
+    assertThat("Size", wheel.size(), equalTo(2));
+    assertThat("Due", tasks(wheel.advance(1000L)), contains("past", "now"));
+    assertThat("Size", wheel.size(), equalTo(0));
+  }
+
+  @Test
+  public void dueWithinFirstWheel() {
+    TimingWheel<String> wheel = new TimingWheel<>(10, 8, 0L);
+    wheel.schedule(35L, "a");
+    wheel.schedule(52L, "b");
+    assertThat("Not due yet", wheel.advance(29L), empty());
+    assertThat("Due at start of tick", tasks(wheel.advance(30L)), contains("a"));
+    assertThat("Not due yet", wheel.advance(49L), empty());
+    assertThat("Due", tasks(wheel.advance(60L)), contains("b"));
+    assertThat("Size", wheel.size(), equalTo(0));
+  }
+
+  @Test
+  public void dueFromOverflowWheels() {
+    TimingWheel<String> wheel = new TimingWheel<>(10, 8, 0L);
+    wheel.schedule(100L, "overflow");
+    wheel.schedule(1000L, "overflow2");
+    assertThat("Size", wheel.size(), equalTo(2));
+    for (long t = 0; t < 100L; t += 10) {
+      assertThat("Not due at " + t, wheel.advance(t), empty());
+    }
+    assertThat("Due", tasks(wheel.advance(100L)), contains("overflow"));
+    assertThat("Not due yet", wheel.advance(990L), empty());
+    assertThat("Due", tasks(wheel.advance(1000L)), contains("overflow2"));
+  }
+
+  @Test
+  public void advanceAcrossGap() {
+    TimingWheel<String> wheel = new TimingWheel<>(10, 8, 0L);
+    wheel.schedule(15L, "a");
+    wheel.schedule(5000L, "b");
+    assertThat("All due", tasks(wheel.advance(10000L)), contains("a", "b"));
+  }
+
+  @Test
+  public void idleWheelJumpsAhead() {
+    TimingWheel<String> wheel = new TimingWheel<>(10, 8, 0L);
+    wheel.advance(1000000L);
+    wheel.schedule(1000050L, "a");
+    assertThat("Not due yet", wheel.advance(1000040L), empty());
+    assertThat("Due", tasks(wheel.advance(1000050L)), contains("a"));
+  }
+
+  @Test
+  public void randomSchedule() {
+    final long tick = 10;
+    TimingWheel<Long> wheel = new TimingWheel<>(tick, 16, 0L);
+    Random rng = new Random(789);
+    List<Long> times = new ArrayList<>();
+    for (int i = 0; i < 10000; i++) {
+      long t = rng.nextInt(2000000);
+      times.add(t);
+      wheel.schedule(t, t);
+    }
+    int count = 0;
+    for (long now = 0; now <= 2000000L; now += 1 + rng.nextInt(50)) {
+      for (Entry<Long> e : wheel.advance(now)) {
+        assertThat("Not due more than a tick early", e.getTime(), lessThanOrEqualTo(now + tick));
+        assertThat("Due after previous advance", e.getTime() + tick, greaterThan(now - 50L));
+        count++;
+      }
+    }
+    count += wheel.advance(2000001L).size();
+    assertThat("All tasks returned", count, equalTo(times.size()));
+    assertThat("Size", wheel.size(), equalTo(0));
+  }
+
+}
@@ -17,23 +17,16 @@
 
 package net.solarnetwork.esi.simple.xreg.config;
 
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.Paths;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
 
-import net.solarnetwork.esi.domain.DerFacilityExchangeInfo;
+import net.solarnetwork.esi.simple.xreg.impl.DerFacilityExchangeRegistryStore;
 import net.solarnetwork.esi.simple.xreg.impl.SimpleDerFacilityExchangeRegistry;
-import net.solarnetwork.esi.util.CsvDerFacilityExchangeInfoParser;
 
 /**
  * gRPC configuration.
@@ -49,43 +42,38 @@ public class GrpcConfig {
   private Resource registryCsvResource = new ClassPathResource("default-registry.csv",
       SimpleDerFacilityExchangeRegistry.class);
 
-  private static final Logger log = LoggerFactory.getLogger(GrpcConfig.class);
+  @Value("${opreg.registry.snapshot:}")
+  private String registrySnapshotPath = "";
+
+  @Value("${opreg.registry.watch:true}")
+  private boolean registryWatch = true;
+
+  @Value("${opreg.registry.reloadDelayMs:1000}")
+  private long registryReloadDelayMs = DerFacilityExchangeRegistryStore.DEFAULT_RELOAD_DELAY_MS;
 
   /**
-   * The list of exchange services to provide in the registry.
+   * The store of exchange services to provide in the registry.
    * 
    * <p>
    * The registry is populated from the data loaded from the CSV resource configured by the
-   * {@literal opreg.registry.csv} setting.
+   * {@literal opreg.registry.csv} setting, and reloaded when that resource changes if the
+   * {@literal opreg.registry.watch} setting is {@literal true}. If the
+   * {@literal opreg.registry.snapshot} setting is configured, a binary snapshot of the data is
+   * saved to that path and used at startup while the CSV resource is unchanged.
    * </p>
    * 
-   * @return the parsed exchange infos
+   * @return the store
    */
-  @Bean
-  @Qualifier("exchange-list")
-  public List<DerFacilityExchangeInfo> exchangeInfos() {
-    List<DerFacilityExchangeInfo> infos = new ArrayList<>(8);
-    try (CsvDerFacilityExchangeInfoParser parser = new CsvDerFacilityExchangeInfoParser(
-        new InputStreamReader(registryCsvResource.getInputStream(), "UTF-8"))) {
-      for (DerFacilityExchangeInfo info : parser) {
-        infos.add(info);
-      }
-    } catch (IOException e) {
-      throw new RuntimeException("Error loading registry data from CSV "
-          + registryCsvResource.getDescription() + ": " + e.getMessage());
-    }
-    if (log.isInfoEnabled()) {
-      StringBuilder buf = new StringBuilder();
-      String fmt = "%-20s | %-20s | %-40s\n";
-      buf.append(String.format(fmt, "Name", "UID", "URI"));
-      buf.append(String.format(fmt, "--------------------", "--------------------",
-          "----------------------------------------"));
-      for (DerFacilityExchangeInfo info : infos) {
-        buf.append(String.format(fmt, info.getName(), info.getUid(), info.getEndpointUri()));
-      }
-      log.info("Loaded {} DerFacilityExchangeInfo registry entries:\n\n{}", infos.size(), buf);
+  @Bean(initMethod = "startup", destroyMethod = "shutdown")
+  public DerFacilityExchangeRegistryStore registryStore() {
+    DerFacilityExchangeRegistryStore store = new DerFacilityExchangeRegistryStore(
+        registryCsvResource);
+    if (registrySnapshotPath != null && !registrySnapshotPath.trim().isEmpty()) {
+      store.setSnapshotPath(Paths.get(registrySnapshotPath.trim()));
     }
-    return infos;
+    store.setWatch(registryWatch);
+    store.setReloadDelayMs(registryReloadDelayMs);
+    return store;
   }
 
 }
@@ -0,0 +1,404 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xreg.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.solarnetwork.esi.domain.DerFacilityExchangeInfo;
+import net.solarnetwork.esi.domain.DerFacilityExchangeRequest;
+import net.solarnetwork.esi.domain.DerProgramType;
+import net.solarnetwork.esi.domain.LatLng;
+import net.solarnetwork.esi.domain.Location;
+import net.solarnetwork.esi.util.GeoUtils;
+
+/**
+ * Immutable index of {@link DerFacilityExchangeInfo} entries, for finding the exchanges that match
+ * a {@link DerFacilityExchangeRequest}.
+ * 
+ * <p>
+ * Exchanges are indexed by program type, by location country, region, and postal code, and by a
+ * geohash grid over their location coordinates. Each index maps a key to a {@link BitSet} of entry
+ * positions, so request criteria are combined with set intersections instead of scanning every
+ * entry. An exchange that does not specify a program type or location field matches any requested
+ * value for that field.
+ * </p>
+ * 
+ * <p>
+ * When the request includes coordinates, matching exchanges are returned nearest first, followed by
+ * any matching exchanges without coordinates. Otherwise they are returned in their original order.
+ * When the request limits the number of results, the geohash grid is searched outwards from the
+ * request coordinates so only nearby exchanges need their distance computed.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class DerFacilityExchangeIndex {
+
+  /** The default geohash grid precision. */
+  public static final int DEFAULT_GEOHASH_PRECISION = 5;
+
+  private static final double METERS_PER_DEGREE = GeoUtils.EARTH_RADIUS_METERS * Math.PI / 180.0;
+
+  private final List<DerFacilityExchangeInfo> infos;
+  private final int geohashPrecision;
+  private final BitSet all;
+  private final KeyIndex<DerProgramType> programTypes;
+  private final KeyIndex<String> countries;
+  private final KeyIndex<String> regions;
+  private final KeyIndex<String> postalCodes;
+  private final BitSet located;
+  private final double[] latitudes;
+  private final double[] longitudes;
+  private final List<Map<String, BitSet>> geohashCells;
+  private final AtomicReferenceArray<byte[]> serialized;
+
+  /**
+   * Constructor.
+   * 
+   * <p>
+   * The {@link #DEFAULT_GEOHASH_PRECISION} will be used.
+   * </p>
+   * 
+   * @param infos
+   *        the exchanges to index
+   */
+  public DerFacilityExchangeIndex(List<DerFacilityExchangeInfo> infos) {
+    this(infos, DEFAULT_GEOHASH_PRECISION);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param infos
+   *        the exchanges to index
+   * @param geohashPrecision
+   *        the finest geohash grid precision to index coordinates with
+   * @throws IllegalArgumentException
+   *         if {@code geohashPrecision} is not a supported geohash precision
+   */
+  public DerFacilityExchangeIndex(List<DerFacilityExchangeInfo> infos, int geohashPrecision) {
+    super();
+    if (geohashPrecision < 1 || geohashPrecision > GeoUtils.MAX_GEOHASH_PRECISION) {
+      throw new IllegalArgumentException("The geohash precision must be between 1 and "
+          + GeoUtils.MAX_GEOHASH_PRECISION + ".");
+    }
+    this.infos = (infos != null && !infos.isEmpty()
+        ? Collections.unmodifiableList(new ArrayList<>(infos))
+        : Collections.emptyList());
+    this.geohashPrecision = geohashPrecision;
+    final int size = this.infos.size();
+    this.all = new BitSet(size);
+    this.all.set(0, size);
+    this.programTypes = new KeyIndex<>(new EnumMap<>(DerProgramType.class));
+    this.countries = new KeyIndex<>(new HashMap<>());
+    this.regions = new KeyIndex<>(new HashMap<>());
+    this.postalCodes = new KeyIndex<>(new HashMap<>());
+    this.located = new BitSet(size);
+    this.latitudes = new double[size];
+    this.longitudes = new double[size];
+    this.geohashCells = new ArrayList<>(geohashPrecision);
+    for (int p = 0; p < geohashPrecision; p++) {
+      geohashCells.add(new HashMap<>());
+    }
+    for (int i = 0; i < size; i++) {
+      index(i, this.infos.get(i));
+    }
+    this.serialized = new AtomicReferenceArray<>(size);
+  }
+
+  private void index(int i, DerFacilityExchangeInfo info) {
+    if (info.getProgramTypesCount() < 1) {
+      programTypes.addAny(i);
+    } else {
+      for (DerProgramType type : info.getProgramTypesList()) {
+        programTypes.add(type, i);
+      }
+    }
+    Location loc = (info.hasLocation() ? info.getLocation() : Location.getDefaultInstance());
+    countries.add(normalize(loc.getCountry()), i);
+    regions.add(normalize(loc.getRegion()), i);
+    postalCodes.add(normalize(loc.getPostalCode()), i);
+    if (loc.hasLatlng()) {
+      LatLng ll = loc.getLatlng();
+      located.set(i);
+      latitudes[i] = ll.getLatitude();
+      longitudes[i] = ll.getLongitude();
+      String hash = GeoUtils.geohash(ll, geohashPrecision);
+      for (int p = 1; p <= geohashPrecision; p++) {
+        geohashCells.get(p - 1).computeIfAbsent(hash.substring(0, p), k -> new BitSet())
+            .set(i);
+      }
+    }
+  }
+
+  private static String normalize(String value) {
+    if (value == null) {
+      return null;
+    }
+    String s = value.trim();
+    return (s.isEmpty() ? null : s.toUpperCase(Locale.ENGLISH));
+  }
+
+  /**
+   * Get the indexed exchanges.
+   * 
+   * @return the exchanges, in their original order
+   */
+  public List<DerFacilityExchangeInfo> getInfos() {
+    return infos;
+  }
+
+  /**
+   * Find the exchanges matching a request.
+   * 
+   * @param request
+   *        the request, or {@literal null} to find all exchanges
+   * @return the matching exchanges, never {@literal null}
+   */
+  public List<DerFacilityExchangeInfo> find(DerFacilityExchangeRequest request) {
+    if (request == null) {
+      return infos;
+    }
+    int[] positions = positions(request);
+    List<DerFacilityExchangeInfo> results = new ArrayList<>(positions.length);
+    for (int i : positions) {
+      results.add(infos.get(i));
+    }
+    return results;
+  }
+
+  /**
+   * Find the serialized exchanges matching a request.
+   * 
+   * <p>
+   * This returns the same exchanges as {@link #find(DerFacilityExchangeRequest)}, serialized with
+   * {@link DerFacilityExchangeInfo#toByteArray()}. Each exchange is serialized only once, when
+   * first requested, and the same bytes are returned from then on so they must not be modified.
+   * </p>
+   * 
+   * @param request
+   *        the request, or {@literal null} to find all exchanges
+   * @return the matching serialized exchanges, never {@literal null}
+   */
+  public List<byte[]> findSerialized(DerFacilityExchangeRequest request) {
+    final int[] positions;
+    if (request == null) {
+      positions = new int[infos.size()];
+      for (int i = 0; i < positions.length; i++) {
+        positions[i] = i;
+      }
+    } else {
+      positions = positions(request);
+    }
+    List<byte[]> results = new ArrayList<>(positions.length);
+    for (int i : positions) {
+      results.add(serialized(i));
+    }
+    return results;
+  }
+
+  private byte[] serialized(int i) {
+    byte[] data = serialized.get(i);
+    if (data == null) {
+      // racing threads serialize the same bytes, so whichever is stored is fine
+      data = infos.get(i).toByteArray();
+      serialized.lazySet(i, data);
+    }
+    return data;
+  }
+
+  private int[] positions(DerFacilityExchangeRequest request) {
+    BitSet matches = (BitSet) all.clone();
+    if (request.getProgramTypesCount() > 0) {
+      matches.and(programTypes.matching(request.getProgramTypesList()));
+    }
+    LatLng origin = null;
+    if (request.hasLocation()) {
+      Location loc = request.getLocation();
+      countries.filter(normalize(loc.getCountry()), matches);
+      regions.filter(normalize(loc.getRegion()), matches);
+      postalCodes.filter(normalize(loc.getPostalCode()), matches);
+      if (loc.hasLatlng()) {
+        origin = loc.getLatlng();
+      }
+    }
+    final int max = (request.getMaxResults() > 0 ? request.getMaxResults() : Integer.MAX_VALUE);
+    int[] nearest = null;
+    if (origin != null) {
+      BitSet nearby = (BitSet) matches.clone();
+      nearby.and(located);
+      nearest = nearest(origin, nearby, max);
+      matches.andNot(located);
+    }
+    final int offset = (nearest != null ? nearest.length : 0);
+    int[] results = new int[Math.min(max, offset + matches.cardinality())];
+    if (nearest != null) {
+      System.arraycopy(nearest, 0, results, 0, offset);
+    }
+    int i = matches.nextSetBit(0);
+    for (int j = offset; i >= 0 && j < results.length; j++) {
+      results[j] = i;
+      i = matches.nextSetBit(i + 1);
+    }
+    return results;
+  }
+
+  /**
+   * Get the positions of the entries nearest to a coordinate.
+   * 
+   * <p>
+   * The geohash cell containing {@code origin} and its eight neighbours are searched, starting at
+   * the finest precision. Every entry outside those cells is at least one cell dimension away from
+   * {@code origin}, so if at least {@code max} candidates are found within that distance they are
+   * the nearest entries. Otherwise the search continues at the next coarser precision, finally
+   * falling back to all candidates.
+   * </p>
+   */
+  private int[] nearest(LatLng origin, BitSet candidates, int max) {
+    final int count = candidates.cardinality();
+    if (count < 1) {
+      return new int[0];
+    }
+    if (max < count) {
+      for (int p = geohashPrecision; p > 0; p--) {
+        BitSet block = geohashBlock(origin, p);
+        block.and(candidates);
+        if (block.cardinality() < max) {
+          continue;
+        }
+        int[] result = byDistance(origin, block, max);
+        int last = result[result.length - 1];
+        if (GeoUtils.distance(origin.getLatitude(), origin.getLongitude(), latitudes[last],
+            longitudes[last]) <= geohashBlockRadius(origin, p)) {
+          return result;
+        }
+      }
+    }
+    return byDistance(origin, candidates, max);
+  }
+
+  private BitSet geohashBlock(LatLng origin, int precision) {
+    final double h = GeoUtils.geohashCellHeight(precision);
+    final double w = GeoUtils.geohashCellWidth(precision);
+    final Map<String, BitSet> cells = geohashCells.get(precision - 1);
+    BitSet result = new BitSet();
+    for (int dy = -1; dy <= 1; dy++) {
+      double lat = origin.getLatitude() + dy * h;
+      if (lat < -90.0 || lat > 90.0) {
+        continue;
+      }
+      for (int dx = -1; dx <= 1; dx++) {
+        double lng = origin.getLongitude() + dx * w;
+        if (lng < -180.0) {
+          lng += 360.0;
+        } else if (lng >= 180.0) {
+          lng -= 360.0;
+        }
+        BitSet cell = cells.get(GeoUtils.geohash(lat, lng, precision));
+        if (cell != null) {
+          result.or(cell);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Get the minimum distance from a coordinate to any point outside its geohash block.
+   */
+  private static double geohashBlockRadius(LatLng origin, int precision) {
+    final double h = GeoUtils.geohashCellHeight(precision);
+    final double w = GeoUtils.geohashCellWidth(precision);
+    // longitude degrees shrink towards the poles, so use the most poleward latitude of the block
+    double maxLat = Math.min(90.0, Math.abs(origin.getLatitude()) + 2 * h);
+    return Math.min(h, w * Math.cos(Math.toRadians(maxLat))) * METERS_PER_DEGREE;
+  }
+
+  private int[] byDistance(LatLng origin, BitSet positions, int max) {
+    final int count = positions.cardinality();
+    final long[] keys = new long[count];
+    int n = 0;
+    for (int i = positions.nextSetBit(0); i >= 0; i = positions.nextSetBit(i + 1)) {
+      double d = GeoUtils.distance(origin.getLatitude(), origin.getLongitude(), latitudes[i],
+          longitudes[i]);
+      // whole meters in the high bits and position in the low 24 bits, so keys sort by distance
+      keys[n++] = ((long) d << 24) | i;
+    }
+    Arrays.sort(keys);
+    int[] result = new int[Math.min(max, count)];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = (int) (keys[i] & 0xFFFFFF);
+    }
+    return result;
+  }
+
+  /**
+   * Index of entry positions by key, including entries that match any key.
+   */
+  private static final class KeyIndex<K> {
+
+    private final Map<K, BitSet> keys;
+    private final BitSet any = new BitSet();
+
+    private KeyIndex(Map<K, BitSet> keys) {
+      super();
+      this.keys = keys;
+    }
+
+    private void add(K key, int i) {
+      if (key == null) {
+        addAny(i);
+      } else {
+        keys.computeIfAbsent(key, k -> new BitSet()).set(i);
+      }
+    }
+
+    private void addAny(int i) {
+      any.set(i);
+    }
+
+    private BitSet matching(Iterable<K> values) {
+      BitSet result = (BitSet) any.clone();
+      for (K value : values) {
+        BitSet set = keys.get(value);
+        if (set != null) {
+          result.or(set);
+        }
+      }
+      return result;
+    }
+
+    private void filter(K value, BitSet matches) {
+      if (value != null) {
+        matches.and(matching(Collections.singleton(value)));
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,296 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xreg.impl;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+
+import net.solarnetwork.esi.domain.DerFacilityExchangeInfo;
+import net.solarnetwork.esi.util.CsvDerFacilityExchangeInfoParser;
+
+/**
+ * Store of registry entries loaded from a CSV resource, reloaded when the resource changes.
+ * 
+ * <p>
+ * Each load parses the CSV resource into a new immutable {@link DerFacilityExchangeIndex} that
+ * replaces the current one with a single volatile write, so callers that already obtained the
+ * current index from {@link #getIndex()} continue to use it undisturbed. If a snapshot path is
+ * configured, the parsed entries are also saved to a {@link DerFacilityExchangeSnapshotFile},
+ * which is read instead of the CSV resource at startup as long as the resource has not changed.
+ * </p>
+ * 
+ * <p>
+ * When the CSV resource is a file, the file is watched for changes and reloaded after
+ * {@link #setReloadDelayMs(long)} milliseconds, so a series of writes results in a single reload.
+ * If a reload fails the current index is kept.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class DerFacilityExchangeRegistryStore {
+
+  /**
+   * The default value for the {@code reloadDelayMs} property.
+   */
+  public static final long DEFAULT_RELOAD_DELAY_MS = 1000L;
+
+  private static final Logger log = LoggerFactory
+      .getLogger(DerFacilityExchangeRegistryStore.class);
+
+  private final Resource source;
+  private Path snapshotPath;
+  private boolean watch = true;
+  private long reloadDelayMs = DEFAULT_RELOAD_DELAY_MS;
+
+  private volatile DerFacilityExchangeIndex index = new DerFacilityExchangeIndex(
+      Collections.emptyList());
+  private WatchService watchService;
+  private Thread watchThread;
+
+  /**
+   * Constructor.
+   * 
+   * @param source
+   *        the CSV resource to load the registry entries from
+   * @throws IllegalArgumentException
+   *         if {@code source} is {@literal null}
+   */
+  public DerFacilityExchangeRegistryStore(Resource source) {
+    super();
+    if (source == null) {
+      throw new IllegalArgumentException("The source resource must be provided.");
+    }
+    this.source = source;
+  }
+
+  /**
+   * Load the registry entries and start watching for changes.
+   * 
+   * @throws RuntimeException
+   *         if the registry entries cannot be loaded
+   */
+  public synchronized void startup() {
+    try {
+      load(true);
+    } catch (IOException e) {
+      throw new RuntimeException("Error loading registry data from CSV "
+          + source.getDescription() + ": " + e.getMessage());
+    }
+    if (watch) {
+      startWatching();
+    }
+  }
+
+  /**
+   * Stop watching for changes.
+   */
+  public synchronized void shutdown() {
+    if (watchService != null) {
+      try {
+        watchService.close();
+      } catch (IOException e) {
+        // ignore
+      }
+      watchService = null;
+    }
+    if (watchThread != null) {
+      watchThread.interrupt();
+      watchThread = null;
+    }
+  }
+
+  /**
+   * Get the current index of registry entries.
+   * 
+   * @return the index, never {@literal null}
+   */
+  public DerFacilityExchangeIndex getIndex() {
+    return index;
+  }
+
+  /**
+   * Reload the registry entries from the CSV resource.
+   * 
+   * @return {@literal true} if the entries were reloaded, {@literal false} if an error occurred
+   *         and the current index was kept
+   */
+  public synchronized boolean reload() {
+    try {
+      load(false);
+      return true;
+    } catch (IOException | RuntimeException e) {
+      log.warn("Error reloading registry data from CSV {}, keeping {} current entries: {}",
+          source.getDescription(), index.getInfos().size(), e.getMessage());
+      return false;
+    }
+  }
+
+  private void load(boolean useSnapshot) throws IOException {
+    final long start = System.nanoTime();
+    final long modified = source.lastModified();
+    final long length = source.contentLength();
+    List<DerFacilityExchangeInfo> infos = null;
+    if (useSnapshot && snapshotPath != null) {
+      infos = DerFacilityExchangeSnapshotFile.read(snapshotPath, modified, length);
+      if (infos != null) {
+        log.info("Loaded {} DerFacilityExchangeInfo registry entries from snapshot {} in {}ms",
+            infos.size(), snapshotPath, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      }
+    }
+    if (infos == null) {
+      infos = parse();
+      log.info("Loaded {} DerFacilityExchangeInfo registry entries from CSV {} in {}ms",
+          infos.size(), source.getDescription(),
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      if (snapshotPath != null) {
+        try {
+          DerFacilityExchangeSnapshotFile.write(snapshotPath, modified, length, infos);
+        } catch (IOException e) {
+          log.warn("Error saving registry snapshot {}: {}", snapshotPath, e.getMessage());
+        }
+      }
+    }
+    if (log.isDebugEnabled()) {
+      logInfos(infos);
+    }
+    index = new DerFacilityExchangeIndex(infos);
+  }
+
+  private List<DerFacilityExchangeInfo> parse() throws IOException {
+    List<DerFacilityExchangeInfo> infos = new ArrayList<>(8);
+    try (CsvDerFacilityExchangeInfoParser parser = new CsvDerFacilityExchangeInfoParser(
+        new InputStreamReader(source.getInputStream(), StandardCharsets.UTF_8))) {
+      for (DerFacilityExchangeInfo info : parser) {
+        infos.add(info);
+      }
+    }
+    return infos;
+  }
+
+  private static void logInfos(List<DerFacilityExchangeInfo> infos) {
+    StringBuilder buf = new StringBuilder();
+    String fmt = "%-20s | %-20s | %-40s\n";
+    buf.append(String.format(fmt, "Name", "UID", "URI"));
+    buf.append(String.format(fmt, "--------------------", "--------------------",
+        "----------------------------------------"));
+    for (DerFacilityExchangeInfo info : infos) {
+      buf.append(String.format(fmt, info.getName(), info.getUid(), info.getEndpointUri()));
+    }
+    log.debug("DerFacilityExchangeInfo registry entries:\n\n{}", buf);
+  }
+
+  private void startWatching() {
+    if (!source.isFile()) {
+      log.info("Registry CSV {} is not a file; changes will not be watched.",
+          source.getDescription());
+      return;
+    }
+    try {
+      final Path file = source.getFile().toPath().toAbsolutePath();
+      final Path dir = file.getParent();
+      final WatchService ws = dir.getFileSystem().newWatchService();
+      dir.register(ws, ENTRY_CREATE, ENTRY_MODIFY);
+      watchService = ws;
+      watchThread = new Thread(() -> watch(ws, file.getFileName()), "registry-watch");
+      watchThread.setDaemon(true);
+      watchThread.start();
+      log.info("Watching registry CSV {} for changes.", file);
+    } catch (IOException e) {
+      log.warn("Unable to watch registry CSV {} for changes: {}", source.getDescription(),
+          e.getMessage());
+    }
+  }
+
+  private void watch(WatchService ws, Path fileName) {
+    try {
+      while (true) {
+        if (changed(ws.take(), fileName)) {
+          // wait for writes to settle, then discard any events they generated
+          Thread.sleep(reloadDelayMs);
+          for (WatchKey key = ws.poll(); key != null; key = ws.poll()) {
+            changed(key, fileName);
+          }
+          reload();
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      log.debug("Stopped watching registry CSV {}", fileName);
+    }
+  }
+
+  private static boolean changed(WatchKey key, Path fileName) {
+    boolean result = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (fileName.equals(event.context())) {
+        result = true;
+      }
+    }
+    key.reset();
+    return result;
+  }
+
+  /**
+   * Set the path to save a binary snapshot of the registry entries to.
+   * 
+   * @param snapshotPath
+   *        the snapshot path, or {@literal null} to not use a snapshot
+   */
+  public void setSnapshotPath(Path snapshotPath) {
+    this.snapshotPath = snapshotPath;
+  }
+
+  /**
+   * Toggle watching the CSV resource for changes.
+   * 
+   * @param watch
+   *        {@literal true} to reload the registry entries when the CSV resource changes; defaults
+   *        to {@literal true}
+   */
+  public void setWatch(boolean watch) {
+    this.watch = watch;
+  }
+
+  /**
+   * Set the amount of time to wait after a change is detected before reloading.
+   * 
+   * @param reloadDelayMs
+   *        the delay, in milliseconds; defaults to {@link #DEFAULT_RELOAD_DELAY_MS}
+   */
+  public void setReloadDelayMs(long reloadDelayMs) {
+    this.reloadDelayMs = reloadDelayMs;
+  }
+
+}
@@ -0,0 +1,150 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xreg.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import net.solarnetwork.esi.domain.DerFacilityExchangeInfo;
+
+/**
+ * Binary snapshot file of registry entries, read through a memory-mapped buffer.
+ * 
+ * <p>
+ * The file holds a header identifying the source data the snapshot was created from, followed by
+ * each {@link DerFacilityExchangeInfo} as a length-prefixed Protobuf message. Reading a snapshot
+ * maps the file and parses each message directly from the mapped buffer, which avoids parsing the
+ * source data again at startup.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public final class DerFacilityExchangeSnapshotFile {
+
+  /** The snapshot file magic number. */
+  public static final int MAGIC = 0x45534952;
+
+  /** The snapshot file format version. */
+  public static final int FORMAT_VERSION = 1;
+
+  private DerFacilityExchangeSnapshotFile() {
+    // not available
+  }
+
+  /**
+   * Read a snapshot file.
+   * 
+   * @param path
+   *        the file to read
+   * @param sourceModified
+   *        the modification date of the source data the snapshot must have been created from
+   * @param sourceLength
+   *        the length of the source data the snapshot must have been created from
+   * @return the snapshot entries, or {@literal null} if the file does not exist, is not a valid
+   *         snapshot, or was created from different source data
+   * @throws IOException
+   *         if any IO error occurs
+   */
+  public static List<DerFacilityExchangeInfo> read(Path path, long sourceModified,
+      long sourceLength) throws IOException {
+    if (!Files.isReadable(path)) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buf.remaining() < 28 || buf.getInt() != MAGIC || buf.getInt() != FORMAT_VERSION
+          || buf.getLong() != sourceModified || buf.getLong() != sourceLength) {
+        return null;
+      }
+      final int count = buf.getInt();
+      List<DerFacilityExchangeInfo> result = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        int len = buf.getInt();
+        ByteBuffer msg = buf.slice();
+        msg.limit(len);
+        result.add(DerFacilityExchangeInfo.parseFrom(msg));
+        buf.position(buf.position() + len);
+      }
+      return result;
+    } catch (BufferUnderflowException | IllegalArgumentException
+        | InvalidProtocolBufferException e) {
+      // truncated or corrupt
+      return null;
+    }
+  }
+
+  /**
+   * Write a snapshot file.
+   * 
+   * <p>
+   * The snapshot is written to a temporary file that is then moved to {@code path}, so readers
+   * never see a partially written snapshot.
+   * </p>
+   * 
+   * @param path
+   *        the file to write
+   * @param sourceModified
+   *        the modification date of the source data the entries were parsed from
+   * @param sourceLength
+   *        the length of the source data the entries were parsed from
+   * @param infos
+   *        the entries to write
+   * @throws IOException
+   *         if any IO error occurs
+   */
+  public static void write(Path path, long sourceModified, long sourceLength,
+      List<DerFacilityExchangeInfo> infos) throws IOException {
+    Path dir = path.toAbsolutePath().getParent();
+    Files.createDirectories(dir);
+    Path tmp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+    try {
+      try (OutputStream file = Files.newOutputStream(tmp);
+          DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(sourceModified);
+        out.writeLong(sourceLength);
+        out.writeInt(infos.size());
+        for (DerFacilityExchangeInfo info : infos) {
+          out.writeInt(info.getSerializedSize());
+          info.writeTo(out);
+        }
+      }
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+}
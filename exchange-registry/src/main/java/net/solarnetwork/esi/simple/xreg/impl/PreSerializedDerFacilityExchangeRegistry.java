@@ -0,0 +1,80 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xreg.impl;
+
+import static net.solarnetwork.esi.grpc.PreSerializedServiceDefinition.respond;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+import io.grpc.BindableService;
+import io.grpc.ServerServiceDefinition;
+import net.devh.boot.grpc.server.service.GrpcService;
+import net.solarnetwork.esi.grpc.PreSerializedServiceDefinition;
+import net.solarnetwork.esi.service.DerFacilityExchangeRegistryGrpc;
+
+/**
+ * Publish a {@link SimpleDerFacilityExchangeRegistry} with pre-serialized responses.
+ * 
+ * <p>
+ * The {@code ListDerFacilityExchanges} results are written from the serialized entries of the
+ * registry's current {@link DerFacilityExchangeIndex}, so each exchange is marshalled once per
+ * index instead of on every call. Reloading the registry replaces the index, and with it the
+ * serialized entries.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+@GrpcService
+public class PreSerializedDerFacilityExchangeRegistry implements BindableService {
+
+  private final SimpleDerFacilityExchangeRegistry registry;
+
+  /**
+   * Constructor.
+   * 
+   * @param registry
+   *        the registry to publish
+   * @throws IllegalArgumentException
+   *         if {@code registry} is {@literal null}
+   */
+  @Autowired
+  public PreSerializedDerFacilityExchangeRegistry(SimpleDerFacilityExchangeRegistry registry) {
+    super();
+    if (registry == null) {
+      throw new IllegalArgumentException("The registry must be provided.");
+    }
+    this.registry = registry;
+  }
+
+  @Override
+  public ServerServiceDefinition bindService() {
+    // @formatter:off
+    return PreSerializedServiceDefinition.of(registry.bindService())
+        .serverStreaming(DerFacilityExchangeRegistryGrpc.getListDerFacilityExchangesMethod(),
+            (req, out) -> {
+              for (byte[] info : registry.getIndex().findSerialized(req)) {
+                out.onNext(info);
+              }
+              out.onCompleted();
+            })
+        .build();
+    // @formatter:on
+  }
+
+}
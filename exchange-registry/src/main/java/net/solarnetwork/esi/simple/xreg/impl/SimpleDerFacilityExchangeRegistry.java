@@ -17,58 +17,86 @@
 
 package net.solarnetwork.esi.simple.xreg.impl;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.function.Supplier;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
 
 import io.grpc.stub.StreamObserver;
-import net.devh.boot.grpc.server.service.GrpcService;
 import net.solarnetwork.esi.domain.DerFacilityExchangeInfo;
 import net.solarnetwork.esi.domain.DerFacilityExchangeRequest;
 import net.solarnetwork.esi.service.DerFacilityExchangeRegistryGrpc.DerFacilityExchangeRegistryImplBase;
 
 /**
- * Really, really, really simple gRPC implementation of a DER exchange registry service.
+ * Simple gRPC implementation of a DER exchange registry service.
  * 
  * <p>
- * This service does not even use any information passed to
- * {@link #listDerFacilityExchanges(DerFacilityExchangeRequest, StreamObserver)}. It merely returns
- * statically-configured data loaded from configurable properties.
+ * This service returns data loaded from a {@link DerFacilityExchangeRegistryStore}, filtered by the
+ * program types and location passed to
+ * {@link #listDerFacilityExchanges(DerFacilityExchangeRequest, StreamObserver)} using a
+ * {@link DerFacilityExchangeIndex}. Each call uses the index that is current when the call starts,
+ * so reloading the store does not affect calls in progress.
+ * </p>
+ * 
+ * <p>
+ * This service is published by {@link PreSerializedDerFacilityExchangeRegistry}, which streams the
+ * pre-serialized entries of the current index.
  * </p>
  * 
  * @author matt
  * @version 1.0
  */
-@GrpcService
+@Service
 public class SimpleDerFacilityExchangeRegistry extends DerFacilityExchangeRegistryImplBase {
 
-  private final List<DerFacilityExchangeInfo> infos;
+  private final Supplier<DerFacilityExchangeIndex> index;
 
   /**
-   * Constructor.
+   * Constructor for a fixed list of exchanges.
    * 
    * @param infos
    *        the exchange information to serve
    */
+  public SimpleDerFacilityExchangeRegistry(List<DerFacilityExchangeInfo> infos) {
+    super();
+    final DerFacilityExchangeIndex fixed = new DerFacilityExchangeIndex(infos);
+    this.index = () -> fixed;
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param store
+   *        the store of exchange information to serve
+   * @throws IllegalArgumentException
+   *         if {@code store} is {@literal null}
+   */
   @Autowired
-  public SimpleDerFacilityExchangeRegistry(
-      @Qualifier("exchange-list") List<DerFacilityExchangeInfo> infos) {
+  public SimpleDerFacilityExchangeRegistry(DerFacilityExchangeRegistryStore store) {
     super();
-    this.infos = (infos != null && !infos.isEmpty()
-        ? Collections.unmodifiableList(new ArrayList<>(infos))
-        : Collections.emptyList());
+    if (store == null) {
+      throw new IllegalArgumentException("The store must be provided.");
+    }
+    this.index = store::getIndex;
   }
 
   @Override
   public void listDerFacilityExchanges(DerFacilityExchangeRequest request,
       StreamObserver<DerFacilityExchangeInfo> responseObserver) {
-    for (DerFacilityExchangeInfo info : infos) {
+    for (DerFacilityExchangeInfo info : index.get().find(request)) {
       responseObserver.onNext(info);
     }
     responseObserver.onCompleted();
   }
 
+  /**
+   * Get the current index.
+   * 
+   * @return the index
+   */
+  public DerFacilityExchangeIndex getIndex() {
+    return index.get();
+  }
+
 }
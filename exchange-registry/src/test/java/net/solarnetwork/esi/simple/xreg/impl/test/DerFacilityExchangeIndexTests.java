@@ -0,0 +1,184 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xreg.impl.test;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.solarnetwork.esi.domain.DerFacilityExchangeInfo;
+import net.solarnetwork.esi.domain.DerFacilityExchangeRequest;
+import net.solarnetwork.esi.domain.DerProgramType;
+import net.solarnetwork.esi.domain.LatLng;
+import net.solarnetwork.esi.domain.Location;
+import net.solarnetwork.esi.simple.xreg.impl.DerFacilityExchangeIndex;
+import net.solarnetwork.esi.util.GeoUtils;
+
+/**
+ * Test cases for the {@link DerFacilityExchangeIndex} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class DerFacilityExchangeIndexTests {
+
+  private List<DerFacilityExchangeInfo> infos;
+  private DerFacilityExchangeIndex index;
+
+  private static LatLng latLng(double lat, double lng) {
+    return LatLng.newBuilder().setLatitude(lat).setLongitude(lng).build();
+  }
+
+  private static DerFacilityExchangeInfo info(String uid, Location location,
+      DerProgramType... types) {
+    DerFacilityExchangeInfo.Builder b = DerFacilityExchangeInfo.newBuilder().setName(uid)
+        .setUid(uid).setEndpointUri("dns:///" + uid);
+    if (location != null) {
+      b.setLocation(location);
+    }
+    for (DerProgramType type : types) {
+      b.addProgramTypes(type);
+    }
+    return b.build();
+  }
+
+  private static List<String> uids(List<DerFacilityExchangeInfo> infos) {
+    return infos.stream().map(DerFacilityExchangeInfo::getUid).collect(toList());
+  }
+
+  @Before
+  public void setup() {
+    infos = new ArrayList<>();
+    infos.add(info("wlg", Location.newBuilder().setCountry("NZ").setRegion("Wellington")
+        .setPostalCode("6011").setLatlng(latLng(-41.2865, 174.7762)).build(),
+        DerProgramType.RAMPING));
+    infos.add(info("akl", Location.newBuilder().setCountry("NZ").setRegion("Auckland")
+        .setLatlng(latLng(-36.8485, 174.7633)).build(), DerProgramType.RAMPING,
+        DerProgramType.ARTIFICIAL_INERTIA));
+    infos.add(info("syd", Location.newBuilder().setCountry("AU")
+        .setLatlng(latLng(-33.8688, 151.2093)).build(), DerProgramType.FREQUENCY_REGULATION));
+    infos.add(info("nz-any", Location.newBuilder().setCountry("nz").build()));
+    infos.add(info("global", null));
+    index = new DerFacilityExchangeIndex(infos);
+  }
+
+  @Test
+  public void findAll() {
+    assertThat("Null request", index.find(null), equalTo(infos));
+    assertThat("Empty request", index.find(DerFacilityExchangeRequest.getDefaultInstance()),
+        equalTo(infos));
+  }
+
+  @Test
+  public void findByProgramType() {
+    DerFacilityExchangeRequest req = DerFacilityExchangeRequest.newBuilder()
+        .addProgramTypes(DerProgramType.ARTIFICIAL_INERTIA)
+        .addProgramTypes(DerProgramType.FREQUENCY_REGULATION).build();
+    assertThat("Supporting any requested type or all types", uids(index.find(req)),
+        contains("akl", "syd", "nz-any", "global"));
+  }
+
+  @Test
+  public void findByCountry() {
+    DerFacilityExchangeRequest req = DerFacilityExchangeRequest.newBuilder()
+        .setLocation(Location.newBuilder().setCountry("NZ")).build();
+    assertThat("Country or no country", uids(index.find(req)),
+        contains("wlg", "akl", "nz-any", "global"));
+  }
+
+  @Test
+  public void findByRegionAndPostalCode() {
+    DerFacilityExchangeRequest req = DerFacilityExchangeRequest.newBuilder()
+        .setLocation(Location.newBuilder().setCountry("NZ").setRegion("wellington")
+            .setPostalCode("6011"))
+        .build();
+    assertThat("Region and postal code", uids(index.find(req)),
+        contains("wlg", "nz-any", "global"));
+  }
+
+  @Test
+  public void findNearestFirst() {
+    DerFacilityExchangeRequest req = DerFacilityExchangeRequest.newBuilder()
+        .setLocation(Location.newBuilder().setLatlng(latLng(-37.7870, 175.2793))).build();
+    assertThat("Nearest first, then unlocated", uids(index.find(req)),
+        contains("akl", "wlg", "syd", "nz-any", "global"));
+  }
+
+  @Test
+  public void findNearestWithLimit() {
+    DerFacilityExchangeRequest req = DerFacilityExchangeRequest.newBuilder()
+        .setLocation(Location.newBuilder().setCountry("NZ").setLatlng(latLng(-41.0, 175.0)))
+        .addProgramTypes(DerProgramType.RAMPING).setMaxResults(1).build();
+    assertThat("Limited to nearest", uids(index.find(req)), contains("wlg"));
+  }
+
+  @Test
+  public void findNearestMatchesBruteForce() {
+    Random rng = new Random(123);
+    List<DerFacilityExchangeInfo> many = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      many.add(info(String.valueOf(i), Location.newBuilder()
+          .setLatlng(latLng(rng.nextDouble() * 20 - 45, rng.nextDouble() * 20 + 165)).build()));
+    }
+    DerFacilityExchangeIndex idx = new DerFacilityExchangeIndex(many);
+    for (int q = 0; q < 50; q++) {
+      LatLng origin = latLng(rng.nextDouble() * 20 - 45, rng.nextDouble() * 20 + 165);
+      int max = 1 + rng.nextInt(20);
+      DerFacilityExchangeRequest req = DerFacilityExchangeRequest.newBuilder()
+          .setLocation(Location.newBuilder().setLatlng(origin)).setMaxResults(max).build();
+      List<String> expected = many.stream()
+          .sorted(Comparator
+              .comparingLong(e -> (long) GeoUtils.distance(origin, e.getLocation().getLatlng())))
+          .limit(max).map(DerFacilityExchangeInfo::getUid).collect(toList());
+      assertThat("Query " + q + " nearest", uids(idx.find(req)), equalTo(expected));
+    }
+  }
+
+  @Test
+  public void findSerializedSameAsFind() throws Exception {
+    DerFacilityExchangeRequest req = DerFacilityExchangeRequest.newBuilder()
+        .setLocation(Location.newBuilder().setCountry("NZ").setLatlng(latLng(-41.0, 175.0)))
+        .build();
+    List<DerFacilityExchangeInfo> parsed = new ArrayList<>();
+    for (byte[] data : index.findSerialized(req)) {
+      parsed.add(DerFacilityExchangeInfo.parseFrom(data));
+    }
+    assertThat("Serialized results", parsed, equalTo(index.find(req)));
+  }
+
+  @Test
+  public void findSerializedReusesBytes() {
+    List<byte[]> first = index.findSerialized(null);
+    List<byte[]> second = index.findSerialized(DerFacilityExchangeRequest.getDefaultInstance());
+    assertThat("Result count", second.size(), equalTo(infos.size()));
+    for (int i = 0; i < first.size(); i++) {
+      assertThat("Serialized once", second.get(i), sameInstance(first.get(i)));
+    }
+  }
+
+}
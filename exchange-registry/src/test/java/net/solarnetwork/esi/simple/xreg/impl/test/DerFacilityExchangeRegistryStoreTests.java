@@ -0,0 +1,160 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xreg.impl.test;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.io.FileSystemResource;
+
+import net.solarnetwork.esi.domain.DerFacilityExchangeInfo;
+import net.solarnetwork.esi.simple.xreg.impl.DerFacilityExchangeIndex;
+import net.solarnetwork.esi.simple.xreg.impl.DerFacilityExchangeRegistryStore;
+import net.solarnetwork.esi.simple.xreg.impl.DerFacilityExchangeSnapshotFile;
+
+/**
+ * Test cases for the {@link DerFacilityExchangeRegistryStore} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class DerFacilityExchangeRegistryStoreTests {
+
+  private static final String CSV_1 = "name,uid,uri\nFoo,foo,dns:///foo\n";
+  private static final String CSV_2 = "name,uid,uri\nFoo,foo,dns:///foo\nBar,bar,dns:///bar\n";
+
+  @Rule
+  public final TemporaryFolder tmp = new TemporaryFolder();
+
+  private File csv;
+  private DerFacilityExchangeRegistryStore store;
+
+  @Before
+  public void setup() throws IOException {
+    csv = tmp.newFile("registry.csv");
+    write(CSV_1);
+    store = new DerFacilityExchangeRegistryStore(new FileSystemResource(csv));
+    store.setWatch(false);
+  }
+
+  @After
+  public void teardown() {
+    store.shutdown();
+  }
+
+  private void write(String data) throws IOException {
+    Files.write(csv.toPath(), data.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static List<String> uids(DerFacilityExchangeIndex index) {
+    return index.getInfos().stream().map(DerFacilityExchangeInfo::getUid).collect(toList());
+  }
+
+  @Test
+  public void startup() {
+    store.startup();
+    assertThat("Loaded", uids(store.getIndex()), contains("foo"));
+  }
+
+  @Test
+  public void reloadSwapsIndex() throws IOException {
+    store.startup();
+    final DerFacilityExchangeIndex first = store.getIndex();
+    write(CSV_2);
+    assertThat("Reloaded", store.reload(), equalTo(true));
+    assertThat("New index", uids(store.getIndex()), contains("foo", "bar"));
+    assertThat("Previous index unchanged", uids(first), contains("foo"));
+  }
+
+  @Test
+  public void reloadErrorKeepsIndex() throws IOException {
+    store.startup();
+    DerFacilityExchangeIndex first = store.getIndex();
+    Files.delete(csv.toPath());
+    assertThat("Reload failed", store.reload(), equalTo(false));
+    assertThat("Index kept", store.getIndex(), sameInstance(first));
+  }
+
+  @Test
+  public void snapshotSavedAndUsed() throws IOException {
+    Path snapshot = tmp.getRoot().toPath().resolve("registry.bin");
+    store.setSnapshotPath(snapshot);
+    store.startup();
+    List<DerFacilityExchangeInfo> saved = DerFacilityExchangeSnapshotFile.read(snapshot,
+        csv.lastModified(), csv.length());
+    assertThat("Snapshot saved", saved, equalTo(store.getIndex().getInfos()));
+
+    // replace the snapshot contents, to verify the snapshot is read instead of the CSV
+    DerFacilityExchangeInfo other = DerFacilityExchangeInfo.newBuilder().setName("Other")
+        .setUid("other").setEndpointUri("dns:///other").build();
+    DerFacilityExchangeSnapshotFile.write(snapshot, csv.lastModified(), csv.length(),
+        Collections.singletonList(other));
+    DerFacilityExchangeRegistryStore store2 = new DerFacilityExchangeRegistryStore(
+        new FileSystemResource(csv));
+    store2.setWatch(false);
+    store2.setSnapshotPath(snapshot);
+    store2.startup();
+    assertThat("Loaded from snapshot", uids(store2.getIndex()), contains("other"));
+  }
+
+  @Test
+  public void staleSnapshotIgnored() throws IOException {
+    Path snapshot = tmp.getRoot().toPath().resolve("registry.bin");
+    store.setSnapshotPath(snapshot);
+    store.startup();
+    assertThat("Stale snapshot", DerFacilityExchangeSnapshotFile.read(snapshot,
+        csv.lastModified() + 1000, csv.length()), nullValue());
+    assertThat("Missing snapshot", DerFacilityExchangeSnapshotFile
+        .read(tmp.getRoot().toPath().resolve("nope.bin"), 0, 0), nullValue());
+  }
+
+  @Test
+  public void watchReloads() throws Exception {
+    store.setWatch(true);
+    store.setReloadDelayMs(100);
+    store.startup();
+    DerFacilityExchangeIndex first = store.getIndex();
+    write(CSV_2);
+    // file system watch services may poll, so allow plenty of time
+    long deadline = System.currentTimeMillis() + 30_000L;
+    while (store.getIndex() == first && System.currentTimeMillis() < deadline) {
+      Thread.sleep(100);
+    }
+    assertThat("Index swapped", store.getIndex(), not(sameInstance(first)));
+    assertThat("Reloaded", uids(store.getIndex()), contains("foo", "bar"));
+  }
+
+}
@@ -0,0 +1,143 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xreg.impl.test;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.core.io.FileSystemResource;
+
+import io.grpc.ManagedChannel;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.testing.GrpcCleanupRule;
+import net.solarnetwork.esi.domain.DerFacilityExchangeInfo;
+import net.solarnetwork.esi.domain.DerFacilityExchangeRequest;
+import net.solarnetwork.esi.domain.DerProgramType;
+import net.solarnetwork.esi.service.DerFacilityExchangeRegistryGrpc;
+import net.solarnetwork.esi.service.DerFacilityExchangeRegistryGrpc.DerFacilityExchangeRegistryBlockingStub;
+import net.solarnetwork.esi.simple.xreg.impl.DerFacilityExchangeRegistryStore;
+import net.solarnetwork.esi.simple.xreg.impl.PreSerializedDerFacilityExchangeRegistry;
+import net.solarnetwork.esi.simple.xreg.impl.SimpleDerFacilityExchangeRegistry;
+
+/**
+ * Test cases for the {@link PreSerializedDerFacilityExchangeRegistry} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class PreSerializedDerFacilityExchangeRegistryTests {
+
+  @Rule
+  public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+  private Path csv;
+  private DerFacilityExchangeRegistryStore store;
+  private DerFacilityExchangeRegistryBlockingStub client;
+
+  @Before
+  public void setUp() throws Exception {
+    csv = Files.createTempFile("registry-", ".csv");
+    writeCsv("foo.bar");
+    store = new DerFacilityExchangeRegistryStore(new FileSystemResource(csv.toFile()));
+    store.setWatch(false);
+    store.startup();
+
+    String serverName = InProcessServerBuilder.generateName();
+    grpcCleanup.register(InProcessServerBuilder.forName(serverName).directExecutor()
+        .addService(new PreSerializedDerFacilityExchangeRegistry(
+            new SimpleDerFacilityExchangeRegistry(store)))
+        .build().start());
+    ManagedChannel channel = grpcCleanup
+        .register(InProcessChannelBuilder.forName(serverName).directExecutor().build());
+    client = DerFacilityExchangeRegistryGrpc.newBlockingStub(channel);
+  }
+
+  @After
+  public void teardown() throws Exception {
+    store.shutdown();
+    Files.deleteIfExists(csv);
+  }
+
+  private void writeCsv(String... uids) throws Exception {
+    StringBuilder buf = new StringBuilder("name,uid,uri,programTypes\n");
+    for (String uid : uids) {
+      buf.append("Exchange ").append(uid).append(',').append(uid).append(",dns:///")
+          .append(uid).append(".example.com,RAMPING\n");
+    }
+    Files.write(csv, buf.toString().getBytes("UTF-8"));
+  }
+
+  private List<DerFacilityExchangeInfo> list(DerFacilityExchangeRequest req) {
+    List<DerFacilityExchangeInfo> result = new ArrayList<>();
+    client.listDerFacilityExchanges(req).forEachRemaining(result::add);
+    return result;
+  }
+
+  private static List<String> uids(List<DerFacilityExchangeInfo> infos) {
+    List<String> result = new ArrayList<>(infos.size());
+    for (DerFacilityExchangeInfo info : infos) {
+      result.add(info.getUid());
+    }
+    return result;
+  }
+
+  @Test
+  public void listSameAsIndex() {
+    // when
+    List<DerFacilityExchangeInfo> result = list(DerFacilityExchangeRequest.getDefaultInstance());
+
+    // then
+    assertThat("Results same as index", result, equalTo(store.getIndex().getInfos()));
+  }
+
+  @Test
+  public void listFiltered() {
+    // when
+    List<DerFacilityExchangeInfo> result = list(DerFacilityExchangeRequest.newBuilder()
+        .addProgramTypes(DerProgramType.ARTIFICIAL_INERTIA).build());
+
+    // then
+    assertThat("No match", result, equalTo(new ArrayList<>()));
+  }
+
+  @Test
+  public void listAfterReload() throws Exception {
+    // given
+    list(DerFacilityExchangeRequest.getDefaultInstance());
+    writeCsv("foo.bar", "bim.bam");
+
+    // when
+    store.reload();
+    List<DerFacilityExchangeInfo> result = list(DerFacilityExchangeRequest.getDefaultInstance());
+
+    // then
+    assertThat("Reloaded results", uids(result), contains("foo.bar", "bim.bam"));
+  }
+
+}
@@ -24,6 +24,7 @@ import java.io.OutputStream;
 import java.io.Reader;
 import java.nio.charset.Charset;
 import java.security.KeyPair;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collections;
@@ -40,26 +41,38 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import com.google.protobuf.util.JsonFormat;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import net.solarnetwork.esi.domain.Form;
 import net.solarnetwork.esi.grpc.ChannelProvider;
 import net.solarnetwork.esi.grpc.SimpleChannelProvider;
 import net.solarnetwork.esi.simple.xchg.dao.FacilityEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityPriceMapOfferArchiveEntityDao;
 import net.solarnetwork.esi.simple.xchg.dao.FacilityPriceMapOfferEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityRegistrationCompletionEntityDao;
 import net.solarnetwork.esi.simple.xchg.dao.FacilityRegistrationEntityDao;
 import net.solarnetwork.esi.simple.xchg.dao.FacilityResourceCharacteristicsEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.PriceMapOfferingArchiveEntityDao;
 import net.solarnetwork.esi.simple.xchg.dao.PriceMapOfferingEntityDao;
+import net.solarnetwork.esi.simple.xchg.domain.PriceSeries;
 import net.solarnetwork.esi.simple.xchg.impl.DaoFacilityCharacteristicsService;
+import net.solarnetwork.esi.simple.xchg.impl.DaoFacilityRegistrationCompletionService;
 import net.solarnetwork.esi.simple.xchg.impl.DaoFacilityRegistrationService;
+import net.solarnetwork.esi.simple.xchg.impl.DaoPriceMapOfferingRetentionService;
 import net.solarnetwork.esi.simple.xchg.impl.DaoPriceMapOfferingService;
+import net.solarnetwork.esi.simple.xchg.impl.MemoryPriceSeriesService;
 import net.solarnetwork.esi.simple.xchg.impl.SimpleDerFacilityExchange;
 import net.solarnetwork.esi.simple.xchg.service.FacilityCharacteristicsService;
+import net.solarnetwork.esi.simple.xchg.service.FacilityRegistrationCompletionService;
 import net.solarnetwork.esi.simple.xchg.service.FacilityRegistrationService;
+import net.solarnetwork.esi.simple.xchg.service.PriceMapOfferingRetentionService;
 import net.solarnetwork.esi.simple.xchg.service.PriceMapOfferingService;
+import net.solarnetwork.esi.simple.xchg.service.PriceSeriesService;
 import net.solarnetwork.esi.util.CryptoHelper;
 import net.solarnetwork.esi.util.CryptoUtils;
 
@@ -98,6 +111,39 @@ public class DerFacilityExchangeConfig {
   @Value("${xchg.facility.conn.usePlaintext:false}")
   private boolean usePlaintext = false;
 
+  @Value("${xchg.registration.completion.pollFrequencyMs:10000}")
+  private long regCompletionPollFrequencyMs = 10000L;
+
+  @Value("${xchg.registration.completion.initialRetryDelayMs:5000}")
+  private long regCompletionInitialRetryDelayMs = 5000L;
+
+  @Value("${xchg.registration.completion.maxRetryDelayMs:3600000}")
+  private long regCompletionMaxRetryDelayMs = 3600000L;
+
+  @Value("${xchg.registration.completion.maxAttempts:20}")
+  private int regCompletionMaxAttempts = 20;
+
+  @Value("${xchg.registration.completion.maxConcurrencyPerHost:2}")
+  private int regCompletionMaxConcurrencyPerHost = 2;
+
+  @Value("${xchg.retention.periodDays:30}")
+  private int retentionPeriodDays = 30;
+
+  @Value("${xchg.retention.runFrequencyMs:3600000}")
+  private long retentionRunFrequencyMs = 3600000L;
+
+  @Value("${xchg.retention.batchSize:100}")
+  private int retentionBatchSize = 100;
+
+  @Value("${xchg.retention.maxBatchesPerRun:50}")
+  private int retentionMaxBatchesPerRun = 50;
+
+  @Value("${xchg.prices.chunkSize:1024}")
+  private int priceChunkSize = PriceSeries.DEFAULT_CHUNK_SIZE;
+
+  @Value("${xchg.prices.maxChunks:128}")
+  private int priceMaxChunks = MemoryPriceSeriesService.DEFAULT_MAX_CHUNKS;
+
   @Autowired
   public FacilityRegistrationEntityDao facilityRegistrationDao;
 
@@ -113,6 +159,21 @@ public class DerFacilityExchangeConfig {
   @Autowired
   public PriceMapOfferingEntityDao offeringDao;
 
+  @Autowired
+  public FacilityRegistrationCompletionEntityDao registrationCompletionDao;
+
+  @Autowired
+  public PriceMapOfferingArchiveEntityDao offeringArchiveDao;
+
+  @Autowired
+  public FacilityPriceMapOfferArchiveEntityDao priceMapOfferArchiveDao;
+
+  @Autowired
+  private TaskScheduler taskScheduler;
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry;
+
   @javax.annotation.Resource(name = "afterCommitTransactionEventPublisher")
   private ApplicationEventPublisher eventPublisher;
 
@@ -217,6 +278,26 @@ public class DerFacilityExchangeConfig {
     return new SimpleChannelProvider(usePlaintext);
   }
 
+  /**
+   * Create the {@link FacilityRegistrationCompletionService}.
+   * 
+   * @return the service
+   */
+  @Bean(initMethod = "startup", destroyMethod = "shutdown")
+  public FacilityRegistrationCompletionService facilityRegistrationCompletionService() {
+    DaoFacilityRegistrationCompletionService s = new DaoFacilityRegistrationCompletionService(
+        exchangeUid(), exchangeKeyPair(), cryptoHelper(), taskScheduler);
+    s.setCompletionDao(registrationCompletionDao);
+    s.setFacilityChannelProvider(facilityChannelProvider());
+    s.setPollFrequencyMs(regCompletionPollFrequencyMs);
+    s.setInitialRetryDelayMs(regCompletionInitialRetryDelayMs);
+    s.setMaxRetryDelayMs(regCompletionMaxRetryDelayMs);
+    s.setMaxAttempts(regCompletionMaxAttempts);
+    s.setMaxConcurrencyPerHost(regCompletionMaxConcurrencyPerHost);
+    s.setMeterRegistry(meterRegistry);
+    return s;
+  }
+
   /**
    * Create the {@link FacilityRegistrationService}.
    * 
@@ -229,6 +310,8 @@ public class DerFacilityExchangeConfig {
     s.setFacilityDao(facilityDao);
     s.setFacilityRegistrationDao(facilityRegistrationDao);
     s.setFacilityChannelProvider(facilityChannelProvider());
+    s.setRegistrationCompletionService(facilityRegistrationCompletionService());
+    s.setEventPublisher(eventPublisher);
     return s;
   }
 
@@ -264,4 +347,39 @@ public class DerFacilityExchangeConfig {
     return s;
   }
 
+  /**
+   * Create the {@link PriceSeriesService}.
+   * 
+   * @return the service
+   */
+  @Bean
+  public PriceSeriesService priceSeriesService() {
+    MemoryPriceSeriesService s = new MemoryPriceSeriesService(exchangeUid(), exchangeKeyPair(),
+        cryptoHelper());
+    s.setFacilityDao(facilityDao);
+    s.setPriceMapOfferDao(priceMapOfferDao);
+    s.setTransactionTemplate(new TransactionTemplate(txManager));
+    s.setChunkSize(priceChunkSize);
+    s.setMaxChunks(priceMaxChunks);
+    return s;
+  }
+
+  /**
+   * Create the {@link PriceMapOfferingRetentionService}.
+   * 
+   * @return the service
+   */
+  @Bean(initMethod = "startup", destroyMethod = "shutdown")
+  public PriceMapOfferingRetentionService priceMapOfferingRetentionService() {
+    DaoPriceMapOfferingRetentionService s = new DaoPriceMapOfferingRetentionService(offeringDao,
+        offeringArchiveDao, priceMapOfferArchiveDao, new TransactionTemplate(txManager));
+    s.setTaskScheduler(taskScheduler);
+    s.setRetentionPeriod(Duration.ofDays(retentionPeriodDays));
+    s.setRunFrequencyMs(retentionRunFrequencyMs);
+    s.setBatchSize(retentionBatchSize);
+    s.setMaxBatchesPerRun(retentionMaxBatchesPerRun);
+    s.setMeterRegistry(meterRegistry);
+    return s;
+  }
+
 }
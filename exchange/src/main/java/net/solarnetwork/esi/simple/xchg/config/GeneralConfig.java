@@ -24,6 +24,7 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.event.ApplicationEventMulticaster;
 import org.springframework.context.event.SimpleApplicationEventMulticaster;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.transaction.event.TransactionPhase;
 
 import net.solarnetwork.esi.dao.support.TransactionalApplicationEventPublisher;
@@ -45,6 +46,19 @@ public class GeneralConfig {
     return new ThreadPoolTaskExecutor();
   }
 
+  /**
+   * Create the task scheduler.
+   * 
+   * @return the scheduler
+   */
+  @Bean
+  public ThreadPoolTaskScheduler taskScheduler() {
+    ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+    scheduler.setPoolSize(2);
+    scheduler.setThreadNamePrefix("xchg-sched-");
+    return scheduler;
+  }
+
   /**
    * Create the application event publisher.
    * 
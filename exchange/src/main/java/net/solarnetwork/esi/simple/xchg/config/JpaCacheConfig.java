@@ -0,0 +1,111 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.config;
+
+import java.io.IOException;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.SharedCacheMode;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
+
+import net.solarnetwork.esi.simple.xchg.dao.FacilityEntityDao;
+import net.solarnetwork.esi.simple.xchg.impl.HibernateCacheMetrics;
+
+/**
+ * JPA second-level and query cache configuration.
+ * 
+ * <p>
+ * The cache is backed by an in-process JCache provider, configured by the resource defined by the
+ * {@literal xchg.cache.config} property. Every region used by the JPA entities must be defined in
+ * that configuration. Set the {@literal xchg.cache.enabled} property to {@literal false} to disable
+ * the cache.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+@Configuration
+@ConditionalOnProperty(name = "xchg.cache.enabled", havingValue = "true", matchIfMissing = true)
+public class JpaCacheConfig {
+
+  @Value("${xchg.cache.provider:org.ehcache.jsr107.EhcacheCachingProvider}")
+  private String cachingProvider = "org.ehcache.jsr107.EhcacheCachingProvider";
+
+  // CHECKSTYLE IGNORE LineLength FOR NEXT 1 LINE
+  @Value("${xchg.cache.config:classpath:/net/solarnetwork/esi/simple/xchg/config/jpa-ehcache.xml}")
+  private Resource cacheConfigResource;
+
+  /**
+   * Create the JCache manager for the JPA cache regions.
+   * 
+   * @return the cache manager
+   * @throws IOException
+   *         if the cache configuration cannot be resolved
+   */
+  @Bean(destroyMethod = "close")
+  public CacheManager jpaCacheManager() throws IOException {
+    return Caching.getCachingProvider(cachingProvider).getCacheManager(
+        cacheConfigResource.getURI(), JpaCacheConfig.class.getClassLoader());
+  }
+
+  /**
+   * Enable the Hibernate second-level and query caches, using {@link #jpaCacheManager()}.
+   * 
+   * @param cacheManager
+   *        the cache manager
+   * @return the customizer
+   */
+  @Bean
+  public HibernatePropertiesCustomizer jpaCacheHibernatePropertiesCustomizer(
+      CacheManager cacheManager) {
+    return props -> {
+      props.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, Boolean.TRUE);
+      props.put(AvailableSettings.USE_QUERY_CACHE, Boolean.TRUE);
+      props.put(AvailableSettings.CACHE_REGION_FACTORY, "jcache");
+      props.put(AvailableSettings.JPA_SHARED_CACHE_MODE, SharedCacheMode.ENABLE_SELECTIVE);
+      props.put(AvailableSettings.GENERATE_STATISTICS, Boolean.TRUE);
+      props.put(ConfigSettings.CACHE_MANAGER, cacheManager);
+      props.put(ConfigSettings.MISSING_CACHE_STRATEGY, "fail");
+    };
+  }
+
+  /**
+   * Publish cache hit ratio metrics.
+   * 
+   * @param entityManagerFactory
+   *        the entity manager factory
+   * @return the metrics
+   */
+  @Bean
+  public HibernateCacheMetrics hibernateCacheMetrics(EntityManagerFactory entityManagerFactory) {
+    return new HibernateCacheMetrics(entityManagerFactory.unwrap(SessionFactory.class),
+        FacilityEntityDao.FACILITY_UID_CACHE_REGION);
+  }
+
+}
@@ -0,0 +1,150 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import net.solarnetwork.esi.dao.support.MemoryTransactionManager;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityPriceMapOfferArchiveEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityPriceMapOfferEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityRegistrationCompletionEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityRegistrationEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityResourceCharacteristicsEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.PriceMapOfferingArchiveEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.PriceMapOfferingEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.mem.MemoryFacilityEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.mem.MemoryFacilityPriceMapOfferArchiveEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.mem.MemoryFacilityPriceMapOfferEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.mem.MemoryFacilityRegistrationCompletionEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.mem.MemoryFacilityRegistrationEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.mem.MemoryFacilityResourceCharacteristicsEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.mem.MemoryPriceMapOfferingArchiveEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.mem.MemoryPriceMapOfferingEntityDao;
+
+/**
+ * In-memory storage configuration, for load testing and simulation.
+ * 
+ * <p>
+ * Active with the {@literal memory} profile, which also disables the data source, JPA, and Flyway
+ * auto-configuration. All data is lost when the application stops, and transactions are never
+ * rolled back.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+@Configuration
+@Profile("memory")
+public class MemoryDaoConfig {
+
+  /**
+   * The in-memory transaction manager.
+   * 
+   * @return the transaction manager
+   */
+  @Bean
+  public PlatformTransactionManager transactionManager() {
+    return new MemoryTransactionManager();
+  }
+
+  /**
+   * The facility DAO.
+   * 
+   * @return the DAO
+   */
+  @Bean
+  public FacilityEntityDao facilityEntityDao() {
+    return new MemoryFacilityEntityDao();
+  }
+
+  /**
+   * The facility resource characteristics DAO.
+   * 
+   * @return the DAO
+   */
+  @Bean
+  public FacilityResourceCharacteristicsEntityDao facilityResourceCharacteristicsEntityDao() {
+    return new MemoryFacilityResourceCharacteristicsEntityDao();
+  }
+
+  /**
+   * The facility registration DAO.
+   * 
+   * @return the DAO
+   */
+  @Bean
+  public FacilityRegistrationEntityDao facilityRegistrationEntityDao() {
+    return new MemoryFacilityRegistrationEntityDao();
+  }
+
+  /**
+   * The facility registration completion DAO.
+   * 
+   * @return the DAO
+   */
+  @Bean
+  public FacilityRegistrationCompletionEntityDao facilityRegistrationCompletionEntityDao() {
+    return new MemoryFacilityRegistrationCompletionEntityDao();
+  }
+
+  /**
+   * The facility price map offer DAO.
+   * 
+   * @return the DAO
+   */
+  @Bean
+  public FacilityPriceMapOfferEntityDao facilityPriceMapOfferEntityDao() {
+    return new MemoryFacilityPriceMapOfferEntityDao();
+  }
+
+  /**
+   * The facility price map offer archive DAO.
+   * 
+   * @return the DAO
+   */
+  @Bean
+  public FacilityPriceMapOfferArchiveEntityDao facilityPriceMapOfferArchiveEntityDao() {
+    return new MemoryFacilityPriceMapOfferArchiveEntityDao();
+  }
+
+  /**
+   * The price map offering DAO, which cascades offer changes to the
+   * {@link #facilityPriceMapOfferEntityDao()} DAO.
+   * 
+   * @return the DAO
+   */
+  @Bean
+  public PriceMapOfferingEntityDao priceMapOfferingEntityDao() {
+    return new MemoryPriceMapOfferingEntityDao(facilityPriceMapOfferEntityDao());
+  }
+
+  /**
+   * The price map offering archive DAO.
+   * 
+   * @return the DAO
+   */
+  @Bean
+  public PriceMapOfferingArchiveEntityDao priceMapOfferingArchiveEntityDao() {
+    return new MemoryPriceMapOfferingArchiveEntityDao();
+  }
+
+}
@@ -17,10 +17,20 @@
 
 package net.solarnetwork.esi.simple.xchg.dao;
 
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
+import static org.hibernate.jpa.QueryHints.HINT_CACHE_REGION;
+
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
+import javax.persistence.QueryHint;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.PagingAndSortingRepository;
 
 import net.solarnetwork.esi.simple.xchg.domain.FacilityEntity;
@@ -34,6 +44,21 @@ import net.solarnetwork.esi.simple.xchg.domain.FacilityInfo;
  */
 public interface FacilityEntityDao extends PagingAndSortingRepository<FacilityEntity, UUID> {
 
+  /**
+   * The sort order used by the facility info keyset queries.
+   * 
+   * <p>
+   * The facility UID is included to make the order unique. The {@code FAC_CUST_UID_IDX} index
+   * covers this order.
+   * </p>
+   */
+  Sort INFO_KEYSET_SORT = Sort.by(Direction.ASC, "customerId", "facilityUid");
+
+  /**
+   * The name of the query cache region used by {@link #findByFacilityUid(String)}.
+   */
+  String FACILITY_UID_CACHE_REGION = "facility-uid-query-region";
+
   /**
    * Find all available facility infos.
    * 
@@ -43,6 +68,65 @@ public interface FacilityEntityDao extends PagingAndSortingRepository<FacilityEn
    */
   Iterable<FacilityInfo> findAllInfoBy(Sort sort);
 
+  /**
+   * Find the first page of facility infos.
+   * 
+   * <p>
+   * The {@code pageable} should be sorted by {@link #INFO_KEYSET_SORT}.
+   * </p>
+   * 
+   * @param pageable
+   *        the page and sort criteria
+   * @return the matching infos, never {@literal null}
+   */
+  List<FacilityInfoProjection> findInfoBy(Pageable pageable);
+
+  /**
+   * Find a page of facility infos that sort after a given customer ID and facility UID.
+   * 
+   * <p>
+   * The {@code pageable} should be sorted by {@link #INFO_KEYSET_SORT}. The {@code customerId}
+   * argument must be passed twice, as {@code customerId} and {@code sameCustomerId}.
+   * </p>
+   * 
+   * @param customerId
+   *        the customer ID to find infos after
+   * @param sameCustomerId
+   *        the same value as {@code customerId}
+   * @param facilityUid
+   *        the facility UID to find infos after, within {@code customerId}
+   * @param pageable
+   *        the page and sort criteria
+   * @return the matching infos, never {@literal null}
+   * @see #findInfoAfter(FacilityInfo, int)
+   */
+  List<FacilityInfoProjection> findInfoByCustomerIdGreaterThanOrCustomerIdAndFacilityUidGreaterThan(
+      String customerId, String sameCustomerId, String facilityUid, Pageable pageable);
+
+  /**
+   * Find a page of facility infos using keyset pagination.
+   * 
+   * <p>
+   * Infos are ordered by {@link #INFO_KEYSET_SORT}. To iterate over all infos, pass
+   * {@literal null} for {@code after} to get the first page, and then the last info of each page
+   * to get the next page, until a page with fewer than {@code max} results is returned.
+   * </p>
+   * 
+   * @param after
+   *        the info to find results after, or {@literal null} for the first page
+   * @param max
+   *        the maximum number of results to return
+   * @return the matching infos, never {@literal null}
+   */
+  default List<FacilityInfoProjection> findInfoAfter(FacilityInfo after, int max) {
+    Pageable page = PageRequest.of(0, max, INFO_KEYSET_SORT);
+    if (after == null) {
+      return findInfoBy(page);
+    }
+    return findInfoByCustomerIdGreaterThanOrCustomerIdAndFacilityUidGreaterThan(
+        after.getCustomerId(), after.getCustomerId(), after.getFacilityUid(), page);
+  }
+
   /**
    * Find a set of facilities by their UIDs.
    *
@@ -55,10 +139,18 @@ public interface FacilityEntityDao extends PagingAndSortingRepository<FacilityEn
   /**
    * Find a facility by its UID.
    * 
+   * <p>
+   * This is the lookup performed by most inbound exchange RPC calls, so the query results are
+   * cached in the {@link #FACILITY_UID_CACHE_REGION} query cache region when the second-level
+   * cache is enabled.
+   * </p>
+   * 
    * @param facilityUid
    *        the UID of the facility to find
    * @return the facility
    */
+  @QueryHints({ @QueryHint(name = HINT_CACHEABLE, value = "true"),
+      @QueryHint(name = HINT_CACHE_REGION, value = FACILITY_UID_CACHE_REGION) })
   Optional<FacilityEntity> findByFacilityUid(String facilityUid);
 
 }
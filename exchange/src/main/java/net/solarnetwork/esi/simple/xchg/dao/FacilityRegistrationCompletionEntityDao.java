@@ -0,0 +1,66 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.dao;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.repository.PagingAndSortingRepository;
+
+import net.solarnetwork.esi.simple.xchg.domain.FacilityRegistrationCompletionEntity;
+
+/**
+ * DAO API for {@link FacilityRegistrationCompletionEntity} entities.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public interface FacilityRegistrationCompletionEntityDao
+    extends PagingAndSortingRepository<FacilityRegistrationCompletionEntity, Long> {
+
+  /**
+   * Find a facility registration completion by a facility UID.
+   * 
+   * @param facilityUid
+   *        the UID of the facility to find the registration completion for
+   * @return the facility registration completion
+   */
+  Optional<FacilityRegistrationCompletionEntity> findByFacilityUid(String facilityUid);
+
+  /**
+   * Find registration completions whose next attempt date is on or before a given date.
+   * 
+   * @param date
+   *        the date to find due completions for
+   * @param pageable
+   *        the page and sort criteria
+   * @return the due completions, never {@literal null}
+   */
+  List<FacilityRegistrationCompletionEntity> findAllByNextAttemptDateLessThanEqual(Instant date,
+      Pageable pageable);
+
+  /**
+   * Find the oldest registration completion.
+   * 
+   * @return the registration completion with the earliest creation date
+   */
+  Optional<FacilityRegistrationCompletionEntity> findFirstByOrderByCreatedAsc();
+
+}
@@ -17,10 +17,18 @@
 
 package net.solarnetwork.esi.simple.xchg.dao;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
 
+import net.solarnetwork.esi.domain.PriceMapOfferStatus;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityPriceMapOfferEntity;
 import net.solarnetwork.esi.simple.xchg.domain.PriceMapOfferingEntity;
 
 /**
@@ -32,4 +40,31 @@ import net.solarnetwork.esi.simple.xchg.domain.PriceMapOfferingEntity;
 public interface PriceMapOfferingEntityDao
     extends PagingAndSortingRepository<PriceMapOfferingEntity, UUID> {
 
+  /**
+   * Find completed offerings that start before a given date.
+   * 
+   * <p>
+   * An offering is completed when all its offers are final, as defined by
+   * {@link PriceMapOfferingEntity#isCompleted(Collection)}: the offer status is one of
+   * {@code finalStatuses}, the facility declined the offer, or a later offer to the same facility
+   * within the offering supersedes it.
+   * </p>
+   * 
+   * @param date
+   *        the date to find offerings starting before
+   * @param finalStatuses
+   *        the final offer statuses, typically {@link FacilityPriceMapOfferEntity#FINAL_STATUSES}
+   * @param pageable
+   *        the page and sort criteria
+   * @return the matching offerings, never {@literal null}
+   */
+  @Query("SELECT p FROM PriceMapOfferingEntity p WHERE p.startDate < :date AND NOT EXISTS ("
+      + "SELECT o FROM FacilityPriceMapOfferEntity o WHERE o.offering = p"
+      + " AND o.status NOT IN :finalStatuses AND (o.confirmed = false OR o.accepted = true)"
+      + " AND NOT EXISTS (SELECT o2 FROM FacilityPriceMapOfferEntity o2 WHERE o2.offering = p"
+      + " AND o2.facility = o.facility AND o2.created > o.created))")
+  List<PriceMapOfferingEntity> findAllCompletedByStartDateBefore(@Param("date") Instant date,
+      @Param("finalStatuses") Collection<PriceMapOfferStatus.Status> finalStatuses,
+      Pageable pageable);
+
 }
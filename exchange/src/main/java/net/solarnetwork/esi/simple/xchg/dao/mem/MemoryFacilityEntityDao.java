@@ -0,0 +1,187 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.dao.mem;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import net.solarnetwork.esi.dao.support.BaseMemoryRepository;
+import net.solarnetwork.esi.dao.support.MemoryIndex;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityInfoProjection;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityEntity;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityInfo;
+
+/**
+ * In-memory implementation of {@link FacilityEntityDao}.
+ * 
+ * <p>
+ * Facilities are indexed by facility UID, which must be unique, and by the
+ * {@link FacilityEntityDao#INFO_KEYSET_SORT} order so keyset pages are read from the index without
+ * sorting.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class MemoryFacilityEntityDao extends BaseMemoryRepository<FacilityEntity, UUID>
+    implements FacilityEntityDao {
+
+  private final MemoryIndex<String, UUID> facilityUidIndex = new MemoryIndex<>();
+  private final MemoryIndex<InfoKey, UUID> infoIndex = new MemoryIndex<>(InfoKey.ORDER);
+
+  @Override
+  public <S extends FacilityEntity> S save(S entity) {
+    UUID existing = (entity != null ? facilityUidIndex.getFirst(entity.getFacilityUid()) : null);
+    if (existing != null && !existing.equals(entity.getId())) {
+      throw new DataIntegrityViolationException(
+          "Facility UID [" + entity.getFacilityUid() + "] already exists.");
+    }
+    return super.save(entity);
+  }
+
+  @Override
+  protected void indexEntity(FacilityEntity entity) {
+    facilityUidIndex.put(entity.getId(), entity.getFacilityUid());
+    infoIndex.put(entity.getId(), new InfoKey(entity.getCustomerId(), entity.getFacilityUid()));
+  }
+
+  @Override
+  protected void unindexEntity(FacilityEntity entity) {
+    facilityUidIndex.remove(entity.getId());
+    infoIndex.remove(entity.getId());
+  }
+
+  @Override
+  public Iterable<FacilityInfo> findAllInfoBy(Sort sort) {
+    Stream<FacilityInfo> infos = entities(infoIndex.ids()).map(InfoSnapshot::new);
+    if (sort != null && sort.isSorted() && !sort.equals(INFO_KEYSET_SORT)) {
+      infos = infos.sorted(comparator(sort));
+    }
+    return infos.collect(Collectors.toList());
+  }
+
+  @Override
+  public List<FacilityInfoProjection> findInfoBy(Pageable pageable) {
+    return page(entities(infoIndex.ids()).map(InfoSnapshot::new), pageable, INFO_KEYSET_SORT);
+  }
+
+  // CHECKSTYLE IGNORE LineLength FOR NEXT 2 LINES
+  @Override
+  public List<FacilityInfoProjection> findInfoByCustomerIdGreaterThanOrCustomerIdAndFacilityUidGreaterThan(
+      String customerId, String sameCustomerId, String facilityUid, Pageable pageable) {
+    return page(entities(infoIndex.tailIds(new InfoKey(customerId, facilityUid), false))
+        .map(InfoSnapshot::new), pageable, INFO_KEYSET_SORT);
+  }
+
+  @Override
+  public Iterable<FacilityEntity> findAllByFacilityUidIn(Iterable<String> facilityUids) {
+    return entities(StreamSupport.stream(facilityUids.spliterator(), false)
+        .map(facilityUidIndex::getFirst).filter(Objects::nonNull)).collect(Collectors.toList());
+  }
+
+  @Override
+  public Optional<FacilityEntity> findByFacilityUid(String facilityUid) {
+    return Optional.ofNullable(entity(facilityUidIndex.getFirst(facilityUid)));
+  }
+
+  /**
+   * Index key in {@link FacilityEntityDao#INFO_KEYSET_SORT} order.
+   */
+  private static final class InfoKey {
+
+    private static final Comparator<String> NULLS_FIRST = Comparator
+        .nullsFirst(Comparator.naturalOrder());
+
+    private static final Comparator<InfoKey> ORDER = Comparator
+        .comparing((InfoKey k) -> k.customerId, NULLS_FIRST)
+        .thenComparing(k -> k.facilityUid, NULLS_FIRST);
+
+    private final String customerId;
+    private final String facilityUid;
+
+    private InfoKey(String customerId, String facilityUid) {
+      super();
+      this.customerId = customerId;
+      this.facilityUid = facilityUid;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(customerId, facilityUid);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof InfoKey)) {
+        return false;
+      }
+      InfoKey other = (InfoKey) obj;
+      return Objects.equals(customerId, other.customerId)
+          && Objects.equals(facilityUid, other.facilityUid);
+    }
+
+  }
+
+  /**
+   * Immutable copy of the info properties of a facility, like a JPA query projection.
+   */
+  private static final class InfoSnapshot implements FacilityInfoProjection {
+
+    private final String facilityUid;
+    private final String customerId;
+    private final String uici;
+
+    private InfoSnapshot(FacilityEntity entity) {
+      super();
+      this.facilityUid = entity.getFacilityUid();
+      this.customerId = entity.getCustomerId();
+      this.uici = entity.getUici();
+    }
+
+    @Override
+    public String getFacilityUid() {
+      return facilityUid;
+    }
+
+    @Override
+    public String getCustomerId() {
+      return customerId;
+    }
+
+    @Override
+    public String getUici() {
+      return uici;
+    }
+
+  }
+
+}
@@ -0,0 +1,60 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.dao.mem;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import net.solarnetwork.esi.dao.support.BaseMemoryRepository;
+import net.solarnetwork.esi.dao.support.MemoryIndex;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityPriceMapOfferArchiveEntityDao;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityPriceMapOfferArchiveEntity;
+
+/**
+ * In-memory implementation of {@link FacilityPriceMapOfferArchiveEntityDao}.
+ * 
+ * <p>
+ * Archived offers are indexed by offering ID.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class MemoryFacilityPriceMapOfferArchiveEntityDao
+    extends BaseMemoryRepository<FacilityPriceMapOfferArchiveEntity, UUID>
+    implements FacilityPriceMapOfferArchiveEntityDao {
+
+  private final MemoryIndex<UUID, UUID> offeringIdIndex = new MemoryIndex<>();
+
+  @Override
+  protected void indexEntity(FacilityPriceMapOfferArchiveEntity entity) {
+    offeringIdIndex.put(entity.getId(), entity.getOfferingId());
+  }
+
+  @Override
+  protected void unindexEntity(FacilityPriceMapOfferArchiveEntity entity) {
+    offeringIdIndex.remove(entity.getId());
+  }
+
+  @Override
+  public List<FacilityPriceMapOfferArchiveEntity> findAllByOfferingId(UUID offeringId) {
+    return entities(offeringIdIndex.get(offeringId).stream()).collect(Collectors.toList());
+  }
+
+}
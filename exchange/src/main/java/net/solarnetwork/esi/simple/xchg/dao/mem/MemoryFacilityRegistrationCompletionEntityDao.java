@@ -0,0 +1,94 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.dao.mem;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import net.solarnetwork.esi.dao.support.BaseMemoryRepository;
+import net.solarnetwork.esi.dao.support.MemoryIndex;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityRegistrationCompletionEntityDao;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityRegistrationCompletionEntity;
+
+/**
+ * In-memory implementation of {@link FacilityRegistrationCompletionEntityDao}.
+ * 
+ * <p>
+ * Completions are indexed by facility UID, and by next attempt and creation dates in order so due
+ * and oldest completions are found without scanning the queue.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class MemoryFacilityRegistrationCompletionEntityDao
+    extends BaseMemoryRepository<FacilityRegistrationCompletionEntity, Long>
+    implements FacilityRegistrationCompletionEntityDao {
+
+  private static final Sort NEXT_ATTEMPT_DATE_SORT = Sort.by("nextAttemptDate");
+
+  private final AtomicLong idGenerator = new AtomicLong();
+  private final MemoryIndex<String, Long> facilityUidIndex = new MemoryIndex<>();
+  private final MemoryIndex<Instant, Long> nextAttemptDateIndex = new MemoryIndex<>(
+      Comparator.naturalOrder());
+  private final MemoryIndex<Instant, Long> createdIndex = new MemoryIndex<>(
+      Comparator.naturalOrder());
+
+  @Override
+  protected Long generateId(FacilityRegistrationCompletionEntity entity) {
+    return idGenerator.incrementAndGet();
+  }
+
+  @Override
+  protected void indexEntity(FacilityRegistrationCompletionEntity entity) {
+    facilityUidIndex.put(entity.getId(), entity.getFacilityUid());
+    nextAttemptDateIndex.put(entity.getId(), entity.getNextAttemptDate());
+    createdIndex.put(entity.getId(), entity.getCreated());
+  }
+
+  @Override
+  protected void unindexEntity(FacilityRegistrationCompletionEntity entity) {
+    facilityUidIndex.remove(entity.getId());
+    nextAttemptDateIndex.remove(entity.getId());
+    createdIndex.remove(entity.getId());
+  }
+
+  @Override
+  public Optional<FacilityRegistrationCompletionEntity> findByFacilityUid(String facilityUid) {
+    return Optional.ofNullable(entity(facilityUidIndex.getFirst(facilityUid)));
+  }
+
+  @Override
+  public List<FacilityRegistrationCompletionEntity> findAllByNextAttemptDateLessThanEqual(
+      Instant date, Pageable pageable) {
+    return page(entities(nextAttemptDateIndex.headIds(date, true)), pageable,
+        NEXT_ATTEMPT_DATE_SORT);
+  }
+
+  @Override
+  public Optional<FacilityRegistrationCompletionEntity> findFirstByOrderByCreatedAsc() {
+    return entities(createdIndex.ids()).findFirst();
+  }
+
+}
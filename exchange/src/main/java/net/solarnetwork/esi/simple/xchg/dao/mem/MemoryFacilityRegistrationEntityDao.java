@@ -0,0 +1,65 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.dao.mem;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.solarnetwork.esi.dao.support.BaseMemoryRepository;
+import net.solarnetwork.esi.dao.support.MemoryIndex;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityRegistrationEntityDao;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityRegistrationEntity;
+
+/**
+ * In-memory implementation of {@link FacilityRegistrationEntityDao}.
+ * 
+ * <p>
+ * Registrations are indexed by facility UID.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class MemoryFacilityRegistrationEntityDao
+    extends BaseMemoryRepository<FacilityRegistrationEntity, Long>
+    implements FacilityRegistrationEntityDao {
+
+  private final AtomicLong idGenerator = new AtomicLong();
+  private final MemoryIndex<String, Long> facilityUidIndex = new MemoryIndex<>();
+
+  @Override
+  protected Long generateId(FacilityRegistrationEntity entity) {
+    return idGenerator.incrementAndGet();
+  }
+
+  @Override
+  protected void indexEntity(FacilityRegistrationEntity entity) {
+    facilityUidIndex.put(entity.getId(), entity.getFacilityUid());
+  }
+
+  @Override
+  protected void unindexEntity(FacilityRegistrationEntity entity) {
+    facilityUidIndex.remove(entity.getId());
+  }
+
+  @Override
+  public Optional<FacilityRegistrationEntity> findByFacilityUid(String facilityUid) {
+    return Optional.ofNullable(entity(facilityUidIndex.getFirst(facilityUid)));
+  }
+
+}
@@ -0,0 +1,69 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.dao.mem;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import net.solarnetwork.esi.dao.support.BaseMemoryRepository;
+import net.solarnetwork.esi.dao.support.MemoryIndex;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityResourceCharacteristicsEntityDao;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityResourceCharacteristicsEntity;
+
+/**
+ * In-memory implementation of {@link FacilityResourceCharacteristicsEntityDao}.
+ * 
+ * <p>
+ * Like the JPA mapping, the primary key of a resource characteristics entity is the ID of its
+ * facility. Entities are indexed by facility UID.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class MemoryFacilityResourceCharacteristicsEntityDao
+    extends BaseMemoryRepository<FacilityResourceCharacteristicsEntity, UUID>
+    implements FacilityResourceCharacteristicsEntityDao {
+
+  private final MemoryIndex<String, UUID> facilityUidIndex = new MemoryIndex<>();
+
+  @Override
+  protected UUID generateId(FacilityResourceCharacteristicsEntity entity) {
+    if (entity.getFacility() == null || entity.getFacility().getId() == null) {
+      throw new IllegalArgumentException("The facility must be provided.");
+    }
+    return entity.getFacility().getId();
+  }
+
+  @Override
+  protected void indexEntity(FacilityResourceCharacteristicsEntity entity) {
+    facilityUidIndex.put(entity.getId(), entity.getFacility().getFacilityUid());
+  }
+
+  @Override
+  protected void unindexEntity(FacilityResourceCharacteristicsEntity entity) {
+    facilityUidIndex.remove(entity.getId());
+  }
+
+  @Override
+  public Optional<FacilityResourceCharacteristicsEntity> findByFacility_FacilityUid(
+      String facilityUid) {
+    return Optional.ofNullable(entity(facilityUidIndex.getFirst(facilityUid)));
+  }
+
+}
@@ -0,0 +1,105 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.dao.mem;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import net.solarnetwork.esi.dao.support.BaseMemoryRepository;
+import net.solarnetwork.esi.dao.support.MemoryIndex;
+import net.solarnetwork.esi.domain.PriceMapOfferStatus;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityPriceMapOfferEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.PriceMapOfferingEntityDao;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityPriceMapOfferEntity;
+import net.solarnetwork.esi.simple.xchg.domain.PriceMapOfferingEntity;
+
+/**
+ * In-memory implementation of {@link PriceMapOfferingEntityDao}.
+ * 
+ * <p>
+ * Offerings are indexed by start date. Like the JPA mapping, saving or deleting an offering
+ * cascades to its offers, which are saved to or deleted from the configured
+ * {@link FacilityPriceMapOfferEntityDao}.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class MemoryPriceMapOfferingEntityDao
+    extends BaseMemoryRepository<PriceMapOfferingEntity, UUID>
+    implements PriceMapOfferingEntityDao {
+
+  private static final Sort START_DATE_SORT = Sort.by("startDate");
+
+  private final FacilityPriceMapOfferEntityDao offerDao;
+  private final MemoryIndex<Instant, UUID> startDateIndex = new MemoryIndex<>(
+      Comparator.naturalOrder());
+
+  /**
+   * Constructor.
+   * 
+   * @param offerDao
+   *        the offer DAO to cascade offer changes to
+   * @throws IllegalArgumentException
+   *         if {@code offerDao} is {@literal null}
+   */
+  public MemoryPriceMapOfferingEntityDao(FacilityPriceMapOfferEntityDao offerDao) {
+    super();
+    if (offerDao == null) {
+      throw new IllegalArgumentException("The offer DAO must be provided.");
+    }
+    this.offerDao = offerDao;
+  }
+
+  @Override
+  protected void indexEntity(PriceMapOfferingEntity entity) {
+    startDateIndex.put(entity.getId(), entity.getStartDate());
+    Set<FacilityPriceMapOfferEntity> offers = entity.getOffers();
+    if (offers != null) {
+      for (FacilityPriceMapOfferEntity offer : offers) {
+        if (!offerDao.existsById(offer.getId())) {
+          offerDao.save(offer);
+        }
+      }
+    }
+  }
+
+  @Override
+  protected void unindexEntity(PriceMapOfferingEntity entity) {
+    startDateIndex.remove(entity.getId());
+    Set<FacilityPriceMapOfferEntity> offers = entity.getOffers();
+    if (offers != null) {
+      offerDao.deleteAll(offers);
+    }
+  }
+
+  @Override
+  public List<PriceMapOfferingEntity> findAllCompletedByStartDateBefore(Instant date,
+      Collection<PriceMapOfferStatus.Status> finalStatuses, Pageable pageable) {
+    return page(entities(startDateIndex.headIds(date, false))
+        .filter(e -> e.isCompleted(finalStatuses)), pageable, START_DATE_SORT);
+  }
+
+}
@@ -25,6 +25,7 @@ import java.util.Set;
 import java.util.UUID;
 
 import javax.persistence.Basic;
+import javax.persistence.Cacheable;
 import javax.persistence.CascadeType;
 import javax.persistence.CollectionTable;
 import javax.persistence.Column;
@@ -39,6 +40,9 @@ import javax.persistence.OneToMany;
 import javax.persistence.Table;
 import javax.persistence.UniqueConstraint;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import net.solarnetwork.esi.domain.jpa.BaseUuidEntity;
 import net.solarnetwork.esi.util.CryptoUtils;
 
@@ -55,7 +59,10 @@ import net.solarnetwork.esi.util.CryptoUtils;
  * @version 1.0
  */
 @Entity
-@Table(name = "FACILITIES", indexes = { @Index(name = "FAC_UID_IDX", columnList = "FAC_UID") })
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@Table(name = "FACILITIES", indexes = { @Index(name = "FAC_UID_IDX", columnList = "FAC_UID"),
+    @Index(name = "FAC_CUST_UID_IDX", columnList = "CUST_ID,FAC_UID") })
 public class FacilityEntity extends BaseUuidEntity implements FacilityInfo {
 
   private static final long serialVersionUID = -4777273455189387417L;
@@ -82,6 +89,7 @@ public class FacilityEntity extends BaseUuidEntity implements FacilityInfo {
 
   // @formatter:off
   @ElementCollection(fetch = FetchType.EAGER)
+  @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
   @Column(name = "PROGRAM", nullable = false, length = 64)
   @CollectionTable(name = "FACILITY_PROGRAM_TYPES", 
       joinColumns = @JoinColumn(name = "FACILITY_ID", nullable = false), 
@@ -93,6 +101,7 @@ public class FacilityEntity extends BaseUuidEntity implements FacilityInfo {
 
   // @formatter:off
   @OneToMany(fetch = FetchType.LAZY, cascade = CascadeType.ALL, orphanRemoval = true)
+  @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
   @JoinTable(name = "FACILITY_PRICE_MAPS",
       joinColumns = @JoinColumn(name = "FACILITY_ID", referencedColumnName = "ID",
           foreignKey = @ForeignKey(name = "FACILITY_PRICE_MAPS_FACILITY_FK")),
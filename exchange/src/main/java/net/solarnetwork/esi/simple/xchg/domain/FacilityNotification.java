@@ -0,0 +1,67 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.domain;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Base class for facility events.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public abstract class FacilityNotification extends ApplicationEvent {
+
+  private static final long serialVersionUID = 3170245470447950183L;
+
+  private FacilityNotification(FacilityEntity facility) {
+    super(facility);
+  }
+
+  /**
+   * Get the facility associated with this event.
+   * 
+   * @return the facility
+   */
+  public FacilityEntity getFacility() {
+    return (FacilityEntity) getSource();
+  }
+
+  /**
+   * Event published when a facility has been registered with the exchange.
+   * 
+   * @author matt
+   * @version 1.0
+   */
+  public static final class FacilityRegistered extends FacilityNotification {
+
+    private static final long serialVersionUID = -2514816309215127845L;
+
+    /**
+     * Constructor.
+     * 
+     * @param facility
+     *        the registered facility
+     */
+    public FacilityRegistered(FacilityEntity facility) {
+      super(facility);
+    }
+
+  }
+
+}
@@ -0,0 +1,279 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.domain;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Embedded;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Table;
+
+import net.solarnetwork.esi.domain.PriceMapOfferStatus;
+import net.solarnetwork.esi.domain.jpa.BaseUuidEntity;
+import net.solarnetwork.esi.domain.jpa.PriceMapEmbed;
+
+/**
+ * An archived price map offer for a specific facility.
+ * 
+ * <p>
+ * The facility and offering are referenced by ID only, so the archive does not depend on the live
+ * tables. The price map details are only populated when the facility made a counter-offer. The
+ * archive entity modified date is the date the offer was archived.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+@Entity
+@Table(name = "FACILITY_PRICE_MAP_OFFERS_ARCH")
+public class FacilityPriceMapOfferArchiveEntity extends BaseUuidEntity {
+
+  private static final long serialVersionUID = 3262513813968771284L;
+
+  @Basic
+  @Column(name = "OFFERING_ID", nullable = false, insertable = true, updatable = false, length = 16)
+  private UUID offeringId;
+
+  @Basic
+  @Column(name = "FACILITY_ID", nullable = false, insertable = true, updatable = false, length = 16)
+  private UUID facilityId;
+
+  @Basic
+  @Column(name = "FAC_UID", nullable = false, insertable = true, updatable = false, length = 255)
+  private String facilityUid;
+
+  @Basic
+  @Column(name = "IS_PROPOSED", nullable = false, insertable = true, updatable = false)
+  private boolean proposed;
+
+  @Basic
+  @Column(name = "IS_ACCEPTED", nullable = false, insertable = true, updatable = false)
+  private boolean accepted;
+
+  @Basic
+  @Column(name = "IS_CONFIRMED", nullable = false, insertable = true, updatable = false)
+  private boolean confirmed;
+
+  @Enumerated(EnumType.STRING)
+  @Column(name = "STATUS", nullable = false, insertable = true, updatable = false, length = 16)
+  private PriceMapOfferStatus.Status status;
+
+  @Embedded
+  private PriceMapEmbed priceMap;
+
+  /**
+   * Default constructor.
+   */
+  public FacilityPriceMapOfferArchiveEntity() {
+    super();
+  }
+
+  /**
+   * Construct with creation date and ID.
+   * 
+   * @param created
+   *        the creation date
+   * @param id
+   *        the ID
+   */
+  public FacilityPriceMapOfferArchiveEntity(Instant created, UUID id) {
+    super(created, id);
+  }
+
+  /**
+   * Create an archive entity out of a facility offer.
+   * 
+   * @param offer
+   *        the offer to archive
+   * @return the new archive entity
+   */
+  public static FacilityPriceMapOfferArchiveEntity archiveOf(FacilityPriceMapOfferEntity offer) {
+    FacilityPriceMapOfferArchiveEntity entity = new FacilityPriceMapOfferArchiveEntity(
+        offer.getCreated(), offer.getId());
+    entity.setOfferingId(offer.getOffering().getId());
+    entity.setFacilityId(offer.getFacility().getId());
+    entity.setFacilityUid(offer.getFacility().getFacilityUid());
+    entity.setProposed(offer.isProposed());
+    entity.setAccepted(offer.isAccepted());
+    entity.setConfirmed(offer.isConfirmed());
+    entity.setStatus(offer.getStatus());
+    PriceMapEntity pm = offer.getPriceMap();
+    if (pm != null && pm.getPriceMap() != null) {
+      entity.setPriceMap(pm.getPriceMap().copy());
+    }
+    return entity;
+  }
+
+  /**
+   * Get the ID of the offering this offer was part of.
+   * 
+   * @return the offering ID
+   */
+  public UUID getOfferingId() {
+    return offeringId;
+  }
+
+  /**
+   * Set the ID of the offering this offer was part of.
+   * 
+   * @param offeringId
+   *        the offering ID to set
+   */
+  public void setOfferingId(UUID offeringId) {
+    this.offeringId = offeringId;
+  }
+
+  /**
+   * Get the ID of the facility the offer was made to.
+   * 
+   * @return the facility ID
+   */
+  public UUID getFacilityId() {
+    return facilityId;
+  }
+
+  /**
+   * Set the ID of the facility the offer was made to.
+   * 
+   * @param facilityId
+   *        the facility ID to set
+   */
+  public void setFacilityId(UUID facilityId) {
+    this.facilityId = facilityId;
+  }
+
+  /**
+   * Get the UID of the facility the offer was made to.
+   * 
+   * @return the facility UID
+   */
+  public String getFacilityUid() {
+    return facilityUid;
+  }
+
+  /**
+   * Set the UID of the facility the offer was made to.
+   * 
+   * @param facilityUid
+   *        the facility UID to set
+   */
+  public void setFacilityUid(String facilityUid) {
+    this.facilityUid = facilityUid;
+  }
+
+  /**
+   * Get the proposed flag.
+   * 
+   * @return {@literal true} if the facility was proposed the offer
+   */
+  public boolean isProposed() {
+    return proposed;
+  }
+
+  /**
+   * Set the proposed flag.
+   * 
+   * @param proposed
+   *        the proposed to set
+   */
+  public void setProposed(boolean proposed) {
+    this.proposed = proposed;
+  }
+
+  /**
+   * Get the accepted flag.
+   * 
+   * @return {@literal true} if the facility accepted the offer
+   */
+  public boolean isAccepted() {
+    return accepted;
+  }
+
+  /**
+   * Set the accepted flag.
+   * 
+   * @param accepted
+   *        the accepted to set
+   */
+  public void setAccepted(boolean accepted) {
+    this.accepted = accepted;
+  }
+
+  /**
+   * Get the confirmed flag.
+   * 
+   * @return {@literal true} if the facility confirmed the offer
+   */
+  public boolean isConfirmed() {
+    return confirmed;
+  }
+
+  /**
+   * Set the confirmed flag.
+   * 
+   * @param confirmed
+   *        the confirmed to set
+   */
+  public void setConfirmed(boolean confirmed) {
+    this.confirmed = confirmed;
+  }
+
+  /**
+   * Get the final offer status.
+   * 
+   * @return the status
+   */
+  public PriceMapOfferStatus.Status getStatus() {
+    return status;
+  }
+
+  /**
+   * Set the final offer status.
+   * 
+   * @param status
+   *        the status to set
+   */
+  public void setStatus(PriceMapOfferStatus.Status status) {
+    this.status = status;
+  }
+
+  /**
+   * Get the counter-offer price map details.
+   * 
+   * @return the price map details, or {@literal null} if the facility did not counter the offer
+   */
+  public PriceMapEmbed getPriceMap() {
+    return priceMap;
+  }
+
+  /**
+   * Set the counter-offer price map details.
+   * 
+   * @param priceMap
+   *        the price map details to set
+   */
+  public void setPriceMap(PriceMapEmbed priceMap) {
+    this.priceMap = priceMap;
+  }
+
+}
@@ -28,8 +28,12 @@ import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.FormatStyle;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Locale;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.annotation.Nonnull;
@@ -73,6 +77,11 @@ public class FacilityPriceMapOfferEntity extends BaseUuidEntity implements Signa
    */
   public static final String STANDARD_DETAILED_INFO_FORMAT_S = "%-25s : %s";
 
+  /** The offer statuses that are final, after which an offer no longer changes. */
+  public static final Set<PriceMapOfferStatus.Status> FINAL_STATUSES = Collections
+      .unmodifiableSet(
+          EnumSet.of(PriceMapOfferStatus.Status.REJECTED, PriceMapOfferStatus.Status.COMPLETED));
+
   private static final long serialVersionUID = -8102992644415632405L;
 
   // @formatter:off
@@ -414,4 +423,20 @@ public class FacilityPriceMapOfferEntity extends BaseUuidEntity implements Signa
     this.status = status;
   }
 
+  /**
+   * Test if this offer is in a final state.
+   * 
+   * <p>
+   * An offer is final if its status is one of {@code finalStatuses} or the facility has declined
+   * it.
+   * </p>
+   * 
+   * @param finalStatuses
+   *        the final statuses, typically {@link #FINAL_STATUSES}
+   * @return {@literal true} if this offer is final
+   */
+  public boolean isFinal(Collection<PriceMapOfferStatus.Status> finalStatuses) {
+    return (finalStatuses.contains(status) || (confirmed && !accepted));
+  }
+
 }
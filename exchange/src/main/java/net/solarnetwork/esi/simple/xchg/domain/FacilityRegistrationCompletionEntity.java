@@ -0,0 +1,262 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.domain;
+
+import java.time.Instant;
+
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+
+import net.solarnetwork.esi.domain.jpa.BaseLongEntity;
+
+/**
+ * Entity for a pending facility registration completion message.
+ * 
+ * <p>
+ * Once a facility registration has been approved, the exchange must call back to the facility to
+ * complete the registration process. This entity persists the data required to make that call, so
+ * delivery can be retried until the facility acknowledges it. Only one entity may exist per
+ * facility UID. This is a short-lived entity, in that once the completion has been delivered this
+ * entity is discarded.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+@Entity
+@Table(name = "FACILITY_REG_COMPLETIONS")
+public class FacilityRegistrationCompletionEntity extends BaseLongEntity {
+
+  private static final long serialVersionUID = 6385612294536437719L;
+
+  @Basic
+  @Column(name = "FAC_UID", nullable = false, insertable = true, updatable = false, length = 255)
+  private String facilityUid;
+
+  @Basic
+  @Column(name = "FAC_URI", nullable = false, insertable = true, updatable = true, length = 255)
+  private String facilityEndpointUri;
+
+  @Basic
+  @Column(name = "FAC_KEY", nullable = false, insertable = true, updatable = true, length = 255)
+  private byte[] facilityPublicKey;
+
+  @Basic
+  @Column(name = "FAC_NONCE", nullable = false, insertable = true, updatable = true, length = 24)
+  private byte[] facilityNonce;
+
+  @Basic
+  @Column(name = "REG_TOKEN", nullable = false, insertable = true, updatable = true, length = 32)
+  private byte[] registrationToken;
+
+  @Basic
+  @Column(name = "ATTEMPTS", nullable = false, insertable = true, updatable = true)
+  private int attempts;
+
+  @Basic
+  @Column(name = "NEXT_ATTEMPT_AT", nullable = false, insertable = true, updatable = true)
+  private Instant nextAttemptDate;
+
+  @Basic
+  @Column(name = "LAST_ERROR", nullable = true, insertable = true, updatable = true, length = 255)
+  private String lastError;
+
+  /**
+   * Default constructor.
+   */
+  public FacilityRegistrationCompletionEntity() {
+    super();
+  }
+
+  /**
+   * Construct with creation date.
+   * 
+   * @param created
+   *        the creation date
+   */
+  public FacilityRegistrationCompletionEntity(Instant created) {
+    super(created);
+  }
+
+  /**
+   * Construct with creation date and ID.
+   * 
+   * @param created
+   *        the creation date
+   * @param id
+   *        the ID
+   */
+  public FacilityRegistrationCompletionEntity(Instant created, Long id) {
+    super(created, id);
+  }
+
+  /**
+   * Get the facility UID.
+   * 
+   * @return the facility UID
+   */
+  public String getFacilityUid() {
+    return facilityUid;
+  }
+
+  /**
+   * Set the facility UID.
+   * 
+   * @param facilityUid
+   *        the facility UID to use
+   */
+  public void setFacilityUid(String facilityUid) {
+    this.facilityUid = facilityUid;
+  }
+
+  /**
+   * Get the facility gRPC endpoint URI.
+   * 
+   * @return the facility endpoint URI
+   */
+  public String getFacilityEndpointUri() {
+    return facilityEndpointUri;
+  }
+
+  /**
+   * Set the facility gRPC endpoint URI.
+   * 
+   * @param facilityEndpointUri
+   *        the endpoint URL to use
+   */
+  public void setFacilityEndpointUri(String facilityEndpointUri) {
+    this.facilityEndpointUri = facilityEndpointUri;
+  }
+
+  /**
+   * Get the facility public key.
+   * 
+   * @return the facility public key
+   */
+  public byte[] getFacilityPublicKey() {
+    return facilityPublicKey;
+  }
+
+  /**
+   * Set the facility public key.
+   * 
+   * @param facilityPublicKey
+   *        the facility public key
+   */
+  public void setFacilityPublicKey(byte[] facilityPublicKey) {
+    this.facilityPublicKey = facilityPublicKey;
+  }
+
+  /**
+   * Get the facility nonce value.
+   * 
+   * @return the nonce
+   */
+  public byte[] getFacilityNonce() {
+    return facilityNonce;
+  }
+
+  /**
+   * Set the facility nonce value.
+   * 
+   * @param facilityNonce
+   *        the nonce
+   */
+  public void setFacilityNonce(byte[] facilityNonce) {
+    this.facilityNonce = facilityNonce;
+  }
+
+  /**
+   * Get the registration token to deliver to the facility.
+   * 
+   * @return the registration token
+   */
+  public byte[] getRegistrationToken() {
+    return registrationToken;
+  }
+
+  /**
+   * Set the registration token to deliver to the facility.
+   * 
+   * @param registrationToken
+   *        the registration token
+   */
+  public void setRegistrationToken(byte[] registrationToken) {
+    this.registrationToken = registrationToken;
+  }
+
+  /**
+   * Get the number of delivery attempts made so far.
+   * 
+   * @return the number of attempts
+   */
+  public int getAttempts() {
+    return attempts;
+  }
+
+  /**
+   * Set the number of delivery attempts made so far.
+   * 
+   * @param attempts
+   *        the number of attempts
+   */
+  public void setAttempts(int attempts) {
+    this.attempts = attempts;
+  }
+
+  /**
+   * Get the date at which the next delivery attempt should be made.
+   * 
+   * @return the next attempt date
+   */
+  public Instant getNextAttemptDate() {
+    return nextAttemptDate;
+  }
+
+  /**
+   * Set the date at which the next delivery attempt should be made.
+   * 
+   * @param nextAttemptDate
+   *        the next attempt date
+   */
+  public void setNextAttemptDate(Instant nextAttemptDate) {
+    this.nextAttemptDate = nextAttemptDate;
+  }
+
+  /**
+   * Get the error message from the last failed delivery attempt.
+   * 
+   * @return the error message, or {@literal null}
+   */
+  public String getLastError() {
+    return lastError;
+  }
+
+  /**
+   * Set the error message from the last failed delivery attempt.
+   * 
+   * @param lastError
+   *        the error message
+   */
+  public void setLastError(String lastError) {
+    this.lastError = lastError;
+  }
+
+}
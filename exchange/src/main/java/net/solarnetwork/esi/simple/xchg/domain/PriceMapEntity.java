@@ -24,10 +24,14 @@ import java.util.Optional;
 import java.util.UUID;
 
 import javax.annotation.Nonnull;
+import javax.persistence.Cacheable;
 import javax.persistence.Embedded;
 import javax.persistence.Entity;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import net.solarnetwork.esi.domain.PriceMapOrBuilder;
 import net.solarnetwork.esi.domain.jpa.BaseUuidEntity;
 import net.solarnetwork.esi.domain.jpa.DurationRangeEmbed;
@@ -44,6 +48,8 @@ import net.solarnetwork.esi.domain.support.SignableMessage;
  * @version 1.0
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "PRICE_MAPS")
 public class PriceMapEntity extends BaseUuidEntity implements SignableMessage {
 
@@ -0,0 +1,133 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.domain;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Embedded;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+
+import net.solarnetwork.esi.domain.jpa.BaseUuidEntity;
+import net.solarnetwork.esi.domain.jpa.PriceMapEmbed;
+
+/**
+ * An archived price map offering.
+ * 
+ * <p>
+ * Once an offering is old enough it is moved out of the {@link PriceMapOfferingEntity} table into
+ * this archive table, with the offering price map details stored inline. The individual facility
+ * offers are archived as {@link FacilityPriceMapOfferArchiveEntity}. The archive entity modified
+ * date is the date the offering was archived.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+@Entity
+@Table(name = "PRICE_MAP_OFFERINGS_ARCH")
+public class PriceMapOfferingArchiveEntity extends BaseUuidEntity {
+
+  private static final long serialVersionUID = -3395011519339473914L;
+
+  @Basic
+  @Column(name = "START_AT", nullable = false, insertable = true, updatable = false)
+  private Instant startDate;
+
+  @Embedded
+  private PriceMapEmbed priceMap;
+
+  /**
+   * Default constructor.
+   */
+  public PriceMapOfferingArchiveEntity() {
+    super();
+  }
+
+  /**
+   * Construct with creation date and ID.
+   * 
+   * @param created
+   *        the creation date
+   * @param id
+   *        the ID
+   */
+  public PriceMapOfferingArchiveEntity(Instant created, UUID id) {
+    super(created, id);
+  }
+
+  /**
+   * Create an archive entity out of an offering.
+   * 
+   * @param offering
+   *        the offering to archive
+   * @return the new archive entity
+   */
+  public static PriceMapOfferingArchiveEntity archiveOf(PriceMapOfferingEntity offering) {
+    PriceMapOfferingArchiveEntity entity = new PriceMapOfferingArchiveEntity(
+        offering.getCreated(), offering.getId());
+    entity.setStartDate(offering.getStartDate());
+    PriceMapEntity pm = offering.getPriceMap();
+    if (pm != null && pm.getPriceMap() != null) {
+      entity.setPriceMap(pm.getPriceMap().copy());
+    }
+    return entity;
+  }
+
+  /**
+   * Get the offer start date.
+   * 
+   * @return the start date
+   */
+  public Instant getStartDate() {
+    return startDate;
+  }
+
+  /**
+   * Set the offer start date.
+   * 
+   * @param startDate
+   *        the date to set
+   */
+  public void setStartDate(Instant startDate) {
+    this.startDate = startDate;
+  }
+
+  /**
+   * Get the offered price map details.
+   * 
+   * @return the price map details
+   */
+  public PriceMapEmbed getPriceMap() {
+    return priceMap;
+  }
+
+  /**
+   * Set the offered price map details.
+   * 
+   * @param priceMap
+   *        the price map details to set
+   */
+  public void setPriceMap(PriceMapEmbed priceMap) {
+    this.priceMap = priceMap;
+  }
+
+}
@@ -18,7 +18,9 @@
 package net.solarnetwork.esi.simple.xchg.domain;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
@@ -35,6 +37,7 @@ import javax.persistence.OneToMany;
 import javax.persistence.OneToOne;
 import javax.persistence.Table;
 
+import net.solarnetwork.esi.domain.PriceMapOfferStatus;
 import net.solarnetwork.esi.domain.jpa.BaseUuidEntity;
 
 /**
@@ -218,4 +221,45 @@ public class PriceMapOfferingEntity extends BaseUuidEntity {
     }
     return result;
   }
+
+  /**
+   * Test if all offers of this offering are final.
+   * 
+   * <p>
+   * An offer is final if {@link FacilityPriceMapOfferEntity#isFinal(Collection)} returns
+   * {@literal true}, or if it has been superseded by a counter offer, that is a later offer to the
+   * same facility within this offering.
+   * </p>
+   * 
+   * @param finalStatuses
+   *        the final offer statuses, typically {@link FacilityPriceMapOfferEntity#FINAL_STATUSES}
+   * @return {@literal true} if all offers are final
+   */
+  public boolean isCompleted(Collection<PriceMapOfferStatus.Status> finalStatuses) {
+    Set<FacilityPriceMapOfferEntity> set = getOffers();
+    if (set == null) {
+      return true;
+    }
+    for (FacilityPriceMapOfferEntity offer : set) {
+      if (!(offer.isFinal(finalStatuses) || isSuperseded(offer, set))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isSuperseded(FacilityPriceMapOfferEntity offer,
+      Set<FacilityPriceMapOfferEntity> set) {
+    if (offer.getCreated() == null) {
+      return false;
+    }
+    for (FacilityPriceMapOfferEntity other : set) {
+      if (other != offer && other.getCreated() != null
+          && other.getCreated().isAfter(offer.getCreated())
+          && Objects.equals(other.getFacility(), offer.getFacility())) {
+        return true;
+      }
+    }
+    return false;
+  }
 }
@@ -0,0 +1,353 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.simple.xchg.domain;
+
+import java.util.Arrays;
+
+import net.solarnetwork.esi.domain.TimeUnit;
+
+/**
+ * An append-only, in-memory time series of prices for a single facility route.
+ * 
+ * <p>
+ * Prices are held in fixed-size chunks of primitive arrays, one array per column, so a series of
+ * any length costs a handful of objects per chunk rather than several objects per price. Prices
+ * must be appended in timestamp order by a single writer at a time, and may be read concurrently
+ * by any number of {@link Cursor} instances without locking. Once {@code maxChunks} chunks are full
+ * the oldest chunk is dropped to make room for new prices.
+ * </p>
+ * 
+ * <p>
+ * All prices in a series must use the same currency.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class PriceSeries {
+
+  /** The default number of prices stored per chunk. */
+  public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+  private static final Chunk[] NO_CHUNKS = new Chunk[0];
+
+  private final int chunkSize;
+  private final int maxChunks;
+  private volatile String currencyCode;
+  private volatile Chunk[] chunks = NO_CHUNKS;
+
+  private static final class Chunk {
+
+    private final long[] timestamps;
+    private final long[] units;
+    private final int[] nanos;
+    private final int[] timeLengths;
+    private final byte[] timeUnits;
+    private volatile int size;
+
+    private Chunk(int capacity) {
+      super();
+      this.timestamps = new long[capacity];
+      this.units = new long[capacity];
+      this.nanos = new int[capacity];
+      this.timeLengths = new int[capacity];
+      this.timeUnits = new byte[capacity];
+    }
+
+    private boolean isFull() {
+      return size == timestamps.length;
+    }
+
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param chunkSize
+   *        the number of prices to store per chunk
+   * @param maxChunks
+   *        the maximum number of chunks to keep, or {@literal 0} for no limit
+   * @throws IllegalArgumentException
+   *         if {@code chunkSize} is less than {@literal 1} or {@code maxChunks} is negative
+   */
+  public PriceSeries(int chunkSize, int maxChunks) {
+    super();
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("The chunk size must be at least 1.");
+    }
+    this.chunkSize = chunkSize;
+    if (maxChunks < 0) {
+      throw new IllegalArgumentException("The maximum chunk count must not be negative.");
+    }
+    this.maxChunks = maxChunks;
+  }
+
+  /**
+   * Append a price.
+   * 
+   * @param timestamp
+   *        the price start date, in milliseconds since the epoch; must be after the timestamp of
+   *        the last appended price
+   * @param timeLength
+   *        the number of {@code timeUnit} units of time the price covers
+   * @param timeUnit
+   *        the time unit of {@code timeLength}
+   * @param currencyCode
+   *        the price currency code
+   * @param units
+   *        the whole units of the price
+   * @param nanos
+   *        the nano units of the price
+   * @throws IllegalArgumentException
+   *         if {@code timestamp} is not after the last appended price or {@code currencyCode}
+   *         differs from that of the previously appended prices
+   */
+  public synchronized void append(long timestamp, int timeLength, TimeUnit timeUnit,
+      String currencyCode, long units, int nanos) {
+    if (timeUnit == null || timeUnit == TimeUnit.UNRECOGNIZED) {
+      throw new IllegalArgumentException("A valid time unit must be provided.");
+    }
+    if (currencyCode == null || currencyCode.isEmpty()) {
+      throw new IllegalArgumentException("The currency code must be provided.");
+    }
+    final String existingCurrencyCode = this.currencyCode;
+    if (existingCurrencyCode == null) {
+      this.currencyCode = currencyCode;
+    } else if (!existingCurrencyCode.equals(currencyCode)) {
+      throw new IllegalArgumentException("The price currency " + currencyCode
+          + " does not match the series currency " + existingCurrencyCode + ".");
+    }
+    Chunk[] cs = chunks;
+    Chunk chunk = (cs.length > 0 ? cs[cs.length - 1] : null);
+    if (chunk != null && timestamp <= chunk.timestamps[chunk.size - 1]) {
+      throw new IllegalArgumentException(
+          "The price timestamp must be after the last price timestamp.");
+    }
+    if (chunk == null || chunk.isFull()) {
+      // populate the new chunk before publishing it, so readers never see an empty chunk
+      chunk = new Chunk(chunkSize);
+      set(chunk, 0, timestamp, timeLength, timeUnit, units, nanos);
+      chunk.size = 1;
+      int drop = (maxChunks > 0 && cs.length >= maxChunks ? cs.length - maxChunks + 1 : 0);
+      Chunk[] newChunks = Arrays.copyOfRange(cs, drop, cs.length + 1);
+      newChunks[newChunks.length - 1] = chunk;
+      chunks = newChunks;
+    } else {
+      final int idx = chunk.size;
+      set(chunk, idx, timestamp, timeLength, timeUnit, units, nanos);
+      chunk.size = idx + 1;
+    }
+  }
+
+  private static void set(Chunk chunk, int idx, long timestamp, int timeLength, TimeUnit timeUnit,
+      long units, int nanos) {
+    chunk.timestamps[idx] = timestamp;
+    chunk.units[idx] = units;
+    chunk.nanos[idx] = nanos;
+    chunk.timeLengths[idx] = timeLength;
+    chunk.timeUnits[idx] = (byte) timeUnit.getNumber();
+  }
+
+  /**
+   * Get the currency code used by all prices in this series.
+   * 
+   * @return the currency code, or {@literal null} if no prices have been appended
+   */
+  public String getCurrencyCode() {
+    return currencyCode;
+  }
+
+  /**
+   * Get the number of prices available.
+   * 
+   * @return the number of prices
+   */
+  public int size() {
+    Chunk[] cs = chunks;
+    return (cs.length > 0 ? (cs.length - 1) * chunkSize + cs[cs.length - 1].size : 0);
+  }
+
+  /**
+   * Get a cursor over the prices within a time range.
+   * 
+   * @param minTimestamp
+   *        the minimum price timestamp (inclusive)
+   * @param maxTimestamp
+   *        the maximum price timestamp (exclusive)
+   * @return the cursor
+   */
+  public Cursor cursor(long minTimestamp, long maxTimestamp) {
+    Cursor c = new Cursor(chunks, maxTimestamp);
+    c.seek(minTimestamp);
+    return c;
+  }
+
+  /**
+   * Get a cursor over the most recent price that starts at or before a given date.
+   * 
+   * @param date
+   *        the date, in milliseconds since the epoch
+   * @return the cursor, which will have at most one price
+   */
+  public Cursor mostRecent(long date) {
+    Cursor c = new Cursor(chunks, date + 1);
+    c.seek(date + 1);
+    c.back();
+    return c;
+  }
+
+  /**
+   * A forward-only cursor over a snapshot of the prices in a series.
+   * 
+   * <p>
+   * Call {@link #next()} to advance the cursor to each price and then the accessor methods to read
+   * that price's values.
+   * </p>
+   */
+  public static final class Cursor {
+
+    private final Chunk[] chunks;
+    private final int[] sizes;
+    private final long maxTimestamp;
+    private int chunkIdx;
+    private int idx = -1;
+    private int limit = Integer.MAX_VALUE;
+
+    private Cursor(Chunk[] chunks, long maxTimestamp) {
+      super();
+      this.chunks = chunks;
+      this.sizes = new int[chunks.length];
+      for (int i = 0; i < chunks.length; i++) {
+        sizes[i] = chunks[i].size;
+      }
+      this.maxTimestamp = maxTimestamp;
+    }
+
+    private void seek(long timestamp) {
+      // find the first chunk whose last price is at or after timestamp
+      int lo = 0;
+      int hi = chunks.length - 1;
+      while (lo <= hi) {
+        int mid = (lo + hi) >>> 1;
+        if (chunks[mid].timestamps[sizes[mid] - 1] < timestamp) {
+          lo = mid + 1;
+        } else {
+          hi = mid - 1;
+        }
+      }
+      chunkIdx = lo;
+      if (lo >= chunks.length) {
+        idx = -1;
+        return;
+      }
+      int i = Arrays.binarySearch(chunks[lo].timestamps, 0, sizes[lo], timestamp);
+      // position just before the found price, so next() moves onto it
+      idx = (i < 0 ? -i - 1 : i) - 1;
+    }
+
+    private void back() {
+      // position just before the price preceding the current position, and stop after it
+      limit = 1;
+      if (chunkIdx < chunks.length && idx >= 0) {
+        idx--;
+        return;
+      }
+      int c = (chunkIdx < chunks.length ? chunkIdx - 1 : chunks.length - 1);
+      if (c < 0) {
+        chunkIdx = chunks.length;
+        return;
+      }
+      chunkIdx = c;
+      idx = sizes[c] - 2;
+    }
+
+    /**
+     * Advance to the next price.
+     * 
+     * @return {@literal true} if the cursor is positioned on a price, {@literal false} if there are
+     *         no more prices
+     */
+    public boolean next() {
+      if (limit < 1 || chunkIdx >= chunks.length) {
+        return false;
+      }
+      idx++;
+      if (idx >= sizes[chunkIdx]) {
+        chunkIdx++;
+        idx = 0;
+        if (chunkIdx >= chunks.length) {
+          return false;
+        }
+      }
+      if (chunks[chunkIdx].timestamps[idx] >= maxTimestamp) {
+        chunkIdx = chunks.length;
+        return false;
+      }
+      limit--;
+      return true;
+    }
+
+    /**
+     * Get the current price start date.
+     * 
+     * @return the start date, in milliseconds since the epoch
+     */
+    public long timestamp() {
+      return chunks[chunkIdx].timestamps[idx];
+    }
+
+    /**
+     * Get the number of {@link #timeUnit()} units of time the current price covers.
+     * 
+     * @return the time length
+     */
+    public int timeLength() {
+      return chunks[chunkIdx].timeLengths[idx];
+    }
+
+    /**
+     * Get the time unit of {@link #timeLength()}.
+     * 
+     * @return the time unit
+     */
+    public TimeUnit timeUnit() {
+      return TimeUnit.forNumber(chunks[chunkIdx].timeUnits[idx]);
+    }
+
+    /**
+     * Get the whole units of the current price.
+     * 
+     * @return the units
+     */
+    public long units() {
+      return chunks[chunkIdx].units[idx];
+    }
+
+    /**
+     * Get the nano units of the current price.
+     * 
+     * @return the nanos
+     */
+    public int nanos() {
+      return chunks[chunkIdx].nanos[idx];
+    }
+
+  }
+
+}
@@ -35,11 +35,10 @@ import java.util.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.data.domain.Sort;
-import org.springframework.data.domain.Sort.Direction;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import net.solarnetwork.esi.dao.support.KeysetPageIterator;
 import net.solarnetwork.esi.domain.DerCharacteristicsOrBuilder;
 import net.solarnetwork.esi.domain.DerProgramSetOrBuilder;
 import net.solarnetwork.esi.domain.DerProgramType;
@@ -63,11 +62,17 @@ import net.solarnetwork.esi.util.CryptoHelper;
  */
 public class DaoFacilityCharacteristicsService implements FacilityCharacteristicsService {
 
+  /**
+   * The default number of facilities to load per query in {@link #listFacilities()}.
+   */
+  public static final int DEFAULT_LIST_PAGE_SIZE = 500;
+
   private final String exchangeUid;
   private final KeyPair exchangeKeyPair;
   private final CryptoHelper cryptoHelper;
   private FacilityEntityDao facilityDao;
   private FacilityResourceCharacteristicsEntityDao resourceCharacteristicsDao;
+  private int listPageSize = DEFAULT_LIST_PAGE_SIZE;
 
   private final Logger log = LoggerFactory.getLogger(DaoFacilityCharacteristicsService.class);
 
@@ -89,10 +94,24 @@ public class DaoFacilityCharacteristicsService implements FacilityCharacteristic
     this.cryptoHelper = cryptoHelper;
   }
 
-  @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
   @Override
   public Iterable<FacilityInfo> listFacilities() {
-    return facilityDao.findAllInfoBy(Sort.by(Direction.ASC, "customerId"));
+    final int pageSize = listPageSize;
+    return () -> facilityIterator(pageSize);
+  }
+
+  @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+  @Override
+  public List<FacilityInfo> listFacilities(FacilityInfo after, int max) {
+    if (max < 1) {
+      throw new IllegalArgumentException("The max must be greater than 0.");
+    }
+    return Collections.unmodifiableList(facilityDao.findInfoAfter(after, max));
+  }
+
+  @Override
+  public Iterator<FacilityInfo> facilityIterator(int pageSize) {
+    return new KeysetPageIterator<>(this::listFacilities, pageSize);
   }
 
   @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
@@ -305,4 +324,14 @@ public class DaoFacilityCharacteristicsService implements FacilityCharacteristic
     this.resourceCharacteristicsDao = resourceCharacteristicsDao;
   }
 
+  /**
+   * Set the number of facilities to load per query in {@link #listFacilities()}.
+   * 
+   * @param listPageSize
+   *        the page size; defaults to {@link #DEFAULT_LIST_PAGE_SIZE}
+   */
+  public void setListPageSize(int listPageSize) {
+    this.listPageSize = listPageSize;
+  }
+
 }
@@ -0,0 +1,629 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.impl;
+
+import static java.util.Arrays.asList;
+import static net.solarnetwork.esi.util.CryptoUtils.decodePublicKey;
+import static net.solarnetwork.esi.util.CryptoUtils.generateMessageSignature;
+
+import java.net.URI;
+import java.security.KeyPair;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Empty;
+
+import io.grpc.ManagedChannel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import net.solarnetwork.esi.dao.support.TransactionUtils;
+import net.solarnetwork.esi.domain.DerFacilityRegistration;
+import net.solarnetwork.esi.domain.DerRoute;
+import net.solarnetwork.esi.domain.MessageSignature;
+import net.solarnetwork.esi.grpc.ChannelProvider;
+import net.solarnetwork.esi.service.DerFacilityServiceGrpc;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityRegistrationCompletionEntityDao;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityEntity;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityRegistrationCompletionEntity;
+import net.solarnetwork.esi.simple.xchg.service.FacilityRegistrationCompletionService;
+import net.solarnetwork.esi.util.CryptoHelper;
+
+/**
+ * DAO based implementation of {@link FacilityRegistrationCompletionService}.
+ * 
+ * <p>
+ * Completions are persisted via a {@link FacilityRegistrationCompletionEntityDao} and delivered by
+ * a task that runs periodically on a {@link TaskScheduler} as well as immediately after each new
+ * completion is committed. Failed deliveries are retried with an exponential backoff, up to a
+ * maximum number of attempts. The number of concurrent deliveries to any one facility host is
+ * limited by {@link #setMaxConcurrencyPerHost(int)}.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class DaoFacilityRegistrationCompletionService
+    implements FacilityRegistrationCompletionService {
+
+  /** The default poll frequency, in milliseconds. */
+  public static final long DEFAULT_POLL_FREQUENCY_MS = 10000L;
+
+  /** The default maximum number of completions to deliver per poll. */
+  public static final int DEFAULT_BATCH_SIZE = 50;
+
+  /** The default delay before the first retry, in milliseconds. */
+  public static final long DEFAULT_INITIAL_RETRY_DELAY_MS = 5000L;
+
+  /** The default maximum delay between retries, in milliseconds. */
+  public static final long DEFAULT_MAX_RETRY_DELAY_MS = 3600000L;
+
+  /** The default maximum number of delivery attempts. */
+  public static final int DEFAULT_MAX_ATTEMPTS = 20;
+
+  /** The default maximum number of concurrent deliveries per facility host. */
+  public static final int DEFAULT_MAX_CONCURRENCY_PER_HOST = 2;
+
+  /** The default delivery call timeout, in milliseconds. */
+  public static final long DEFAULT_RPC_TIMEOUT_MS = 30000L;
+
+  /** The metric name prefix used. */
+  public static final String METRIC_PREFIX = "esi.xchg.registration.completion";
+
+  private static final int MAX_ERROR_LENGTH = 255;
+
+  private static final Logger log = LoggerFactory
+      .getLogger(DaoFacilityRegistrationCompletionService.class);
+
+  private final String exchangeUid;
+  private final KeyPair exchangeKeyPair;
+  private final CryptoHelper cryptoHelper;
+  private final TaskScheduler taskScheduler;
+  private final ConcurrentMap<String, CompletableFuture<FacilityEntity>> pending;
+  private final ConcurrentMap<String, FacilityEntity> pendingFacilities;
+  private final ConcurrentMap<String, Boolean> inFlight;
+  private final ConcurrentMap<String, Semaphore> hostPermits;
+  private final ConcurrentMap<String, ManagedChannel> channels;
+  private final AtomicBoolean processing;
+
+  private FacilityRegistrationCompletionEntityDao completionDao;
+  private ChannelProvider facilityChannelProvider;
+  private Executor taskExecutor;
+  private long pollFrequencyMs = DEFAULT_POLL_FREQUENCY_MS;
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private long initialRetryDelayMs = DEFAULT_INITIAL_RETRY_DELAY_MS;
+  private long maxRetryDelayMs = DEFAULT_MAX_RETRY_DELAY_MS;
+  private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+  private int maxConcurrencyPerHost = DEFAULT_MAX_CONCURRENCY_PER_HOST;
+  private long rpcTimeoutMs = DEFAULT_RPC_TIMEOUT_MS;
+  private Counter completedCounter;
+  private Counter retriedCounter;
+  private Counter failedCounter;
+
+  private ScheduledFuture<?> pollTask;
+
+  /**
+   * Constructor.
+   * 
+   * @param exchangeUid
+   *        the exchange UID
+   * @param exchangeKeyPair
+   *        the key pair to use for asymmetric encryption with facilities
+   * @param cryptoHelper
+   *        the {@link CryptoHelper} to use
+   * @param taskScheduler
+   *        the scheduler to use for periodic delivery tasks
+   * @throws IllegalArgumentException
+   *         if any parameter is {@literal null} or empty
+   */
+  public DaoFacilityRegistrationCompletionService(String exchangeUid, KeyPair exchangeKeyPair,
+      CryptoHelper cryptoHelper, TaskScheduler taskScheduler) {
+    super();
+    if (exchangeUid == null || exchangeUid.isEmpty()) {
+      throw new IllegalArgumentException("The exchange UID must not be empty.");
+    }
+    this.exchangeUid = exchangeUid;
+    if (exchangeKeyPair == null) {
+      throw new IllegalArgumentException("The exchange key pair must be provided.");
+    }
+    this.exchangeKeyPair = exchangeKeyPair;
+    if (cryptoHelper == null) {
+      throw new IllegalArgumentException("The crypto helper must be provided.");
+    }
+    this.cryptoHelper = cryptoHelper;
+    if (taskScheduler == null) {
+      throw new IllegalArgumentException("The task scheduler must be provided.");
+    }
+    this.taskScheduler = taskScheduler;
+    this.taskExecutor = ForkJoinPool.commonPool();
+    this.pending = new ConcurrentHashMap<>(16, 0.9f, 2);
+    this.pendingFacilities = new ConcurrentHashMap<>(16, 0.9f, 2);
+    this.inFlight = new ConcurrentHashMap<>(16, 0.9f, 2);
+    this.hostPermits = new ConcurrentHashMap<>(16, 0.9f, 2);
+    this.channels = new ConcurrentHashMap<>(16, 0.9f, 2);
+    this.processing = new AtomicBoolean(false);
+  }
+
+  /**
+   * Start the periodic delivery task.
+   * 
+   * <p>
+   * Any completions left in the queue from a previous run will be delivered by this task.
+   * </p>
+   */
+  public synchronized void startup() {
+    if (pollTask != null) {
+      return;
+    }
+    pollTask = taskScheduler.scheduleWithFixedDelay(this::processRegistrationCompletions,
+        pollFrequencyMs);
+  }
+
+  /**
+   * Stop the periodic delivery task and release all network resources.
+   */
+  public synchronized void shutdown() {
+    if (pollTask != null) {
+      pollTask.cancel(false);
+      pollTask = null;
+    }
+    for (ManagedChannel channel : channels.values()) {
+      channel.shutdown();
+    }
+    channels.clear();
+  }
+
+  @Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+  @Override
+  public Future<FacilityEntity> enqueueRegistrationCompletion(FacilityEntity facility,
+      byte[] facilityNonce, byte[] registrationToken) {
+    final String facilityUid = facility.getFacilityUid();
+    final CompletableFuture<FacilityEntity> result = new CompletableFuture<>();
+    final CompletableFuture<FacilityEntity> existing = pending.putIfAbsent(facilityUid, result);
+    pendingFacilities.put(facilityUid, facility);
+
+    // upsert, so a re-registration replaces the credentials of any completion still queued
+    final Instant now = Instant.now();
+    FacilityRegistrationCompletionEntity entity = completionDao.findByFacilityUid(facilityUid)
+        .orElse(null);
+    if (entity == null) {
+      entity = new FacilityRegistrationCompletionEntity(now);
+      entity.setFacilityUid(facilityUid);
+      log.info("Queued registration completion for facility [{}]", facilityUid);
+    } else {
+      log.info("Updated queued registration completion for facility [{}]", facilityUid);
+    }
+    entity.setFacilityEndpointUri(facility.getFacilityEndpointUri());
+    entity.setFacilityPublicKey(facility.getFacilityPublicKey());
+    entity.setFacilityNonce(facilityNonce);
+    entity.setRegistrationToken(registrationToken);
+    entity.setAttempts(0);
+    entity.setNextAttemptDate(now);
+    entity.setLastError(null);
+    completionDao.save(entity);
+
+    if (existing != null) {
+      return existing;
+    }
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionUtils.afterPhase(TransactionPhase.AFTER_ROLLBACK, () -> {
+        pendingFacilities.remove(facilityUid);
+        if (pending.remove(facilityUid, result)) {
+          result.completeExceptionally(new IllegalStateException(
+              "Registration completion for facility [" + facilityUid + "] rolled back."));
+        }
+      });
+    }
+    TransactionUtils.afterCommit(() -> {
+      taskScheduler.schedule(this::processRegistrationCompletions, Instant.now());
+    });
+    return result;
+  }
+
+  @Override
+  public int processRegistrationCompletions() {
+    if (!processing.compareAndSet(false, true)) {
+      return 0;
+    }
+    int count = 0;
+    try {
+      List<FacilityRegistrationCompletionEntity> due = completionDao
+          .findAllByNextAttemptDateLessThanEqual(Instant.now(),
+              PageRequest.of(0, batchSize, Sort.by("nextAttemptDate")));
+      for (FacilityRegistrationCompletionEntity entity : due) {
+        String facilityUid = entity.getFacilityUid();
+        if (inFlight.putIfAbsent(facilityUid, Boolean.TRUE) != null) {
+          continue;
+        }
+        Semaphore permits = hostPermits.computeIfAbsent(hostKey(entity.getFacilityEndpointUri()),
+            k -> new Semaphore(maxConcurrencyPerHost));
+        if (!permits.tryAcquire()) {
+          log.debug("Delaying registration completion for facility [{}]: host busy",
+              facilityUid);
+          inFlight.remove(facilityUid);
+          continue;
+        }
+        try {
+          deliver(entity, permits);
+          count++;
+        } catch (RuntimeException e) {
+          permits.release();
+          inFlight.remove(facilityUid);
+          handleFailure(entity.getId(), facilityUid, entity.getRegistrationToken(), e);
+        }
+      }
+    } catch (RuntimeException e) {
+      log.error("Error processing registration completion queue: {}", e.toString(), e);
+    } finally {
+      processing.set(false);
+    }
+    return count;
+  }
+
+  private void deliver(FacilityRegistrationCompletionEntity entity, Semaphore permits) {
+    final Long id = entity.getId();
+    final String facilityUid = entity.getFacilityUid();
+    final byte[] token = entity.getRegistrationToken().clone();
+
+    // @formatter:off
+    MessageSignature msgSig = generateMessageSignature(cryptoHelper, exchangeKeyPair,
+        decodePublicKey(cryptoHelper, entity.getFacilityPublicKey()),
+        asList(
+            exchangeUid, 
+            facilityUid, 
+            entity.getFacilityEndpointUri(),
+            entity.getFacilityNonce()));
+
+    DerFacilityRegistration reg = DerFacilityRegistration.newBuilder()
+        .setRegistrationToken(ByteString.copyFrom(entity.getRegistrationToken()))
+        .setSuccess(true)
+        .setRoute(DerRoute.newBuilder()
+            .setExchangeUid(exchangeUid)
+            .setFacilityUid(facilityUid)
+            .setSignature(msgSig)
+            .build())
+        .build();
+    // @formatter:on
+
+    ManagedChannel channel = channelForUri(entity.getFacilityEndpointUri());
+    ListenableFuture<Empty> future = DerFacilityServiceGrpc.newFutureStub(channel)
+        .withDeadlineAfter(rpcTimeoutMs, TimeUnit.MILLISECONDS)
+        .completeDerFacilityRegistration(reg);
+    Futures.addCallback(future, new FutureCallback<Empty>() {
+
+      @Override
+      public void onSuccess(Empty r) {
+        try {
+          handleSuccess(id, facilityUid, token);
+        } finally {
+          permits.release();
+          inFlight.remove(facilityUid);
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        try {
+          handleFailure(id, facilityUid, token, t);
+        } finally {
+          permits.release();
+          inFlight.remove(facilityUid);
+        }
+      }
+    }, taskExecutor);
+  }
+
+  private void handleSuccess(Long id, String facilityUid, byte[] token) {
+    log.info("Successfully completed registration for facility [{}]", facilityUid);
+    FacilityRegistrationCompletionEntity entity = completionDao.findById(id).orElse(null);
+    if (superseded(entity, facilityUid, token)) {
+      return;
+    }
+    if (entity != null) {
+      try {
+        // the entity version guards against a re-registration saved since it was loaded
+        completionDao.delete(entity);
+      } catch (OptimisticLockingFailureException e) {
+        log.info("Registration completion for facility [{}] updated during delivery; leaving "
+            + "it queued", facilityUid);
+        return;
+      } catch (RuntimeException e) {
+        log.warn("Error deleting registration completion for facility [{}]: {}", facilityUid,
+            e.toString());
+      }
+    }
+    if (completedCounter != null) {
+      completedCounter.increment();
+    }
+    FacilityEntity facility = pendingFacilities.remove(facilityUid);
+    CompletableFuture<FacilityEntity> result = pending.remove(facilityUid);
+    if (result != null) {
+      result.complete(facility);
+    }
+  }
+
+  /**
+   * Test if a completion has been replaced by a re-registration since it was delivered.
+   * 
+   * <p>
+   * A replaced completion is left queued, so the new credentials are delivered by a later round.
+   * </p>
+   * 
+   * @param entity
+   *        the current completion entity, or {@literal null} if it no longer exists
+   * @param facilityUid
+   *        the facility UID
+   * @param token
+   *        the registration token that was delivered
+   * @return {@literal true} if {@code entity} holds a different registration token
+   */
+  private boolean superseded(FacilityRegistrationCompletionEntity entity, String facilityUid,
+      byte[] token) {
+    if (entity == null || Arrays.equals(token, entity.getRegistrationToken())) {
+      return false;
+    }
+    log.info("Registration completion for facility [{}] replaced during delivery; leaving "
+        + "it queued", facilityUid);
+    return true;
+  }
+
+  private void handleFailure(Long id, String facilityUid, byte[] token, Throwable t) {
+    FacilityRegistrationCompletionEntity entity = completionDao.findById(id).orElse(null);
+    if (entity == null || superseded(entity, facilityUid, token)) {
+      return;
+    }
+    final int attempts = entity.getAttempts() + 1;
+    if (maxAttempts > 0 && attempts >= maxAttempts) {
+      log.error("Giving up completing registration for facility [{}] after {} attempts: {}",
+          facilityUid, attempts, t.getMessage());
+      completionDao.delete(entity);
+      if (failedCounter != null) {
+        failedCounter.increment();
+      }
+      pendingFacilities.remove(facilityUid);
+      CompletableFuture<FacilityEntity> result = pending.remove(facilityUid);
+      if (result != null) {
+        result.completeExceptionally(t);
+      }
+      return;
+    }
+    long delay = retryDelay(attempts);
+    log.warn("Error completing registration for facility [{}] (attempt {}); will retry in {}ms: {}",
+        facilityUid, attempts, delay, t.getMessage());
+    entity.setAttempts(attempts);
+    entity.setNextAttemptDate(Instant.now().plusMillis(delay));
+    String msg = t.getMessage() != null ? t.getMessage() : t.toString();
+    entity.setLastError(msg.length() > MAX_ERROR_LENGTH ? msg.substring(0, MAX_ERROR_LENGTH) : msg);
+    completionDao.save(entity);
+    if (retriedCounter != null) {
+      retriedCounter.increment();
+    }
+  }
+
+  /**
+   * Calculate the retry delay to use after a given number of failed attempts.
+   * 
+   * <p>
+   * The delay doubles with each attempt, starting from {@code initialRetryDelayMs} and capped at
+   * {@code maxRetryDelayMs}, plus up to 10% random jitter.
+   * </p>
+   * 
+   * @param attempts
+   *        the number of failed attempts so far
+   * @return the delay, in milliseconds
+   */
+  public long retryDelay(int attempts) {
+    long delay = initialRetryDelayMs << Math.min(Math.max(attempts - 1, 0), 30);
+    if (delay <= 0 || delay > maxRetryDelayMs) {
+      delay = maxRetryDelayMs;
+    }
+    return delay + ThreadLocalRandom.current().nextLong(delay / 10 + 1);
+  }
+
+  private ManagedChannel channelForUri(String uri) {
+    return channels.compute(uri, (k, v) -> {
+      if (v != null && !v.isShutdown()) {
+        return v;
+      }
+      return facilityChannelProvider.channelForUri(URI.create(k));
+    });
+  }
+
+  private static String hostKey(String uri) {
+    try {
+      String authority = URI.create(uri).getAuthority();
+      return (authority != null ? authority : uri);
+    } catch (IllegalArgumentException e) {
+      return uri;
+    }
+  }
+
+  /**
+   * Get the number of completions in the queue.
+   * 
+   * @return the queue depth
+   */
+  public long getQueueDepth() {
+    return completionDao.count();
+  }
+
+  /**
+   * Get the age of the oldest completion in the queue.
+   * 
+   * @return the age of the oldest completion, or {@link Duration#ZERO} if the queue is empty
+   */
+  public Duration getOldestCompletionAge() {
+    return completionDao.findFirstByOrderByCreatedAsc()
+        .map(e -> Duration.between(e.getCreated(), Instant.now())).orElse(Duration.ZERO);
+  }
+
+  /**
+   * Set the DAO to use for registration completion data.
+   * 
+   * @param completionDao
+   *        the DAO to use
+   */
+  public void setCompletionDao(FacilityRegistrationCompletionEntityDao completionDao) {
+    this.completionDao = completionDao;
+  }
+
+  /**
+   * Set the channel provider to use for facilities.
+   * 
+   * @param facilityChannelProvider
+   *        the provider to set
+   */
+  public void setFacilityChannelProvider(ChannelProvider facilityChannelProvider) {
+    this.facilityChannelProvider = facilityChannelProvider;
+  }
+
+  /**
+   * Set the executor to use for handling delivery results.
+   * 
+   * @param taskExecutor
+   *        the executor
+   */
+  public void setTaskExecutor(Executor taskExecutor) {
+    this.taskExecutor = taskExecutor;
+  }
+
+  /**
+   * Set the frequency at which to look for due completions.
+   * 
+   * @param pollFrequencyMs
+   *        the frequency, in milliseconds; defaults to {@link #DEFAULT_POLL_FREQUENCY_MS}
+   */
+  public void setPollFrequencyMs(long pollFrequencyMs) {
+    this.pollFrequencyMs = pollFrequencyMs;
+  }
+
+  /**
+   * Set the maximum number of due completions to process at one time.
+   * 
+   * @param batchSize
+   *        the batch size; defaults to {@link #DEFAULT_BATCH_SIZE}
+   */
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Set the delay to use after the first failed delivery attempt.
+   * 
+   * @param initialRetryDelayMs
+   *        the delay, in milliseconds; defaults to {@link #DEFAULT_INITIAL_RETRY_DELAY_MS}
+   */
+  public void setInitialRetryDelayMs(long initialRetryDelayMs) {
+    this.initialRetryDelayMs = initialRetryDelayMs;
+  }
+
+  /**
+   * Set the maximum delay to use between delivery attempts.
+   * 
+   * @param maxRetryDelayMs
+   *        the delay, in milliseconds; defaults to {@link #DEFAULT_MAX_RETRY_DELAY_MS}
+   */
+  public void setMaxRetryDelayMs(long maxRetryDelayMs) {
+    this.maxRetryDelayMs = maxRetryDelayMs;
+  }
+
+  /**
+   * Set the maximum number of delivery attempts to make before giving up.
+   * 
+   * @param maxAttempts
+   *        the maximum attempts, or {@literal 0} for no limit; defaults to
+   *        {@link #DEFAULT_MAX_ATTEMPTS}
+   */
+  public void setMaxAttempts(int maxAttempts) {
+    this.maxAttempts = maxAttempts;
+  }
+
+  /**
+   * Set the maximum number of concurrent deliveries to make to any one facility host.
+   * 
+   * @param maxConcurrencyPerHost
+   *        the maximum concurrency; defaults to {@link #DEFAULT_MAX_CONCURRENCY_PER_HOST}
+   */
+  public void setMaxConcurrencyPerHost(int maxConcurrencyPerHost) {
+    this.maxConcurrencyPerHost = maxConcurrencyPerHost;
+  }
+
+  /**
+   * Set the maximum amount of time to wait for a facility to acknowledge a completion.
+   * 
+   * @param rpcTimeoutMs
+   *        the timeout, in milliseconds; defaults to {@link #DEFAULT_RPC_TIMEOUT_MS}
+   */
+  public void setRpcTimeoutMs(long rpcTimeoutMs) {
+    this.rpcTimeoutMs = rpcTimeoutMs;
+  }
+
+  /**
+   * Set a meter registry to publish queue metrics to.
+   * 
+   * <p>
+   * This registers gauges for the queue depth and the age of the oldest queued completion, along
+   * with counters for completed, retried, and failed deliveries.
+   * </p>
+   * 
+   * @param meterRegistry
+   *        the registry to use
+   */
+  public void setMeterRegistry(MeterRegistry meterRegistry) {
+    if (meterRegistry == null) {
+      return;
+    }
+    Gauge.builder(METRIC_PREFIX + ".queue.depth", this, s -> s.getQueueDepth())
+        .description("Number of queued registration completions").register(meterRegistry);
+    Gauge.builder(METRIC_PREFIX + ".queue.age", this, s -> s.getOldestCompletionAge().toMillis())
+        .description("Age of the oldest queued registration completion").baseUnit("milliseconds")
+        .register(meterRegistry);
+    completedCounter = meterRegistry.counter(METRIC_PREFIX + ".completed");
+    retriedCounter = meterRegistry.counter(METRIC_PREFIX + ".retried");
+    failedCounter = meterRegistry.counter(METRIC_PREFIX + ".failed");
+  }
+
+}
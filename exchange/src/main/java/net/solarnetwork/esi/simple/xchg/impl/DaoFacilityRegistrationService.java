@@ -40,6 +40,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -64,7 +65,9 @@ import net.solarnetwork.esi.service.DerFacilityServiceGrpc.DerFacilityServiceFut
 import net.solarnetwork.esi.simple.xchg.dao.FacilityEntityDao;
 import net.solarnetwork.esi.simple.xchg.dao.FacilityRegistrationEntityDao;
 import net.solarnetwork.esi.simple.xchg.domain.FacilityEntity;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityNotification.FacilityRegistered;
 import net.solarnetwork.esi.simple.xchg.domain.FacilityRegistrationEntity;
+import net.solarnetwork.esi.simple.xchg.service.FacilityRegistrationCompletionService;
 import net.solarnetwork.esi.simple.xchg.service.FacilityRegistrationService;
 import net.solarnetwork.esi.util.CryptoHelper;
 import net.solarnetwork.esi.util.CryptoUtils;
@@ -72,6 +75,12 @@ import net.solarnetwork.esi.util.CryptoUtils;
 /**
  * DAO based implementation of {@link FacilityRegistrationService}.
  * 
+ * <p>
+ * If a {@link FacilityRegistrationCompletionService} is configured, registration completion
+ * messages are handed off to that for reliable delivery. Otherwise they are sent to the facility
+ * directly, without any retry.
+ * </p>
+ * 
  * @author matt
  * @version 1.0
  */
@@ -88,6 +97,8 @@ public class DaoFacilityRegistrationService implements FacilityRegistrationServi
   private final List<Form> registrationForms;
   private final CryptoHelper cryptoHelper;
   private ChannelProvider facilityChannelProvider;
+  private FacilityRegistrationCompletionService registrationCompletionService;
+  private ApplicationEventPublisher eventPublisher;
 
   /**
    * Constructor.
@@ -250,6 +261,9 @@ public class DaoFacilityRegistrationService implements FacilityRegistrationServi
     entity.setFacilityUid(registration.getFacilityUid());
     entity.setUici(registration.getUici());
     entity = facilityDao.save(entity);
+    if (eventPublisher != null) {
+      eventPublisher.publishEvent(new FacilityRegistered(entity));
+    }
 
     // delete the registration entity
     facilityRegistrationDao.deleteById(registration.getId());
@@ -259,6 +273,11 @@ public class DaoFacilityRegistrationService implements FacilityRegistrationServi
         .sha256(Arrays.asList(registration.getExchangeNonce(), registration.getFacilityNonce(),
             exchangeUid, entity.getFacilityUid(), entity.getFacilityEndpointUri())));
 
+    if (registrationCompletionService != null) {
+      return registrationCompletionService.enqueueRegistrationCompletion(entity,
+          registration.getFacilityNonce(), token.toByteArray());
+    }
+
     // @formatter:off
     
     // sign message
@@ -351,4 +370,25 @@ public class DaoFacilityRegistrationService implements FacilityRegistrationServi
     this.facilityChannelProvider = facilityChannelProvider;
   }
 
+  /**
+   * Set the service to use for delivering registration completion messages to facilities.
+   * 
+   * @param registrationCompletionService
+   *        the service to use, or {@literal null} to send completion messages directly
+   */
+  public void setRegistrationCompletionService(
+      FacilityRegistrationCompletionService registrationCompletionService) {
+    this.registrationCompletionService = registrationCompletionService;
+  }
+
+  /**
+   * Set an event publisher to use.
+   * 
+   * @param eventPublisher
+   *        the event publisher to set
+   */
+  public void setEventPublisher(ApplicationEventPublisher eventPublisher) {
+    this.eventPublisher = eventPublisher;
+  }
+
 }
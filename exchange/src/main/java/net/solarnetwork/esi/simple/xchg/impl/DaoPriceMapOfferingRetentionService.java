@@ -0,0 +1,310 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.impl;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityPriceMapOfferArchiveEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.PriceMapOfferingArchiveEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.PriceMapOfferingEntityDao;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityPriceMapOfferArchiveEntity;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityPriceMapOfferEntity;
+import net.solarnetwork.esi.simple.xchg.domain.PriceMapOfferingArchiveEntity;
+import net.solarnetwork.esi.simple.xchg.domain.PriceMapOfferingEntity;
+import net.solarnetwork.esi.simple.xchg.service.PriceMapOfferingRetentionService;
+
+/**
+ * DAO based implementation of {@link PriceMapOfferingRetentionService}.
+ * 
+ * <p>
+ * Only offerings whose offers are all final are archived, so offerings that are still being
+ * negotiated or executed are left alone even if they started before the retention date.
+ * </p>
+ * 
+ * <p>
+ * Offerings are archived in batches of at most {@link #setBatchSize(int)} offerings, each batch in
+ * its own transaction, so that no single transaction holds locks on a large part of the offer
+ * tables. At most {@link #setMaxBatchesPerRun(int)} batches are processed per run; any remaining
+ * offerings are picked up on the next run. When {@link #startup()} is called a task is scheduled
+ * to archive expired offerings every {@link #setRunFrequencyMs(long)} milliseconds.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class DaoPriceMapOfferingRetentionService implements PriceMapOfferingRetentionService {
+
+  /**
+   * The default value for the {@code retentionPeriod} property.
+   */
+  public static final Duration DEFAULT_RETENTION_PERIOD = Duration.ofDays(30);
+
+  /**
+   * The default value for the {@code runFrequencyMs} property.
+   */
+  public static final long DEFAULT_RUN_FREQUENCY_MS = 3600000L;
+
+  /**
+   * The default value for the {@code batchSize} property.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 100;
+
+  /**
+   * The default value for the {@code maxBatchesPerRun} property.
+   */
+  public static final int DEFAULT_MAX_BATCHES_PER_RUN = 50;
+
+  /** The metric name prefix used. */
+  public static final String METRIC_PREFIX = "esi.xchg.retention";
+
+  private static final Logger log = LoggerFactory
+      .getLogger(DaoPriceMapOfferingRetentionService.class);
+
+  private final PriceMapOfferingEntityDao offeringDao;
+  private final PriceMapOfferingArchiveEntityDao offeringArchiveDao;
+  private final FacilityPriceMapOfferArchiveEntityDao offerArchiveDao;
+  private final TransactionTemplate txTemplate;
+  private final AtomicBoolean processing;
+
+  private TaskScheduler taskScheduler;
+  private Duration retentionPeriod = DEFAULT_RETENTION_PERIOD;
+  private long runFrequencyMs = DEFAULT_RUN_FREQUENCY_MS;
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private int maxBatchesPerRun = DEFAULT_MAX_BATCHES_PER_RUN;
+  private Counter offeringsCounter;
+  private Counter offersCounter;
+
+  private ScheduledFuture<?> runTask;
+
+  /**
+   * Constructor.
+   * 
+   * @param offeringDao
+   *        the offering DAO
+   * @param offeringArchiveDao
+   *        the offering archive DAO
+   * @param offerArchiveDao
+   *        the facility offer archive DAO
+   * @param txTemplate
+   *        the transaction template to execute each batch with
+   * @throws IllegalArgumentException
+   *         if any parameter is {@literal null}
+   */
+  public DaoPriceMapOfferingRetentionService(PriceMapOfferingEntityDao offeringDao,
+      PriceMapOfferingArchiveEntityDao offeringArchiveDao,
+      FacilityPriceMapOfferArchiveEntityDao offerArchiveDao, TransactionTemplate txTemplate) {
+    super();
+    if (offeringDao == null) {
+      throw new IllegalArgumentException("The offering DAO must be provided.");
+    }
+    this.offeringDao = offeringDao;
+    if (offeringArchiveDao == null) {
+      throw new IllegalArgumentException("The offering archive DAO must be provided.");
+    }
+    this.offeringArchiveDao = offeringArchiveDao;
+    if (offerArchiveDao == null) {
+      throw new IllegalArgumentException("The offer archive DAO must be provided.");
+    }
+    this.offerArchiveDao = offerArchiveDao;
+    if (txTemplate == null) {
+      throw new IllegalArgumentException("The transaction template must be provided.");
+    }
+    this.txTemplate = txTemplate;
+    this.processing = new AtomicBoolean(false);
+  }
+
+  /**
+   * Start the periodic archive task.
+   * 
+   * <p>
+   * If no task scheduler has been configured, this method does nothing.
+   * </p>
+   */
+  public synchronized void startup() {
+    if (runTask != null || taskScheduler == null) {
+      return;
+    }
+    runTask = taskScheduler.scheduleWithFixedDelay(this::archiveExpiredOfferings, runFrequencyMs);
+  }
+
+  /**
+   * Stop the periodic archive task.
+   */
+  public synchronized void shutdown() {
+    if (runTask != null) {
+      runTask.cancel(false);
+      runTask = null;
+    }
+  }
+
+  @Override
+  public int archiveExpiredOfferings() {
+    try {
+      return archiveOfferingsStartingBefore(Instant.now().minus(retentionPeriod));
+    } catch (RuntimeException e) {
+      log.error("Error archiving expired price map offerings: {}", e.toString(), e);
+      return 0;
+    }
+  }
+
+  @Override
+  public int archiveOfferingsStartingBefore(Instant date) {
+    if (!processing.compareAndSet(false, true)) {
+      log.debug("Price map offering archive already running");
+      return 0;
+    }
+    try {
+      int total = 0;
+      for (int i = 0; i < maxBatchesPerRun; i++) {
+        Integer count = txTemplate.execute(status -> archiveBatch(date));
+        int n = (count != null ? count : 0);
+        total += n;
+        if (n < batchSize) {
+          break;
+        }
+      }
+      if (total > 0) {
+        log.info("Archived {} price map offerings starting before {}", total, date);
+      }
+      return total;
+    } finally {
+      processing.set(false);
+    }
+  }
+
+  private int archiveBatch(Instant date) {
+    List<PriceMapOfferingEntity> offerings = offeringDao.findAllCompletedByStartDateBefore(date,
+        FacilityPriceMapOfferEntity.FINAL_STATUSES,
+        PageRequest.of(0, batchSize, Sort.by("startDate")));
+    if (offerings.isEmpty()) {
+      return 0;
+    }
+    List<PriceMapOfferingArchiveEntity> offeringArchives = new ArrayList<>(offerings.size());
+    List<FacilityPriceMapOfferArchiveEntity> offerArchives = new ArrayList<>(offerings.size());
+    for (PriceMapOfferingEntity offering : offerings) {
+      offeringArchives.add(PriceMapOfferingArchiveEntity.archiveOf(offering));
+      if (offering.getOffers() != null) {
+        for (FacilityPriceMapOfferEntity offer : offering.getOffers()) {
+          offerArchives.add(FacilityPriceMapOfferArchiveEntity.archiveOf(offer));
+        }
+      }
+    }
+    offeringArchiveDao.saveAll(offeringArchives);
+    offerArchiveDao.saveAll(offerArchives);
+
+    // offers and price maps are removed via cascade
+    offeringDao.deleteAll(offerings);
+
+    if (offeringsCounter != null) {
+      offeringsCounter.increment(offeringArchives.size());
+      offersCounter.increment(offerArchives.size());
+    }
+    log.debug("Archived {} price map offerings with {} facility offers", offeringArchives.size(),
+        offerArchives.size());
+    return offerings.size();
+  }
+
+  /**
+   * Set the task scheduler to run the periodic archive task with.
+   * 
+   * @param taskScheduler
+   *        the scheduler to use
+   */
+  public void setTaskScheduler(TaskScheduler taskScheduler) {
+    this.taskScheduler = taskScheduler;
+  }
+
+  /**
+   * Set the minimum age of offerings to archive, relative to their start date.
+   * 
+   * @param retentionPeriod
+   *        the retention period; defaults to {@link #DEFAULT_RETENTION_PERIOD}
+   * @throws IllegalArgumentException
+   *         if {@code retentionPeriod} is {@literal null} or negative
+   */
+  public void setRetentionPeriod(Duration retentionPeriod) {
+    if (retentionPeriod == null || retentionPeriod.isNegative()) {
+      throw new IllegalArgumentException("The retention period must not be negative.");
+    }
+    this.retentionPeriod = retentionPeriod;
+  }
+
+  /**
+   * Set the frequency at which to run the archive task.
+   * 
+   * @param runFrequencyMs
+   *        the frequency, in milliseconds; defaults to {@link #DEFAULT_RUN_FREQUENCY_MS}
+   */
+  public void setRunFrequencyMs(long runFrequencyMs) {
+    this.runFrequencyMs = runFrequencyMs;
+  }
+
+  /**
+   * Set the maximum number of offerings to archive per transaction.
+   * 
+   * @param batchSize
+   *        the batch size; defaults to {@link #DEFAULT_BATCH_SIZE}
+   * @throws IllegalArgumentException
+   *         if {@code batchSize} is less than {@literal 1}
+   */
+  public void setBatchSize(int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("The batch size must be at least 1.");
+    }
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Set the maximum number of batches to process per run.
+   * 
+   * @param maxBatchesPerRun
+   *        the maximum number of batches; defaults to {@link #DEFAULT_MAX_BATCHES_PER_RUN}
+   */
+  public void setMaxBatchesPerRun(int maxBatchesPerRun) {
+    this.maxBatchesPerRun = maxBatchesPerRun;
+  }
+
+  /**
+   * Set a meter registry to publish archive metrics to.
+   * 
+   * @param meterRegistry
+   *        the registry to use, or {@literal null} for no metrics
+   */
+  public void setMeterRegistry(MeterRegistry meterRegistry) {
+    if (meterRegistry == null) {
+      return;
+    }
+    offeringsCounter = meterRegistry.counter(METRIC_PREFIX + ".offerings.archived");
+    offersCounter = meterRegistry.counter(METRIC_PREFIX + ".offers.archived");
+  }
+
+}
@@ -0,0 +1,141 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.ToLongFunction;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Publish Hibernate second-level cache region statistics as metrics.
+ * 
+ * <p>
+ * For each cache region the hit, miss, and put counts are published as {@literal hits},
+ * {@literal misses}, and {@literal puts} counters, along with a {@literal hitRatio} gauge, all
+ * tagged with the region name. Statistics must be enabled on the session factory (via the
+ * {@literal hibernate.generate_statistics} setting) for the values to be collected.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class HibernateCacheMetrics implements MeterBinder {
+
+  /** The prefix used for all metric names. */
+  public static final String METRIC_PREFIX = "esi.xchg.cache";
+
+  private final Statistics statistics;
+  private final Set<String> regionNames;
+
+  /**
+   * Constructor.
+   * 
+   * <p>
+   * Metrics will be published for all regions known to the session factory, along with any
+   * additional region names provided, such as query cache regions that are only created when first
+   * used.
+   * </p>
+   * 
+   * @param sessionFactory
+   *        the session factory to publish cache metrics for
+   * @param additionalRegionNames
+   *        optional additional region names to publish metrics for
+   * @throws IllegalArgumentException
+   *         if {@code sessionFactory} is {@literal null}
+   */
+  public HibernateCacheMetrics(SessionFactory sessionFactory, String... additionalRegionNames) {
+    super();
+    if (sessionFactory == null) {
+      throw new IllegalArgumentException("The session factory must be provided.");
+    }
+    this.statistics = sessionFactory.getStatistics();
+    Set<String> names = new LinkedHashSet<>(
+        Arrays.asList(statistics.getSecondLevelCacheRegionNames()));
+    if (additionalRegionNames != null) {
+      names.addAll(Arrays.asList(additionalRegionNames));
+    }
+    this.regionNames = Collections.unmodifiableSet(names);
+  }
+
+  /**
+   * Get the names of the regions metrics are published for.
+   * 
+   * @return the region names
+   */
+  public Set<String> getRegionNames() {
+    return regionNames;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    for (String region : regionNames) {
+      FunctionCounter
+          .builder(METRIC_PREFIX + ".hits", statistics,
+              s -> regionCount(region, CacheRegionStatistics::getHitCount))
+          .tag("region", region).description("Number of cache hits").register(registry);
+      FunctionCounter
+          .builder(METRIC_PREFIX + ".misses", statistics,
+              s -> regionCount(region, CacheRegionStatistics::getMissCount))
+          .tag("region", region).description("Number of cache misses").register(registry);
+      FunctionCounter
+          .builder(METRIC_PREFIX + ".puts", statistics,
+              s -> regionCount(region, CacheRegionStatistics::getPutCount))
+          .tag("region", region).description("Number of cache puts").register(registry);
+      Gauge.builder(METRIC_PREFIX + ".hitRatio", statistics, s -> hitRatio(region))
+          .tag("region", region).description("Ratio of cache hits to cache requests")
+          .register(registry);
+    }
+  }
+
+  /**
+   * Get the hit ratio of a cache region.
+   * 
+   * @param region
+   *        the name of the region to get the hit ratio for
+   * @return the hit ratio, between {@literal 0} and {@literal 1}, or {@literal 0} if the region
+   *         has not been accessed
+   */
+  public double hitRatio(String region) {
+    long hits = regionCount(region, CacheRegionStatistics::getHitCount);
+    long total = hits + regionCount(region, CacheRegionStatistics::getMissCount);
+    return (total > 0 ? (double) hits / total : 0.0);
+  }
+
+  private long regionCount(String region, ToLongFunction<CacheRegionStatistics> count) {
+    CacheRegionStatistics stats;
+    try {
+      stats = statistics.getCacheRegionStatistics(region);
+    } catch (IllegalArgumentException e) {
+      // region not created yet
+      return 0L;
+    }
+    return (stats != null ? count.applyAsLong(stats) : 0L);
+  }
+
+}
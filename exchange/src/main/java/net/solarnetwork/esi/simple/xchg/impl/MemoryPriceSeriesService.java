@@ -0,0 +1,483 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.simple.xchg.impl;
+
+import static java.util.Arrays.asList;
+import static net.solarnetwork.esi.domain.support.ProtobufUtils.moneyForDecimal;
+import static net.solarnetwork.esi.domain.support.ProtobufUtils.timestampForInstant;
+import static net.solarnetwork.esi.util.CryptoUtils.validateMessageSignature;
+
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.EventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.protobuf.Timestamp;
+
+import net.solarnetwork.esi.domain.DatumRequest;
+import net.solarnetwork.esi.domain.DerRoute;
+import net.solarnetwork.esi.domain.Money;
+import net.solarnetwork.esi.domain.PriceComponents;
+import net.solarnetwork.esi.domain.PriceDatum;
+import net.solarnetwork.esi.domain.TimeUnit;
+import net.solarnetwork.esi.domain.TimestampRange;
+import net.solarnetwork.esi.domain.jpa.PriceComponentsEmbed;
+import net.solarnetwork.esi.domain.jpa.PriceMapEmbed;
+import net.solarnetwork.esi.grpc.FlowControlledStreamer.Source;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityPriceMapOfferEntityDao;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityEntity;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityNotification.FacilityRegistered;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityPriceMapOfferEntity;
+import net.solarnetwork.esi.simple.xchg.domain.PriceMapOfferingEntity;
+import net.solarnetwork.esi.simple.xchg.domain.PriceMapOfferingNotification.PriceMapOfferCompleted;
+import net.solarnetwork.esi.simple.xchg.domain.PriceSeries;
+import net.solarnetwork.esi.simple.xchg.service.PriceSeriesService;
+import net.solarnetwork.esi.util.CryptoHelper;
+import net.solarnetwork.esi.util.TimeSpanUtils;
+
+/**
+ * In-memory implementation of {@link PriceSeriesService}.
+ * 
+ * <p>
+ * Each facility has its own {@link PriceSeries}. Listing prices reads only from memory: the
+ * facility public key needed to validate a request's route signature is loaded from the
+ * {@link FacilityEntityDao} the first time a facility lists prices, and remembered until a
+ * {@link FacilityRegistered} event for that facility is handled. Matching prices are produced
+ * one at a time as they are pulled, reusing the same message builders, and when the request asks
+ * for a {@code time_unit} other than {@code INSTANT} then prices are rolled up into time-weighted
+ * averages over spans of {@code time_unit_coalescence} time units as they are read.
+ * </p>
+ * 
+ * <p>
+ * Prices are added from successful {@link PriceMapOfferCompleted} events: the apparent energy
+ * price the facility agreed to becomes the facility's price from the offering start date for the
+ * duration of the agreed price map.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class MemoryPriceSeriesService implements PriceSeriesService {
+
+  /** The default maximum number of chunks to keep per price series. */
+  public static final int DEFAULT_MAX_CHUNKS = 128;
+
+  private static final long NANOS_PER_UNIT = 1000000000L;
+  private static final long SECOND_MS = 1000L;
+  private static final long MINUTE_MS = 60L * SECOND_MS;
+  private static final long HOUR_MS = 60L * MINUTE_MS;
+  private static final long DAY_MS = 24L * HOUR_MS;
+  private static final long WEEK_MS = 7L * DAY_MS;
+
+  private static final Logger log = LoggerFactory.getLogger(MemoryPriceSeriesService.class);
+
+  private final String exchangeUid;
+  private final KeyPair exchangeKeyPair;
+  private final CryptoHelper cryptoHelper;
+  private final ConcurrentMap<String, PriceSeries> series;
+  private final ConcurrentMap<String, PublicKey> facilityKeys;
+  private FacilityEntityDao facilityDao;
+  private FacilityPriceMapOfferEntityDao priceMapOfferDao;
+  private TransactionTemplate transactionTemplate;
+  private int chunkSize = PriceSeries.DEFAULT_CHUNK_SIZE;
+  private int maxChunks = DEFAULT_MAX_CHUNKS;
+
+  /**
+   * Constructor.
+   * 
+   * @param exchangeUid
+   *        the exchange UID
+   * @param exchangeKeyPair
+   *        the exchange key pair
+   * @param cryptoHelper
+   *        the crypto helper
+   */
+  public MemoryPriceSeriesService(@Qualifier("exchange-uid") String exchangeUid,
+      @Qualifier("exchange-key-pair") KeyPair exchangeKeyPair, CryptoHelper cryptoHelper) {
+    super();
+    this.exchangeUid = exchangeUid;
+    this.exchangeKeyPair = exchangeKeyPair;
+    this.cryptoHelper = cryptoHelper;
+    this.series = new ConcurrentHashMap<>(16);
+    this.facilityKeys = new ConcurrentHashMap<>(16);
+  }
+
+  @Override
+  public void addPrice(String facilityUid, PriceDatum datum) {
+    if (facilityUid == null || facilityUid.isEmpty()) {
+      throw new IllegalArgumentException("The facility UID must be provided.");
+    }
+    if (datum == null || !datum.hasTs()) {
+      throw new IllegalArgumentException("The price timestamp must be provided.");
+    }
+    if (!datum.hasPriceComponents() || !datum.getPriceComponents().hasApparentEnergyPrice()) {
+      throw new IllegalArgumentException("The price apparent energy price must be provided.");
+    }
+    Money price = datum.getPriceComponents().getApparentEnergyPrice();
+    PriceSeries s = series.computeIfAbsent(facilityUid, k -> new PriceSeries(chunkSize, maxChunks));
+    s.append(millis(datum.getTs()), datum.getTimeLength(), datum.getTimeUnit(),
+        price.getCurrencyCode(), price.getUnits(), price.getNanos());
+  }
+
+  @Override
+  public Source<PriceDatum> listPrices(DatumRequest request) {
+    if (request == null || !request.hasRoute()) {
+      throw new IllegalArgumentException("The request route must be provided.");
+    }
+    final DerRoute route = request.getRoute();
+    final String facilityUid = route.getFacilityUid();
+    if (facilityUid == null || facilityUid.isEmpty()) {
+      throw new IllegalArgumentException("The route facility UID must be provided.");
+    }
+    PublicKey facilityKey = facilityKeys.computeIfAbsent(facilityUid, this::loadFacilityKey);
+    if (facilityKey == null) {
+      throw new IllegalArgumentException("Facility " + facilityUid + " not available.");
+    }
+    validateMessageSignature(cryptoHelper, route.getSignature(), exchangeKeyPair, facilityKey,
+        asList(exchangeUid, facilityUid));
+
+    final TimeUnit timeUnit = request.getTimeUnit();
+    if (timeUnit == TimeUnit.UNRECOGNIZED) {
+      throw new IllegalArgumentException("The requested time unit is not supported.");
+    }
+
+    final PriceSeries s = series.get(facilityUid);
+    if (s == null) {
+      return () -> null;
+    }
+    final PriceSeries.Cursor cursor;
+    if (request.hasTimeRange()) {
+      TimestampRange range = request.getTimeRange();
+      cursor = s.cursor(range.hasMin() ? millis(range.getMin()) : Long.MIN_VALUE,
+          range.hasMax() ? millis(range.getMax()) : Long.MAX_VALUE);
+    } else {
+      // MOST_RECENT
+      cursor = s.mostRecent(System.currentTimeMillis());
+    }
+
+    final DerRoute responseRoute = DerRoute.newBuilder().setExchangeUid(exchangeUid)
+        .setFacilityUid(facilityUid).build();
+    if (timeUnit == TimeUnit.INSTANT) {
+      return new PriceDatumSource(responseRoute, s.getCurrencyCode(), cursor);
+    }
+    return new RollupPriceDatumSource(responseRoute, s.getCurrencyCode(), cursor, timeUnit,
+        Math.max(1, request.getTimeUnitCoalescence()));
+  }
+
+  private PublicKey loadFacilityKey(String facilityUid) {
+    FacilityEntityDao dao = facilityDao;
+    if (dao == null) {
+      return null;
+    }
+    return dao.findByFacilityUid(facilityUid).map(FacilityEntity::publicKey).orElse(null);
+  }
+
+  /**
+   * Handle a facility registered event.
+   * 
+   * <p>
+   * This forgets any remembered public key for the facility, so the next request loads the key the
+   * facility registered with.
+   * </p>
+   * 
+   * @param event
+   *        the event
+   */
+  @EventListener
+  public void handleFacilityRegistered(FacilityRegistered event) {
+    facilityKeys.remove(event.getFacility().getFacilityUid());
+  }
+
+  /**
+   * Handle a price map offer completed event.
+   * 
+   * <p>
+   * If the offer succeeded, the apparent energy price of the agreed price map is added to the
+   * facility's price series. Prices that do not start after the last price of the series, for
+   * example from an offering that completes after a later one, are ignored.
+   * </p>
+   * 
+   * @param event
+   *        the event
+   */
+  @EventListener
+  public void handlePriceMapOfferCompleted(PriceMapOfferCompleted event) {
+    if (!event.isSuccess()) {
+      return;
+    }
+    final TransactionTemplate tt = transactionTemplate;
+    final FacilityPriceMapOfferEntity offer = event.getOffer();
+    final OfferPrice price = (tt != null ? tt.execute(s -> offerPrice(offer)) : offerPrice(offer));
+    if (price == null) {
+      return;
+    }
+    try {
+      addPrice(price.facilityUid, price.datum);
+    } catch (IllegalArgumentException e) {
+      log.warn("Price from facility {} offer {} not added: {}", price.facilityUid, offer.getId(),
+          e.getMessage());
+    }
+  }
+
+  private OfferPrice offerPrice(FacilityPriceMapOfferEntity offer) {
+    FacilityPriceMapOfferEntity entity = offer;
+    FacilityPriceMapOfferEntityDao dao = priceMapOfferDao;
+    if (dao != null && offer.getId() != null) {
+      entity = dao.findById(offer.getId()).orElse(offer);
+    }
+    PriceMapOfferingEntity offering = entity.getOffering();
+    PriceMapEmbed priceMap = entity.offerPriceMap();
+    PriceComponentsEmbed price = priceMap.getPriceComponents();
+    if (offering == null || offering.getStartDate() == null || price == null
+        || price.getCurrency() == null || price.getApparentEnergyPrice() == null) {
+      return null;
+    }
+    PriceDatum datum = PriceDatum.newBuilder()
+        .setTs(timestampForInstant(offering.getStartDate()))
+        .setTimeLength((int) priceMap.duration().getSeconds()).setTimeUnit(TimeUnit.SECOND)
+        .setPriceComponents(PriceComponents.newBuilder().setApparentEnergyPrice(
+            moneyForDecimal(price.getCurrency(), price.getApparentEnergyPrice())))
+        .build();
+    return new OfferPrice(entity.getFacility().getFacilityUid(), datum);
+  }
+
+  /**
+   * A price to add to a facility's price series.
+   */
+  private static final class OfferPrice {
+
+    private final String facilityUid;
+    private final PriceDatum datum;
+
+    private OfferPrice(String facilityUid, PriceDatum datum) {
+      super();
+      this.facilityUid = facilityUid;
+      this.datum = datum;
+    }
+
+  }
+
+  private static long millis(Timestamp ts) {
+    return ts.getSeconds() * SECOND_MS + ts.getNanos() / 1000000;
+  }
+
+  /**
+   * Produce price datum from a cursor, reusing the same builders for every datum.
+   */
+  private static class PriceDatumSource implements Source<PriceDatum> {
+
+    protected final PriceSeries.Cursor cursor;
+    protected final PriceDatum.Builder datum;
+    private final Timestamp.Builder ts;
+    private final Money.Builder price;
+
+    private PriceDatumSource(DerRoute route, String currencyCode, PriceSeries.Cursor cursor) {
+      super();
+      this.cursor = cursor;
+      this.datum = PriceDatum.newBuilder().setRoute(route);
+      this.ts = datum.getTsBuilder();
+      this.price = datum.getPriceComponentsBuilder().getApparentEnergyPriceBuilder()
+          .setCurrencyCode(currencyCode);
+    }
+
+    @Override
+    public PriceDatum next() {
+      if (!cursor.next()) {
+        return null;
+      }
+      return build(cursor.timestamp(), cursor.timeLength(), cursor.timeUnit(), cursor.units(),
+          cursor.nanos());
+    }
+
+    protected PriceDatum build(long timestamp, int timeLength, TimeUnit timeUnit, long units,
+        int nanos) {
+      ts.setSeconds(Math.floorDiv(timestamp, SECOND_MS))
+          .setNanos((int) Math.floorMod(timestamp, SECOND_MS) * 1000000);
+      datum.setTimeLength(timeLength).setTimeUnit(timeUnit);
+      price.setUnits(units).setNanos(nanos);
+      return datum.build();
+    }
+
+  }
+
+  /**
+   * Roll up price datum from a cursor into time-weighted averages over fixed time spans.
+   */
+  private static final class RollupPriceDatumSource extends PriceDatumSource {
+
+    private final TimeUnit timeUnit;
+    private final int coalescence;
+    private boolean pending;
+    private long spanStart;
+    private long spanEnd;
+    private double weightedNanos;
+    private double weight;
+
+    private RollupPriceDatumSource(DerRoute route, String currencyCode,
+        PriceSeries.Cursor cursor, TimeUnit timeUnit, int coalescence) {
+      super(route, currencyCode, cursor);
+      this.timeUnit = timeUnit;
+      this.coalescence = coalescence;
+    }
+
+    @Override
+    public PriceDatum next() {
+      while (cursor.next()) {
+        final long t = cursor.timestamp();
+        PriceDatum result = null;
+        if (pending && (t < spanStart || t >= spanEnd)) {
+          result = rollup();
+        }
+        if (!pending) {
+          startSpan(t);
+        }
+        final double w = Math.max(1L, durationMillis(cursor.timeUnit(), cursor.timeLength()));
+        weightedNanos += w * (cursor.units() * (double) NANOS_PER_UNIT + cursor.nanos());
+        weight += w;
+        if (result != null) {
+          return result;
+        }
+      }
+      return (pending ? rollup() : null);
+    }
+
+    private PriceDatum rollup() {
+      pending = false;
+      long total = Math.round(weightedNanos / weight);
+      return build(spanStart, coalescence, timeUnit, total / NANOS_PER_UNIT,
+          (int) (total % NANOS_PER_UNIT));
+    }
+
+    private void startSpan(long t) {
+      pending = true;
+      weightedNanos = 0;
+      weight = 0;
+      spanStart = TimeSpanUtils.spanStart(t, timeUnit, coalescence);
+      spanEnd = TimeSpanUtils.spanEnd(spanStart, timeUnit, coalescence);
+    }
+
+  }
+
+  /**
+   * Get the approximate duration of a number of time units.
+   * 
+   * @param timeUnit
+   *        the time unit
+   * @param length
+   *        the number of units
+   * @return the duration, in milliseconds; months are treated as 30 days and years as 365 days
+   */
+  private static long durationMillis(TimeUnit timeUnit, int length) {
+    switch (timeUnit) {
+      case SECOND:
+        return length * SECOND_MS;
+      case MINUTE:
+        return length * MINUTE_MS;
+      case HOUR:
+        return length * HOUR_MS;
+      case DAY:
+        return length * DAY_MS;
+      case WEEK:
+        return length * WEEK_MS;
+      case MONTH:
+        return length * 30L * DAY_MS;
+      case YEAR:
+        return length * 365L * DAY_MS;
+      default:
+        return 0L;
+    }
+  }
+
+  /**
+   * Get the number of facilities with prices.
+   * 
+   * @return the number of price series
+   */
+  public int getSeriesCount() {
+    return series.size();
+  }
+
+  /**
+   * Set the DAO to load facility public keys from.
+   * 
+   * @param facilityDao
+   *        the DAO to use
+   */
+  public void setFacilityDao(FacilityEntityDao facilityDao) {
+    this.facilityDao = facilityDao;
+  }
+
+  /**
+   * Set the DAO to load completed price map offers from.
+   * 
+   * <p>
+   * If configured, the offer of a {@link PriceMapOfferCompleted} event is loaded from this DAO so
+   * its offering and price map are available when the price is added.
+   * </p>
+   * 
+   * @param priceMapOfferDao
+   *        the DAO to use
+   */
+  public void setPriceMapOfferDao(FacilityPriceMapOfferEntityDao priceMapOfferDao) {
+    this.priceMapOfferDao = priceMapOfferDao;
+  }
+
+  /**
+   * Set a transaction template to load completed price map offers with.
+   * 
+   * @param transactionTemplate
+   *        the transaction template
+   */
+  public void setTransactionTemplate(TransactionTemplate transactionTemplate) {
+    this.transactionTemplate = transactionTemplate;
+  }
+
+  /**
+   * Set the number of prices to store per chunk in new price series.
+   * 
+   * @param chunkSize
+   *        the chunk size; defaults to {@link PriceSeries#DEFAULT_CHUNK_SIZE}
+   */
+  public void setChunkSize(int chunkSize) {
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Set the maximum number of chunks to keep in new price series.
+   * 
+   * <p>
+   * Once a series is full the oldest chunk of prices is dropped each time a new chunk is needed.
+   * </p>
+   * 
+   * @param maxChunks
+   *        the maximum number of chunks, or {@literal 0} for no limit; defaults to
+   *        {@link #DEFAULT_MAX_CHUNKS}
+   */
+  public void setMaxChunks(int maxChunks) {
+    this.maxChunks = maxChunks;
+  }
+
+}
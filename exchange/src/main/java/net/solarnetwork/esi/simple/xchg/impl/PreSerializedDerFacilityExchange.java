@@ -0,0 +1,80 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.impl;
+
+import static net.solarnetwork.esi.grpc.PreSerializedServiceDefinition.respond;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+import io.grpc.BindableService;
+import io.grpc.ServerServiceDefinition;
+import net.devh.boot.grpc.server.service.GrpcService;
+import net.solarnetwork.esi.grpc.PreSerializedServiceDefinition;
+import net.solarnetwork.esi.service.DerFacilityExchangeGrpc;
+
+/**
+ * Publish a {@link SimpleDerFacilityExchange} with pre-serialized responses for its static
+ * methods.
+ * 
+ * <p>
+ * The {@code GetPublicCryptoKey} and {@code GetDerFacilityRegistrationForm} responses only change
+ * when the exchange key pair or registration forms change, so they are written from the bytes
+ * cached by the exchange instead of being built and marshalled on every call. All other methods
+ * are handled by the exchange as normal.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+@GrpcService
+public class PreSerializedDerFacilityExchange implements BindableService {
+
+  private final SimpleDerFacilityExchange exchange;
+
+  /**
+   * Constructor.
+   * 
+   * @param exchange
+   *        the exchange to publish
+   * @throws IllegalArgumentException
+   *         if {@code exchange} is {@literal null}
+   */
+  @Autowired
+  public PreSerializedDerFacilityExchange(SimpleDerFacilityExchange exchange) {
+    super();
+    if (exchange == null) {
+      throw new IllegalArgumentException("The exchange must be provided.");
+    }
+    this.exchange = exchange;
+  }
+
+  @Override
+  public ServerServiceDefinition bindService() {
+    // @formatter:off
+    return PreSerializedServiceDefinition.of(exchange.bindService())
+        .unary(DerFacilityExchangeGrpc.getGetPublicCryptoKeyMethod(), (req, out) -> {
+          respond(exchange.getPublicCryptoKeyBytes(), out);
+        })
+        .unary(DerFacilityExchangeGrpc.getGetDerFacilityRegistrationFormMethod(), (req, out) -> {
+          respond(exchange.getDerFacilityRegistrationFormBytes(req.getLanguageCode()), out);
+        })
+        .build();
+    // @formatter:on
+  }
+
+}
@@ -26,18 +26,20 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
 
 import com.google.protobuf.ByteString;
 import com.google.protobuf.Empty;
 
 import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
-import net.devh.boot.grpc.server.service.GrpcService;
 import net.solarnetwork.esi.domain.CryptoKey;
 import net.solarnetwork.esi.domain.DatumRequest;
 import net.solarnetwork.esi.domain.DerCharacteristics;
@@ -54,27 +56,34 @@ import net.solarnetwork.esi.domain.PriceMapOfferStatus;
 import net.solarnetwork.esi.domain.PriceMapOfferStatusResponse;
 import net.solarnetwork.esi.domain.support.ProtobufUtils;
 import net.solarnetwork.esi.domain.support.SignableMessage;
+import net.solarnetwork.esi.grpc.FlowControlledStreamer;
+import net.solarnetwork.esi.grpc.FlowControlledStreamer.Source;
 import net.solarnetwork.esi.service.DerFacilityExchangeGrpc.DerFacilityExchangeImplBase;
 import net.solarnetwork.esi.simple.xchg.domain.FacilityPriceMapOfferEntity;
 import net.solarnetwork.esi.simple.xchg.domain.FacilityRegistrationEntity;
 import net.solarnetwork.esi.simple.xchg.service.FacilityCharacteristicsService;
 import net.solarnetwork.esi.simple.xchg.service.FacilityRegistrationService;
 import net.solarnetwork.esi.simple.xchg.service.PriceMapOfferingService;
+import net.solarnetwork.esi.simple.xchg.service.PriceSeriesService;
 import net.solarnetwork.esi.util.CryptoHelper;
 
 /**
  * Really, really, really simple gRPC implementation of a DER facility exchange.
  * 
+ * <p>
+ * This service is published by {@link PreSerializedDerFacilityExchange}, which responds to the
+ * public key and registration form methods with the bytes cached by this service.
+ * </p>
+ * 
  * @author matt
  * @version 1.0
  */
-@GrpcService
+@Service
 public class SimpleDerFacilityExchange extends DerFacilityExchangeImplBase {
 
   private final CryptoHelper cryptoHelper;
   private final String exchangeUid;
-  private final List<Form> registrationForms;
-  private final KeyPair exchangeKeyPair;
+  private volatile Responses responses;
 
   @Autowired
   private FacilityRegistrationService facilityRegistrationService;
@@ -85,6 +94,9 @@ public class SimpleDerFacilityExchange extends DerFacilityExchangeImplBase {
   @Autowired
   private PriceMapOfferingService offeringService;
 
+  @Autowired
+  private PriceSeriesService priceSeriesService;
+
   private static final Logger log = LoggerFactory.getLogger(SimpleDerFacilityExchange.class);
 
   /**
@@ -113,7 +125,6 @@ public class SimpleDerFacilityExchange extends DerFacilityExchangeImplBase {
     if (exchangeKeyPair == null) {
       throw new IllegalArgumentException("The exchange key pair must be provided.");
     }
-    this.exchangeKeyPair = exchangeKeyPair;
     if (registrationForms == null || registrationForms.isEmpty()) {
       throw new IllegalArgumentException("The registration forms list must not be empty.");
     }
@@ -121,44 +132,54 @@ public class SimpleDerFacilityExchange extends DerFacilityExchangeImplBase {
       throw new IllegalArgumentException("The crypto helper must be provided.");
     }
     this.cryptoHelper = cryptoHelper;
-    this.registrationForms = Collections.unmodifiableList(new ArrayList<>(registrationForms));
+    this.responses = new Responses(exchangeUid, exchangeKeyPair, registrationForms);
   }
 
   @Override
   public void getPublicCryptoKey(Empty request, StreamObserver<CryptoKey> responseObserver) {
-    // @formatter:off
-    CryptoKey key = CryptoKey.newBuilder()
-        .setAlgorithm(exchangeKeyPair.getPublic().getAlgorithm())
-        .setEncoding(exchangeKeyPair.getPublic().getFormat())
-        .setKey(ByteString.copyFrom(exchangeKeyPair.getPublic().getEncoded()))
-        .build();
-    // @formatter:on
-    responseObserver.onNext(key);
+    responseObserver.onNext(responses.publicKey);
     responseObserver.onCompleted();
   }
 
   @Override
   public void getDerFacilityRegistrationForm(DerFacilityRegistrationFormRequest request,
       StreamObserver<DerFacilityRegistrationForm> responseObserver) {
-    // try to match the request language to an available form language
-    Locale reqLocale = (request.getLanguageCode() != null && !request.getLanguageCode().isEmpty()
-        ? Locale.forLanguageTag(request.getLanguageCode())
-        : null);
-    Form form;
-    if (registrationForms.size() == 1 || reqLocale == null) {
-      form = registrationForms.get(0);
-    } else {
-      form = registrationForms.stream().filter(f -> {
-        return (f.getLanguageCode() != null && !f.getLanguageCode().isEmpty() && Locale
-            .forLanguageTag(f.getLanguageCode()).getLanguage().equals(reqLocale.getLanguage()));
-      }).findFirst().orElse(registrationForms.get(0));
-    }
-    DerFacilityRegistrationForm regForm = DerFacilityRegistrationForm.newBuilder()
-        .setExchangeUid(exchangeUid).setForm(form).build();
-    responseObserver.onNext(regForm);
+    Responses r = responses;
+    responseObserver.onNext(r.regForms[r.formIndex(request.getLanguageCode())]);
     responseObserver.onCompleted();
   }
 
+  /**
+   * Get the serialized {@link CryptoKey} response for
+   * {@link #getPublicCryptoKey(Empty, StreamObserver)}.
+   * 
+   * <p>
+   * The bytes are serialized once per key pair and must not be modified.
+   * </p>
+   * 
+   * @return the serialized public key
+   */
+  public byte[] getPublicCryptoKeyBytes() {
+    return responses.publicKeyBytes;
+  }
+
+  /**
+   * Get the serialized {@link DerFacilityRegistrationForm} response for
+   * {@link #getDerFacilityRegistrationForm(DerFacilityRegistrationFormRequest, StreamObserver)}.
+   * 
+   * <p>
+   * The bytes are serialized once per registration form and must not be modified.
+   * </p>
+   * 
+   * @param languageCode
+   *        the requested language code, or {@literal null} for the default form
+   * @return the serialized registration form
+   */
+  public byte[] getDerFacilityRegistrationFormBytes(String languageCode) {
+    Responses r = responses;
+    return r.regFormBytes[r.formIndex(languageCode)];
+  }
+
   @Override
   public void submitDerFacilityRegistrationForm(DerFacilityRegistrationFormData request,
       StreamObserver<DerFacilityRegistrationFormDataReceipt> responseObserver) {
@@ -201,7 +222,7 @@ public class SimpleDerFacilityExchange extends DerFacilityExchangeImplBase {
               true)
           .setRoute(DerRoute.newBuilder().setExchangeUid(exchangeUid)
               .setFacilityUid(request.getRoute().getFacilityUid())
-              .setSignature(generateMessageSignature(cryptoHelper, exchangeKeyPair,
+              .setSignature(generateMessageSignature(cryptoHelper, responses.keyPair,
                   result.getFacility().publicKey(),
                   asList(exchangeUid, result.getFacility().getFacilityUid(), signatureData)))
               .build())
@@ -218,8 +239,20 @@ public class SimpleDerFacilityExchange extends DerFacilityExchangeImplBase {
 
   @Override
   public void listPrices(DatumRequest request, StreamObserver<PriceDatum> responseObserver) {
-    // TODO Auto-generated method stub
-    super.listPrices(request, responseObserver);
+    final Source<PriceDatum> source;
+    try {
+      source = priceSeriesService.listPrices(request);
+    } catch (IllegalArgumentException e) {
+      responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage())
+          .withCause(e).asException());
+      return;
+    } catch (RuntimeException e) {
+      log.error("Error listing prices for {}", request.getRoute().getFacilityUid(), e);
+      responseObserver
+          .onError(Status.INTERNAL.withDescription("Internal error").withCause(e).asException());
+      return;
+    }
+    FlowControlledStreamer.stream(responseObserver, source);
   }
 
   @Override
@@ -350,4 +383,125 @@ public class SimpleDerFacilityExchange extends DerFacilityExchangeImplBase {
     this.facilityRegistrationService = facilityRegistrationService;
   }
 
+  /**
+   * Set the price series service.
+   * 
+   * @param priceSeriesService
+   *        the price series service to use
+   */
+  public void setPriceSeriesService(PriceSeriesService priceSeriesService) {
+    this.priceSeriesService = priceSeriesService;
+  }
+
+  /**
+   * Set the exchange key pair.
+   * 
+   * <p>
+   * This replaces the cached public key response.
+   * </p>
+   * 
+   * @param exchangeKeyPair
+   *        the key pair to use for asymmetric encryption with facilities
+   * @throws IllegalArgumentException
+   *         if {@code exchangeKeyPair} is {@literal null}
+   */
+  public synchronized void setExchangeKeyPair(KeyPair exchangeKeyPair) {
+    if (exchangeKeyPair == null) {
+      throw new IllegalArgumentException("The exchange key pair must be provided.");
+    }
+    this.responses = new Responses(exchangeUid, exchangeKeyPair, responses.forms);
+  }
+
+  /**
+   * Set the registration forms.
+   * 
+   * <p>
+   * This replaces the cached registration form responses.
+   * </p>
+   * 
+   * @param registrationForms
+   *        the registration form, as a list to support multiple languages
+   * @throws IllegalArgumentException
+   *         if {@code registrationForms} is {@literal null} or empty
+   */
+  public synchronized void setRegistrationForms(List<Form> registrationForms) {
+    if (registrationForms == null || registrationForms.isEmpty()) {
+      throw new IllegalArgumentException("The registration forms list must not be empty.");
+    }
+    this.responses = new Responses(exchangeUid, responses.keyPair, registrationForms);
+  }
+
+  /**
+   * The immutable responses derived from the key pair and registration forms, with their
+   * serialized bytes.
+   */
+  private static final class Responses {
+
+    /** The maximum number of request language tags to remember the matching form for. */
+    private static final int MAX_LANGUAGE_TAGS = 64;
+
+    private final KeyPair keyPair;
+    private final List<Form> forms;
+    private final String[] formLanguages;
+    private final CryptoKey publicKey;
+    private final byte[] publicKeyBytes;
+    private final DerFacilityRegistrationForm[] regForms;
+    private final byte[][] regFormBytes;
+    private final ConcurrentMap<String, Integer> formIndexes;
+
+    private Responses(String exchangeUid, KeyPair keyPair, List<Form> forms) {
+      super();
+      this.keyPair = keyPair;
+      this.forms = Collections.unmodifiableList(new ArrayList<>(forms));
+      // @formatter:off
+      this.publicKey = CryptoKey.newBuilder()
+          .setAlgorithm(keyPair.getPublic().getAlgorithm())
+          .setEncoding(keyPair.getPublic().getFormat())
+          .setKey(ByteString.copyFrom(keyPair.getPublic().getEncoded()))
+          .build();
+      // @formatter:on
+      this.publicKeyBytes = publicKey.toByteArray();
+      final int size = this.forms.size();
+      this.formLanguages = new String[size];
+      this.regForms = new DerFacilityRegistrationForm[size];
+      this.regFormBytes = new byte[size][];
+      for (int i = 0; i < size; i++) {
+        Form f = this.forms.get(i);
+        formLanguages[i] = (f.getLanguageCode() != null && !f.getLanguageCode().isEmpty()
+            ? Locale.forLanguageTag(f.getLanguageCode()).getLanguage()
+            : null);
+        regForms[i] = DerFacilityRegistrationForm.newBuilder().setExchangeUid(exchangeUid)
+            .setForm(f).build();
+        regFormBytes[i] = regForms[i].toByteArray();
+      }
+      this.formIndexes = new ConcurrentHashMap<>(8, 0.9f, 1);
+    }
+
+    /**
+     * Get the index of the form to use for a request language, falling back to the first form.
+     */
+    private int formIndex(String languageCode) {
+      if (formLanguages.length == 1 || languageCode == null || languageCode.isEmpty()) {
+        return 0;
+      }
+      Integer idx = formIndexes.get(languageCode);
+      if (idx != null) {
+        return idx;
+      }
+      final String lang = Locale.forLanguageTag(languageCode).getLanguage();
+      int result = 0;
+      for (int i = 0; i < formLanguages.length; i++) {
+        if (lang.equals(formLanguages[i])) {
+          result = i;
+          break;
+        }
+      }
+      if (formIndexes.size() < MAX_LANGUAGE_TAGS) {
+        formIndexes.putIfAbsent(languageCode, result);
+      }
+      return result;
+    }
+
+  }
+
 }
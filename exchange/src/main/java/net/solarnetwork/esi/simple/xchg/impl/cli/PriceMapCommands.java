@@ -31,21 +31,18 @@ import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.time.format.FormatStyle;
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Currency;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
 import javax.annotation.Nonnull;
 import javax.persistence.EntityManager;
@@ -86,12 +83,13 @@ import net.solarnetwork.esi.simple.xchg.service.PriceMapOfferingService;
 @ShellCommandGroup("Price Maps")
 public class PriceMapCommands extends BaseFacilityCharacteristicsShell {
 
+  private static final int FACILITY_LIST_PAGE_SIZE = 20;
   private static final String OFFER_PROP_FORMAT = "%-25s : %s";
   private static final Pattern RELATIVE_TIME_PAT = Pattern.compile("\\+\\s*(\\d+)\\s*(\\w)");
 
   private final PriceMapOfferingService offerService;
 
-  @Autowired
+  @Autowired(required = false)
   private EntityManager em;
 
   /**
@@ -302,7 +300,7 @@ public class PriceMapCommands extends BaseFacilityCharacteristicsShell {
   @EventListener
   @Transactional(readOnly = true, propagation = Propagation.REQUIRED)
   public void handlePriceMapOfferCompleted(PriceMapOfferCompleted event) {
-    FacilityPriceMapOfferEntity offer = em.merge(event.getOffer());
+    FacilityPriceMapOfferEntity offer = mergedOffer(event.getOffer());
     PriceMapEmbed priceMap = offer.offerPriceMap();
     boolean countered = !priceMap.equals(offer.getOffering().priceMap().priceMap());
 
@@ -333,7 +331,7 @@ public class PriceMapCommands extends BaseFacilityCharacteristicsShell {
   @EventListener
   @Transactional(readOnly = true, propagation = Propagation.REQUIRED)
   public void handlePriceMapOfferStatusChanged(PriceMapOfferStatusChanged event) {
-    FacilityPriceMapOfferEntity offer = em.merge(event.getOffer());
+    FacilityPriceMapOfferEntity offer = mergedOffer(event.getOffer());
 
     String msg = wrap(messageSource.getMessage("offer.event.statusChanged",
         new Object[] { offer.getId(), offer.getFacility().getFacilityUid(),
@@ -344,87 +342,125 @@ public class PriceMapCommands extends BaseFacilityCharacteristicsShell {
     wallBanner(msg, PromptColor.CYAN);
   }
 
-  private String promptForFacilityUidFromList() {
-    Iterable<FacilityInfo> facilities = characteristicsService.listFacilities();
-    List<String> uids = showFacilityList(facilities);
-    if (uids.isEmpty()) {
-      shell.printWarning(messageSource.getMessage("list.facility.none", null, Locale.getDefault()));
-      return null;
-    }
+  private FacilityPriceMapOfferEntity mergedOffer(FacilityPriceMapOfferEntity offer) {
+    // without JPA (e.g. in-memory storage) the event offer is the stored entity itself
+    return (em != null ? em.merge(offer) : offer);
+  }
 
+  private String promptForFacilityUidFromList() {
+    FacilityInfo after = null;
+    int offset = 0;
     while (true) {
-      String ans = shell
-          .read(messageSource.getMessage("list.facility.pick", null, Locale.getDefault()));
-      try {
-        int index = Integer.parseInt(ans) - 1;
-        return uids.get(index);
-      } catch (NumberFormatException e) {
-        shell.printError(
-            messageSource.getMessage("answer.error.enterNumber", null, Locale.getDefault()));
-      } catch (ArrayIndexOutOfBoundsException e) {
-        shell.printError(messageSource.getMessage("answer.error.numOutOfRange",
-            new Object[] { 1, uids.size() }, Locale.getDefault()));
+      List<FacilityInfo> page = listFacilityPage(after);
+      boolean more = page.size() > FACILITY_LIST_PAGE_SIZE;
+      if (more) {
+        page = page.subList(0, FACILITY_LIST_PAGE_SIZE);
+      } else if (page.isEmpty()) {
+        shell.printWarning(
+            messageSource.getMessage("list.facility.none", null, Locale.getDefault()));
+        return null;
       }
+      showFacilityList(page, offset);
+
+      while (true) {
+        String ans = shell.read(messageSource.getMessage(
+            more ? "list.facility.pick.more" : "list.facility.pick", null, Locale.getDefault()));
+        if (more && (ans == null || ans.trim().isEmpty())) {
+          break;
+        }
+        try {
+          int index = Integer.parseInt(ans) - 1 - offset;
+          return page.get(index).getFacilityUid();
+        } catch (NumberFormatException e) {
+          shell.printError(
+              messageSource.getMessage("answer.error.enterNumber", null, Locale.getDefault()));
+        } catch (IndexOutOfBoundsException e) {
+          shell.printError(messageSource.getMessage("answer.error.numOutOfRange",
+              new Object[] { offset + 1, offset + page.size() }, Locale.getDefault()));
+        }
+      }
+
+      offset += page.size();
+      after = page.get(page.size() - 1);
     }
   }
 
-  private List<String> showFacilityList(Iterable<FacilityInfo> facilities) {
-    int idx = 0;
-    List<String> uids = new ArrayList<>();
+  /**
+   * Get a page of facilities, with one extra facility to tell if more pages are available.
+   */
+  private List<FacilityInfo> listFacilityPage(FacilityInfo after) {
+    return characteristicsService.listFacilities(after, FACILITY_LIST_PAGE_SIZE + 1);
+  }
+
+  private void showFacilityList(List<FacilityInfo> facilities, int offset) {
+    int idx = offset;
     for (FacilityInfo info : facilities) {
       idx++;
-      uids.add(info.getFacilityUid());
-      shell.print(messageSource.getMessage("list.facility.item",
-          new Object[] { idx, info.getCustomerId(), info.getFacilityUid() }, Locale.getDefault()));
+      showFacility(idx, info);
     }
-    return uids;
+  }
+
+  private void showFacility(int idx, FacilityInfo info) {
+    shell.print(messageSource.getMessage("list.facility.item",
+        new Object[] { idx, info.getCustomerId(), info.getFacilityUid() }, Locale.getDefault()));
   }
 
   @Nonnull
   private Set<String> promptForFacilityUidsFromList() {
     while (true) {
-      Iterable<FacilityInfo> facilities = characteristicsService.listFacilities();
-      List<String> uids = showFacilityList(facilities);
-      if (uids.isEmpty()) {
-        shell.printWarning(
-            messageSource.getMessage("list.facility.none", null, Locale.getDefault()));
-        return Collections.emptySet();
+      Map<Integer, FacilityInfo> choices = new TreeMap<>();
+      FacilityInfo after = null;
+      int offset = 0;
+      while (true) {
+        List<FacilityInfo> page = listFacilityPage(after);
+        boolean more = page.size() > FACILITY_LIST_PAGE_SIZE;
+        if (more) {
+          page = page.subList(0, FACILITY_LIST_PAGE_SIZE);
+        } else if (page.isEmpty()) {
+          if (offset == 0) {
+            shell.printWarning(
+                messageSource.getMessage("list.facility.none", null, Locale.getDefault()));
+          }
+          break;
+        }
+        showFacilityList(page, offset);
+
+        String ans = shell.read(messageSource.getMessage(
+            more ? "facilities.list.pick.more" : "facilities.list.pick", null,
+            Locale.getDefault()));
+        if (ans != null && !ans.trim().isEmpty()) {
+          String[] words = ans.trim().split("\\s*[, ]+\\s*");
+          for (String word : words) {
+            try {
+              int num = Integer.parseInt(word);
+              choices.put(num, page.get(num - 1 - offset));
+            } catch (NumberFormatException e) {
+              shell.printError(
+                  messageSource.getMessage("answer.error.enterNumber", null, Locale.getDefault()));
+            } catch (IndexOutOfBoundsException e) {
+              shell.printError(messageSource.getMessage("answer.error.numOutOfRange",
+                  new Object[] { offset + 1, offset + page.size() }, Locale.getDefault()));
+            }
+          }
+        }
+        if (!more || !shell.confirm(
+            messageSource.getMessage("facilities.list.more", null, Locale.getDefault()))) {
+          break;
+        }
+        offset += page.size();
+        after = page.get(page.size() - 1);
       }
 
-      String ans = shell
-          .read(messageSource.getMessage("facilities.list.pick", null, Locale.getDefault()));
-      if (ans == null || ans.trim().isEmpty()) {
+      if (choices.isEmpty()) {
         return Collections.emptySet();
       }
-      String[] words = ans.trim().split("\\s*[, ]+\\s*");
-      Set<String> choices = new TreeSet<>(new Comparator<String>() {
-
-        @Override
-        public int compare(String o1, String o2) {
-          int l = uids.indexOf(o1);
-          int r = uids.indexOf(o2);
-          return (l < r ? -1 : l > r ? 1 : 0);
-        }
-      });
-      for (String word : words) {
-        try {
-          int index = Integer.parseInt(word) - 1;
-          choices.add(uids.get(index));
-        } catch (NumberFormatException e) {
-          shell.printError(
-              messageSource.getMessage("answer.error.enterNumber", null, Locale.getDefault()));
-        } catch (ArrayIndexOutOfBoundsException e) {
-          shell.printError(messageSource.getMessage("answer.error.numOutOfRange",
-              new Object[] { 1, uids.size() }, Locale.getDefault()));
-        }
-      }
       shell.print(
           messageSource.getMessage("facilities.list.confirm.title", null, Locale.getDefault()));
-      showFacilityList(StreamSupport.stream(facilities.spliterator(), false)
-          .filter(e -> uids.contains(e.getFacilityUid())).collect(Collectors.toList()));
+      choices.forEach(this::showFacility);
       if (shell.confirm(
           messageSource.getMessage("facilities.list.confirm.msg", null, Locale.getDefault()))) {
-        return choices;
+        return choices.values().stream().map(FacilityInfo::getFacilityUid)
+            .collect(toCollection(LinkedHashSet::new));
       }
     }
   }
@@ -17,6 +17,8 @@
 
 package net.solarnetwork.esi.simple.xchg.service;
 
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 import javax.annotation.Nonnull;
@@ -41,13 +43,48 @@ public interface FacilityCharacteristicsService {
    * Get a listing of all available facilities.
    * 
    * <p>
-   * The facilities will be ordered by {@code customerId}, ascending.
+   * The facilities will be ordered by {@code customerId} and then {@code facilityUid}, ascending.
+   * The returned {@link Iterable} is lazy: each call to {@link Iterable#iterator()} loads the
+   * facilities a page at a time, as with {@link #facilityIterator(int)}.
    * </p>
    * 
    * @return the facilities
    */
   Iterable<FacilityInfo> listFacilities();
 
+  /**
+   * Get a page of available facilities, using keyset pagination.
+   * 
+   * <p>
+   * The facilities will be ordered by {@code customerId} and then {@code facilityUid}, ascending.
+   * Pass {@literal null} for {@code after} to get the first page, and then the last facility of
+   * each page to get the next page. A page with fewer than {@code max} results is the last page.
+   * </p>
+   * 
+   * @param after
+   *        the facility to list facilities after, or {@literal null} to start at the first
+   * @param max
+   *        the maximum number of facilities to return
+   * @return the facilities, never {@literal null}
+   */
+  @Nonnull
+  List<FacilityInfo> listFacilities(FacilityInfo after, int max);
+
+  /**
+   * Get an iterator over all available facilities.
+   * 
+   * <p>
+   * The facilities will be ordered as in {@link #listFacilities(FacilityInfo, int)}, and will be
+   * loaded on demand at most {@code pageSize} at a time.
+   * </p>
+   * 
+   * @param pageSize
+   *        the number of facilities to load per query
+   * @return the iterator, never {@literal null}
+   */
+  @Nonnull
+  Iterator<FacilityInfo> facilityIterator(int pageSize);
+
   /**
    * Get a info on a single facility.
    * 
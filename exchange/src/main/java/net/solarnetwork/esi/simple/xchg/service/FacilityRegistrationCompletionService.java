@@ -0,0 +1,65 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.service;
+
+import java.util.concurrent.Future;
+
+import net.solarnetwork.esi.simple.xchg.domain.FacilityEntity;
+
+/**
+ * API for a service that reliably delivers registration completion messages to facilities.
+ * 
+ * <p>
+ * Completion messages are persisted in a queue and delivered asynchronously, being retried with
+ * an exponential backoff until the facility acknowledges them.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public interface FacilityRegistrationCompletionService {
+
+  /**
+   * Enqueue a registration completion message for delivery to a facility.
+   * 
+   * <p>
+   * If a completion is already queued for the same facility UID, that completion is updated with
+   * the given endpoint, nonce, and token and is retried immediately with a reset attempt count, and
+   * the future for the existing completion will be returned.
+   * </p>
+   * 
+   * @param facility
+   *        the approved facility
+   * @param facilityNonce
+   *        the facility nonce provided with the registration
+   * @param registrationToken
+   *        the registration token to deliver to the facility
+   * @return a future that completes with the facility once the facility has acknowledged the
+   *         completion message
+   */
+  Future<FacilityEntity> enqueueRegistrationCompletion(FacilityEntity facility,
+      byte[] facilityNonce, byte[] registrationToken);
+
+  /**
+   * Attempt delivery of all queued registration completions that are due.
+   * 
+   * @return the number of delivery attempts started
+   */
+  int processRegistrationCompletions();
+
+}
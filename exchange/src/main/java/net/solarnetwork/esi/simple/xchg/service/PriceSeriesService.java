@@ -0,0 +1,67 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.simple.xchg.service;
+
+import net.solarnetwork.esi.domain.DatumRequest;
+import net.solarnetwork.esi.domain.PriceDatum;
+import net.solarnetwork.esi.grpc.FlowControlledStreamer;
+
+/**
+ * API for a service that manages the price time series published to facilities.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public interface PriceSeriesService {
+
+  /**
+   * Add a price to a facility's price series.
+   * 
+   * <p>
+   * Prices must be added in timestamp order. The route of {@code datum} is ignored.
+   * </p>
+   * 
+   * @param facilityUid
+   *        the UID of the facility to add the price for
+   * @param datum
+   *        the price to add
+   * @throws IllegalArgumentException
+   *         if any argument is invalid or the price is not after the last price added for the
+   *         facility
+   */
+  void addPrice(String facilityUid, PriceDatum datum);
+
+  /**
+   * Get a source of the prices matching a facility's request.
+   * 
+   * <p>
+   * The request route is validated before returning. The returned source produces prices as they
+   * are pulled, and so is suitable for streaming a large response.
+   * </p>
+   * 
+   * @param request
+   *        the request
+   * @return the source of matching prices
+   * @throws IllegalArgumentException
+   *         if the request is invalid, the facility is not known, or the route signature is not
+   *         valid
+   */
+  FlowControlledStreamer.Source<PriceDatum> listPrices(DatumRequest request);
+
+}
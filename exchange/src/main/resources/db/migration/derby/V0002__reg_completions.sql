@@ -0,0 +1,18 @@
+CREATE TABLE FACILITY_REG_COMPLETIONS (
+	ID BIGINT NOT NULL,
+	CREATED_AT TIMESTAMP NOT NULL,
+	MODIFIED_AT TIMESTAMP NOT NULL,
+	FAC_UID VARCHAR(255) NOT NULL,
+	FAC_URI VARCHAR(255) NOT NULL,
+	FAC_KEY VARCHAR(255) FOR BIT DATA NOT NULL,
+	FAC_NONCE VARCHAR(24) FOR BIT DATA NOT NULL,
+	REG_TOKEN VARCHAR(32) FOR BIT DATA NOT NULL,
+	ATTEMPTS INTEGER NOT NULL,
+	NEXT_ATTEMPT_AT TIMESTAMP NOT NULL,
+	LAST_ERROR VARCHAR(255),
+	CONSTRAINT FACILITY_REG_COMPLETIONS_PK PRIMARY KEY (ID)
+);
+
+CREATE UNIQUE INDEX FACILITY_REG_COMPLETIONS_FAC_UID_UNQ ON FACILITY_REG_COMPLETIONS (FAC_UID);
+
+CREATE INDEX FACILITY_REG_COMPLETIONS_NEXT_ATTEMPT_IDX ON FACILITY_REG_COMPLETIONS (NEXT_ATTEMPT_AT);
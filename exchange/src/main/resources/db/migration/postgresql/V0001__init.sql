@@ -0,0 +1,104 @@
+CREATE SEQUENCE HIBERNATE_SEQUENCE START WITH 1 INCREMENT BY 1;
+
+CREATE TABLE PRICE_MAPS (
+	ID UUID NOT NULL,
+	CREATED_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+	MODIFIED_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+	DUR BIGINT NOT NULL,
+	POWER_REACTIVE BIGINT,
+	POWER_REAL BIGINT,
+	PRICE_CURRENCY VARCHAR(3) NOT NULL,
+	PRICE_ENERGY_APPARENT DECIMAL(18,9),
+	RESP_TIME_MAX BIGINT NOT NULL,
+	RESP_TIME_MIN BIGINT NOT NULL,
+	CONSTRAINT PRICE_MAPS_PK PRIMARY KEY (ID)
+);
+
+CREATE TABLE FACILITIES (
+	ID UUID NOT NULL,
+	CREATED_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+	MODIFIED_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+	CUST_ID VARCHAR(20) NOT NULL,
+	UICI VARCHAR(20) NOT NULL,
+	FAC_UID VARCHAR(255) NOT NULL,
+	FAC_URI VARCHAR(255) NOT NULL,
+	FAC_KEY BYTEA NOT NULL,
+	PRICE_MAP_ID UUID,
+	CONSTRAINT FACILITIES_PK PRIMARY KEY (ID),
+	CONSTRAINT FACILITIES_PRICE_MAP_FK FOREIGN KEY (PRICE_MAP_ID) REFERENCES PRICE_MAPS
+);
+
+CREATE INDEX FAC_UID_IDX ON FACILITIES (FAC_UID);
+
+CREATE TABLE FACILITY_PRICE_MAPS (
+	FACILITY_ID UUID NOT NULL,
+	PRICE_MAP_ID UUID,
+	CONSTRAINT FACILITY_PRICE_MAPS_PK PRIMARY KEY (FACILITY_ID, PRICE_MAP_ID),
+	CONSTRAINT FACILITY_PRICE_MAPS_FACILITY_FK FOREIGN KEY (FACILITY_ID) REFERENCES FACILITIES,
+	CONSTRAINT FACILITY_PRICE_MAPS_PRICE_MAP_FK FOREIGN KEY (PRICE_MAP_ID) REFERENCES PRICE_MAPS
+);
+
+CREATE UNIQUE INDEX FACILITY_PRICE_MAPS_PRICE_MAP_UNQ ON FACILITY_PRICE_MAPS (PRICE_MAP_ID);
+
+CREATE TABLE FACILITY_REGS (
+	ID BIGINT NOT NULL,
+	CREATED_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+	MODIFIED_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+	CUST_ID VARCHAR(20) NOT NULL,
+	UICI VARCHAR(20) NOT NULL,
+	FAC_UID VARCHAR(255) NOT NULL,
+	FAC_URI VARCHAR(255) NOT NULL,
+	FAC_KEY BYTEA NOT NULL,
+	FAC_NONCE BYTEA NOT NULL,
+	EXCH_NONCE BYTEA NOT NULL,
+	CONSTRAINT FACILITY_REGS_PK PRIMARY KEY (ID)
+);
+
+CREATE TABLE FACILITY_RESOURCE_CHARS (
+	FACILITY_ID UUID NOT NULL,
+	CREATED_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+	MODIFIED_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+	LOAD_POWER_FACTOR FLOAT NOT NULL,
+	LOAD_POWER_MAX BIGINT NOT NULL,
+	RESP_TIME_MAX BIGINT NOT NULL,
+	RESP_TIME_MIN BIGINT NOT NULL,
+	STORAGE_ENERGY_CAP BIGINT NOT NULL,
+	SUPPLY_POWER_FACTOR FLOAT NOT NULL,
+	SUPPLY_POWER_MAX BIGINT NOT NULL,
+	CONSTRAINT FACILITY_RESOURCE_CHARS_PK PRIMARY KEY (FACILITY_ID),
+	CONSTRAINT FACILITY_RESOURCE_CHARS_FACILITY_FK FOREIGN KEY (FACILITY_ID) REFERENCES FACILITIES
+);
+
+CREATE TABLE FACILITY_PROGRAM_TYPES (
+	FACILITY_ID UUID NOT NULL,
+	PROGRAM VARCHAR(64) NOT NULL,
+	CONSTRAINT FACILITY_PROGRAM_TYPES_PK PRIMARY KEY (FACILITY_ID, PROGRAM),
+	CONSTRAINT FACILITY_PROGRAM_TYPES_FACILITY_FK FOREIGN KEY (FACILITY_ID) REFERENCES FACILITIES
+);
+
+CREATE TABLE PRICE_MAP_OFFERINGS (
+	ID UUID NOT NULL,
+	CREATED_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+	MODIFIED_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+	PRICE_MAP_ID UUID NOT NULL,
+	START_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+	CONSTRAINT PRICE_MAP_OFFERINGS_PK PRIMARY KEY (ID),
+	CONSTRAINT PRICE_MAP_OFFERINGS_PRICE_MAP_FK FOREIGN KEY (PRICE_MAP_ID) REFERENCES PRICE_MAPS
+);
+
+CREATE TABLE FACILITY_PRICE_MAP_OFFERS (
+	ID UUID NOT NULL,
+	CREATED_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+	MODIFIED_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+	FACILITY_ID UUID NOT NULL,
+	OFFERING_ID UUID NOT NULL,
+	PRICE_MAP_ID UUID,
+	IS_PROPOSED BOOLEAN NOT NULL,
+	IS_ACCEPTED BOOLEAN NOT NULL,
+	IS_CONFIRMED BOOLEAN NOT NULL,
+	STATUS VARCHAR(16) NOT NULL,
+	CONSTRAINT FACILITY_PRICE_MAP_OFFERS_PK PRIMARY KEY (ID),
+	CONSTRAINT FACILITY_PRICE_MAP_OFFERS_FACILITY_FK FOREIGN KEY (FACILITY_ID) REFERENCES FACILITIES,
+	CONSTRAINT FACILITY_PRICE_MAP_OFFERS_OFFERING_FK FOREIGN KEY (OFFERING_ID) REFERENCES PRICE_MAP_OFFERINGS,
+	CONSTRAINT FACILITY_PRICE_MAP_OFFERS_PRICE_MAP_FK FOREIGN KEY (PRICE_MAP_ID) REFERENCES PRICE_MAPS
+);
@@ -0,0 +1,18 @@
+CREATE TABLE FACILITY_REG_COMPLETIONS (
+	ID BIGINT NOT NULL,
+	CREATED_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+	MODIFIED_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+	FAC_UID VARCHAR(255) NOT NULL,
+	FAC_URI VARCHAR(255) NOT NULL,
+	FAC_KEY BYTEA NOT NULL,
+	FAC_NONCE BYTEA NOT NULL,
+	REG_TOKEN BYTEA NOT NULL,
+	ATTEMPTS INTEGER NOT NULL,
+	NEXT_ATTEMPT_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+	LAST_ERROR VARCHAR(255),
+	CONSTRAINT FACILITY_REG_COMPLETIONS_PK PRIMARY KEY (ID)
+);
+
+CREATE UNIQUE INDEX FACILITY_REG_COMPLETIONS_FAC_UID_UNQ ON FACILITY_REG_COMPLETIONS (FAC_UID);
+
+CREATE INDEX FACILITY_REG_COMPLETIONS_NEXT_ATTEMPT_IDX ON FACILITY_REG_COMPLETIONS (NEXT_ATTEMPT_AT);
@@ -0,0 +1,11 @@
+CREATE INDEX FACILITY_REGS_FAC_UID_IDX ON FACILITY_REGS (FAC_UID);
+
+CREATE INDEX FACILITY_PRICE_MAP_OFFERS_FACILITY_IDX ON FACILITY_PRICE_MAP_OFFERS (FACILITY_ID, STATUS);
+
+CREATE INDEX FACILITY_PRICE_MAP_OFFERS_OFFERING_IDX ON FACILITY_PRICE_MAP_OFFERS (OFFERING_ID, STATUS);
+
+CREATE INDEX FACILITY_PRICE_MAP_OFFERS_PRICE_MAP_IDX ON FACILITY_PRICE_MAP_OFFERS (PRICE_MAP_ID);
+
+CREATE INDEX PRICE_MAP_OFFERINGS_PRICE_MAP_IDX ON PRICE_MAP_OFFERINGS (PRICE_MAP_ID);
+
+CREATE INDEX PRICE_MAP_OFFERINGS_START_IDX ON PRICE_MAP_OFFERINGS (START_AT);
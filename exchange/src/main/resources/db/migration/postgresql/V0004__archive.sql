@@ -0,0 +1,41 @@
+CREATE TABLE PRICE_MAP_OFFERINGS_ARCH (
+	ID UUID NOT NULL,
+	CREATED_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+	MODIFIED_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+	START_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+	DUR BIGINT,
+	POWER_REACTIVE BIGINT,
+	POWER_REAL BIGINT,
+	PRICE_CURRENCY VARCHAR(3),
+	PRICE_ENERGY_APPARENT DECIMAL(18,9),
+	RESP_TIME_MAX BIGINT,
+	RESP_TIME_MIN BIGINT,
+	CONSTRAINT PRICE_MAP_OFFERINGS_ARCH_PK PRIMARY KEY (ID)
+);
+
+CREATE INDEX PRICE_MAP_OFFERINGS_ARCH_START_IDX ON PRICE_MAP_OFFERINGS_ARCH (START_AT);
+
+CREATE TABLE FACILITY_PRICE_MAP_OFFERS_ARCH (
+	ID UUID NOT NULL,
+	CREATED_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+	MODIFIED_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+	OFFERING_ID UUID NOT NULL,
+	FACILITY_ID UUID NOT NULL,
+	FAC_UID VARCHAR(255) NOT NULL,
+	IS_PROPOSED BOOLEAN NOT NULL,
+	IS_ACCEPTED BOOLEAN NOT NULL,
+	IS_CONFIRMED BOOLEAN NOT NULL,
+	STATUS VARCHAR(16) NOT NULL,
+	DUR BIGINT,
+	POWER_REACTIVE BIGINT,
+	POWER_REAL BIGINT,
+	PRICE_CURRENCY VARCHAR(3),
+	PRICE_ENERGY_APPARENT DECIMAL(18,9),
+	RESP_TIME_MAX BIGINT,
+	RESP_TIME_MIN BIGINT,
+	CONSTRAINT FACILITY_PRICE_MAP_OFFERS_ARCH_PK PRIMARY KEY (ID)
+);
+
+CREATE INDEX FACILITY_PRICE_MAP_OFFERS_ARCH_OFFERING_IDX ON FACILITY_PRICE_MAP_OFFERS_ARCH (OFFERING_ID);
+
+CREATE INDEX FACILITY_PRICE_MAP_OFFERS_ARCH_FACILITY_IDX ON FACILITY_PRICE_MAP_OFFERS_ARCH (FACILITY_ID);
@@ -0,0 +1 @@
+CREATE INDEX FAC_CUST_UID_IDX ON FACILITIES (CUST_ID, FAC_UID);
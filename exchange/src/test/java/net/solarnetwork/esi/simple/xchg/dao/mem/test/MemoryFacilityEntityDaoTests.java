@@ -0,0 +1,154 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.dao.mem.test;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.StreamSupport.stream;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+
+import net.solarnetwork.esi.simple.xchg.dao.FacilityInfoProjection;
+import net.solarnetwork.esi.simple.xchg.dao.mem.MemoryFacilityEntityDao;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityEntity;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityInfo;
+
+/**
+ * Test cases for the {@link MemoryFacilityEntityDao} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class MemoryFacilityEntityDaoTests {
+
+  private static final String TEST_UICI = "123-1234-12345";
+  private static final String TEST_UID = "test.facility";
+
+  private MemoryFacilityEntityDao dao;
+
+  @Before
+  public void setup() {
+    dao = new MemoryFacilityEntityDao();
+  }
+
+  private FacilityEntity newFacility(String customerId, int i) {
+    FacilityEntity obj = new FacilityEntity(Instant.now(), UUID.randomUUID());
+    obj.setCustomerId(customerId);
+    obj.setUici(TEST_UICI + "_" + i);
+    obj.setFacilityUid(TEST_UID + "_" + i);
+    return obj;
+  }
+
+  @Test
+  public void findByFacilityUid() {
+    FacilityEntity obj = dao.save(newFacility("A", 1));
+    assertThat("Found by UID", dao.findByFacilityUid(obj.getFacilityUid()).get(),
+        sameInstance(obj));
+    assertThat("Unknown UID", dao.findByFacilityUid("foo").isPresent(), equalTo(false));
+  }
+
+  @Test
+  public void findByFacilityUidAfterChange() {
+    FacilityEntity obj = dao.save(newFacility("A", 1));
+    obj.setFacilityUid("new.uid");
+    dao.save(obj);
+    assertThat("Old UID removed", dao.findByFacilityUid(TEST_UID + "_1").isPresent(),
+        equalTo(false));
+    assertThat("New UID", dao.findByFacilityUid("new.uid").get(), sameInstance(obj));
+  }
+
+  @Test
+  public void findByFacilityUidAfterDelete() {
+    FacilityEntity obj = dao.save(newFacility("A", 1));
+    dao.delete(obj);
+    assertThat("Removed", dao.findByFacilityUid(obj.getFacilityUid()).isPresent(),
+        equalTo(false));
+  }
+
+  @Test(expected = DataIntegrityViolationException.class)
+  public void duplicateFacilityUid() {
+    dao.save(newFacility("A", 1));
+    dao.save(newFacility("B", 1));
+  }
+
+  @Test
+  public void findAllByFacilityUidIn() {
+    FacilityEntity obj1 = dao.save(newFacility("A", 1));
+    dao.save(newFacility("A", 2));
+    FacilityEntity obj3 = dao.save(newFacility("A", 3));
+    Iterable<FacilityEntity> results = dao.findAllByFacilityUidIn(
+        Arrays.asList(obj1.getFacilityUid(), obj3.getFacilityUid(), "foo"));
+    assertThat("Results", stream(results.spliterator(), false).collect(toList()),
+        containsInAnyOrder(obj1, obj3));
+  }
+
+  @Test
+  public void findAllInfoSorted() {
+    dao.save(newFacility("B", 1));
+    dao.save(newFacility("A", 2));
+    dao.save(newFacility("C", 3));
+    Iterable<FacilityInfo> infos = dao.findAllInfoBy(Sort.by(Direction.DESC, "uici"));
+    assertThat("Sorted by UICI", stream(infos.spliterator(), false).map(FacilityInfo::getUici)
+        .collect(toList()), contains(TEST_UICI + "_3", TEST_UICI + "_2", TEST_UICI + "_1"));
+  }
+
+  @Test
+  public void findInfoAfterPages() {
+    // two customers with two facilities each, inserted in reverse order
+    for (int i = 3; i >= 0; i--) {
+      dao.save(newFacility("CUST_" + (i / 2), i));
+    }
+
+    List<FacilityInfoProjection> page1 = dao.findInfoAfter(null, 3);
+    assertThat("Page 1 UICIs", page1.stream().map(FacilityInfo::getUici).collect(toList()),
+        contains(TEST_UICI + "_0", TEST_UICI + "_1", TEST_UICI + "_2"));
+    assertThat("Projection not entity", page1.get(0), not(instanceOf(FacilityEntity.class)));
+
+    List<FacilityInfoProjection> page2 = dao.findInfoAfter(page1.get(2), 3);
+    assertThat("Page 2 count", page2, hasSize(1));
+    assertThat("Page 2 UICI", page2.get(0).getUici(), equalTo(TEST_UICI + "_3"));
+  }
+
+  @Test
+  public void findInfoAfterCustomerChange() {
+    FacilityEntity obj1 = dao.save(newFacility("A", 1));
+    dao.save(newFacility("B", 2));
+    obj1.setCustomerId("C");
+    dao.save(obj1);
+    List<FacilityInfoProjection> infos = dao.findInfoAfter(null, 10);
+    assertThat("Reordered by new customer ID",
+        infos.stream().map(FacilityInfo::getCustomerId).collect(toList()), contains("B", "C"));
+  }
+
+}
@@ -0,0 +1,102 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.dao.mem.test;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import net.solarnetwork.esi.simple.xchg.dao.mem.MemoryFacilityRegistrationCompletionEntityDao;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityRegistrationCompletionEntity;
+
+/**
+ * Test cases for the {@link MemoryFacilityRegistrationCompletionEntityDao} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class MemoryFacilityRegistrationCompletionEntityDaoTests {
+
+  private MemoryFacilityRegistrationCompletionEntityDao dao;
+
+  @Before
+  public void setup() {
+    dao = new MemoryFacilityRegistrationCompletionEntityDao();
+  }
+
+  private FacilityRegistrationCompletionEntity newCompletion(Instant created, String facilityUid,
+      Instant nextAttemptDate) {
+    FacilityRegistrationCompletionEntity entity = new FacilityRegistrationCompletionEntity(
+        created);
+    entity.setFacilityUid(facilityUid);
+    entity.setNextAttemptDate(nextAttemptDate);
+    return dao.save(entity);
+  }
+
+  @Test
+  public void generatesIds() {
+    Instant now = Instant.now();
+    FacilityRegistrationCompletionEntity e1 = newCompletion(now, "a", now);
+    FacilityRegistrationCompletionEntity e2 = newCompletion(now, "b", now);
+    assertThat("First ID", e1.getId(), equalTo(1L));
+    assertThat("Second ID", e2.getId(), equalTo(2L));
+    assertThat("Found by UID", dao.findByFacilityUid("b").get(), sameInstance(e2));
+  }
+
+  @Test
+  public void findDueAfterReschedule() {
+    Instant now = Instant.now();
+    final FacilityRegistrationCompletionEntity e1 = newCompletion(now, "a", now.minusSeconds(3));
+    final FacilityRegistrationCompletionEntity e2 = newCompletion(now, "b", now.minusSeconds(1));
+    final FacilityRegistrationCompletionEntity e3 = newCompletion(now, "c", now.minusSeconds(2));
+    newCompletion(now, "d", now.plusSeconds(60));
+
+    // reschedule the first to after the third
+    e1.setNextAttemptDate(now.minusMillis(1500));
+    dao.save(e1);
+
+    List<FacilityRegistrationCompletionEntity> due = dao.findAllByNextAttemptDateLessThanEqual(
+        now, PageRequest.of(0, 10, Sort.by("nextAttemptDate")));
+    assertThat("Due in next attempt order", due.stream().map(e -> e.getId()).collect(toList()),
+        contains(e3.getId(), e1.getId(), e2.getId()));
+  }
+
+  @Test
+  public void findOldest() {
+    Instant now = Instant.now();
+    newCompletion(now.minus(1, ChronoUnit.HOURS), "a", now);
+    FacilityRegistrationCompletionEntity oldest = newCompletion(now.minus(2, ChronoUnit.HOURS),
+        "b", now);
+    assertThat("Oldest", dao.findFirstByOrderByCreatedAsc().get(), sameInstance(oldest));
+    dao.delete(oldest);
+    assertThat("Next oldest", dao.findFirstByOrderByCreatedAsc().get().getFacilityUid(),
+        equalTo("a"));
+  }
+
+}
@@ -0,0 +1,135 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.dao.mem.test;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import net.solarnetwork.esi.domain.PriceMapOfferStatus;
+import net.solarnetwork.esi.simple.xchg.dao.mem.MemoryFacilityPriceMapOfferEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.mem.MemoryPriceMapOfferingEntityDao;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityEntity;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityPriceMapOfferEntity;
+import net.solarnetwork.esi.simple.xchg.domain.PriceMapOfferingEntity;
+
+/**
+ * Test cases for the {@link MemoryPriceMapOfferingEntityDao} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class MemoryPriceMapOfferingEntityDaoTests {
+
+  private MemoryFacilityPriceMapOfferEntityDao offerDao;
+  private MemoryPriceMapOfferingEntityDao dao;
+
+  @Before
+  public void setup() {
+    offerDao = new MemoryFacilityPriceMapOfferEntityDao();
+    dao = new MemoryPriceMapOfferingEntityDao(offerDao);
+  }
+
+  private PriceMapOfferingEntity newOffering(Instant startDate) {
+    PriceMapOfferingEntity offering = new PriceMapOfferingEntity(Instant.now(),
+        UUID.randomUUID());
+    offering.setStartDate(startDate);
+    return offering;
+  }
+
+  @Test
+  public void saveCascadesOffers() {
+    PriceMapOfferingEntity offering = newOffering(Instant.now());
+    FacilityPriceMapOfferEntity offer = new FacilityPriceMapOfferEntity(Instant.now(),
+        UUID.randomUUID());
+    offering.addOffer(offer);
+    dao.save(offering);
+    assertThat("Offer saved", offerDao.findById(offer.getId()).get(), sameInstance(offer));
+  }
+
+  @Test
+  public void deleteCascadesOffers() {
+    PriceMapOfferingEntity offering = newOffering(Instant.now());
+    FacilityPriceMapOfferEntity offer = new FacilityPriceMapOfferEntity(Instant.now(),
+        UUID.randomUUID());
+    offering.addOffer(offer);
+    dao.save(offering);
+    dao.delete(offering);
+    assertThat("Offering deleted", dao.count(), equalTo(0L));
+    assertThat("Offer deleted", offerDao.count(), equalTo(0L));
+  }
+
+  private static FacilityPriceMapOfferEntity newOffer(Instant created, FacilityEntity facility,
+      PriceMapOfferStatus.Status status, boolean confirmed, boolean accepted) {
+    FacilityPriceMapOfferEntity offer = new FacilityPriceMapOfferEntity(created,
+        UUID.randomUUID());
+    offer.setFacility(facility);
+    offer.setStatus(status);
+    offer.setConfirmed(confirmed);
+    offer.setAccepted(accepted);
+    return offer;
+  }
+
+  @Test
+  public void findAllCompletedByStartDateBefore() {
+    Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+    FacilityEntity fac = new FacilityEntity(now, UUID.randomUUID());
+
+    PriceMapOfferingEntity completed = newOffering(now.minus(5, ChronoUnit.DAYS));
+    completed.addOffer(newOffer(now, fac, PriceMapOfferStatus.Status.COMPLETED, true, true));
+    dao.save(completed);
+
+    PriceMapOfferingEntity executing = newOffering(now.minus(4, ChronoUnit.DAYS));
+    executing.addOffer(newOffer(now, fac, PriceMapOfferStatus.Status.EXECUTING, true, true));
+    dao.save(executing);
+
+    PriceMapOfferingEntity declined = newOffering(now.minus(3, ChronoUnit.DAYS));
+    declined.addOffer(newOffer(now, fac, PriceMapOfferStatus.Status.UNKNOWN, true, false));
+    dao.save(declined);
+
+    PriceMapOfferingEntity countered = newOffering(now.minus(2, ChronoUnit.DAYS));
+    countered.addOffer(newOffer(now, fac, PriceMapOfferStatus.Status.UNKNOWN, false, false));
+    countered.addOffer(newOffer(now.plusSeconds(1), fac, PriceMapOfferStatus.Status.REJECTED,
+        true, true));
+    dao.save(countered);
+
+    PriceMapOfferingEntity counterPending = newOffering(now.minus(1, ChronoUnit.DAYS));
+    counterPending.addOffer(newOffer(now, fac, PriceMapOfferStatus.Status.UNKNOWN, false, false));
+    counterPending.addOffer(newOffer(now.plusSeconds(1), fac,
+        PriceMapOfferStatus.Status.UNKNOWN, false, false));
+    dao.save(counterPending);
+
+    List<PriceMapOfferingEntity> results = dao.findAllCompletedByStartDateBefore(now,
+        FacilityPriceMapOfferEntity.FINAL_STATUSES, PageRequest.of(0, 10, Sort.by("startDate")));
+    assertThat("Only completed offerings", results.stream().map(e -> e.getId()).collect(toList()),
+        contains(completed.getId(), declined.getId(), countered.getId()));
+  }
+
+}
@@ -0,0 +1,189 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.dao.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasItem;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.flywaydb.test.FlywayTestExecutionListener;
+import org.flywaydb.test.annotation.FlywayTest;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import net.solarnetwork.esi.simple.xchg.config.JpaCacheConfig;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityEntityDao;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityEntity;
+import net.solarnetwork.esi.simple.xchg.impl.HibernateCacheMetrics;
+import net.solarnetwork.esi.simple.xchg.test.SpringTestSupport;
+
+/**
+ * Test cases for the {@link FacilityEntityDao} JPA implementation with the second-level cache
+ * enabled by {@link JpaCacheConfig}.
+ * 
+ * <p>
+ * These tests do not run in a test transaction, because the second-level cache is only updated
+ * when transactions complete.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+@DataJpaTest
+@Import(JpaCacheConfig.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@FlywayTest(invokeCleanDB = false)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class,
+    FlywayTestExecutionListener.class })
+public class JpaFacilityEntityDaoCacheTests extends SpringTestSupport {
+
+  private static final String FACILITY_REGION = FacilityEntity.class.getName();
+  private static final String PROGRAM_TYPES_REGION = FACILITY_REGION + ".programTypes";
+
+  @Autowired
+  private EntityManagerFactory emf;
+
+  @Autowired
+  private PlatformTransactionManager txManager;
+
+  @Autowired
+  private FacilityEntityDao dao;
+
+  @Autowired
+  private HibernateCacheMetrics cacheMetrics;
+
+  private TransactionTemplate tt;
+  private Statistics stats;
+  private String facilityUid;
+
+  @Before
+  public void setup() {
+    tt = new TransactionTemplate(txManager);
+    stats = emf.unwrap(SessionFactory.class).getStatistics();
+    facilityUid = UUID.randomUUID().toString();
+    tt.execute(s -> {
+      FacilityEntity obj = new FacilityEntity(Instant.now(), UUID.randomUUID());
+      obj.setCustomerId("A123456789");
+      obj.setUici("123-1234-12345");
+      obj.setFacilityUid(facilityUid);
+      obj.setFacilityEndpointUri("dns:///localhost:9090");
+      obj.setFacilityPublicKey(new byte[] { 1, 3, 5, 7 });
+      obj.addProgramType("a");
+      return dao.save(obj);
+    });
+    emf.getCache().evictAll();
+    stats.clear();
+  }
+
+  /**
+   * Delete the test facility.
+   */
+  @After
+  public void teardown() {
+    tt.execute(s -> {
+      dao.deleteAll();
+      return null;
+    });
+  }
+
+  private FacilityEntity findByFacilityUid() {
+    return tt.execute(s -> {
+      FacilityEntity f = dao.findByFacilityUid(facilityUid).get();
+      f.getProgramTypes().size();
+      return f;
+    });
+  }
+
+  private CacheRegionStatistics regionStats(String region) {
+    return stats.getCacheRegionStatistics(region);
+  }
+
+  @Test
+  public void regionMetrics() {
+    assertThat("Metric regions", cacheMetrics.getRegionNames(),
+        hasItem(FacilityEntityDao.FACILITY_UID_CACHE_REGION));
+    assertThat("Metric regions", cacheMetrics.getRegionNames(), hasItem(FACILITY_REGION));
+    assertThat("Metric regions", cacheMetrics.getRegionNames(), hasItem(PROGRAM_TYPES_REGION));
+  }
+
+  @Test
+  public void findByFacilityUidCached() {
+    findByFacilityUid();
+    assertThat("First lookup misses query cache",
+        regionStats(FacilityEntityDao.FACILITY_UID_CACHE_REGION).getMissCount(), equalTo(1L));
+
+    final FacilityEntity f = findByFacilityUid();
+    assertThat("Second lookup hits query cache",
+        regionStats(FacilityEntityDao.FACILITY_UID_CACHE_REGION).getHitCount(), equalTo(1L));
+    assertThat("Second lookup hits entity cache", regionStats(FACILITY_REGION).getHitCount(),
+        greaterThan(0L));
+    assertThat("Second lookup hits program types cache",
+        regionStats(PROGRAM_TYPES_REGION).getHitCount(), greaterThan(0L));
+    assertThat("No extra query executed", stats.getQueryExecutionCount(), equalTo(1L));
+    assertThat("Program types", f.getProgramTypes(), containsInAnyOrder("a"));
+
+    assertThat("Query hit ratio",
+        cacheMetrics.hitRatio(FacilityEntityDao.FACILITY_UID_CACHE_REGION), equalTo(0.5));
+  }
+
+  @Test
+  public void updateEvictsStaleEntries() {
+    findByFacilityUid();
+    tt.execute(s -> {
+      FacilityEntity f = dao.findByFacilityUid(facilityUid).get();
+      f.addProgramType("b");
+      return dao.save(f);
+    });
+
+    FacilityEntity f = findByFacilityUid();
+    assertThat("Updated program types", f.getProgramTypes(), containsInAnyOrder("a", "b"));
+  }
+
+  @Test
+  public void deleteEvictsCachedLookup() {
+    findByFacilityUid();
+    tt.execute(s -> {
+      dao.delete(dao.findByFacilityUid(facilityUid).get());
+      return null;
+    });
+
+    boolean found = tt.execute(s -> dao.findByFacilityUid(facilityUid).isPresent());
+    assertThat("Deleted facility not found", found, equalTo(false));
+  }
+
+}
@@ -25,6 +25,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.sameInstance;
@@ -65,6 +66,7 @@ import net.solarnetwork.esi.domain.jpa.DurationRangeEmbed;
 import net.solarnetwork.esi.domain.jpa.PowerComponentsEmbed;
 import net.solarnetwork.esi.domain.jpa.PriceComponentsEmbed;
 import net.solarnetwork.esi.simple.xchg.dao.FacilityEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityInfoProjection;
 import net.solarnetwork.esi.simple.xchg.domain.FacilityEntity;
 import net.solarnetwork.esi.simple.xchg.domain.FacilityInfo;
 import net.solarnetwork.esi.simple.xchg.domain.PriceMapEntity;
@@ -266,6 +268,46 @@ public class JpaFacilityEntityDaoTests extends SpringTestSupport {
     }
   }
 
+  @Test
+  public void findInfoAfterEmpty() {
+    List<FacilityInfoProjection> infos = dao.findInfoAfter(null, 2);
+    assertThat("Result available", infos, notNullValue());
+    assertThat("Result count", infos, hasSize(0));
+  }
+
+  @Test
+  public void findInfoAfterPages() {
+    // two customers with two facilities each, inserted in reverse order
+    List<String> expectedUids = new ArrayList<>(4);
+    for (int i = 3; i >= 0; i--) {
+      FacilityEntity obj = new FacilityEntity(Instant.now(), UUID.randomUUID());
+      obj.setCustomerId("CUST_" + (i / 2));
+      obj.setUici(TEST_UICI + "_" + i);
+      obj.setFacilityUid(TEST_UID + "_" + i);
+      obj.setFacilityEndpointUri(TEST_ENDPOINT_URI);
+      obj.setFacilityPublicKey(TEST_KEY);
+      dao.save(obj);
+      expectedUids.add(0, obj.getFacilityUid());
+    }
+    em.flush();
+    em.clear();
+
+    List<FacilityInfoProjection> page1 = dao.findInfoAfter(null, 3);
+    assertThat("Page 1 count", page1, hasSize(3));
+    assertThat("Projection not entity", page1.get(0), not(instanceOf(FacilityEntity.class)));
+
+    List<FacilityInfoProjection> page2 = dao.findInfoAfter(page1.get(2), 3);
+    assertThat("Page 2 count", page2, hasSize(1));
+    assertThat("Page 2 UICI", page2.get(0).getUici(), equalTo(TEST_UICI + "_3"));
+
+    List<String> uids = new ArrayList<>(page1.size() + page2.size());
+    page1.forEach(e -> uids.add(e.getFacilityUid()));
+    page2.forEach(e -> uids.add(e.getFacilityUid()));
+    assertThat("Sorted by customer ID, facility UID", uids, equalTo(expectedUids));
+
+    assertThat("Past last page", dao.findInfoAfter(page2.get(0), 3), hasSize(0));
+  }
+
   @Test
   public void findByFacilityUids() {
     List<FacilityEntity> data = new ArrayList<>(3);
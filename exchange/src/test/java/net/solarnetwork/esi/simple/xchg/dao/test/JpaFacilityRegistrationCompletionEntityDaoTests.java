@@ -0,0 +1,182 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.dao.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import javax.persistence.EntityManager;
+import javax.sql.DataSource;
+
+import org.flywaydb.test.FlywayTestExecutionListener;
+import org.flywaydb.test.annotation.FlywayTest;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.data.repository.core.support.RepositoryFactorySupport;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+import org.springframework.test.jdbc.JdbcTestUtils;
+
+import net.solarnetwork.esi.simple.xchg.dao.FacilityRegistrationCompletionEntityDao;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityRegistrationCompletionEntity;
+import net.solarnetwork.esi.simple.xchg.test.SpringTestSupport;
+
+/**
+ * Test cases for the {@link FacilityRegistrationCompletionEntityDao} JPA implementation.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+@DataJpaTest
+@FlywayTest(invokeCleanDB = false)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class,
+    TransactionalTestExecutionListener.class, FlywayTestExecutionListener.class })
+public class JpaFacilityRegistrationCompletionEntityDaoTests extends SpringTestSupport {
+
+  private static final String TEST_ENDPOINT_URI = "dns:///localhost:9090";
+  private static final byte[] TEST_FAC_KEY = new byte[] { 1, 3, 5, 7 };
+  private static final byte[] TEST_FAC_NONCE = new byte[] { 1, 2, 3, 4 };
+  private static final byte[] TEST_REG_TOKEN = new byte[] { 5, 6, 7, 8 };
+
+  @Autowired
+  private EntityManager em;
+
+  private JdbcTemplate jdbcTemplate;
+  private FacilityRegistrationCompletionEntityDao dao;
+
+  private FacilityRegistrationCompletionEntity last;
+
+  @Autowired
+  public void setDataSource(DataSource ds) {
+    jdbcTemplate = new JdbcTemplate(ds);
+  }
+
+  @Before
+  public void setup() {
+    RepositoryFactorySupport factory = new JpaRepositoryFactory(em);
+    dao = factory.getRepository(FacilityRegistrationCompletionEntityDao.class);
+  }
+
+  private void assertRowCountEqualTo(final int expected) {
+    assertThat(JdbcTestUtils.countRowsInTable(jdbcTemplate, "FACILITY_REG_COMPLETIONS"),
+        equalTo(expected));
+  }
+
+  private FacilityRegistrationCompletionEntity newEntity(Instant created, Instant nextAttempt) {
+    FacilityRegistrationCompletionEntity obj = new FacilityRegistrationCompletionEntity(created);
+    obj.setFacilityUid(UUID.randomUUID().toString());
+    obj.setFacilityEndpointUri(TEST_ENDPOINT_URI);
+    obj.setFacilityPublicKey(TEST_FAC_KEY);
+    obj.setFacilityNonce(TEST_FAC_NONCE);
+    obj.setRegistrationToken(TEST_REG_TOKEN);
+    obj.setNextAttemptDate(nextAttempt);
+    return obj;
+  }
+
+  @Test
+  public void insert() {
+    Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    FacilityRegistrationCompletionEntity entity = dao.save(newEntity(now, now));
+    this.last = entity;
+    em.flush();
+    assertThat("ID", entity.getId(), notNullValue());
+    assertThat("Created set", entity.getCreated(), notNullValue());
+    assertThat("Modified set", entity.getModified(), notNullValue());
+    assertThat("Attempts", entity.getAttempts(), equalTo(0));
+    assertRowCountEqualTo(1);
+    em.clear();
+  }
+
+  @Test
+  public void getByFacilityUid() {
+    insert();
+    FacilityRegistrationCompletionEntity entity = dao.findByFacilityUid(last.getFacilityUid())
+        .get();
+    assertThat("ID", entity.getId(), equalTo(last.getId()));
+    assertThat("Facility endpoint URI", entity.getFacilityEndpointUri(),
+        equalTo(TEST_ENDPOINT_URI));
+    assertThat("Facility key", Arrays.equals(entity.getFacilityPublicKey(), TEST_FAC_KEY),
+        equalTo(true));
+    assertThat("Facility nonce", Arrays.equals(entity.getFacilityNonce(), TEST_FAC_NONCE),
+        equalTo(true));
+    assertThat("Registration token", Arrays.equals(entity.getRegistrationToken(), TEST_REG_TOKEN),
+        equalTo(true));
+    assertThat("Next attempt date", entity.getNextAttemptDate(),
+        equalTo(last.getNextAttemptDate()));
+  }
+
+  @Test
+  public void updateAttempts() {
+    insert();
+    FacilityRegistrationCompletionEntity entity = dao.findById(last.getId()).get();
+    Instant next = entity.getNextAttemptDate().plusSeconds(60);
+    entity.setAttempts(1);
+    entity.setNextAttemptDate(next);
+    entity.setLastError("Boom");
+    dao.save(entity);
+    em.flush();
+    em.clear();
+
+    entity = dao.findById(last.getId()).get();
+    assertThat("Attempts", entity.getAttempts(), equalTo(1));
+    assertThat("Next attempt date", entity.getNextAttemptDate(), equalTo(next));
+    assertThat("Last error", entity.getLastError(), equalTo("Boom"));
+  }
+
+  @Test
+  public void findDue() {
+    Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    final FacilityRegistrationCompletionEntity e1 = dao.save(newEntity(now, now.minusSeconds(10)));
+    dao.save(newEntity(now, now.plusSeconds(60)));
+    FacilityRegistrationCompletionEntity e3 = dao.save(newEntity(now, now.minusSeconds(20)));
+    em.flush();
+    em.clear();
+
+    List<FacilityRegistrationCompletionEntity> results = dao.findAllByNextAttemptDateLessThanEqual(
+        now, PageRequest.of(0, 10, Sort.by("nextAttemptDate")));
+    assertThat("Due results ordered by next attempt date", results, contains(e3, e1));
+  }
+
+  @Test
+  public void findOldest() {
+    Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    dao.save(newEntity(now.minusSeconds(10), now));
+    FacilityRegistrationCompletionEntity e2 = dao.save(newEntity(now.minusSeconds(20), now));
+    em.flush();
+    em.clear();
+
+    FacilityRegistrationCompletionEntity result = dao.findFirstByOrderByCreatedAsc().get();
+    assertThat("Oldest found", result, equalTo(e2));
+  }
+
+}
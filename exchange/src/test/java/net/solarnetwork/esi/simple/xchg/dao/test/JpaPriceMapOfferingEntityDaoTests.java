@@ -0,0 +1,266 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.dao.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.notNullValue;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Currency;
+import java.util.List;
+import java.util.UUID;
+
+import javax.persistence.EntityManager;
+import javax.sql.DataSource;
+
+import org.flywaydb.test.FlywayTestExecutionListener;
+import org.flywaydb.test.annotation.FlywayTest;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.data.repository.core.support.RepositoryFactorySupport;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+import org.springframework.test.jdbc.JdbcTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import net.solarnetwork.esi.domain.PriceMapOfferStatus;
+import net.solarnetwork.esi.domain.jpa.DurationRangeEmbed;
+import net.solarnetwork.esi.domain.jpa.PowerComponentsEmbed;
+import net.solarnetwork.esi.domain.jpa.PriceComponentsEmbed;
+import net.solarnetwork.esi.domain.jpa.PriceMapEmbed;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityPriceMapOfferArchiveEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.PriceMapOfferingArchiveEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.PriceMapOfferingEntityDao;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityEntity;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityPriceMapOfferArchiveEntity;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityPriceMapOfferEntity;
+import net.solarnetwork.esi.simple.xchg.domain.PriceMapEntity;
+import net.solarnetwork.esi.simple.xchg.domain.PriceMapOfferingArchiveEntity;
+import net.solarnetwork.esi.simple.xchg.domain.PriceMapOfferingEntity;
+import net.solarnetwork.esi.simple.xchg.impl.DaoPriceMapOfferingRetentionService;
+import net.solarnetwork.esi.simple.xchg.test.SpringTestSupport;
+
+/**
+ * Test cases for the {@link PriceMapOfferingEntityDao} JPA implementation.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+@DataJpaTest
+@FlywayTest(invokeCleanDB = false)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class,
+    TransactionalTestExecutionListener.class, FlywayTestExecutionListener.class })
+public class JpaPriceMapOfferingEntityDaoTests extends SpringTestSupport {
+
+  @Autowired
+  private EntityManager em;
+
+  @Autowired
+  private PlatformTransactionManager txManager;
+
+  private JdbcTemplate jdbcTemplate;
+  private FacilityEntityDao facilityDao;
+  private PriceMapOfferingEntityDao dao;
+  private PriceMapOfferingArchiveEntityDao archiveDao;
+  private FacilityPriceMapOfferArchiveEntityDao offerArchiveDao;
+
+  private FacilityEntity facility;
+
+  @Autowired
+  public void setDataSource(DataSource ds) {
+    jdbcTemplate = new JdbcTemplate(ds);
+  }
+
+  @Before
+  public void setup() {
+    RepositoryFactorySupport factory = new JpaRepositoryFactory(em);
+    facilityDao = factory.getRepository(FacilityEntityDao.class);
+    dao = factory.getRepository(PriceMapOfferingEntityDao.class);
+    archiveDao = factory.getRepository(PriceMapOfferingArchiveEntityDao.class);
+    offerArchiveDao = factory.getRepository(FacilityPriceMapOfferArchiveEntityDao.class);
+
+    FacilityEntity fac = new FacilityEntity(Instant.now(), UUID.randomUUID());
+    fac.setCustomerId("A123456789");
+    fac.setUici("123-1234-12345");
+    fac.setFacilityUid(UUID.randomUUID().toString());
+    fac.setFacilityEndpointUri("dns:///localhost:9090");
+    fac.setFacilityPublicKey(new byte[] { 1, 3, 5, 7 });
+    facility = facilityDao.save(fac);
+  }
+
+  private void assertRowCountEqualTo(String table, final int expected) {
+    assertThat(table + " row count", JdbcTestUtils.countRowsInTable(jdbcTemplate, table),
+        equalTo(expected));
+  }
+
+  private static PriceMapEmbed newPriceMap(long realPower) {
+    PriceMapEmbed priceMap = new PriceMapEmbed();
+    priceMap.setPowerComponents(new PowerComponentsEmbed(realPower, 2L));
+    priceMap.setDuration(Duration.ofMinutes(15));
+    priceMap.setResponseTime(new DurationRangeEmbed(Duration.ofSeconds(1), Duration.ofSeconds(2)));
+    priceMap.setPriceComponents(
+        new PriceComponentsEmbed(Currency.getInstance("USD"), new BigDecimal("9.990000000")));
+    return priceMap;
+  }
+
+  private PriceMapOfferingEntity insertOffering(Instant startDate, boolean counterOffer) {
+    PriceMapOfferingEntity offering = new PriceMapOfferingEntity(Instant.now(),
+        UUID.randomUUID());
+    offering.setStartDate(startDate);
+    offering.setPriceMap(new PriceMapEntity(Instant.now(), newPriceMap(1L)));
+    FacilityPriceMapOfferEntity offer = new FacilityPriceMapOfferEntity(Instant.now(),
+        UUID.randomUUID());
+    offer.setFacility(facility);
+    offer.setProposed(true);
+    offer.setAccepted(true);
+    offer.setConfirmed(true);
+    offer.setStatus(PriceMapOfferStatus.Status.COMPLETED);
+    if (counterOffer) {
+      offer.setPriceMap(new PriceMapEntity(Instant.now(), newPriceMap(3L)));
+    }
+    offering.addOffer(offer);
+    PriceMapOfferingEntity entity = dao.save(offering);
+    em.flush();
+    return entity;
+  }
+
+  @Test
+  public void insert() {
+    Instant start = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    PriceMapOfferingEntity entity = insertOffering(start, true);
+    assertThat("ID", entity.getId(), notNullValue());
+    assertRowCountEqualTo("PRICE_MAP_OFFERINGS", 1);
+    assertRowCountEqualTo("FACILITY_PRICE_MAP_OFFERS", 1);
+    assertRowCountEqualTo("PRICE_MAPS", 2);
+    em.clear();
+  }
+
+  @Test
+  public void findCompletedByStartDateBefore() {
+    Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    final PriceMapOfferingEntity o1 = insertOffering(now.minus(4, ChronoUnit.DAYS), false);
+    PriceMapOfferingEntity o2 = insertOffering(now.minus(3, ChronoUnit.DAYS), false);
+    o2.getOffers().iterator().next().setStatus(PriceMapOfferStatus.Status.EXECUTING);
+    dao.save(o2);
+
+    // countered offer superseded by a later, final counter offer
+    PriceMapOfferingEntity o3 = insertOffering(now.minus(2, ChronoUnit.DAYS), false);
+    FacilityPriceMapOfferEntity orig = o3.getOffers().iterator().next();
+    orig.setAccepted(false);
+    orig.setConfirmed(false);
+    orig.setStatus(PriceMapOfferStatus.Status.UNKNOWN);
+    FacilityPriceMapOfferEntity counter = new FacilityPriceMapOfferEntity(
+        orig.getCreated().plusSeconds(1), UUID.randomUUID());
+    counter.setFacility(facility);
+    counter.setProposed(true);
+    counter.setConfirmed(true);
+    counter.setAccepted(false);
+    counter.setStatus(PriceMapOfferStatus.Status.UNKNOWN);
+    o3.addOffer(counter);
+    dao.save(o3);
+
+    // countered offer still awaiting a reply to the counter offer
+    PriceMapOfferingEntity o4 = insertOffering(now.minus(1, ChronoUnit.DAYS), false);
+    FacilityPriceMapOfferEntity pending = o4.getOffers().iterator().next();
+    pending.setAccepted(false);
+    pending.setConfirmed(false);
+    pending.setStatus(PriceMapOfferStatus.Status.UNKNOWN);
+    dao.save(o4);
+    em.flush();
+    em.clear();
+
+    List<PriceMapOfferingEntity> results = dao.findAllCompletedByStartDateBefore(now,
+        FacilityPriceMapOfferEntity.FINAL_STATUSES, PageRequest.of(0, 10, Sort.by("startDate")));
+    assertThat("Completed offerings found", results, contains(o1, o3));
+  }
+
+  @Test
+  public void deleteCascades() {
+    PriceMapOfferingEntity entity = insertOffering(Instant.now(), true);
+    em.clear();
+    dao.delete(dao.findById(entity.getId()).get());
+    em.flush();
+    assertRowCountEqualTo("PRICE_MAP_OFFERINGS", 0);
+    assertRowCountEqualTo("FACILITY_PRICE_MAP_OFFERS", 0);
+    assertRowCountEqualTo("PRICE_MAPS", 0);
+    assertRowCountEqualTo("FACILITIES", 1);
+  }
+
+  @Test
+  public void archiveOldOfferings() {
+    Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    final PriceMapOfferingEntity o1 = insertOffering(now.minus(3, ChronoUnit.DAYS), true);
+    final PriceMapOfferingEntity o2 = insertOffering(now.minus(2, ChronoUnit.DAYS), false);
+    final PriceMapOfferingEntity o3 = insertOffering(now, false);
+    em.clear();
+
+    DaoPriceMapOfferingRetentionService service = new DaoPriceMapOfferingRetentionService(dao,
+        archiveDao, offerArchiveDao, new TransactionTemplate(txManager));
+    service.setBatchSize(1);
+    int count = service.archiveOfferingsStartingBefore(now.minus(1, ChronoUnit.DAYS));
+    em.flush();
+    em.clear();
+
+    assertThat("Archived count", count, equalTo(2));
+    assertRowCountEqualTo("PRICE_MAP_OFFERINGS", 1);
+    assertRowCountEqualTo("FACILITY_PRICE_MAP_OFFERS", 1);
+    assertRowCountEqualTo("PRICE_MAPS", 1);
+    assertThat("Live offering remains", dao.findById(o3.getId()).isPresent(), equalTo(true));
+    assertRowCountEqualTo("PRICE_MAP_OFFERINGS_ARCH", 2);
+    assertRowCountEqualTo("FACILITY_PRICE_MAP_OFFERS_ARCH", 2);
+
+    PriceMapOfferingArchiveEntity arch = archiveDao.findById(o1.getId()).get();
+    assertThat("Archived start date", arch.getStartDate(), equalTo(o1.getStartDate()));
+    assertThat("Archived price map", arch.getPriceMap(),
+        equalTo(o1.getPriceMap().getPriceMap()));
+
+    List<FacilityPriceMapOfferArchiveEntity> offers = offerArchiveDao
+        .findAllByOfferingId(o1.getId());
+    assertThat("Archived offers", offers, hasSize(1));
+    FacilityPriceMapOfferArchiveEntity offerArch = offers.get(0);
+    FacilityPriceMapOfferEntity offer = o1.getOffers().iterator().next();
+    assertThat("Archived offer ID", offerArch.getId(), equalTo(offer.getId()));
+    assertThat("Archived facility ID", offerArch.getFacilityId(), equalTo(facility.getId()));
+    assertThat("Archived facility UID", offerArch.getFacilityUid(),
+        equalTo(facility.getFacilityUid()));
+    assertThat("Archived status", offerArch.getStatus(),
+        equalTo(PriceMapOfferStatus.Status.COMPLETED));
+    assertThat("Archived counter-offer", offerArch.getPriceMap(),
+        equalTo(offer.getPriceMap().getPriceMap()));
+
+    offers = offerArchiveDao.findAllByOfferingId(o2.getId());
+    assertThat("Archived offers", offers, hasSize(1));
+    assertThat("No counter-offer", offers.get(0).getPriceMap(), equalTo(null));
+  }
+
+}
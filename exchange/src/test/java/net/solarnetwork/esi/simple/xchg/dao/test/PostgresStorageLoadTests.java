@@ -0,0 +1,254 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.dao.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.flywaydb.core.Flyway;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Repeatable load test for the PostgreSQL storage profile.
+ * 
+ * <p>
+ * This test only runs when the {@code esi.test.postgres.url} system property is set to the JDBC
+ * URL of a PostgreSQL database, for example a local PostgreSQL container started with:
+ * </p>
+ * 
+ * <pre>
+ * <code>
+ * docker run --rm -p 5432:5432 -e POSTGRES_USER=esi -e POSTGRES_PASSWORD=esi postgres:11
+ * </code>
+ * </pre>
+ * 
+ * <p>
+ * The {@code esi.test.postgres.user} and {@code esi.test.postgres.password} properties default to
+ * {@literal esi}. The {@literal esi_load_test} schema is cleaned and re-created with the
+ * {@literal db/migration/postgresql} Flyway scripts on each run, then populated with a
+ * deterministic data set whose size can be adjusted with the {@code esi.test.postgres.facilities},
+ * {@code esi.test.postgres.offerings}, and {@code esi.test.postgres.registrations} properties.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class PostgresStorageLoadTests {
+
+  private static final String SCHEMA = "esi_load_test";
+  private static final String[] STATUSES = new String[] { "PROPOSED", "ACCEPTED", "CONFIRMED",
+      "DECLINED" };
+
+  private static final Logger log = LoggerFactory.getLogger(PostgresStorageLoadTests.class);
+
+  private HikariDataSource dataSource;
+  private JdbcTemplate jdbcTemplate;
+  private int facilityCount;
+  private int offeringCount;
+  private int registrationCount;
+  private int queryCount;
+  private List<UUID> facilityIds;
+  private List<UUID> offeringIds;
+  private List<String> registrationUids;
+
+  @Before
+  public void setup() {
+    String url = System.getProperty("esi.test.postgres.url");
+    Assume.assumeTrue("PostgreSQL URL not configured", url != null && !url.isEmpty());
+
+    facilityCount = Integer.getInteger("esi.test.postgres.facilities", 200);
+    offeringCount = Integer.getInteger("esi.test.postgres.offerings", 100);
+    registrationCount = Integer.getInteger("esi.test.postgres.registrations", 5000);
+    queryCount = Integer.getInteger("esi.test.postgres.queries", 1000);
+
+    dataSource = new HikariDataSource();
+    dataSource.setJdbcUrl(url);
+    dataSource.setUsername(System.getProperty("esi.test.postgres.user", "esi"));
+    dataSource.setPassword(System.getProperty("esi.test.postgres.password", "esi"));
+    dataSource.setMaximumPoolSize(4);
+    dataSource.setConnectionInitSql("SET search_path TO " + SCHEMA);
+    dataSource.addDataSourceProperty("reWriteBatchedInserts", "true");
+
+    Flyway flyway = Flyway.configure().dataSource(dataSource).schemas(SCHEMA)
+        .locations("classpath:db/migration/postgresql").load();
+    flyway.clean();
+    flyway.migrate();
+
+    jdbcTemplate = new JdbcTemplate(dataSource);
+  }
+
+  /**
+   * Close the data source.
+   */
+  @After
+  public void teardown() {
+    if (dataSource != null) {
+      dataSource.close();
+    }
+  }
+
+  private static Timestamp ts(Instant date) {
+    return Timestamp.from(date);
+  }
+
+  private void populate() {
+    final Random rng = new Random(123456789L);
+    final Instant now = Instant.parse("2019-06-01T00:00:00Z");
+    final long start = System.nanoTime();
+
+    List<Object[]> priceMaps = new ArrayList<>(offeringCount);
+    List<Object[]> offerings = new ArrayList<>(offeringCount);
+    offeringIds = new ArrayList<>(offeringCount);
+    for (int i = 0; i < offeringCount; i++) {
+      UUID priceMapId = new UUID(1L, i);
+      UUID offeringId = new UUID(2L, i);
+      offeringIds.add(offeringId);
+      priceMaps.add(new Object[] { priceMapId, ts(now), ts(now), 60000L, 0L, 1000L, "USD",
+          rng.nextInt(100), 0L, 0L });
+      offerings.add(new Object[] { offeringId, ts(now), ts(now), priceMapId,
+          ts(now.plusSeconds(i * 3600L)) });
+    }
+    jdbcTemplate.batchUpdate(
+        "INSERT INTO PRICE_MAPS (ID,CREATED_AT,MODIFIED_AT,DUR,POWER_REACTIVE,POWER_REAL,"
+            + "PRICE_CURRENCY,PRICE_ENERGY_APPARENT,RESP_TIME_MAX,RESP_TIME_MIN)"
+            + " VALUES (?,?,?,?,?,?,?,?,?,?)",
+        priceMaps);
+    jdbcTemplate.batchUpdate(
+        "INSERT INTO PRICE_MAP_OFFERINGS (ID,CREATED_AT,MODIFIED_AT,PRICE_MAP_ID,START_AT)"
+            + " VALUES (?,?,?,?,?)",
+        offerings);
+
+    List<Object[]> facilities = new ArrayList<>(facilityCount);
+    facilityIds = new ArrayList<>(facilityCount);
+    for (int i = 0; i < facilityCount; i++) {
+      UUID facilityId = new UUID(3L, i);
+      facilityIds.add(facilityId);
+      facilities.add(new Object[] { facilityId, ts(now), ts(now), "ABC" + i, "123-1234-1234",
+          "fac-" + i, "dns:///fac-" + i + ":9090", new byte[] { 1, 2, 3 } });
+    }
+    jdbcTemplate.batchUpdate(
+        "INSERT INTO FACILITIES (ID,CREATED_AT,MODIFIED_AT,CUST_ID,UICI,FAC_UID,FAC_URI,FAC_KEY)"
+            + " VALUES (?,?,?,?,?,?,?,?)",
+        facilities);
+
+    List<Object[]> offers = new ArrayList<>(facilityCount);
+    long offerIdx = 0;
+    for (UUID offeringId : offeringIds) {
+      offers.clear();
+      for (UUID facilityId : facilityIds) {
+        String status = STATUSES[rng.nextInt(STATUSES.length)];
+        offers.add(new Object[] { new UUID(4L, offerIdx++), ts(now), ts(now), facilityId,
+            offeringId, true, !"DECLINED".equals(status), "CONFIRMED".equals(status), status });
+      }
+      jdbcTemplate.batchUpdate(
+          "INSERT INTO FACILITY_PRICE_MAP_OFFERS (ID,CREATED_AT,MODIFIED_AT,FACILITY_ID,"
+              + "OFFERING_ID,IS_PROPOSED,IS_ACCEPTED,IS_CONFIRMED,STATUS)"
+              + " VALUES (?,?,?,?,?,?,?,?,?)",
+          offers);
+    }
+
+    List<Object[]> regs = new ArrayList<>(registrationCount);
+    registrationUids = new ArrayList<>(registrationCount);
+    for (int i = 0; i < registrationCount; i++) {
+      String uid = "reg-" + i;
+      registrationUids.add(uid);
+      regs.add(new Object[] { (long) i, ts(now), ts(now), "ABC" + i, "123-1234-1234", uid,
+          "dns:///reg-" + i + ":9090", new byte[] { 1, 2, 3 }, new byte[] { 4, 5, 6 },
+          new byte[] { 7, 8, 9 } });
+    }
+    jdbcTemplate.batchUpdate(
+        "INSERT INTO FACILITY_REGS (ID,CREATED_AT,MODIFIED_AT,CUST_ID,UICI,FAC_UID,FAC_URI,"
+            + "FAC_KEY,FAC_NONCE,EXCH_NONCE) VALUES (?,?,?,?,?,?,?,?,?,?)",
+        regs);
+
+    jdbcTemplate.execute("ANALYZE");
+    log.info("Populated {} facilities, {} offerings, {} offers, {} registrations in {}ms",
+        facilityCount, offeringCount, offerIdx, registrationCount,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  private String explain(String sql, Object... params) {
+    List<String> plan = jdbcTemplate.queryForList("EXPLAIN " + sql, String.class, params);
+    return String.join("\n", plan);
+  }
+
+  private void assertIndexScan(String msg, String sql, Object... params) {
+    String plan = explain(sql, params);
+    log.info("Query plan for {}:\n{}", msg, plan);
+    assertThat(msg + " uses index", plan, containsString("Index"));
+    assertThat(msg + " avoids sequential scan", plan, not(containsString("Seq Scan")));
+  }
+
+  private void timeQueries(String msg, String sql, List<?> params, Object... extraParams) {
+    final Random rng = new Random(987654321L);
+    final long start = System.nanoTime();
+    long rows = 0;
+    for (int i = 0; i < queryCount; i++) {
+      Object[] args = new Object[1 + extraParams.length];
+      args[0] = params.get(rng.nextInt(params.size()));
+      System.arraycopy(extraParams, 0, args, 1, extraParams.length);
+      rows += jdbcTemplate.queryForList(sql, args).size();
+    }
+    long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    log.info("{}: {} queries returning {} rows in {}ms ({} queries/s)", msg, queryCount, rows, ms,
+        ms > 0 ? (queryCount * 1000L / ms) : queryCount);
+  }
+
+  @Test
+  public void offerAndRegistrationLookups() {
+    populate();
+
+    final String offersByFacility = "SELECT ID FROM FACILITY_PRICE_MAP_OFFERS "
+        + "WHERE FACILITY_ID = ? AND STATUS = ?";
+    final String offersByOffering = "SELECT ID, FACILITY_ID, STATUS FROM FACILITY_PRICE_MAP_OFFERS "
+        + "WHERE OFFERING_ID = ?";
+    final String regByUid = "SELECT ID FROM FACILITY_REGS WHERE FAC_UID = ?";
+
+    assertIndexScan("Offers by facility and status", offersByFacility, facilityIds.get(0),
+        "ACCEPTED");
+    assertIndexScan("Offers by offering", offersByOffering, offeringIds.get(0));
+    assertIndexScan("Registration by facility UID", regByUid, registrationUids.get(0));
+
+    timeQueries("Offers by facility and status", offersByFacility, facilityIds, "ACCEPTED");
+    timeQueries("Offers by offering", offersByOffering, offeringIds);
+    timeQueries("Registration by facility UID", regByUid, registrationUids);
+
+    assertThat("Offer count", jdbcTemplate.queryForObject(
+        "SELECT COUNT(*) FROM FACILITY_PRICE_MAP_OFFERS", Long.class),
+        equalTo((long) facilityCount * offeringCount));
+  }
+
+}
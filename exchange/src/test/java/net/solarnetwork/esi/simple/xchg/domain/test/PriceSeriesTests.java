@@ -0,0 +1,172 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.simple.xchg.domain.test;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.solarnetwork.esi.domain.TimeUnit;
+import net.solarnetwork.esi.simple.xchg.domain.PriceSeries;
+
+/**
+ * Test cases for the {@link PriceSeries} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class PriceSeriesTests {
+
+  private static final String TEST_CURRENCY = "USD";
+
+  private static PriceSeries series(int chunkSize, int maxChunks, int count) {
+    PriceSeries s = new PriceSeries(chunkSize, maxChunks);
+    for (int i = 0; i < count; i++) {
+      s.append(i * 1000L, 1, TimeUnit.SECOND, TEST_CURRENCY, i, i * 10);
+    }
+    return s;
+  }
+
+  private static List<Long> timestamps(PriceSeries.Cursor c) {
+    List<Long> result = new ArrayList<>();
+    while (c.next()) {
+      result.add(c.timestamp());
+    }
+    return result;
+  }
+
+  @Test
+  public void appendAcrossChunks() {
+    // when
+    PriceSeries s = series(4, 0, 10);
+
+    // then
+    assertThat("Size", s.size(), equalTo(10));
+    assertThat("Currency", s.getCurrencyCode(), equalTo(TEST_CURRENCY));
+    List<Long> ts = timestamps(s.cursor(Long.MIN_VALUE, Long.MAX_VALUE));
+    assertThat("All prices", ts.size(), equalTo(10));
+    for (int i = 0; i < 10; i++) {
+      assertThat("Timestamp " + i, ts.get(i), equalTo(i * 1000L));
+    }
+  }
+
+  @Test
+  public void cursorValues() {
+    // given
+    PriceSeries s = series(4, 0, 10);
+
+    // when
+    PriceSeries.Cursor c = s.cursor(5000L, 6000L);
+
+    // then
+    assertThat("Has price", c.next(), equalTo(true));
+    assertThat("Timestamp", c.timestamp(), equalTo(5000L));
+    assertThat("Time length", c.timeLength(), equalTo(1));
+    assertThat("Time unit", c.timeUnit(), equalTo(TimeUnit.SECOND));
+    assertThat("Units", c.units(), equalTo(5L));
+    assertThat("Nanos", c.nanos(), equalTo(50));
+    assertThat("Max is exclusive", c.next(), equalTo(false));
+  }
+
+  @Test
+  public void cursorRangeSpanningChunks() {
+    // given
+    PriceSeries s = series(4, 0, 10);
+
+    // when
+    List<Long> ts = timestamps(s.cursor(2500L, 8000L));
+
+    // then
+    assertThat("Prices in range", ts.size(), equalTo(5));
+    assertThat("First", ts.get(0), equalTo(3000L));
+    assertThat("Last", ts.get(4), equalTo(7000L));
+  }
+
+  @Test
+  public void cursorRangeOutside() {
+    // given
+    PriceSeries s = series(4, 0, 10);
+
+    // then
+    assertThat("After", timestamps(s.cursor(20000L, 30000L)).size(), equalTo(0));
+    assertThat("Before", timestamps(s.cursor(-2000L, 0L)).size(), equalTo(0));
+  }
+
+  @Test
+  public void mostRecent() {
+    // given
+    PriceSeries s = series(4, 0, 10);
+
+    // then
+    assertThat("Between prices", timestamps(s.mostRecent(4500L)), equalTo(asList(4000L)));
+    assertThat("At chunk start", timestamps(s.mostRecent(8000L)), equalTo(asList(8000L)));
+    assertThat("After last", timestamps(s.mostRecent(99000L)), equalTo(asList(9000L)));
+    assertThat("Before first", timestamps(s.mostRecent(-1L)).size(), equalTo(0));
+  }
+
+  @Test
+  public void mostRecentEmpty() {
+    assertThat(timestamps(new PriceSeries(4, 0).mostRecent(1000L)).size(), equalTo(0));
+  }
+
+  @Test
+  public void maxChunksDropsOldest() {
+    // when
+    PriceSeries s = series(4, 2, 10);
+
+    // then
+    assertThat("Size", s.size(), equalTo(6));
+    List<Long> ts = timestamps(s.cursor(Long.MIN_VALUE, Long.MAX_VALUE));
+    assertThat("Oldest kept", ts.get(0), equalTo(4000L));
+    assertThat("Newest kept", ts.get(ts.size() - 1), equalTo(9000L));
+  }
+
+  @Test
+  public void cursorIsSnapshot() {
+    // given
+    PriceSeries s = series(4, 0, 3);
+    PriceSeries.Cursor c = s.cursor(Long.MIN_VALUE, Long.MAX_VALUE);
+
+    // when
+    s.append(3000L, 1, TimeUnit.SECOND, TEST_CURRENCY, 3, 0);
+    s.append(4000L, 1, TimeUnit.SECOND, TEST_CURRENCY, 4, 0);
+
+    // then
+    assertThat("Snapshot prices", timestamps(c).size(), equalTo(3));
+    assertThat("Series size", s.size(), equalTo(5));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void appendOutOfOrder() {
+    PriceSeries s = series(4, 0, 3);
+    s.append(2000L, 1, TimeUnit.SECOND, TEST_CURRENCY, 1, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void appendDifferentCurrency() {
+    PriceSeries s = series(4, 0, 3);
+    s.append(5000L, 1, TimeUnit.SECOND, "NZD", 1, 0);
+  }
+
+}
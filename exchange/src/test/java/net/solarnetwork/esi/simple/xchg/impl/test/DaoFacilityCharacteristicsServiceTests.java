@@ -24,6 +24,7 @@ import static net.solarnetwork.esi.simple.xchg.test.TestUtils.invocationArg;
 import static net.solarnetwork.esi.util.CryptoUtils.STANDARD_HELPER;
 import static net.solarnetwork.esi.util.CryptoUtils.generateMessageSignature;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.not;
@@ -67,8 +68,10 @@ import net.solarnetwork.esi.domain.jpa.DurationRangeEmbed;
 import net.solarnetwork.esi.domain.jpa.PowerComponentsEmbed;
 import net.solarnetwork.esi.domain.jpa.PriceComponentsEmbed;
 import net.solarnetwork.esi.simple.xchg.dao.FacilityEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityInfoProjection;
 import net.solarnetwork.esi.simple.xchg.dao.FacilityResourceCharacteristicsEntityDao;
 import net.solarnetwork.esi.simple.xchg.domain.FacilityEntity;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityInfo;
 import net.solarnetwork.esi.simple.xchg.domain.FacilityResourceCharacteristicsEntity;
 import net.solarnetwork.esi.simple.xchg.domain.PriceMapEntity;
 import net.solarnetwork.esi.simple.xchg.impl.DaoFacilityCharacteristicsService;
@@ -108,6 +111,25 @@ public class DaoFacilityCharacteristicsServiceTests {
     service.setResourceCharacteristicsDao(resourceCharacteristicsDao);
   }
 
+  @Test
+  public void listFacilitiesPaged() {
+    // given
+    service.setListPageSize(2);
+    FacilityInfoProjection f1 = mock(FacilityInfoProjection.class);
+    FacilityInfoProjection f2 = mock(FacilityInfoProjection.class);
+    FacilityInfoProjection f3 = mock(FacilityInfoProjection.class);
+    given(facilityDao.findInfoAfter(null, 2)).willReturn(asList(f1, f2));
+    given(facilityDao.findInfoAfter(f2, 2)).willReturn(asList(f3));
+
+    // when
+    Iterable<FacilityInfo> result = service.listFacilities();
+
+    // then
+    assertThat("Result available", result, notNullValue());
+    List<FacilityInfo> infos = stream(result.spliterator(), false).collect(toList());
+    assertThat("All pages returned in order", infos, contains(f1, f2, f3));
+  }
+
   @Test
   public void resourceCharacteristicsForFacility() {
     // given
@@ -0,0 +1,367 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.impl.test;
+
+import static java.util.Collections.singletonList;
+import static net.solarnetwork.esi.util.CryptoUtils.STANDARD_HELPER;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.net.URI;
+import java.security.KeyPair;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.TaskScheduler;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Empty;
+
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.grpc.testing.GrpcCleanupRule;
+import net.solarnetwork.esi.domain.DerFacilityRegistration;
+import net.solarnetwork.esi.grpc.StaticInProcessChannelProvider;
+import net.solarnetwork.esi.service.DerFacilityServiceGrpc.DerFacilityServiceImplBase;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityRegistrationCompletionEntityDao;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityEntity;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityRegistrationCompletionEntity;
+import net.solarnetwork.esi.simple.xchg.impl.DaoFacilityRegistrationCompletionService;
+import net.solarnetwork.esi.util.CryptoUtils;
+
+/**
+ * Test cases for the {@link DaoFacilityRegistrationCompletionService} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class DaoFacilityRegistrationCompletionServiceTests {
+
+  private String exchangeUid;
+  private KeyPair exchangeKeyPair;
+  private KeyPair facilityKeyPair;
+  private String facilityServerName;
+  private FacilityRegistrationCompletionEntityDao completionDao;
+  private Semaphore callbacks;
+  private DaoFacilityRegistrationCompletionService service;
+  private Future<FacilityEntity> future;
+
+  @Rule
+  public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+  @Before
+  public void setUp() throws Exception {
+    exchangeUid = UUID.randomUUID().toString();
+    exchangeKeyPair = STANDARD_HELPER.generateKeyPair();
+    facilityKeyPair = STANDARD_HELPER.generateKeyPair();
+    facilityServerName = InProcessServerBuilder.generateName();
+    completionDao = mock(FacilityRegistrationCompletionEntityDao.class);
+    callbacks = new Semaphore(0);
+    Executor executor = r -> {
+      try {
+        r.run();
+      } finally {
+        callbacks.release();
+      }
+    };
+    service = new DaoFacilityRegistrationCompletionService(exchangeUid, exchangeKeyPair,
+        STANDARD_HELPER, mock(TaskScheduler.class));
+    service.setCompletionDao(completionDao);
+    service.setTaskExecutor(executor);
+    service.setFacilityChannelProvider(
+        new StaticInProcessChannelProvider(facilityServerName, true));
+  }
+
+  private FacilityEntity newFacility() {
+    FacilityEntity facility = new FacilityEntity(Instant.now(), UUID.randomUUID());
+    facility.setFacilityUid(UUID.randomUUID().toString());
+    facility.setFacilityEndpointUri("//" + facilityServerName);
+    facility.setFacilityPublicKey(facilityKeyPair.getPublic().getEncoded());
+    return facility;
+  }
+
+  private FacilityRegistrationCompletionEntity withId(FacilityRegistrationCompletionEntity entity,
+      Long id) {
+    FacilityRegistrationCompletionEntity result = new FacilityRegistrationCompletionEntity(
+        entity.getCreated(), id);
+    result.setFacilityUid(entity.getFacilityUid());
+    result.setFacilityEndpointUri(entity.getFacilityEndpointUri());
+    result.setFacilityPublicKey(entity.getFacilityPublicKey());
+    result.setFacilityNonce(entity.getFacilityNonce());
+    result.setRegistrationToken(entity.getRegistrationToken());
+    result.setNextAttemptDate(entity.getNextAttemptDate());
+    return result;
+  }
+
+  private FacilityRegistrationCompletionEntity enqueue(FacilityEntity facility, byte[] nonce,
+      byte[] token) {
+    given(completionDao.findByFacilityUid(facility.getFacilityUid())).willReturn(Optional.empty());
+    ArgumentCaptor<FacilityRegistrationCompletionEntity> captor = ArgumentCaptor
+        .forClass(FacilityRegistrationCompletionEntity.class);
+    given(completionDao.save(captor.capture())).willAnswer(i -> i.getArgument(0));
+    future = service.enqueueRegistrationCompletion(facility, nonce, token);
+    FacilityRegistrationCompletionEntity stored = withId(captor.getValue(), 1L);
+    given(completionDao.findById(stored.getId())).willReturn(Optional.of(stored));
+    given(completionDao.findAllByNextAttemptDateLessThanEqual(any(Instant.class),
+        any(Pageable.class))).willReturn(singletonList(stored));
+    return stored;
+  }
+
+  private void addFacilityService(AtomicInteger calls, int failCount, byte[] token,
+      FacilityEntity facility, byte[] nonce) throws Exception {
+    DerFacilityServiceImplBase facilityService = new DerFacilityServiceImplBase() {
+
+      @Override
+      public void completeDerFacilityRegistration(DerFacilityRegistration request,
+          StreamObserver<Empty> responseObserver) {
+        assertThat("Registration token", request.getRegistrationToken(),
+            equalTo(ByteString.copyFrom(token)));
+        assertThat("Route exchange UID", request.getRoute().getExchangeUid(), equalTo(exchangeUid));
+        CryptoUtils.validateMessageSignature(CryptoUtils.STANDARD_HELPER,
+            request.getRoute().getSignature(), facilityKeyPair, exchangeKeyPair.getPublic(),
+            Arrays.asList(exchangeUid, facility.getFacilityUid(),
+                URI.create(facility.getFacilityEndpointUri()), nonce));
+        if (calls.incrementAndGet() <= failCount) {
+          responseObserver.onError(Status.UNAVAILABLE.withDescription("Not yet").asException());
+          return;
+        }
+        responseObserver.onNext(Empty.getDefaultInstance());
+        responseObserver.onCompleted();
+      }
+
+    };
+    grpcCleanup.register(InProcessServerBuilder.forName(facilityServerName).directExecutor()
+        .addService(facilityService).build().start());
+  }
+
+  @Test
+  public void completeOk() throws Exception {
+    // given
+    FacilityEntity facility = newFacility();
+    byte[] nonce = CryptoUtils.generateRandomBytes(8);
+    byte[] token = CryptoUtils.generateRandomBytes(32);
+    AtomicInteger calls = new AtomicInteger();
+    addFacilityService(calls, 0, token, facility, nonce);
+    final FacilityRegistrationCompletionEntity stored = enqueue(facility, nonce, token);
+
+    // when
+    int count = service.processRegistrationCompletions();
+    FacilityEntity result = future.get(5, TimeUnit.SECONDS);
+
+    // then
+    assertThat("Delivery started", count, equalTo(1));
+    assertThat("Facility returned", result, sameInstance(facility));
+    assertThat("Facility called once", calls.get(), equalTo(1));
+    assertThat("Queued entity attempts", stored.getAttempts(), equalTo(0));
+    verify(completionDao, times(1)).delete(stored);
+  }
+
+  @Test
+  public void enqueueDuplicate() throws Exception {
+    // given
+    FacilityEntity facility = newFacility();
+    byte[] nonce = CryptoUtils.generateRandomBytes(8);
+    byte[] token = CryptoUtils.generateRandomBytes(32);
+    enqueue(facility, nonce, token);
+
+    // when
+    Future<FacilityEntity> f2 = service.enqueueRegistrationCompletion(facility, nonce, token);
+
+    // then
+    assertThat("Same future returned for same facility", f2, sameInstance(future));
+  }
+
+  @Test
+  public void enqueueReregistrationUpdatesQueued() throws Exception {
+    // given a queued completion that has been failing
+    FacilityEntity facility = newFacility();
+    FacilityRegistrationCompletionEntity stored = enqueue(facility,
+        CryptoUtils.generateRandomBytes(8), CryptoUtils.generateRandomBytes(32));
+    stored.setAttempts(3);
+    stored.setNextAttemptDate(Instant.now().plusSeconds(3600));
+    stored.setLastError("UNAVAILABLE");
+    given(completionDao.findByFacilityUid(facility.getFacilityUid()))
+        .willReturn(Optional.of(stored));
+    facility.setFacilityEndpointUri("//" + facilityServerName + "/new");
+    byte[] nonce = CryptoUtils.generateRandomBytes(8);
+    byte[] token = CryptoUtils.generateRandomBytes(32);
+
+    // when
+    Future<FacilityEntity> f2 = service.enqueueRegistrationCompletion(facility, nonce, token);
+
+    // then
+    assertThat("Same future returned for same facility", f2, sameInstance(future));
+    verify(completionDao, times(1)).save(stored);
+    assertThat("Endpoint updated", stored.getFacilityEndpointUri(),
+        equalTo(facility.getFacilityEndpointUri()));
+    assertThat("Nonce updated", stored.getFacilityNonce(), equalTo(nonce));
+    assertThat("Token updated", stored.getRegistrationToken(), equalTo(token));
+    assertThat("Attempts reset", stored.getAttempts(), equalTo(0));
+    assertThat("Retry immediately", stored.getNextAttemptDate(),
+        lessThanOrEqualTo(Instant.now()));
+    assertThat("Error cleared", stored.getLastError(), nullValue());
+  }
+
+  @Test
+  public void reregistrationDuringDeliveryLeavesQueued() throws Exception {
+    // given
+    final FacilityEntity facility = newFacility();
+    final byte[] nonce = CryptoUtils.generateRandomBytes(8);
+    final byte[] token = CryptoUtils.generateRandomBytes(32);
+    final byte[] newNonce = CryptoUtils.generateRandomBytes(8);
+    final byte[] newToken = CryptoUtils.generateRandomBytes(32);
+    final FacilityRegistrationCompletionEntity stored = enqueue(facility, nonce, token);
+    given(completionDao.findByFacilityUid(facility.getFacilityUid()))
+        .willReturn(Optional.of(stored));
+    final Queue<ByteString> delivered = new ConcurrentLinkedQueue<>();
+    DerFacilityServiceImplBase facilityService = new DerFacilityServiceImplBase() {
+
+      @Override
+      public void completeDerFacilityRegistration(DerFacilityRegistration request,
+          StreamObserver<Empty> responseObserver) {
+        if (delivered.isEmpty()) {
+          // facility registers again while the first completion is in flight
+          service.enqueueRegistrationCompletion(facility, newNonce, newToken);
+        }
+        delivered.add(request.getRegistrationToken());
+        responseObserver.onNext(Empty.getDefaultInstance());
+        responseObserver.onCompleted();
+      }
+
+    };
+    grpcCleanup.register(InProcessServerBuilder.forName(facilityServerName).directExecutor()
+        .addService(facilityService).build().start());
+
+    // when
+    service.processRegistrationCompletions();
+    assertThat("First delivery handled", callbacks.tryAcquire(5, TimeUnit.SECONDS),
+        equalTo(true));
+
+    // then
+    assertThat("Future not done after replaced delivery", future.isDone(), equalTo(false));
+    verify(completionDao, never()).delete(any(FacilityRegistrationCompletionEntity.class));
+
+    // and when
+    service.processRegistrationCompletions();
+    FacilityEntity result = future.get(5, TimeUnit.SECONDS);
+
+    // then
+    assertThat("Facility returned", result, sameInstance(facility));
+    assertThat("Delivered tokens", delivered,
+        contains(ByteString.copyFrom(token), ByteString.copyFrom(newToken)));
+    verify(completionDao, times(1)).delete(stored);
+  }
+
+  @Test
+  public void retryAfterFailure() throws Exception {
+    // given
+    FacilityEntity facility = newFacility();
+    byte[] nonce = CryptoUtils.generateRandomBytes(8);
+    byte[] token = CryptoUtils.generateRandomBytes(32);
+    AtomicInteger calls = new AtomicInteger();
+    addFacilityService(calls, 1, token, facility, nonce);
+    final FacilityRegistrationCompletionEntity stored = enqueue(facility, nonce, token);
+
+    // when
+    final Instant start = Instant.now();
+    service.processRegistrationCompletions();
+    assertThat("Failure handled", callbacks.tryAcquire(5, TimeUnit.SECONDS), equalTo(true));
+
+    // then
+    assertThat("Future not done after failure", future.isDone(), equalTo(false));
+    assertThat("Attempts incremented", stored.getAttempts(), equalTo(1));
+    assertThat("Next attempt delayed", stored.getNextAttemptDate(), greaterThan(start));
+    assertThat("Error saved", stored.getLastError(), notNullValue());
+    verify(completionDao, times(2)).save(any(FacilityRegistrationCompletionEntity.class));
+
+    // and when
+    service.processRegistrationCompletions();
+    FacilityEntity result = future.get(5, TimeUnit.SECONDS);
+
+    // then
+    assertThat("Facility returned", result, sameInstance(facility));
+    assertThat("Facility called twice", calls.get(), equalTo(2));
+    verify(completionDao, times(1)).delete(stored);
+  }
+
+  @Test
+  public void giveUpAfterMaxAttempts() throws Exception {
+    // given
+    service.setMaxAttempts(1);
+    FacilityEntity facility = newFacility();
+    byte[] nonce = CryptoUtils.generateRandomBytes(8);
+    byte[] token = CryptoUtils.generateRandomBytes(32);
+    AtomicInteger calls = new AtomicInteger();
+    addFacilityService(calls, 1, token, facility, nonce);
+    FacilityRegistrationCompletionEntity stored = enqueue(facility, nonce, token);
+
+    // when
+    service.processRegistrationCompletions();
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail("Should have failed after max attempts.");
+    } catch (ExecutionException e) {
+      // expected
+    }
+
+    // then
+    verify(completionDao, times(1)).delete(stored);
+  }
+
+  @Test
+  public void retryDelayBackoff() {
+    service.setInitialRetryDelayMs(1000);
+    service.setMaxRetryDelayMs(10000);
+    assertThat("First delay", service.retryDelay(1), lessThanOrEqualTo(1100L));
+    assertThat("Second delay doubled", service.retryDelay(2), greaterThan(1999L));
+    assertThat("Third delay doubled", service.retryDelay(3), greaterThan(3999L));
+    assertThat("Delay capped", service.retryDelay(10), lessThanOrEqualTo(11000L));
+    assertThat("Delay capped with large attempts", service.retryDelay(100),
+        lessThanOrEqualTo(11000L));
+  }
+
+}
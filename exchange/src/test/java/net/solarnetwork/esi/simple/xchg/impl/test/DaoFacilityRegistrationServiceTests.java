@@ -24,6 +24,8 @@ import static net.solarnetwork.esi.util.CryptoUtils.generateMessageSignature;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -41,6 +43,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -48,6 +51,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
 
 import com.google.protobuf.ByteString;
 import com.google.protobuf.Empty;
@@ -68,8 +72,10 @@ import net.solarnetwork.esi.service.DerFacilityServiceGrpc.DerFacilityServiceImp
 import net.solarnetwork.esi.simple.xchg.dao.FacilityEntityDao;
 import net.solarnetwork.esi.simple.xchg.dao.FacilityRegistrationEntityDao;
 import net.solarnetwork.esi.simple.xchg.domain.FacilityEntity;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityNotification.FacilityRegistered;
 import net.solarnetwork.esi.simple.xchg.domain.FacilityRegistrationEntity;
 import net.solarnetwork.esi.simple.xchg.impl.DaoFacilityRegistrationService;
+import net.solarnetwork.esi.simple.xchg.service.FacilityRegistrationCompletionService;
 import net.solarnetwork.esi.simple.xchg.service.FacilityRegistrationService;
 import net.solarnetwork.esi.util.CryptoUtils;
 
@@ -419,4 +425,56 @@ public class DaoFacilityRegistrationServiceTests {
         equalTo(ByteString.copyFrom(facilityKeyPair.getPublic().getEncoded())));
   }
 
+  @Test
+  public void processRegistrationQueued() throws Exception {
+    // given
+    FacilityRegistrationCompletionService completionService = mock(
+        FacilityRegistrationCompletionService.class);
+    service.setRegistrationCompletionService(completionService);
+    ApplicationEventPublisher eventPublisher = mock(ApplicationEventPublisher.class);
+    service.setEventPublisher(eventPublisher);
+
+    FacilityRegistrationEntity reg = new FacilityRegistrationEntity(Instant.now(),
+        (long) (Math.random() * Integer.MAX_VALUE));
+    reg.setCustomerId(UUID.randomUUID().toString());
+    reg.setExchangeNonce(CryptoUtils.generateRandomBytes(8));
+    reg.setFacilityEndpointUri(TEST_FACILITY_ENDPOINT_URI);
+    reg.setFacilityUid(UUID.randomUUID().toString());
+    reg.setFacilityNonce(CryptoUtils.generateRandomBytes(8));
+    reg.setFacilityPublicKey(facilityKeyPair.getPublic().getEncoded());
+    reg.setUici(UUID.randomUUID().toString());
+
+    ArgumentCaptor<FacilityEntity> facilityCaptor = ArgumentCaptor.forClass(FacilityEntity.class);
+    given(facilityDao.save(facilityCaptor.capture()))
+        .willAnswer(invocationArg(0, FacilityEntity.class));
+
+    // @formatter:off
+    byte[] expectedRegToken = CryptoUtils.sha256(Arrays.asList(
+        reg.getExchangeNonce(),
+        reg.getFacilityNonce(),
+        exchangeUid,
+        reg.getFacilityUid(),
+        TEST_FACILITY_ENDPOINT_URI
+        ));
+    // @formatter:on
+
+    CompletableFuture<FacilityEntity> queued = new CompletableFuture<>();
+    given(completionService.enqueueRegistrationCompletion(any(FacilityEntity.class),
+        eq(reg.getFacilityNonce()), eq(expectedRegToken))).willReturn(queued);
+
+    // when
+    Future<FacilityEntity> future = service.processFacilityRegistration(reg);
+
+    // then
+    verify(facilityRegistrationDao, times(1)).deleteById(reg.getId());
+    verify(completionService, times(1)).enqueueRegistrationCompletion(facilityCaptor.getValue(),
+        reg.getFacilityNonce(), expectedRegToken);
+    assertThat("Queued future returned", future, equalTo(queued));
+    ArgumentCaptor<FacilityRegistered> eventCaptor = ArgumentCaptor
+        .forClass(FacilityRegistered.class);
+    verify(eventPublisher, times(1)).publishEvent(eventCaptor.capture());
+    assertThat("Registered facility published", eventCaptor.getValue().getFacility(),
+        equalTo(facilityCaptor.getValue()));
+  }
+
 }
@@ -0,0 +1,175 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.impl.test;
+
+import static java.util.Collections.emptyList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import net.solarnetwork.esi.domain.PriceMapOfferStatus;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityPriceMapOfferArchiveEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.PriceMapOfferingArchiveEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.PriceMapOfferingEntityDao;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityEntity;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityPriceMapOfferArchiveEntity;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityPriceMapOfferEntity;
+import net.solarnetwork.esi.simple.xchg.domain.PriceMapOfferingArchiveEntity;
+import net.solarnetwork.esi.simple.xchg.domain.PriceMapOfferingEntity;
+import net.solarnetwork.esi.simple.xchg.impl.DaoPriceMapOfferingRetentionService;
+
+/**
+ * Test cases for the {@link DaoPriceMapOfferingRetentionService} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class DaoPriceMapOfferingRetentionServiceTests {
+
+  private PriceMapOfferingEntityDao offeringDao;
+  private PriceMapOfferingArchiveEntityDao offeringArchiveDao;
+  private FacilityPriceMapOfferArchiveEntityDao offerArchiveDao;
+  private PlatformTransactionManager txManager;
+  private DaoPriceMapOfferingRetentionService service;
+
+  @Before
+  public void setup() {
+    offeringDao = mock(PriceMapOfferingEntityDao.class);
+    offeringArchiveDao = mock(PriceMapOfferingArchiveEntityDao.class);
+    offerArchiveDao = mock(FacilityPriceMapOfferArchiveEntityDao.class);
+    txManager = mock(PlatformTransactionManager.class);
+    service = new DaoPriceMapOfferingRetentionService(offeringDao, offeringArchiveDao,
+        offerArchiveDao, new TransactionTemplate(txManager));
+  }
+
+  private PriceMapOfferingEntity newOffering(Instant startDate) {
+    PriceMapOfferingEntity offering = new PriceMapOfferingEntity(Instant.now(),
+        UUID.randomUUID());
+    offering.setStartDate(startDate);
+    FacilityEntity facility = new FacilityEntity(Instant.now(), UUID.randomUUID());
+    facility.setFacilityUid(UUID.randomUUID().toString());
+    FacilityPriceMapOfferEntity offer = new FacilityPriceMapOfferEntity(Instant.now(),
+        UUID.randomUUID());
+    offer.setFacility(facility);
+    offer.setStatus(PriceMapOfferStatus.Status.COMPLETED);
+    offering.addOffer(offer);
+    return offering;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void archiveNothing() {
+    Instant date = Instant.now();
+    given(offeringDao.findAllCompletedByStartDateBefore(eq(date),
+        eq(FacilityPriceMapOfferEntity.FINAL_STATUSES), any(Pageable.class)))
+        .willReturn(emptyList());
+
+    int count = service.archiveOfferingsStartingBefore(date);
+
+    assertThat("Archived count", count, equalTo(0));
+    verify(offeringArchiveDao, never()).saveAll(anyIterable());
+    verify(offeringDao, never()).deleteAll(any(Iterable.class));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void archiveInBatches() {
+    service.setBatchSize(2);
+    Instant date = Instant.now().minus(1, ChronoUnit.DAYS);
+    PriceMapOfferingEntity o1 = newOffering(date.minusSeconds(3));
+    PriceMapOfferingEntity o2 = newOffering(date.minusSeconds(2));
+    PriceMapOfferingEntity o3 = newOffering(date.minusSeconds(1));
+    List<PriceMapOfferingEntity> batch1 = Arrays.asList(o1, o2);
+    List<PriceMapOfferingEntity> batch2 = Arrays.asList(o3);
+    ArgumentCaptor<Pageable> pageCaptor = ArgumentCaptor.forClass(Pageable.class);
+    given(offeringDao.findAllCompletedByStartDateBefore(eq(date),
+        eq(FacilityPriceMapOfferEntity.FINAL_STATUSES), pageCaptor.capture()))
+        .willReturn(batch1, batch2);
+
+    ArgumentCaptor<Iterable<PriceMapOfferingArchiveEntity>> offeringArchCaptor = ArgumentCaptor
+        .forClass(Iterable.class);
+    final ArgumentCaptor<Iterable<FacilityPriceMapOfferArchiveEntity>> offerArchCaptor =
+        ArgumentCaptor.forClass(Iterable.class);
+
+    int count = service.archiveOfferingsStartingBefore(date);
+
+    assertThat("Archived count", count, equalTo(3));
+    assertThat("Batch size", pageCaptor.getValue().getPageSize(), equalTo(2));
+    verify(offeringArchiveDao, times(2)).saveAll(offeringArchCaptor.capture());
+    verify(offerArchiveDao, times(2)).saveAll(offerArchCaptor.capture());
+    verify(offeringDao).deleteAll(batch1);
+    verify(offeringDao).deleteAll(batch2);
+    verify(txManager, times(2)).commit(any());
+
+    List<Iterable<PriceMapOfferingArchiveEntity>> archived = offeringArchCaptor.getAllValues();
+    assertThat("Batch 1 archived", archived.get(0),
+        contains(PriceMapOfferingArchiveEntity.archiveOf(o1),
+            PriceMapOfferingArchiveEntity.archiveOf(o2)));
+    assertThat("Batch 2 archived", archived.get(1),
+        contains(PriceMapOfferingArchiveEntity.archiveOf(o3)));
+
+    FacilityPriceMapOfferEntity offer = o3.getOffers().iterator().next();
+    FacilityPriceMapOfferArchiveEntity offerArch = offerArchCaptor.getAllValues().get(1)
+        .iterator().next();
+    assertThat("Offer ID", offerArch.getId(), equalTo(offer.getId()));
+    assertThat("Offering ID", offerArch.getOfferingId(), equalTo(o3.getId()));
+    assertThat("Facility UID", offerArch.getFacilityUid(),
+        equalTo(offer.getFacility().getFacilityUid()));
+    assertThat("Status", offerArch.getStatus(), equalTo(PriceMapOfferStatus.Status.COMPLETED));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void archiveStopsAtMaxBatches() {
+    service.setBatchSize(1);
+    service.setMaxBatchesPerRun(2);
+    Instant date = Instant.now();
+    given(offeringDao.findAllCompletedByStartDateBefore(eq(date),
+        eq(FacilityPriceMapOfferEntity.FINAL_STATUSES), any(Pageable.class))).willReturn(
+        Arrays.asList(newOffering(date.minusSeconds(3))),
+        Arrays.asList(newOffering(date.minusSeconds(2))),
+        Arrays.asList(newOffering(date.minusSeconds(1))));
+
+    int count = service.archiveOfferingsStartingBefore(date);
+
+    assertThat("Archived count limited by max batches", count, equalTo(2));
+    verify(offeringDao, times(2)).deleteAll(any(Iterable.class));
+  }
+
+}
@@ -0,0 +1,228 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.impl.test;
+
+import static net.solarnetwork.esi.util.CryptoUtils.STANDARD_HELPER;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.flywaydb.test.FlywayTestExecutionListener;
+import org.flywaydb.test.annotation.FlywayTest;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import net.solarnetwork.esi.domain.jpa.DurationRangeEmbed;
+import net.solarnetwork.esi.domain.jpa.PowerComponentsEmbed;
+import net.solarnetwork.esi.domain.jpa.PriceComponentsEmbed;
+import net.solarnetwork.esi.simple.xchg.config.JpaCacheConfig;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityEntityDao;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityResourceCharacteristicsEntityDao;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityEntity;
+import net.solarnetwork.esi.simple.xchg.domain.PriceMapEntity;
+import net.solarnetwork.esi.simple.xchg.impl.DaoFacilityCharacteristicsService;
+import net.solarnetwork.esi.simple.xchg.test.SpringTestSupport;
+
+/**
+ * Benchmark of the facility lookups performed by the inbound exchange RPC calls, with and without
+ * the second-level cache.
+ * 
+ * <p>
+ * This test only runs when the {@code esi.test.benchmark} system property is set to
+ * {@literal true}. Each iteration performs, in its own transaction, the
+ * {@link DaoFacilityCharacteristicsService} calls made when handling a facility RPC (facility
+ * info, active program types, and price maps) for a random facility. The iterations are run once
+ * with the cache bypassed (via {@link CacheMode#IGNORE}) and once with the cache in normal use,
+ * and the latency distribution of each run is logged. The data set size can be adjusted with the
+ * {@code esi.test.benchmark.facilities} and {@code esi.test.benchmark.iterations} properties.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+@DataJpaTest
+@Import(JpaCacheConfig.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@FlywayTest(invokeCleanDB = false)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class,
+    FlywayTestExecutionListener.class })
+public class FacilityCacheBenchmarkTests extends SpringTestSupport {
+
+  private static final Logger log = LoggerFactory.getLogger(FacilityCacheBenchmarkTests.class);
+
+  @Autowired
+  private EntityManagerFactory emf;
+
+  @Autowired
+  private PlatformTransactionManager txManager;
+
+  @Autowired
+  private FacilityEntityDao facilityDao;
+
+  @Autowired
+  private FacilityResourceCharacteristicsEntityDao resourceCharacteristicsDao;
+
+  private TransactionTemplate tt;
+  private Statistics stats;
+  private DaoFacilityCharacteristicsService service;
+  private int iterations;
+  private List<String> facilityUids;
+
+  @Before
+  public void setup() {
+    Assume.assumeTrue("Benchmark not enabled", Boolean.getBoolean("esi.test.benchmark"));
+    iterations = Integer.getInteger("esi.test.benchmark.iterations", 10000);
+    final int facilityCount = Integer.getInteger("esi.test.benchmark.facilities", 1000);
+
+    tt = new TransactionTemplate(txManager);
+    stats = emf.unwrap(SessionFactory.class).getStatistics();
+    service = new DaoFacilityCharacteristicsService(UUID.randomUUID().toString(),
+        STANDARD_HELPER.generateKeyPair(), STANDARD_HELPER);
+    service.setFacilityDao(facilityDao);
+    service.setResourceCharacteristicsDao(resourceCharacteristicsDao);
+
+    final byte[] publicKey = STANDARD_HELPER.generateKeyPair().getPublic().getEncoded();
+    facilityUids = new ArrayList<>(facilityCount);
+    for (int i = 0; i < facilityCount; i++) {
+      FacilityEntity facility = new FacilityEntity(Instant.now(), UUID.randomUUID());
+      facility.setCustomerId(String.format("C%09d", i));
+      facility.setUici(String.format("U%09d", i));
+      facility.setFacilityUid(UUID.randomUUID().toString());
+      facility.setFacilityEndpointUri("dns:///localhost:9090");
+      facility.setFacilityPublicKey(publicKey);
+      facility.addProgramType("ARTIFICIAL_INERTIA");
+      facility.addProgramType("PEAK_CAPACITY_MANAGEMENT");
+      for (int j = 0; j < 2; j++) {
+        PriceMapEntity priceMap = new PriceMapEntity(Instant.now(), UUID.randomUUID());
+        priceMap.setPowerComponents(new PowerComponentsEmbed(1000L * (j + 1), 0L));
+        priceMap.setDuration(Duration.ofMinutes(15));
+        priceMap.setResponseTime(
+            new DurationRangeEmbed(Duration.ofSeconds(1), Duration.ofSeconds(10)));
+        priceMap.setPriceComponents(
+            new PriceComponentsEmbed(Currency.getInstance("USD"), new BigDecimal("9.99")));
+        facility.addPriceMap(priceMap);
+      }
+      facilityUids.add(facility.getFacilityUid());
+      tt.execute(s -> facilityDao.save(facility));
+    }
+  }
+
+  /**
+   * Delete the benchmark facilities.
+   */
+  @After
+  public void teardown() {
+    if (tt != null) {
+      tt.execute(s -> {
+        facilityDao.deleteAll();
+        return null;
+      });
+    }
+  }
+
+  private long[] run(CacheMode cacheMode) {
+    emf.unwrap(SessionFactory.class).getCache().evictAllRegions();
+    stats.clear();
+    final Random rng = new Random(123456789L);
+    final long[] latencies = new long[iterations];
+    for (int i = 0; i < iterations; i++) {
+      final String facilityUid = facilityUids.get(rng.nextInt(facilityUids.size()));
+      final long start = System.nanoTime();
+      tt.execute(s -> {
+        EntityManagerFactoryUtils.getTransactionalEntityManager(emf).unwrap(Session.class)
+            .setCacheMode(cacheMode);
+        service.facilityInfo(facilityUid);
+        service.activeProgramTypes(facilityUid);
+        return service.priceMaps(facilityUid);
+      });
+      latencies[i] = System.nanoTime() - start;
+    }
+    return latencies;
+  }
+
+  private static double micros(long nanos) {
+    return nanos / 1000.0;
+  }
+
+  private long logLatencies(String name, long[] latencies) {
+    long[] sorted = Arrays.copyOf(latencies, latencies.length);
+    Arrays.sort(sorted);
+    long total = 0;
+    for (long l : sorted) {
+      total += l;
+    }
+    long mean = total / sorted.length;
+    log.info(
+        "{} latency over {} iterations (us): mean {}, p50 {}, p90 {}, p99 {}, max {}; "
+            + "{} queries, {} entity loads, {} collection loads",
+        name, sorted.length, micros(mean), micros(sorted[sorted.length / 2]),
+        micros(sorted[(int) (sorted.length * 0.9)]), micros(sorted[(int) (sorted.length * 0.99)]),
+        micros(sorted[sorted.length - 1]), stats.getQueryExecutionCount(),
+        stats.getEntityLoadCount(), stats.getCollectionLoadCount());
+    return mean;
+  }
+
+  @Test
+  public void rpcLookupLatency() {
+    // warm up
+    run(CacheMode.IGNORE);
+    run(CacheMode.NORMAL);
+
+    final long start = System.nanoTime();
+    long uncachedMean = logLatencies("Uncached", run(CacheMode.IGNORE));
+    long uncachedQueries = stats.getQueryExecutionCount();
+    long cachedMean = logLatencies("Cached", run(CacheMode.NORMAL));
+    log.info("Cache speedup {}x; benchmark completed in {}ms",
+        String.format("%.2f", (double) uncachedMean / cachedMean),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+    assertThat("Cache reduces queries", stats.getQueryExecutionCount(),
+        lessThan(uncachedQueries));
+  }
+
+}
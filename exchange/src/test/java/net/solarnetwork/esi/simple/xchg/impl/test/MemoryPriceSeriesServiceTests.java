@@ -0,0 +1,367 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.simple.xchg.impl.test;
+
+import static java.util.Arrays.asList;
+import static net.solarnetwork.esi.util.CryptoUtils.STANDARD_HELPER;
+import static net.solarnetwork.esi.util.CryptoUtils.generateMessageSignature;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.security.KeyPair;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.protobuf.Timestamp;
+
+import net.solarnetwork.esi.domain.DatumRequest;
+import net.solarnetwork.esi.domain.DerRoute;
+import net.solarnetwork.esi.domain.Money;
+import net.solarnetwork.esi.domain.PriceComponents;
+import net.solarnetwork.esi.domain.PriceDatum;
+import net.solarnetwork.esi.domain.TimeUnit;
+import net.solarnetwork.esi.domain.TimestampRange;
+import net.solarnetwork.esi.domain.jpa.PriceComponentsEmbed;
+import net.solarnetwork.esi.domain.jpa.PriceMapEmbed;
+import net.solarnetwork.esi.domain.support.ProtobufUtils;
+import net.solarnetwork.esi.grpc.FlowControlledStreamer.Source;
+import net.solarnetwork.esi.simple.xchg.dao.FacilityEntityDao;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityEntity;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityNotification.FacilityRegistered;
+import net.solarnetwork.esi.simple.xchg.domain.FacilityPriceMapOfferEntity;
+import net.solarnetwork.esi.simple.xchg.domain.PriceMapEntity;
+import net.solarnetwork.esi.simple.xchg.domain.PriceMapOfferingEntity;
+import net.solarnetwork.esi.simple.xchg.domain.PriceMapOfferingNotification.PriceMapOfferCompleted;
+import net.solarnetwork.esi.simple.xchg.impl.MemoryPriceSeriesService;
+
+/**
+ * Test cases for the {@link MemoryPriceSeriesService} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class MemoryPriceSeriesServiceTests {
+
+  private static final String TEST_CURRENCY = "USD";
+  private static final long MINUTE_MS = 60000L;
+  private static final long HOUR_MS = 60L * MINUTE_MS;
+
+  private String exchangeUid;
+  private KeyPair exchangeKeyPair;
+  private String facilityUid;
+  private KeyPair facilityKeyPair;
+  private FacilityEntity facility;
+  private FacilityEntityDao facilityDao;
+  private MemoryPriceSeriesService service;
+
+  @Before
+  public void setUp() {
+    exchangeUid = UUID.randomUUID().toString();
+    exchangeKeyPair = STANDARD_HELPER.generateKeyPair();
+    facilityUid = UUID.randomUUID().toString();
+    facilityKeyPair = STANDARD_HELPER.generateKeyPair();
+    facilityDao = mock(FacilityEntityDao.class);
+
+    facility = new FacilityEntity(Instant.now());
+    facility.setFacilityUid(facilityUid);
+    facility.setFacilityPublicKey(facilityKeyPair.getPublic().getEncoded());
+    given(facilityDao.findByFacilityUid(facilityUid)).willReturn(Optional.of(facility));
+
+    service = new MemoryPriceSeriesService(exchangeUid, exchangeKeyPair, STANDARD_HELPER);
+    service.setFacilityDao(facilityDao);
+    service.setChunkSize(8);
+  }
+
+  private static Timestamp timestamp(long date) {
+    return Timestamp.newBuilder().setSeconds(date / 1000L).setNanos((int) (date % 1000L) * 1000000)
+        .build();
+  }
+
+  private static PriceDatum price(long date, int minutes, long units, int nanos) {
+    return PriceDatum.newBuilder().setTs(timestamp(date)).setTimeLength(minutes)
+        .setTimeUnit(TimeUnit.MINUTE)
+        .setPriceComponents(PriceComponents.newBuilder().setApparentEnergyPrice(Money.newBuilder()
+            .setCurrencyCode(TEST_CURRENCY).setUnits(units).setNanos(nanos)))
+        .build();
+  }
+
+  private DerRoute route(KeyPair signingKeyPair) {
+    return DerRoute.newBuilder().setExchangeUid(exchangeUid).setFacilityUid(facilityUid)
+        .setSignature(generateMessageSignature(STANDARD_HELPER, signingKeyPair,
+            exchangeKeyPair.getPublic(), asList(exchangeUid, facilityUid)))
+        .build();
+  }
+
+  private DatumRequest.Builder rangeRequest(long min, long max) {
+    return DatumRequest.newBuilder().setRoute(route(facilityKeyPair)).setTimeRange(
+        TimestampRange.newBuilder().setMin(timestamp(min)).setMax(timestamp(max)));
+  }
+
+  private static List<PriceDatum> drain(Source<PriceDatum> source) throws Exception {
+    List<PriceDatum> result = new ArrayList<>();
+    for (PriceDatum d = source.next(); d != null; d = source.next()) {
+      result.add(d);
+    }
+    return result;
+  }
+
+  private static Money money(PriceDatum d) {
+    return d.getPriceComponents().getApparentEnergyPrice();
+  }
+
+  private long addQuarterHourPrices(long start, int count) {
+    for (int i = 0; i < count; i++) {
+      service.addPrice(facilityUid, price(start + i * 15L * MINUTE_MS, 15, i, 0));
+    }
+    return start + count * 15L * MINUTE_MS;
+  }
+
+  private FacilityPriceMapOfferEntity offer(Instant startDate, String price, boolean accepted) {
+    PriceMapEmbed priceMap = new PriceMapEmbed();
+    priceMap.setDuration(Duration.ofMinutes(15));
+    priceMap.setPriceComponents(PriceComponentsEmbed.of(TEST_CURRENCY, price));
+    PriceMapOfferingEntity offering = new PriceMapOfferingEntity(Instant.now(), UUID.randomUUID());
+    offering.setStartDate(startDate);
+    offering.setPriceMap(new PriceMapEntity(Instant.now(), priceMap));
+    FacilityPriceMapOfferEntity offer = new FacilityPriceMapOfferEntity(Instant.now(), facility);
+    offer.setOffering(offering);
+    offer.setProposed(true);
+    offer.setAccepted(accepted);
+    return offer;
+  }
+
+  @Test
+  public void listRaw() throws Exception {
+    // given
+    final long start = ZonedDateTime.of(2019, 6, 1, 0, 0, 0, 0, ZoneOffset.UTC).toInstant()
+        .toEpochMilli();
+    addQuarterHourPrices(start, 20);
+
+    // when
+    List<PriceDatum> result = drain(
+        service.listPrices(rangeRequest(start + HOUR_MS, start + 2 * HOUR_MS).build()));
+
+    // then
+    assertThat("Prices in range", result.size(), equalTo(4));
+    for (int i = 0; i < 4; i++) {
+      PriceDatum d = result.get(i);
+      assertThat("Route exchange", d.getRoute().getExchangeUid(), equalTo(exchangeUid));
+      assertThat("Route facility", d.getRoute().getFacilityUid(), equalTo(facilityUid));
+      assertThat("Timestamp", d.getTs(), equalTo(timestamp(start + HOUR_MS + i * 15 * MINUTE_MS)));
+      assertThat("Time length", d.getTimeLength(), equalTo(15));
+      assertThat("Time unit", d.getTimeUnit(), equalTo(TimeUnit.MINUTE));
+      assertThat("Currency", money(d).getCurrencyCode(), equalTo(TEST_CURRENCY));
+      assertThat("Units", money(d).getUnits(), equalTo(4L + i));
+    }
+  }
+
+  @Test
+  public void listMostRecent() throws Exception {
+    // given
+    final long start = System.currentTimeMillis() - 70L * MINUTE_MS;
+    addQuarterHourPrices(start, 8);
+
+    // when
+    List<PriceDatum> result = drain(
+        service.listPrices(DatumRequest.newBuilder().setRoute(route(facilityKeyPair)).build()));
+
+    // then
+    assertThat("Most recent price", result.size(), equalTo(1));
+    assertThat("Units", money(result.get(0)).getUnits(), equalTo(4L));
+  }
+
+  @Test
+  public void listRollupHours() throws Exception {
+    // given
+    final long start = ZonedDateTime.of(2019, 6, 1, 0, 0, 0, 0, ZoneOffset.UTC).toInstant()
+        .toEpochMilli();
+    final long end = addQuarterHourPrices(start, 12);
+
+    // when
+    List<PriceDatum> result = drain(service.listPrices(rangeRequest(start, end)
+        .setTimeUnit(TimeUnit.HOUR).setTimeUnitCoalescence(2).build()));
+
+    // then
+    assertThat("Rolled up prices", result.size(), equalTo(2));
+    assertThat("First timestamp", result.get(0).getTs(), equalTo(timestamp(start)));
+    assertThat("First time length", result.get(0).getTimeLength(), equalTo(2));
+    assertThat("First time unit", result.get(0).getTimeUnit(), equalTo(TimeUnit.HOUR));
+    // average of 0..7
+    assertThat("First units", money(result.get(0)).getUnits(), equalTo(3L));
+    assertThat("First nanos", money(result.get(0)).getNanos(), equalTo(500000000));
+    assertThat("Second timestamp", result.get(1).getTs(), equalTo(timestamp(start + 2 * HOUR_MS)));
+    // average of 8..11
+    assertThat("Second units", money(result.get(1)).getUnits(), equalTo(9L));
+    assertThat("Second nanos", money(result.get(1)).getNanos(), equalTo(500000000));
+  }
+
+  @Test
+  public void listRollupWeightedByDuration() throws Exception {
+    // given
+    final long start = ZonedDateTime.of(2019, 6, 1, 0, 0, 0, 0, ZoneOffset.UTC).toInstant()
+        .toEpochMilli();
+    service.addPrice(facilityUid, price(start, 45, 1, 0));
+    service.addPrice(facilityUid, price(start + 45 * MINUTE_MS, 15, 5, 0));
+
+    // when
+    List<PriceDatum> result = drain(service
+        .listPrices(rangeRequest(start, start + HOUR_MS).setTimeUnit(TimeUnit.HOUR).build()));
+
+    // then
+    assertThat("Rolled up prices", result.size(), equalTo(1));
+    assertThat("Time length", result.get(0).getTimeLength(), equalTo(1));
+    assertThat("Weighted units", money(result.get(0)).getUnits(), equalTo(2L));
+    assertThat("Weighted nanos", money(result.get(0)).getNanos(), equalTo(0));
+  }
+
+  @Test
+  public void listRollupMonths() throws Exception {
+    // given
+    ZonedDateTime start = ZonedDateTime.of(2019, 1, 31, 12, 0, 0, 0, ZoneOffset.UTC);
+    for (int i = 0; i < 3; i++) {
+      service.addPrice(facilityUid, price(start.plusMonths(i).toInstant().toEpochMilli(), 60,
+          i + 1, 0));
+    }
+
+    // when
+    List<PriceDatum> result = drain(service.listPrices(rangeRequest(0, Long.MAX_VALUE / 1000000L)
+        .setTimeUnit(TimeUnit.MONTH).build()));
+
+    // then
+    assertThat("Rolled up prices", result.size(), equalTo(3));
+    for (int i = 0; i < 3; i++) {
+      assertThat("Month start " + i, result.get(i).getTs(),
+          equalTo(timestamp(ZonedDateTime.of(2019, i + 1, 1, 0, 0, 0, 0, ZoneOffset.UTC)
+              .toInstant().toEpochMilli())));
+      assertThat("Units " + i, money(result.get(i)).getUnits(), equalTo(i + 1L));
+    }
+  }
+
+  @Test
+  public void listNoPrices() throws Exception {
+    List<PriceDatum> result = drain(service.listPrices(rangeRequest(0, 1000).build()));
+    assertThat("No prices", result.size(), equalTo(0));
+  }
+
+  @Test
+  public void facilityKeyCached() throws Exception {
+    // given
+    addQuarterHourPrices(0, 4);
+
+    // when
+    for (int i = 0; i < 3; i++) {
+      drain(service.listPrices(rangeRequest(0, HOUR_MS).build()));
+    }
+
+    // then
+    verify(facilityDao, times(1)).findByFacilityUid(facilityUid);
+  }
+
+  @Test
+  public void facilityKeyReloadedAfterRegistration() throws Exception {
+    // given
+    drain(service.listPrices(rangeRequest(0, HOUR_MS).build()));
+    facilityKeyPair = STANDARD_HELPER.generateKeyPair();
+    FacilityEntity facility = new FacilityEntity(Instant.now());
+    facility.setFacilityUid(facilityUid);
+    facility.setFacilityPublicKey(facilityKeyPair.getPublic().getEncoded());
+    given(facilityDao.findByFacilityUid(facilityUid)).willReturn(Optional.of(facility));
+
+    // when
+    service.handleFacilityRegistered(new FacilityRegistered(facility));
+    drain(service.listPrices(rangeRequest(0, HOUR_MS).build()));
+
+    // then
+    verify(facilityDao, times(2)).findByFacilityUid(facilityUid);
+  }
+
+  @Test
+  public void acceptedOfferAddsPrice() throws Exception {
+    // given
+    final Instant start = Instant.parse("2019-06-01T00:00:00Z");
+
+    // when
+    service.handlePriceMapOfferCompleted(new PriceMapOfferCompleted(offer(start, "1.23", true)));
+    List<PriceDatum> result = drain(
+        service.listPrices(rangeRequest(start.toEpochMilli(), start.toEpochMilli() + HOUR_MS)
+            .setTimeUnit(TimeUnit.INSTANT).build()));
+
+    // then
+    assertThat("Price count", result.size(), equalTo(1));
+    PriceDatum d = result.get(0);
+    assertThat("Price date", ProtobufUtils.instantValue(d.getTs()), equalTo(start));
+    assertThat("Price time unit", d.getTimeUnit(), equalTo(TimeUnit.SECOND));
+    assertThat("Price time length", d.getTimeLength(), equalTo(900));
+    assertThat("Price", ProtobufUtils.decimalValue(money(d)), equalTo(new BigDecimal("1.23")));
+  }
+
+  @Test
+  public void declinedOrOutOfOrderOfferIgnored() throws Exception {
+    // given
+    final Instant start = Instant.parse("2019-06-01T00:00:00Z");
+    service.handlePriceMapOfferCompleted(new PriceMapOfferCompleted(offer(start, "1", true)));
+
+    // when
+    service.handlePriceMapOfferCompleted(
+        new PriceMapOfferCompleted(offer(start.plusSeconds(3600), "2", false)));
+    service.handlePriceMapOfferCompleted(
+        new PriceMapOfferCompleted(offer(start.minusSeconds(3600), "3", true)));
+    List<PriceDatum> result = drain(service.listPrices(
+        rangeRequest(start.toEpochMilli() - 2 * HOUR_MS, start.toEpochMilli() + 2 * HOUR_MS)
+            .setTimeUnit(TimeUnit.INSTANT).build()));
+
+    // then
+    assertThat("Price count", result.size(), equalTo(1));
+    assertThat("Price", ProtobufUtils.decimalValue(money(result.get(0))),
+        equalTo(new BigDecimal("1")));
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void listBadSignature() {
+    service.listPrices(DatumRequest.newBuilder()
+        .setRoute(route(STANDARD_HELPER.generateKeyPair())).build());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void listUnknownFacility() {
+    given(facilityDao.findByFacilityUid(facilityUid)).willReturn(Optional.empty());
+    service.listPrices(DatumRequest.newBuilder().setRoute(route(facilityKeyPair)).build());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void addPriceWithoutPrice() {
+    service.addPrice(facilityUid,
+        PriceDatum.newBuilder().setTs(timestamp(0)).setTimeUnit(TimeUnit.MINUTE).build());
+  }
+
+}
@@ -0,0 +1,182 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.xchg.impl.test;
+
+import static java.util.Arrays.asList;
+import static net.solarnetwork.esi.util.CryptoUtils.STANDARD_HELPER;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Empty;
+import com.google.protobuf.util.JsonFormat;
+
+import io.grpc.BindableService;
+import io.grpc.ManagedChannel;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.testing.GrpcCleanupRule;
+import net.solarnetwork.esi.domain.CryptoKey;
+import net.solarnetwork.esi.domain.DerFacilityRegistrationForm;
+import net.solarnetwork.esi.domain.DerFacilityRegistrationFormRequest;
+import net.solarnetwork.esi.domain.Form;
+import net.solarnetwork.esi.service.DerFacilityExchangeGrpc;
+import net.solarnetwork.esi.service.DerFacilityExchangeGrpc.DerFacilityExchangeBlockingStub;
+import net.solarnetwork.esi.simple.xchg.impl.PreSerializedDerFacilityExchange;
+import net.solarnetwork.esi.simple.xchg.impl.SimpleDerFacilityExchange;
+
+/**
+ * Test cases for the {@link PreSerializedDerFacilityExchange} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class PreSerializedDerFacilityExchangeTests {
+
+  private static final String TEST_LANG = "en-NZ";
+  private static final String TEST_LANG_ALT = "mi";
+
+  @Rule
+  public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+  private List<Form> registrationForms;
+  private String exchangeUid;
+  private SimpleDerFacilityExchange exchange;
+  private DerFacilityExchangeBlockingStub client;
+  private DerFacilityExchangeBlockingStub directClient;
+
+  @Before
+  public void setUp() throws Exception {
+    registrationForms = new ArrayList<>();
+    registrationForms.add(loadForm("registration-form-01.json"));
+    registrationForms.add(loadForm("registration-form-02.json"));
+
+    exchangeUid = UUID.randomUUID().toString();
+    exchange = new SimpleDerFacilityExchange(exchangeUid, STANDARD_HELPER.generateKeyPair(),
+        registrationForms, STANDARD_HELPER);
+
+    client = DerFacilityExchangeGrpc
+        .newBlockingStub(channel(new PreSerializedDerFacilityExchange(exchange)));
+    directClient = DerFacilityExchangeGrpc.newBlockingStub(channel(exchange));
+  }
+
+  private ManagedChannel channel(BindableService service) throws IOException {
+    String serverName = InProcessServerBuilder.generateName();
+    grpcCleanup.register(InProcessServerBuilder.forName(serverName).directExecutor()
+        .addService(service).build().start());
+    return grpcCleanup
+        .register(InProcessChannelBuilder.forName(serverName).directExecutor().build());
+  }
+
+  private Form loadForm(String resource) throws IOException {
+    try (Reader r = new InputStreamReader(getClass().getResourceAsStream(resource),
+        Charset.forName("UTF-8"))) {
+      Form.Builder builder = Form.newBuilder();
+      JsonFormat.parser().merge(r, builder);
+      return builder.build();
+    }
+  }
+
+  private DerFacilityRegistrationFormRequest formRequest(String lang) {
+    DerFacilityRegistrationFormRequest.Builder b = DerFacilityRegistrationFormRequest.newBuilder()
+        .setExchangeUid(exchangeUid);
+    if (lang != null) {
+      b.setLanguageCode(lang);
+    }
+    return b.build();
+  }
+
+  @Test
+  public void publicKeySameAsExchange() {
+    // when
+    CryptoKey res = client.getPublicCryptoKey(Empty.getDefaultInstance());
+
+    // then
+    assertThat("Public key same as exchange", res,
+        equalTo(directClient.getPublicCryptoKey(Empty.getDefaultInstance())));
+  }
+
+  @Test
+  public void registrationFormsSameAsExchange() {
+    for (String lang : asList(null, TEST_LANG, TEST_LANG_ALT, "es", TEST_LANG_ALT)) {
+      // given
+      DerFacilityRegistrationFormRequest req = formRequest(lang);
+
+      // when
+      DerFacilityRegistrationForm res = client.getDerFacilityRegistrationForm(req);
+
+      // then
+      assertThat("Form for " + lang + " same as exchange", res,
+          equalTo(directClient.getDerFacilityRegistrationForm(req)));
+    }
+  }
+
+  @Test
+  public void registrationFormForLangAlt() {
+    // when
+    DerFacilityRegistrationForm res = client
+        .getDerFacilityRegistrationForm(formRequest(TEST_LANG_ALT));
+
+    // then
+    assertThat("Operator UID", res.getExchangeUid(), equalTo(exchangeUid));
+    assertThat("Form for matching alt language", res.getForm(), equalTo(registrationForms.get(1)));
+  }
+
+  @Test
+  public void publicKeyChanged() {
+    // given
+    client.getPublicCryptoKey(Empty.getDefaultInstance());
+    KeyPair newKeyPair = STANDARD_HELPER.generateKeyPair();
+
+    // when
+    exchange.setExchangeKeyPair(newKeyPair);
+    CryptoKey res = client.getPublicCryptoKey(Empty.getDefaultInstance());
+
+    // then
+    assertThat("Key data from new key pair", res.getKey(),
+        equalTo(ByteString.copyFrom(newKeyPair.getPublic().getEncoded())));
+  }
+
+  @Test
+  public void registrationFormsChanged() {
+    // given
+    client.getDerFacilityRegistrationForm(formRequest(TEST_LANG_ALT));
+
+    // when
+    exchange.setRegistrationForms(asList(registrationForms.get(0)));
+    DerFacilityRegistrationForm res = client
+        .getDerFacilityRegistrationForm(formRequest(TEST_LANG_ALT));
+
+    // then
+    assertThat("Only remaining form returned", res.getForm(), equalTo(registrationForms.get(0)));
+  }
+
+}
@@ -35,6 +35,7 @@ import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
 
@@ -53,6 +54,7 @@ import io.grpc.inprocess.InProcessChannelBuilder;
 import io.grpc.inprocess.InProcessServerBuilder;
 import io.grpc.testing.GrpcCleanupRule;
 import net.solarnetwork.esi.domain.CryptoKey;
+import net.solarnetwork.esi.domain.DatumRequest;
 import net.solarnetwork.esi.domain.DerFacilityRegistrationForm;
 import net.solarnetwork.esi.domain.DerFacilityRegistrationFormData;
 import net.solarnetwork.esi.domain.DerFacilityRegistrationFormDataReceipt;
@@ -61,11 +63,14 @@ import net.solarnetwork.esi.domain.DerRoute;
 import net.solarnetwork.esi.domain.Form;
 import net.solarnetwork.esi.domain.FormData;
 import net.solarnetwork.esi.domain.MessageSignature;
+import net.solarnetwork.esi.domain.PriceDatum;
+import net.solarnetwork.esi.domain.TimeUnit;
 import net.solarnetwork.esi.service.DerFacilityExchangeGrpc;
 import net.solarnetwork.esi.service.DerFacilityExchangeGrpc.DerFacilityExchangeBlockingStub;
 import net.solarnetwork.esi.simple.xchg.domain.FacilityRegistrationEntity;
 import net.solarnetwork.esi.simple.xchg.impl.SimpleDerFacilityExchange;
 import net.solarnetwork.esi.simple.xchg.service.FacilityRegistrationService;
+import net.solarnetwork.esi.simple.xchg.service.PriceSeriesService;
 import net.solarnetwork.esi.util.CryptoUtils;
 
 /**
@@ -95,6 +100,7 @@ public class SimpleDerFacilityExchangeTests {
   private SimpleDerFacilityExchange service;
   private ManagedChannel channel;
   private FacilityRegistrationService facilityRegistrationService;
+  private PriceSeriesService priceSeriesService;
 
   @Before
   public void setUp() throws Exception {
@@ -112,6 +118,9 @@ public class SimpleDerFacilityExchangeTests {
     facilityRegistrationService = mock(FacilityRegistrationService.class);
     service.setFacilityRegistrationService(facilityRegistrationService);
 
+    priceSeriesService = mock(PriceSeriesService.class);
+    service.setPriceSeriesService(priceSeriesService);
+
     String serverName = InProcessServerBuilder.generateName();
     grpcCleanup.register(InProcessServerBuilder.forName(serverName).directExecutor()
         .addService(service).build().start());
@@ -201,6 +210,55 @@ public class SimpleDerFacilityExchangeTests {
         equalTo(registrationForms.get(0)));
   }
 
+  @Test
+  public void registrationFormForLangRepeated() {
+    // given
+    DerFacilityExchangeBlockingStub client = DerFacilityExchangeGrpc.newBlockingStub(channel);
+    DerFacilityRegistrationFormRequest req = DerFacilityRegistrationFormRequest.newBuilder()
+        .setExchangeUid(exchangeUid).setLanguageCode(TEST_LANG_ALT).build();
+    DerFacilityRegistrationForm first = client.getDerFacilityRegistrationForm(req);
+
+    //when
+    DerFacilityRegistrationForm res = client.getDerFacilityRegistrationForm(req);
+
+    //then
+    assertThat("Cached result same as first", res, equalTo(first));
+    assertThat("Form for matching alt language", res.getForm(), equalTo(registrationForms.get(1)));
+  }
+
+  @Test
+  public void publicKeyChanged() {
+    // given
+    DerFacilityExchangeBlockingStub client = DerFacilityExchangeGrpc.newBlockingStub(channel);
+    client.getPublicCryptoKey(Empty.getDefaultInstance());
+    KeyPair newKeyPair = STANDARD_HELPER.generateKeyPair();
+
+    //when
+    service.setExchangeKeyPair(newKeyPair);
+    CryptoKey res = client.getPublicCryptoKey(Empty.getDefaultInstance());
+
+    //then
+    assertThat("Key data from new key pair", res.getKey(),
+        equalTo(ByteString.copyFrom(newKeyPair.getPublic().getEncoded())));
+  }
+
+  @Test
+  public void registrationFormsChanged() {
+    // given
+    DerFacilityExchangeBlockingStub client = DerFacilityExchangeGrpc.newBlockingStub(channel);
+    DerFacilityRegistrationFormRequest req = DerFacilityRegistrationFormRequest.newBuilder()
+        .setExchangeUid(exchangeUid).setLanguageCode(TEST_LANG_ALT).build();
+    client.getDerFacilityRegistrationForm(req);
+
+    //when
+    service.setRegistrationForms(asList(registrationForms.get(0)));
+    DerFacilityRegistrationForm res = client.getDerFacilityRegistrationForm(req);
+
+    //then
+    assertThat("Operator UID", res.getExchangeUid(), equalTo(exchangeUid));
+    assertThat("Only remaining form returned", res.getForm(), equalTo(registrationForms.get(0)));
+  }
+
   private DerFacilityRegistrationFormData defaultFacilityRegFormData() {
     String facilityUid = UUID.randomUUID().toString();
 
@@ -278,4 +336,47 @@ public class SimpleDerFacilityExchangeTests {
     }
   }
 
+  @Test
+  public void listPricesStreamsSource() {
+    // given
+    DatumRequest req = DatumRequest.newBuilder().setRoute(DerRoute.newBuilder()
+        .setExchangeUid(exchangeUid).setFacilityUid(UUID.randomUUID().toString())).build();
+    Iterator<PriceDatum> prices = asList(
+        PriceDatum.newBuilder().setTimeUnit(TimeUnit.MINUTE).setTimeLength(1).build(),
+        PriceDatum.newBuilder().setTimeUnit(TimeUnit.MINUTE).setTimeLength(2).build())
+        .iterator();
+    given(priceSeriesService.listPrices(req))
+        .willReturn(() -> prices.hasNext() ? prices.next() : null);
+
+    DerFacilityExchangeBlockingStub client = DerFacilityExchangeGrpc.newBlockingStub(channel);
+
+    // when
+    List<PriceDatum> result = new ArrayList<>();
+    client.listPrices(req).forEachRemaining(result::add);
+
+    // then
+    assertThat("Streamed prices", result.size(), equalTo(2));
+    assertThat("First price", result.get(0).getTimeLength(), equalTo(1));
+    assertThat("Second price", result.get(1).getTimeLength(), equalTo(2));
+  }
+
+  @Test
+  public void listPricesIllegalArgument() {
+    // given
+    DatumRequest req = DatumRequest.newBuilder().setRoute(DerRoute.newBuilder()
+        .setExchangeUid(exchangeUid).setFacilityUid(UUID.randomUUID().toString())).build();
+    given(priceSeriesService.listPrices(req)).willThrow(new IllegalArgumentException("Test"));
+
+    DerFacilityExchangeBlockingStub client = DerFacilityExchangeGrpc.newBlockingStub(channel);
+
+    // when
+    try {
+      client.listPrices(req).hasNext();
+      fail("Validation exception expected");
+    } catch (StatusRuntimeException e) {
+      assertThat("Invalid argument", e.getStatus().getCode(),
+          equalTo(Status.INVALID_ARGUMENT.getCode()));
+    }
+  }
+
 }
@@ -28,7 +28,9 @@ import java.util.Base64;
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Hex;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.FileSystemResource;
@@ -79,10 +81,21 @@ public class FacilityConfig {
   @Autowired
   private FacilitySettingsEntityDao settingsDao;
 
+  @Qualifier("afterCommitTransactionEventPublisher")
+  @Autowired
+  private ApplicationEventPublisher eventPublisher;
+
+  /**
+   * Create the facility service, which publishes price map changes after commit.
+   * 
+   * @return the service
+   */
   @Bean
   public DaoFacilityService facilityService() {
-    return new DaoFacilityService(facilityUid, URI.create(facilityUri), usePlaintext,
-        facilityKeyPair(), cryptoHelper(), exchangeDao, settingsDao);
+    DaoFacilityService s = new DaoFacilityService(facilityUid, URI.create(facilityUri),
+        usePlaintext, facilityKeyPair(), cryptoHelper(), exchangeDao, settingsDao);
+    s.setEventPublisher(eventPublisher);
+    return s;
   }
 
   /**
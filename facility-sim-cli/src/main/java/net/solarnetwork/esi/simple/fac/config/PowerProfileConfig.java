@@ -0,0 +1,73 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.simple.fac.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import net.solarnetwork.esi.simple.fac.impl.SyntheticPowerProfileService;
+import net.solarnetwork.esi.simple.fac.service.FacilityService;
+import net.solarnetwork.esi.simple.fac.service.PowerProfileService;
+
+/**
+ * Power profile related configuration.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+@Configuration
+public class PowerProfileConfig {
+
+  @Value("${esi.facility.powerProfile.basePower:5000}")
+  private double basePower = SyntheticPowerProfileService.DEFAULT_BASE_POWER;
+
+  @Value("${esi.facility.powerProfile.amplitude:3000}")
+  private double amplitude = SyntheticPowerProfileService.DEFAULT_AMPLITUDE;
+
+  @Value("${esi.facility.powerProfile.noise:0.1}")
+  private double noise = SyntheticPowerProfileService.DEFAULT_NOISE;
+
+  @Value("${esi.facility.powerProfile.powerFactor:0.95}")
+  private double powerFactor = SyntheticPowerProfileService.DEFAULT_POWER_FACTOR;
+
+  @Value("${esi.facility.powerProfile.sampleIntervalMs:300000}")
+  private long sampleIntervalMs = SyntheticPowerProfileService.DEFAULT_SAMPLE_INTERVAL_MS;
+
+  @Autowired
+  private FacilityService facilityService;
+
+  /**
+   * The power profile service.
+   * 
+   * @return the service
+   */
+  @Bean
+  public PowerProfileService powerProfileService() {
+    SyntheticPowerProfileService s = new SyntheticPowerProfileService(facilityService);
+    s.setBasePower(basePower);
+    s.setAmplitude(amplitude);
+    s.setNoise(noise);
+    s.setPowerFactor(powerFactor);
+    s.setSampleIntervalMs(sampleIntervalMs);
+    return s;
+  }
+
+}
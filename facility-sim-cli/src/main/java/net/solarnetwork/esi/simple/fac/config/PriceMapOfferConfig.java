@@ -17,21 +17,39 @@
 
 package net.solarnetwork.esi.simple.fac.config;
 
+import java.nio.file.Paths;
+import java.time.Duration;
+
 import javax.annotation.Resource;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import net.solarnetwork.esi.domain.support.PriceRingBuffer;
 import net.solarnetwork.esi.grpc.ChannelProvider;
+import net.solarnetwork.esi.simple.fac.dao.PriceMapOfferEventArchiveEntityDao;
 import net.solarnetwork.esi.simple.fac.dao.PriceMapOfferEventEntityDao;
+import net.solarnetwork.esi.simple.fac.impl.DaoPriceMapOfferEventRetentionService;
 import net.solarnetwork.esi.simple.fac.impl.DaoPriceMapOfferExecutionService;
 import net.solarnetwork.esi.simple.fac.impl.DaoPriceMapService;
+import net.solarnetwork.esi.simple.fac.impl.ExchangePriceMapOfferStatusPublisher;
 import net.solarnetwork.esi.simple.fac.impl.PriceMapOfferExecutionManager;
+import net.solarnetwork.esi.simple.fac.impl.RingBufferPriceService;
 import net.solarnetwork.esi.simple.fac.service.FacilityService;
+import net.solarnetwork.esi.simple.fac.service.PriceMapOfferEventRetentionService;
 import net.solarnetwork.esi.simple.fac.service.PriceMapOfferExecutionService;
 import net.solarnetwork.esi.simple.fac.service.PriceMapService;
+import net.solarnetwork.esi.simple.fac.service.PriceService;
+import net.solarnetwork.esi.util.CoalescingPublisher;
+import net.solarnetwork.esi.util.RecentKeyCache;
 
 /**
  * Price map offer related configuration.
@@ -42,12 +60,60 @@ import net.solarnetwork.esi.simple.fac.service.PriceMapService;
 @Configuration
 public class PriceMapOfferConfig {
 
+  @Value("${esi.facility.execution.tickMs:100}")
+  private long executionTickMs = PriceMapOfferExecutionManager.DEFAULT_TICK_MS;
+
+  @Value("${esi.facility.execution.threads:4}")
+  private int executionThreads = 4;
+
+  @Value("${esi.facility.exchange.statusMaxInFlight:8}")
+  private int statusMaxInFlight = CoalescingPublisher.DEFAULT_MAX_IN_FLIGHT;
+
+  @Value("${esi.facility.exchange.statusRpcTimeoutMs:10000}")
+  private long statusRpcTimeoutMs = ExchangePriceMapOfferStatusPublisher.DEFAULT_RPC_TIMEOUT_MS;
+
+  @Value("${esi.facility.retention.periodDays:30}")
+  private int retentionPeriodDays = 30;
+
+  @Value("${esi.facility.priceMap.offerFilterCapacity:65536}")
+  private int offerFilterCapacity = RecentKeyCache.DEFAULT_FILTER_CAPACITY;
+
+  @Value("${esi.facility.retention.runFrequencyMs:3600000}")
+  private long retentionRunFrequencyMs = 3600000L;
+
+  @Value("${esi.facility.retention.batchSize:100}")
+  private int retentionBatchSize = 100;
+
+  @Value("${esi.facility.retention.maxBatchesPerRun:50}")
+  private int retentionMaxBatchesPerRun = 50;
+
+  @Value("${esi.facility.prices.capacity:4096}")
+  private int priceCapacity = PriceRingBuffer.DEFAULT_CAPACITY;
+
+  @Value("${esi.facility.prices.recentWindowMs:86400000}")
+  private long priceRecentWindowMs = RingBufferPriceService.DEFAULT_RECENT_WINDOW.toMillis();
+
+  @Value("${esi.facility.prices.spillPath:}")
+  private String priceSpillPath;
+
   @Autowired
   private FacilityService facilityService;
 
   @Autowired
   private PriceMapOfferEventEntityDao offerEventDao;
 
+  @Autowired
+  private PriceMapOfferEventArchiveEntityDao offerEventArchiveDao;
+
+  @Autowired
+  private PlatformTransactionManager txManager;
+
+  @Autowired
+  private TaskScheduler taskScheduler;
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry;
+
   @Autowired
   private ChannelProvider exchangeChannelProvider;
 
@@ -62,7 +128,28 @@ public class PriceMapOfferConfig {
   @Bean
   public PriceMapService priceMapService() {
     DaoPriceMapService s = new DaoPriceMapService(facilityService, offerEventDao);
+    s.setOfferEventArchiveDao(offerEventArchiveDao);
+    s.setOfferFilterWindow(Duration.ofDays(retentionPeriodDays));
+    s.setOfferFilterCapacity(offerFilterCapacity);
+    s.setMeterRegistry(meterRegistry);
     s.setEventPublisher(eventPublisher);
+    s.setPriceService(priceService());
+    return s;
+  }
+
+  /**
+   * The price service.
+   * 
+   * @return the service
+   */
+  @Bean(initMethod = "startup", destroyMethod = "shutdown")
+  public PriceService priceService() {
+    RingBufferPriceService s = new RingBufferPriceService(facilityService);
+    s.setCapacity(priceCapacity);
+    s.setRecentWindow(Duration.ofMillis(priceRecentWindowMs));
+    if (priceSpillPath != null && !priceSpillPath.isEmpty()) {
+      s.setSpillDirectory(Paths.get(priceSpillPath));
+    }
     return s;
   }
 
@@ -76,20 +163,70 @@ public class PriceMapOfferConfig {
     DaoPriceMapOfferExecutionService service = new DaoPriceMapOfferExecutionService(facilityService,
         offerEventDao);
     service.setEventPublisher(eventPublisher);
-    service.setExchangeChannelProvider(exchangeChannelProvider);
     return service;
   }
 
+  /**
+   * The price map offer status publisher.
+   * 
+   * @return the status publisher
+   */
+  @Bean(destroyMethod = "shutdown")
+  public ExchangePriceMapOfferStatusPublisher priceMapOfferStatusPublisher() {
+    ExchangePriceMapOfferStatusPublisher publisher = new ExchangePriceMapOfferStatusPublisher(
+        facilityService, exchangeChannelProvider, taskScheduler);
+    publisher.setMaxInFlight(statusMaxInFlight);
+    publisher.setRpcTimeoutMs(statusRpcTimeoutMs);
+    publisher.setMeterRegistry(meterRegistry);
+    return publisher;
+  }
+
+  /**
+   * The executor for price map offer executions.
+   * 
+   * @return the executor
+   */
+  @Bean
+  public ThreadPoolTaskExecutor priceMapOfferExecutionTaskExecutor() {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(executionThreads);
+    executor.setMaxPoolSize(executionThreads);
+    executor.setThreadNamePrefix("fac-offer-exec-");
+    return executor;
+  }
+
   /**
    * The price map offer execution manager.
    * 
    * @return the offer execution manager
    */
-  @Bean
+  @Bean(initMethod = "startup", destroyMethod = "shutdown")
   public PriceMapOfferExecutionManager priceMapOfferExecutionManager() {
     PriceMapOfferExecutionManager mgr = new PriceMapOfferExecutionManager(
-        priceMapOfferExecutionService());
+        priceMapOfferExecutionService(), offerEventDao);
+    // advance the schedule on a thread of its own, not the shared task scheduler
+    mgr.setTickThreadNamePrefix("fac-offer-tick-");
+    mgr.setTaskExecutor(priceMapOfferExecutionTaskExecutor());
+    mgr.setTickMs(executionTickMs);
+    mgr.setMeterRegistry(meterRegistry);
     return mgr;
   }
 
+  /**
+   * The price map offer event retention service.
+   * 
+   * @return the retention service
+   */
+  @Bean(initMethod = "startup", destroyMethod = "shutdown")
+  public PriceMapOfferEventRetentionService priceMapOfferEventRetentionService() {
+    DaoPriceMapOfferEventRetentionService s = new DaoPriceMapOfferEventRetentionService(
+        offerEventDao, offerEventArchiveDao, new TransactionTemplate(txManager));
+    s.setTaskScheduler(taskScheduler);
+    s.setRetentionPeriod(Duration.ofDays(retentionPeriodDays));
+    s.setRunFrequencyMs(retentionRunFrequencyMs);
+    s.setBatchSize(retentionBatchSize);
+    s.setMaxBatchesPerRun(retentionMaxBatchesPerRun);
+    return s;
+  }
+
 }
@@ -0,0 +1,48 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.fac.dao;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.PagingAndSortingRepository;
+
+import net.solarnetwork.esi.simple.fac.domain.PriceMapOfferEventArchiveEntity;
+
+/**
+ * DAO API for {@link PriceMapOfferEventArchiveEntity} entities.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public interface PriceMapOfferEventArchiveEntityDao
+    extends PagingAndSortingRepository<PriceMapOfferEventArchiveEntity, UUID> {
+
+  /**
+   * Find the IDs of all archived offer events created on or after a given date.
+   * 
+   * @param date
+   *        the minimum creation date
+   * @return the IDs, never {@literal null}
+   */
+  @Query("SELECT e.id FROM PriceMapOfferEventArchiveEntity e WHERE e.created >= ?1")
+  List<UUID> findIdsCreatedSince(Instant date);
+
+}
@@ -17,11 +17,17 @@
 
 package net.solarnetwork.esi.simple.fac.dao;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
 
 import net.solarnetwork.esi.simple.fac.domain.PriceMapOfferEventEntity;
+import net.solarnetwork.esi.simple.fac.domain.PriceMapOfferExecutionState;
 
 /**
  * DAO API for price map offer entities.
@@ -32,4 +38,38 @@ import net.solarnetwork.esi.simple.fac.domain.PriceMapOfferEventEntity;
 public interface PriceMapOfferEventEntityDao
     extends PagingAndSortingRepository<PriceMapOfferEventEntity, UUID> {
 
+  /**
+   * Find offer events in a set of execution states that start before a given date.
+   * 
+   * @param states
+   *        the execution states to find
+   * @param date
+   *        the date to find events starting before
+   * @param pageable
+   *        the page and sort criteria
+   * @return the matching events, never {@literal null}
+   */
+  List<PriceMapOfferEventEntity> findAllByExecutionStateInAndStartDateBefore(
+      Collection<PriceMapOfferExecutionState> states, Instant date, Pageable pageable);
+
+  /**
+   * Find all offer events in a set of execution states.
+   * 
+   * @param states
+   *        the execution states to find
+   * @return the matching events, never {@literal null}
+   */
+  List<PriceMapOfferEventEntity> findAllByExecutionStateIn(
+      Collection<PriceMapOfferExecutionState> states);
+
+  /**
+   * Find the IDs of all offer events created on or after a given date.
+   * 
+   * @param date
+   *        the minimum creation date
+   * @return the IDs, never {@literal null}
+   */
+  @Query("SELECT e.id FROM PriceMapOfferEventEntity e WHERE e.created >= ?1")
+  List<UUID> findIdsCreatedSince(Instant date);
+
 }
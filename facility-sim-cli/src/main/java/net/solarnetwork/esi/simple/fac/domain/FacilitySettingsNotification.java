@@ -0,0 +1,64 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.fac.domain;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Base class for facility settings related events.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+@ParametersAreNonnullByDefault
+public abstract class FacilitySettingsNotification extends ApplicationEvent {
+
+  private static final long serialVersionUID = 2381942436981379263L;
+
+  private FacilitySettingsNotification(Object source) {
+    super(source);
+  }
+
+  /**
+   * Event published when the facility price map settings have changed.
+   * 
+   * @author matt
+   * @version 1.0
+   */
+  public static final class PriceMapsChanged extends FacilitySettingsNotification {
+
+    private static final long serialVersionUID = -1795384046170377713L;
+
+    public PriceMapsChanged(FacilitySettingsEntity settings) {
+      super(settings);
+    }
+
+    /**
+     * Get the facility settings associated with this event.
+     * 
+     * @return the settings
+     */
+    public FacilitySettingsEntity getSettings() {
+      return (FacilitySettingsEntity) getSource();
+    }
+
+  }
+
+}
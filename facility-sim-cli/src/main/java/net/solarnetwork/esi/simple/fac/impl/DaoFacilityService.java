@@ -26,6 +26,7 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.Set;
 
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort.Direction;
 import org.springframework.transaction.annotation.Propagation;
@@ -35,6 +36,7 @@ import net.solarnetwork.esi.simple.fac.dao.ExchangeEntityDao;
 import net.solarnetwork.esi.simple.fac.dao.FacilitySettingsEntityDao;
 import net.solarnetwork.esi.simple.fac.domain.ExchangeEntity;
 import net.solarnetwork.esi.simple.fac.domain.FacilitySettingsEntity;
+import net.solarnetwork.esi.simple.fac.domain.FacilitySettingsNotification.PriceMapsChanged;
 import net.solarnetwork.esi.simple.fac.domain.PriceMapEntity;
 import net.solarnetwork.esi.simple.fac.service.FacilityService;
 import net.solarnetwork.esi.util.CryptoHelper;
@@ -54,6 +56,7 @@ public class DaoFacilityService implements FacilityService {
   private final CryptoHelper cryptoHelper;
   private final ExchangeEntityDao exchangeDao;
   private final FacilitySettingsEntityDao settingsDao;
+  private ApplicationEventPublisher eventPublisher;
 
   /**
    * Constructor.
@@ -172,7 +175,8 @@ public class DaoFacilityService implements FacilityService {
       settings = new FacilitySettingsEntity(Instant.now());
     }
     settings.addPriceMap(priceMap);
-    settingsDao.save(settings);
+    settings = settingsDao.save(settings);
+    publishEvent(new PriceMapsChanged(settings));
   }
 
   @Transactional(readOnly = false, propagation = Propagation.REQUIRED)
@@ -184,9 +188,32 @@ public class DaoFacilityService implements FacilityService {
           .filter(e -> priceMapId.equals(e.getId())).findAny().orElse(null);
       if (priceMap != null) {
         settings.removePriceMap(priceMap);
-        settingsDao.save(settings);
+        settings = settingsDao.save(settings);
+        publishEvent(new PriceMapsChanged(settings));
       }
     }
   }
 
+  private void publishEvent(PriceMapsChanged event) {
+    if (eventPublisher != null) {
+      eventPublisher.publishEvent(event);
+    }
+  }
+
+  /**
+   * Set an event publisher to use.
+   * 
+   * <p>
+   * A {@link PriceMapsChanged} event is published when the price map settings are saved or deleted.
+   * Consider using a transaction-aware publisher so that events are published after the
+   * transactions that emit them are committed.
+   * </p>
+   * 
+   * @param eventPublisher
+   *        the event publisher to set
+   */
+  public void setEventPublisher(ApplicationEventPublisher eventPublisher) {
+    this.eventPublisher = eventPublisher;
+  }
+
 }
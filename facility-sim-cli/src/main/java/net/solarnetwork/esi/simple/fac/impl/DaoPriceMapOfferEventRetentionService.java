@@ -0,0 +1,272 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.fac.impl;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import net.solarnetwork.esi.simple.fac.dao.PriceMapOfferEventArchiveEntityDao;
+import net.solarnetwork.esi.simple.fac.dao.PriceMapOfferEventEntityDao;
+import net.solarnetwork.esi.simple.fac.domain.PriceMapOfferEventArchiveEntity;
+import net.solarnetwork.esi.simple.fac.domain.PriceMapOfferEventEntity;
+import net.solarnetwork.esi.simple.fac.domain.PriceMapOfferExecutionState;
+import net.solarnetwork.esi.simple.fac.service.PriceMapOfferEventRetentionService;
+
+/**
+ * DAO based implementation of {@link PriceMapOfferEventRetentionService}.
+ * 
+ * <p>
+ * Only events in one of the {@link #FINAL_EXECUTION_STATES} are archived; events still waiting for
+ * or undergoing execution are never touched. Events are archived in batches of at most
+ * {@link #setBatchSize(int)} events, each batch in its own transaction, and at most
+ * {@link #setMaxBatchesPerRun(int)} batches are processed per run. When {@link #startup()} is
+ * called a task is scheduled to archive expired events every {@link #setRunFrequencyMs(long)}
+ * milliseconds.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class DaoPriceMapOfferEventRetentionService implements PriceMapOfferEventRetentionService {
+
+  /** The execution states of offer events that may be archived. */
+  public static final Set<PriceMapOfferExecutionState> FINAL_EXECUTION_STATES = Collections
+      .unmodifiableSet(EnumSet.of(PriceMapOfferExecutionState.DECLINED,
+          PriceMapOfferExecutionState.COUNTERED, PriceMapOfferExecutionState.COMPLETED,
+          PriceMapOfferExecutionState.ABORTED));
+
+  /**
+   * The default value for the {@code retentionPeriod} property.
+   */
+  public static final Duration DEFAULT_RETENTION_PERIOD = Duration.ofDays(30);
+
+  /**
+   * The default value for the {@code runFrequencyMs} property.
+   */
+  public static final long DEFAULT_RUN_FREQUENCY_MS = 3600000L;
+
+  /**
+   * The default value for the {@code batchSize} property.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 100;
+
+  /**
+   * The default value for the {@code maxBatchesPerRun} property.
+   */
+  public static final int DEFAULT_MAX_BATCHES_PER_RUN = 50;
+
+  private static final Logger log = LoggerFactory
+      .getLogger(DaoPriceMapOfferEventRetentionService.class);
+
+  private final PriceMapOfferEventEntityDao offerEventDao;
+  private final PriceMapOfferEventArchiveEntityDao offerEventArchiveDao;
+  private final TransactionTemplate txTemplate;
+  private final AtomicBoolean processing;
+
+  private TaskScheduler taskScheduler;
+  private Duration retentionPeriod = DEFAULT_RETENTION_PERIOD;
+  private long runFrequencyMs = DEFAULT_RUN_FREQUENCY_MS;
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private int maxBatchesPerRun = DEFAULT_MAX_BATCHES_PER_RUN;
+
+  private ScheduledFuture<?> runTask;
+
+  /**
+   * Constructor.
+   * 
+   * @param offerEventDao
+   *        the offer event DAO
+   * @param offerEventArchiveDao
+   *        the offer event archive DAO
+   * @param txTemplate
+   *        the transaction template to execute each batch with
+   * @throws IllegalArgumentException
+   *         if any parameter is {@literal null}
+   */
+  public DaoPriceMapOfferEventRetentionService(PriceMapOfferEventEntityDao offerEventDao,
+      PriceMapOfferEventArchiveEntityDao offerEventArchiveDao, TransactionTemplate txTemplate) {
+    super();
+    if (offerEventDao == null) {
+      throw new IllegalArgumentException("The offer event DAO must be provided.");
+    }
+    this.offerEventDao = offerEventDao;
+    if (offerEventArchiveDao == null) {
+      throw new IllegalArgumentException("The offer event archive DAO must be provided.");
+    }
+    this.offerEventArchiveDao = offerEventArchiveDao;
+    if (txTemplate == null) {
+      throw new IllegalArgumentException("The transaction template must be provided.");
+    }
+    this.txTemplate = txTemplate;
+    this.processing = new AtomicBoolean(false);
+  }
+
+  /**
+   * Start the periodic archive task.
+   * 
+   * <p>
+   * If no task scheduler has been configured, this method does nothing.
+   * </p>
+   */
+  public synchronized void startup() {
+    if (runTask != null || taskScheduler == null) {
+      return;
+    }
+    runTask = taskScheduler.scheduleWithFixedDelay(this::archiveExpiredOfferEvents,
+        runFrequencyMs);
+  }
+
+  /**
+   * Stop the periodic archive task.
+   */
+  public synchronized void shutdown() {
+    if (runTask != null) {
+      runTask.cancel(false);
+      runTask = null;
+    }
+  }
+
+  @Override
+  public int archiveExpiredOfferEvents() {
+    try {
+      return archiveOfferEventsStartingBefore(Instant.now().minus(retentionPeriod));
+    } catch (RuntimeException e) {
+      log.error("Error archiving expired price map offer events: {}", e.toString(), e);
+      return 0;
+    }
+  }
+
+  @Override
+  public int archiveOfferEventsStartingBefore(Instant date) {
+    if (!processing.compareAndSet(false, true)) {
+      log.debug("Price map offer event archive already running");
+      return 0;
+    }
+    try {
+      int total = 0;
+      for (int i = 0; i < maxBatchesPerRun; i++) {
+        Integer count = txTemplate.execute(status -> archiveBatch(date));
+        int n = (count != null ? count : 0);
+        total += n;
+        if (n < batchSize) {
+          break;
+        }
+      }
+      if (total > 0) {
+        log.info("Archived {} price map offer events starting before {}", total, date);
+      }
+      return total;
+    } finally {
+      processing.set(false);
+    }
+  }
+
+  private int archiveBatch(Instant date) {
+    List<PriceMapOfferEventEntity> events = offerEventDao
+        .findAllByExecutionStateInAndStartDateBefore(FINAL_EXECUTION_STATES, date,
+            PageRequest.of(0, batchSize, Sort.by("startDate")));
+    if (events.isEmpty()) {
+      return 0;
+    }
+    List<PriceMapOfferEventArchiveEntity> archives = new ArrayList<>(events.size());
+    for (PriceMapOfferEventEntity event : events) {
+      archives.add(PriceMapOfferEventArchiveEntity.archiveOf(event));
+    }
+    offerEventArchiveDao.saveAll(archives);
+
+    // price maps are removed via cascade
+    offerEventDao.deleteAll(events);
+    log.debug("Archived {} price map offer events", archives.size());
+    return events.size();
+  }
+
+  /**
+   * Set the task scheduler to run the periodic archive task with.
+   * 
+   * @param taskScheduler
+   *        the scheduler to use
+   */
+  public void setTaskScheduler(TaskScheduler taskScheduler) {
+    this.taskScheduler = taskScheduler;
+  }
+
+  /**
+   * Set the minimum age of offer events to archive, relative to their start date.
+   * 
+   * @param retentionPeriod
+   *        the retention period; defaults to {@link #DEFAULT_RETENTION_PERIOD}
+   * @throws IllegalArgumentException
+   *         if {@code retentionPeriod} is {@literal null} or negative
+   */
+  public void setRetentionPeriod(Duration retentionPeriod) {
+    if (retentionPeriod == null || retentionPeriod.isNegative()) {
+      throw new IllegalArgumentException("The retention period must not be negative.");
+    }
+    this.retentionPeriod = retentionPeriod;
+  }
+
+  /**
+   * Set the frequency at which to run the archive task.
+   * 
+   * @param runFrequencyMs
+   *        the frequency, in milliseconds; defaults to {@link #DEFAULT_RUN_FREQUENCY_MS}
+   */
+  public void setRunFrequencyMs(long runFrequencyMs) {
+    this.runFrequencyMs = runFrequencyMs;
+  }
+
+  /**
+   * Set the maximum number of offer events to archive per transaction.
+   * 
+   * @param batchSize
+   *        the batch size; defaults to {@link #DEFAULT_BATCH_SIZE}
+   * @throws IllegalArgumentException
+   *         if {@code batchSize} is less than {@literal 1}
+   */
+  public void setBatchSize(int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("The batch size must be at least 1.");
+    }
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Set the maximum number of batches to process per run.
+   * 
+   * @param maxBatchesPerRun
+   *        the maximum number of batches; defaults to {@link #DEFAULT_MAX_BATCHES_PER_RUN}
+   */
+  public void setMaxBatchesPerRun(int maxBatchesPerRun) {
+    this.maxBatchesPerRun = maxBatchesPerRun;
+  }
+
+}
@@ -20,38 +20,103 @@ package net.solarnetwork.esi.simple.fac.impl;
 import static java.util.Arrays.asList;
 import static net.solarnetwork.esi.util.CryptoUtils.validateMessageSignature;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import net.solarnetwork.esi.dao.support.TransactionUtils;
 import net.solarnetwork.esi.domain.DerRouteOrBuilder;
+import net.solarnetwork.esi.domain.PriceDatum;
 import net.solarnetwork.esi.domain.PriceMapOffer;
 import net.solarnetwork.esi.domain.jpa.PriceMapEmbed;
+import net.solarnetwork.esi.domain.support.PriceMapMatcher;
+import net.solarnetwork.esi.domain.support.PriceStatistics;
+import net.solarnetwork.esi.domain.support.ProtobufUtils;
+import net.solarnetwork.esi.simple.fac.dao.PriceMapOfferEventArchiveEntityDao;
 import net.solarnetwork.esi.simple.fac.dao.PriceMapOfferEventEntityDao;
 import net.solarnetwork.esi.simple.fac.domain.ExchangeEntity;
+import net.solarnetwork.esi.simple.fac.domain.FacilitySettingsNotification.PriceMapsChanged;
 import net.solarnetwork.esi.simple.fac.domain.PriceMapEntity;
+import net.solarnetwork.esi.simple.fac.domain.PriceMapOfferEventArchiveEntity;
 import net.solarnetwork.esi.simple.fac.domain.PriceMapOfferEventEntity;
 import net.solarnetwork.esi.simple.fac.domain.PriceMapOfferExecutionState;
 import net.solarnetwork.esi.simple.fac.domain.PriceMapOfferNotification;
 import net.solarnetwork.esi.simple.fac.service.FacilityService;
 import net.solarnetwork.esi.simple.fac.service.PriceMapService;
+import net.solarnetwork.esi.simple.fac.service.PriceService;
+import net.solarnetwork.esi.util.RecentKeyCache;
 
 /**
  * DAO-based implementation of {@link PriceMapService}.
  * 
+ * <p>
+ * Offers are matched against an immutable {@link PriceMapMatcher} snapshot of the facility price
+ * map settings, so matching an offer does not need to load the settings. The snapshot is built
+ * when the first offer is received and rebuilt when a {@link PriceMapsChanged} event is received.
+ * </p>
+ * 
+ * <p>
+ * Each offer is evaluated with {@link PriceMapMatcher#bestFit(PriceMapEmbed)}, so an offer that
+ * is not fully supported at the offered price is answered with the single counter-offer that keeps
+ * the most of the offer, which the exchange can then offer back and have accepted in one more
+ * round. The average number of offers received per completed negotiation is tracked by
+ * {@link #getAverageNegotiationRounds()}.
+ * </p>
+ * 
+ * <p>
+ * Offers are received at least once, so an offer with the ID of an offer already received is
+ * answered from the stored offer event, without validating its signature or matching it again.
+ * Recently received offer events are kept in a {@link RecentKeyCache}, whose Bloom filter is
+ * seeded with the IDs of the stored and archived offer events created within the
+ * {@code offerFilterWindow}. Only an offer ID the filter might contain is looked up in the
+ * database, so a new offer costs no queries. The filter holds at least as many IDs as were seeded,
+ * so it should not forget an offer received within the window. The offer event primary key guards
+ * against the same offer being saved twice, by concurrent requests or after the filter has
+ * forgotten it.
+ * </p>
+ * 
  * @author matt
  * @version 1.0
  */
 public class DaoPriceMapService implements PriceMapService {
 
+  /** The metric name prefix used. */
+  public static final String METRIC_PREFIX = "esi.fac.offer";
+
+  /** The price metric name prefix used. */
+  public static final String PRICE_METRIC_PREFIX = "esi.fac.price";
+
+  /** The default age of the offer events to seed the recent offer filter with. */
+  public static final Duration DEFAULT_OFFER_FILTER_WINDOW = Duration.ofDays(30);
+
   private final FacilityService facilityService;
   private final PriceMapOfferEventEntityDao offerEventDao;
+  private PriceMapOfferEventArchiveEntityDao offerEventArchiveDao;
   private ApplicationEventPublisher eventPublisher;
+  private PriceService priceService;
+  private Duration offerFilterWindow = DEFAULT_OFFER_FILTER_WINDOW;
+  private int offerFilterCapacity = RecentKeyCache.DEFAULT_FILTER_CAPACITY;
+  private volatile PriceMapMatcher<PriceMapEntity> priceMapMatcher;
+  private volatile RecentKeyCache<UUID, PriceMapOfferEventEntity> recentOffers;
+  private final LongAdder negotiationRounds = new LongAdder();
+  private final LongAdder negotiationsCompleted = new LongAdder();
+  private Counter acceptedCounter;
+  private Counter counteredCounter;
+  private Counter declinedCounter;
 
   private static final Logger log = LoggerFactory.getLogger(DaoPriceMapService.class);
 
@@ -87,38 +152,50 @@ public class DaoPriceMapService implements PriceMapService {
       throw new IllegalArgumentException("Facility UID not valid.");
     }
 
-    // TODO: check if event already created for this offer ID
+    final UUID offerId = ProtobufUtils.uuidValue(offer.getOfferId());
+    PriceMapOfferEventEntity existing = existingOfferEvent(offerId);
+    if (existing != null) {
+      log.info("Price map offer {} already received; returning stored state", offerId);
+      return existing;
+    }
 
     PriceMapOfferEventEntity event = PriceMapOfferEventEntity.entityForMessage(offer);
+    if (log.isDebugEnabled()) {
+      log.debug("Price map offer {} received with recent exchange prices {}", offerId,
+          getRecentPriceStatistics());
+    }
 
     validateMessageSignature(facilityService.getCryptoHelper(), route.getSignature(),
         facilityService.getKeyPair(), exchange.publicKey(),
         asList(exchange.getId(), facilityService.getUid(), event));
 
-    PriceMapEmbed match = null;
-    for (PriceMapEntity configuredPriceMap : facilityService.getPriceMaps()) {
-      match = acceptablePriceMapForEvent(configuredPriceMap, event);
-      if (match != null) {
-        break;
-      }
-    }
+    PriceMapMatcher.Match<PriceMapEntity> match = priceMapMatcher()
+        .bestFit(event.getPriceMap().getPriceMap());
     if (match == null) {
       // decline offer because no match
+      log.info("Price map offer {} not supported by any configured price map", event.getId());
       event.setAccepted(false);
       event.setExecutionState(PriceMapOfferExecutionState.DECLINED);
+    } else if (!match.isCounterOffer()) {
+      // no counter offer, so let's accept this one
+      log.info("Price map offer [{}] is acceptable to [{}]", match.getPriceMap().getInfo(),
+          match.getEntry().priceMap().getInfo());
+      event.setAccepted(true);
+      event.setExecutionState(PriceMapOfferExecutionState.WAITING);
     } else {
-      if (match.equals(event.getPriceMap().getPriceMap())) {
-        // no counter offer, so let's accept this one
-        event.setAccepted(true);
-        event.setExecutionState(PriceMapOfferExecutionState.WAITING);
-      } else {
-        // we've got a counter offer to propose
-        event.setAccepted(false);
-        event.setCounterOffer(new PriceMapEntity(Instant.now(), match));
-        event.setExecutionState(PriceMapOfferExecutionState.COUNTERED);
-      }
+      // not fully supported, so propose the best fit and see what happens
+      log.info("Price map offer {} not fully supported by price map {}; countering", event.getId(),
+          match.getEntry().getId());
+      event.setAccepted(false);
+      event.setCounterOffer(new PriceMapEntity(Instant.now(), match.getPriceMap()));
+      event.setExecutionState(PriceMapOfferExecutionState.COUNTERED);
     }
     event = offerEventDao.save(event);
+    final PriceMapOfferEventEntity received = event;
+    TransactionUtils.afterCommit(() -> {
+      recentOffers().put(offerId, received);
+      offerReceived(received);
+    });
     if (event.getCounterOffer() != null) {
       publishEvent(new PriceMapOfferNotification.PriceMapOfferCountered(event));
     } else if (event.isAccepted()) {
@@ -127,56 +204,178 @@ public class DaoPriceMapService implements PriceMapService {
     return event;
   }
 
-  private PriceMapEmbed acceptablePriceMapForEvent(PriceMapEntity supportedPriceMap,
-      PriceMapOfferEventEntity event) {
-    PriceMapEmbed priceMap = supportedPriceMap.priceMap();
-    PriceMapEmbed offerPriceMap = event.getPriceMap().getPriceMap();
-    if (offerPriceMap.duration().compareTo(priceMap.duration()) > 0) {
-      // too long to support
-      log.info("Price map offer {} not supported by price map {} because duration too long",
-          event.getId(), supportedPriceMap.getId());
-      return null;
+  private void offerReceived(PriceMapOfferEventEntity event) {
+    negotiationRounds.increment();
+    Counter counter;
+    if (event.getCounterOffer() != null) {
+      counter = counteredCounter;
+    } else {
+      negotiationsCompleted.increment();
+      counter = (event.isAccepted() ? acceptedCounter : declinedCounter);
     }
-    if (offerPriceMap.powerComponents().derivedApparentPower() > priceMap.powerComponents()
-        .derivedApparentPower()) {
-      // too much power
-      // TODO do we need to do a signed comparison here for load vs generation?
-      log.info("Price map offer {} not supported by price map {} because power to large",
-          event.getId(), supportedPriceMap.getId());
-      return null;
+    if (counter != null) {
+      counter.increment();
+    }
+  }
+
+  @Override
+  public void counterOfferNegotiationEnded(PriceMapOfferEventEntity event) {
+    log.info("Price map offer {} negotiation ended by exchange after counter offer",
+        event.getId());
+    negotiationsCompleted.increment();
+  }
+
+  /**
+   * Get the average number of offers received per completed negotiation.
+   * 
+   * <p>
+   * A negotiation is completed when an offer is accepted or declined, or when the exchange ends the
+   * negotiation after a counter-offer; each counter-offer adds another round to the negotiation, in
+   * the form of the next offer received from the exchange.
+   * </p>
+   * 
+   * @return the average number of rounds, or {@literal 0} if no negotiation has completed
+   */
+  public double getAverageNegotiationRounds() {
+    long completed = negotiationsCompleted.sum();
+    return (completed > 0 ? (double) negotiationRounds.sum() / completed : 0.0);
+  }
+
+  /**
+   * Get the most recent price received from the exchange.
+   * 
+   * @return the price, or {@literal null} if no price service is configured or no price is
+   *         available
+   */
+  public PriceDatum getLatestPrice() {
+    final PriceService s = priceService;
+    return (s != null ? s.getLatestPrice() : null);
+  }
+
+  /**
+   * Get statistics on the prices recently received from the exchange.
+   * 
+   * @return the statistics, or {@literal null} if no price service is configured or no recent
+   *         price is available
+   */
+  public PriceStatistics getRecentPriceStatistics() {
+    final PriceService s = priceService;
+    return (s != null ? s.getRecentPriceStatistics() : null);
+  }
+
+  private double latestPriceValue() {
+    PriceDatum d = getLatestPrice();
+    return (d != null
+        ? ProtobufUtils.decimalValue(d.getPriceComponents().getApparentEnergyPrice()).doubleValue()
+        : Double.NaN);
+  }
+
+  private double averagePriceValue() {
+    PriceStatistics stats = getRecentPriceStatistics();
+    return (stats != null ? stats.getAverage().doubleValue() : Double.NaN);
+  }
+
+  private PriceMapOfferEventEntity existingOfferEvent(UUID offerId) {
+    final RecentKeyCache<UUID, PriceMapOfferEventEntity> recent = recentOffers();
+    PriceMapOfferEventEntity event = recent.get(offerId);
+    if (event != null) {
+      return event;
     }
-    if (offerPriceMap.responseTime().min().compareTo(priceMap.responseTime().min()) < 0) {
-      // minimum response time too short
-      log.info(
-          "Price map offer {} not supported by price map {} because response time minmum too short",
-          event.getId(), supportedPriceMap.getId());
+    if (!recent.mightContain(offerId)) {
+      // not received within the filter window; the offer event primary key is the backstop
       return null;
     }
-    if (offerPriceMap.responseTime().max().compareTo(priceMap.responseTime().max()) < 0) {
-      // minimum response time too short
-      // CHECKSTYLE IGNORE LineLength FOR NEXT 2 LINES
-      log.info(
-          "Price map offer {} not supported by price map {} because response time maximum too short",
-          event.getId(), supportedPriceMap.getId());
+    event = offerEventDao.findById(offerId).orElse(null);
+    if (event == null) {
+      event = archivedOfferEvent(offerId);
+    }
+    if (event != null) {
+      recent.put(offerId, event);
+    }
+    return event;
+  }
+
+  private PriceMapOfferEventEntity archivedOfferEvent(UUID offerId) {
+    if (offerEventArchiveDao == null) {
       return null;
     }
-    if (offerPriceMap.priceComponents().apparentEnergyPrice()
-        .compareTo(priceMap.priceComponents().apparentEnergyPrice()) < 0) {
-      // price too low
-      log.info("Price map offer {} not supported by price map {} because price too low; countering",
-          event.getId(), supportedPriceMap.getId());
+    return offerEventArchiveDao.findById(offerId).map(DaoPriceMapService::eventForArchive)
+        .orElse(null);
+  }
+
+  private static PriceMapOfferEventEntity eventForArchive(PriceMapOfferEventArchiveEntity archive) {
+    PriceMapOfferEventEntity event = new PriceMapOfferEventEntity(archive.getCreated(),
+        archive.getId());
+    event.setStartDate(archive.getStartDate());
+    event.setAccepted(archive.isAccepted());
+    event.setCompletedSuccessfully(archive.isCompletedSuccessfully());
+    event.setExecutionState(archive.getExecutionState());
+    event.setMessage(archive.getMessage());
+    event.setPriceMap(new PriceMapEntity(archive.getCreated(), archive.getPriceMap()));
+    if (archive.getCounterOffer() != null) {
+      event.setCounterOffer(new PriceMapEntity(archive.getCreated(), archive.getCounterOffer()));
+    }
+    return event;
+  }
+
+  private RecentKeyCache<UUID, PriceMapOfferEventEntity> recentOffers() {
+    RecentKeyCache<UUID, PriceMapOfferEventEntity> c = recentOffers;
+    if (c == null) {
+      c = loadRecentOffers();
+    }
+    return c;
+  }
 
-      // heck, let's propose our price, and see what happens
-      PriceMapEmbed counterOffer = offerPriceMap.copy();
-      counterOffer.priceComponents()
-          .setApparentEnergyPrice(priceMap.priceComponents().apparentEnergyPrice());
+  private synchronized RecentKeyCache<UUID, PriceMapOfferEventEntity> loadRecentOffers() {
+    RecentKeyCache<UUID, PriceMapOfferEventEntity> c = recentOffers;
+    if (c == null) {
+      final Instant since = Instant.now().minus(offerFilterWindow);
+      List<UUID> ids = new ArrayList<>(offerEventDao.findIdsCreatedSince(since));
+      if (offerEventArchiveDao != null) {
+        ids.addAll(offerEventArchiveDao.findIdsCreatedSince(since));
+      }
+      c = new RecentKeyCache<>(RecentKeyCache.DEFAULT_CAPACITY,
+          Math.max(offerFilterCapacity, ids.size()), RecentKeyCache.DEFAULT_FALSE_POSITIVE_RATE);
+      for (UUID id : ids) {
+        c.add(id);
+      }
+      log.debug("Seeded recent price map offer filter with {} offer IDs created since {}",
+          ids.size(), since);
+      recentOffers = c;
+    }
+    return c;
+  }
 
-      return counterOffer;
+  private PriceMapMatcher<PriceMapEntity> priceMapMatcher() {
+    PriceMapMatcher<PriceMapEntity> m = priceMapMatcher;
+    if (m == null) {
+      m = refreshPriceMaps();
     }
-    // sure, we can accept this offer
-    log.info("Price map offer [{}] is accptable to [{}]", offerPriceMap.getInfo(),
-        priceMap.getInfo());
-    return offerPriceMap;
+    return m;
+  }
+
+  /**
+   * Rebuild the price map matcher from the current facility price map settings.
+   * 
+   * @return the new matcher
+   */
+  public synchronized PriceMapMatcher<PriceMapEntity> refreshPriceMaps() {
+    PriceMapMatcher<PriceMapEntity> m = PriceMapMatcher.of(facilityService.getPriceMaps(),
+        PriceMapEntity::priceMap, false);
+    log.debug("Indexed {} facility price maps for offer matching", m.size());
+    priceMapMatcher = m;
+    return m;
+  }
+
+  /**
+   * Rebuild the price map matcher when the facility price map settings change.
+   * 
+   * @param event
+   *        the event
+   */
+  @EventListener
+  public void handlePriceMapsChanged(PriceMapsChanged event) {
+    refreshPriceMaps();
   }
 
   private void publishEvent(ApplicationEvent event) {
@@ -200,4 +399,96 @@ public class DaoPriceMapService implements PriceMapService {
     this.eventPublisher = eventPublisher;
   }
 
+  /**
+   * Set the offer event archive DAO to look for offers already received in.
+   * 
+   * <p>
+   * If not configured, an offer whose event has been archived is treated as a new offer. The IDs
+   * of the archived events created within the {@code offerFilterWindow} are added to the recent
+   * offer filter when the first offer is received.
+   * </p>
+   * 
+   * @param offerEventArchiveDao
+   *        the archive DAO to use
+   */
+  public void setOfferEventArchiveDao(PriceMapOfferEventArchiveEntityDao offerEventArchiveDao) {
+    this.offerEventArchiveDao = offerEventArchiveDao;
+  }
+
+  /**
+   * Set the age of the stored offer events to seed the recent offer filter with.
+   * 
+   * <p>
+   * This should be at least as long as the offer event retention period, so the filter does not
+   * forget an offer that might still be sent again.
+   * </p>
+   * 
+   * @param offerFilterWindow
+   *        the window; defaults to {@link #DEFAULT_OFFER_FILTER_WINDOW}
+   */
+  public void setOfferFilterWindow(Duration offerFilterWindow) {
+    this.offerFilterWindow = offerFilterWindow;
+  }
+
+  /**
+   * Set the minimum number of offer IDs the recent offer filter remembers.
+   * 
+   * <p>
+   * The filter is grown to the number of IDs seeded from the {@code offerFilterWindow} if that is
+   * larger. This should be at least the number of offers expected within that window.
+   * </p>
+   * 
+   * @param offerFilterCapacity
+   *        the capacity; defaults to {@link RecentKeyCache#DEFAULT_FILTER_CAPACITY}
+   */
+  public void setOfferFilterCapacity(int offerFilterCapacity) {
+    this.offerFilterCapacity = offerFilterCapacity;
+  }
+
+  /**
+   * Set the service to get prices received from the exchange from.
+   * 
+   * <p>
+   * The recent price statistics are logged along with each offer received, and published as
+   * metrics if a meter registry is configured.
+   * </p>
+   * 
+   * @param priceService
+   *        the price service to use
+   */
+  public void setPriceService(PriceService priceService) {
+    this.priceService = priceService;
+  }
+
+  /**
+   * Set a meter registry to publish offer metrics to.
+   * 
+   * <p>
+   * This registers a gauge for {@link #getAverageNegotiationRounds()}, along with counters for
+   * accepted, countered, and declined offers, and gauges for the latest and recent average
+   * received price.
+   * </p>
+   * 
+   * @param meterRegistry
+   *        the registry to use
+   */
+  public void setMeterRegistry(MeterRegistry meterRegistry) {
+    if (meterRegistry == null) {
+      return;
+    }
+    Gauge.builder(METRIC_PREFIX + ".negotiation.rounds", this,
+        s -> s.getAverageNegotiationRounds())
+        .description("Average number of offers received per completed negotiation")
+        .register(meterRegistry);
+    Gauge.builder(PRICE_METRIC_PREFIX + ".latest", this, DaoPriceMapService::latestPriceValue)
+        .description("Latest apparent energy price received from the exchange")
+        .register(meterRegistry);
+    Gauge.builder(PRICE_METRIC_PREFIX + ".average", this, DaoPriceMapService::averagePriceValue)
+        .description("Average apparent energy price recently received from the exchange")
+        .register(meterRegistry);
+    acceptedCounter = meterRegistry.counter(METRIC_PREFIX + ".accepted");
+    counteredCounter = meterRegistry.counter(METRIC_PREFIX + ".countered");
+    declinedCounter = meterRegistry.counter(METRIC_PREFIX + ".declined");
+  }
+
 }
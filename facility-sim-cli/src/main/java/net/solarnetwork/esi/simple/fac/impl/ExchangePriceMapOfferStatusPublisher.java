@@ -0,0 +1,344 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.fac.impl;
+
+import static java.util.Arrays.asList;
+import static net.solarnetwork.esi.util.CryptoUtils.generateMessageSignature;
+import static net.solarnetwork.esi.util.CryptoUtils.validateMessageSignature;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.TaskScheduler;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import net.solarnetwork.esi.domain.DerRoute;
+import net.solarnetwork.esi.domain.PriceMapOfferStatus;
+import net.solarnetwork.esi.domain.PriceMapOfferStatusResponse;
+import net.solarnetwork.esi.domain.support.ProtobufUtils;
+import net.solarnetwork.esi.domain.support.SignableMessage;
+import net.solarnetwork.esi.grpc.ChannelProvider;
+import net.solarnetwork.esi.grpc.CompletableStreamObserver;
+import net.solarnetwork.esi.service.DerFacilityExchangeGrpc;
+import net.solarnetwork.esi.service.DerFacilityExchangeGrpc.DerFacilityExchangeStub;
+import net.solarnetwork.esi.simple.fac.domain.ExchangeEntity;
+import net.solarnetwork.esi.simple.fac.domain.PriceMapOfferExecutionState;
+import net.solarnetwork.esi.simple.fac.domain.PriceMapOfferNotification.PriceMapOfferExecutionStateChanged;
+import net.solarnetwork.esi.simple.fac.service.FacilityService;
+import net.solarnetwork.esi.util.CoalescingPublisher;
+
+/**
+ * Publishes price map offer execution state changes to the exchange.
+ * 
+ * <p>
+ * State changes are handed to a {@link CoalescingPublisher} keyed by offer ID, so the event
+ * listener never blocks: rapid transitions of one offer collapse into its latest state, each offer
+ * has at most one status update in flight, and updates are sent asynchronously over a single
+ * channel that is reused until the exchange endpoint changes.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class ExchangePriceMapOfferStatusPublisher {
+
+  /** The prefix used for all metric names. */
+  public static final String METRIC_PREFIX = "esi.fac.offer.status";
+
+  /** The default status update call timeout, in milliseconds. */
+  public static final long DEFAULT_RPC_TIMEOUT_MS = 10000L;
+
+  private static final Logger log = LoggerFactory
+      .getLogger(ExchangePriceMapOfferStatusPublisher.class);
+
+  private final FacilityService facilityService;
+  private final ChannelProvider exchangeChannelProvider;
+  private final CoalescingPublisher<UUID, PriceMapOfferExecutionState> publisher;
+
+  private long rpcTimeoutMs = DEFAULT_RPC_TIMEOUT_MS;
+  private URI channelUri;
+  private ManagedChannel channel;
+
+  /**
+   * Constructor.
+   * 
+   * @param facilityService
+   *        the facility service
+   * @param exchangeChannelProvider
+   *        the channel provider to use for connecting to the exchange
+   * @param taskScheduler
+   *        the scheduler to retry failed updates with
+   * @throws IllegalArgumentException
+   *         if any argument is {@literal null}
+   */
+  public ExchangePriceMapOfferStatusPublisher(FacilityService facilityService,
+      ChannelProvider exchangeChannelProvider, TaskScheduler taskScheduler) {
+    super();
+    if (facilityService == null) {
+      throw new IllegalArgumentException("The facility service must be provided.");
+    }
+    if (exchangeChannelProvider == null) {
+      throw new IllegalArgumentException("The exchange channel provider must be provided.");
+    }
+    this.facilityService = facilityService;
+    this.exchangeChannelProvider = exchangeChannelProvider;
+    this.publisher = new CoalescingPublisher<>(taskScheduler, this::providePriceMapOfferStatus);
+  }
+
+  /**
+   * Release the exchange channel.
+   */
+  public synchronized void shutdown() {
+    if (channel != null) {
+      channel.shutdown();
+      channel = null;
+      channelUri = null;
+    }
+  }
+
+  /**
+   * Handle a price map offer execution state change.
+   * 
+   * @param event
+   *        the event
+   */
+  @EventListener
+  public void handlePriceMapOfferExecutionStateChanged(PriceMapOfferExecutionStateChanged event) {
+    publish(event.getOfferEvent().getId(), event.getNewState());
+  }
+
+  /**
+   * Queue the execution state of an offer for publishing to the exchange.
+   * 
+   * @param offerId
+   *        the ID of the offer
+   * @param executionState
+   *        the execution state
+   */
+  public void publish(UUID offerId, PriceMapOfferExecutionState executionState) {
+    publisher.publish(offerId, executionState);
+  }
+
+  private CompletableFuture<?> providePriceMapOfferStatus(UUID offerId,
+      PriceMapOfferExecutionState executionState) {
+    ExchangeEntity exchange = facilityService.getExchange();
+    if (exchange == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+    PriceMapOfferStatus.Status status = offerStatus(executionState);
+    log.info("Provding price map offer {} status {} to exchange {}", offerId, status,
+        exchange.getId());
+
+    ByteBuffer signatureData = ByteBuffer
+        .allocate(SignableMessage.uuidSignatureMessageSize() + Integer.BYTES);
+    SignableMessage.addUuidSignatureMessageBytes(signatureData, offerId);
+    signatureData.putInt(status.getNumber());
+
+    // @formatter:off
+    PriceMapOfferStatus pmoStatus = PriceMapOfferStatus.newBuilder()
+        .setOfferId(ProtobufUtils.uuidForUuid(offerId))
+        .setStatus(status)
+        .setRoute(DerRoute.newBuilder()
+            .setExchangeUid(exchange.getId())
+            .setFacilityUid(facilityService.getUid())
+            .setSignature(generateMessageSignature(facilityService.getCryptoHelper(), 
+                facilityService.getKeyPair(), exchange.publicKey(), asList(
+                    exchange.getId(),
+                    facilityService.getUid(),
+                    signatureData)))
+            .build())
+        .build();
+    // @formatter:on
+
+    CompletableFuture<PriceMapOfferStatusResponse> result = new CompletableFuture<>();
+    ManagedChannel channel = channel(URI.create(exchange.getExchangeEndpointUri()));
+    DerFacilityExchangeStub stub = DerFacilityExchangeGrpc.newStub(channel)
+        .withDeadlineAfter(rpcTimeoutMs, TimeUnit.MILLISECONDS);
+    stub.providePriceMapOfferStatus(pmoStatus,
+        new CompletableStreamObserver<PriceMapOfferStatusResponse, PriceMapOfferStatusResponse>(
+            result) {
+
+          @Override
+          public void onNext(PriceMapOfferStatusResponse response) {
+            try {
+              ByteBuffer responseSignatureData = ByteBuffer
+                  .allocate(SignableMessage.uuidSignatureMessageSize()
+                      + SignableMessage.booleanSignatureMessageSize());
+              SignableMessage.addUuidSignatureMessageBytes(responseSignatureData, offerId);
+              SignableMessage.addBooleanSignatureMessageBytes(responseSignatureData,
+                  response.getAccepted());
+
+              // @formatter:off
+              validateMessageSignature(facilityService.getCryptoHelper(),
+                  response.getRoute().getSignature(), facilityService.getKeyPair(),
+                  exchange.publicKey(), asList(exchange.getId(),
+                      facilityService.getUid(),
+                      responseSignatureData
+                      ));
+              // @formatter:on
+
+              log.info(
+                  "Successfully published price map offer {} status {} to exchange {}, "
+                      + "update was {}",
+                  offerId, executionState, exchange.getId(),
+                  response.getAccepted() ? "accepted" : "rejected");
+              getFuture().complete(response);
+            } catch (RuntimeException e) {
+              getFuture().completeExceptionally(e);
+            }
+          }
+
+          @Override
+          public void onError(Throwable t) {
+            if (t instanceof StatusRuntimeException && ((StatusRuntimeException) t).getStatus()
+                .getCode() == Status.Code.INVALID_ARGUMENT) {
+              super.onError(new IllegalArgumentException(
+                  ((StatusRuntimeException) t).getStatus().getDescription()));
+            } else {
+              super.onError(t);
+            }
+          }
+
+          @Override
+          public void onCompleted() {
+            getFuture().complete(null);
+          }
+
+        });
+    return result;
+  }
+
+  private synchronized ManagedChannel channel(URI uri) {
+    if (channel == null || !uri.equals(channelUri)) {
+      if (channel != null) {
+        channel.shutdown();
+      }
+      channel = exchangeChannelProvider.channelForUri(uri);
+      channelUri = uri;
+    }
+    return channel;
+  }
+
+  private static PriceMapOfferStatus.Status offerStatus(
+      PriceMapOfferExecutionState executionState) {
+    switch (executionState) {
+      case ABORTED:
+      case COUNTERED:
+      case DECLINED:
+        return PriceMapOfferStatus.Status.REJECTED;
+
+      case WAITING:
+        return PriceMapOfferStatus.Status.ACCEPTED;
+
+      case EXECUTING:
+        return PriceMapOfferStatus.Status.EXECUTING;
+
+      case COMPLETED:
+        return PriceMapOfferStatus.Status.COMPLETED;
+
+      default:
+        return PriceMapOfferStatus.Status.UNKNOWN;
+    }
+  }
+
+  /**
+   * Get the number of offers with a status update waiting to be sent, being sent, or waiting to
+   * be retried.
+   * 
+   * @return the number of offers
+   */
+  public int getPendingCount() {
+    return publisher.getPendingCount();
+  }
+
+  /**
+   * Set the maximum number of status updates to have in flight at once.
+   * 
+   * @param maxInFlight
+   *        the maximum; defaults to {@link CoalescingPublisher#DEFAULT_MAX_IN_FLIGHT}
+   */
+  public void setMaxInFlight(int maxInFlight) {
+    publisher.setMaxInFlight(maxInFlight);
+  }
+
+  /**
+   * Set the maximum number of attempts to send a status update.
+   * 
+   * @param maxAttempts
+   *        the maximum; defaults to {@link CoalescingPublisher#DEFAULT_MAX_ATTEMPTS}
+   */
+  public void setMaxAttempts(int maxAttempts) {
+    publisher.setMaxAttempts(maxAttempts);
+  }
+
+  /**
+   * Set the delay before the first retry of a failed status update, which doubles for each
+   * further retry.
+   * 
+   * @param retryDelayMs
+   *        the delay, in milliseconds; defaults to
+   *        {@link CoalescingPublisher#DEFAULT_RETRY_DELAY_MS}
+   */
+  public void setRetryDelayMs(long retryDelayMs) {
+    publisher.setRetryDelayMs(retryDelayMs);
+  }
+
+  /**
+   * Set the maximum time to wait for the exchange to respond to a status update.
+   * 
+   * <p>
+   * A status update that times out is retried like any other failed update, so a hung exchange
+   * call does not hold one of the in-flight slots indefinitely.
+   * </p>
+   * 
+   * @param rpcTimeoutMs
+   *        the timeout, in milliseconds; defaults to {@link #DEFAULT_RPC_TIMEOUT_MS}
+   */
+  public void setRpcTimeoutMs(long rpcTimeoutMs) {
+    this.rpcTimeoutMs = rpcTimeoutMs;
+  }
+
+  /**
+   * Set a meter registry to publish metrics to.
+   * 
+   * @param meterRegistry
+   *        the registry to use
+   */
+  public void setMeterRegistry(MeterRegistry meterRegistry) {
+    if (meterRegistry == null) {
+      return;
+    }
+    Gauge.builder(METRIC_PREFIX + ".pending", publisher, CoalescingPublisher::getPendingCount)
+        .description("Number of offers with a status update not yet sent to the exchange")
+        .register(meterRegistry);
+    Gauge.builder(METRIC_PREFIX + ".inflight", publisher, CoalescingPublisher::getInFlightCount)
+        .description("Number of offer status updates being sent to the exchange")
+        .register(meterRegistry);
+  }
+
+}
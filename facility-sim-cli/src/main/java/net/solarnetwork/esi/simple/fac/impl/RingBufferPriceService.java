@@ -0,0 +1,331 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.simple.fac.impl;
+
+import static java.util.Arrays.asList;
+import static net.solarnetwork.esi.domain.support.ProtobufUtils.priceDatumSignatureMessageBytes;
+import static net.solarnetwork.esi.util.CryptoUtils.validateMessageSignature;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.solarnetwork.esi.domain.DerRoute;
+import net.solarnetwork.esi.domain.Money;
+import net.solarnetwork.esi.domain.PriceDatum;
+import net.solarnetwork.esi.domain.TimeUnit;
+import net.solarnetwork.esi.domain.support.PriceRingBuffer;
+import net.solarnetwork.esi.domain.support.PriceSpillFile;
+import net.solarnetwork.esi.domain.support.PriceStatistics;
+import net.solarnetwork.esi.simple.fac.domain.ExchangeEntity;
+import net.solarnetwork.esi.simple.fac.service.FacilityService;
+import net.solarnetwork.esi.simple.fac.service.PriceService;
+
+/**
+ * {@link PriceService} that keeps recent prices in memory, in a {@link PriceRingBuffer} per route.
+ * 
+ * <p>
+ * Prices are received in batches. Each batch is validated as a whole with a single exchange
+ * lookup, and the route signature of every price is validated against that price's date, time
+ * span, and value, so no price in a batch can be altered without failing the batch. The validated
+ * prices are then appended to the route's ring buffer without any database access, so the oldest
+ * prices are discarded once {@code capacity} prices have been received.
+ * </p>
+ * 
+ * <p>
+ * If a {@code spillDirectory} is configured, each batch is also appended to a compact
+ * {@link PriceSpillFile} per route, and the most recent prices in those files are loaded back into
+ * the ring buffers by {@link #startup()}. Once a spill file holds twice the ring buffer capacity it
+ * is compacted down to just the capacity, so it never holds more than the buffer could reload.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class RingBufferPriceService implements PriceService {
+
+  /**
+   * The default value for the {@code recentWindow} property.
+   */
+  public static final Duration DEFAULT_RECENT_WINDOW = Duration.ofHours(24);
+
+  /** The file name extension used for spill files. */
+  public static final String SPILL_FILE_EXTENSION = ".prices";
+
+  private final FacilityService facilityService;
+  private final ConcurrentMap<String, Route> routes;
+  private int capacity = PriceRingBuffer.DEFAULT_CAPACITY;
+  private Duration recentWindow = DEFAULT_RECENT_WINDOW;
+  private Path spillDirectory;
+
+  private static final Logger log = LoggerFactory.getLogger(RingBufferPriceService.class);
+
+  private static final class Route {
+
+    private final PriceRingBuffer buffer;
+    private final PriceSpillFile spill;
+
+    private Route(PriceRingBuffer buffer, PriceSpillFile spill) {
+      super();
+      this.buffer = buffer;
+      this.spill = spill;
+    }
+
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param facilityService
+   *        the facility service
+   * @throws IllegalArgumentException
+   *         if {@code facilityService} is {@literal null}
+   */
+  public RingBufferPriceService(FacilityService facilityService) {
+    super();
+    if (facilityService == null) {
+      throw new IllegalArgumentException("The facility service must be provided.");
+    }
+    this.facilityService = facilityService;
+    this.routes = new ConcurrentHashMap<>(4);
+  }
+
+  /**
+   * Load the prices saved in the configured spill directory.
+   */
+  public synchronized void startup() {
+    final Path dir = spillDirectory;
+    if (dir == null) {
+      return;
+    }
+    try {
+      Files.createDirectories(dir);
+    } catch (IOException e) {
+      log.error("Unable to create price spill directory {}: {}", dir, e.toString());
+      return;
+    }
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SPILL_FILE_EXTENSION)) {
+      for (Path file : files) {
+        loadSpillFile(file);
+      }
+    } catch (IOException e) {
+      log.error("Unable to list price spill directory {}: {}", dir, e.toString());
+    }
+  }
+
+  private void loadSpillFile(Path file) {
+    PriceSpillFile spill = null;
+    try {
+      spill = PriceSpillFile.open(file);
+      PriceRingBuffer buffer = new PriceRingBuffer(spill.getCurrencyCode(), capacity);
+      int count = spill.replay(buffer.getCapacity(), buffer::append);
+      spill.compact(buffer.getCapacity());
+      Route old = routes.put(spill.getKey(), new Route(buffer, spill));
+      if (old != null && old.spill != null) {
+        old.spill.close();
+      }
+      log.info("Loaded {} prices for route {} from {}", count, spill.getKey(), file);
+    } catch (IOException | RuntimeException e) {
+      log.error("Unable to load prices from {}: {}", file, e.toString());
+      if (spill != null) {
+        try {
+          spill.close();
+        } catch (IOException e2) {
+          // ignore
+        }
+      }
+    }
+  }
+
+  /**
+   * Close any open spill files.
+   */
+  public synchronized void shutdown() {
+    for (Route route : routes.values()) {
+      if (route.spill != null) {
+        try {
+          route.spill.close();
+        } catch (IOException e) {
+          log.warn("Error closing price spill file for {}: {}", route.spill.getKey(),
+              e.toString());
+        }
+      }
+    }
+  }
+
+  @Override
+  public void receivePrices(List<PriceDatum> prices) {
+    if (prices == null || prices.isEmpty()) {
+      return;
+    }
+    final ExchangeEntity exchange = facilityService.getExchange();
+    if (exchange == null) {
+      throw new IllegalArgumentException("No exchange registered.");
+    }
+    final String exchangeUid = exchange.getId();
+    final String facilityUid = facilityService.getUid();
+    final String currencyCode = validateBatch(prices, exchangeUid, facilityUid);
+
+    final PublicKey exchangeKey = exchange.publicKey();
+    for (PriceDatum d : prices) {
+      validateMessageSignature(facilityService.getCryptoHelper(), d.getRoute().getSignature(),
+          facilityService.getKeyPair(), exchangeKey,
+          asList(exchangeUid, facilityUid, priceDatumSignatureMessageBytes(d)));
+    }
+
+    final Route route = routes.computeIfAbsent(exchangeUid, k -> createRoute(k, currencyCode));
+    if (!route.buffer.getCurrencyCode().equals(currencyCode)) {
+      throw new IllegalArgumentException("The price currency " + currencyCode
+          + " does not match the route currency " + route.buffer.getCurrencyCode() + ".");
+    }
+    for (PriceDatum d : prices) {
+      Money price = d.getPriceComponents().getApparentEnergyPrice();
+      route.buffer.append(d.getTs().getSeconds() * 1000L + d.getTs().getNanos() / 1000000,
+          d.getTimeLength(), d.getTimeUnit(), price.getUnits(), price.getNanos());
+    }
+    if (route.spill != null) {
+      try {
+        route.spill.append(prices);
+        final int max = route.buffer.getCapacity();
+        if (route.spill.getCount() >= 2L * max) {
+          route.spill.compact(max);
+        }
+      } catch (IOException e) {
+        log.warn("Error spilling {} prices for route {}: {}", prices.size(), exchangeUid,
+            e.toString());
+      }
+    }
+  }
+
+  private static String validateBatch(List<PriceDatum> prices, String exchangeUid,
+      String facilityUid) {
+    String currencyCode = null;
+    for (PriceDatum d : prices) {
+      if (!d.hasRoute()) {
+        throw new IllegalArgumentException("Route missing.");
+      }
+      DerRoute route = d.getRoute();
+      if (!exchangeUid.equals(route.getExchangeUid())) {
+        throw new IllegalArgumentException("Exchange UID not valid.");
+      }
+      if (!facilityUid.equals(route.getFacilityUid())) {
+        throw new IllegalArgumentException("Facility UID not valid.");
+      }
+      if (!d.hasTs()) {
+        throw new IllegalArgumentException("Price timestamp missing.");
+      }
+      if (d.getTimeUnit() == TimeUnit.UNRECOGNIZED) {
+        throw new IllegalArgumentException("Price time unit not valid.");
+      }
+      if (d.getTimeLength() < 0 || d.getTimeLength() > PriceRingBuffer.MAX_TIME_LENGTH) {
+        throw new IllegalArgumentException("Price time length not valid.");
+      }
+      if (!d.hasPriceComponents() || !d.getPriceComponents().hasApparentEnergyPrice()) {
+        throw new IllegalArgumentException("Price apparent energy price missing.");
+      }
+      String c = d.getPriceComponents().getApparentEnergyPrice().getCurrencyCode();
+      if (c == null || c.isEmpty()) {
+        throw new IllegalArgumentException("Price currency code missing.");
+      }
+      if (currencyCode == null) {
+        currencyCode = c;
+      } else if (!currencyCode.equals(c)) {
+        throw new IllegalArgumentException("Price currency codes must not differ.");
+      }
+    }
+    return currencyCode;
+  }
+
+  private Route createRoute(String key, String currencyCode) {
+    PriceRingBuffer buffer = new PriceRingBuffer(currencyCode, capacity);
+    PriceSpillFile spill = null;
+    final Path dir = spillDirectory;
+    if (dir != null) {
+      Path file = dir.resolve(key.replaceAll("[^A-Za-z0-9_.-]", "_") + SPILL_FILE_EXTENSION);
+      try {
+        Files.createDirectories(dir);
+        spill = PriceSpillFile.create(file, key, currencyCode);
+      } catch (IOException e) {
+        log.error("Unable to create price spill file {}: {}", file, e.toString());
+      }
+    }
+    return new Route(buffer, spill);
+  }
+
+  private PriceRingBuffer buffer() {
+    ExchangeEntity exchange = facilityService.getExchange();
+    Route route = (exchange != null ? routes.get(exchange.getId()) : null);
+    return (route != null ? route.buffer : null);
+  }
+
+  @Override
+  public PriceDatum getLatestPrice() {
+    PriceRingBuffer buffer = buffer();
+    return (buffer != null ? buffer.latest() : null);
+  }
+
+  @Override
+  public PriceStatistics getRecentPriceStatistics() {
+    PriceRingBuffer buffer = buffer();
+    return (buffer != null
+        ? buffer.statistics(System.currentTimeMillis() - recentWindow.toMillis())
+        : null);
+  }
+
+  /**
+   * Set the maximum number of recent prices to keep per route.
+   * 
+   * @param capacity
+   *        the capacity, which will be rounded up to a power of two; defaults to
+   *        {@link PriceRingBuffer#DEFAULT_CAPACITY}
+   */
+  public void setCapacity(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Set the time window of recent prices to compute statistics on.
+   * 
+   * @param recentWindow
+   *        the window; defaults to {@link #DEFAULT_RECENT_WINDOW}
+   */
+  public void setRecentWindow(Duration recentWindow) {
+    this.recentWindow = (recentWindow != null ? recentWindow : DEFAULT_RECENT_WINDOW);
+  }
+
+  /**
+   * Set a directory to save received prices to.
+   * 
+   * @param spillDirectory
+   *        the directory, or {@literal null} to keep prices only in memory
+   */
+  public void setSpillDirectory(Path spillDirectory) {
+    this.spillDirectory = spillDirectory;
+  }
+
+}
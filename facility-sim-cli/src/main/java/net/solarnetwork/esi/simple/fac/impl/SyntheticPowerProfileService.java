@@ -0,0 +1,296 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.simple.fac.impl;
+
+import static java.util.Arrays.asList;
+import static net.solarnetwork.esi.util.CryptoUtils.validateMessageSignature;
+
+import com.google.protobuf.Timestamp;
+
+import net.solarnetwork.esi.domain.DatumRequest;
+import net.solarnetwork.esi.domain.DerRoute;
+import net.solarnetwork.esi.domain.PowerProfileDatum;
+import net.solarnetwork.esi.domain.TimeUnit;
+import net.solarnetwork.esi.domain.TimestampRange;
+import net.solarnetwork.esi.domain.support.PowerProfileAggregator;
+import net.solarnetwork.esi.grpc.FlowControlledStreamer.Source;
+import net.solarnetwork.esi.simple.fac.domain.ExchangeEntity;
+import net.solarnetwork.esi.simple.fac.service.FacilityService;
+import net.solarnetwork.esi.simple.fac.service.PowerProfileService;
+
+/**
+ * {@link PowerProfileService} that generates a synthetic power profile.
+ * 
+ * <p>
+ * The profile follows a daily cycle in UTC: real power varies sinusoidally by {@code amplitude}
+ * around {@code basePower}, peaking at noon, with a pseudo-random {@code noise} fraction of
+ * {@code basePower} added to each sample. Reactive power is derived from the real power using
+ * {@code powerFactor}. Samples are produced every {@code sampleIntervalMs} and depend only on their
+ * timestamp, so the same request always produces the same profile. Samples are generated as they
+ * are aggregated, so any time range can be streamed in constant memory.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class SyntheticPowerProfileService implements PowerProfileService {
+
+  /**
+   * The default value for the {@code basePower} property.
+   */
+  public static final double DEFAULT_BASE_POWER = 5000.0;
+
+  /**
+   * The default value for the {@code amplitude} property.
+   */
+  public static final double DEFAULT_AMPLITUDE = 3000.0;
+
+  /**
+   * The default value for the {@code noise} property.
+   */
+  public static final double DEFAULT_NOISE = 0.1;
+
+  /**
+   * The default value for the {@code powerFactor} property.
+   */
+  public static final double DEFAULT_POWER_FACTOR = 0.95;
+
+  /**
+   * The default value for the {@code sampleIntervalMs} property.
+   */
+  public static final long DEFAULT_SAMPLE_INTERVAL_MS = 300000L;
+
+  private static final long DAY_MS = 86400000L;
+
+  private final FacilityService facilityService;
+  private double basePower = DEFAULT_BASE_POWER;
+  private double amplitude = DEFAULT_AMPLITUDE;
+  private double noise = DEFAULT_NOISE;
+  private double reactiveRatio = reactiveRatio(DEFAULT_POWER_FACTOR);
+  private long sampleIntervalMs = DEFAULT_SAMPLE_INTERVAL_MS;
+
+  /**
+   * Constructor.
+   * 
+   * @param facilityService
+   *        the facility service
+   * @throws IllegalArgumentException
+   *         if {@code facilityService} is {@literal null}
+   */
+  public SyntheticPowerProfileService(FacilityService facilityService) {
+    super();
+    if (facilityService == null) {
+      throw new IllegalArgumentException("The facility service must be provided.");
+    }
+    this.facilityService = facilityService;
+  }
+
+  @Override
+  public Source<PowerProfileDatum> listPowerProfile(DatumRequest request) {
+    if (request == null || !request.hasRoute()) {
+      throw new IllegalArgumentException("Route missing.");
+    }
+    final ExchangeEntity exchange = facilityService.getExchange();
+    if (exchange == null) {
+      throw new IllegalArgumentException("No exchange registered.");
+    }
+    final String exchangeUid = exchange.getId();
+    final String facilityUid = facilityService.getUid();
+    final DerRoute route = request.getRoute();
+    if (!exchangeUid.equals(route.getExchangeUid())) {
+      throw new IllegalArgumentException("Exchange UID not valid.");
+    }
+    if (!facilityUid.equals(route.getFacilityUid())) {
+      throw new IllegalArgumentException("Facility UID not valid.");
+    }
+    validateMessageSignature(facilityService.getCryptoHelper(), route.getSignature(),
+        facilityService.getKeyPair(), exchange.publicKey(), asList(exchangeUid, facilityUid));
+
+    final TimeUnit timeUnit = request.getTimeUnit();
+    if (timeUnit == TimeUnit.UNRECOGNIZED) {
+      throw new IllegalArgumentException("Time unit not valid.");
+    }
+    if (!request.hasTimeRange()) {
+      // MOST_RECENT
+      final long now = Math.floorDiv(System.currentTimeMillis(), sampleIntervalMs)
+          * sampleIntervalMs;
+      return new PowerProfileAggregator(new GeneratedSamples(now, now + 1), TimeUnit.INSTANT, 0);
+    }
+
+    final TimestampRange range = request.getTimeRange();
+    if (!range.hasMin()) {
+      throw new IllegalArgumentException("Time range minimum missing.");
+    }
+    final long start = millis(range.getMin());
+    final long end = (range.hasMax() ? millis(range.getMax()) : System.currentTimeMillis());
+    if (start >= end) {
+      throw new IllegalArgumentException("Time range minimum must be before maximum.");
+    }
+    return new PowerProfileAggregator(new GeneratedSamples(start, end), timeUnit,
+        request.getTimeUnitCoalescence());
+  }
+
+  private static long millis(Timestamp ts) {
+    return ts.getSeconds() * 1000L + ts.getNanos() / 1000000;
+  }
+
+  private static double reactiveRatio(double powerFactor) {
+    return Math.tan(Math.acos(powerFactor));
+  }
+
+  /**
+   * Get the synthetic real power at a given time.
+   * 
+   * @param timestamp
+   *        the time, in milliseconds since the epoch
+   * @return the real power, in watts
+   */
+  public double realPower(long timestamp) {
+    final double dayFraction = Math.floorMod(timestamp, DAY_MS) / (double) DAY_MS;
+    final double cycle = Math.sin(2 * Math.PI * (dayFraction - 0.25));
+    return basePower + amplitude * cycle + noise * basePower * pseudoRandom(timestamp);
+  }
+
+  /**
+   * Get the synthetic reactive power at a given time.
+   * 
+   * @param timestamp
+   *        the time, in milliseconds since the epoch
+   * @return the reactive power, in volt-amperes reactive
+   */
+  public double reactivePower(long timestamp) {
+    return realPower(timestamp) * reactiveRatio;
+  }
+
+  /**
+   * Get a pseudo-random value derived from a timestamp.
+   * 
+   * @param timestamp
+   *        the timestamp
+   * @return the value, between {@literal -1} and {@literal 1}
+   */
+  private static double pseudoRandom(long timestamp) {
+    long z = timestamp + 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    z = z ^ (z >>> 31);
+    return (z >>> 11) * 0x1.0p-52 - 1.0;
+  }
+
+  /**
+   * Samples generated every {@code sampleIntervalMs} over a time range.
+   */
+  private final class GeneratedSamples implements PowerProfileAggregator.Samples {
+
+    private final long end;
+    private long timestamp;
+
+    private GeneratedSamples(long start, long end) {
+      super();
+      this.end = end;
+      // start at the first sample on or after start
+      this.timestamp = Math.floorDiv(start + sampleIntervalMs - 1, sampleIntervalMs)
+          * sampleIntervalMs - sampleIntervalMs;
+    }
+
+    @Override
+    public boolean next() {
+      timestamp += sampleIntervalMs;
+      return timestamp < end;
+    }
+
+    @Override
+    public long timestamp() {
+      return timestamp;
+    }
+
+    @Override
+    public double realPower() {
+      return SyntheticPowerProfileService.this.realPower(timestamp);
+    }
+
+    @Override
+    public double reactivePower() {
+      return SyntheticPowerProfileService.this.reactivePower(timestamp);
+    }
+
+  }
+
+  /**
+   * Set the average real power.
+   * 
+   * @param basePower
+   *        the base power, in watts; defaults to {@link #DEFAULT_BASE_POWER}
+   */
+  public void setBasePower(double basePower) {
+    this.basePower = basePower;
+  }
+
+  /**
+   * Set the daily variation of real power around the base power.
+   * 
+   * @param amplitude
+   *        the amplitude, in watts; defaults to {@link #DEFAULT_AMPLITUDE}
+   */
+  public void setAmplitude(double amplitude) {
+    this.amplitude = amplitude;
+  }
+
+  /**
+   * Set the maximum random variation of each sample, as a fraction of the base power.
+   * 
+   * @param noise
+   *        the noise fraction, or {@literal 0} for no noise; defaults to {@link #DEFAULT_NOISE}
+   */
+  public void setNoise(double noise) {
+    this.noise = noise;
+  }
+
+  /**
+   * Set the power factor used to derive reactive power from real power.
+   * 
+   * @param powerFactor
+   *        the power factor, greater than {@literal 0} and at most {@literal 1}; defaults to
+   *        {@link #DEFAULT_POWER_FACTOR}
+   * @throws IllegalArgumentException
+   *         if {@code powerFactor} is out of range
+   */
+  public void setPowerFactor(double powerFactor) {
+    if (!(powerFactor > 0 && powerFactor <= 1)) {
+      throw new IllegalArgumentException("The power factor must be between 0 and 1.");
+    }
+    this.reactiveRatio = reactiveRatio(powerFactor);
+  }
+
+  /**
+   * Set the time between generated samples.
+   * 
+   * @param sampleIntervalMs
+   *        the interval, in milliseconds; defaults to {@link #DEFAULT_SAMPLE_INTERVAL_MS}
+   * @throws IllegalArgumentException
+   *         if {@code sampleIntervalMs} is less than {@literal 1}
+   */
+  public void setSampleIntervalMs(long sampleIntervalMs) {
+    if (sampleIntervalMs < 1) {
+      throw new IllegalArgumentException("The sample interval must be at least 1.");
+    }
+    this.sampleIntervalMs = sampleIntervalMs;
+  }
+
+}
@@ -0,0 +1,50 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.simple.fac.service;
+
+import net.solarnetwork.esi.domain.DatumRequest;
+import net.solarnetwork.esi.domain.PowerProfileDatum;
+import net.solarnetwork.esi.grpc.FlowControlledStreamer.Source;
+
+/**
+ * API for providing the facility power profile to the exchange.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public interface PowerProfileService {
+
+  /**
+   * List the power profile of the facility.
+   * 
+   * <p>
+   * The request is validated when this method is called, but the power profile datum are produced
+   * lazily as they are read from the returned source, so a long time range can be streamed without
+   * holding all of its datum in memory.
+   * </p>
+   * 
+   * @param request
+   *        the request, with a route signed by the registered exchange
+   * @return the power profile datum source, never {@literal null}
+   * @throws IllegalArgumentException
+   *         if the request is not valid
+   */
+  Source<PowerProfileDatum> listPowerProfile(DatumRequest request);
+
+}
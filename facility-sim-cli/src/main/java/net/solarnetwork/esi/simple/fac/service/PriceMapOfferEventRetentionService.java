@@ -0,0 +1,52 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.simple.fac.service;
+
+import java.time.Instant;
+
+/**
+ * API for a service that moves old price map offer events out of the live tables.
+ * 
+ * <p>
+ * Offer events that have reached a final execution state and start before a retention cutoff date
+ * are copied into an archive table and then deleted, so the live offer event table only holds
+ * recent and pending offers.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public interface PriceMapOfferEventRetentionService {
+
+  /**
+   * Archive all finished offer events that start before a given date.
+   * 
+   * @param date
+   *        the retention cutoff date
+   * @return the number of offer events archived
+   */
+  int archiveOfferEventsStartingBefore(Instant date);
+
+  /**
+   * Archive all finished offer events older than the configured retention period.
+   * 
+   * @return the number of offer events archived
+   */
+  int archiveExpiredOfferEvents();
+
+}
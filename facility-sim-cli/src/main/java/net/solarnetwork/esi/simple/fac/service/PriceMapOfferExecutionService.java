@@ -20,18 +20,36 @@ package net.solarnetwork.esi.simple.fac.service;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 
-import org.springframework.scheduling.annotation.Async;
-
 import net.solarnetwork.esi.simple.fac.domain.PriceMapOfferExecutionState;
 
 /**
  * API for executing price map offers.
  * 
+ * <p>
+ * The execution methods may block while they communicate with the devices that perform the offer,
+ * so callers are expected to invoke them off of any latency-sensitive thread. Executions that share
+ * the same {@link #executionKey(UUID)} must be invoked one at a time, in order.
+ * </p>
+ * 
  * @author matt
  * @version 1.0
  */
 public interface PriceMapOfferExecutionService {
 
+  /**
+   * Get a key for the resource that executes a price map offer event.
+   * 
+   * <p>
+   * Executions of offer events with the same key must not be performed concurrently, while events
+   * with different keys may be.
+   * </p>
+   * 
+   * @param offerId
+   *        the ID of the event to get the key for
+   * @return the key, never {@literal null}
+   */
+  String executionKey(UUID offerId);
+
   /**
    * Execute a price offer event.
    * 
@@ -39,7 +57,6 @@ public interface PriceMapOfferExecutionService {
    *        the ID of the event to execute
    * @return TODO
    */
-  @Async
   CompletableFuture<?> executePriceMapOfferEvent(UUID offerId);
 
   /**
@@ -52,7 +69,6 @@ public interface PriceMapOfferExecutionService {
    *        or {@link PriceMapOfferExecutionState#ABORTED}
    * @return TODO
    */
-  @Async
   CompletableFuture<?> endPriceMapOfferEvent(UUID offerId, PriceMapOfferExecutionState newState);
 
 }
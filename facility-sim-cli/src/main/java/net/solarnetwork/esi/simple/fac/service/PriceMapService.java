@@ -48,4 +48,18 @@ public interface PriceMapService {
   @Nonnull
   PriceMapOfferEventEntity receivePriceMapOffer(PriceMapOffer offer);
 
+  /**
+   * Complete a negotiation that ended after a counter offer.
+   * 
+   * <p>
+   * A negotiation normally completes when the facility accepts or declines an offer. When the
+   * exchange instead replies to a counter offer by ending the offer stream, this method must be
+   * called so the negotiation is still counted as completed.
+   * </p>
+   * 
+   * @param event
+   *        the event of the last offer, for which a counter offer was proposed
+   */
+  void counterOfferNegotiationEnded(PriceMapOfferEventEntity event);
+
 }
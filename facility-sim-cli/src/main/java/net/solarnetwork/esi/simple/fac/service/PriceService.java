@@ -0,0 +1,63 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.simple.fac.service;
+
+import java.util.List;
+
+import net.solarnetwork.esi.domain.PriceDatum;
+import net.solarnetwork.esi.domain.support.PriceStatistics;
+
+/**
+ * API for receiving prices provided by the exchange.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public interface PriceService {
+
+  /**
+   * Receive a batch of prices.
+   * 
+   * <p>
+   * The batch is validated as a whole: if any price is not valid then none of the prices are
+   * stored.
+   * </p>
+   * 
+   * @param prices
+   *        the prices
+   * @throws IllegalArgumentException
+   *         if any price is not valid
+   */
+  void receivePrices(List<PriceDatum> prices);
+
+  /**
+   * Get the most recently received price from the registered exchange.
+   * 
+   * @return the price, or {@literal null} if no price is available
+   */
+  PriceDatum getLatestPrice();
+
+  /**
+   * Get statistics on the recently received prices from the registered exchange.
+   * 
+   * @return the statistics, or {@literal null} if no recent price is available
+   */
+  PriceStatistics getRecentPriceStatistics();
+
+}
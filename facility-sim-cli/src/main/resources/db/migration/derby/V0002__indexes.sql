@@ -0,0 +1 @@
+CREATE INDEX PRICE_MAP_OFFER_EVENTS_EXEC_STATE_IDX ON PRICE_MAP_OFFER_EVENTS (EXEC_STATE, START_AT);
@@ -0,0 +1,7 @@
+CREATE INDEX PRICE_MAP_OFFER_EVENTS_EXEC_STATE_IDX ON PRICE_MAP_OFFER_EVENTS (EXEC_STATE, START_AT);
+
+CREATE INDEX PRICE_MAP_OFFER_EVENTS_PRICE_MAP_IDX ON PRICE_MAP_OFFER_EVENTS (PRICE_MAP_ID);
+
+CREATE INDEX PRICE_MAP_OFFER_EVENTS_COUNTER_OFFER_IDX ON PRICE_MAP_OFFER_EVENTS (COUNTER_OFFER_ID);
+
+CREATE INDEX FAC_SETTINGS_PRICE_MAP_IDX ON FAC_SETTINGS (PRICE_MAP_ID);
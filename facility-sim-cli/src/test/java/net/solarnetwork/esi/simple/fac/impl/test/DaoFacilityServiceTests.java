@@ -27,8 +27,10 @@ import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
 import java.net.URI;
 import java.security.KeyPair;
@@ -41,6 +43,7 @@ import java.util.UUID;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
@@ -50,6 +53,8 @@ import net.solarnetwork.esi.simple.fac.dao.ExchangeEntityDao;
 import net.solarnetwork.esi.simple.fac.dao.FacilitySettingsEntityDao;
 import net.solarnetwork.esi.simple.fac.domain.ExchangeEntity;
 import net.solarnetwork.esi.simple.fac.domain.FacilitySettingsEntity;
+import net.solarnetwork.esi.simple.fac.domain.FacilitySettingsNotification.PriceMapsChanged;
+import net.solarnetwork.esi.simple.fac.domain.PriceMapEntity;
 import net.solarnetwork.esi.simple.fac.impl.DaoFacilityService;
 import net.solarnetwork.esi.util.CryptoUtils;
 
@@ -253,4 +258,26 @@ public class DaoFacilityServiceTests {
     assertThat("Entity saved", entity, sameInstance(settings));
     assertThat("Saved programs", entity.getProgramTypes(), equalTo(programs));
   }
+
+  @Test
+  public void savePriceMapPublishesEvent() {
+    // given
+    ApplicationEventPublisher eventPublisher = mock(ApplicationEventPublisher.class);
+    service.setEventPublisher(eventPublisher);
+
+    given(settingsDao.findAll(any(Pageable.class))).willReturn(new PageImpl<>(emptyList()));
+    given(settingsDao.save(any(FacilitySettingsEntity.class)))
+        .willAnswer(invocationArg(0, FacilitySettingsEntity.class));
+
+    // when
+    PriceMapEntity priceMap = new PriceMapEntity(Instant.now());
+    service.savePriceMap(priceMap);
+
+    // then
+    ArgumentCaptor<PriceMapsChanged> eventCaptor = ArgumentCaptor.forClass(PriceMapsChanged.class);
+    verify(eventPublisher).publishEvent(eventCaptor.capture());
+    assertThat("Event settings contains price map", eventCaptor.getValue().getSettings()
+        .getPriceMaps().contains(priceMap), equalTo(true));
+  }
+
 }
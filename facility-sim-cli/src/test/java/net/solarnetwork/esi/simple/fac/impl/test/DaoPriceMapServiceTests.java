@@ -22,7 +22,10 @@ import static java.util.Collections.singleton;
 import static net.solarnetwork.esi.simple.fac.test.TestUtils.invocationArg;
 import static net.solarnetwork.esi.util.CryptoUtils.STANDARD_HELPER;
 import static net.solarnetwork.esi.util.CryptoUtils.generateMessageSignature;
+import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
@@ -38,6 +41,8 @@ import java.security.KeyPair;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
 import java.util.UUID;
 
 import org.junit.Before;
@@ -45,7 +50,11 @@ import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.springframework.context.ApplicationEventPublisher;
 
+import com.google.protobuf.ByteString;
+
 import io.grpc.inprocess.InProcessServerBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import net.solarnetwork.esi.domain.DerRoute;
 import net.solarnetwork.esi.domain.PriceMapOffer;
 import net.solarnetwork.esi.domain.jpa.DurationRangeEmbed;
@@ -53,9 +62,13 @@ import net.solarnetwork.esi.domain.jpa.PowerComponentsEmbed;
 import net.solarnetwork.esi.domain.jpa.PriceComponentsEmbed;
 import net.solarnetwork.esi.domain.jpa.PriceMapEmbed;
 import net.solarnetwork.esi.domain.support.ProtobufUtils;
+import net.solarnetwork.esi.simple.fac.dao.PriceMapOfferEventArchiveEntityDao;
 import net.solarnetwork.esi.simple.fac.dao.PriceMapOfferEventEntityDao;
 import net.solarnetwork.esi.simple.fac.domain.ExchangeEntity;
+import net.solarnetwork.esi.simple.fac.domain.FacilitySettingsEntity;
+import net.solarnetwork.esi.simple.fac.domain.FacilitySettingsNotification.PriceMapsChanged;
 import net.solarnetwork.esi.simple.fac.domain.PriceMapEntity;
+import net.solarnetwork.esi.simple.fac.domain.PriceMapOfferEventArchiveEntity;
 import net.solarnetwork.esi.simple.fac.domain.PriceMapOfferEventEntity;
 import net.solarnetwork.esi.simple.fac.domain.PriceMapOfferExecutionState;
 import net.solarnetwork.esi.simple.fac.domain.PriceMapOfferNotification.PriceMapOfferAccepted;
@@ -363,4 +376,300 @@ public class DaoPriceMapServiceTests {
         sameInstance(offerEventCaptor.getValue()));
   }
 
+  private PriceMapOffer signedOffer(UUID offerId, Instant offerDate, PriceMapEmbed offerPriceMap) {
+    // @formatter:off
+    return PriceMapOffer.newBuilder()
+        .setOfferId(ProtobufUtils.uuidForUuid(offerId))
+        .setWhen(ProtobufUtils.timestampForInstant(offerDate))
+        .setPriceMap(ProtobufUtils.priceMapForPriceMapEmbed(offerPriceMap))
+        .setRoute(DerRoute.newBuilder()
+            .setExchangeUid(exchangeUid)
+            .setFacilityUid(facilityUid)
+            .setSignature(generateMessageSignature(CryptoUtils.STANDARD_HELPER, 
+                exchangeKeyPair, facilityKeyPair.getPublic(), 
+                asList(
+                    exchangeUid,
+                    facilityUid,
+                    new PriceMapOfferEventEntity(Instant.now(), offerId, offerDate, offerPriceMap))
+                ))
+            .build())
+        .build();
+    // @formatter:on
+  }
+
+  @Test
+  public void receivePriceMapOffer_PriceMapsChanged() {
+    // given
+    final Instant offerDate = Instant.now().plusSeconds(360);
+    final PriceMapEmbed offerPriceMap = new PriceMapEmbed();
+    offerPriceMap.setPowerComponents(new PowerComponentsEmbed(1L, 2L));
+    offerPriceMap.setDuration(Duration.ofSeconds(3));
+    offerPriceMap.setResponseTime(DurationRangeEmbed.ofSeconds(4, 5));
+    offerPriceMap.setPriceComponents(PriceComponentsEmbed.of("USD", "6.78"));
+
+    givenDefaultFacilityService(URI.create("//" + InProcessServerBuilder.generateName()));
+
+    PriceMapEntity facPriceMap = new PriceMapEntity(Instant.now(), offerPriceMap.copy());
+    given(facilityService.getPriceMaps()).willReturn(Collections.emptySet())
+        .willReturn(singleton(facPriceMap));
+
+    given(offerEventDao.save(any(PriceMapOfferEventEntity.class)))
+        .willAnswer(invocationArg(0, PriceMapOfferEventEntity.class));
+
+    // when
+    PriceMapOfferEventEntity result1 = service
+        .receivePriceMapOffer(signedOffer(UUID.randomUUID(), offerDate, offerPriceMap));
+    PriceMapOfferEventEntity result2 = service
+        .receivePriceMapOffer(signedOffer(UUID.randomUUID(), offerDate, offerPriceMap));
+    service.handlePriceMapsChanged(
+        new PriceMapsChanged(new FacilitySettingsEntity(Instant.now())));
+    PriceMapOfferEventEntity result3 = service
+        .receivePriceMapOffer(signedOffer(UUID.randomUUID(), offerDate, offerPriceMap));
+
+    // then
+    assertThat("First offer declined", result1.getExecutionState(),
+        equalTo(PriceMapOfferExecutionState.DECLINED));
+    assertThat("Second offer declined from same price maps", result2.getExecutionState(),
+        equalTo(PriceMapOfferExecutionState.DECLINED));
+    assertThat("Third offer accepted after price maps changed", result3.getExecutionState(),
+        equalTo(PriceMapOfferExecutionState.WAITING));
+    verify(facilityService, times(2)).getPriceMaps();
+  }
+
+  private PriceMapEmbed duplicateOfferPriceMap() {
+    final PriceMapEmbed offerPriceMap = new PriceMapEmbed();
+    offerPriceMap.setPowerComponents(new PowerComponentsEmbed(1L, 2L));
+    offerPriceMap.setDuration(Duration.ofSeconds(3));
+    offerPriceMap.setResponseTime(DurationRangeEmbed.ofSeconds(4, 5));
+    offerPriceMap.setPriceComponents(PriceComponentsEmbed.of("USD", "6.78"));
+    return offerPriceMap;
+  }
+
+  private static PriceMapOffer withInvalidSignature(PriceMapOffer offer) {
+    return offer.toBuilder().setRoute(offer.getRoute().toBuilder().setSignature(
+        offer.getRoute().getSignature().toBuilder().setSignature(ByteString.copyFromUtf8("bad"))))
+        .build();
+  }
+
+  @Test
+  public void receivePriceMapOffer_DuplicateFromCache() {
+    // given
+    final UUID offerId = UUID.randomUUID();
+    final Instant offerDate = Instant.now().plusSeconds(360);
+    final PriceMapEmbed offerPriceMap = duplicateOfferPriceMap();
+    givenDefaultFacilityService(URI.create("//" + InProcessServerBuilder.generateName()));
+    given(facilityService.getPriceMaps())
+        .willReturn(singleton(new PriceMapEntity(Instant.now(), offerPriceMap.copy())));
+    given(offerEventDao.save(any(PriceMapOfferEventEntity.class)))
+        .willAnswer(invocationArg(0, PriceMapOfferEventEntity.class));
+
+    // when
+    PriceMapOffer offer = signedOffer(offerId, offerDate, offerPriceMap);
+    PriceMapOfferEventEntity result1 = service.receivePriceMapOffer(offer);
+    PriceMapOfferEventEntity result2 = service.receivePriceMapOffer(withInvalidSignature(offer));
+
+    // then
+    assertThat("First offer accepted", result1.getExecutionState(),
+        equalTo(PriceMapOfferExecutionState.WAITING));
+    assertThat("Duplicate offer answered from first result", result2, sameInstance(result1));
+    verify(offerEventDao, times(1)).save(any(PriceMapOfferEventEntity.class));
+    // the filter has not seen the first offer and the duplicate is cached, so no lookups
+    verify(offerEventDao, times(0)).findById(any());
+    verify(eventPublisher, times(1)).publishEvent(any(PriceMapOfferAccepted.class));
+  }
+
+  @Test
+  public void receivePriceMapOffer_DuplicateFromStoredEvent() {
+    // given
+    final UUID offerId = UUID.randomUUID();
+    final Instant offerDate = Instant.now().plusSeconds(360);
+    final PriceMapEmbed offerPriceMap = duplicateOfferPriceMap();
+    givenDefaultFacilityService(URI.create("//" + InProcessServerBuilder.generateName()));
+
+    PriceMapOfferEventEntity stored = new PriceMapOfferEventEntity(Instant.now(), offerId,
+        offerDate, offerPriceMap);
+    stored.setAccepted(true);
+    stored.setExecutionState(PriceMapOfferExecutionState.EXECUTING);
+    given(offerEventDao.findIdsCreatedSince(any())).willReturn(Collections.singletonList(offerId));
+    given(offerEventDao.findById(offerId)).willReturn(Optional.of(stored));
+
+    // when
+    PriceMapOfferEventEntity result = service
+        .receivePriceMapOffer(withInvalidSignature(signedOffer(offerId, offerDate, offerPriceMap)));
+
+    // then
+    assertThat("Duplicate offer answered from stored event", result, sameInstance(stored));
+    verify(offerEventDao, times(0)).save(any(PriceMapOfferEventEntity.class));
+    verify(facilityService, times(0)).getPriceMaps();
+    verify(eventPublisher, times(0)).publishEvent(any());
+  }
+
+  @Test
+  public void receivePriceMapOffer_DuplicateFromArchivedEvent() {
+    // given
+    final UUID offerId = UUID.randomUUID();
+    final Instant offerDate = Instant.now().plusSeconds(360);
+    final PriceMapEmbed offerPriceMap = duplicateOfferPriceMap();
+    givenDefaultFacilityService(URI.create("//" + InProcessServerBuilder.generateName()));
+
+    PriceMapOfferEventArchiveEntityDao offerEventArchiveDao = mock(
+        PriceMapOfferEventArchiveEntityDao.class);
+    service.setOfferEventArchiveDao(offerEventArchiveDao);
+
+    PriceMapOfferEventEntity archived = new PriceMapOfferEventEntity(Instant.now(), offerId,
+        offerDate, offerPriceMap);
+    archived.setAccepted(false);
+    archived.setCounterOffer(new PriceMapEntity(Instant.now(), offerPriceMap.copy()));
+    archived.setExecutionState(PriceMapOfferExecutionState.DECLINED);
+    given(offerEventArchiveDao.findIdsCreatedSince(any()))
+        .willReturn(Collections.singletonList(offerId));
+    given(offerEventDao.findById(offerId)).willReturn(Optional.empty());
+    given(offerEventArchiveDao.findById(offerId))
+        .willReturn(Optional.of(PriceMapOfferEventArchiveEntity.archiveOf(archived)));
+
+    // when
+    PriceMapOfferEventEntity result = service
+        .receivePriceMapOffer(signedOffer(offerId, offerDate, offerPriceMap));
+
+    // then
+    assertThat("Duplicate offer ID", result.getId(), equalTo(offerId));
+    assertThat("Duplicate offer answered from archived state", result.getExecutionState(),
+        equalTo(PriceMapOfferExecutionState.DECLINED));
+    assertThat("Archived counter offer", result.getCounterOffer().priceMap(),
+        equalTo(offerPriceMap));
+    verify(offerEventDao, times(0)).save(any(PriceMapOfferEventEntity.class));
+  }
+
+  @Test
+  public void receivePriceMapOffer_FilterSeededFromWindow() {
+    // given
+    final UUID offerId = UUID.randomUUID();
+    final Instant offerDate = Instant.now().plusSeconds(360);
+    final PriceMapEmbed offerPriceMap = duplicateOfferPriceMap();
+    givenDefaultFacilityService(URI.create("//" + InProcessServerBuilder.generateName()));
+    service.setOfferFilterWindow(Duration.ofDays(2));
+    PriceMapOfferEventArchiveEntityDao offerEventArchiveDao = mock(
+        PriceMapOfferEventArchiveEntityDao.class);
+    service.setOfferEventArchiveDao(offerEventArchiveDao);
+
+    PriceMapOfferEventEntity archived = new PriceMapOfferEventEntity(Instant.now(), offerId,
+        offerDate, offerPriceMap);
+    archived.setAccepted(true);
+    archived.setExecutionState(PriceMapOfferExecutionState.COMPLETED);
+    given(offerEventArchiveDao.findIdsCreatedSince(any()))
+        .willReturn(Collections.singletonList(offerId));
+    given(offerEventArchiveDao.findById(offerId))
+        .willReturn(Optional.of(PriceMapOfferEventArchiveEntity.archiveOf(archived)));
+
+    // when
+    final Instant start = Instant.now();
+    PriceMapOfferEventEntity result = service
+        .receivePriceMapOffer(signedOffer(offerId, offerDate, offerPriceMap));
+
+    // then
+    assertThat("Duplicate offer answered from archived state", result.getExecutionState(),
+        equalTo(PriceMapOfferExecutionState.COMPLETED));
+    ArgumentCaptor<Instant> sinceCaptor = ArgumentCaptor.forClass(Instant.class);
+    verify(offerEventDao, times(1)).findIdsCreatedSince(sinceCaptor.capture());
+    assertThat("Filter seeded from window start", sinceCaptor.getValue(),
+        allOf(greaterThanOrEqualTo(start.minus(Duration.ofDays(2))),
+            lessThanOrEqualTo(Instant.now().minus(Duration.ofDays(2)))));
+    verify(offerEventArchiveDao, times(1)).findIdsCreatedSince(sinceCaptor.getValue());
+    verify(offerEventDao, times(0)).save(any(PriceMapOfferEventEntity.class));
+  }
+
+  @Test
+  public void receivePriceMapOffer_NewOfferNotLookedUp() {
+    // given
+    final Instant offerDate = Instant.now().plusSeconds(360);
+    final PriceMapEmbed offerPriceMap = duplicateOfferPriceMap();
+    givenDefaultFacilityService(URI.create("//" + InProcessServerBuilder.generateName()));
+    given(facilityService.getPriceMaps())
+        .willReturn(singleton(new PriceMapEntity(Instant.now(), offerPriceMap.copy())));
+    given(offerEventDao.findIdsCreatedSince(any()))
+        .willReturn(Collections.singletonList(UUID.randomUUID()));
+    given(offerEventDao.save(any(PriceMapOfferEventEntity.class)))
+        .willAnswer(invocationArg(0, PriceMapOfferEventEntity.class));
+
+    // when
+    PriceMapOfferEventEntity result = service
+        .receivePriceMapOffer(signedOffer(UUID.randomUUID(), offerDate, offerPriceMap));
+
+    // then
+    assertThat("Offer accepted", result.getExecutionState(),
+        equalTo(PriceMapOfferExecutionState.WAITING));
+    verify(offerEventDao, times(1)).findIdsCreatedSince(any());
+    verify(offerEventDao, times(0)).findById(any());
+  }
+
+  @Test
+  public void receivePriceMapOffer_BestFitCounterOfferThenAccepted() {
+    // given
+    final Instant offerDate = Instant.now().plusSeconds(360);
+    final PriceMapEmbed offerPriceMap = duplicateOfferPriceMap();
+    offerPriceMap.setPowerComponents(new PowerComponentsEmbed(10L, 20L));
+    givenDefaultFacilityService(URI.create("//" + InProcessServerBuilder.generateName()));
+
+    // facility supports only half the offered power, at a higher price
+    PriceMapEmbed facPriceMap = offerPriceMap.copy();
+    facPriceMap.setPowerComponents(new PowerComponentsEmbed(5L, 10L));
+    facPriceMap.setPriceComponents(PriceComponentsEmbed.of("USD", "9.99"));
+    given(facilityService.getPriceMaps())
+        .willReturn(singleton(new PriceMapEntity(Instant.now(), facPriceMap)));
+    given(offerEventDao.save(any(PriceMapOfferEventEntity.class)))
+        .willAnswer(invocationArg(0, PriceMapOfferEventEntity.class));
+
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    service.setMeterRegistry(meterRegistry);
+
+    // when
+    PriceMapOfferEventEntity result1 = service
+        .receivePriceMapOffer(signedOffer(UUID.randomUUID(), offerDate, offerPriceMap));
+    PriceMapOfferEventEntity result2 = service.receivePriceMapOffer(signedOffer(UUID.randomUUID(),
+        offerDate, result1.getCounterOffer().priceMap()));
+
+    // then
+    assertThat("First offer countered", result1.getExecutionState(),
+        equalTo(PriceMapOfferExecutionState.COUNTERED));
+    assertThat("Counter offer is best fit", result1.getCounterOffer().priceMap(),
+        equalTo(facPriceMap));
+    assertThat("Counter offer accepted in next round", result2.getExecutionState(),
+        equalTo(PriceMapOfferExecutionState.WAITING));
+    assertThat("Average negotiation rounds", service.getAverageNegotiationRounds(),
+        equalTo(2.0));
+    assertThat("Rounds gauge", meterRegistry.get(DaoPriceMapService.METRIC_PREFIX
+        + ".negotiation.rounds").gauge().value(), equalTo(2.0));
+    assertThat("Countered count", meterRegistry.get(DaoPriceMapService.METRIC_PREFIX
+        + ".countered").counter().count(), equalTo(1.0));
+    assertThat("Accepted count", meterRegistry.get(DaoPriceMapService.METRIC_PREFIX
+        + ".accepted").counter().count(), equalTo(1.0));
+  }
+
+  @Test
+  public void counterOfferNegotiationEnded() {
+    // given
+    final Instant offerDate = Instant.now().plusSeconds(360);
+    final PriceMapEmbed offerPriceMap = duplicateOfferPriceMap();
+    offerPriceMap.setPowerComponents(new PowerComponentsEmbed(10L, 20L));
+    givenDefaultFacilityService(URI.create("//" + InProcessServerBuilder.generateName()));
+
+    PriceMapEmbed facPriceMap = offerPriceMap.copy();
+    facPriceMap.setPowerComponents(new PowerComponentsEmbed(5L, 10L));
+    given(facilityService.getPriceMaps())
+        .willReturn(singleton(new PriceMapEntity(Instant.now(), facPriceMap)));
+    given(offerEventDao.save(any(PriceMapOfferEventEntity.class)))
+        .willAnswer(invocationArg(0, PriceMapOfferEventEntity.class));
+
+    // when
+    PriceMapOfferEventEntity result = service
+        .receivePriceMapOffer(signedOffer(UUID.randomUUID(), offerDate, offerPriceMap));
+    service.counterOfferNegotiationEnded(result);
+
+    // then
+    assertThat("Offer countered", result.getExecutionState(),
+        equalTo(PriceMapOfferExecutionState.COUNTERED));
+    assertThat("Negotiation counted as completed", service.getAverageNegotiationRounds(),
+        equalTo(1.0));
+  }
+
 }
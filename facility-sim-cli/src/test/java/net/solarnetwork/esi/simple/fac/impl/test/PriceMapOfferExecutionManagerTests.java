@@ -0,0 +1,284 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.simple.fac.impl.test;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.solarnetwork.esi.domain.jpa.PriceMapEmbed;
+import net.solarnetwork.esi.simple.fac.dao.PriceMapOfferEventEntityDao;
+import net.solarnetwork.esi.simple.fac.domain.PriceMapOfferEventEntity;
+import net.solarnetwork.esi.simple.fac.domain.PriceMapOfferExecutionState;
+import net.solarnetwork.esi.simple.fac.domain.PriceMapOfferNotification.PriceMapOfferAccepted;
+import net.solarnetwork.esi.simple.fac.impl.PriceMapOfferExecutionManager;
+import net.solarnetwork.esi.simple.fac.service.PriceMapOfferExecutionService;
+
+/**
+ * Test cases for the {@link PriceMapOfferExecutionManager} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class PriceMapOfferExecutionManagerTests {
+
+  private PriceMapOfferExecutionService offerExecutionService;
+  private PriceMapOfferEventEntityDao offerEventDao;
+
+  private PriceMapOfferExecutionManager manager;
+
+  @Before
+  public void setup() {
+    offerExecutionService = mock(PriceMapOfferExecutionService.class);
+    offerEventDao = mock(PriceMapOfferEventEntityDao.class);
+    manager = new PriceMapOfferExecutionManager(offerExecutionService, offerEventDao);
+    manager.setTickMs(1);
+  }
+
+  private PriceMapOfferEventEntity offerEvent(Instant startDate, Duration duration,
+      PriceMapOfferExecutionState state) {
+    PriceMapEmbed priceMap = new PriceMapEmbed();
+    priceMap.setDuration(duration);
+    PriceMapOfferEventEntity entity = new PriceMapOfferEventEntity(Instant.now(),
+        UUID.randomUUID(), startDate, priceMap);
+    entity.setAccepted(true);
+    entity.setExecutionState(state);
+    return entity;
+  }
+
+  private void givenExecutionsComplete() {
+    given(offerExecutionService.executePriceMapOfferEvent(any()))
+        .willAnswer(invocation -> CompletableFuture.completedFuture(null));
+    given(offerExecutionService.endPriceMapOfferEvent(any(), any()))
+        .willAnswer(invocation -> CompletableFuture.completedFuture(null));
+  }
+
+  @Test
+  public void recoverPendingExecutions() {
+    // GIVEN
+    Instant now = Instant.now();
+    PriceMapOfferEventEntity waiting = offerEvent(now.plusSeconds(3600), Duration.ofMinutes(5),
+        PriceMapOfferExecutionState.WAITING);
+    PriceMapOfferEventEntity executing = offerEvent(now.minusSeconds(60), Duration.ofMinutes(5),
+        PriceMapOfferExecutionState.EXECUTING);
+    given(offerEventDao
+        .findAllByExecutionStateIn(PriceMapOfferExecutionManager.RECOVERABLE_EXECUTION_STATES))
+            .willReturn(asList(waiting, executing));
+
+    // WHEN
+    manager.startup();
+
+    // THEN
+    assertThat("Waiting start, waiting end, executing end scheduled", manager.getPendingCount(),
+        equalTo(3));
+  }
+
+  @Test
+  public void recoverOverdueExecutions() {
+    // GIVEN
+    givenExecutionsComplete();
+    Instant now = Instant.now();
+    PriceMapOfferEventEntity waiting = offerEvent(now.minusSeconds(120), Duration.ofMinutes(5),
+        PriceMapOfferExecutionState.WAITING);
+    PriceMapOfferEventEntity executing = offerEvent(now.minusSeconds(600), Duration.ofMinutes(5),
+        PriceMapOfferExecutionState.EXECUTING);
+    given(offerEventDao
+        .findAllByExecutionStateIn(PriceMapOfferExecutionManager.RECOVERABLE_EXECUTION_STATES))
+            .willReturn(asList(waiting, executing));
+
+    // WHEN
+    manager.startup();
+    manager.tick();
+
+    // THEN
+    verify(offerExecutionService).executePriceMapOfferEvent(waiting.getId());
+    verify(offerExecutionService, never()).executePriceMapOfferEvent(executing.getId());
+    verify(offerExecutionService).endPriceMapOfferEvent(executing.getId(),
+        PriceMapOfferExecutionState.COMPLETED);
+    verify(offerExecutionService, never()).endPriceMapOfferEvent(waiting.getId(),
+        PriceMapOfferExecutionState.COMPLETED);
+    assertThat("Waiting end still scheduled", manager.getPendingCount(), equalTo(1));
+  }
+
+  @Test
+  public void scheduleAcceptedOffer() throws InterruptedException {
+    // GIVEN
+    givenExecutionsComplete();
+    given(offerEventDao
+        .findAllByExecutionStateIn(PriceMapOfferExecutionManager.RECOVERABLE_EXECUTION_STATES))
+            .willReturn(emptyList());
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    manager.setMeterRegistry(meterRegistry);
+    manager.startup();
+
+    PriceMapOfferEventEntity offer = offerEvent(Instant.now().plusMillis(50),
+        Duration.ofMillis(50), PriceMapOfferExecutionState.WAITING);
+
+    // WHEN
+    manager.handlePriceMapOfferAccpeted(new PriceMapOfferAccepted(offer));
+    manager.handlePriceMapOfferAccpeted(new PriceMapOfferAccepted(offer));
+    manager.tick();
+
+    // THEN
+    assertThat("Duplicate scheduling ignored", manager.getPendingCount(), equalTo(2));
+    verify(offerExecutionService, never()).executePriceMapOfferEvent(offer.getId());
+
+    Thread.sleep(120);
+    manager.tick();
+    verify(offerExecutionService).executePriceMapOfferEvent(offer.getId());
+    verify(offerExecutionService).endPriceMapOfferEvent(offer.getId(),
+        PriceMapOfferExecutionState.COMPLETED);
+    assertThat("Nothing pending", manager.getPendingCount(), equalTo(0));
+
+    Timer lag = meterRegistry.get(PriceMapOfferExecutionManager.METRIC_PREFIX + ".lag").timer();
+    assertThat("Lag recorded for each task", lag.count(), equalTo(2L));
+    assertThat("Lag measured", lag.totalTime(TimeUnit.MILLISECONDS) >= 0, equalTo(true));
+    assertThat("Pending gauge",
+        meterRegistry.get(PriceMapOfferExecutionManager.METRIC_PREFIX + ".pending").gauge()
+            .value(),
+        equalTo(0.0));
+  }
+
+  @Test
+  public void executeOnPoolSerializedByKey() throws InterruptedException {
+    // GIVEN
+    Instant start = Instant.now().minusSeconds(1);
+    PriceMapOfferEventEntity slow = offerEvent(start.minusSeconds(1), Duration.ofMinutes(5),
+        PriceMapOfferExecutionState.WAITING);
+    PriceMapOfferEventEntity queued = offerEvent(start, Duration.ofMinutes(5),
+        PriceMapOfferExecutionState.WAITING);
+    PriceMapOfferEventEntity fast = offerEvent(start, Duration.ofMinutes(5),
+        PriceMapOfferExecutionState.WAITING);
+    given(offerEventDao
+        .findAllByExecutionStateIn(PriceMapOfferExecutionManager.RECOVERABLE_EXECUTION_STATES))
+            .willReturn(asList(slow, queued, fast));
+    given(offerExecutionService.executionKey(slow.getId())).willReturn("1/a");
+    given(offerExecutionService.executionKey(queued.getId())).willReturn("1/a");
+    given(offerExecutionService.executionKey(fast.getId())).willReturn("1/b");
+
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch fastDone = new CountDownLatch(1);
+    final CountDownLatch queuedDone = new CountDownLatch(1);
+    given(offerExecutionService.executePriceMapOfferEvent(slow.getId())).willAnswer(invocation -> {
+      release.await(5, TimeUnit.SECONDS);
+      return CompletableFuture.completedFuture(null);
+    });
+    given(offerExecutionService.executePriceMapOfferEvent(queued.getId()))
+        .willAnswer(invocation -> {
+          queuedDone.countDown();
+          return CompletableFuture.completedFuture(null);
+        });
+    given(offerExecutionService.executePriceMapOfferEvent(fast.getId())).willAnswer(invocation -> {
+      fastDone.countDown();
+      return CompletableFuture.completedFuture(null);
+    });
+
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      MeterRegistry meterRegistry = new SimpleMeterRegistry();
+      manager.setTaskExecutor(pool);
+      manager.setMeterRegistry(meterRegistry);
+      manager.startup();
+
+      // WHEN
+      manager.tick();
+
+      // THEN
+      assertThat("Other node not blocked", fastDone.await(5, TimeUnit.SECONDS), equalTo(true));
+      assertThat("Same node queued behind slow task", queuedDone.getCount(), equalTo(1L));
+      assertThat("Node queue gauge",
+          meterRegistry.get(PriceMapOfferExecutionManager.METRIC_PREFIX + ".queue")
+              .tag("key", "1/a").gauge().value(),
+          equalTo(2.0));
+
+      release.countDown();
+      assertThat("Queued task run", queuedDone.await(5, TimeUnit.SECONDS), equalTo(true));
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void tickOnDedicatedThread() throws InterruptedException {
+    // GIVEN
+    given(offerEventDao
+        .findAllByExecutionStateIn(PriceMapOfferExecutionManager.RECOVERABLE_EXECUTION_STATES))
+            .willReturn(emptyList());
+    final CountDownLatch executed = new CountDownLatch(1);
+    final String[] threadName = new String[1];
+    given(offerExecutionService.executePriceMapOfferEvent(any())).willAnswer(invocation -> {
+      threadName[0] = Thread.currentThread().getName();
+      executed.countDown();
+      return CompletableFuture.completedFuture(null);
+    });
+    manager.setTickThreadNamePrefix("test-tick-");
+    PriceMapOfferEventEntity offer = offerEvent(Instant.now().plusMillis(20),
+        Duration.ofMinutes(1), PriceMapOfferExecutionState.WAITING);
+
+    try {
+      // WHEN
+      manager.startup();
+      manager.handlePriceMapOfferAccpeted(new PriceMapOfferAccepted(offer));
+
+      // THEN
+      assertThat("Offer executed without manual tick", executed.await(5, TimeUnit.SECONDS),
+          equalTo(true));
+      assertThat("Executed on dedicated tick thread", threadName[0], startsWith("test-tick-"));
+    } finally {
+      manager.shutdown();
+    }
+  }
+
+  @Test
+  public void ignoreNotAcceptedOffer() {
+    // GIVEN
+    PriceMapOfferEventEntity offer = offerEvent(Instant.now().plusSeconds(60),
+        Duration.ofMinutes(1), PriceMapOfferExecutionState.WAITING);
+    offer.setAccepted(false);
+
+    // WHEN
+    manager.handlePriceMapOfferAccpeted(new PriceMapOfferAccepted(offer));
+
+    // THEN
+    assertThat("Nothing scheduled", manager.getPendingCount(), equalTo(0));
+  }
+
+}
@@ -0,0 +1,319 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.simple.fac.impl.test;
+
+import static java.util.Arrays.asList;
+import static net.solarnetwork.esi.util.CryptoUtils.STANDARD_HELPER;
+import static net.solarnetwork.esi.util.CryptoUtils.generateMessageSignature;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.solarnetwork.esi.domain.DerRoute;
+import net.solarnetwork.esi.domain.Money;
+import net.solarnetwork.esi.domain.PriceComponents;
+import net.solarnetwork.esi.domain.PriceDatum;
+import net.solarnetwork.esi.domain.TimeUnit;
+import net.solarnetwork.esi.domain.support.PriceSpillFile;
+import net.solarnetwork.esi.domain.support.PriceStatistics;
+import net.solarnetwork.esi.domain.support.ProtobufUtils;
+import net.solarnetwork.esi.simple.fac.domain.ExchangeEntity;
+import net.solarnetwork.esi.simple.fac.impl.RingBufferPriceService;
+import net.solarnetwork.esi.simple.fac.service.FacilityService;
+import net.solarnetwork.esi.util.CryptoHelper;
+
+/**
+ * Test cases for the {@link RingBufferPriceService} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class RingBufferPriceServiceTests {
+
+  private static final String TEST_CURRENCY = "USD";
+
+  @Rule
+  public final TemporaryFolder tmpDir = new TemporaryFolder();
+
+  private String facilityUid;
+  private KeyPair facilityKeyPair;
+  private String exchangeUid;
+  private KeyPair exchangeKeyPair;
+  private CryptoHelper cryptoHelper;
+  private FacilityService facilityService;
+  private RingBufferPriceService service;
+
+  @Before
+  public void setup() {
+    facilityUid = UUID.randomUUID().toString();
+    facilityKeyPair = STANDARD_HELPER.generateKeyPair();
+    exchangeUid = UUID.randomUUID().toString();
+    exchangeKeyPair = STANDARD_HELPER.generateKeyPair();
+    cryptoHelper = spy(STANDARD_HELPER);
+
+    ExchangeEntity exchangeEntity = new ExchangeEntity(Instant.now(), exchangeUid);
+    exchangeEntity.setExchangePublicKey(exchangeKeyPair.getPublic().getEncoded());
+
+    facilityService = mock(FacilityService.class);
+    given(facilityService.getCryptoHelper()).willReturn(cryptoHelper);
+    given(facilityService.getKeyPair()).willReturn(facilityKeyPair);
+    given(facilityService.getUid()).willReturn(facilityUid);
+    given(facilityService.getExchange()).willReturn(exchangeEntity);
+
+    service = newService();
+  }
+
+  @After
+  public void teardown() {
+    service.shutdown();
+  }
+
+  private RingBufferPriceService newService() {
+    RingBufferPriceService s = new RingBufferPriceService(facilityService);
+    s.setCapacity(16);
+    return s;
+  }
+
+  private PriceDatum signed(PriceDatum datum, KeyPair signingKeyPair) {
+    return datum.toBuilder()
+        .setRoute(DerRoute.newBuilder().setExchangeUid(exchangeUid).setFacilityUid(facilityUid)
+            .setSignature(generateMessageSignature(STANDARD_HELPER, signingKeyPair,
+                facilityKeyPair.getPublic(), asList(exchangeUid, facilityUid,
+                    ProtobufUtils.priceDatumSignatureMessageBytes(datum)))))
+        .build();
+  }
+
+  private PriceDatum price(KeyPair signingKeyPair, Instant date, long units, int nanos) {
+    return signed(PriceDatum.newBuilder().setTs(ProtobufUtils.timestampForInstant(date))
+        .setTimeLength(5).setTimeUnit(TimeUnit.MINUTE)
+        .setPriceComponents(PriceComponents.newBuilder().setApparentEnergyPrice(
+            Money.newBuilder().setCurrencyCode(TEST_CURRENCY).setUnits(units).setNanos(nanos)))
+        .build(), signingKeyPair);
+  }
+
+  private List<PriceDatum> prices(KeyPair signingKeyPair, Instant start, int count) {
+    List<PriceDatum> result = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      result.add(price(signingKeyPair, start.plusSeconds(i * 300L), i + 1, 0));
+    }
+    return result;
+  }
+
+  @Test
+  public void noPrices() {
+    assertThat("Latest", service.getLatestPrice(), nullValue());
+    assertThat("Statistics", service.getRecentPriceStatistics(), nullValue());
+  }
+
+  @Test
+  public void receivePrices() {
+    // given
+    final Instant start = Instant.now().minusSeconds(3600);
+
+    // when
+    service.receivePrices(prices(exchangeKeyPair, start, 4));
+
+    // then
+    PriceDatum latest = service.getLatestPrice();
+    assertThat("Latest", latest, notNullValue());
+    assertThat("Latest date", ProtobufUtils.instantValue(latest.getTs()),
+        equalTo(start.plusSeconds(900)));
+    assertThat("Latest price",
+        ProtobufUtils.decimalValue(latest.getPriceComponents().getApparentEnergyPrice()),
+        equalTo(new BigDecimal("4")));
+
+    PriceStatistics stats = service.getRecentPriceStatistics();
+    assertThat("Statistics", stats, notNullValue());
+    assertThat("Count", stats.getCount(), equalTo(4));
+    assertThat("Min", stats.getMinimum(), equalTo(new BigDecimal("1")));
+    assertThat("Max", stats.getMaximum(), equalTo(new BigDecimal("4")));
+    assertThat("Average", stats.getAverage(), equalTo(new BigDecimal("2.5")));
+  }
+
+  @Test
+  public void signatureValidatedPerPrice() {
+    // when
+    service.receivePrices(prices(exchangeKeyPair, Instant.now(), 10));
+
+    // then
+    verify(cryptoHelper, times(10)).validateMessageDigest(any(KeyPair.class), any(byte[].class),
+        any(PublicKey.class), any(byte[].class), any(byte[].class));
+  }
+
+  @Test
+  public void recentWindowExcludesOldPrices() {
+    // given
+    final Instant start = Instant.now().minusSeconds(48 * 3600);
+    List<PriceDatum> batch = new ArrayList<>();
+    batch.add(price(exchangeKeyPair, start, 100, 0));
+    batch.add(price(exchangeKeyPair, Instant.now().minusSeconds(60), 2, 0));
+
+    // when
+    service.receivePrices(batch);
+
+    // then
+    PriceStatistics stats = service.getRecentPriceStatistics();
+    assertThat("Only recent counted", stats.getCount(), equalTo(1));
+    assertThat("Average", stats.getAverage(), equalTo(new BigDecimal("2")));
+  }
+
+  @Test
+  public void badSignatureRejectsBatch() {
+    // given
+    final List<PriceDatum> batch = prices(exchangeKeyPair, Instant.now(), 3);
+    batch.add(price(STANDARD_HELPER.generateKeyPair(), Instant.now().plusSeconds(900), 9, 0));
+
+    // when
+    try {
+      service.receivePrices(batch);
+      fail("Signature validation should fail.");
+    } catch (RuntimeException e) {
+      // expected
+    }
+
+    // then
+    assertThat("Nothing stored", service.getLatestPrice(), nullValue());
+  }
+
+  @Test
+  public void alteredPriceRejectsBatch() {
+    // given
+    final List<PriceDatum> batch = prices(exchangeKeyPair, Instant.now(), 3);
+    final PriceDatum last = batch.remove(2);
+    batch.add(last.toBuilder()
+        .setPriceComponents(last.getPriceComponents().toBuilder().setApparentEnergyPrice(
+            last.getPriceComponents().getApparentEnergyPrice().toBuilder().setUnits(1)))
+        .build());
+
+    // when
+    try {
+      service.receivePrices(batch);
+      fail("Signature validation should fail.");
+    } catch (RuntimeException e) {
+      // expected
+    }
+
+    // then
+    assertThat("Nothing stored", service.getLatestPrice(), nullValue());
+  }
+
+  @Test
+  public void wrongExchangeRejectsBatch() {
+    // given
+    final List<PriceDatum> batch = prices(exchangeKeyPair, Instant.now(), 3);
+    final PriceDatum other = price(exchangeKeyPair, Instant.now(), 1, 0);
+    batch.add(other.toBuilder()
+        .setRoute(other.getRoute().toBuilder().setExchangeUid("not.the.exchange")).build());
+
+    // when
+    try {
+      service.receivePrices(batch);
+      fail("Route validation should fail.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    // then
+    assertThat("Nothing stored", service.getLatestPrice(), nullValue());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void currencyChangeRejected() {
+    service.receivePrices(prices(exchangeKeyPair, Instant.now(), 1));
+    PriceDatum other = price(exchangeKeyPair, Instant.now(), 1, 0);
+    other = signed(other.toBuilder()
+        .setPriceComponents(other.getPriceComponents().toBuilder().setApparentEnergyPrice(
+            other.getPriceComponents().getApparentEnergyPrice().toBuilder().setCurrencyCode("NZD")))
+        .build(), exchangeKeyPair);
+    service.receivePrices(asList(other));
+  }
+
+  @Test
+  public void spillAndReload() throws Exception {
+    // given
+    service.setSpillDirectory(tmpDir.getRoot().toPath());
+    service.startup();
+    final Instant start = Instant.now().minusSeconds(3600);
+    service.receivePrices(prices(exchangeKeyPair, start, 10));
+    service.receivePrices(prices(exchangeKeyPair, start.plusSeconds(3000), 10));
+    service.shutdown();
+
+    // when
+    service = newService();
+    service.setSpillDirectory(tmpDir.getRoot().toPath());
+    service.startup();
+
+    // then
+    PriceDatum latest = service.getLatestPrice();
+    assertThat("Latest reloaded", latest, notNullValue());
+    assertThat("Latest date", ProtobufUtils.instantValue(latest.getTs()),
+        equalTo(start.plusSeconds(3000 + 9 * 300)));
+    assertThat("Only capacity reloaded", service.getRecentPriceStatistics().getCount(),
+        equalTo(16));
+  }
+
+  @Test
+  public void spillFileCompactedToCapacity() throws Exception {
+    // given
+    service.setSpillDirectory(tmpDir.getRoot().toPath());
+    service.startup();
+    final Instant start = Instant.now().minusSeconds(36000);
+
+    // when
+    for (int i = 0; i < 4; i++) {
+      service.receivePrices(prices(exchangeKeyPair, start.plusSeconds(i * 3000L), 10));
+    }
+    service.shutdown();
+
+    // then
+    Path file;
+    try (Stream<Path> files = Files.list(tmpDir.getRoot().toPath())) {
+      file = files.findFirst().get();
+    }
+    try (PriceSpillFile spill = PriceSpillFile.open(file)) {
+      assertThat("Spill file compacted to capacity", spill.getCount(), equalTo(16L));
+    }
+  }
+
+}
@@ -0,0 +1,219 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.simple.fac.impl.test;
+
+import static java.util.Arrays.asList;
+import static net.solarnetwork.esi.util.CryptoUtils.STANDARD_HELPER;
+import static net.solarnetwork.esi.util.CryptoUtils.generateMessageSignature;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.security.KeyPair;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.solarnetwork.esi.domain.DatumRequest;
+import net.solarnetwork.esi.domain.DerRoute;
+import net.solarnetwork.esi.domain.PowerProfileDatum;
+import net.solarnetwork.esi.domain.TimeConcept;
+import net.solarnetwork.esi.domain.TimeUnit;
+import net.solarnetwork.esi.domain.TimestampRange;
+import net.solarnetwork.esi.domain.support.ProtobufUtils;
+import net.solarnetwork.esi.grpc.FlowControlledStreamer.Source;
+import net.solarnetwork.esi.simple.fac.domain.ExchangeEntity;
+import net.solarnetwork.esi.simple.fac.impl.SyntheticPowerProfileService;
+import net.solarnetwork.esi.simple.fac.service.FacilityService;
+
+/**
+ * Test cases for the {@link SyntheticPowerProfileService} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class SyntheticPowerProfileServiceTests {
+
+  private static final long MINUTE_MS = 60000L;
+
+  private String facilityUid;
+  private KeyPair facilityKeyPair;
+  private String exchangeUid;
+  private KeyPair exchangeKeyPair;
+  private FacilityService facilityService;
+  private SyntheticPowerProfileService service;
+
+  @Before
+  public void setup() {
+    facilityUid = UUID.randomUUID().toString();
+    facilityKeyPair = STANDARD_HELPER.generateKeyPair();
+    exchangeUid = UUID.randomUUID().toString();
+    exchangeKeyPair = STANDARD_HELPER.generateKeyPair();
+
+    ExchangeEntity exchangeEntity = new ExchangeEntity(Instant.now(), exchangeUid);
+    exchangeEntity.setExchangePublicKey(exchangeKeyPair.getPublic().getEncoded());
+
+    facilityService = mock(FacilityService.class);
+    given(facilityService.getCryptoHelper()).willReturn(STANDARD_HELPER);
+    given(facilityService.getKeyPair()).willReturn(facilityKeyPair);
+    given(facilityService.getUid()).willReturn(facilityUid);
+    given(facilityService.getExchange()).willReturn(exchangeEntity);
+
+    service = new SyntheticPowerProfileService(facilityService);
+  }
+
+  private DerRoute route(KeyPair signingKeyPair) {
+    return DerRoute.newBuilder().setExchangeUid(exchangeUid).setFacilityUid(facilityUid)
+        .setSignature(generateMessageSignature(STANDARD_HELPER, signingKeyPair,
+            facilityKeyPair.getPublic(), asList(exchangeUid, facilityUid)))
+        .build();
+  }
+
+  private DatumRequest request(String min, String max, TimeUnit timeUnit, int coalescence) {
+    TimestampRange.Builder range = TimestampRange.newBuilder();
+    if (min != null) {
+      range.setMin(ProtobufUtils.timestampForInstant(Instant.parse(min)));
+    }
+    if (max != null) {
+      range.setMax(ProtobufUtils.timestampForInstant(Instant.parse(max)));
+    }
+    return DatumRequest.newBuilder().setRoute(route(exchangeKeyPair)).setTimeRange(range)
+        .setTimeUnit(timeUnit).setTimeUnitCoalescence(coalescence).build();
+  }
+
+  private static List<PowerProfileDatum> drain(Source<PowerProfileDatum> source)
+      throws Exception {
+    List<PowerProfileDatum> result = new ArrayList<>();
+    for (PowerProfileDatum d = source.next(); d != null; d = source.next()) {
+      result.add(d);
+    }
+    return result;
+  }
+
+  private static long millis(PowerProfileDatum d) {
+    return d.getTs().getSeconds() * 1000L + d.getTs().getNanos() / 1000000;
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void facilityUidNotValid() {
+    DatumRequest req = request("2019-06-01T00:00:00Z", "2019-06-01T01:00:00Z", TimeUnit.MINUTE, 15)
+        .toBuilder().setRoute(route(exchangeKeyPair).toBuilder().setFacilityUid("foo")).build();
+    service.listPowerProfile(req);
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void signatureNotValid() {
+    DatumRequest req = request("2019-06-01T00:00:00Z", "2019-06-01T01:00:00Z", TimeUnit.MINUTE, 15)
+        .toBuilder().setRoute(route(STANDARD_HELPER.generateKeyPair())).build();
+    service.listPowerProfile(req);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void timeRangeMinMissing() {
+    service.listPowerProfile(request(null, "2019-06-01T01:00:00Z", TimeUnit.MINUTE, 15));
+  }
+
+  @Test
+  public void fifteenMinuteAverages() throws Exception {
+    // when
+    List<PowerProfileDatum> result = drain(service.listPowerProfile(
+        request("2019-06-01T00:00:00Z", "2019-06-01T01:00:00Z", TimeUnit.MINUTE, 15)));
+
+    // then each span is the average of three 5-minute samples
+    assertThat("Datum count", result.size(), equalTo(4));
+    long start = Instant.parse("2019-06-01T00:00:00Z").toEpochMilli();
+    for (int i = 0; i < result.size(); i++) {
+      PowerProfileDatum d = result.get(i);
+      long date = start + i * 15 * MINUTE_MS;
+      final double avg = (service.realPower(date) + service.realPower(date + 5 * MINUTE_MS)
+          + service.realPower(date + 10 * MINUTE_MS)) / 3;
+      assertThat("Datum date " + i, millis(d), equalTo(date));
+      assertThat("Datum time unit " + i, d.getTimeUnit(), equalTo(TimeUnit.MINUTE));
+      assertThat("Datum time length " + i, d.getTimeLength(), equalTo(15));
+      assertThat("Datum real power " + i, d.getPowerComponents().getRealPower(),
+          equalTo(Math.round(avg)));
+    }
+  }
+
+  @Test
+  public void deterministic() throws Exception {
+    DatumRequest req = request("2019-06-01T00:00:00Z", "2019-06-02T00:00:00Z", TimeUnit.HOUR, 1);
+    assertThat("Same profile", drain(service.listPowerProfile(req)),
+        equalTo(drain(service.listPowerProfile(req))));
+  }
+
+  @Test
+  public void dailyCycle() throws Exception {
+    // given
+    service.setNoise(0);
+    service.setPowerFactor(1);
+
+    // when
+    List<PowerProfileDatum> result = drain(service.listPowerProfile(
+        request("2019-06-01T00:00:00Z", "2019-06-02T00:00:00Z", TimeUnit.INSTANT, 0)));
+
+    // then
+    assertThat("Datum count", result.size(), equalTo(288));
+    assertThat("Midnight minimum", result.get(0).getPowerComponents().getRealPower(),
+        equalTo(2000L));
+    assertThat("Noon maximum", result.get(144).getPowerComponents().getRealPower(),
+        equalTo(8000L));
+    assertThat("No reactive power", result.get(144).getPowerComponents().getReactivePower(),
+        equalTo(0L));
+  }
+
+  @Test
+  public void mostRecent() throws Exception {
+    // given
+    DatumRequest req = DatumRequest.newBuilder().setRoute(route(exchangeKeyPair))
+        .setTimeConcept(TimeConcept.MOST_RECENT).build();
+
+    // when
+    List<PowerProfileDatum> result = drain(service.listPowerProfile(req));
+
+    // then
+    assertThat("Datum count", result.size(), equalTo(1));
+    PowerProfileDatum d = result.get(0);
+    assertThat("Datum time unit", d.getTimeUnit(), equalTo(TimeUnit.INSTANT));
+    assertThat("Datum on sample interval",
+        millis(d) % SyntheticPowerProfileService.DEFAULT_SAMPLE_INTERVAL_MS, equalTo(0L));
+    assertThat("Datum real power", d.getPowerComponents().getRealPower(),
+        equalTo(Math.round(service.realPower(millis(d)))));
+  }
+
+  @Test
+  public void yearOfFifteenMinutes() throws Exception {
+    // when
+    Source<PowerProfileDatum> source = service.listPowerProfile(
+        request("2019-01-01T00:00:00Z", "2020-01-01T00:00:00Z", TimeUnit.MINUTE, 15));
+    int count = 0;
+    for (PowerProfileDatum d = source.next(); d != null; d = source.next()) {
+      count++;
+    }
+
+    // then
+    assertThat("Datum count", count, equalTo(365 * 96));
+  }
+
+}
@@ -0,0 +1,86 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.solarnet.fac.config;
+
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.client.RestTemplate;
+
+import net.solarnetwork.esi.solarnet.fac.impl.SnPowerProfileService;
+import net.solarnetwork.esi.solarnet.fac.service.FacilityService;
+import net.solarnetwork.esi.solarnet.fac.service.PowerProfileService;
+
+/**
+ * Power profile related configuration.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+@Configuration
+public class PowerProfileConfig {
+
+  @Value("${esi.facility.solarnetwork.powerProfile.nodeIds:}")
+  private Set<Long> nodeIds;
+
+  @Value("${esi.facility.solarnetwork.powerProfile.sourceIds:}")
+  private Set<String> sourceIds;
+
+  @Value("${esi.facility.solarnetwork.powerProfile.pageSize:1000}")
+  private int pageSize = SnPowerProfileService.DEFAULT_PAGE_SIZE;
+
+  @Value("${esi.facility.solarnetwork.powerProfile.realPowerProperty:watts}")
+  private String realPowerProperty = SnPowerProfileService.DEFAULT_REAL_POWER_PROPERTY;
+
+  @Value("${esi.facility.solarnetwork.powerProfile.reactivePowerProperty:reactivePower}")
+  private String reactivePowerProperty = SnPowerProfileService.DEFAULT_REACTIVE_POWER_PROPERTY;
+
+  @Autowired
+  private FacilityService facilityService;
+
+  @Qualifier("solarnetwork")
+  @Autowired
+  private RestTemplate solarNetworkClient;
+
+  @Qualifier("solarnetwork-base-url")
+  @Autowired
+  private String solarNetworkBaseUrl;
+
+  /**
+   * The power profile service.
+   * 
+   * @return the service
+   */
+  @Bean
+  public PowerProfileService powerProfileService() {
+    SnPowerProfileService s = new SnPowerProfileService(facilityService, solarNetworkClient);
+    s.setApiBaseUrl(solarNetworkBaseUrl);
+    s.setNodeIds(nodeIds);
+    s.setSourceIds(sourceIds);
+    s.setPageSize(pageSize);
+    s.setRealPowerProperty(realPowerProperty);
+    s.setReactivePowerProperty(reactivePowerProperty);
+    return s;
+  }
+
+}
@@ -17,6 +17,10 @@
 
 package net.solarnetwork.esi.solarnet.fac.config;
 
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+
 import javax.annotation.Resource;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -26,18 +30,30 @@ import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.client.RestTemplate;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import net.solarnetwork.esi.domain.support.PriceRingBuffer;
 import net.solarnetwork.esi.grpc.ChannelProvider;
+import net.solarnetwork.esi.solarnet.fac.dao.PriceMapOfferEventArchiveEntityDao;
 import net.solarnetwork.esi.solarnet.fac.dao.PriceMapOfferEventEntityDao;
+import net.solarnetwork.esi.solarnet.fac.impl.DaoPriceMapOfferEventRetentionService;
 import net.solarnetwork.esi.solarnet.fac.impl.DaoPriceMapService;
+import net.solarnetwork.esi.solarnet.fac.impl.ExchangePriceMapOfferStatusPublisher;
 import net.solarnetwork.esi.solarnet.fac.impl.PriceMapOfferExecutionManager;
+import net.solarnetwork.esi.solarnet.fac.impl.RingBufferPriceService;
+import net.solarnetwork.esi.solarnet.fac.impl.SnInstructionStatusTracker;
 import net.solarnetwork.esi.solarnet.fac.impl.SnPriceMapOfferExecutionService;
 import net.solarnetwork.esi.solarnet.fac.service.FacilityService;
+import net.solarnetwork.esi.solarnet.fac.service.PriceMapOfferEventRetentionService;
 import net.solarnetwork.esi.solarnet.fac.service.PriceMapOfferExecutionService;
 import net.solarnetwork.esi.solarnet.fac.service.PriceMapService;
+import net.solarnetwork.esi.solarnet.fac.service.PriceService;
+import net.solarnetwork.esi.util.CoalescingPublisher;
+import net.solarnetwork.esi.util.RecentKeyCache;
 
 /**
  * Price map offer related configuration.
@@ -51,12 +67,63 @@ public class PriceMapOfferConfig {
   @Value("${esi.facility.solarnetwork.instructionPollMs:2000}")
   private long instructionPollMs = 2000L;
 
+  @Value("${esi.facility.solarnetwork.instructionMinPollMs:250}")
+  private long instructionMinPollMs = SnInstructionStatusTracker.DEFAULT_MIN_POLL_MS;
+
+  @Value("${esi.facility.solarnetwork.instructionRateLimit:5}")
+  private double instructionRateLimit = SnInstructionStatusTracker.DEFAULT_MAX_REQUESTS_PER_SECOND;
+
+  @Value("${esi.facility.solarnetwork.instructionBatchWindowMs:20}")
+  private long instructionBatchWindowMs = 20L;
+
+  @Value("${esi.facility.priceMap.refreshMs:60000}")
+  private long priceMapRefreshMs = DaoPriceMapService.DEFAULT_PRICE_MAP_REFRESH_MS;
+
+  @Value("${esi.facility.execution.tickMs:100}")
+  private long executionTickMs = PriceMapOfferExecutionManager.DEFAULT_TICK_MS;
+
+  @Value("${esi.facility.execution.threads:4}")
+  private int executionThreads = 4;
+
+  @Value("${esi.facility.exchange.statusMaxInFlight:8}")
+  private int statusMaxInFlight = CoalescingPublisher.DEFAULT_MAX_IN_FLIGHT;
+
+  @Value("${esi.facility.exchange.statusRpcTimeoutMs:10000}")
+  private long statusRpcTimeoutMs = ExchangePriceMapOfferStatusPublisher.DEFAULT_RPC_TIMEOUT_MS;
+
+  @Value("${esi.facility.retention.periodDays:30}")
+  private int retentionPeriodDays = 30;
+
+  @Value("${esi.facility.priceMap.offerFilterCapacity:65536}")
+  private int offerFilterCapacity = RecentKeyCache.DEFAULT_FILTER_CAPACITY;
+
+  @Value("${esi.facility.retention.runFrequencyMs:3600000}")
+  private long retentionRunFrequencyMs = 3600000L;
+
+  @Value("${esi.facility.retention.batchSize:100}")
+  private int retentionBatchSize = 100;
+
+  @Value("${esi.facility.retention.maxBatchesPerRun:50}")
+  private int retentionMaxBatchesPerRun = 50;
+
+  @Value("${esi.facility.prices.capacity:4096}")
+  private int priceCapacity = PriceRingBuffer.DEFAULT_CAPACITY;
+
+  @Value("${esi.facility.prices.recentWindowMs:86400000}")
+  private long priceRecentWindowMs = RingBufferPriceService.DEFAULT_RECENT_WINDOW.toMillis();
+
+  @Value("${esi.facility.prices.spillPath:}")
+  private String priceSpillPath;
+
   @Autowired
   private FacilityService facilityService;
 
   @Autowired
   private PriceMapOfferEventEntityDao offerEventDao;
 
+  @Autowired
+  private PriceMapOfferEventArchiveEntityDao offerEventArchiveDao;
+
   @Autowired
   private ChannelProvider exchangeChannelProvider;
 
@@ -77,18 +144,64 @@ public class PriceMapOfferConfig {
   @Autowired
   private TaskScheduler taskScheduler;
 
+  @Resource(name = "solarNetworkTaskExecutor")
+  private Executor solarNetworkTaskExecutor;
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry;
+
   /**
    * The price map service.
    * 
    * @return the service
    */
-  @Bean
+  @Bean(initMethod = "startup", destroyMethod = "shutdown")
   public PriceMapService priceMapService() {
     DaoPriceMapService s = new DaoPriceMapService(facilityService, offerEventDao);
+    s.setOfferEventArchiveDao(offerEventArchiveDao);
+    s.setOfferFilterWindow(Duration.ofDays(retentionPeriodDays));
+    s.setOfferFilterCapacity(offerFilterCapacity);
+    s.setMeterRegistry(meterRegistry);
     s.setEventPublisher(eventPublisher);
+    s.setTaskScheduler(taskScheduler);
+    s.setPriceMapRefreshMs(priceMapRefreshMs);
+    s.setPriceService(priceService());
+    return s;
+  }
+
+  /**
+   * The price service.
+   * 
+   * @return the service
+   */
+  @Bean(initMethod = "startup", destroyMethod = "shutdown")
+  public PriceService priceService() {
+    RingBufferPriceService s = new RingBufferPriceService(facilityService);
+    s.setCapacity(priceCapacity);
+    s.setRecentWindow(Duration.ofMillis(priceRecentWindowMs));
+    if (priceSpillPath != null && !priceSpillPath.isEmpty()) {
+      s.setSpillDirectory(Paths.get(priceSpillPath));
+    }
     return s;
   }
 
+  /**
+   * The SolarNetwork instruction status tracker.
+   * 
+   * @return the tracker
+   */
+  @Bean(initMethod = "startup", destroyMethod = "shutdown")
+  public SnInstructionStatusTracker instructionStatusTracker() {
+    SnInstructionStatusTracker tracker = new SnInstructionStatusTracker(taskScheduler,
+        solarNetworkClient);
+    tracker.setApiBaseUrl(solarNetworkBaseUrl);
+    tracker.setMinPollMs(instructionMinPollMs);
+    tracker.setMaxPollMs(instructionPollMs);
+    tracker.setMaxRequestsPerSecond(instructionRateLimit);
+    tracker.setTaskExecutor(solarNetworkTaskExecutor);
+    return tracker;
+  }
+
   /**
    * The price map offer execution service.
    * 
@@ -100,22 +213,75 @@ public class PriceMapOfferConfig {
         facilityService, offerEventDao, solarNetworkClient);
     service.setApiBaseUrl(solarNetworkBaseUrl);
     service.setEventPublisher(eventPublisher);
-    service.setExchangeChannelProvider(exchangeChannelProvider);
     service.setInstructionPollMs(instructionPollMs);
+    service.setInstructionStatusTracker(instructionStatusTracker());
+    service.setInstructionBatchWindowMs(instructionBatchWindowMs);
+    service.setInstructionExecutor(solarNetworkTaskExecutor);
     service.setTransactionTemplate(new TransactionTemplate(txManager));
     return service;
   }
 
+  /**
+   * The price map offer status publisher.
+   * 
+   * @return the status publisher
+   */
+  @Bean(destroyMethod = "shutdown")
+  public ExchangePriceMapOfferStatusPublisher priceMapOfferStatusPublisher() {
+    ExchangePriceMapOfferStatusPublisher publisher = new ExchangePriceMapOfferStatusPublisher(
+        facilityService, exchangeChannelProvider, taskScheduler);
+    publisher.setMaxInFlight(statusMaxInFlight);
+    publisher.setRpcTimeoutMs(statusRpcTimeoutMs);
+    publisher.setMeterRegistry(meterRegistry);
+    return publisher;
+  }
+
+  /**
+   * The executor for price map offer executions.
+   * 
+   * @return the executor
+   */
+  @Bean
+  public ThreadPoolTaskExecutor priceMapOfferExecutionTaskExecutor() {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(executionThreads);
+    executor.setMaxPoolSize(executionThreads);
+    executor.setThreadNamePrefix("fac-offer-exec-");
+    return executor;
+  }
+
   /**
    * The price map offer execution manager.
    * 
    * @return the offer execution manager
    */
-  @Bean
+  @Bean(initMethod = "startup", destroyMethod = "shutdown")
   public PriceMapOfferExecutionManager priceMapOfferExecutionManager() {
     PriceMapOfferExecutionManager mgr = new PriceMapOfferExecutionManager(
-        priceMapOfferExecutionService());
+        priceMapOfferExecutionService(), offerEventDao);
+    // advance the schedule on a thread of its own, not the shared task scheduler
+    mgr.setTickThreadNamePrefix("fac-offer-tick-");
+    mgr.setTaskExecutor(priceMapOfferExecutionTaskExecutor());
+    mgr.setTickMs(executionTickMs);
+    mgr.setMeterRegistry(meterRegistry);
     return mgr;
   }
 
+  /**
+   * The price map offer event retention service.
+   * 
+   * @return the retention service
+   */
+  @Bean(initMethod = "startup", destroyMethod = "shutdown")
+  public PriceMapOfferEventRetentionService priceMapOfferEventRetentionService() {
+    DaoPriceMapOfferEventRetentionService s = new DaoPriceMapOfferEventRetentionService(
+        offerEventDao, offerEventArchiveDao, new TransactionTemplate(txManager));
+    s.setTaskScheduler(taskScheduler);
+    s.setRetentionPeriod(Duration.ofDays(retentionPeriodDays));
+    s.setRunFrequencyMs(retentionRunFrequencyMs);
+    s.setBatchSize(retentionBatchSize);
+    s.setMaxBatchesPerRun(retentionMaxBatchesPerRun);
+    return s;
+  }
+
 }
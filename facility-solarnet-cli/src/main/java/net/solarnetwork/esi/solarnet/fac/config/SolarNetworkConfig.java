@@ -17,15 +17,21 @@
 
 package net.solarnetwork.esi.solarnet.fac.config;
 
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.web.client.RestTemplate;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import net.solarnetwork.esi.solarnet.fac.dao.FacilityPriceMapDao;
 import net.solarnetwork.esi.solarnet.fac.dao.FacilityProgramDao;
 import net.solarnetwork.esi.solarnet.fac.dao.FacilityResourceDao;
+import net.solarnetwork.esi.solarnet.fac.dao.impl.BaseSolarNodeMetadataDao;
 import net.solarnetwork.esi.solarnet.fac.dao.impl.SnFacilityPriceMapDao;
 import net.solarnetwork.esi.solarnet.fac.dao.impl.SnFacilityProgramDao;
 import net.solarnetwork.esi.solarnet.fac.dao.impl.SnFacilityResourceDao;
@@ -51,6 +57,33 @@ public class SolarNetworkConfig {
   @Value("${esi.facility.solarnetwork.tokenSecret}")
   private String solarNetworkTokenSecret = null;
 
+  @Value("${esi.facility.solarnetwork.metadataCacheTtlMs:30000}")
+  private long metadataCacheTtlMs = BaseSolarNodeMetadataDao.DEFAULT_CACHE_TTL_MS;
+
+  @Value("${esi.facility.solarnetwork.metadataCacheStaleMs:300000}")
+  private long metadataCacheStaleMs = BaseSolarNodeMetadataDao.DEFAULT_CACHE_STALE_MS;
+
+  @Value("${esi.facility.solarnetwork.http.maxConnections:32}")
+  private int httpMaxConnections = WebUtils.DEFAULT_MAX_CONNECTIONS;
+
+  @Value("${esi.facility.solarnetwork.http.maxConnectionsPerRoute:8}")
+  private int httpMaxConnectionsPerRoute = WebUtils.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+
+  @Value("${esi.facility.solarnetwork.http.connectTimeoutMs:10000}")
+  private int httpConnectTimeoutMs = WebUtils.DEFAULT_CONNECT_TIMEOUT_MS;
+
+  @Value("${esi.facility.solarnetwork.http.readTimeoutMs:60000}")
+  private int httpReadTimeoutMs = WebUtils.DEFAULT_READ_TIMEOUT_MS;
+
+  @Value("${esi.facility.solarnetwork.http.keepAliveMs:30000}")
+  private long httpKeepAliveMs = WebUtils.DEFAULT_KEEP_ALIVE_MS;
+
+  @Value("${esi.facility.solarnetwork.clientThreads:4}")
+  private int clientThreads = 4;
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry;
+
   @Bean
   public AuthorizationCredentialsProvider solarNetworkCredentialsProvider() {
     return new StaticAuthorizationCredentialsProvider(solarNetworkTokenId, solarNetworkTokenSecret);
@@ -62,10 +95,50 @@ public class SolarNetworkConfig {
     return solarNetworkBaseUrl;
   }
 
+  /**
+   * The connection pool shared by all SolarNetwork clients.
+   * 
+   * @return the connection pool
+   */
+  @Bean(destroyMethod = "shutdown")
+  public PoolingHttpClientConnectionManager solarNetworkConnectionManager() {
+    PoolingHttpClientConnectionManager cm = WebUtils.pooledConnectionManager(httpMaxConnections,
+        httpMaxConnectionsPerRoute);
+    WebUtils.registerPoolMetrics(cm, meterRegistry);
+    return cm;
+  }
+
+  /**
+   * The request factory shared by all SolarNetwork clients.
+   * 
+   * @return the request factory
+   */
+  @Bean
+  public HttpComponentsClientHttpRequestFactory solarNetworkRequestFactory() {
+    return WebUtils.pooledRequestFactory(solarNetworkConnectionManager(), httpConnectTimeoutMs,
+        httpReadTimeoutMs, httpKeepAliveMs);
+  }
+
+  /**
+   * The executor for SolarNetwork requests started by scheduled tasks, so the requests do not block
+   * the shared task scheduler.
+   * 
+   * @return the executor
+   */
+  @Bean
+  public ThreadPoolTaskExecutor solarNetworkTaskExecutor() {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(clientThreads);
+    executor.setMaxPoolSize(clientThreads);
+    executor.setThreadNamePrefix("fac-sn-");
+    return executor;
+  }
+
   @Qualifier("solarnetwork")
   @Bean
   public RestTemplate solarNetworkRestTemplate() {
-    return WebUtils.setupSolarNetworkClient(new RestTemplate(), solarNetworkCredentialsProvider());
+    return WebUtils.setupSolarNetworkClient(new RestTemplate(solarNetworkRequestFactory()),
+        solarNetworkCredentialsProvider());
   }
 
   /**
@@ -76,7 +149,7 @@ public class SolarNetworkConfig {
   @Bean
   public FacilityResourceDao facilityResourceDao() {
     SnFacilityResourceDao dao = new SnFacilityResourceDao(solarNetworkRestTemplate());
-    dao.setApiBaseUrl(solarNetworkBaseUrl);
+    setupMetadataDao(dao);
     return dao;
   }
 
@@ -88,7 +161,7 @@ public class SolarNetworkConfig {
   @Bean
   public FacilityPriceMapDao facilityPriceMapDao() {
     SnFacilityPriceMapDao dao = new SnFacilityPriceMapDao(solarNetworkRestTemplate());
-    dao.setApiBaseUrl(solarNetworkBaseUrl);
+    setupMetadataDao(dao);
     return dao;
   }
 
@@ -100,8 +173,16 @@ public class SolarNetworkConfig {
   @Bean
   public FacilityProgramDao facilityProgramDao() {
     SnFacilityProgramDao dao = new SnFacilityProgramDao(solarNetworkRestTemplate());
-    dao.setApiBaseUrl(solarNetworkBaseUrl);
+    setupMetadataDao(dao);
     return dao;
   }
 
+  private void setupMetadataDao(BaseSolarNodeMetadataDao<?> dao) {
+    dao.setApiBaseUrl(solarNetworkBaseUrl);
+    dao.setCacheTtlMs(metadataCacheTtlMs);
+    dao.setCacheStaleMs(metadataCacheStaleMs);
+    dao.setTaskExecutor(solarNetworkTaskExecutor());
+    dao.setMeterRegistry(meterRegistry);
+  }
+
 }
@@ -24,23 +24,29 @@ import static java.util.stream.Collectors.toSet;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 import java.util.stream.StreamSupport;
 
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.MissingNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import net.solarnetwork.esi.solarnet.fac.dao.ReadableRepository;
 import net.solarnetwork.esi.solarnet.fac.domain.SolarNodeMetadataEntity;
 import net.solarnetwork.esi.solarnet.fac.impl.BaseSolarNetworkClientService;
@@ -51,6 +57,21 @@ import net.solarnetwork.web.security.AuthorizationCredentialsProvider;
 /**
  * Base class for SolarNetwork-based DAO implementations.
  * 
+ * <p>
+ * All entities are loaded with a single node metadata query and cached for {@code cacheTtlMs}
+ * milliseconds. Once that expires, the cached entities continue to be returned for up to another
+ * {@code cacheStaleMs} milliseconds while a refresh runs on the configured {@link Executor}.
+ * Concurrent callers that need a load share a single metadata query. The finder methods return
+ * copies of the cached entities, so callers are free to modify them.
+ * </p>
+ * 
+ * <p>
+ * Each load also records which node every entity ID was found on. When the cache is not fresh,
+ * {@link #findById(String)} uses that index to query just the owning node's metadata for just the
+ * requested entity whenever the cache cannot serve the request, falling back to loading everything
+ * if the entity is no longer found there.
+ * </p>
+ * 
  * @param <T>
  *        the entity object type
  * @param <String>
@@ -61,14 +82,58 @@ import net.solarnetwork.web.security.AuthorizationCredentialsProvider;
 public abstract class BaseSolarNodeMetadataDao<T extends SolarNodeMetadataEntity>
     extends BaseSolarNetworkClientService implements ReadableRepository<T, String> {
 
+  /** The default cache time-to-live, in milliseconds. */
+  public static final long DEFAULT_CACHE_TTL_MS = 30000L;
+
+  /** The default time stale cached data may be returned while refreshing, in milliseconds. */
+  public static final long DEFAULT_CACHE_STALE_MS = 300000L;
+
+  /** The prefix used for all metric names. */
+  public static final String METRIC_PREFIX = "esi.fac.sn.metadata";
+
+  private static final Pattern SIMPLE_ID = Pattern.compile("[A-Za-z0-9_.-]+");
+
   private final Class<T> entityClass;
   private final String metadataRootKey;
+  private final SolarNodeMetadataDecoder<T> decoder;
+  private long cacheTtlMs = DEFAULT_CACHE_TTL_MS;
+  private long cacheStaleMs = DEFAULT_CACHE_STALE_MS;
+  private Executor taskExecutor;
+  private Counter hitCounter;
+  private Counter staleCounter;
+  private Counter missCounter;
+  private Timer loadTimer;
+
+  private Counter nodeCounter;
+  private final ConcurrentMap<String, Long> nodeIndex = new ConcurrentHashMap<>(16);
+
+  private volatile CachedData<T> cached;
+
+  // guarded by this
+  private CompletableFuture<Map<Long, Map<String, T>>> loading;
+
+  private static final class CachedData<T> {
+
+    private final Map<Long, Map<String, T>> data;
+    private final long created;
+
+    private CachedData(Map<Long, Map<String, T>> data, long created) {
+      super();
+      this.data = data;
+      this.created = created;
+    }
+
+    private long age() {
+      return System.currentTimeMillis() - created;
+    }
+
+  }
 
   /**
    * Default constructor.
    * 
    * <p>
-   * This will create a new, default {@link RestTemplate}.
+   * This will create a new {@link RestTemplate} using {@link WebUtils#sharedRequestFactory()}.
    * </p>
    * 
    * @param entityClass
@@ -81,7 +146,8 @@ public abstract class BaseSolarNodeMetadataDao<T extends SolarNodeMetadataEntity
   public BaseSolarNodeMetadataDao(Class<T> entityClass, String metadataRootKey,
       AuthorizationCredentialsProvider credentialsProvider) {
     this(entityClass, metadataRootKey,
-        WebUtils.setupSolarNetworkClient(new RestTemplate(), credentialsProvider));
+        WebUtils.setupSolarNetworkClient(new RestTemplate(WebUtils.sharedRequestFactory()),
+            credentialsProvider));
   }
 
   /**
@@ -100,24 +166,141 @@ public abstract class BaseSolarNodeMetadataDao<T extends SolarNodeMetadataEntity
     super(restTemplate);
     this.entityClass = entityClass;
     this.metadataRootKey = metadataRootKey;
+    this.decoder = new SolarNodeMetadataDecoder<>(entityClass, metadataRootKey);
   }
 
   /**
    * Get all available data, possibly from cache.
    * 
    * <p>
-   * This method will call the {@link #loadAll()} method if the data is not already cached.
+   * This method will call the {@link #loadAll()} method if the data is not already cached. The
+   * returned entities may be shared with the cache, and must not be modified.
    * </p>
    * 
    * @return all available data
    */
   protected Map<Long, Map<String, T>> getAll() {
-    // TODO cache support
-    Map<Long, Map<String, T>> result = loadAll();
-    if (result != null) {
-      return result;
+    final CachedData<T> c = cached;
+    if (c != null) {
+      final long age = c.age();
+      if (age < cacheTtlMs) {
+        increment(hitCounter);
+        return c.data;
+      }
+      if (servableWhileStale(age)) {
+        increment(staleCounter);
+        load(true);
+        return c.data;
+      }
+    }
+    increment(missCounter);
+    try {
+      return load(false).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Discard any cached data, so the next request loads the data again.
+   */
+  public void invalidate() {
+    synchronized (this) {
+      cached = null;
+      loading = null;
+    }
+    log.debug("Invalidated cached {} node metadata", metadataRootKey);
+  }
+
+  private CompletableFuture<Map<Long, Map<String, T>>> load(boolean background) {
+    final CompletableFuture<Map<Long, Map<String, T>>> f;
+    synchronized (this) {
+      if (loading != null) {
+        return loading;
+      }
+      f = new CompletableFuture<>();
+      loading = f;
+    }
+    if (background) {
+      try {
+        taskExecutor.execute(() -> load(f));
+      } catch (RejectedExecutionException e) {
+        synchronized (this) {
+          if (loading == f) {
+            loading = null;
+          }
+        }
+        log.warn("Refresh of {} node metadata rejected by task executor: {}", metadataRootKey,
+            e.toString());
+        f.completeExceptionally(e);
+      }
+    } else {
+      load(f);
+    }
+    return f;
+  }
+
+  private void load(CompletableFuture<Map<Long, Map<String, T>>> f) {
+    final long start = System.currentTimeMillis();
+    try {
+      Map<Long, Map<String, T>> result = loadAll();
+      if (result == null) {
+        result = Collections.emptyMap();
+      }
+      index(result, true);
+      if (loadTimer != null) {
+        loadTimer.record(System.currentTimeMillis() - start, TimeUnit.MILLISECONDS);
+      }
+      synchronized (this) {
+        if (loading == f) {
+          if (cacheTtlMs > 0) {
+            cached = new CachedData<>(result, start);
+          }
+          loading = null;
+        }
+      }
+      f.complete(result);
+    } catch (Throwable t) {
+      synchronized (this) {
+        if (loading == f) {
+          loading = null;
+        }
+      }
+      log.warn("Error loading {} node metadata: {}", metadataRootKey, t.toString());
+      f.completeExceptionally(t);
+    }
+  }
+
+  private boolean servableWhileStale(long age) {
+    return (taskExecutor != null && age < cacheTtlMs + cacheStaleMs);
+  }
+
+  private void index(Map<Long, Map<String, T>> data, boolean complete) {
+    Set<String> ids = (complete ? new HashSet<>(nodeIndex.size()) : null);
+    for (Map.Entry<Long, Map<String, T>> me : data.entrySet()) {
+      for (String id : me.getValue().keySet()) {
+        nodeIndex.put(id, me.getKey());
+        if (ids != null) {
+          ids.add(id);
+        }
+      }
+    }
+    if (ids != null) {
+      nodeIndex.keySet().retainAll(ids);
+    }
+  }
+
+  private T copy(T entity) {
+    return entityClass.cast(entity.copy());
+  }
+
+  private static void increment(Counter counter) {
+    if (counter != null) {
+      counter.increment();
     }
-    return Collections.emptyMap();
   }
 
   /**
@@ -126,41 +309,73 @@ public abstract class BaseSolarNodeMetadataDao<T extends SolarNodeMetadataEntity
    * @return all available data
    */
   protected Map<Long, Map<String, T>> loadAll() {
-    final ObjectMapper mapper = new ObjectMapper();
+    return loadMetadata(null, "(/pm/" + metadataRootKey + "/*~=.*)");
+  }
+
+  /**
+   * Load entities from node metadata into a map with node String keys.
+   * 
+   * <p>
+   * The response is decoded as it is read by a {@link SolarNodeMetadataDecoder}, so only the
+   * matching metadata entries are materialized.
+   * </p>
+   * 
+   * @param nodeIds
+   *        the optional node IDs to limit the results to
+   * @param metadataFilter
+   *        an optional metadata filter to use
+   * @return the loaded entities
+   */
+  protected Map<Long, Map<String, T>> loadMetadata(Set<Long> nodeIds, String metadataFilter) {
+    UriComponentsBuilder uriBuilder = UriComponentsBuilder
+        .fromHttpUrl(apiUrl("/solarquery/api/v1/sec/nodes/meta"));
+    if (nodeIds != null && !nodeIds.isEmpty()) {
+      uriBuilder.queryParam("nodeIds", StringUtils.commaDelimitedStringFromCollection(nodeIds));
+    }
+    if (metadataFilter != null && !metadataFilter.isEmpty()) {
+      uriBuilder.queryParam("metadataFilter", metadataFilter);
+    }
+    String url = uriBuilder.toUriString();
+    log.info("Querying SolarNetwork for node metadata: {}", url);
     try {
-      // TODO: cache support
-      Map<Long, Map<String, T>> result = new HashMap<>(8);
-      String metadataFilter = "(/pm/" + metadataRootKey + "/*~=.*)";
-      JsonNode data = queryForMetadata(null, metadataFilter);
-      for (JsonNode datumNode : data) {
-        JsonNode nodeIdNode = datumNode.get("nodeId");
-        JsonNode resourceNode = datumNode.findPath("pm").findPath(metadataRootKey);
-        if (nodeIdNode != null && nodeIdNode.isNumber() && resourceNode != null
-            && resourceNode.isObject()) {
-          final Long nodeId = nodeIdNode.asLong();
-          for (Iterator<Map.Entry<String, JsonNode>> itr = resourceNode.fields(); itr.hasNext();) {
-            Map.Entry<String, JsonNode> e = itr.next();
-            if (e.getValue().isObject()) {
-              T entity = mapper.treeToValue(e.getValue(), entityClass);
-              entity.setId(e.getKey());
-              entity.setNodeId(nodeId.longValue());
-              result.computeIfAbsent(nodeId, k -> new HashMap<>(8)).put(e.getKey(), entity);
-            }
-          }
-        }
-      }
-      return result;
+      return getRestOperations().execute(new URI(url), HttpMethod.GET,
+          req -> req.getHeaders().setAccept(Collections.singletonList(MediaType.APPLICATION_JSON)),
+          resp -> decoder.decode(resp.getBody()));
     } catch (URISyntaxException e) {
       throw new RuntimeException("Invalid query URL [" + e.getInput() + ']');
-    } catch (JsonProcessingException e) {
-      throw new RuntimeException("Error processing datum metadata response", e);
     }
   }
 
+  /**
+   * Load a single entity from the metadata of the node it was last seen on.
+   * 
+   * @param id
+   *        the ID of the entity to load
+   * @return the entity, or {@literal null} if the node is not known or the entity was not found
+   *         there
+   */
+  private T loadFromIndexedNode(String id) {
+    final Long nodeId = nodeIndex.get(id);
+    if (nodeId == null || !SIMPLE_ID.matcher(id).matches()) {
+      return null;
+    }
+    increment(nodeCounter);
+    Map<Long, Map<String, T>> data = loadMetadata(singleton(nodeId),
+        "(/pm/" + metadataRootKey + "/" + id + "/*~=.*)");
+    index(data, false);
+    Map<String, T> entities = data.get(nodeId);
+    T entity = (entities != null ? entities.get(id) : null);
+    if (entity == null) {
+      nodeIndex.remove(id, nodeId);
+    }
+    return entity;
+  }
+
   @Override
   public Iterable<T> findAll() {
     Map<Long, Map<String, T>> result = getAll();
-    return result.values().stream().flatMap(m -> m.values().stream()).collect(toList());
+    return result.values().stream().flatMap(m -> m.values().stream()).map(this::copy)
+        .collect(toList());
   }
 
   @Override
@@ -168,7 +383,7 @@ public abstract class BaseSolarNodeMetadataDao<T extends SolarNodeMetadataEntity
     Set<String> idSet = StreamSupport.stream(ids.spliterator(), false).collect(toSet());
     Map<Long, Map<String, T>> all = getAll();
     return all.values().stream().flatMap(m -> m.entrySet().stream())
-        .filter(e -> idSet.contains(e.getKey())).map(e -> e.getValue()).collect(toList());
+        .filter(e -> idSet.contains(e.getKey())).map(e -> copy(e.getValue())).collect(toList());
   }
 
   @Override
@@ -179,10 +394,17 @@ public abstract class BaseSolarNodeMetadataDao<T extends SolarNodeMetadataEntity
 
   @Override
   public Optional<T> findById(String id) {
+    final CachedData<T> c = cached;
+    if (c == null || !(c.age() < cacheTtlMs || servableWhileStale(c.age()))) {
+      T entity = loadFromIndexedNode(id);
+      if (entity != null) {
+        return Optional.of(entity);
+      }
+    }
     // CHECKSTYLE IGNORE GenericWhitespace FOR NEXT 3 LINES
     Map<Long, Map<String, T>> all = getAll();
     return all.values().stream().flatMap(m -> m.containsKey(id) ? singleton(m.get(id)).stream()
-        : Collections.<T> emptySet().stream()).findAny();
+        : Collections.<T> emptySet().stream()).findAny().map(this::copy);
   }
 
   @Override
@@ -191,33 +413,69 @@ public abstract class BaseSolarNodeMetadataDao<T extends SolarNodeMetadataEntity
   }
 
   /**
-   * Query for node metadata.
+   * Set the time to cache loaded data for.
    * 
-   * @param nodeIds
-   *        the optional node IDs to limit the results to
-   * @param metadataFilter
-   *        an optional metadata filter to use
-   * @return the results
-   * @throws RuntimeException
-   *         if the URL syntax is not valid or there is a JSON processing error
+   * @param cacheTtlMs
+   *        the cache time-to-live, in milliseconds, or {@literal 0} to disable caching; defaults
+   *        to {@link #DEFAULT_CACHE_TTL_MS}
    */
-  protected JsonNode queryForMetadata(Set<Long> nodeIds, String metadataFilter)
-      throws URISyntaxException, JsonProcessingException {
-    UriComponentsBuilder uriBuilder = UriComponentsBuilder
-        .fromHttpUrl(apiUrl("/solarquery/api/v1/sec/nodes/meta"));
-    if (nodeIds != null && !nodeIds.isEmpty()) {
-      uriBuilder.queryParam("nodeIds", StringUtils.commaDelimitedStringFromCollection(nodeIds));
-    }
-    if (metadataFilter != null && !metadataFilter.isEmpty()) {
-      uriBuilder.queryParam("metadataFilter", metadataFilter);
-    }
-    String url = uriBuilder.toUriString();
-    log.info("Querying SolarNetwork for node metadata: {}", url);
-    ObjectNode json = getRestOperations().getForObject(new URI(url), ObjectNode.class);
-    if (json != null && json.findPath("success").booleanValue()) {
-      return json.path("data").path("results");
+  public void setCacheTtlMs(long cacheTtlMs) {
+    this.cacheTtlMs = cacheTtlMs;
+  }
+
+  /**
+   * Set the time to keep returning expired cached data for while it is refreshed in the
+   * background.
+   * 
+   * <p>
+   * This requires a task executor to be configured.
+   * </p>
+   * 
+   * @param cacheStaleMs
+   *        the time, in milliseconds, or {@literal 0} to always refresh expired data before
+   *        returning; defaults to {@link #DEFAULT_CACHE_STALE_MS}
+   */
+  public void setCacheStaleMs(long cacheStaleMs) {
+    this.cacheStaleMs = cacheStaleMs;
+  }
+
+  /**
+   * Set the executor to refresh expired cached data with.
+   * 
+   * @param taskExecutor
+   *        the executor; if {@literal null} expired data is always refreshed before returning
+   */
+  public void setTaskExecutor(Executor taskExecutor) {
+    this.taskExecutor = taskExecutor;
+  }
+
+  /**
+   * Set a meter registry to publish cache metrics to.
+   * 
+   * @param meterRegistry
+   *        the registry to use
+   */
+  public void setMeterRegistry(MeterRegistry meterRegistry) {
+    if (meterRegistry == null) {
+      return;
     }
-    return MissingNode.getInstance();
+    hitCounter = Counter.builder(METRIC_PREFIX + ".cache").tag("type", metadataRootKey)
+        .tag("result", "hit").description("Node metadata requests served from cache")
+        .register(meterRegistry);
+    staleCounter = Counter.builder(METRIC_PREFIX + ".cache").tag("type", metadataRootKey)
+        .tag("result", "stale")
+        .description("Node metadata requests served from stale cache while refreshing")
+        .register(meterRegistry);
+    missCounter = Counter.builder(METRIC_PREFIX + ".cache").tag("type", metadataRootKey)
+        .tag("result", "miss").description("Node metadata requests that waited for a load")
+        .register(meterRegistry);
+    nodeCounter = Counter.builder(METRIC_PREFIX + ".cache").tag("type", metadataRootKey)
+        .tag("result", "node")
+        .description("Node metadata requests served by a query for a single node")
+        .register(meterRegistry);
+    loadTimer = Timer.builder(METRIC_PREFIX + ".load").tag("type", metadataRootKey)
+        .description("Time taken to load node metadata from SolarNetwork")
+        .register(meterRegistry);
   }
 
 }
@@ -39,7 +39,7 @@ public class SnFacilityResourceDao extends BaseSolarNodeMetadataDao<FacilityReso
    * Default constructor.
    * 
    * <p>
-   * This will create a new, default {@link RestTemplate}.
+   * This will create a new {@link RestTemplate} using the shared, pooled request factory.
    * </p>
    * 
    * @param credentialsProvider
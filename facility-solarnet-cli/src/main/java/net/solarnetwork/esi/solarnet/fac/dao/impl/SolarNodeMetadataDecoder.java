@@ -0,0 +1,195 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.solarnet.fac.dao.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import net.solarnetwork.esi.solarnet.fac.domain.SolarNodeMetadataEntity;
+
+/**
+ * Streaming decoder for SolarNetwork node metadata query responses.
+ * 
+ * <p>
+ * The response is read token by token: only the objects under {@code pm/<rootKey>} of each result
+ * are bound to entities, directly from the parser, and everything else is skipped without being
+ * materialized. The expected response structure is:
+ * </p>
+ * 
+ * <pre>
+ * {"success":true,"data":{"results":[{"nodeId":1,"pm":{"rootKey":{"id1":{...}}}}]}}
+ * </pre>
+ * 
+ * <p>
+ * Instances are thread-safe.
+ * </p>
+ * 
+ * @param <T>
+ *        the entity type
+ * @author matt
+ * @version 1.0
+ */
+public class SolarNodeMetadataDecoder<T extends SolarNodeMetadataEntity> {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static final ConcurrentMap<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<>(8);
+
+  private final String metadataRootKey;
+  private final ObjectReader entityReader;
+
+  /**
+   * Constructor.
+   * 
+   * @param entityClass
+   *        the entity class to bind metadata objects to
+   * @param metadataRootKey
+   *        the metadata root key of all entities
+   * @throws IllegalArgumentException
+   *         if any argument is {@literal null}
+   */
+  public SolarNodeMetadataDecoder(Class<T> entityClass, String metadataRootKey) {
+    super();
+    if (entityClass == null) {
+      throw new IllegalArgumentException("The entity class must be provided.");
+    }
+    if (metadataRootKey == null) {
+      throw new IllegalArgumentException("The metadata root key must be provided.");
+    }
+    this.metadataRootKey = metadataRootKey;
+    this.entityReader = READERS.computeIfAbsent(entityClass, MAPPER::readerFor);
+  }
+
+  /**
+   * Decode a node metadata query response.
+   * 
+   * @param in
+   *        the response stream; it is not closed by this method
+   * @return the decoded entities, mapped by node ID and then entity ID; never {@literal null}
+   * @throws IOException
+   *         if the response cannot be read or parsed
+   */
+  public Map<Long, Map<String, T>> decode(InputStream in) throws IOException {
+    try (JsonParser p = MAPPER.getFactory().createParser(in)) {
+      p.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+      return decode(p);
+    }
+  }
+
+  /**
+   * Decode a node metadata query response.
+   * 
+   * @param p
+   *        the parser, positioned before or on the response's start object token
+   * @return the decoded entities, mapped by node ID and then entity ID; never {@literal null}
+   * @throws IOException
+   *         if the response cannot be parsed
+   */
+  public Map<Long, Map<String, T>> decode(JsonParser p) throws IOException {
+    JsonToken t = (p.currentToken() != null ? p.currentToken() : p.nextToken());
+    if (t != JsonToken.START_OBJECT) {
+      return Collections.emptyMap();
+    }
+    boolean success = false;
+    Map<Long, Map<String, T>> result = null;
+    while (p.nextToken() == JsonToken.FIELD_NAME) {
+      String name = p.getCurrentName();
+      t = p.nextToken();
+      if ("success".equals(name)) {
+        success = (t == JsonToken.VALUE_TRUE);
+      } else if ("data".equals(name) && t == JsonToken.START_OBJECT) {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+          String dataName = p.getCurrentName();
+          if (p.nextToken() == JsonToken.START_ARRAY && "results".equals(dataName)) {
+            result = decodeResults(p);
+          } else {
+            p.skipChildren();
+          }
+        }
+      } else {
+        p.skipChildren();
+      }
+    }
+    return (success && result != null ? result : Collections.emptyMap());
+  }
+
+  private Map<Long, Map<String, T>> decodeResults(JsonParser p) throws IOException {
+    Map<Long, Map<String, T>> result = new HashMap<>(8);
+    JsonToken t;
+    while ((t = p.nextToken()) != JsonToken.END_ARRAY && t != null) {
+      if (t != JsonToken.START_OBJECT) {
+        p.skipChildren();
+        continue;
+      }
+      Long nodeId = null;
+      Map<String, T> entities = null;
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        String name = p.getCurrentName();
+        t = p.nextToken();
+        if ("nodeId".equals(name) && t.isNumeric()) {
+          nodeId = p.getLongValue();
+        } else if ("pm".equals(name) && t == JsonToken.START_OBJECT) {
+          entities = decodePropertyMetadata(p);
+        } else {
+          p.skipChildren();
+        }
+      }
+      if (nodeId != null && entities != null && !entities.isEmpty()) {
+        for (T entity : entities.values()) {
+          entity.setNodeId(nodeId);
+        }
+        result.computeIfAbsent(nodeId, k -> new HashMap<>(8)).putAll(entities);
+      }
+    }
+    return result;
+  }
+
+  private Map<String, T> decodePropertyMetadata(JsonParser p) throws IOException {
+    Map<String, T> entities = null;
+    while (p.nextToken() == JsonToken.FIELD_NAME) {
+      String name = p.getCurrentName();
+      if (p.nextToken() == JsonToken.START_OBJECT && metadataRootKey.equals(name)) {
+        entities = new HashMap<>(8);
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+          String id = p.getCurrentName();
+          if (p.nextToken() == JsonToken.START_OBJECT) {
+            T entity = entityReader.readValue(p);
+            entity.setId(id);
+            entities.put(id, entity);
+          } else {
+            p.skipChildren();
+          }
+        }
+      } else {
+        p.skipChildren();
+      }
+    }
+    return entities;
+  }
+
+}
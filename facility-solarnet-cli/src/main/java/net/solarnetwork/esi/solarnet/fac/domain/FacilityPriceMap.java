@@ -99,6 +99,7 @@ public class FacilityPriceMap extends BaseIdentity<String>
    * 
    * @return the copy
    */
+  @Override
   public FacilityPriceMap copy() {
     FacilityPriceMap c = new FacilityPriceMap(getId());
     PriceMapEmbed pm = getPriceMap();
@@ -90,8 +90,10 @@ public class FacilityProgram extends BaseIdentity<String>
    * 
    * @return the copy
    */
+  @Override
   public FacilityProgram copy() {
     FacilityProgram c = new FacilityProgram(getId(), getProgramType());
+    c.setNodeId(getNodeId());
     c.setPriceMapId(getPriceMapId());
     c.setPriceMapGroupUid(getPriceMapGroupUid());
     c.setResourceId(getResourceId());
@@ -71,6 +71,26 @@ public class FacilityResourceCharacteristics extends BaseIdentity<String>
     this.characteristics = characteristics;
   }
 
+  /**
+   * Create a copy of this instance.
+   * 
+   * <p>
+   * All properties are copied onto the new instance.
+   * </p>
+   * 
+   * @return the copy
+   */
+  @Override
+  public FacilityResourceCharacteristics copy() {
+    FacilityResourceCharacteristics c = new FacilityResourceCharacteristics(getId());
+    ResourceCharacteristicsEmbed rc = getCharacteristics();
+    if (rc != null) {
+      c.setCharacteristics(rc.copy());
+    }
+    c.setNodeId(getNodeId());
+    return c;
+  }
+
   @Override
   public int signatureMessageBytesSize() {
     return characteristics().signatureMessageBytesSize();
@@ -0,0 +1,298 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.solarnet.fac.domain;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import javax.persistence.AttributeOverride;
+import javax.persistence.AttributeOverrides;
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Embedded;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Table;
+
+import net.solarnetwork.esi.domain.jpa.BaseUuidEntity;
+import net.solarnetwork.esi.domain.jpa.PriceMapEmbed;
+
+/**
+ * An archived price map offer event.
+ * 
+ * <p>
+ * Once an offer event has reached a final execution state and is old enough it is moved out of the
+ * {@link PriceMapOfferEventEntity} table into this archive table, with the offer and counter-offer
+ * price map details stored inline. The archive entity modified date is the date the event was
+ * archived.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+@Entity
+@Table(name = "PRICE_MAP_OFFER_EVENTS_ARCH")
+public class PriceMapOfferEventArchiveEntity extends BaseUuidEntity {
+
+  private static final long serialVersionUID = -5260118793027445631L;
+
+  @Basic
+  @Column(name = "START_AT", nullable = false, insertable = true, updatable = false)
+  private Instant startDate;
+
+  @Basic
+  @Column(name = "IS_ACCEPTED", nullable = false, insertable = true, updatable = false)
+  private boolean accepted;
+
+  @Basic
+  @Column(name = "IS_SUCCESS", nullable = false, insertable = true, updatable = false)
+  private boolean completedSuccessfully;
+
+  @Enumerated(EnumType.STRING)
+  @Column(name = "EXEC_STATE", nullable = false, insertable = true, updatable = false, length = 12)
+  private PriceMapOfferExecutionState executionState;
+
+  @Basic
+  @Column(name = "MSG", nullable = true, insertable = true, updatable = false, length = 255)
+  private String message;
+
+  // CHECKSTYLE IGNORE LineLength FOR NEXT 2 LINES
+  @Basic
+  @Column(name = "FAC_PRICE_MAP_ID", nullable = true, insertable = true, updatable = false, length = 64)
+  private String facilityPriceMapId;
+
+  @Embedded
+  private PriceMapEmbed priceMap;
+
+  // @formatter:off
+  @Embedded
+  @AttributeOverrides({
+      @AttributeOverride(name = "powerComponents.realPower",
+          column = @Column(name = "CO_POWER_REAL")),
+      @AttributeOverride(name = "powerComponents.reactivePower",
+          column = @Column(name = "CO_POWER_REACTIVE")),
+      @AttributeOverride(name = "duration", column = @Column(name = "CO_DUR")),
+      @AttributeOverride(name = "responseTime.min", column = @Column(name = "CO_RESP_TIME_MIN")),
+      @AttributeOverride(name = "responseTime.max", column = @Column(name = "CO_RESP_TIME_MAX")),
+      @AttributeOverride(name = "priceComponents.currency",
+          column = @Column(name = "CO_PRICE_CURRENCY", length = 3)),
+      @AttributeOverride(name = "priceComponents.apparentEnergyPrice",
+          column = @Column(name = "CO_PRICE_ENERGY_APPARENT", precision = 18, scale = 9)) })
+  private PriceMapEmbed counterOffer;
+  // @formatter:on
+
+  /**
+   * Default constructor.
+   */
+  public PriceMapOfferEventArchiveEntity() {
+    super();
+  }
+
+  /**
+   * Construct with creation date and ID.
+   * 
+   * @param created
+   *        the creation date
+   * @param id
+   *        the ID
+   */
+  public PriceMapOfferEventArchiveEntity(Instant created, UUID id) {
+    super(created, id);
+  }
+
+  /**
+   * Create an archive entity out of an offer event.
+   * 
+   * @param event
+   *        the event to archive
+   * @return the new archive entity
+   */
+  public static PriceMapOfferEventArchiveEntity archiveOf(PriceMapOfferEventEntity event) {
+    PriceMapOfferEventArchiveEntity entity = new PriceMapOfferEventArchiveEntity(
+        event.getCreated(), event.getId());
+    entity.setStartDate(event.getStartDate());
+    entity.setAccepted(event.isAccepted());
+    entity.setCompletedSuccessfully(event.isCompletedSuccessfully());
+    entity.setExecutionState(event.getExecutionState());
+    entity.setMessage(event.getMessage());
+    entity.setFacilityPriceMapId(event.getFacilityPriceMapId());
+    PriceMapEntity pm = event.getPriceMap();
+    if (pm != null && pm.getPriceMap() != null) {
+      entity.setPriceMap(pm.getPriceMap().copy());
+    }
+    pm = event.getCounterOffer();
+    if (pm != null && pm.getPriceMap() != null) {
+      entity.setCounterOffer(pm.getPriceMap().copy());
+    }
+    return entity;
+  }
+
+  /**
+   * Get the offer start date.
+   * 
+   * @return the start date
+   */
+  public Instant getStartDate() {
+    return startDate;
+  }
+
+  /**
+   * Set the offer start date.
+   * 
+   * @param startDate
+   *        the date to set
+   */
+  public void setStartDate(Instant startDate) {
+    this.startDate = startDate;
+  }
+
+  /**
+   * Get the accepted flag.
+   * 
+   * @return {@literal true} if the offer was accepted
+   */
+  public boolean isAccepted() {
+    return accepted;
+  }
+
+  /**
+   * Set the accepted flag.
+   * 
+   * @param accepted
+   *        the accepted to set
+   */
+  public void setAccepted(boolean accepted) {
+    this.accepted = accepted;
+  }
+
+  /**
+   * Get the completed successfully flag.
+   * 
+   * @return {@literal true} if the offer was executed successfully
+   */
+  public boolean isCompletedSuccessfully() {
+    return completedSuccessfully;
+  }
+
+  /**
+   * Set the completed successfully flag.
+   * 
+   * @param completedSuccessfully
+   *        the flag to set
+   */
+  public void setCompletedSuccessfully(boolean completedSuccessfully) {
+    this.completedSuccessfully = completedSuccessfully;
+  }
+
+  /**
+   * Get the final execution state.
+   * 
+   * @return the execution state
+   */
+  public PriceMapOfferExecutionState getExecutionState() {
+    return executionState;
+  }
+
+  /**
+   * Set the final execution state.
+   * 
+   * @param executionState
+   *        the execution state to set
+   */
+  public void setExecutionState(PriceMapOfferExecutionState executionState) {
+    this.executionState = executionState;
+  }
+
+  /**
+   * Get the message.
+   * 
+   * @return the message
+   */
+  public String getMessage() {
+    return message;
+  }
+
+  /**
+   * Set the message.
+   * 
+   * @param message
+   *        the message to set
+   */
+  public void setMessage(String message) {
+    this.message = message;
+  }
+
+  /**
+   * Get the ID of the associated facility price map.
+   * 
+   * @return the facility price map ID
+   */
+  public String getFacilityPriceMapId() {
+    return facilityPriceMapId;
+  }
+
+  /**
+   * Set the ID of the associated facility price map.
+   * 
+   * @param facilityPriceMapId
+   *        the facility price map ID to set
+   */
+  public void setFacilityPriceMapId(String facilityPriceMapId) {
+    this.facilityPriceMapId = facilityPriceMapId;
+  }
+
+  /**
+   * Get the offered price map details.
+   * 
+   * @return the price map details
+   */
+  public PriceMapEmbed getPriceMap() {
+    return priceMap;
+  }
+
+  /**
+   * Set the offered price map details.
+   * 
+   * @param priceMap
+   *        the price map details to set
+   */
+  public void setPriceMap(PriceMapEmbed priceMap) {
+    this.priceMap = priceMap;
+  }
+
+  /**
+   * Get the counter-offer price map details.
+   * 
+   * @return the counter-offer details, or {@literal null} if the offer was not countered
+   */
+  public PriceMapEmbed getCounterOffer() {
+    return counterOffer;
+  }
+
+  /**
+   * Set the counter-offer price map details.
+   * 
+   * @param counterOffer
+   *        the counter-offer details to set
+   */
+  public void setCounterOffer(PriceMapEmbed counterOffer) {
+    this.counterOffer = counterOffer;
+  }
+
+}
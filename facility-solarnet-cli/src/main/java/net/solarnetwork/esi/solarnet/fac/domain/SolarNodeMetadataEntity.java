@@ -43,4 +43,11 @@ public interface SolarNodeMetadataEntity extends Identity<String> {
    */
   void setNodeId(Long nodeId);
 
+  /**
+   * Create a copy of this instance.
+   * 
+   * @return the copy
+   */
+  SolarNodeMetadataEntity copy();
+
 }
@@ -19,6 +19,8 @@ package net.solarnetwork.esi.solarnet.fac.impl;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestOperations;
 import org.springframework.web.client.RestTemplate;
 
@@ -59,6 +61,23 @@ public abstract class BaseSolarNetworkClientService {
     return getApiBaseUrl() + path;
   }
 
+  /**
+   * Test if a client error response is permanent, so the same request should not be retried.
+   * 
+   * <p>
+   * All 4xx responses are permanent except {@literal 408 Request Timeout} and
+   * {@literal 429 Too Many Requests}.
+   * </p>
+   * 
+   * @param e
+   *        the client error
+   * @return {@literal true} if retrying the request cannot succeed
+   */
+  protected static boolean isPermanentClientError(HttpClientErrorException e) {
+    HttpStatus status = e.getStatusCode();
+    return !(status == HttpStatus.REQUEST_TIMEOUT || status == HttpStatus.TOO_MANY_REQUESTS);
+  }
+
   /**
    * Get the configured RestOperations.
    * 
@@ -135,4 +135,9 @@ public class DaoFacilityService implements FacilityService {
     return priceMapDao.findAll();
   }
 
+  @Override
+  public FacilityPriceMap getPriceMap(String id) {
+    return priceMapDao.findById(id).orElse(null);
+  }
+
 }
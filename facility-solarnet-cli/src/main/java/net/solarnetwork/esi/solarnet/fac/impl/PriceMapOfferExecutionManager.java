@@ -15,50 +15,104 @@
  * ========================================================================
  */
 
-package net.solarnetwork.esi.solarnet.fac.impl;
 
-import static java.util.Arrays.asList;
+package net.solarnetwork.esi.solarnet.fac.impl;
 
+import java.time.Duration;
 import java.time.Instant;
-import java.util.HashSet;
-import java.util.NavigableSet;
-import java.util.NoSuchElementException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import net.solarnetwork.esi.solarnet.fac.dao.PriceMapOfferEventEntityDao;
 import net.solarnetwork.esi.solarnet.fac.domain.FacilityPriceMapOfferEvent;
+import net.solarnetwork.esi.solarnet.fac.domain.PriceMapOfferEventEntity;
 import net.solarnetwork.esi.solarnet.fac.domain.PriceMapOfferExecutionState;
 import net.solarnetwork.esi.solarnet.fac.domain.PriceMapOfferNotification.PriceMapOfferAccepted;
 import net.solarnetwork.esi.solarnet.fac.service.PriceMapOfferExecutionService;
+import net.solarnetwork.esi.util.KeyedSerialExecutor;
+import net.solarnetwork.esi.util.TimingWheel;
 
 /**
  * Listens for accepted price map offers and schedules their execution.
  * 
+ * <p>
+ * The start and end of each accepted offer are scheduled on a {@link TimingWheel}, which the
+ * configured task scheduler advances every {@code tickMs} milliseconds, so scheduling an offer
+ * takes constant time however many offers are pending. Tasks are executed up to one tick before
+ * their scheduled time. When {@link #setTickThreadNamePrefix(String)} is configured instead of a
+ * task scheduler, the manager advances the schedule on a dedicated thread of its own, so that
+ * other tasks on a shared scheduler cannot delay offer execution.
+ * </p>
+ * 
+ * <p>
+ * Due tasks are handed to the configured task executor rather than run on the scheduler thread,
+ * because executing an offer can block while instructions are sent to the facility's devices.
+ * Tasks with the same {@link PriceMapOfferExecutionService#executionKey(UUID)} run one at a time
+ * in schedule order, while tasks for different keys run in parallel. Without a task executor, tasks
+ * run directly on the thread calling {@link #tick()}.
+ * </p>
+ * 
+ * <p>
+ * Pending executions are not persisted by the manager itself: instead
+ * {@link #startup()} schedules all offer events that are still
+ * {@link PriceMapOfferExecutionState#WAITING} or {@link PriceMapOfferExecutionState#EXECUTING},
+ * so executions interrupted by a restart are resumed.
+ * </p>
+ * 
  * @author matt
  * @version 1.0
  */
 public class PriceMapOfferExecutionManager {
 
+  /**
+   * The default value for the {@code tickMs} property.
+   */
+  public static final long DEFAULT_TICK_MS = TimingWheel.DEFAULT_TICK_MS;
+
+  /** The metric name prefix used. */
+  public static final String METRIC_PREFIX = "esi.fac.offer.execution";
+
+  /** The execution states of offer events that are scheduled on startup. */
+  public static final Set<PriceMapOfferExecutionState> RECOVERABLE_EXECUTION_STATES = Collections
+      .unmodifiableSet(
+          EnumSet.of(PriceMapOfferExecutionState.WAITING, PriceMapOfferExecutionState.EXECUTING));
+
   private static final Logger log = LoggerFactory.getLogger(PriceMapOfferExecutionManager.class);
 
   private final PriceMapOfferExecutionService offerExecutionService;
-  private final NavigableSet<PriceMapExecutionScheduledEvent> pending;
-  private final Lock taskLock;
-  private final Condition taskCondition;
-  private final Thread taskThread;
+  private final PriceMapOfferEventEntityDao offerEventDao;
+  private final Set<PriceMapExecutionScheduledEvent> pending;
+  private TaskScheduler taskScheduler;
+  private String tickThreadNamePrefix;
+  private ThreadPoolTaskScheduler tickScheduler;
+  private long tickMs = DEFAULT_TICK_MS;
+  private volatile TimingWheel<PriceMapExecutionScheduledEvent> wheel;
+  private ScheduledFuture<?> tickTask;
+  private KeyedSerialExecutor<String> taskExecutor;
+  private MeterRegistry meterRegistry;
+  private Timer lagTimer;
+  private final Set<String> meteredKeys;
 
   @ParametersAreNonnullByDefault
   private static final class PriceMapExecutionScheduledEvent
@@ -67,13 +121,15 @@ public class PriceMapOfferExecutionManager {
     private final Instant date;
     private final UUID offerId;
     private final PriceMapOfferExecutionState newState;
+    private final String key;
 
     private PriceMapExecutionScheduledEvent(UUID offerId, Instant date,
-        PriceMapOfferExecutionState newState) {
+        PriceMapOfferExecutionState newState, String key) {
       super();
       this.offerId = offerId;
       this.date = date;
       this.newState = newState;
+      this.key = key;
     }
 
     @Override
@@ -124,97 +180,189 @@ public class PriceMapOfferExecutionManager {
    * 
    * @param offerExecutionService
    *        the offer execution service
+   * @param offerEventDao
+   *        the offer event DAO, to recover pending executions from
+   * @throws IllegalArgumentException
+   *         if any argument is {@literal null}
    */
-  public PriceMapOfferExecutionManager(PriceMapOfferExecutionService offerExecutionService) {
+  public PriceMapOfferExecutionManager(PriceMapOfferExecutionService offerExecutionService,
+      PriceMapOfferEventEntityDao offerEventDao) {
     super();
+    if (offerExecutionService == null) {
+      throw new IllegalArgumentException("The offer execution service must be provided.");
+    }
     this.offerExecutionService = offerExecutionService;
-    this.pending = new ConcurrentSkipListSet<>();
-    ReentrantLock l = new ReentrantLock();
-    this.taskLock = l;
-    this.taskCondition = l.newCondition();
-    this.taskThread = new Thread(new TaskRunner(), "PriceMapOfferExecutionManager");
-    this.taskThread.setDaemon(true);
-    this.taskThread.start();
+    if (offerEventDao == null) {
+      throw new IllegalArgumentException("The offer event DAO must be provided.");
+    }
+    this.offerEventDao = offerEventDao;
+    this.pending = ConcurrentHashMap.newKeySet();
+    this.meteredKeys = ConcurrentHashMap.newKeySet();
+    this.taskExecutor = new KeyedSerialExecutor<>(Runnable::run);
+    this.wheel = new TimingWheel<>(tickMs, TimingWheel.DEFAULT_WHEEL_SIZE,
+        System.currentTimeMillis());
   }
 
-  private static final UUID MAX_UUID = new UUID(Long.MAX_VALUE, Long.MAX_VALUE);
-  private static final long PENDING_FUTURE_PADDING_MS = 200L;
+  /**
+   * Recover pending executions and start advancing the schedule.
+   * 
+   * <p>
+   * If neither a task scheduler nor a tick thread name prefix has been configured, pending
+   * executions are still recovered, but {@link #tick()} must be called to execute them.
+   * </p>
+   */
+  public synchronized void startup() {
+    if (tickTask != null) {
+      return;
+    }
+    int count = recoverPendingExecutions();
+    log.info("Scheduled {} pending price map offer events for execution", count);
+    TaskScheduler scheduler = taskScheduler;
+    if (scheduler == null && tickThreadNamePrefix != null) {
+      tickScheduler = new ThreadPoolTaskScheduler();
+      tickScheduler.setPoolSize(1);
+      tickScheduler.setThreadNamePrefix(tickThreadNamePrefix);
+      tickScheduler.initialize();
+      scheduler = tickScheduler;
+    }
+    if (scheduler != null) {
+      tickTask = scheduler.scheduleAtFixedRate(this::tick, tickMs);
+    }
+  }
 
-  private class TaskRunner implements Runnable {
+  /**
+   * Stop advancing the schedule.
+   */
+  public synchronized void shutdown() {
+    if (tickTask != null) {
+      tickTask.cancel(false);
+      tickTask = null;
+    }
+    if (tickScheduler != null) {
+      tickScheduler.shutdown();
+      tickScheduler = null;
+    }
+  }
 
-    private volatile boolean keepGoing = true;
+  /**
+   * Schedule all offer events in one of the {@link #RECOVERABLE_EXECUTION_STATES}.
+   * 
+   * @return the number of offer events scheduled
+   */
+  public int recoverPendingExecutions() {
+    List<PriceMapOfferEventEntity> events = offerEventDao
+        .findAllByExecutionStateIn(RECOVERABLE_EXECUTION_STATES);
+    int count = 0;
+    for (PriceMapOfferEventEntity event : events) {
+      if (scheduleOfferEvent(event.getId(), event.getStartDate(),
+          event.offerPriceMap().duration(), event.executionState())) {
+        count++;
+      }
+    }
+    return count;
+  }
 
-    @Override
-    public void run() {
-      log.info("Starting price map offer execution manager thread.");
-      while (keepGoing) {
-        taskLock.lock();
-        try {
-          PriceMapExecutionScheduledEvent next = null;
-          try {
-            next = pending.first();
-          } catch (NoSuchElementException e) {
-            // ignore this
+  private boolean scheduleOfferEvent(UUID offerId, Instant startDate, Duration duration,
+      PriceMapOfferExecutionState state) {
+    final String key = executionKey(offerId);
+    boolean scheduled = false;
+    if (state == PriceMapOfferExecutionState.WAITING) {
+      scheduled |= schedule(new PriceMapExecutionScheduledEvent(offerId, startDate,
+          PriceMapOfferExecutionState.EXECUTING, key));
+    }
+    scheduled |= schedule(new PriceMapExecutionScheduledEvent(offerId, startDate.plus(duration),
+        PriceMapOfferExecutionState.COMPLETED, key));
+    return scheduled;
+  }
+
+  private String executionKey(UUID offerId) {
+    try {
+      String key = offerExecutionService.executionKey(offerId);
+      if (key != null) {
+        return key;
+      }
+    } catch (RuntimeException e) {
+      log.warn("Error resolving execution key for offer {}: {}", offerId, e.toString());
+    }
+    return offerId.toString();
+  }
+
+  private boolean schedule(PriceMapExecutionScheduledEvent task) {
+    if (!pending.add(task)) {
+      return false;
+    }
+    wheel.schedule(task.date.toEpochMilli(), task);
+    return true;
+  }
+
+  /**
+   * Advance the schedule to the current time, executing all tasks that have become due.
+   * 
+   * <p>
+   * This is called every {@code tickMs} milliseconds by the configured task scheduler. Due tasks
+   * are passed to the task executor.
+   * </p>
+   */
+  public void tick() {
+    final long now = System.currentTimeMillis();
+    List<TimingWheel.Entry<PriceMapExecutionScheduledEvent>> due = wheel.advance(now);
+    if (due.isEmpty()) {
+      return;
+    }
+    log.info("Found {} offer tasks to manage", due.size());
+    due.sort((l, r) -> l.getTask().compareTo(r.getTask()));
+    for (TimingWheel.Entry<PriceMapExecutionScheduledEvent> entry : due) {
+      PriceMapExecutionScheduledEvent task = entry.getTask();
+      pending.remove(task);
+      registerKeyMetrics(task.key);
+      try {
+        taskExecutor.execute(task.key, () -> {
+          if (lagTimer != null) {
+            lagTimer.record(Math.max(0L, System.currentTimeMillis() - entry.getTime()),
+                TimeUnit.MILLISECONDS);
           }
-          long sleepTime = (next != null ? next.date.toEpochMilli() - System.currentTimeMillis()
-              : Integer.MAX_VALUE);
-          if (sleepTime < 0) {
-            sleepTime = 0;
+          execute(task);
+        });
+      } catch (RejectedExecutionException e) {
+        log.error("Offer {} task {} rejected by executor", task.offerId, task.newState);
+      }
+    }
+  }
+
+  private void registerKeyMetrics(String key) {
+    final MeterRegistry registry = this.meterRegistry;
+    if (registry == null || !meteredKeys.add(key)) {
+      return;
+    }
+    Gauge.builder(METRIC_PREFIX + ".queue", this, s -> s.taskExecutor.getQueueSize(key))
+        .tag("key", key)
+        .description("Number of offer execution tasks queued for an execution key")
+        .register(registry);
+  }
+
+  private void execute(PriceMapExecutionScheduledEvent offer) {
+    // TODO: handle results, and re-schedule if they don't complete
+    try {
+      if (offer.newState == PriceMapOfferExecutionState.EXECUTING) {
+        offerExecutionService.executePriceMapOfferEvent(offer.offerId).whenComplete((o, t) -> {
+          if (t != null) {
+            log.error("Offer {} execution threw an exception.", offer.offerId, t);
+          } else {
+            log.info("Offer {} execution completed with result: {}", offer.offerId, o);
           }
-          log.debug("Waiting {}ms to execute next offer task: {}", sleepTime, next);
-          taskCondition.await(sleepTime, TimeUnit.MILLISECONDS);
-          if (keepGoing) {
-            Set<PriceMapExecutionScheduledEvent> offersToManage = new HashSet<>();
-            synchronized (pending) {
-              // get all pending executions less than now, plus a small amount of padding to grap
-              // executions "just about" to be ready to execute
-              NavigableSet<PriceMapExecutionScheduledEvent> ready = pending
-                  .headSet(new PriceMapExecutionScheduledEvent(MAX_UUID,
-                      Instant.now().plusMillis(PENDING_FUTURE_PADDING_MS),
-                      PriceMapOfferExecutionState.ABORTED), true);
-              for (PriceMapExecutionScheduledEvent task : ready) {
-                offersToManage.add(task);
-              }
-              ready.clear();
-            }
-            if (!offersToManage.isEmpty()) {
-              log.info("Found {} offer tasks to manage: {}", offersToManage.size(), offersToManage);
-              for (PriceMapExecutionScheduledEvent offer : offersToManage) {
-                // TODO: handle results, and re-schedule if they don't complete;
-                // must be handled by a different thread though
-                try {
-                  if (offer.newState == PriceMapOfferExecutionState.EXECUTING) {
-                    offerExecutionService.executePriceMapOfferEvent(offer.offerId)
-                        .whenComplete((o, t) -> {
-                          if (t != null) {
-                            log.error("Offer {} execution threw an exception.", offer.offerId, t);
-                          } else {
-                            log.info("Offer {} execution completed with result: {}", offer.offerId,
-                                o);
-                          }
-                        });
-                  } else {
-                    offerExecutionService.endPriceMapOfferEvent(offer.offerId, offer.newState)
-                        .whenComplete((o, t) -> {
-                          if (t != null) {
-                            log.error("Offer {} ending threw an exception.", offer.offerId, t);
-                          } else {
-                            log.info("Offer {} ending completed with result: {}", offer.offerId, o);
-                          }
-                        });
-                  }
-                } catch (Exception e) {
-                  log.error("Error executing price map offer {}", offer.offerId, e);
-                }
+        });
+      } else {
+        offerExecutionService.endPriceMapOfferEvent(offer.offerId, offer.newState)
+            .whenComplete((o, t) -> {
+              if (t != null) {
+                log.error("Offer {} ending threw an exception.", offer.offerId, t);
+              } else {
+                log.info("Offer {} ending completed with result: {}", offer.offerId, o);
               }
-            }
-          }
-        } catch (InterruptedException e) {
-          // hello
-        } finally {
-          taskLock.unlock();
-        }
+            });
       }
+    } catch (Exception e) {
+      log.error("Error executing price map offer {}", offer.offerId, e);
     }
   }
 
@@ -234,18 +382,114 @@ public class PriceMapOfferExecutionManager {
     }
     log.info("Scheduling execution task for offer {} @ {}", offerEvent.getId(),
         offerEvent.getStartDate());
-    pending.addAll(asList(
-        new PriceMapExecutionScheduledEvent(offerEvent.getId(), offerEvent.getStartDate(),
-            PriceMapOfferExecutionState.EXECUTING),
-        new PriceMapExecutionScheduledEvent(offerEvent.getId(),
-            offerEvent.getStartDate().plus(offerEvent.offerPriceMap().duration()),
-            PriceMapOfferExecutionState.COMPLETED)));
-    taskLock.lock();
-    try {
-      taskCondition.signal();
-    } finally {
-      taskLock.unlock();
+    scheduleOfferEvent(offerEvent.getId(), offerEvent.getStartDate(),
+        offerEvent.offerPriceMap().duration(), PriceMapOfferExecutionState.WAITING);
+  }
+
+  /**
+   * Get the number of scheduled tasks waiting to be executed.
+   * 
+   * @return the number of pending tasks
+   */
+  public int getPendingCount() {
+    return wheel.size();
+  }
+
+  /**
+   * Set the task scheduler to advance the schedule with.
+   * 
+   * @param taskScheduler
+   *        the task scheduler
+   */
+  public void setTaskScheduler(TaskScheduler taskScheduler) {
+    this.taskScheduler = taskScheduler;
+  }
+
+  /**
+   * Set the thread name prefix of a dedicated thread to advance the schedule with.
+   * 
+   * <p>
+   * If configured and no task scheduler has been set, {@link #startup()} creates a single-thread
+   * scheduler that only advances the schedule, and {@link #shutdown()} stops it.
+   * </p>
+   * 
+   * @param tickThreadNamePrefix
+   *        the thread name prefix, or {@literal null} to use only the configured task scheduler
+   */
+  public void setTickThreadNamePrefix(String tickThreadNamePrefix) {
+    this.tickThreadNamePrefix = tickThreadNamePrefix;
+  }
+
+  /**
+   * Set the executor to run due tasks with.
+   * 
+   * <p>
+   * This must be called before {@link #startup()}.
+   * </p>
+   * 
+   * @param taskExecutor
+   *        the executor, or {@literal null} to run tasks on the thread calling {@link #tick()}
+   */
+  public void setTaskExecutor(Executor taskExecutor) {
+    this.taskExecutor = new KeyedSerialExecutor<>(
+        taskExecutor != null ? taskExecutor : Runnable::run);
+  }
+
+  /**
+   * Get the number of due tasks that have been handed to the task executor but have not yet
+   * completed.
+   * 
+   * @return the number of queued tasks
+   */
+  public int getQueuedCount() {
+    return taskExecutor.getQueuedCount();
+  }
+
+  /**
+   * Set the schedule resolution.
+   * 
+   * <p>
+   * This must be called before {@link #startup()} and before any offers have been scheduled.
+   * </p>
+   * 
+   * @param tickMs
+   *        the number of milliseconds between schedule advances; defaults to
+   *        {@link #DEFAULT_TICK_MS}
+   * @throws IllegalArgumentException
+   *         if {@code tickMs} is less than {@literal 1}
+   */
+  public void setTickMs(long tickMs) {
+    this.wheel = new TimingWheel<>(tickMs, TimingWheel.DEFAULT_WHEEL_SIZE,
+        System.currentTimeMillis());
+    this.tickMs = tickMs;
+  }
+
+  /**
+   * Set a meter registry to publish scheduling metrics to.
+   * 
+   * <p>
+   * This registers a gauge for the number of pending tasks, a gauge for the number of tasks
+   * queued on the task executor, and a timer for scheduling lag: how long after its scheduled time
+   * each task started executing. A further {@literal queue} gauge, tagged with the execution
+   * {@literal key}, is registered for each execution key as it is first used.
+   * </p>
+   * 
+   * @param meterRegistry
+   *        the registry to use
+   */
+  public void setMeterRegistry(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+    if (meterRegistry == null) {
+      return;
     }
+    Gauge.builder(METRIC_PREFIX + ".pending", this, s -> s.getPendingCount())
+        .description("Number of scheduled offer execution tasks").register(meterRegistry);
+    Gauge.builder(METRIC_PREFIX + ".queued", this, s -> s.getQueuedCount())
+        .description("Number of due offer execution tasks not yet completed")
+        .register(meterRegistry);
+    lagTimer = Timer.builder(METRIC_PREFIX + ".lag")
+        .description("Delay between the scheduled and actual execution of offer tasks")
+        .register(meterRegistry);
   }
 
 }
@@ -17,9 +17,15 @@
 
 package net.solarnetwork.esi.solarnet.fac.impl;
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -42,10 +48,14 @@ import net.solarnetwork.esi.domain.PriceMapOfferStatus;
 import net.solarnetwork.esi.domain.PriceMapOfferStatusRequest;
 import net.solarnetwork.esi.domain.PriceParameters;
 import net.solarnetwork.esi.domain.support.ProtobufUtils;
+import net.solarnetwork.esi.grpc.FlowControlledStreamer;
+import net.solarnetwork.esi.grpc.FlowControlledStreamer.Source;
 import net.solarnetwork.esi.service.DerFacilityServiceGrpc.DerFacilityServiceImplBase;
 import net.solarnetwork.esi.solarnet.fac.domain.PriceMapOfferEventEntity;
 import net.solarnetwork.esi.solarnet.fac.service.ExchangeRegistrationService;
+import net.solarnetwork.esi.solarnet.fac.service.PowerProfileService;
 import net.solarnetwork.esi.solarnet.fac.service.PriceMapService;
+import net.solarnetwork.esi.solarnet.fac.service.PriceService;
 
 /**
  * Simple gRPC implementation of a DER facility service.
@@ -56,12 +66,29 @@ import net.solarnetwork.esi.solarnet.fac.service.PriceMapService;
 @GrpcService
 public class SimpleDerFacilityService extends DerFacilityServiceImplBase {
 
+  /** The maximum number of provided prices to validate and store at once. */
+  public static final int PRICE_BATCH_SIZE = 256;
+
+  /** The default maximum time a provided price waits for its batch to fill, in milliseconds. */
+  public static final long DEFAULT_PRICE_FLUSH_DELAY_MS = 1000L;
+
   @Autowired
   private ExchangeRegistrationService registrationService;
 
   @Autowired
   private PriceMapService priceMapService;
 
+  @Autowired
+  private PriceService priceService;
+
+  @Autowired
+  private PowerProfileService powerProfileService;
+
+  @Autowired(required = false)
+  private TaskScheduler taskScheduler;
+
+  private long priceFlushDelayMs = DEFAULT_PRICE_FLUSH_DELAY_MS;
+
   private static final Logger log = LoggerFactory.getLogger(SimpleDerFacilityService.class);
 
   @Transactional(readOnly = false, propagation = Propagation.REQUIRED)
@@ -87,12 +114,14 @@ public class SimpleDerFacilityService extends DerFacilityServiceImplBase {
 
       private boolean error = false;
       private boolean completed = false;
+      private PriceMapOfferEventEntity countered;
 
       @Override
       public void onNext(PriceMapOffer offer) {
         log.info("Received price map offer: {}", offer);
         try {
           PriceMapOfferEventEntity event = priceMapService.receivePriceMapOffer(offer);
+          countered = (event.getCounterOffer() != null ? event : null);
           PriceMapOfferResponse.Builder response = PriceMapOfferResponse.newBuilder()
               .setOfferId(offer.getOfferId());
           if (event.getCounterOffer() != null) {
@@ -122,14 +151,24 @@ public class SimpleDerFacilityService extends DerFacilityServiceImplBase {
       @Override
       public void onError(Throwable t) {
         log.error("Error receiving price map offer", t);
+        counterOfferNegotiationEnded();
       }
 
       @Override
       public void onCompleted() {
+        counterOfferNegotiationEnded();
         if (!(error || completed)) {
           responseObserver.onCompleted();
         }
       }
+
+      private void counterOfferNegotiationEnded() {
+        // the exchange ended the stream as its reply to our counter offer
+        if (countered != null) {
+          priceMapService.counterOfferNegotiationEnded(countered);
+          countered = null;
+        }
+      }
     };
   }
 
@@ -149,15 +188,103 @@ public class SimpleDerFacilityService extends DerFacilityServiceImplBase {
 
   @Override
   public StreamObserver<PriceDatum> providePrices(StreamObserver<Empty> responseObserver) {
-    // TODO Auto-generated method stub
-    return super.providePrices(responseObserver);
+    return new StreamObserver<PriceDatum>() {
+
+      private final List<PriceDatum> batch = new ArrayList<>(PRICE_BATCH_SIZE);
+      private boolean error = false;
+      private ScheduledFuture<?> flushTask;
+
+      @Override
+      public synchronized void onNext(PriceDatum value) {
+        if (error) {
+          return;
+        }
+        batch.add(value);
+        if (batch.size() >= PRICE_BATCH_SIZE) {
+          flush();
+        } else if (batch.size() == 1) {
+          scheduleFlush();
+        }
+      }
+
+      private void scheduleFlush() {
+        final TaskScheduler scheduler = taskScheduler;
+        final long delay = priceFlushDelayMs;
+        if (scheduler != null && delay > 0) {
+          // store prices from a slow or idle stream without waiting for the batch to fill
+          flushTask = scheduler.schedule(this::delayedFlush,
+              new Date(System.currentTimeMillis() + delay));
+        }
+      }
+
+      private synchronized void delayedFlush() {
+        flushTask = null;
+        if (!error && !batch.isEmpty()) {
+          flush();
+        }
+      }
+
+      private void cancelFlush() {
+        if (flushTask != null) {
+          flushTask.cancel(false);
+          flushTask = null;
+        }
+      }
+
+      private void flush() {
+        cancelFlush();
+        try {
+          priceService.receivePrices(batch);
+        } catch (IllegalArgumentException e) {
+          error = true;
+          responseObserver.onError(
+              Status.INVALID_ARGUMENT.withDescription(e.getMessage()).withCause(e).asException());
+        } catch (RuntimeException e) {
+          error = true;
+          log.error("Error receiving prices: " + e.getMessage(), e);
+          responseObserver.onError(
+              Status.INTERNAL.withDescription("Internal error").withCause(e).asException());
+        } finally {
+          batch.clear();
+        }
+      }
+
+      @Override
+      public synchronized void onError(Throwable t) {
+        cancelFlush();
+        log.error("Error receiving prices", t);
+      }
+
+      @Override
+      public synchronized void onCompleted() {
+        if (!error && !batch.isEmpty()) {
+          flush();
+        }
+        if (!error) {
+          responseObserver.onNext(Empty.getDefaultInstance());
+          responseObserver.onCompleted();
+        }
+      }
+    };
   }
 
   @Override
   public void listPowerProfile(DatumRequest request,
       StreamObserver<PowerProfileDatum> responseObserver) {
-    // TODO Auto-generated method stub
-    super.listPowerProfile(request, responseObserver);
+    final Source<PowerProfileDatum> source;
+    try {
+      source = powerProfileService.listPowerProfile(request);
+    } catch (IllegalArgumentException e) {
+      responseObserver.onError(
+          Status.INVALID_ARGUMENT.withDescription(e.getMessage()).withCause(e).asException());
+      return;
+    } catch (RuntimeException e) {
+      log.error("Error listing power profile: " + e.getMessage(), e);
+      responseObserver
+          .onError(Status.INTERNAL.withDescription("Internal error").withCause(e).asException());
+      return;
+    }
+    FlowControlledStreamer.stream(responseObserver, source);
   }
 
   @Override
@@ -191,4 +318,46 @@ public class SimpleDerFacilityService extends DerFacilityServiceImplBase {
     this.registrationService = registrationService;
   }
 
+  /**
+   * Set the price service.
+   * 
+   * @param priceService
+   *        the price service to set
+   */
+  public void setPriceService(PriceService priceService) {
+    this.priceService = priceService;
+  }
+
+  /**
+   * Set the scheduler to flush partial batches of provided prices with.
+   * 
+   * @param taskScheduler
+   *        the scheduler, or {@literal null} to only store prices when a batch is full or the
+   *        stream completes
+   */
+  public void setTaskScheduler(TaskScheduler taskScheduler) {
+    this.taskScheduler = taskScheduler;
+  }
+
+  /**
+   * Set the maximum time a provided price waits for its batch to fill before it is stored.
+   * 
+   * @param priceFlushDelayMs
+   *        the delay, in milliseconds, or {@literal 0} to only store prices when a batch is full or
+   *        the stream completes; defaults to {@link #DEFAULT_PRICE_FLUSH_DELAY_MS}
+   */
+  public void setPriceFlushDelayMs(long priceFlushDelayMs) {
+    this.priceFlushDelayMs = priceFlushDelayMs;
+  }
+
+  /**
+   * Set the power profile service.
+   * 
+   * @param powerProfileService
+   *        the power profile service to set
+   */
+  public void setPowerProfileService(PowerProfileService powerProfileService) {
+    this.powerProfileService = powerProfileService;
+  }
+
 }
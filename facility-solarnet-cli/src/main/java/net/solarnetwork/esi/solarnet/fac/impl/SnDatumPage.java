@@ -0,0 +1,271 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.solarnet.fac.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * A reusable page of SolarNetwork datum power values, decoded from a datum query response.
+ * 
+ * <p>
+ * The response is read token by token and only the {@code created} date, the node and source, and
+ * the configured power properties of each result are kept, in primitive arrays that are reused for
+ * every page decoded. Each distinct node and source combination is assigned a source index, in the
+ * order they are first decoded, that stays the same across all pages decoded by the same instance.
+ * The expected response structure is:
+ * </p>
+ * 
+ * <pre>
+ * {"success":true,"data":{"results":[
+ *   {"created":"2019-06-01 00:00:00.000Z","nodeId":1,"sourceId":"a","watts":1,...}
+ * ]}}
+ * </pre>
+ * 
+ * <p>
+ * Instances are <b>not</b> thread-safe.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class SnDatumPage {
+
+  /** The date format used by SolarNetwork for datum dates. */
+  public static final DateTimeFormatter DATE_FORMAT = new DateTimeFormatterBuilder()
+      .append(DateTimeFormatter.ISO_LOCAL_DATE).appendLiteral(' ')
+      .append(DateTimeFormatter.ISO_LOCAL_TIME).appendOffsetId().toFormatter();
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private final String realPowerProperty;
+  private final String reactivePowerProperty;
+  private final Map<String, Integer> sourceIndexes = new HashMap<>();
+  private long[] timestamps;
+  private int[] sources;
+  private double[] realPowers;
+  private double[] reactivePowers;
+  private int size;
+
+  /**
+   * Constructor.
+   * 
+   * @param capacity
+   *        the initial number of datum to allocate space for
+   * @param realPowerProperty
+   *        the datum property to read real power values from
+   * @param reactivePowerProperty
+   *        the datum property to read reactive power values from
+   * @throws IllegalArgumentException
+   *         if {@code realPowerProperty} is {@literal null}
+   */
+  public SnDatumPage(int capacity, String realPowerProperty, String reactivePowerProperty) {
+    super();
+    if (realPowerProperty == null) {
+      throw new IllegalArgumentException("The real power property must be provided.");
+    }
+    this.realPowerProperty = realPowerProperty;
+    this.reactivePowerProperty = reactivePowerProperty;
+    final int len = Math.max(1, capacity);
+    this.timestamps = new long[len];
+    this.sources = new int[len];
+    this.realPowers = new double[len];
+    this.reactivePowers = new double[len];
+  }
+
+  /**
+   * Decode a datum query response, replacing the datum in this page.
+   * 
+   * <p>
+   * Results without a {@code created} date are ignored, and missing power properties are treated
+   * as {@literal 0}.
+   * </p>
+   * 
+   * @param in
+   *        the response stream; it is not closed by this method
+   * @return the number of datum decoded
+   * @throws IOException
+   *         if the response cannot be read or parsed, or is not successful
+   */
+  public int decode(InputStream in) throws IOException {
+    size = 0;
+    try (JsonParser p = JSON_FACTORY.createParser(in)) {
+      p.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+      if (p.nextToken() != JsonToken.START_OBJECT) {
+        throw new IOException("Datum response is not a JSON object.");
+      }
+      boolean success = false;
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        String name = p.getCurrentName();
+        JsonToken t = p.nextToken();
+        if ("success".equals(name)) {
+          success = (t == JsonToken.VALUE_TRUE);
+        } else if ("data".equals(name) && t == JsonToken.START_OBJECT) {
+          while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String dataName = p.getCurrentName();
+            if (p.nextToken() == JsonToken.START_ARRAY && "results".equals(dataName)) {
+              decodeResults(p);
+            } else {
+              p.skipChildren();
+            }
+          }
+        } else {
+          p.skipChildren();
+        }
+      }
+      if (!success) {
+        size = 0;
+        throw new IOException("Datum response not successful.");
+      }
+    }
+    return size;
+  }
+
+  private void decodeResults(JsonParser p) throws IOException {
+    JsonToken t;
+    while ((t = p.nextToken()) != JsonToken.END_ARRAY && t != null) {
+      if (t != JsonToken.START_OBJECT) {
+        p.skipChildren();
+        continue;
+      }
+      long ts = Long.MIN_VALUE;
+      String nodeId = null;
+      String sourceId = null;
+      double real = 0;
+      double reactive = 0;
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        String name = p.getCurrentName();
+        t = p.nextToken();
+        if (t == JsonToken.VALUE_STRING && "created".equals(name)) {
+          ts = parseDate(p.getText());
+        } else if ((t.isNumeric() || t == JsonToken.VALUE_STRING) && "nodeId".equals(name)) {
+          nodeId = p.getText();
+        } else if (t == JsonToken.VALUE_STRING && "sourceId".equals(name)) {
+          sourceId = p.getText();
+        } else if (t.isNumeric() && realPowerProperty.equals(name)) {
+          real = p.getDoubleValue();
+        } else if (t.isNumeric() && name.equals(reactivePowerProperty)) {
+          reactive = p.getDoubleValue();
+        } else {
+          p.skipChildren();
+        }
+      }
+      if (ts != Long.MIN_VALUE) {
+        add(ts, sourceIndex(nodeId + '/' + sourceId), real, reactive);
+      }
+    }
+  }
+
+  private int sourceIndex(String key) {
+    Integer idx = sourceIndexes.get(key);
+    if (idx == null) {
+      idx = sourceIndexes.size();
+      sourceIndexes.put(key, idx);
+    }
+    return idx;
+  }
+
+  private void add(long ts, int source, double real, double reactive) {
+    if (size == timestamps.length) {
+      final int len = size * 2;
+      timestamps = Arrays.copyOf(timestamps, len);
+      sources = Arrays.copyOf(sources, len);
+      realPowers = Arrays.copyOf(realPowers, len);
+      reactivePowers = Arrays.copyOf(reactivePowers, len);
+    }
+    timestamps[size] = ts;
+    sources[size] = source;
+    realPowers[size] = real;
+    reactivePowers[size] = reactive;
+    size++;
+  }
+
+  private static long parseDate(String date) throws IOException {
+    try {
+      return Instant.from(DATE_FORMAT.parse(date)).toEpochMilli();
+    } catch (DateTimeParseException e) {
+      throw new IOException("Invalid datum date [" + date + "]", e);
+    }
+  }
+
+  /**
+   * Get the number of datum in this page.
+   * 
+   * @return the number of datum
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get a datum date.
+   * 
+   * @param index
+   *        the datum index, from {@literal 0} to {@code size() - 1}
+   * @return the datum date, in milliseconds since the epoch
+   */
+  public long timestamp(int index) {
+    return timestamps[index];
+  }
+
+  /**
+   * Get a datum source.
+   * 
+   * @param index
+   *        the datum index, from {@literal 0} to {@code size() - 1}
+   * @return the source index of the datum's node and source, starting from {@literal 0}
+   */
+  public int source(int index) {
+    return sources[index];
+  }
+
+  /**
+   * Get a datum real power.
+   * 
+   * @param index
+   *        the datum index, from {@literal 0} to {@code size() - 1}
+   * @return the real power
+   */
+  public double realPower(int index) {
+    return realPowers[index];
+  }
+
+  /**
+   * Get a datum reactive power.
+   * 
+   * @param index
+   *        the datum index, from {@literal 0} to {@code size() - 1}
+   * @return the reactive power
+   */
+  public double reactivePower(int index) {
+    return reactivePowers[index];
+  }
+
+}
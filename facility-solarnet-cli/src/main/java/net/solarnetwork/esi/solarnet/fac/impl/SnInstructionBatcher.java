@@ -0,0 +1,332 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.solarnet.fac.impl;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+import net.solarnetwork.esi.util.KeyedSerialExecutor;
+
+/**
+ * Collects SolarNetwork node instructions for a short window and enqueues them together.
+ * 
+ * <p>
+ * Instructions submitted within {@code windowMs} of the first instruction of a batch are merged
+ * into as few requests as possible:
+ * </p>
+ * 
+ * <ol>
+ * <li>instructions with the same topic and parameters are merged into one request for all of their
+ * nodes</li>
+ * <li>single-node requests with the same topic and node, whose parameter names do not overlap, are
+ * merged into one request with all of their parameters</li>
+ * </ol>
+ * 
+ * <p>
+ * Requests are sent in submission order, and an instruction is only merged into an earlier request
+ * if no request in between includes any of its nodes, so each node receives its instructions in
+ * the order they were submitted.
+ * </p>
+ * 
+ * <p>
+ * Each submitted instruction's future completes with the instructions created for its own nodes.
+ * When a task executor is configured the requests are sent on the executor, one batch at a time,
+ * rather than on the task scheduler thread.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class SnInstructionBatcher {
+
+  /**
+   * API for enqueuing a single instruction request.
+   */
+  @FunctionalInterface
+  public interface InstructionSender {
+
+    /**
+     * Enqueue an instruction for a set of nodes.
+     * 
+     * @param topic
+     *        the instruction topic
+     * @param nodeIds
+     *        the IDs of the nodes to enqueue the instruction for
+     * @param parameters
+     *        the instruction parameters
+     * @return the created instructions, as an array of SolarNetwork instruction objects
+     * @throws Exception
+     *         if any error occurs
+     */
+    JsonNode enqueueInstruction(String topic, Set<Long> nodeIds,
+        MultiValueMap<String, Object> parameters) throws Exception;
+
+  }
+
+  private static final Logger log = LoggerFactory.getLogger(SnInstructionBatcher.class);
+
+  private final TaskScheduler taskScheduler;
+  private final InstructionSender sender;
+  private final long windowMs;
+  private KeyedSerialExecutor<SnInstructionBatcher> taskExecutor;
+  private List<Instruction> pending;
+  private boolean flushScheduled;
+
+  private static final class Instruction {
+
+    private final String topic;
+    private final Set<Long> nodeIds;
+    private final MultiValueMap<String, Object> parameters;
+    private final CompletableFuture<JsonNode> future;
+
+    private Instruction(String topic, Set<Long> nodeIds,
+        MultiValueMap<String, Object> parameters) {
+      super();
+      this.topic = topic;
+      this.nodeIds = nodeIds;
+      this.parameters = parameters;
+      this.future = new CompletableFuture<>();
+    }
+
+  }
+
+  private static final class Request {
+
+    private final String topic;
+    private final Set<Long> nodeIds;
+    private final MultiValueMap<String, Object> parameters;
+    private final List<Instruction> instructions;
+
+    private Request(Instruction instruction) {
+      super();
+      this.topic = instruction.topic;
+      this.nodeIds = new LinkedHashSet<>(instruction.nodeIds);
+      this.parameters = new LinkedMultiValueMap<>(instruction.parameters);
+      this.instructions = new ArrayList<>(4);
+      this.instructions.add(instruction);
+    }
+
+    private boolean isSingleNode() {
+      return nodeIds.size() == 1;
+    }
+
+    private boolean canMergeNodes(Instruction instr) {
+      return topic.equals(instr.topic) && parameters.equals(instr.parameters);
+    }
+
+    private boolean canMergeParameters(Instruction instr) {
+      return topic.equals(instr.topic) && isSingleNode() && nodeIds.equals(instr.nodeIds)
+          && Collections.disjoint(parameters.keySet(), instr.parameters.keySet());
+    }
+
+    private boolean merge(Instruction instr) {
+      if (canMergeNodes(instr)) {
+        nodeIds.addAll(instr.nodeIds);
+      } else if (canMergeParameters(instr)) {
+        parameters.putAll(instr.parameters);
+      } else {
+        return false;
+      }
+      instructions.add(instr);
+      return true;
+    }
+
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param taskScheduler
+   *        the task scheduler to flush batches with
+   * @param sender
+   *        the sender to enqueue merged instructions with
+   * @param windowMs
+   *        the time to collect instructions for, in milliseconds
+   * @throws IllegalArgumentException
+   *         if {@code taskScheduler} or {@code sender} are {@literal null}
+   */
+  public SnInstructionBatcher(TaskScheduler taskScheduler, InstructionSender sender,
+      long windowMs) {
+    super();
+    if (taskScheduler == null) {
+      throw new IllegalArgumentException("The task scheduler must be provided.");
+    }
+    this.taskScheduler = taskScheduler;
+    if (sender == null) {
+      throw new IllegalArgumentException("The instruction sender must be provided.");
+    }
+    this.sender = sender;
+    this.windowMs = windowMs;
+    this.pending = new ArrayList<>(16);
+  }
+
+  /**
+   * Submit an instruction to be enqueued with the next batch.
+   * 
+   * @param topic
+   *        the instruction topic
+   * @param nodeIds
+   *        the IDs of the nodes to enqueue the instruction for
+   * @param parameters
+   *        the instruction parameters
+   * @return the future created instructions for {@code nodeIds}, as an array of SolarNetwork
+   *         instruction objects
+   * @throws IllegalArgumentException
+   *         if {@code topic} or {@code nodeIds} are missing
+   */
+  public CompletableFuture<JsonNode> enqueue(String topic, Set<Long> nodeIds,
+      MultiValueMap<String, Object> parameters) {
+    if (topic == null || topic.trim().isEmpty()) {
+      throw new IllegalArgumentException("An instruction topic is required.");
+    }
+    if (nodeIds == null || nodeIds.isEmpty()) {
+      throw new IllegalArgumentException(
+          "At least one node ID is required for enqueuing an instruction.");
+    }
+    Instruction instr = new Instruction(topic, nodeIds,
+        parameters != null ? parameters : new LinkedMultiValueMap<>(0));
+    boolean schedule = false;
+    synchronized (this) {
+      pending.add(instr);
+      if (!flushScheduled) {
+        flushScheduled = true;
+        schedule = true;
+      }
+    }
+    if (schedule) {
+      taskScheduler.schedule(this::flush, Instant.now().plusMillis(windowMs));
+    }
+    return instr.future;
+  }
+
+  /**
+   * Enqueue all instructions submitted since the last flush.
+   * 
+   * <p>
+   * This is called {@code windowMs} milliseconds after the first instruction of each batch is
+   * submitted.
+   * </p>
+   */
+  public void flush() {
+    List<Instruction> batch;
+    synchronized (this) {
+      batch = pending;
+      pending = new ArrayList<>(16);
+      flushScheduled = false;
+    }
+    if (batch.isEmpty()) {
+      return;
+    }
+    final List<Request> requests = merge(batch);
+    log.debug("Enqueuing {} instructions with {} requests", batch.size(), requests.size());
+    final KeyedSerialExecutor<SnInstructionBatcher> executor = taskExecutor;
+    if (executor == null) {
+      requests.forEach(this::send);
+      return;
+    }
+    try {
+      // batches are sent one at a time, to preserve the order of instructions for each node
+      executor.execute(this, () -> requests.forEach(this::send));
+    } catch (RejectedExecutionException e) {
+      for (Request req : requests) {
+        for (Instruction instr : req.instructions) {
+          instr.future.completeExceptionally(e);
+        }
+      }
+    }
+  }
+
+  private static List<Request> merge(List<Instruction> batch) {
+    List<Request> result = new ArrayList<>(batch.size());
+    for (Instruction instr : batch) {
+      boolean merged = false;
+      // look back only as far as the most recent request for any of the instruction's nodes, so
+      // merging never moves an instruction ahead of an earlier one for the same node
+      for (ListIterator<Request> itr = result.listIterator(result.size()); itr.hasPrevious();) {
+        Request req = itr.previous();
+        if (req.merge(instr)) {
+          merged = true;
+          break;
+        }
+        if (!Collections.disjoint(req.nodeIds, instr.nodeIds)) {
+          break;
+        }
+      }
+      if (!merged) {
+        result.add(new Request(instr));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Set the executor to send requests with.
+   * 
+   * @param taskExecutor
+   *        the executor, or {@literal null} to send requests on the thread calling
+   *        {@link #flush()}
+   */
+  public void setTaskExecutor(Executor taskExecutor) {
+    this.taskExecutor = (taskExecutor != null ? new KeyedSerialExecutor<>(taskExecutor) : null);
+  }
+
+  private void send(Request req) {
+    JsonNode statuses;
+    try {
+      statuses = sender.enqueueInstruction(req.topic, req.nodeIds, req.parameters);
+    } catch (Exception e) {
+      for (Instruction instr : req.instructions) {
+        instr.future.completeExceptionally(e);
+      }
+      return;
+    }
+    for (Instruction instr : req.instructions) {
+      if (req.instructions.size() == 1 || !statuses.isArray()) {
+        instr.future.complete(statuses);
+        continue;
+      }
+      ArrayNode nodeStatuses = JsonNodeFactory.instance.arrayNode();
+      for (JsonNode status : statuses) {
+        if (instr.nodeIds.contains(status.path("nodeId").longValue())) {
+          nodeStatuses.add(status);
+        }
+      }
+      instr.future.complete(nodeStatuses);
+    }
+  }
+
+}
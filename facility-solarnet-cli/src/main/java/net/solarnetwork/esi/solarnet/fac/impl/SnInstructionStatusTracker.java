@@ -0,0 +1,423 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.solarnet.fac.impl;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import net.solarnetwork.util.StringUtils;
+
+/**
+ * Tracks the status of SolarNetwork node instructions until they reach a final state.
+ * 
+ * <p>
+ * All tracked instructions are polled together, with as few {@literal /instr/view} requests as
+ * possible. Each set of instructions passed to {@link #track(Set)} is first polled after
+ * {@code minPollMs}, and the delay doubles after every poll up to {@code maxPollMs}, so newly
+ * enqueued instructions are checked quickly while long-running ones are checked less often. No
+ * more than {@code maxRequestsPerSecond} requests are made; instructions that cannot be polled
+ * within that budget are polled on a later round.
+ * </p>
+ * 
+ * <p>
+ * The task scheduler only starts each round; when a task executor is configured the blocking
+ * status requests are made on the executor instead, and a round is skipped while the previous one
+ * is still running. A permanent client error response, such as {@literal 401 Unauthorized} or
+ * {@literal 403 Forbidden}, completes the affected futures exceptionally instead of being retried.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class SnInstructionStatusTracker extends BaseSolarNetworkClientService {
+
+  /**
+   * The default value for the {@code minPollMs} property.
+   */
+  public static final long DEFAULT_MIN_POLL_MS = 250L;
+
+  /**
+   * The default value for the {@code maxPollMs} property.
+   */
+  public static final long DEFAULT_MAX_POLL_MS = 2000L;
+
+  /**
+   * The default value for the {@code maxRequestsPerSecond} property.
+   */
+  public static final double DEFAULT_MAX_REQUESTS_PER_SECOND = 5.0;
+
+  /**
+   * The default value for the {@code maxIdsPerRequest} property.
+   */
+  public static final int DEFAULT_MAX_IDS_PER_REQUEST = 100;
+
+  private final TaskScheduler taskScheduler;
+  private final List<Watch> watches;
+  private final AtomicBoolean polling = new AtomicBoolean(false);
+  private Executor taskExecutor;
+  private long minPollMs = DEFAULT_MIN_POLL_MS;
+  private long maxPollMs = DEFAULT_MAX_POLL_MS;
+  private double maxRequestsPerSecond = DEFAULT_MAX_REQUESTS_PER_SECOND;
+  private int maxIdsPerRequest = DEFAULT_MAX_IDS_PER_REQUEST;
+  private double requestTokens = DEFAULT_MAX_REQUESTS_PER_SECOND;
+  private long requestTokensDate = System.currentTimeMillis();
+  private ScheduledFuture<?> pollTask;
+
+  private static final class Watch {
+
+    private final Set<Long> instructionIds;
+    private final CompletableFuture<JsonNode> future;
+    private long delay;
+    private long nextPollDate;
+
+    private Watch(Set<Long> instructionIds, long delay, long now) {
+      super();
+      this.instructionIds = instructionIds;
+      this.future = new CompletableFuture<>();
+      this.delay = delay;
+      this.nextPollDate = now + delay;
+    }
+
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param taskScheduler
+   *        the task scheduler to poll with
+   * @param restTemplate
+   *        the RestTemplate to use; this must already be configured to support any necessary
+   *        authentication for working with the SolarNetwork API
+   */
+  public SnInstructionStatusTracker(TaskScheduler taskScheduler, RestTemplate restTemplate) {
+    super(restTemplate);
+    this.taskScheduler = taskScheduler;
+    this.watches = new ArrayList<>(16);
+  }
+
+  /**
+   * Start polling.
+   */
+  public synchronized void startup() {
+    if (pollTask == null && taskScheduler != null) {
+      pollTask = taskScheduler.scheduleWithFixedDelay(this::startPoll, minPollMs);
+    }
+  }
+
+  private void startPoll() {
+    final Executor executor = taskExecutor;
+    if (executor == null) {
+      poll();
+      return;
+    }
+    if (!polling.compareAndSet(false, true)) {
+      // previous round still running
+      return;
+    }
+    try {
+      executor.execute(() -> {
+        try {
+          poll();
+        } finally {
+          polling.set(false);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      polling.set(false);
+      log.warn("Instruction status poll rejected by task executor: {}", e.toString());
+    }
+  }
+
+  /**
+   * Stop polling.
+   */
+  public synchronized void shutdown() {
+    if (pollTask != null) {
+      pollTask.cancel(false);
+      pollTask = null;
+    }
+  }
+
+  /**
+   * Track a set of instructions until they reach a final state.
+   * 
+   * <p>
+   * The returned future completes with the statuses of the instructions once any instruction has
+   * been declined or all instructions have completed. It completes exceptionally if the statuses
+   * cannot be viewed, for example because access is denied.
+   * </p>
+   * 
+   * @param instructionIds
+   *        the IDs of the instructions to track
+   * @return the future statuses, as an array of SolarNetwork instruction objects
+   * @throws IllegalArgumentException
+   *         if {@code instructionIds} is {@literal null} or empty
+   */
+  public CompletableFuture<JsonNode> track(Set<Long> instructionIds) {
+    if (instructionIds == null || instructionIds.isEmpty()) {
+      throw new IllegalArgumentException("At least one instruction ID must be provided.");
+    }
+    Watch watch = new Watch(new LinkedHashSet<>(instructionIds), minPollMs,
+        System.currentTimeMillis());
+    synchronized (watches) {
+      watches.add(watch);
+    }
+    return watch.future;
+  }
+
+  /**
+   * Test if a set of instruction statuses is final.
+   * 
+   * @param statuses
+   *        the statuses to test
+   * @return {@literal true} if any instruction is {@literal Declined} or all instructions are
+   *         {@literal Completed}
+   */
+  public static boolean isFinal(JsonNode statuses) {
+    boolean allCompleted = statuses.size() > 0;
+    for (JsonNode instr : statuses) {
+      String state = instr.path("state").asText();
+      if (state.equals("Declined")) {
+        return true;
+      } else if (!state.equals("Completed")) {
+        allCompleted = false;
+      }
+    }
+    return allCompleted;
+  }
+
+  /**
+   * Poll the status of all tracked instructions that are due to be polled.
+   * 
+   * <p>
+   * This is called every {@code minPollMs} milliseconds by the configured task scheduler, on the
+   * configured task executor if there is one.
+   * </p>
+   */
+  public void poll() {
+    final long now = System.currentTimeMillis();
+    final List<Watch> due = new ArrayList<>(8);
+    final Set<Long> dueIds = new LinkedHashSet<>(16);
+    synchronized (watches) {
+      for (Iterator<Watch> itr = watches.iterator(); itr.hasNext();) {
+        Watch w = itr.next();
+        if (w.future.isDone()) {
+          itr.remove();
+        } else if (w.nextPollDate <= now) {
+          due.add(w);
+          dueIds.addAll(w.instructionIds);
+        }
+      }
+    }
+    if (due.isEmpty()) {
+      return;
+    }
+
+    final Map<Long, JsonNode> statuses = new HashMap<>(dueIds.size());
+    final Set<Long> polledIds = new LinkedHashSet<>(dueIds.size());
+    final Map<Long, Exception> errors = new HashMap<>(4);
+    List<Long> batch = new ArrayList<>(Math.min(dueIds.size(), maxIdsPerRequest));
+    for (Iterator<Long> itr = dueIds.iterator(); itr.hasNext();) {
+      batch.add(itr.next());
+      if (batch.size() < maxIdsPerRequest && itr.hasNext()) {
+        continue;
+      }
+      if (!acquireRequestToken()) {
+        log.debug("Instruction status request budget exhausted; deferring {} instructions",
+            dueIds.size() - polledIds.size());
+        break;
+      }
+      try {
+        for (JsonNode instr : instructionStatus(batch)) {
+          long id = instr.path("id").longValue();
+          if (id > 0) {
+            statuses.put(id, instr);
+          }
+        }
+        polledIds.addAll(batch);
+      } catch (URISyntaxException | IllegalArgumentException e) {
+        log.error("Error viewing node instructions {} status: {}", batch, e.toString());
+        for (Long id : batch) {
+          errors.put(id, e);
+        }
+      } catch (RestClientException e) {
+        log.warn("Error viewing node instructions {} status, will try again: {}", batch,
+            e.toString());
+        polledIds.addAll(batch);
+      }
+      batch = new ArrayList<>(Math.min(dueIds.size(), maxIdsPerRequest));
+    }
+
+    for (Watch w : due) {
+      Exception error = w.instructionIds.stream().map(errors::get).filter(e -> e != null)
+          .findFirst().orElse(null);
+      if (error != null) {
+        w.future.completeExceptionally(error);
+        continue;
+      }
+      if (!polledIds.containsAll(w.instructionIds)) {
+        // not polled this round; try again next round
+        continue;
+      }
+      ArrayNode watchStatuses = JsonNodeFactory.instance.arrayNode();
+      for (Long id : w.instructionIds) {
+        JsonNode instr = statuses.get(id);
+        if (instr != null) {
+          watchStatuses.add(instr);
+        }
+      }
+      if (watchStatuses.size() == w.instructionIds.size() && isFinal(watchStatuses)) {
+        w.future.complete(watchStatuses);
+      } else {
+        w.delay = Math.min(w.delay * 2, maxPollMs);
+        w.nextPollDate = now + w.delay;
+      }
+    }
+  }
+
+  private synchronized boolean acquireRequestToken() {
+    final long now = System.currentTimeMillis();
+    final double capacity = Math.max(1.0, maxRequestsPerSecond);
+    requestTokens = Math.min(capacity,
+        requestTokens + ((now - requestTokensDate) * maxRequestsPerSecond / 1000.0));
+    requestTokensDate = now;
+    if (requestTokens < 1.0) {
+      return false;
+    }
+    requestTokens -= 1.0;
+    return true;
+  }
+
+  private JsonNode instructionStatus(Collection<Long> instructionIds) throws URISyntaxException {
+    UriComponentsBuilder uriBuilder = UriComponentsBuilder
+        .fromHttpUrl(apiUrl("/solaruser/api/v1/sec/instr/view"))
+        .queryParam("ids", StringUtils.commaDelimitedStringFromCollection(instructionIds));
+    log.info("Checking SolarNetwork instruction statuses: {}", instructionIds);
+    try {
+      ObjectNode json = getRestOperations().getForObject(new URI(uriBuilder.toUriString()),
+          ObjectNode.class);
+      if (json != null && json.findPath("success").booleanValue()) {
+        JsonNode data = json.path("data");
+        if (data.isArray()) {
+          return data;
+        }
+      }
+      return JsonNodeFactory.instance.arrayNode();
+    } catch (HttpClientErrorException e) {
+      if (!isPermanentClientError(e)) {
+        throw e;
+      }
+      HttpStatus status = e.getStatusCode();
+      if (status == HttpStatus.UNAUTHORIZED || status == HttpStatus.FORBIDDEN) {
+        throw new IllegalArgumentException("Access denied by SolarNetwork on GET request to "
+            + uriBuilder.toUriString() + "; check the configured SolarNetwork credentials");
+      }
+      throw new IllegalArgumentException("SolarNetwork rejected GET request to "
+          + uriBuilder.toUriString() + " with status " + status);
+    }
+  }
+
+  /**
+   * Get the number of instruction sets being tracked.
+   * 
+   * @return the number of tracked instruction sets
+   */
+  public int getTrackedCount() {
+    synchronized (watches) {
+      return watches.size();
+    }
+  }
+
+  /**
+   * Set the minimum poll interval, used for newly tracked instructions.
+   * 
+   * @param minPollMs
+   *        the minimum poll interval, in milliseconds; defaults to {@link #DEFAULT_MIN_POLL_MS}
+   */
+  public void setMinPollMs(long minPollMs) {
+    this.minPollMs = Math.max(1L, minPollMs);
+  }
+
+  /**
+   * Set the maximum poll interval.
+   * 
+   * @param maxPollMs
+   *        the maximum poll interval, in milliseconds; defaults to {@link #DEFAULT_MAX_POLL_MS}
+   */
+  public void setMaxPollMs(long maxPollMs) {
+    this.maxPollMs = maxPollMs;
+  }
+
+  /**
+   * Set the maximum number of status requests to make per second.
+   * 
+   * @param maxRequestsPerSecond
+   *        the maximum request rate; defaults to {@link #DEFAULT_MAX_REQUESTS_PER_SECOND}
+   */
+  public synchronized void setMaxRequestsPerSecond(double maxRequestsPerSecond) {
+    this.maxRequestsPerSecond = maxRequestsPerSecond;
+    this.requestTokens = Math.max(1.0, maxRequestsPerSecond);
+  }
+
+  /**
+   * Set the executor to make status requests with.
+   * 
+   * @param taskExecutor
+   *        the executor, or {@literal null} to make requests on the task scheduler thread
+   */
+  public void setTaskExecutor(Executor taskExecutor) {
+    this.taskExecutor = taskExecutor;
+  }
+
+  /**
+   * Set the maximum number of instruction IDs to include in a single status request.
+   * 
+   * @param maxIdsPerRequest
+   *        the maximum number of IDs; defaults to {@link #DEFAULT_MAX_IDS_PER_REQUEST}
+   */
+  public void setMaxIdsPerRequest(int maxIdsPerRequest) {
+    this.maxIdsPerRequest = Math.max(1, maxIdsPerRequest);
+  }
+
+}
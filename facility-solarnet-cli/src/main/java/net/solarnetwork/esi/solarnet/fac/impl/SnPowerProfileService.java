@@ -0,0 +1,441 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.solarnet.fac.impl;
+
+import static java.util.Arrays.asList;
+import static net.solarnetwork.esi.util.CryptoUtils.validateMessageSignature;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import com.google.protobuf.Timestamp;
+
+import net.solarnetwork.esi.domain.DatumRequest;
+import net.solarnetwork.esi.domain.DerRoute;
+import net.solarnetwork.esi.domain.PowerProfileDatum;
+import net.solarnetwork.esi.domain.TimeUnit;
+import net.solarnetwork.esi.domain.TimestampRange;
+import net.solarnetwork.esi.domain.support.PowerProfileAggregator;
+import net.solarnetwork.esi.grpc.FlowControlledStreamer.Source;
+import net.solarnetwork.esi.solarnet.fac.domain.ExchangeEntity;
+import net.solarnetwork.esi.solarnet.fac.service.FacilityService;
+import net.solarnetwork.esi.solarnet.fac.service.PowerProfileService;
+import net.solarnetwork.esi.util.TimeSpanUtils;
+import net.solarnetwork.util.StringUtils;
+
+/**
+ * {@link PowerProfileService} that streams the power profile from SolarNetwork datum.
+ * 
+ * <p>
+ * Datum for the configured nodes and sources are queried from the SolarNetwork datum list API one
+ * page at a time, and each page is aggregated into power profile datum as it is read. The next page
+ * is only requested once the previous page has been consumed, so no more than one page of datum is
+ * held in memory regardless of the requested time range, and a slow reader of the power profile
+ * slows down the SolarNetwork queries rather than buffering them.
+ * </p>
+ * 
+ * <p>
+ * SolarNetwork aggregates are used to reduce the number of datum transferred: the largest
+ * aggregation, up to {@literal Hour}, that evenly divides the requested time span is queried and
+ * the results are further aggregated by {@link PowerProfileAggregator}. SolarNetwork aggregates
+ * larger than an hour are aligned to the node's local time zone, so they are not used; all spans
+ * are aligned in UTC. Raw datum are queried for {@link TimeUnit#INSTANT} requests and spans that
+ * are not a whole number of minutes. The samples of each node and source are averaged separately
+ * before being summed, so sources need not report at the same times.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class SnPowerProfileService extends BaseSolarNetworkClientService
+    implements PowerProfileService {
+
+  /**
+   * The default value for the {@code pageSize} property.
+   */
+  public static final int DEFAULT_PAGE_SIZE = 1000;
+
+  /**
+   * The default value for the {@code realPowerProperty} property.
+   */
+  public static final String DEFAULT_REAL_POWER_PROPERTY = "watts";
+
+  /**
+   * The default value for the {@code reactivePowerProperty} property.
+   */
+  public static final String DEFAULT_REACTIVE_POWER_PROPERTY = "reactivePower";
+
+  private static final long MINUTE_MS = 60000L;
+  private static final long HOUR_MS = 60L * MINUTE_MS;
+
+  /** The SolarNetwork aggregations to use, from largest to smallest. */
+  private static final String[] AGGREGATIONS = new String[] { "Hour", "ThirtyMinute",
+      "FifteenMinute", "TenMinute", "FiveMinute", "Minute" };
+
+  /**
+   * The durations of {@code AGGREGATIONS}, in milliseconds.
+   */
+  private static final long[] AGGREGATION_MS = new long[] { HOUR_MS, 30L * MINUTE_MS,
+      15L * MINUTE_MS, 10L * MINUTE_MS, 5L * MINUTE_MS, MINUTE_MS };
+
+  private final FacilityService facilityService;
+  private Set<Long> nodeIds = Collections.emptySet();
+  private Set<String> sourceIds = Collections.emptySet();
+  private int pageSize = DEFAULT_PAGE_SIZE;
+  private String realPowerProperty = DEFAULT_REAL_POWER_PROPERTY;
+  private String reactivePowerProperty = DEFAULT_REACTIVE_POWER_PROPERTY;
+
+  /**
+   * Constructor.
+   * 
+   * @param facilityService
+   *        the facility service
+   * @param restTemplate
+   *        the RestTemplate to use; this must already be configured to support any necessary
+   *        authentication for working with the SolarNetwork API
+   * @throws IllegalArgumentException
+   *         if {@code facilityService} is {@literal null}
+   */
+  public SnPowerProfileService(FacilityService facilityService, RestTemplate restTemplate) {
+    super(restTemplate);
+    if (facilityService == null) {
+      throw new IllegalArgumentException("The facility service must be provided.");
+    }
+    this.facilityService = facilityService;
+  }
+
+  @Override
+  public Source<PowerProfileDatum> listPowerProfile(DatumRequest request) {
+    if (request == null || !request.hasRoute()) {
+      throw new IllegalArgumentException("Route missing.");
+    }
+    final ExchangeEntity exchange = facilityService.getExchange();
+    if (exchange == null) {
+      throw new IllegalArgumentException("No exchange registered.");
+    }
+    final String exchangeUid = exchange.getId();
+    final String facilityUid = facilityService.getUid();
+    final DerRoute route = request.getRoute();
+    if (!exchangeUid.equals(route.getExchangeUid())) {
+      throw new IllegalArgumentException("Exchange UID not valid.");
+    }
+    if (!facilityUid.equals(route.getFacilityUid())) {
+      throw new IllegalArgumentException("Facility UID not valid.");
+    }
+    validateMessageSignature(facilityService.getCryptoHelper(), route.getSignature(),
+        facilityService.getKeyPair(), exchange.publicKey(), asList(exchangeUid, facilityUid));
+
+    final TimeUnit timeUnit = request.getTimeUnit();
+    if (timeUnit == TimeUnit.UNRECOGNIZED) {
+      throw new IllegalArgumentException("Time unit not valid.");
+    }
+    final int coalescence = Math.max(1, request.getTimeUnitCoalescence());
+    if (!request.hasTimeRange()) {
+      // MOST_RECENT
+      if (nodeIds.isEmpty()) {
+        return () -> null;
+      }
+      return mostRecent(new PowerProfileAggregator(new MostRecentSamples(), TimeUnit.INSTANT, 0));
+    }
+
+    final TimestampRange range = request.getTimeRange();
+    if (!range.hasMin()) {
+      throw new IllegalArgumentException("Time range minimum missing.");
+    }
+    final long start = millis(range.getMin());
+    final long end = (range.hasMax() ? millis(range.getMax()) : System.currentTimeMillis());
+    if (start >= end) {
+      throw new IllegalArgumentException("Time range minimum must be before maximum.");
+    }
+    if (nodeIds.isEmpty()) {
+      return () -> null;
+    }
+    return new PowerProfileAggregator(
+        new PagedSamples(start, end, aggregation(timeUnit, coalescence)), timeUnit, coalescence);
+  }
+
+  /**
+   * Get a source that provides only the last datum of another source.
+   * 
+   * @param source
+   *        the source
+   * @return the last datum source
+   */
+  private static Source<PowerProfileDatum> mostRecent(Source<PowerProfileDatum> source) {
+    return new Source<PowerProfileDatum>() {
+
+      private boolean done;
+
+      @Override
+      public PowerProfileDatum next() throws Exception {
+        if (done) {
+          return null;
+        }
+        done = true;
+        PowerProfileDatum last = null;
+        for (PowerProfileDatum d = source.next(); d != null; d = source.next()) {
+          last = d;
+        }
+        return last;
+      }
+    };
+  }
+
+  /**
+   * Get the SolarNetwork aggregation to query for a time span.
+   * 
+   * @param timeUnit
+   *        the time unit
+   * @param coalescence
+   *        the number of time units in each span
+   * @return the aggregation, or {@literal null} to query raw datum
+   */
+  private static String aggregation(TimeUnit timeUnit, int coalescence) {
+    if (timeUnit == TimeUnit.INSTANT) {
+      return null;
+    }
+    final long unitMs = TimeSpanUtils.unitMillis(timeUnit);
+    if (unitMs == 0) {
+      // months and years are whole hours
+      return AGGREGATIONS[0];
+    }
+    final long spanMs = unitMs * coalescence;
+    for (int i = 0; i < AGGREGATIONS.length; i++) {
+      if (spanMs % AGGREGATION_MS[i] == 0) {
+        return AGGREGATIONS[i];
+      }
+    }
+    return null;
+  }
+
+  private static long millis(Timestamp ts) {
+    return ts.getSeconds() * 1000L + ts.getNanos() / 1000000;
+  }
+
+  private UriComponentsBuilder queryBuilder(String path) {
+    UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpUrl(apiUrl(path))
+        .queryParam("nodeIds", StringUtils.commaDelimitedStringFromCollection(nodeIds));
+    if (!sourceIds.isEmpty()) {
+      uriBuilder.queryParam("sourceIds", StringUtils.commaDelimitedStringFromCollection(sourceIds));
+    }
+    return uriBuilder;
+  }
+
+  private void loadPage(String url, SnDatumPage page) {
+    log.debug("Querying SolarNetwork for datum: {}", url);
+    try {
+      getRestOperations().execute(new URI(url), HttpMethod.GET,
+          req -> req.getHeaders().setAccept(Collections.singletonList(MediaType.APPLICATION_JSON)),
+          resp -> page.decode(resp.getBody()));
+    } catch (URISyntaxException e) {
+      throw new RuntimeException("Invalid query URL [" + e.getInput() + ']');
+    }
+  }
+
+  /**
+   * Samples read from SolarNetwork datum list pages, requested one page at a time.
+   */
+  private final class PagedSamples implements PowerProfileAggregator.Samples {
+
+    private final UriComponentsBuilder uriBuilder;
+    private final SnDatumPage page;
+    private int offset;
+    private int index;
+    private boolean last;
+
+    private PagedSamples(long start, long end, String aggregation) {
+      super();
+      this.uriBuilder = queryBuilder("/solarquery/api/v1/sec/datum/list")
+          .queryParam("startDate", Instant.ofEpochMilli(start).toString())
+          .queryParam("endDate", Instant.ofEpochMilli(end).toString())
+          .queryParam("sorts[0].sortKey", "created").queryParam("sorts[1].sortKey", "node")
+          .queryParam("sorts[2].sortKey", "source").queryParam("max", pageSize)
+          .queryParam("withoutTotalResultsCount", true);
+      if (aggregation != null) {
+        uriBuilder.queryParam("aggregation", aggregation);
+      }
+      this.page = new SnDatumPage(pageSize, realPowerProperty, reactivePowerProperty);
+      this.index = -1;
+      this.last = false;
+    }
+
+    @Override
+    public boolean next() {
+      index++;
+      while (index >= page.size()) {
+        if (last) {
+          return false;
+        }
+        String url = uriBuilder.cloneBuilder().queryParam("offset", offset).toUriString();
+        loadPage(url, page);
+        offset += page.size();
+        last = (page.size() < pageSize);
+        index = 0;
+      }
+      return true;
+    }
+
+    @Override
+    public long timestamp() {
+      return page.timestamp(index);
+    }
+
+    @Override
+    public double realPower() {
+      return page.realPower(index);
+    }
+
+    @Override
+    public double reactivePower() {
+      return page.reactivePower(index);
+    }
+
+    @Override
+    public int source() {
+      return page.source(index);
+    }
+
+  }
+
+  /**
+   * Samples read from the most recent datum of each source, in date order.
+   * 
+   * <p>
+   * Aggregated as {@link TimeUnit#INSTANT}, the last datum produced is the sum of the most recent
+   * datum of every source, at the date of the latest of them.
+   * </p>
+   */
+  private final class MostRecentSamples implements PowerProfileAggregator.Samples {
+
+    private SnDatumPage page;
+    private int[] order;
+    private int index = -1;
+
+    @Override
+    public boolean next() {
+      if (page == null) {
+        page = new SnDatumPage(Math.max(1, sourceIds.size()), realPowerProperty,
+            reactivePowerProperty);
+        loadPage(queryBuilder("/solarquery/api/v1/sec/datum/mostRecent").toUriString(), page);
+        order = IntStream.range(0, page.size()).boxed()
+            .sorted(Comparator.comparingLong(page::timestamp)).mapToInt(Integer::intValue)
+            .toArray();
+      }
+      return ++index < order.length;
+    }
+
+    @Override
+    public long timestamp() {
+      return page.timestamp(order[index]);
+    }
+
+    @Override
+    public double realPower() {
+      return page.realPower(order[index]);
+    }
+
+    @Override
+    public double reactivePower() {
+      return page.reactivePower(order[index]);
+    }
+
+    @Override
+    public int source() {
+      return page.source(order[index]);
+    }
+
+  }
+
+  /**
+   * Set the IDs of the nodes to query datum from.
+   * 
+   * <p>
+   * If no node IDs are configured, the power profile is always empty.
+   * </p>
+   * 
+   * @param nodeIds
+   *        the node IDs
+   */
+  public void setNodeIds(Set<Long> nodeIds) {
+    this.nodeIds = (nodeIds != null ? new LinkedHashSet<>(nodeIds) : Collections.emptySet());
+  }
+
+  /**
+   * Set the IDs of the sources to query datum from.
+   * 
+   * @param sourceIds
+   *        the source IDs, or {@literal null} or empty for all sources of the configured nodes
+   */
+  public void setSourceIds(Set<String> sourceIds) {
+    this.sourceIds = (sourceIds != null ? new LinkedHashSet<>(sourceIds)
+        : Collections.emptySet());
+  }
+
+  /**
+   * Set the maximum number of datum to request from SolarNetwork at once.
+   * 
+   * @param pageSize
+   *        the page size; defaults to {@link #DEFAULT_PAGE_SIZE}
+   * @throws IllegalArgumentException
+   *         if {@code pageSize} is less than {@literal 1}
+   */
+  public void setPageSize(int pageSize) {
+    if (pageSize < 1) {
+      throw new IllegalArgumentException("The page size must be at least 1.");
+    }
+    this.pageSize = pageSize;
+  }
+
+  /**
+   * Set the datum property to read real power values from.
+   * 
+   * @param realPowerProperty
+   *        the property name; defaults to {@link #DEFAULT_REAL_POWER_PROPERTY}
+   * @throws IllegalArgumentException
+   *         if {@code realPowerProperty} is {@literal null}
+   */
+  public void setRealPowerProperty(String realPowerProperty) {
+    if (realPowerProperty == null) {
+      throw new IllegalArgumentException("The real power property must be provided.");
+    }
+    this.realPowerProperty = realPowerProperty;
+  }
+
+  /**
+   * Set the datum property to read reactive power values from.
+   * 
+   * @param reactivePowerProperty
+   *        the property name; defaults to {@link #DEFAULT_REACTIVE_POWER_PROPERTY}
+   */
+  public void setReactivePowerProperty(String reactivePowerProperty) {
+    this.reactivePowerProperty = reactivePowerProperty;
+  }
+
+}
@@ -17,37 +17,32 @@
 
 package net.solarnetwork.esi.solarnet.fac.impl;
 
-import static java.util.Arrays.asList;
 import static java.util.Collections.singleton;
 import static java.util.stream.Collectors.toSet;
 import static net.solarnetwork.esi.solarnet.fac.domain.PriceMapOfferExecutionState.ABORTED;
 import static net.solarnetwork.esi.solarnet.fac.domain.PriceMapOfferExecutionState.EXECUTING;
 import static net.solarnetwork.esi.solarnet.fac.domain.PriceMapOfferExecutionState.WAITING;
-import static net.solarnetwork.esi.util.CryptoUtils.generateMessageSignature;
-import static net.solarnetwork.esi.util.CryptoUtils.validateMessageSignature;
 
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.stream.StreamSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationEventPublisher;
-import org.springframework.context.event.EventListener;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.scheduling.TaskScheduler;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -64,21 +59,8 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.MissingNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
-import io.grpc.ManagedChannel;
-import io.grpc.Status;
-import io.grpc.StatusRuntimeException;
-import net.solarnetwork.esi.domain.DerRoute;
-import net.solarnetwork.esi.domain.PriceMapOfferStatus;
-import net.solarnetwork.esi.domain.PriceMapOfferStatusResponse;
-import net.solarnetwork.esi.domain.support.ProtobufUtils;
-import net.solarnetwork.esi.domain.support.SignableMessage;
-import net.solarnetwork.esi.grpc.ChannelProvider;
-import net.solarnetwork.esi.service.DerFacilityExchangeGrpc;
-import net.solarnetwork.esi.service.DerFacilityExchangeGrpc.DerFacilityExchangeBlockingStub;
 import net.solarnetwork.esi.solarnet.fac.dao.PriceMapOfferEventEntityDao;
-import net.solarnetwork.esi.solarnet.fac.domain.ExchangeEntity;
 import net.solarnetwork.esi.solarnet.fac.domain.FacilityPriceMap;
-import net.solarnetwork.esi.solarnet.fac.domain.FacilityPriceMapOfferEvent;
 import net.solarnetwork.esi.solarnet.fac.domain.PriceMapOfferEventEntity;
 import net.solarnetwork.esi.solarnet.fac.domain.PriceMapOfferExecutionState;
 import net.solarnetwork.esi.solarnet.fac.domain.PriceMapOfferNotification.PriceMapOfferExecutionStateChanged;
@@ -105,9 +87,11 @@ public class SnPriceMapOfferExecutionService extends BaseSolarNetworkClientServi
   private TransactionTemplate txTemplate;
   private final FacilityService facilityService;
   private final PriceMapOfferEventEntityDao offerEventDao;
-  private ChannelProvider exchangeChannelProvider;
   private ApplicationEventPublisher eventPublisher;
   private long instructionPollMs = DEFAULT_INSTRUCTION_POLL_MS;
+  private SnInstructionStatusTracker instructionStatusTracker;
+  private SnInstructionBatcher instructionBatcher;
+  private Executor instructionExecutor;
 
   /**
    * Constructor.
@@ -125,7 +109,8 @@ public class SnPriceMapOfferExecutionService extends BaseSolarNetworkClientServi
       FacilityService facilityService, PriceMapOfferEventEntityDao offerEventDao,
       AuthorizationCredentialsProvider credentialsProvider) {
     this(taskScheduler, facilityService, offerEventDao,
-        WebUtils.setupSolarNetworkClient(new RestTemplate(), credentialsProvider));
+        WebUtils.setupSolarNetworkClient(new RestTemplate(WebUtils.sharedRequestFactory()),
+            credentialsProvider));
   }
 
   /**
@@ -150,6 +135,30 @@ public class SnPriceMapOfferExecutionService extends BaseSolarNetworkClientServi
     this.offerEventDao = offerEventDao;
   }
 
+  /**
+   * {@inheritDoc}
+   * 
+   * <p>
+   * Offers are executed by sending instructions to the SolarNode control configured on the
+   * offer's facility price map, so this returns a key in the form {@literal nodeId/controlId}. If
+   * the control cannot be resolved, the offer ID is returned instead.
+   * </p>
+   */
+  @Transactional(readOnly = true, propagation = Propagation.REQUIRED)
+  @Override
+  public String executionKey(UUID offerId) {
+    final String facPriceMapId = offerEventDao.findById(offerId)
+        .map(PriceMapOfferEventEntity::getFacilityPriceMapId).orElse(null);
+    if (facPriceMapId != null) {
+      FacilityPriceMap facPriceMap = facilityService.getPriceMap(facPriceMapId);
+      if (facPriceMap != null && facPriceMap.getNodeId() != null
+          && facPriceMap.getControlId() != null) {
+        return facPriceMap.getNodeId() + "/" + facPriceMap.getControlId();
+      }
+    }
+    return offerId.toString();
+  }
+
   @Transactional(readOnly = false, propagation = Propagation.REQUIRED)
   @Override
   public CompletableFuture<?> executePriceMapOfferEvent(UUID offerId) {
@@ -167,9 +176,7 @@ public class SnPriceMapOfferExecutionService extends BaseSolarNetworkClientServi
       result.completeExceptionally(new IllegalArgumentException(
           "Offer event " + offerId + " is not waiting to execute; current state is " + oldState));
     } else {
-      FacilityPriceMap facPriceMap = StreamSupport
-          .stream(facilityService.getPriceMaps().spliterator(), false)
-          .filter(p -> facPriceMapId.equals(p.getId())).findFirst().get();
+      FacilityPriceMap facPriceMap = facilityPriceMap(facPriceMapId);
 
       // update state to Executing right away
       PriceMapOfferExecutionState updatedState = EXECUTING;
@@ -191,25 +198,9 @@ public class SnPriceMapOfferExecutionService extends BaseSolarNetworkClientServi
           throw new IllegalArgumentException("The facility price map has no node ID configured.");
         }
         parameters.add(controlId, -offerEvent.priceMap().getPowerComponents().getRealPower());
-        try {
-          JsonNode statuses = enqueueInstruction("ShedLoad", singleton(facPriceMap.getNodeId()),
-              parameters);
-          PriceMapOfferEventEntity resultEntity = checkStatus(offerId, statuses, EXECUTING,
-              EXECUTING);
-          if (resultEntity != null) {
-            result.complete(offerEvent);
-          } else {
-            Set<Long> instructionIds = StreamSupport.stream(statuses.spliterator(), false)
-                .map(j -> j.path("id").longValue()).filter(l -> l > 0).collect(toSet());
-            taskScheduler.schedule(new PriceMapInstructionPollTask(offerId, result, instructionIds,
-                EXECUTING, EXECUTING), Instant.now().plusMillis(instructionPollMs));
-          }
-        } catch (JsonProcessingException | URISyntaxException | IllegalArgumentException e) {
-          log.error("Error enqueuing ShedLoad node instruction for node {} parameters {}: {}",
-              facPriceMap.getNodeId(), parameters, e.toString());
-          updatedState = ABORTED;
-          offerEvent.setMessage("Error enqueuing node instruction: " + e.toString());
-        }
+        submitInstruction("ShedLoad", singleton(nodeId), parameters)
+            .whenComplete((statuses, t) -> instructionSubmitted(offerId, result, nodeId,
+                parameters, statuses, t, EXECUTING));
       } else {
         // TODO: we don't support supply load yet
         updatedState = ABORTED;
@@ -225,6 +216,128 @@ public class SnPriceMapOfferExecutionService extends BaseSolarNetworkClientServi
     return result;
   }
 
+  private FacilityPriceMap facilityPriceMap(String facPriceMapId) {
+    FacilityPriceMap facPriceMap = facilityService.getPriceMap(facPriceMapId);
+    if (facPriceMap == null) {
+      throw new IllegalArgumentException(
+          "Facility price map " + facPriceMapId + " not available.");
+    }
+    return facPriceMap;
+  }
+
+  private CompletableFuture<JsonNode> submitInstruction(String topic, Set<Long> nodeIds,
+      MultiValueMap<String, Object> parameters) {
+    final SnInstructionBatcher batcher = this.instructionBatcher;
+    if (batcher != null) {
+      return batcher.enqueue(topic, nodeIds, parameters);
+    }
+    CompletableFuture<JsonNode> f = new CompletableFuture<>();
+    try {
+      f.complete(enqueueInstruction(topic, nodeIds, parameters));
+    } catch (JsonProcessingException | URISyntaxException | IllegalArgumentException e) {
+      f.completeExceptionally(e);
+    }
+    return f;
+  }
+
+  private void instructionSubmitted(UUID offerId,
+      CompletableFuture<PriceMapOfferEventEntity> result, Long nodeId,
+      MultiValueMap<String, Object> parameters, JsonNode statuses, Throwable t,
+      PriceMapOfferExecutionState successState) {
+    if (t != null) {
+      Throwable e = (t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+      log.error("Error enqueuing ShedLoad node instruction for node {} parameters {}: {}", nodeId,
+          parameters, e.toString());
+      try {
+        result.complete(updateOfferStateInTransaction(offerId, ABORTED,
+            "Error enqueuing node instruction: " + e.toString()));
+      } catch (RuntimeException e2) {
+        result.completeExceptionally(e2);
+      }
+      return;
+    }
+    try {
+      PriceMapOfferEventEntity resultEntity = checkStatusInTransaction(offerId, statuses,
+          EXECUTING, successState);
+      if (resultEntity != null) {
+        result.complete(resultEntity);
+        return;
+      }
+      Set<Long> instructionIds = StreamSupport.stream(statuses.spliterator(), false)
+          .map(j -> j.path("id").longValue()).filter(l -> l > 0).collect(toSet());
+      if (instructionIds.isEmpty()) {
+        result.complete(updateOfferStateInTransaction(offerId, ABORTED,
+            "No node instruction was enqueued."));
+      } else {
+        awaitInstructions(offerId, result, instructionIds, EXECUTING, successState);
+      }
+    } catch (RuntimeException e) {
+      result.completeExceptionally(e);
+    }
+  }
+
+  private PriceMapOfferEventEntity updateOfferStateInTransaction(UUID offerId,
+      PriceMapOfferExecutionState newState, String message) {
+    TransactionTemplate tt = txTemplate();
+    if (tt != null) {
+      return tt.execute(new TransactionCallback<PriceMapOfferEventEntity>() {
+
+        @Override
+        public PriceMapOfferEventEntity doInTransaction(TransactionStatus status) {
+          return updateOfferState(offerId, newState, message);
+        }
+      });
+    }
+    return updateOfferState(offerId, newState, message);
+  }
+
+  private void awaitInstructions(UUID offerId, CompletableFuture<PriceMapOfferEventEntity> result,
+      Set<Long> instructionIds, PriceMapOfferExecutionState currentState,
+      PriceMapOfferExecutionState successState) {
+    final SnInstructionStatusTracker tracker = this.instructionStatusTracker;
+    if (tracker == null) {
+      taskScheduler.schedule(new PriceMapInstructionPollTask(offerId, result, instructionIds,
+          currentState, successState), Instant.now().plusMillis(instructionPollMs));
+      return;
+    }
+    tracker.track(instructionIds).whenComplete((statuses, t) -> {
+      if (t != null) {
+        log.error("Error viewing node instructions {} status: {}", instructionIds, t.toString());
+        try {
+          result.complete(updateOfferStateInTransaction(offerId, ABORTED,
+              "Error checking instruction status: " + t.toString()));
+        } catch (RuntimeException e) {
+          result.completeExceptionally(e);
+        }
+        return;
+      }
+      try {
+        PriceMapOfferEventEntity entity = checkStatusInTransaction(offerId, statuses,
+            currentState, successState);
+        result.complete(entity);
+      } catch (RuntimeException e) {
+        log.error("Error updating offer {} from node instructions {} status: {}", offerId,
+            instructionIds, e.toString());
+        result.completeExceptionally(e);
+      }
+    });
+  }
+
+  private PriceMapOfferEventEntity checkStatusInTransaction(UUID offerId, JsonNode statuses,
+      PriceMapOfferExecutionState currentState, PriceMapOfferExecutionState successState) {
+    TransactionTemplate tt = txTemplate();
+    if (tt != null) {
+      return tt.execute(new TransactionCallback<PriceMapOfferEventEntity>() {
+
+        @Override
+        public PriceMapOfferEventEntity doInTransaction(TransactionStatus status) {
+          return checkStatus(offerId, statuses, currentState, successState);
+        }
+      });
+    }
+    return checkStatus(offerId, statuses, currentState, successState);
+  }
+
   private class PriceMapInstructionPollTask implements Runnable {
 
     private final UUID offerId;
@@ -248,19 +361,8 @@ public class SnPriceMapOfferExecutionService extends BaseSolarNetworkClientServi
     public void run() {
       try {
         JsonNode statuses = instructionStatus(instructionIds);
-        TransactionTemplate tt = txTemplate();
-        PriceMapOfferEventEntity entity = null;
-        if (tt != null) {
-          entity = tt.execute(new TransactionCallback<PriceMapOfferEventEntity>() {
-
-            @Override
-            public PriceMapOfferEventEntity doInTransaction(TransactionStatus status) {
-              return checkStatus(offerId, statuses, currentState, successState);
-            }
-          });
-        } else {
-          entity = checkStatus(offerId, statuses, currentState, successState);
-        }
+        PriceMapOfferEventEntity entity = checkStatusInTransaction(offerId, statuses,
+            currentState, successState);
         if (entity == null) {
           // enqueue task again
           taskScheduler.schedule(this, Instant.now().plusMillis(instructionPollMs));
@@ -339,10 +441,7 @@ public class SnPriceMapOfferExecutionService extends BaseSolarNetworkClientServi
       result.completeExceptionally(new IllegalArgumentException(
           "Offer event " + offerId + " is not waiting to end; current state is " + oldState));
     } else {
-      FacilityPriceMap facPriceMap = StreamSupport
-          .stream(facilityService.getPriceMaps().spliterator(), false)
-          .filter(p -> facPriceMapId.equals(p.getId())).findFirst().get();
-      PriceMapOfferExecutionState updatedState = oldState;
+      FacilityPriceMap facPriceMap = facilityPriceMap(facPriceMapId);
       // now end by issuing the appropriate instruction to SolarNetwork
       MultiValueMap<String, Object> parameters = new LinkedMultiValueMap<>(2);
       String controlId = facPriceMap.getControlId();
@@ -354,49 +453,13 @@ public class SnPriceMapOfferExecutionService extends BaseSolarNetworkClientServi
         throw new IllegalArgumentException("The facility price map has no node ID configured.");
       }
       parameters.add(controlId, 0); // 0 means stop load management
-      try {
-        JsonNode statuses = enqueueInstruction("ShedLoad", singleton(facPriceMap.getNodeId()),
-            parameters);
-        PriceMapOfferEventEntity resultEntity = checkStatus(offerId, statuses, EXECUTING, newState);
-        if (resultEntity != null) {
-          result.complete(offerEvent);
-        } else {
-          Set<Long> instructionIds = StreamSupport.stream(statuses.spliterator(), false)
-              .map(j -> j.path("id").longValue()).filter(l -> l > 0).collect(toSet());
-          taskScheduler.schedule(
-              new PriceMapInstructionPollTask(offerId, result, instructionIds, EXECUTING, newState),
-              Instant.now().plusMillis(instructionPollMs));
-        }
-      } catch (JsonProcessingException | URISyntaxException | IllegalArgumentException e) {
-        log.error("Error enqueuing ShedLoad node instruction for node {} parameters {}: {}",
-            facPriceMap.getNodeId(), parameters, e.toString());
-        updatedState = ABORTED;
-        offerEvent.setMessage("Error enqueuing node instruction: " + e.toString());
-      }
-      if (updatedState != oldState) {
-        offerEvent.setExecutionState(updatedState);
-        offerEvent = offerEventDao.save(offerEvent);
-        publishEvent(new PriceMapOfferExecutionStateChanged(offerEvent, oldState, updatedState));
-        result.complete(offerEvent);
-      }
+      submitInstruction("ShedLoad", singleton(nodeId), parameters).whenComplete(
+          (statuses, t) -> instructionSubmitted(offerId, result, nodeId, parameters, statuses, t,
+              newState));
     }
     return result;
   }
 
-  /**
-   * Handle a price map offer accepted event.
-   * 
-   * @param event
-   *        the event
-   */
-  @Async
-  @EventListener
-  public void handlePriceMapOfferExecutionStateChanged(PriceMapOfferExecutionStateChanged event) {
-    FacilityPriceMapOfferEvent offerEvent = event.getOfferEvent();
-    PriceMapOfferExecutionState executionState = event.getNewState();
-    publishPriceMapOfferStatus(offerEvent, executionState);
-  }
-
   private JsonNode enqueueInstruction(String topic, Set<Long> nodeIds,
       MultiValueMap<String, Object> parameters) throws URISyntaxException, JsonProcessingException {
     if (topic == null || topic.trim().isEmpty()) {
@@ -466,100 +529,6 @@ public class SnPriceMapOfferExecutionService extends BaseSolarNetworkClientServi
     }
   }
 
-  private void publishPriceMapOfferStatus(FacilityPriceMapOfferEvent offerEvent,
-      PriceMapOfferExecutionState executionState) {
-    ExchangeEntity exchange = facilityService.getExchange();
-    if (exchange == null) {
-      return;
-    }
-    PriceMapOfferStatus.Status status = PriceMapOfferStatus.Status.UNKNOWN;
-    switch (executionState) {
-      case ABORTED:
-      case COUNTERED:
-      case DECLINED:
-        status = PriceMapOfferStatus.Status.REJECTED;
-        break;
-
-      case WAITING:
-        status = PriceMapOfferStatus.Status.ACCEPTED;
-        break;
-
-      case EXECUTING:
-        status = PriceMapOfferStatus.Status.EXECUTING;
-        break;
-
-      case COMPLETED:
-        status = PriceMapOfferStatus.Status.COMPLETED;
-        break;
-
-      default:
-        status = PriceMapOfferStatus.Status.UNKNOWN;
-        break;
-    }
-    log.info("Provding price map offer {} status {} to exchange {}", offerEvent.getId(), status,
-        exchange.getId());
-
-    ByteBuffer signatureData = ByteBuffer
-        .allocate(SignableMessage.uuidSignatureMessageSize() + Integer.BYTES);
-    SignableMessage.addUuidSignatureMessageBytes(signatureData, offerEvent.getId());
-    signatureData.putInt(status.getNumber());
-
-    // @formatter:off
-    PriceMapOfferStatus pmoStatus = PriceMapOfferStatus.newBuilder()
-        .setOfferId(ProtobufUtils.uuidForUuid(offerEvent.getId()))
-        .setStatus(status)
-        .setRoute(DerRoute.newBuilder()
-            .setExchangeUid(exchange.getId())
-            .setFacilityUid(facilityService.getUid())
-            .setSignature(generateMessageSignature(facilityService.getCryptoHelper(), 
-                facilityService.getKeyPair(), exchange.publicKey(), asList(
-                    exchange.getId(),
-                    facilityService.getUid(),
-                    signatureData)))
-            .build())
-        .build();
-    // @formatter:on
-    ManagedChannel channel = exchangeChannelProvider
-        .channelForUri(URI.create(exchange.getExchangeEndpointUri()));
-    try {
-      DerFacilityExchangeBlockingStub client = DerFacilityExchangeGrpc.newBlockingStub(channel);
-      PriceMapOfferStatusResponse response = client.providePriceMapOfferStatus(pmoStatus);
-
-      ByteBuffer responseSignatureData = ByteBuffer
-          .allocate(SignableMessage.uuidSignatureMessageSize()
-              + SignableMessage.booleanSignatureMessageSize());
-      SignableMessage.addUuidSignatureMessageBytes(responseSignatureData, offerEvent.getId());
-      SignableMessage.addBooleanSignatureMessageBytes(responseSignatureData,
-          response.getAccepted());
-
-      // @formatter:off
-      validateMessageSignature(facilityService.getCryptoHelper(),
-          response.getRoute().getSignature(), facilityService.getKeyPair(), exchange.publicKey(),
-          asList(exchange.getId(),
-              facilityService.getUid(),
-              responseSignatureData
-              ));
-      // @formatter:off
-      
-      log.info("Successfully published price map offer {} status {} to exchange {}, update was {}",
-          offerEvent.getId(), executionState, exchange.getId(),
-          response.getAccepted() ? "accepted" : "rejected");
-    } catch (StatusRuntimeException e) {
-      if (e.getStatus().getCode() == Status.Code.INVALID_ARGUMENT) {
-        throw new IllegalArgumentException(e.getStatus().getDescription());
-      } else {
-        throw e;
-      }
-    } finally {
-      channel.shutdown();
-      try {
-        channel.awaitTermination(1, TimeUnit.MINUTES);
-      } catch (InterruptedException e) {
-        log.debug("Timeout waiting for channel to shut down.");
-      }
-    }
-  }
-
   private void publishEvent(ApplicationEvent event) {
     if (eventPublisher != null) {
       eventPublisher.publishEvent(event);
@@ -570,16 +539,6 @@ public class SnPriceMapOfferExecutionService extends BaseSolarNetworkClientServi
     return txTemplate;
   }
 
-  /**
-   * Set the channel provider to use for connecting to exchanges.
-   * 
-   * @param exchangeChannelProvider
-   *        the exchangeChannelProvider to set
-   */
-  public void setExchangeChannelProvider(ChannelProvider exchangeChannelProvider) {
-    this.exchangeChannelProvider = exchangeChannelProvider;
-  }
-
   /**
    * Set an event publisher to use.
    * 
@@ -605,6 +564,63 @@ public class SnPriceMapOfferExecutionService extends BaseSolarNetworkClientServi
     this.instructionPollMs = ms;
   }
 
+  /**
+   * Set a tracker to poll the status of enqueued instructions with.
+   * 
+   * <p>
+   * If not configured, each offer polls the status of its own instructions every
+   * {@code instructionPollMs} milliseconds.
+   * </p>
+   * 
+   * @param instructionStatusTracker
+   *        the tracker to use
+   */
+  public void setInstructionStatusTracker(SnInstructionStatusTracker instructionStatusTracker) {
+    this.instructionStatusTracker = instructionStatusTracker;
+  }
+
+  /**
+   * Set the time to collect instructions for before enqueuing them together.
+   * 
+   * <p>
+   * When greater than zero, instructions are submitted to SolarNetwork by a
+   * {@link SnInstructionBatcher} so that instructions for offers that start or end at about the
+   * same time are merged into as few requests as possible. Otherwise each instruction is enqueued
+   * immediately, on the calling thread.
+   * </p>
+   * 
+   * @param ms
+   *        the batch window, in milliseconds; defaults to {@literal 0}
+   */
+  public void setInstructionBatchWindowMs(long ms) {
+    SnInstructionBatcher batcher = null;
+    if (ms > 0) {
+      batcher = new SnInstructionBatcher(taskScheduler, this::enqueueInstruction, ms);
+      batcher.setTaskExecutor(instructionExecutor);
+    }
+    this.instructionBatcher = batcher;
+  }
+
+  /**
+   * Set the executor to enqueue batched instructions with.
+   * 
+   * <p>
+   * This keeps the blocking SolarNetwork requests of each batch off the task scheduler thread. It
+   * has no effect unless a batch window is configured with
+   * {@link #setInstructionBatchWindowMs(long)}.
+   * </p>
+   * 
+   * @param instructionExecutor
+   *        the executor, or {@literal null} to enqueue batches on the task scheduler thread
+   */
+  public void setInstructionExecutor(Executor instructionExecutor) {
+    this.instructionExecutor = instructionExecutor;
+    SnInstructionBatcher batcher = this.instructionBatcher;
+    if (batcher != null) {
+      batcher.setTaskExecutor(instructionExecutor);
+    }
+  }
+
   /**
    * Set a {@link TransactionTemplate} to use for fine-grained transaction support.
    * 
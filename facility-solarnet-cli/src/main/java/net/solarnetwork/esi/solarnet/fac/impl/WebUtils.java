@@ -19,11 +19,20 @@ package net.solarnetwork.esi.solarnet.fac.impl;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import net.solarnetwork.esi.web.support.GzipRequestInterceptor;
 import net.solarnetwork.web.security.AuthorizationCredentialsProvider;
 import net.solarnetwork.web.support.AuthorizationV2RequestInterceptor;
@@ -36,6 +45,140 @@ import net.solarnetwork.web.support.AuthorizationV2RequestInterceptor;
  */
 public final class WebUtils {
 
+  /** The default maximum number of pooled connections. */
+  public static final int DEFAULT_MAX_CONNECTIONS = 32;
+
+  /** The default maximum number of pooled connections to a single host. */
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 8;
+
+  /** The default connection timeout, in milliseconds. */
+  public static final int DEFAULT_CONNECT_TIMEOUT_MS = 10000;
+
+  /** The default read timeout, in milliseconds. */
+  public static final int DEFAULT_READ_TIMEOUT_MS = 60000;
+
+  /**
+   * The default time to keep an idle connection open, in milliseconds, when the server does not
+   * specify one.
+   */
+  public static final long DEFAULT_KEEP_ALIVE_MS = 30000L;
+
+  /** The prefix used for all connection pool metric names. */
+  public static final String METRIC_PREFIX = "esi.fac.sn.http";
+
+  private WebUtils() {
+    // not available
+  }
+
+  private static final class SharedRequestFactoryHolder {
+
+    private static final HttpComponentsClientHttpRequestFactory INSTANCE = pooledRequestFactory(
+        pooledConnectionManager(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_ROUTE),
+        DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS, DEFAULT_KEEP_ALIVE_MS);
+
+  }
+
+  /**
+   * Get a shared, pooled request factory configured with default settings.
+   * 
+   * <p>
+   * This is meant for clients created outside of a managed application context, so they share
+   * keep-alive connections with each other instead of each opening their own.
+   * </p>
+   * 
+   * @return the shared request factory
+   */
+  public static HttpComponentsClientHttpRequestFactory sharedRequestFactory() {
+    return SharedRequestFactoryHolder.INSTANCE;
+  }
+
+  /**
+   * Create a new HTTP connection pool.
+   * 
+   * @param maxConnections
+   *        the maximum number of connections in the pool
+   * @param maxConnectionsPerRoute
+   *        the maximum number of connections to a single host
+   * @return the new connection pool
+   */
+  public static PoolingHttpClientConnectionManager pooledConnectionManager(int maxConnections,
+      int maxConnectionsPerRoute) {
+    PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
+    cm.setMaxTotal(maxConnections);
+    cm.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+    return cm;
+  }
+
+  /**
+   * Create a new request factory that uses a connection pool.
+   * 
+   * <p>
+   * Connections are kept alive for as long as the server allows, or {@code keepAliveMs} if the
+   * server does not say. Idle connections are closed after {@code keepAliveMs} by a background
+   * thread, which is stopped when the returned factory is destroyed.
+   * </p>
+   * 
+   * @param connectionManager
+   *        the connection pool to use
+   * @param connectTimeoutMs
+   *        the connection timeout, in milliseconds
+   * @param readTimeoutMs
+   *        the read timeout, in milliseconds
+   * @param keepAliveMs
+   *        the time to keep idle connections open, in milliseconds
+   * @return the new request factory
+   */
+  public static HttpComponentsClientHttpRequestFactory pooledRequestFactory(
+      PoolingHttpClientConnectionManager connectionManager, int connectTimeoutMs,
+      int readTimeoutMs, long keepAliveMs) {
+    // @formatter:off
+    CloseableHttpClient client = HttpClients.custom()
+        .setConnectionManager(connectionManager)
+        .setDefaultRequestConfig(RequestConfig.custom()
+            .setConnectTimeout(connectTimeoutMs)
+            .setConnectionRequestTimeout(connectTimeoutMs)
+            .setSocketTimeout(readTimeoutMs)
+            .build())
+        .setKeepAliveStrategy((response, context) -> {
+          long ms = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response,
+              context);
+          return (ms > 0 ? ms : keepAliveMs);
+        })
+        .evictExpiredConnections()
+        .evictIdleConnections(keepAliveMs, TimeUnit.MILLISECONDS)
+        .build();
+    // @formatter:on
+    return new HttpComponentsClientHttpRequestFactory(client);
+  }
+
+  /**
+   * Register gauges for the state of a connection pool.
+   * 
+   * @param connectionManager
+   *        the connection pool
+   * @param meterRegistry
+   *        the registry to use; if {@literal null} nothing is registered
+   */
+  public static void registerPoolMetrics(PoolingHttpClientConnectionManager connectionManager,
+      MeterRegistry meterRegistry) {
+    if (meterRegistry == null) {
+      return;
+    }
+    Gauge.builder(METRIC_PREFIX + ".leased", connectionManager,
+        cm -> cm.getTotalStats().getLeased())
+        .description("Number of SolarNetwork connections in use").register(meterRegistry);
+    Gauge.builder(METRIC_PREFIX + ".available", connectionManager,
+        cm -> cm.getTotalStats().getAvailable())
+        .description("Number of idle SolarNetwork connections kept alive")
+        .register(meterRegistry);
+    Gauge.builder(METRIC_PREFIX + ".pending", connectionManager,
+        cm -> cm.getTotalStats().getPending())
+        .description("Number of requests waiting for a SolarNetwork connection")
+        .register(meterRegistry);
+    Gauge.builder(METRIC_PREFIX + ".max", connectionManager, cm -> cm.getTotalStats().getMax())
+        .description("Maximum number of SolarNetwork connections").register(meterRegistry);
+  }
+
   /**
    * Configure a {@link RestTemplate} for use with the SolarNetwork API.
    * 
@@ -93,4 +93,13 @@ public interface FacilityService {
   @Nonnull
   Iterable<FacilityPriceMap> getPriceMaps();
 
+  /**
+   * Get a facility price map.
+   * 
+   * @param id
+   *        the ID of the price map to get
+   * @return the price map, or {@literal null} if not available
+   */
+  FacilityPriceMap getPriceMap(String id);
+
 }
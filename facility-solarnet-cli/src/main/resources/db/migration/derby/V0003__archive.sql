@@ -0,0 +1,28 @@
+CREATE TABLE PRICE_MAP_OFFER_EVENTS_ARCH (
+	ID CHAR(16) FOR BIT DATA NOT NULL,
+	CREATED_AT TIMESTAMP NOT NULL,
+	MODIFIED_AT TIMESTAMP NOT NULL,
+	START_AT TIMESTAMP NOT NULL,
+	IS_ACCEPTED BOOLEAN NOT NULL,
+	IS_SUCCESS BOOLEAN NOT NULL,
+	EXEC_STATE VARCHAR(12) NOT NULL,
+	MSG VARCHAR(255),
+	FAC_PRICE_MAP_ID VARCHAR(64),
+	DUR BIGINT,
+	POWER_REACTIVE BIGINT,
+	POWER_REAL BIGINT,
+	PRICE_CURRENCY VARCHAR(3),
+	PRICE_ENERGY_APPARENT DECIMAL(18,9),
+	RESP_TIME_MAX BIGINT,
+	RESP_TIME_MIN BIGINT,
+	CO_DUR BIGINT,
+	CO_POWER_REACTIVE BIGINT,
+	CO_POWER_REAL BIGINT,
+	CO_PRICE_CURRENCY VARCHAR(3),
+	CO_PRICE_ENERGY_APPARENT DECIMAL(18,9),
+	CO_RESP_TIME_MAX BIGINT,
+	CO_RESP_TIME_MIN BIGINT,
+	CONSTRAINT PRICE_MAP_OFFER_EVENTS_ARCH_PK PRIMARY KEY (ID)
+);
+
+CREATE INDEX PRICE_MAP_OFFER_EVENTS_ARCH_START_IDX ON PRICE_MAP_OFFER_EVENTS_ARCH (START_AT);
@@ -18,6 +18,8 @@
 package net.solarnetwork.esi.solarnet.fac.dao.test;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
@@ -27,7 +29,9 @@ import static org.springframework.test.jdbc.JdbcTestUtils.countRowsInTable;
 import java.math.BigDecimal;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.Currency;
+import java.util.List;
 import java.util.UUID;
 
 import javax.persistence.EntityManager;
@@ -39,20 +43,28 @@ import org.junit.Before;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
 import org.springframework.data.repository.core.support.RepositoryFactorySupport;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.TestExecutionListeners;
 import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
 import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import net.solarnetwork.esi.domain.jpa.DurationRangeEmbed;
 import net.solarnetwork.esi.domain.jpa.PowerComponentsEmbed;
 import net.solarnetwork.esi.domain.jpa.PriceComponentsEmbed;
+import net.solarnetwork.esi.solarnet.fac.dao.PriceMapOfferEventArchiveEntityDao;
 import net.solarnetwork.esi.solarnet.fac.dao.PriceMapOfferEventEntityDao;
 import net.solarnetwork.esi.solarnet.fac.domain.PriceMapEntity;
+import net.solarnetwork.esi.solarnet.fac.domain.PriceMapOfferEventArchiveEntity;
 import net.solarnetwork.esi.solarnet.fac.domain.PriceMapOfferEventEntity;
 import net.solarnetwork.esi.solarnet.fac.domain.PriceMapOfferExecutionState;
+import net.solarnetwork.esi.solarnet.fac.impl.DaoPriceMapOfferEventRetentionService;
+import net.solarnetwork.esi.solarnet.fac.impl.PriceMapOfferExecutionManager;
 import net.solarnetwork.esi.solarnet.fac.test.SpringTestSupport;
 
 /**
@@ -70,8 +82,12 @@ public class JpaPriceMapOfferEventEntityDaoTests extends SpringTestSupport {
   @Autowired
   private EntityManager em;
 
+  @Autowired
+  private PlatformTransactionManager txManager;
+
   private JdbcTemplate jdbcTemplate;
   private PriceMapOfferEventEntityDao dao;
+  private PriceMapOfferEventArchiveEntityDao archiveDao;
 
   private PriceMapOfferEventEntity last;
 
@@ -84,6 +100,7 @@ public class JpaPriceMapOfferEventEntityDaoTests extends SpringTestSupport {
   public void setup() {
     RepositoryFactorySupport factory = new JpaRepositoryFactory(em);
     dao = factory.getRepository(PriceMapOfferEventEntityDao.class);
+    archiveDao = factory.getRepository(PriceMapOfferEventArchiveEntityDao.class);
   }
 
   private void assertPriceMapOfferEventRowCountEqualTo(final int expected) {
@@ -94,6 +111,36 @@ public class JpaPriceMapOfferEventEntityDaoTests extends SpringTestSupport {
     assertThat(countRowsInTable(jdbcTemplate, "PRICE_MAPS"), equalTo(expected));
   }
 
+  private static PriceMapEntity newPriceMap(long realPower) {
+    PriceMapEntity priceMap = new PriceMapEntity(Instant.now());
+    priceMap.setDuration(Duration.ofHours(1));
+    priceMap.setPowerComponents(new PowerComponentsEmbed(realPower, 2L));
+    priceMap.setPriceComponents(
+        new PriceComponentsEmbed(Currency.getInstance("USD"), new BigDecimal("2.340000000")));
+    priceMap
+        .setResponseTime(new DurationRangeEmbed(Duration.ofSeconds(3L), Duration.ofSeconds(4L)));
+    return priceMap;
+  }
+
+  private PriceMapOfferEventEntity insertEvent(Instant startDate,
+      PriceMapOfferExecutionState state, boolean counterOffer) {
+    return insertEvent(Instant.now(), startDate, state, counterOffer);
+  }
+
+  private PriceMapOfferEventEntity insertEvent(Instant created, Instant startDate,
+      PriceMapOfferExecutionState state, boolean counterOffer) {
+    PriceMapOfferEventEntity obj = new PriceMapOfferEventEntity(created, UUID.randomUUID());
+    obj.setExecutionState(state);
+    obj.setStartDate(startDate);
+    obj.setPriceMap(newPriceMap(1L));
+    if (counterOffer) {
+      obj.setCounterOffer(newPriceMap(3L));
+    }
+    PriceMapOfferEventEntity entity = dao.save(obj);
+    em.flush();
+    return entity;
+  }
+
   @Test
   public void insert() {
     UUID id = UUID.randomUUID();
@@ -149,4 +196,97 @@ public class JpaPriceMapOfferEventEntityDaoTests extends SpringTestSupport {
         equalTo(last.getPriceMap().getResponseTime()));
   }
 
+  @Test
+  public void findIdsCreatedSince() {
+    Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    insertEvent(now.minus(3, ChronoUnit.DAYS), now, PriceMapOfferExecutionState.COMPLETED, false);
+    PriceMapOfferEventEntity e2 = insertEvent(now, PriceMapOfferExecutionState.WAITING, false);
+    PriceMapOfferEventEntity e3 = insertEvent(now, PriceMapOfferExecutionState.COUNTERED, true);
+    em.clear();
+
+    List<UUID> results = dao.findIdsCreatedSince(now.minus(1, ChronoUnit.DAYS));
+    assertThat("Recent IDs returned", results, containsInAnyOrder(e2.getId(), e3.getId()));
+  }
+
+  @Test
+  public void findByExecutionStateStartingBefore() {
+    Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    final PriceMapOfferEventEntity e1 = insertEvent(now.minus(3, ChronoUnit.DAYS),
+        PriceMapOfferExecutionState.COMPLETED, false);
+    insertEvent(now.minus(2, ChronoUnit.DAYS), PriceMapOfferExecutionState.WAITING, false);
+    PriceMapOfferEventEntity e3 = insertEvent(now.minus(2, ChronoUnit.DAYS),
+        PriceMapOfferExecutionState.DECLINED, false);
+    insertEvent(now, PriceMapOfferExecutionState.COMPLETED, false);
+    em.clear();
+
+    List<PriceMapOfferEventEntity> results = dao.findAllByExecutionStateInAndStartDateBefore(
+        DaoPriceMapOfferEventRetentionService.FINAL_EXECUTION_STATES,
+        now.minus(1, ChronoUnit.DAYS), PageRequest.of(0, 10, Sort.by("startDate")));
+    assertThat("Finished old events found", results, contains(e1, e3));
+  }
+
+  @Test
+  public void findByExecutionState() {
+    Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    final PriceMapOfferEventEntity e1 = insertEvent(now, PriceMapOfferExecutionState.WAITING, true);
+    final PriceMapOfferEventEntity e2 = insertEvent(now.minus(1, ChronoUnit.HOURS),
+        PriceMapOfferExecutionState.EXECUTING, true);
+    insertEvent(now.minus(2, ChronoUnit.HOURS), PriceMapOfferExecutionState.COMPLETED, true);
+    insertEvent(now, PriceMapOfferExecutionState.DECLINED, false);
+    em.clear();
+
+    List<PriceMapOfferEventEntity> results = dao
+        .findAllByExecutionStateIn(PriceMapOfferExecutionManager.RECOVERABLE_EXECUTION_STATES);
+    assertThat("Waiting and executing events found", results, containsInAnyOrder(e1, e2));
+  }
+
+  @Test
+  public void archiveFinishedEvents() {
+    Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    final PriceMapOfferEventEntity e1 = insertEvent(now.minus(3, ChronoUnit.DAYS),
+        PriceMapOfferExecutionState.COUNTERED, true);
+    final PriceMapOfferEventEntity e2 = insertEvent(now.minus(2, ChronoUnit.DAYS),
+        PriceMapOfferExecutionState.EXECUTING, false);
+    final PriceMapOfferEventEntity e3 = insertEvent(now, PriceMapOfferExecutionState.COMPLETED,
+        false);
+    em.clear();
+
+    DaoPriceMapOfferEventRetentionService service = new DaoPriceMapOfferEventRetentionService(dao,
+        archiveDao, new TransactionTemplate(txManager));
+    int count = service.archiveOfferEventsStartingBefore(now.minus(1, ChronoUnit.DAYS));
+    em.flush();
+    em.clear();
+
+    assertThat("Archived count", count, equalTo(1));
+    assertPriceMapOfferEventRowCountEqualTo(2);
+    assertPriceMapRowCountEqualTo(2);
+    assertThat("Executing event remains", dao.findById(e2.getId()).isPresent(), equalTo(true));
+    assertThat("Recent event remains", dao.findById(e3.getId()).isPresent(), equalTo(true));
+    assertThat(countRowsInTable(jdbcTemplate, "PRICE_MAP_OFFER_EVENTS_ARCH"), equalTo(1));
+
+    PriceMapOfferEventArchiveEntity arch = archiveDao.findById(e1.getId()).get();
+    assertThat("Start date", arch.getStartDate(), equalTo(e1.getStartDate()));
+    assertThat("Execution state", arch.getExecutionState(),
+        equalTo(PriceMapOfferExecutionState.COUNTERED));
+    assertThat("Offer price map", arch.getPriceMap(), equalTo(e1.getPriceMap().getPriceMap()));
+    assertThat("Counter-offer price map", arch.getCounterOffer(),
+        equalTo(e1.getCounterOffer().getPriceMap()));
+  }
+
+  @Test
+  public void findArchivedIdsCreatedSince() {
+    Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    PriceMapOfferEventEntity e1 = insertEvent(now.minus(3, ChronoUnit.DAYS),
+        now.minus(3, ChronoUnit.DAYS), PriceMapOfferExecutionState.COMPLETED, false);
+    PriceMapOfferEventEntity e2 = insertEvent(now.minus(2, ChronoUnit.DAYS),
+        PriceMapOfferExecutionState.DECLINED, false);
+    archiveDao.save(PriceMapOfferEventArchiveEntity.archiveOf(e1));
+    archiveDao.save(PriceMapOfferEventArchiveEntity.archiveOf(e2));
+    em.flush();
+    em.clear();
+
+    List<UUID> results = archiveDao.findIdsCreatedSince(now.minus(1, ChronoUnit.DAYS));
+    assertThat("Recent archived IDs returned", results, contains(e2.getId()));
+  }
+
 }
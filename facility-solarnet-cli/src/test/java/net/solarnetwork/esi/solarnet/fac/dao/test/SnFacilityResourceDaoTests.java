@@ -20,8 +20,11 @@ package net.solarnetwork.esi.solarnet.fac.dao.test;
 import static java.util.UUID.randomUUID;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.hamcrest.Matchers.startsWith;
 import static org.springframework.http.MediaType.APPLICATION_JSON_UTF8;
+import static org.springframework.test.web.client.ExpectedCount.times;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.queryParam;
@@ -29,18 +32,32 @@ import static org.springframework.test.web.client.match.MockRestRequestMatchers.
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.test.web.client.ExpectedCount;
 import org.springframework.test.web.client.MockRestServiceServer;
 import org.springframework.web.client.RestTemplate;
 
 import net.solarnetwork.esi.domain.jpa.ResourceCharacteristicsEmbed;
 import net.solarnetwork.esi.solarnet.fac.dao.FacilityResourceDao;
+import net.solarnetwork.esi.solarnet.fac.dao.impl.BaseSolarNodeMetadataDao;
 import net.solarnetwork.esi.solarnet.fac.dao.impl.SnFacilityResourceDao;
 import net.solarnetwork.esi.solarnet.fac.domain.FacilityResourceCharacteristics;
 import net.solarnetwork.esi.solarnet.fac.impl.WebUtils;
@@ -59,6 +76,7 @@ public class SnFacilityResourceDaoTests {
 
   private RestTemplate restTemplate;
   private AuthorizationCredentialsProvider credProvider;
+  private SnFacilityResourceDao snDao;
   private FacilityResourceDao dao;
 
   private MockRestServiceServer server;
@@ -68,7 +86,7 @@ public class SnFacilityResourceDaoTests {
     credProvider = new StaticAuthorizationCredentialsProvider(randomUUID().toString(),
         randomUUID().toString());
     restTemplate = WebUtils.setupSolarNetworkClient(new RestTemplate(), credProvider);
-    SnFacilityResourceDao snDao = new SnFacilityResourceDao(restTemplate);
+    snDao = new SnFacilityResourceDao(restTemplate);
     snDao.setApiBaseUrl(TEST_BASE_URL);
     dao = snDao;
 
@@ -122,4 +140,220 @@ public class SnFacilityResourceDaoTests {
     assertPropertiesEqual(entity.characteristics(), expected);
   }
 
+  private void expectMetadataQuery(ExpectedCount count) throws IOException {
+    Resource respResource = new ClassPathResource("node-metadata-01.json", getClass());
+    HttpHeaders respHeaders = new HttpHeaders();
+    respHeaders.setContentLength(respResource.contentLength());
+    server
+        .expect(count, requestTo(startsWith(TEST_BASE_URL + "/solarquery/api/v1/sec/nodes/meta")))
+        .andExpect(method(HttpMethod.GET))
+        .andRespond(withSuccess(respResource, APPLICATION_JSON_UTF8).headers(respHeaders));
+  }
+
+  @Test
+  public void cachedWithinTtl() throws IOException {
+    // given
+    expectMetadataQuery(ExpectedCount.once());
+
+    // when
+    FacilityResourceCharacteristics entity = dao.findById("rsrc1").get();
+    FacilityResourceCharacteristics cached = dao.findById("rsrc1").get();
+    final long count = dao.count();
+
+    // then
+    server.verify();
+    assertThat("Cached entity copy returned", cached, not(sameInstance(entity)));
+    assertPropertiesEqual(cached.getCharacteristics(), entity.getCharacteristics());
+    assertThat("Count from cache", count, equalTo(1L));
+  }
+
+  @Test
+  public void cachedEntityNotModifiedByCaller() throws IOException {
+    // given
+    expectMetadataQuery(ExpectedCount.once());
+    FacilityResourceCharacteristics entity = dao.findById("rsrc1").get();
+    final Long loadPowerMax = entity.getLoadPowerMax();
+
+    // when
+    entity.setLoadPowerMax(-1L);
+    dao.findAll().iterator().next().setNodeId(-1L);
+    FacilityResourceCharacteristics cached = dao.findById("rsrc1").get();
+
+    // then
+    server.verify();
+    assertThat("Cached load power max unchanged", cached.getLoadPowerMax(),
+        equalTo(loadPowerMax));
+    assertThat("Cached node ID unchanged", cached.getNodeId(), equalTo(entity.getNodeId()));
+  }
+
+  @Test
+  public void invalidateReloads() throws IOException {
+    // given
+    expectMetadataQuery(times(2));
+
+    // when
+    dao.findById("rsrc1").get();
+    snDao.invalidate();
+    dao.findById("rsrc1").get();
+
+    // then
+    server.verify();
+  }
+
+  @Test
+  public void findByIdQueriesIndexedNode() throws IOException {
+    // given
+    expectMetadataQuery(ExpectedCount.once());
+    Resource respResource = new ClassPathResource("node-metadata-01.json", getClass());
+    server
+        .expect(ExpectedCount.once(),
+            requestTo(startsWith(TEST_BASE_URL + "/solarquery/api/v1/sec/nodes/meta")))
+        .andExpect(method(HttpMethod.GET)).andExpect(queryParam("nodeIds", "179"))
+        .andExpect(queryParam("metadataFilter", "(/pm/esi-resource/rsrc1/*~%3D.*)"))
+        .andRespond(withSuccess(respResource, APPLICATION_JSON_UTF8));
+
+    // when
+    dao.findById("rsrc1").get();
+    snDao.invalidate();
+    FacilityResourceCharacteristics entity = dao.findById("rsrc1").get();
+
+    // then
+    server.verify();
+    assertThat("Entity ID", entity.getId(), equalTo("rsrc1"));
+  }
+
+  @Test
+  public void findByIdFallsBackWhenNotOnIndexedNode() throws IOException {
+    // given
+    expectMetadataQuery(ExpectedCount.once());
+    Resource emptyResource = new ByteArrayResource(
+        "{\"success\":true,\"data\":{\"results\":[]}}".getBytes(StandardCharsets.UTF_8));
+    server
+        .expect(ExpectedCount.once(),
+            requestTo(startsWith(TEST_BASE_URL + "/solarquery/api/v1/sec/nodes/meta")))
+        .andExpect(queryParam("nodeIds", "179"))
+        .andRespond(withSuccess(emptyResource, APPLICATION_JSON_UTF8));
+    expectMetadataQuery(ExpectedCount.once());
+
+    // when
+    dao.findById("rsrc1").get();
+    snDao.invalidate();
+    boolean found = dao.findById("rsrc1").isPresent();
+
+    // then
+    server.verify();
+    assertThat("Entity found from full load", found, equalTo(true));
+  }
+
+  @Test
+  public void cacheDisabled() throws IOException {
+    // given
+    snDao.setCacheTtlMs(0);
+    expectMetadataQuery(times(2));
+
+    // when
+    dao.findById("rsrc1").get();
+    dao.findById("rsrc1").get();
+
+    // then
+    server.verify();
+  }
+
+  @Test
+  public void staleWhileRevalidate() throws Exception {
+    // given
+    final AtomicInteger refreshes = new AtomicInteger();
+    snDao.setTaskExecutor(r -> {
+      refreshes.incrementAndGet();
+      r.run();
+    });
+    snDao.setCacheTtlMs(50);
+    expectMetadataQuery(times(2));
+
+    // when
+    final FacilityResourceCharacteristics entity = dao.findById("rsrc1").get();
+    Thread.sleep(100);
+    FacilityResourceCharacteristics stale = dao.findById("rsrc1").get();
+    final FacilityResourceCharacteristics fresh = dao.findById("rsrc1").get();
+
+    // then
+    server.verify();
+    assertThat("Refresh ran on executor", refreshes.get(), equalTo(1));
+    assertPropertiesEqual(stale.getCharacteristics(), entity.getCharacteristics());
+    assertPropertiesEqual(fresh.getCharacteristics(), entity.getCharacteristics());
+  }
+
+  @Test
+  public void staleRefreshRejected() throws Exception {
+    // given
+    final AtomicInteger refreshes = new AtomicInteger();
+    snDao.setTaskExecutor(r -> {
+      if (refreshes.incrementAndGet() == 1) {
+        throw new RejectedExecutionException("Busy");
+      }
+      r.run();
+    });
+    snDao.setCacheTtlMs(50);
+    expectMetadataQuery(times(2));
+
+    // when
+    final FacilityResourceCharacteristics entity = dao.findById("rsrc1").get();
+    Thread.sleep(100);
+    FacilityResourceCharacteristics stale = dao.findById("rsrc1").get();
+    final FacilityResourceCharacteristics retried = dao.findById("rsrc1").get();
+
+    // then
+    server.verify();
+    assertThat("Refresh retried after rejection", refreshes.get(), equalTo(2));
+    assertPropertiesEqual(stale.getCharacteristics(), entity.getCharacteristics());
+    assertPropertiesEqual(retried.getCharacteristics(), entity.getCharacteristics());
+  }
+
+  @Test
+  public void concurrentLoadsShareQuery() throws Exception {
+    // given
+    final AtomicInteger loads = new AtomicInteger();
+    final CountDownLatch loadStarted = new CountDownLatch(1);
+    final CountDownLatch finishLoad = new CountDownLatch(1);
+    final BaseSolarNodeMetadataDao<FacilityResourceCharacteristics> loadingDao;
+    loadingDao = new BaseSolarNodeMetadataDao<FacilityResourceCharacteristics>(
+        FacilityResourceCharacteristics.class, SnFacilityResourceDao.RESOURCE_METADATA_ROOT_KEY,
+        restTemplate) {
+
+      @Override
+      protected Map<Long, Map<String, FacilityResourceCharacteristics>> loadAll() {
+        loads.incrementAndGet();
+        loadStarted.countDown();
+        try {
+          finishLoad.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          // ignore
+        }
+        FacilityResourceCharacteristics entity = new FacilityResourceCharacteristics("rsrc1");
+        Map<Long, Map<String, FacilityResourceCharacteristics>> result = new HashMap<>(2);
+        result.put(1L, Collections.singletonMap("rsrc1", entity));
+        return result;
+      }
+
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      // when
+      final Future<Long> first = executor.submit(() -> loadingDao.count());
+      assertThat("Load started", loadStarted.await(5, TimeUnit.SECONDS), equalTo(true));
+      final Future<Long> second = executor.submit(() -> loadingDao.count());
+      final Future<Long> third = executor.submit(() -> loadingDao.count());
+      Thread.sleep(100);
+      finishLoad.countDown();
+
+      // then
+      assertThat("First count", first.get(5, TimeUnit.SECONDS), equalTo(1L));
+      assertThat("Second count", second.get(5, TimeUnit.SECONDS), equalTo(1L));
+      assertThat("Third count", third.get(5, TimeUnit.SECONDS), equalTo(1L));
+      assertThat("Single load", loads.get(), equalTo(1));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
 }
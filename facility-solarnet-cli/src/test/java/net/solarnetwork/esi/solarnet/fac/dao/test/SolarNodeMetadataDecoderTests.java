@@ -0,0 +1,114 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.solarnet.fac.dao.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.Test;
+
+import net.solarnetwork.esi.solarnet.fac.dao.impl.SnFacilityPriceMapDao;
+import net.solarnetwork.esi.solarnet.fac.dao.impl.SnFacilityProgramDao;
+import net.solarnetwork.esi.solarnet.fac.dao.impl.SolarNodeMetadataDecoder;
+import net.solarnetwork.esi.solarnet.fac.domain.FacilityPriceMap;
+import net.solarnetwork.esi.solarnet.fac.domain.FacilityProgram;
+
+/**
+ * Test cases for the {@link SolarNodeMetadataDecoder} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class SolarNodeMetadataDecoderTests {
+
+  private static InputStream json(String json) {
+    return new ByteArrayInputStream(json.replace('\'', '"').getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void decodePriceMaps() throws IOException {
+    // given
+    SolarNodeMetadataDecoder<FacilityPriceMap> decoder = new SolarNodeMetadataDecoder<>(
+        FacilityPriceMap.class, SnFacilityPriceMapDao.PRICEMAP_METADATA_ROOT_KEY);
+
+    // when
+    Map<Long, Map<String, FacilityPriceMap>> result;
+    try (InputStream in = getClass().getResourceAsStream("node-metadata-01.json")) {
+      result = decoder.decode(in);
+    }
+
+    // then
+    assertThat("Node count", result.keySet(), containsInAnyOrder(179L));
+    Map<String, FacilityPriceMap> priceMaps = result.get(179L);
+    assertThat("Price map IDs", priceMaps.keySet(), containsInAnyOrder("pm1", "pm2"));
+    FacilityPriceMap pm1 = priceMaps.get("pm1");
+    assertThat("ID", pm1.getId(), equalTo("pm1"));
+    assertThat("Node ID", pm1.getNodeId(), equalTo(179L));
+    assertThat("Group", pm1.getGroupUid(), equalTo("Demand Response"));
+    assertThat("Price map", pm1.getPriceMap(), notNullValue());
+    assertThat("Duration", pm1.getDuration().toMillis(), equalTo(600000L));
+  }
+
+  @Test
+  public void decodeNodeIdAfterMetadata() throws IOException {
+    // given
+    SolarNodeMetadataDecoder<FacilityProgram> decoder = new SolarNodeMetadataDecoder<>(
+        FacilityProgram.class, SnFacilityProgramDao.PROGRAM_METADATA_ROOT_KEY);
+    // @formatter:off
+    String json = "{'data':{'totalResults':2,'results':["
+        + "{'created':'2019-05-22','pm':{'esi-program':{'p1':{'resourceId':'r1'},'bad':1},"
+        + "'other':{'x':{'y':[1,2,{'z':3}]}}},'nodeId':1},"
+        + "{'nodeId':2,'pm':{'other':{}}}"
+        + "]},'success':true}";
+    // @formatter:on
+
+    // when
+    Map<Long, Map<String, FacilityProgram>> result = decoder.decode(json(json));
+
+    // then
+    assertThat("Only nodes with matching metadata", result.keySet(), containsInAnyOrder(1L));
+    FacilityProgram p1 = result.get(1L).get("p1");
+    assertThat("Non-object entries skipped", result.get(1L).keySet(), containsInAnyOrder("p1"));
+    assertThat("ID", p1.getId(), equalTo("p1"));
+    assertThat("Node ID", p1.getNodeId(), equalTo(1L));
+    assertThat("Resource ID", p1.getResourceId(), equalTo("r1"));
+  }
+
+  @Test
+  public void decodeUnsuccessful() throws IOException {
+    // given
+    SolarNodeMetadataDecoder<FacilityProgram> decoder = new SolarNodeMetadataDecoder<>(
+        FacilityProgram.class, SnFacilityProgramDao.PROGRAM_METADATA_ROOT_KEY);
+
+    // when
+    Map<Long, Map<String, FacilityProgram>> result = decoder.decode(json(
+        "{'success':false,'data':{'results':[{'nodeId':1,'pm':{'esi-program':{'p1':{}}}}]}}"));
+
+    // then
+    assertThat("No results", result.isEmpty(), equalTo(true));
+  }
+
+}
@@ -0,0 +1,329 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.solarnet.fac.impl.test;
+
+import static java.util.Arrays.asList;
+import static net.solarnetwork.esi.util.CryptoUtils.STANDARD_HELPER;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.grpc.testing.GrpcCleanupRule;
+import net.solarnetwork.esi.domain.DerRoute;
+import net.solarnetwork.esi.domain.PriceMapOfferStatus;
+import net.solarnetwork.esi.domain.PriceMapOfferStatusResponse;
+import net.solarnetwork.esi.domain.support.ProtobufUtils;
+import net.solarnetwork.esi.domain.support.SignableMessage;
+import net.solarnetwork.esi.grpc.StaticInProcessChannelProvider;
+import net.solarnetwork.esi.service.DerFacilityExchangeGrpc.DerFacilityExchangeImplBase;
+import net.solarnetwork.esi.solarnet.fac.domain.ExchangeEntity;
+import net.solarnetwork.esi.solarnet.fac.domain.PriceMapOfferExecutionState;
+import net.solarnetwork.esi.solarnet.fac.impl.ExchangePriceMapOfferStatusPublisher;
+import net.solarnetwork.esi.solarnet.fac.service.FacilityService;
+import net.solarnetwork.esi.util.CryptoUtils;
+
+/**
+ * Test cases for the {@link ExchangePriceMapOfferStatusPublisher} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class ExchangePriceMapOfferStatusPublisherTests {
+
+  @Rule
+  public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+  private FacilityService facilityService;
+  private String facilityUid;
+  private KeyPair facilityKeyPair;
+  private String exchangeUid;
+  private KeyPair exchangeKeyPair;
+  private ExchangeEntity exchangeEntity;
+  private String exchangeServerName;
+  private ThreadPoolTaskScheduler taskScheduler;
+  private ExchangePriceMapOfferStatusPublisher publisher;
+
+  @Before
+  public void setup() {
+    facilityUid = UUID.randomUUID().toString();
+    facilityKeyPair = STANDARD_HELPER.generateKeyPair();
+    facilityService = mock(FacilityService.class);
+    exchangeUid = UUID.randomUUID().toString();
+    exchangeKeyPair = STANDARD_HELPER.generateKeyPair();
+    exchangeEntity = new ExchangeEntity(Instant.now());
+    exchangeEntity.setId(exchangeUid);
+    exchangeEntity.setExchangePublicKey(exchangeKeyPair.getPublic().getEncoded());
+    exchangeServerName = InProcessServerBuilder.generateName();
+    exchangeEntity.setExchangeEndpointUri(URI.create("//" + exchangeServerName).toString());
+    taskScheduler = new ThreadPoolTaskScheduler();
+    taskScheduler.initialize();
+    publisher = new ExchangePriceMapOfferStatusPublisher(facilityService,
+        new StaticInProcessChannelProvider(exchangeServerName, true), taskScheduler);
+    publisher.setRetryDelayMs(10);
+  }
+
+  @After
+  public void teardown() {
+    publisher.shutdown();
+    taskScheduler.shutdown();
+  }
+
+  private void givenDefaultFacilityService() {
+    given(facilityService.getCryptoHelper()).willReturn(STANDARD_HELPER);
+    given(facilityService.getKeyPair()).willReturn(facilityKeyPair);
+    given(facilityService.getUid()).willReturn(facilityUid);
+    given(facilityService.getExchange()).willReturn(exchangeEntity);
+  }
+
+  private PriceMapOfferStatusResponse acceptedResponse(PriceMapOfferStatus request) {
+    UUID offerId = ProtobufUtils.uuidValue(request.getOfferId());
+    ByteBuffer signatureData = ByteBuffer.allocate(
+        SignableMessage.uuidSignatureMessageSize() + SignableMessage.booleanSignatureMessageSize());
+    SignableMessage.addUuidSignatureMessageBytes(signatureData, offerId);
+    SignableMessage.addBooleanSignatureMessageBytes(signatureData, true);
+    // @formatter:off
+    return PriceMapOfferStatusResponse.newBuilder()
+        .setAccepted(true)
+        .setRoute(DerRoute.newBuilder()
+            .setExchangeUid(exchangeUid)
+            .setFacilityUid(facilityUid)
+            .setSignature(CryptoUtils.generateMessageSignature(STANDARD_HELPER, exchangeKeyPair,
+                facilityKeyPair.getPublic(), asList(
+                    exchangeUid,
+                    facilityUid,
+                    signatureData)))
+            .build())
+        .build();
+    // @formatter:on
+  }
+
+  private void startExchange(DerFacilityExchangeImplBase exchangeService) throws IOException {
+    grpcCleanup.register(InProcessServerBuilder.forName(exchangeServerName)
+        .addService(exchangeService).build().start());
+  }
+
+  @Test
+  public void publishStatus() throws Exception {
+    // given
+    givenDefaultFacilityService();
+    final UUID offerId = UUID.randomUUID();
+    final List<PriceMapOfferStatus> received = Collections.synchronizedList(new ArrayList<>());
+    final CountDownLatch done = new CountDownLatch(1);
+    startExchange(new DerFacilityExchangeImplBase() {
+
+      @Override
+      public void providePriceMapOfferStatus(PriceMapOfferStatus request,
+          StreamObserver<PriceMapOfferStatusResponse> responseObserver) {
+        received.add(request);
+        responseObserver.onNext(acceptedResponse(request));
+        responseObserver.onCompleted();
+        done.countDown();
+      }
+
+    });
+
+    // when
+    publisher.publish(offerId, PriceMapOfferExecutionState.WAITING);
+
+    // then
+    assertThat("Status provided", done.await(5, TimeUnit.SECONDS), equalTo(true));
+    PriceMapOfferStatus status = received.get(0);
+    assertThat("Offer ID", ProtobufUtils.uuidValue(status.getOfferId()), equalTo(offerId));
+    assertThat("Status", status.getStatus(), equalTo(PriceMapOfferStatus.Status.ACCEPTED));
+
+    ByteBuffer signatureData = ByteBuffer
+        .allocate(SignableMessage.uuidSignatureMessageSize() + Integer.BYTES);
+    SignableMessage.addUuidSignatureMessageBytes(signatureData, offerId);
+    signatureData.putInt(PriceMapOfferStatus.Status.ACCEPTED_VALUE);
+    CryptoUtils.validateMessageSignature(STANDARD_HELPER, status.getRoute().getSignature(),
+        exchangeKeyPair, facilityKeyPair.getPublic(),
+        asList(exchangeUid, facilityUid, signatureData));
+  }
+
+  @Test
+  public void coalesceStatusWhileInFlight() throws Exception {
+    // given
+    givenDefaultFacilityService();
+    final UUID offerId = UUID.randomUUID();
+    final List<PriceMapOfferStatus.Status> received = Collections
+        .synchronizedList(new ArrayList<>());
+    final CountDownLatch firstReceived = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(2);
+    startExchange(new DerFacilityExchangeImplBase() {
+
+      @Override
+      public void providePriceMapOfferStatus(PriceMapOfferStatus request,
+          StreamObserver<PriceMapOfferStatusResponse> responseObserver) {
+        received.add(request.getStatus());
+        firstReceived.countDown();
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          // ignore
+        }
+        responseObserver.onNext(acceptedResponse(request));
+        responseObserver.onCompleted();
+        done.countDown();
+      }
+
+    });
+
+    // when
+    publisher.publish(offerId, PriceMapOfferExecutionState.WAITING);
+    assertThat("First status in flight", firstReceived.await(5, TimeUnit.SECONDS),
+        equalTo(true));
+    publisher.publish(offerId, PriceMapOfferExecutionState.EXECUTING);
+    publisher.publish(offerId, PriceMapOfferExecutionState.COMPLETED);
+    release.countDown();
+
+    // then
+    assertThat("Statuses provided", done.await(5, TimeUnit.SECONDS), equalTo(true));
+    assertThat("Intermediate status coalesced", received,
+        contains(PriceMapOfferStatus.Status.ACCEPTED, PriceMapOfferStatus.Status.COMPLETED));
+  }
+
+  @Test
+  public void retryUnavailableExchange() throws Exception {
+    // given
+    givenDefaultFacilityService();
+    final AtomicInteger attempts = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(1);
+    startExchange(new DerFacilityExchangeImplBase() {
+
+      @Override
+      public void providePriceMapOfferStatus(PriceMapOfferStatus request,
+          StreamObserver<PriceMapOfferStatusResponse> responseObserver) {
+        if (attempts.incrementAndGet() < 3) {
+          responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+          return;
+        }
+        responseObserver.onNext(acceptedResponse(request));
+        responseObserver.onCompleted();
+        done.countDown();
+      }
+
+    });
+
+    // when
+    publisher.publish(UUID.randomUUID(), PriceMapOfferExecutionState.EXECUTING);
+
+    // then
+    assertThat("Status provided after retries", done.await(5, TimeUnit.SECONDS),
+        equalTo(true));
+    assertThat("Attempts", attempts.get(), equalTo(3));
+  }
+
+  @Test
+  public void retryTimedOutExchange() throws Exception {
+    // given
+    givenDefaultFacilityService();
+    publisher.setRpcTimeoutMs(100);
+    final AtomicInteger attempts = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(1);
+    startExchange(new DerFacilityExchangeImplBase() {
+
+      @Override
+      public void providePriceMapOfferStatus(PriceMapOfferStatus request,
+          StreamObserver<PriceMapOfferStatusResponse> responseObserver) {
+        if (attempts.incrementAndGet() < 2) {
+          // never respond, so the call times out
+          return;
+        }
+        responseObserver.onNext(acceptedResponse(request));
+        responseObserver.onCompleted();
+        done.countDown();
+      }
+
+    });
+
+    // when
+    publisher.publish(UUID.randomUUID(), PriceMapOfferExecutionState.EXECUTING);
+
+    // then
+    assertThat("Status provided after timeout", done.await(5, TimeUnit.SECONDS),
+        equalTo(true));
+    assertThat("Attempts", attempts.get(), equalTo(2));
+  }
+
+  @Test
+  public void noRetryInvalidArgument() throws Exception {
+    // given
+    givenDefaultFacilityService();
+    final AtomicInteger attempts = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(1);
+    startExchange(new DerFacilityExchangeImplBase() {
+
+      @Override
+      public void providePriceMapOfferStatus(PriceMapOfferStatus request,
+          StreamObserver<PriceMapOfferStatusResponse> responseObserver) {
+        attempts.incrementAndGet();
+        responseObserver.onError(
+            Status.INVALID_ARGUMENT.withDescription("Unknown offer").asRuntimeException());
+        done.countDown();
+      }
+
+    });
+
+    // when
+    publisher.publish(UUID.randomUUID(), PriceMapOfferExecutionState.EXECUTING);
+
+    // then
+    assertThat("Status provided", done.await(5, TimeUnit.SECONDS), equalTo(true));
+    Thread.sleep(100);
+    assertThat("Not retried", attempts.get(), equalTo(1));
+    assertThat("Nothing pending", publisher.getPendingCount(), equalTo(0));
+  }
+
+  @Test
+  public void noExchange() {
+    // given
+    given(facilityService.getExchange()).willReturn(null);
+
+    // when
+    publisher.publish(UUID.randomUUID(), PriceMapOfferExecutionState.EXECUTING);
+
+    // then
+    assertThat("Nothing pending", publisher.getPendingCount(), equalTo(0));
+  }
+
+}
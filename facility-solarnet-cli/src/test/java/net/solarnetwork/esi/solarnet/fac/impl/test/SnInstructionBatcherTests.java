@@ -0,0 +1,272 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.solarnet.fac.impl.test;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import net.solarnetwork.esi.solarnet.fac.impl.SnInstructionBatcher;
+
+/**
+ * Test cases for the {@link SnInstructionBatcher} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class SnInstructionBatcherTests {
+
+  private static final class SentRequest {
+
+    private final Set<Long> nodeIds;
+    private final MultiValueMap<String, Object> parameters;
+
+    private SentRequest(Set<Long> nodeIds, MultiValueMap<String, Object> parameters) {
+      super();
+      this.nodeIds = new LinkedHashSet<>(nodeIds);
+      this.parameters = new LinkedMultiValueMap<>(parameters);
+    }
+  }
+
+  private TaskScheduler taskScheduler;
+  private List<SentRequest> sent;
+  private long nextInstructionId;
+  private SnInstructionBatcher batcher;
+
+  @Before
+  public void setup() {
+    taskScheduler = mock(TaskScheduler.class);
+    sent = new ArrayList<>();
+    nextInstructionId = 1L;
+    batcher = new SnInstructionBatcher(taskScheduler, (topic, nodeIds, parameters) -> {
+      sent.add(new SentRequest(nodeIds, parameters));
+      ArrayNode result = JsonNodeFactory.instance.arrayNode();
+      for (Long nodeId : nodeIds) {
+        ObjectNode instr = result.addObject();
+        instr.put("id", nextInstructionId++);
+        instr.put("nodeId", nodeId);
+        instr.put("topic", topic);
+        instr.put("state", "Queued");
+      }
+      return result;
+    }, 20);
+  }
+
+  private static MultiValueMap<String, Object> params(String name, Object value) {
+    MultiValueMap<String, Object> params = new LinkedMultiValueMap<>(1);
+    params.add(name, value);
+    return params;
+  }
+
+  @Test
+  public void flushScheduledOncePerBatch() {
+    // WHEN
+    batcher.enqueue("ShedLoad", singleton(1L), params("/load/1", 1000L));
+    batcher.enqueue("ShedLoad", singleton(2L), params("/load/1", 1000L));
+
+    // THEN
+    verify(taskScheduler, times(1)).schedule(any(Runnable.class), any(Instant.class));
+    assertThat("Nothing sent before flush", sent.size(), equalTo(0));
+  }
+
+  @Test
+  public void mergeSameParametersAcrossNodes() throws Exception {
+    // GIVEN
+    final CompletableFuture<JsonNode> f1 = batcher.enqueue("ShedLoad", singleton(1L),
+        params("/load/1", 1000L));
+    final CompletableFuture<JsonNode> f2 = batcher.enqueue("ShedLoad", singleton(2L),
+        params("/load/1", 1000L));
+
+    // WHEN
+    batcher.flush();
+
+    // THEN
+    assertThat("One request sent", sent.size(), equalTo(1));
+    assertThat("Request nodes", sent.get(0).nodeIds, contains(1L, 2L));
+    assertThat("Node 1 gets own instruction", f1.get().size(), equalTo(1));
+    assertThat("Node 1 instruction", f1.get().get(0).path("nodeId").longValue(), equalTo(1L));
+    assertThat("Node 2 gets own instruction", f2.get().size(), equalTo(1));
+    assertThat("Node 2 instruction", f2.get().get(0).path("nodeId").longValue(), equalTo(2L));
+  }
+
+  @Test
+  public void mergeDifferentParametersForNode() throws Exception {
+    // GIVEN
+    final CompletableFuture<JsonNode> f1 = batcher.enqueue("ShedLoad", singleton(1L),
+        params("/load/1", 1000L));
+    final CompletableFuture<JsonNode> f2 = batcher.enqueue("ShedLoad", singleton(1L),
+        params("/load/2", 500L));
+    final CompletableFuture<JsonNode> f3 = batcher.enqueue("ShedLoad", singleton(1L),
+        params("/load/1", 0));
+
+    // WHEN
+    batcher.flush();
+
+    // THEN
+    assertThat("Two requests sent", sent.size(), equalTo(2));
+    assertThat("Merged parameters", sent.get(0).parameters.keySet(),
+        contains("/load/1", "/load/2"));
+    assertThat("Overlapping parameter sent separately", sent.get(1).parameters.keySet(),
+        contains("/load/1"));
+    assertThat("Merged instructions share result", f1.get().get(0).path("id").longValue(),
+        equalTo(f2.get().get(0).path("id").longValue()));
+    assertThat("Separate instruction", f3.get().get(0).path("id").longValue(), equalTo(2L));
+  }
+
+  @Test
+  public void mergeKeepsNodeOrder() throws Exception {
+    // GIVEN
+    batcher.enqueue("ShedLoad", singleton(1L), params("/load/1", 0));
+    batcher.enqueue("ShedLoad", singleton(2L), params("/load/1", 500L));
+    final CompletableFuture<JsonNode> f3 = batcher.enqueue("ShedLoad", singleton(2L),
+        params("/load/1", 0));
+
+    // WHEN
+    batcher.flush();
+
+    // THEN
+    assertThat("Three requests sent", sent.size(), equalTo(3));
+    assertThat("First request nodes", sent.get(0).nodeIds, contains(1L));
+    assertThat("Second request nodes", sent.get(1).nodeIds, contains(2L));
+    assertThat("Second request shed", sent.get(1).parameters.getFirst("/load/1"),
+        equalTo(500L));
+    assertThat("Node 2 stop sent last", sent.get(2).nodeIds, contains(2L));
+    assertThat("Node 2 stop", sent.get(2).parameters.getFirst("/load/1"), equalTo(0));
+    assertThat("Node 2 stop instruction", f3.get().get(0).path("id").longValue(), equalTo(3L));
+  }
+
+  @Test
+  public void mergeIntoEarlierRequestForOtherNodes() {
+    // GIVEN
+    batcher.enqueue("ShedLoad", singleton(1L), params("/load/1", 0));
+    batcher.enqueue("ShedLoad", singleton(2L), params("/load/1", 500L));
+    batcher.enqueue("ShedLoad", singleton(3L), params("/load/1", 0));
+
+    // WHEN
+    batcher.flush();
+
+    // THEN
+    assertThat("Two requests sent", sent.size(), equalTo(2));
+    assertThat("Node 3 merged into first request", sent.get(0).nodeIds, contains(1L, 3L));
+    assertThat("Second request nodes", sent.get(1).nodeIds, contains(2L));
+  }
+
+  @Test
+  public void sendOnTaskExecutor() throws Exception {
+    // GIVEN
+    List<Runnable> tasks = new ArrayList<>();
+    batcher.setTaskExecutor(tasks::add);
+    final CompletableFuture<JsonNode> f = batcher.enqueue("ShedLoad", singleton(1L),
+        params("/load/1", 1000L));
+
+    // WHEN
+    batcher.flush();
+
+    // THEN
+    assertThat("Nothing sent on flushing thread", sent.size(), equalTo(0));
+    assertThat("Send task submitted", tasks.size(), equalTo(1));
+    tasks.get(0).run();
+    assertThat("Sent by executor", sent.size(), equalTo(1));
+    assertThat("Instruction result", f.get().size(), equalTo(1));
+  }
+
+  @Test
+  public void differentTopicsNotMerged() {
+    // GIVEN
+    batcher.enqueue("ShedLoad", new LinkedHashSet<>(asList(1L, 2L)), params("/load/1", 1000L));
+    batcher.enqueue("Other", singleton(3L), params("/load/1", 1000L));
+
+    // WHEN
+    batcher.flush();
+
+    // THEN
+    assertThat("Two requests sent", sent.size(), equalTo(2));
+  }
+
+  @Test
+  public void sendErrorFailsAllMergedInstructions() throws Exception {
+    // GIVEN
+    final IllegalArgumentException error = new IllegalArgumentException("test");
+    batcher = new SnInstructionBatcher(taskScheduler, (topic, nodeIds, parameters) -> {
+      throw error;
+    }, 20);
+    CompletableFuture<JsonNode> f1 = batcher.enqueue("ShedLoad", singleton(1L),
+        params("/load/1", 1000L));
+    CompletableFuture<JsonNode> f2 = batcher.enqueue("ShedLoad", singleton(2L),
+        params("/load/1", 1000L));
+
+    // WHEN
+    batcher.flush();
+
+    // THEN
+    for (CompletableFuture<JsonNode> f : asList(f1, f2)) {
+      try {
+        f.get();
+      } catch (ExecutionException e) {
+        assertThat("Send error", e.getCause(), sameInstance(error));
+      }
+      assertThat("Failed", f.isCompletedExceptionally(), equalTo(true));
+    }
+  }
+
+  @Test
+  public void newBatchAfterFlush() {
+    // GIVEN
+    ArgumentCaptor<Runnable> flushCaptor = ArgumentCaptor.forClass(Runnable.class);
+    given(taskScheduler.schedule(flushCaptor.capture(), any(Instant.class))).willReturn(null);
+    batcher.enqueue("ShedLoad", singleton(1L), params("/load/1", 1000L));
+    flushCaptor.getValue().run();
+
+    // WHEN
+    batcher.enqueue("ShedLoad", singleton(1L), params("/load/1", 0));
+
+    // THEN
+    verify(taskScheduler, times(2)).schedule(any(Runnable.class), any(Instant.class));
+    assertThat("First batch sent", sent.size(), equalTo(1));
+  }
+
+}
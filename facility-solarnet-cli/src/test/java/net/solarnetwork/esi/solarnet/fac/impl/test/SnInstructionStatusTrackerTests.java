@@ -0,0 +1,267 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.solarnet.fac.impl.test;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.springframework.http.MediaType.APPLICATION_JSON_UTF8;
+import static org.springframework.test.web.client.ExpectedCount.once;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.queryParam;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.util.LinkedHashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import net.solarnetwork.esi.solarnet.fac.impl.SnInstructionStatusTracker;
+import net.solarnetwork.esi.solarnet.fac.impl.WebUtils;
+import net.solarnetwork.web.support.StaticAuthorizationCredentialsProvider;
+
+/**
+ * Test cases for the {@link SnInstructionStatusTracker} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class SnInstructionStatusTrackerTests {
+
+  private static final String TEST_BASE_URL = "http://localhost";
+  private static final String VIEW_PATH = "/solaruser/api/v1/sec/instr/view";
+
+  private RestTemplate restTemplate;
+  private MockRestServiceServer server;
+  private SnInstructionStatusTracker tracker;
+
+  @Before
+  public void setup() {
+    restTemplate = WebUtils.setupSolarNetworkClient(new RestTemplate(),
+        new StaticAuthorizationCredentialsProvider(randomUUID().toString(),
+            randomUUID().toString()));
+    tracker = new SnInstructionStatusTracker(null, restTemplate);
+    tracker.setApiBaseUrl(TEST_BASE_URL);
+    tracker.setMinPollMs(1);
+    tracker.setMaxPollMs(1000);
+    server = MockRestServiceServer.bindTo(restTemplate).build();
+  }
+
+  private static String instr(long id, String state) {
+    return "{\"id\":" + id + ",\"nodeId\":123,\"topic\":\"ShedLoad\",\"state\":\"" + state + "\"}";
+  }
+
+  private void expectView(String ids, String... instructions) {
+    // @formatter:off
+    server.expect(once(), requestTo(startsWith(TEST_BASE_URL + VIEW_PATH)))
+        .andExpect(method(HttpMethod.GET))
+        .andExpect(queryParam("ids", ids))
+        .andRespond(withSuccess("{\"success\":true,\"data\":[" + String.join(",", instructions)
+            + "]}", APPLICATION_JSON_UTF8));
+    // @formatter:on
+  }
+
+  private void pollWhenDue() throws InterruptedException {
+    Thread.sleep(5);
+    tracker.poll();
+  }
+
+  @Test
+  public void batchStatusRequests() throws Exception {
+    // GIVEN
+    expectView("1,2,3", instr(1, "Completed"), instr(2, "Completed"), instr(3, "Completed"));
+
+    // WHEN
+    CompletableFuture<JsonNode> f1 = tracker.track(singleton(1L));
+    final CompletableFuture<JsonNode> f2 = tracker.track(new LinkedHashSet<>(asList(2L, 3L)));
+    pollWhenDue();
+
+    // THEN
+    server.verify();
+    assertThat("First set done", f1.isDone(), equalTo(true));
+    assertThat("First set statuses", f1.get().size(), equalTo(1));
+    assertThat("Second set done", f2.isDone(), equalTo(true));
+    assertThat("Second set statuses", f2.get().size(), equalTo(2));
+    pollWhenDue();
+    assertThat("Nothing tracked", tracker.getTrackedCount(), equalTo(0));
+  }
+
+  @Test
+  public void backOffWhileQueued() throws Exception {
+    // GIVEN
+    tracker.setMinPollMs(50);
+    expectView("1", instr(1, "Queued"));
+
+    // WHEN
+    CompletableFuture<JsonNode> f = tracker.track(singleton(1L));
+    Thread.sleep(60);
+    tracker.poll();
+
+    // THEN
+    assertThat("Not done while queued", f.isDone(), equalTo(false));
+
+    // second poll within the doubled 100ms delay makes no request
+    tracker.poll();
+    server.verify();
+    assertThat("Still not done", f.isDone(), equalTo(false));
+  }
+
+  @Test
+  public void anyDeclinedIsFinal() throws Exception {
+    // GIVEN
+    expectView("1,2", instr(1, "Received"), instr(2, "Declined"));
+
+    // WHEN
+    CompletableFuture<JsonNode> f = tracker.track(new LinkedHashSet<>(asList(1L, 2L)));
+    pollWhenDue();
+
+    // THEN
+    server.verify();
+    assertThat("Done when declined", f.isDone(), equalTo(true));
+    assertThat("Is final", SnInstructionStatusTracker.isFinal(f.get()), equalTo(true));
+  }
+
+  @Test
+  public void requestBudgetDefersPolling() throws Exception {
+    // GIVEN
+    tracker.setMaxIdsPerRequest(1);
+    tracker.setMaxRequestsPerSecond(1);
+    expectView("1", instr(1, "Completed"));
+
+    // WHEN
+    CompletableFuture<JsonNode> f1 = tracker.track(singleton(1L));
+    final CompletableFuture<JsonNode> f2 = tracker.track(singleton(2L));
+    pollWhenDue();
+
+    // THEN
+    server.verify();
+    assertThat("First set polled", f1.isDone(), equalTo(true));
+    assertThat("Second set deferred", f2.isDone(), equalTo(false));
+    assertThat("Second set still tracked", tracker.getTrackedCount(), equalTo(2));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void accessDenied() throws Throwable {
+    // GIVEN
+    server.expect(once(), requestTo(startsWith(TEST_BASE_URL + VIEW_PATH)))
+        .andRespond(withStatus(HttpStatus.UNAUTHORIZED));
+
+    // WHEN
+    CompletableFuture<JsonNode> f = tracker.track(singleton(1L));
+    pollWhenDue();
+
+    // THEN
+    server.verify();
+    try {
+      f.get();
+    } catch (ExecutionException e) {
+      throw e.getCause();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void forbiddenIsPermanent() throws Throwable {
+    // GIVEN
+    server.expect(once(), requestTo(startsWith(TEST_BASE_URL + VIEW_PATH)))
+        .andRespond(withStatus(HttpStatus.FORBIDDEN));
+
+    // WHEN
+    CompletableFuture<JsonNode> f = tracker.track(singleton(1L));
+    pollWhenDue();
+
+    // THEN
+    server.verify();
+    try {
+      f.get();
+    } catch (ExecutionException e) {
+      throw e.getCause();
+    }
+  }
+
+  @Test
+  public void tooManyRequestsRetried() throws Exception {
+    // GIVEN
+    server.expect(once(), requestTo(startsWith(TEST_BASE_URL + VIEW_PATH)))
+        .andRespond(withStatus(HttpStatus.TOO_MANY_REQUESTS));
+    expectView("1", instr(1, "Completed"));
+
+    // WHEN
+    CompletableFuture<JsonNode> f = tracker.track(singleton(1L));
+    pollWhenDue();
+    assertThat("Not done after rate limited", f.isDone(), equalTo(false));
+    Thread.sleep(5);
+    pollWhenDue();
+
+    // THEN
+    server.verify();
+    assertThat("Done after retry", f.isDone(), equalTo(true));
+  }
+
+  @Test
+  public void pollOnTaskExecutor() throws Exception {
+    // GIVEN
+    ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+    scheduler.initialize();
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+    AtomicInteger executions = new AtomicInteger();
+    tracker = new SnInstructionStatusTracker(scheduler, restTemplate);
+    tracker.setApiBaseUrl(TEST_BASE_URL);
+    tracker.setMinPollMs(1);
+    tracker.setTaskExecutor(r -> {
+      executions.incrementAndGet();
+      pool.execute(r);
+    });
+    expectView("1", instr(1, "Completed"));
+
+    try {
+      // WHEN
+      tracker.startup();
+      JsonNode result = tracker.track(singleton(1L)).get(5, TimeUnit.SECONDS);
+
+      // THEN
+      server.verify();
+      assertThat("Statuses", result.size(), equalTo(1));
+      assertThat("Polled on task executor", executions.get(), greaterThan(0));
+    } finally {
+      tracker.shutdown();
+      scheduler.shutdown();
+      pool.shutdownNow();
+    }
+  }
+
+}
@@ -0,0 +1,387 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.solarnet.fac.impl.test;
+
+import static java.util.Arrays.asList;
+import static java.util.UUID.randomUUID;
+import static net.solarnetwork.esi.solarnet.fac.test.SolarNetworkSimulator.datumWatts;
+import static net.solarnetwork.esi.util.CryptoUtils.STANDARD_HELPER;
+import static net.solarnetwork.esi.util.CryptoUtils.generateMessageSignature;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.security.KeyPair;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.client.RestTemplate;
+
+import net.solarnetwork.esi.domain.DatumRequest;
+import net.solarnetwork.esi.domain.DerRoute;
+import net.solarnetwork.esi.domain.PowerProfileDatum;
+import net.solarnetwork.esi.domain.TimeConcept;
+import net.solarnetwork.esi.domain.TimeUnit;
+import net.solarnetwork.esi.domain.TimestampRange;
+import net.solarnetwork.esi.domain.support.ProtobufUtils;
+import net.solarnetwork.esi.grpc.FlowControlledStreamer.Source;
+import net.solarnetwork.esi.solarnet.fac.domain.ExchangeEntity;
+import net.solarnetwork.esi.solarnet.fac.impl.SnPowerProfileService;
+import net.solarnetwork.esi.solarnet.fac.impl.WebUtils;
+import net.solarnetwork.esi.solarnet.fac.service.FacilityService;
+import net.solarnetwork.esi.solarnet.fac.test.SolarNetworkSimulator;
+import net.solarnetwork.web.support.StaticAuthorizationCredentialsProvider;
+
+/**
+ * Test cases for the {@link SnPowerProfileService} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class SnPowerProfileServiceTests {
+
+  private static final String SOURCE_1 = "/meter/1";
+  private static final String SOURCE_2 = "/meter/2";
+  private static final long MINUTE_MS = 60000L;
+
+  private String facilityUid;
+  private KeyPair facilityKeyPair;
+  private String exchangeUid;
+  private KeyPair exchangeKeyPair;
+  private FacilityService facilityService;
+  private SolarNetworkSimulator sim;
+  private SnPowerProfileService service;
+
+  @Before
+  public void setup() throws Exception {
+    facilityUid = UUID.randomUUID().toString();
+    facilityKeyPair = STANDARD_HELPER.generateKeyPair();
+    exchangeUid = UUID.randomUUID().toString();
+    exchangeKeyPair = STANDARD_HELPER.generateKeyPair();
+
+    ExchangeEntity exchangeEntity = new ExchangeEntity(Instant.now(), exchangeUid);
+    exchangeEntity.setExchangePublicKey(exchangeKeyPair.getPublic().getEncoded());
+
+    facilityService = mock(FacilityService.class);
+    given(facilityService.getCryptoHelper()).willReturn(STANDARD_HELPER);
+    given(facilityService.getKeyPair()).willReturn(facilityKeyPair);
+    given(facilityService.getUid()).willReturn(facilityUid);
+    given(facilityService.getExchange()).willReturn(exchangeEntity);
+
+    sim = new SolarNetworkSimulator();
+    sim.start();
+
+    RestTemplate restTemplate = WebUtils.setupSolarNetworkClient(
+        new RestTemplate(WebUtils.sharedRequestFactory()),
+        new StaticAuthorizationCredentialsProvider(randomUUID().toString(),
+            randomUUID().toString()));
+    service = new SnPowerProfileService(facilityService, restTemplate);
+    service.setApiBaseUrl(sim.getBaseUrl());
+    service.setNodeIds(new LinkedHashSet<>(asList(1L)));
+    service.setSourceIds(new LinkedHashSet<>(asList(SOURCE_1, SOURCE_2)));
+  }
+
+  @After
+  public void teardown() {
+    sim.stop();
+  }
+
+  private DerRoute route(KeyPair signingKeyPair) {
+    return DerRoute.newBuilder().setExchangeUid(exchangeUid).setFacilityUid(facilityUid)
+        .setSignature(generateMessageSignature(STANDARD_HELPER, signingKeyPair,
+            facilityKeyPair.getPublic(), asList(exchangeUid, facilityUid)))
+        .build();
+  }
+
+  private DatumRequest request(String min, String max, TimeUnit timeUnit, int coalescence) {
+    TimestampRange.Builder range = TimestampRange.newBuilder();
+    if (min != null) {
+      range.setMin(ProtobufUtils.timestampForInstant(Instant.parse(min)));
+    }
+    if (max != null) {
+      range.setMax(ProtobufUtils.timestampForInstant(Instant.parse(max)));
+    }
+    return DatumRequest.newBuilder().setRoute(route(exchangeKeyPair)).setTimeRange(range)
+        .setTimeUnit(timeUnit).setTimeUnitCoalescence(coalescence).build();
+  }
+
+  private static List<PowerProfileDatum> drain(Source<PowerProfileDatum> source)
+      throws Exception {
+    List<PowerProfileDatum> result = new ArrayList<>();
+    for (PowerProfileDatum d = source.next(); d != null; d = source.next()) {
+      result.add(d);
+    }
+    return result;
+  }
+
+  private static long millis(PowerProfileDatum d) {
+    return d.getTs().getSeconds() * 1000L + d.getTs().getNanos() / 1000000;
+  }
+
+  private static double watts(long date) {
+    return datumWatts(1L, SOURCE_1, date) + datumWatts(1L, SOURCE_2, date);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void exchangeUidNotValid() {
+    DatumRequest req = request("2019-06-01T00:00:00Z", "2019-06-01T01:00:00Z", TimeUnit.MINUTE, 15)
+        .toBuilder().setRoute(route(exchangeKeyPair).toBuilder().setExchangeUid("foo")).build();
+    service.listPowerProfile(req);
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void signatureNotValid() {
+    DatumRequest req = request("2019-06-01T00:00:00Z", "2019-06-01T01:00:00Z", TimeUnit.MINUTE, 15)
+        .toBuilder().setRoute(route(STANDARD_HELPER.generateKeyPair())).build();
+    service.listPowerProfile(req);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void timeRangeMinMissing() {
+    service.listPowerProfile(request(null, "2019-06-01T01:00:00Z", TimeUnit.MINUTE, 15));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void timeRangeReversed() {
+    service.listPowerProfile(
+        request("2019-06-01T01:00:00Z", "2019-06-01T00:00:00Z", TimeUnit.MINUTE, 15));
+  }
+
+  @Test
+  public void noNodes() throws Exception {
+    // given
+    service.setNodeIds(null);
+
+    // when
+    Source<PowerProfileDatum> source = service.listPowerProfile(
+        request("2019-06-01T00:00:00Z", "2019-06-01T01:00:00Z", TimeUnit.MINUTE, 15));
+
+    // then
+    assertThat("No datum", source.next(), nullValue());
+    assertThat("No requests", sim.getDatumRequestCount(), equalTo(0L));
+  }
+
+  @Test
+  public void fifteenMinutes() throws Exception {
+    // when
+    Source<PowerProfileDatum> source = service.listPowerProfile(
+        request("2019-06-01T00:00:00Z", "2019-06-01T01:00:00Z", TimeUnit.MINUTE, 15));
+    List<PowerProfileDatum> result = drain(source);
+
+    // then
+    assertThat("Datum count", result.size(), equalTo(4));
+    long start = Instant.parse("2019-06-01T00:00:00Z").toEpochMilli();
+    for (int i = 0; i < result.size(); i++) {
+      PowerProfileDatum d = result.get(i);
+      long date = start + i * 15 * MINUTE_MS;
+      assertThat("Datum date " + i, millis(d), equalTo(date));
+      assertThat("Datum time unit " + i, d.getTimeUnit(), equalTo(TimeUnit.MINUTE));
+      assertThat("Datum time length " + i, d.getTimeLength(), equalTo(15));
+      assertThat("Datum real power " + i, d.getPowerComponents().getRealPower(),
+          equalTo(Math.round(watts(date))));
+      assertThat("Datum reactive power " + i, d.getPowerComponents().getReactivePower(),
+          equalTo(Math.round(watts(date) / 10)));
+    }
+    assertThat("Single page requested", sim.getDatumRequestCount(), equalTo(1L));
+  }
+
+  @Test
+  public void pagesAggregatedAcrossBoundaries() throws Exception {
+    // given pages that split the datum of one hour
+    service.setPageSize(3);
+
+    // when
+    Source<PowerProfileDatum> source = service.listPowerProfile(
+        request("2019-06-01T00:00:00Z", "2019-06-01T04:00:00Z", TimeUnit.HOUR, 2));
+    List<PowerProfileDatum> result = drain(source);
+
+    // then
+    assertThat("Datum count", result.size(), equalTo(2));
+    long start = Instant.parse("2019-06-01T00:00:00Z").toEpochMilli();
+    for (int i = 0; i < result.size(); i++) {
+      PowerProfileDatum d = result.get(i);
+      long date = start + i * 120 * MINUTE_MS;
+      double avg = (watts(date) + watts(date + 60 * MINUTE_MS)) / 2;
+      assertThat("Datum date " + i, millis(d), equalTo(date));
+      assertThat("Datum time length " + i, d.getTimeLength(), equalTo(2));
+      assertThat("Datum real power " + i, d.getPowerComponents().getRealPower(),
+          equalTo(Math.round(avg)));
+    }
+    assertThat("Pages requested", sim.getDatumRequestCount(), equalTo(3L));
+  }
+
+  @Test
+  public void pagesSplitWithinOneTimestamp() throws Exception {
+    // given more sources sharing each timestamp than fit on one page
+    final List<String> sourceIds = asList("/meter/1", "/meter/2", "/meter/3", "/meter/4",
+        "/meter/5");
+    service.setSourceIds(new LinkedHashSet<>(sourceIds));
+    service.setPageSize(3);
+
+    // when
+    Source<PowerProfileDatum> source = service.listPowerProfile(
+        request("2019-06-01T00:00:00Z", "2019-06-01T00:01:00Z", TimeUnit.INSTANT, 0));
+    List<PowerProfileDatum> result = drain(source);
+
+    // then
+    long date = Instant.parse("2019-06-01T00:00:00Z").toEpochMilli();
+    double expected = 0;
+    for (String sourceId : sourceIds) {
+      expected += datumWatts(1L, sourceId, date);
+    }
+    assertThat("Datum count", result.size(), equalTo(1));
+    assertThat("Datum real power is sum of every source once",
+        result.get(0).getPowerComponents().getRealPower(), equalTo(Math.round(expected)));
+    assertThat("Pages requested", sim.getDatumRequestCount(), equalTo(2L));
+  }
+
+  @Test
+  public void instantsFromRawDatum() throws Exception {
+    // when
+    Source<PowerProfileDatum> source = service.listPowerProfile(
+        request("2019-06-01T00:00:00Z", "2019-06-01T00:05:00Z", TimeUnit.INSTANT, 0));
+    List<PowerProfileDatum> result = drain(source);
+
+    // then
+    assertThat("Datum count", result.size(), equalTo(5));
+    long start = Instant.parse("2019-06-01T00:00:00Z").toEpochMilli();
+    for (int i = 0; i < result.size(); i++) {
+      PowerProfileDatum d = result.get(i);
+      long date = start + i * MINUTE_MS;
+      assertThat("Datum date " + i, millis(d), equalTo(date));
+      assertThat("Datum time unit " + i, d.getTimeUnit(), equalTo(TimeUnit.INSTANT));
+      assertThat("Datum real power " + i, d.getPowerComponents().getRealPower(),
+          equalTo(Math.round(watts(date))));
+    }
+  }
+
+  @Test
+  public void rawSourcesWithUnalignedTimestamps() throws Exception {
+    // given each source reporting at a different time within each minute
+    sim.setSourceSkewMs(20000L);
+
+    // when
+    Source<PowerProfileDatum> source = service.listPowerProfile(
+        request("2019-06-01T00:00:00Z", "2019-06-01T00:05:00Z", TimeUnit.SECOND, 30));
+    List<PowerProfileDatum> result = drain(source);
+
+    // then
+    assertThat("Datum count", result.size(), equalTo(5));
+    long start = Instant.parse("2019-06-01T00:00:00Z").toEpochMilli();
+    for (int i = 0; i < result.size(); i++) {
+      PowerProfileDatum d = result.get(i);
+      long date = start + i * MINUTE_MS;
+      assertThat("Datum date " + i, millis(d), equalTo(date));
+      assertThat("Datum real power is sum of sources " + i,
+          d.getPowerComponents().getRealPower(), equalTo(Math.round(watts(date))));
+    }
+  }
+
+  @Test
+  public void instantsFromUnalignedSources() throws Exception {
+    // given
+    sim.setSourceSkewMs(20000L);
+
+    // when
+    Source<PowerProfileDatum> source = service.listPowerProfile(
+        request("2019-06-01T00:00:00Z", "2019-06-01T00:05:00Z", TimeUnit.INSTANT, 0));
+    List<PowerProfileDatum> result = drain(source);
+
+    // then
+    assertThat("Datum count", result.size(), equalTo(10));
+    long start = Instant.parse("2019-06-01T00:00:00Z").toEpochMilli();
+    assertThat("First datum only first source", result.get(0).getPowerComponents().getRealPower(),
+        equalTo(Math.round(datumWatts(1L, SOURCE_1, start))));
+    for (int i = 1; i < result.size(); i += 2) {
+      PowerProfileDatum d = result.get(i);
+      long date = start + (i / 2) * MINUTE_MS;
+      assertThat("Datum date " + i, millis(d), equalTo(date + 20000L));
+      assertThat("Datum real power is sum of sources " + i,
+          d.getPowerComponents().getRealPower(), equalTo(Math.round(watts(date))));
+    }
+  }
+
+  @Test
+  public void mostRecent() throws Exception {
+    // given
+    DatumRequest req = DatumRequest.newBuilder().setRoute(route(exchangeKeyPair))
+        .setTimeConcept(TimeConcept.MOST_RECENT).build();
+
+    // when
+    List<PowerProfileDatum> result = drain(service.listPowerProfile(req));
+
+    // then
+    assertThat("Datum count", result.size(), equalTo(1));
+    PowerProfileDatum d = result.get(0);
+    assertThat("Datum time unit", d.getTimeUnit(), equalTo(TimeUnit.INSTANT));
+    assertThat("Datum real power is sum of sources", d.getPowerComponents().getRealPower(),
+        equalTo(Math.round(watts(millis(d)))));
+  }
+
+  @Test
+  public void mostRecentFromUnalignedSources() throws Exception {
+    // given
+    sim.setSourceSkewMs(20000L);
+    DatumRequest req = DatumRequest.newBuilder().setRoute(route(exchangeKeyPair))
+        .setTimeConcept(TimeConcept.MOST_RECENT).build();
+
+    // when
+    List<PowerProfileDatum> result = drain(service.listPowerProfile(req));
+
+    // then
+    assertThat("Datum count", result.size(), equalTo(1));
+    PowerProfileDatum d = result.get(0);
+    assertThat("Datum date is latest source date", Math.floorMod(millis(d), MINUTE_MS),
+        equalTo(20000L));
+    assertThat("Datum real power is sum of sources", d.getPowerComponents().getRealPower(),
+        equalTo(Math.round(watts(millis(d)))));
+  }
+
+  @Test
+  public void yearOfFifteenMinutes() throws Exception {
+    // given
+    service.setSourceIds(null);
+
+    // when
+    Source<PowerProfileDatum> source = service.listPowerProfile(
+        request("2019-01-01T00:00:00Z", "2020-01-01T00:00:00Z", TimeUnit.MINUTE, 15));
+    int count = 0;
+    long last = 0;
+    for (PowerProfileDatum d = source.next(); d != null; d = source.next()) {
+      count++;
+      last = millis(d);
+    }
+
+    // then
+    assertThat("Datum count", count, equalTo(365 * 96));
+    assertThat("Last date", last,
+        equalTo(Instant.parse("2019-12-31T23:45:00Z").toEpochMilli()));
+    assertThat("Pages requested", sim.getDatumRequestCount(),
+        equalTo((long) (365 * 96 / SnPowerProfileService.DEFAULT_PAGE_SIZE + 1)));
+  }
+
+}
@@ -17,7 +17,6 @@
 
 package net.solarnetwork.esi.solarnet.fac.impl.test;
 
-import static java.util.Collections.singleton;
 import static java.util.UUID.randomUUID;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.notNullValue;
@@ -57,8 +56,11 @@ import org.springframework.scheduling.TaskScheduler;
 import org.springframework.test.web.client.MockRestServiceServer;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
+import com.fasterxml.jackson.databind.JsonNode;
+
 import net.solarnetwork.esi.domain.jpa.PriceMapEmbed;
 import net.solarnetwork.esi.solarnet.fac.dao.PriceMapOfferEventEntityDao;
 import net.solarnetwork.esi.solarnet.fac.domain.FacilityPriceMap;
@@ -66,6 +68,7 @@ import net.solarnetwork.esi.solarnet.fac.domain.FacilityPriceMapOfferEvent;
 import net.solarnetwork.esi.solarnet.fac.domain.PriceMapOfferEventEntity;
 import net.solarnetwork.esi.solarnet.fac.domain.PriceMapOfferExecutionState;
 import net.solarnetwork.esi.solarnet.fac.domain.PriceMapOfferNotification.PriceMapOfferExecutionStateChanged;
+import net.solarnetwork.esi.solarnet.fac.impl.SnInstructionStatusTracker;
 import net.solarnetwork.esi.solarnet.fac.impl.SnPriceMapOfferExecutionService;
 import net.solarnetwork.esi.solarnet.fac.impl.WebUtils;
 import net.solarnetwork.esi.solarnet.fac.service.FacilityService;
@@ -110,6 +113,42 @@ public class SnPriceMapOfferExecutionServiceTests {
     server = MockRestServiceServer.bindTo(restTemplate).build();
   }
 
+  @Test
+  public void executionKeyForNodeControl() {
+    // GIVEN
+    final UUID offerId = UUID.randomUUID();
+    final PriceMapEmbed offerPriceMap = new PriceMapEmbed();
+    final FacilityPriceMap facPriceMap = new FacilityPriceMap(UUID.randomUUID().toString(),
+        offerPriceMap);
+    facPriceMap.setControlId("/load/1");
+    facPriceMap.setNodeId(123L);
+    given(facilityService.getPriceMap(facPriceMap.getId())).willReturn(facPriceMap);
+
+    final PriceMapOfferEventEntity offerEvent = new PriceMapOfferEventEntity(Instant.now(), offerId,
+        Instant.now(), offerPriceMap);
+    offerEvent.setFacilityPriceMapId(facPriceMap.getId());
+    given(priceMapOfferDao.findById(offerId)).willReturn(Optional.of(offerEvent));
+
+    // WHEN
+    String key = service.executionKey(offerId);
+
+    // THEN
+    assertThat("Key is node and control", key, equalTo("123//load/1"));
+  }
+
+  @Test
+  public void executionKeyForUnknownOffer() {
+    // GIVEN
+    final UUID offerId = UUID.randomUUID();
+    given(priceMapOfferDao.findById(offerId)).willReturn(Optional.empty());
+
+    // WHEN
+    String key = service.executionKey(offerId);
+
+    // THEN
+    assertThat("Key is offer ID", key, equalTo(offerId.toString()));
+  }
+
   @Test
   public void executeOffer() throws Exception {
     // GIVEN
@@ -121,7 +160,7 @@ public class SnPriceMapOfferExecutionServiceTests {
         offerPriceMap);
     facPriceMap.setControlId("/load/1");
     facPriceMap.setNodeId(123L);
-    given(facilityService.getPriceMaps()).willReturn(singleton(facPriceMap));
+    given(facilityService.getPriceMap(facPriceMap.getId())).willReturn(facPriceMap);
 
     final PriceMapOfferEventEntity offerEvent = new PriceMapOfferEventEntity(Instant.now(), offerId,
         Instant.now(), offerPriceMap);
@@ -182,6 +221,86 @@ public class SnPriceMapOfferExecutionServiceTests {
     verify(taskScheduler, never()).schedule(any(Runnable.class), any(Instant.class));
   }
 
+  @Test
+  public void executeOfferViaInstructionBatcher() throws Exception {
+    // GIVEN
+    final UUID offerId = UUID.randomUUID();
+    final PriceMapEmbed offerPriceMap = new PriceMapEmbed();
+    offerPriceMap.powerComponents().setRealPower(-1000L); // shed 1kW
+
+    final FacilityPriceMap facPriceMap = new FacilityPriceMap(UUID.randomUUID().toString(),
+        offerPriceMap);
+    facPriceMap.setControlId("/load/1");
+    facPriceMap.setNodeId(123L);
+    given(facilityService.getPriceMap(facPriceMap.getId())).willReturn(facPriceMap);
+
+    final PriceMapOfferEventEntity offerEvent = new PriceMapOfferEventEntity(Instant.now(), offerId,
+        Instant.now(), offerPriceMap);
+    offerEvent.setFacilityPriceMapId(facPriceMap.getId());
+    offerEvent.setExecutionState(PriceMapOfferExecutionState.WAITING);
+    given(priceMapOfferDao.findById(offerId)).willReturn(Optional.of(offerEvent));
+
+    // invoke /instr/add API on SolarNetwork, which returns Completed state
+    Resource addResp = new ClassPathResource("instr-add-resp-01.json", getClass());
+    HttpHeaders addRespHeaders = new HttpHeaders();
+    addRespHeaders.setContentLength(addResp.contentLength());
+    MultiValueMap<String, String> addRespExpectedContent = new LinkedMultiValueMap<>(8);
+    addRespExpectedContent.add("topic", "ShedLoad");
+    addRespExpectedContent.add("nodeIds", facPriceMap.getNodeId().toString());
+    addRespExpectedContent.add("parameters[0].name", "/load/1");
+    addRespExpectedContent.add("parameters[0].value", "1000");
+    // @formatter:off
+    server.expect(requestTo(startsWith(TEST_BASE_URL + "/solaruser/api/v1/sec/instr/add")))
+        .andExpect(method(HttpMethod.POST))
+        .andExpect(header(HttpHeaders.HOST, "localhost"))
+        .andExpect(header(HttpHeaders.ACCEPT_ENCODING, "gzip,deflate"))
+        .andExpect(header(HttpHeaders.AUTHORIZATION, 
+            startsWith("SNWS2 Credential=" + credProvider.getAuthorizationId() 
+                + ",SignedHeaders=content-type;date;host,Signature=")))
+        .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_FORM_URLENCODED))
+        .andExpect(content().formData(addRespExpectedContent))
+        .andRespond(withSuccess(addResp, APPLICATION_JSON_UTF8).headers(addRespHeaders));
+    // @formatter:on
+
+    given(priceMapOfferDao.save(offerEvent)).willReturn(offerEvent);
+
+    ArgumentCaptor<Runnable> flushCaptor = ArgumentCaptor.forClass(Runnable.class);
+    given(taskScheduler.schedule(flushCaptor.capture(), any(Instant.class))).willReturn(null);
+    service.setInstructionBatchWindowMs(20);
+
+    // WHEN
+    CompletableFuture<?> future = service.executePriceMapOfferEvent(offerId);
+
+    // THEN
+    assertThat("Future returned", future, notNullValue());
+    assertThat("Instruction waiting for batch", future.isDone(), equalTo(false));
+
+    // flush the batch now, so we can wait for future result
+    flushCaptor.getValue().run();
+
+    Object result = future.get();
+    assertThat("Future result is offer entity", result, sameInstance(offerEvent));
+    assertThat("Offet state completed", offerEvent.getExecutionState(),
+        equalTo(PriceMapOfferExecutionState.EXECUTING));
+
+    // verify state notifications WAITING -> EXECUTING -> COMPLETED
+    ArgumentCaptor<PriceMapOfferExecutionStateChanged> eventCaptor = ArgumentCaptor
+        .forClass(PriceMapOfferExecutionStateChanged.class);
+    verify(eventPublisher, times(1)).publishEvent(eventCaptor.capture());
+
+    List<PriceMapOfferExecutionStateChanged> evts = eventCaptor.getAllValues();
+    PriceMapOfferExecutionStateChanged evt1 = evts.get(0);
+    assertThat("Event 1 entity same as persisted", evt1.getOfferEvent(),
+        equalTo(new FacilityPriceMapOfferEvent(offerEvent)));
+    assertThat("Event 1 old state", evt1.getOldState(),
+        equalTo(PriceMapOfferExecutionState.WAITING));
+    assertThat("Event 1 new state", evt1.getNewState(),
+        equalTo(PriceMapOfferExecutionState.EXECUTING));
+
+    // verify only the batch flush task scheduled
+    verify(taskScheduler, times(1)).schedule(any(Runnable.class), any(Instant.class));
+  }
+
   @Test
   public void executeOfferViaQueuedStateDelay() throws Exception {
     // GIVEN
@@ -193,7 +312,7 @@ public class SnPriceMapOfferExecutionServiceTests {
         offerPriceMap);
     facPriceMap.setControlId("/load/1");
     facPriceMap.setNodeId(123L);
-    given(facilityService.getPriceMaps()).willReturn(singleton(facPriceMap));
+    given(facilityService.getPriceMap(facPriceMap.getId())).willReturn(facPriceMap);
 
     final PriceMapOfferEventEntity offerEvent = new PriceMapOfferEventEntity(Instant.now(), offerId,
         Instant.now(), offerPriceMap);
@@ -287,7 +406,7 @@ public class SnPriceMapOfferExecutionServiceTests {
         offerPriceMap);
     facPriceMap.setControlId("/load/1");
     facPriceMap.setNodeId(123L);
-    given(facilityService.getPriceMaps()).willReturn(singleton(facPriceMap));
+    given(facilityService.getPriceMap(facPriceMap.getId())).willReturn(facPriceMap);
 
     final PriceMapOfferEventEntity offerEvent = new PriceMapOfferEventEntity(Instant.now(), offerId,
         Instant.now(), offerPriceMap);
@@ -392,7 +511,7 @@ public class SnPriceMapOfferExecutionServiceTests {
         offerPriceMap);
     facPriceMap.setControlId("/load/1");
     facPriceMap.setNodeId(123L);
-    given(facilityService.getPriceMaps()).willReturn(singleton(facPriceMap));
+    given(facilityService.getPriceMap(facPriceMap.getId())).willReturn(facPriceMap);
 
     final PriceMapOfferEventEntity offerEvent = new PriceMapOfferEventEntity(Instant.now(), offerId,
         Instant.now(), offerPriceMap);
@@ -465,7 +584,7 @@ public class SnPriceMapOfferExecutionServiceTests {
         offerPriceMap);
     facPriceMap.setControlId("/load/1");
     facPriceMap.setNodeId(123L);
-    given(facilityService.getPriceMaps()).willReturn(singleton(facPriceMap));
+    given(facilityService.getPriceMap(facPriceMap.getId())).willReturn(facPriceMap);
 
     final PriceMapOfferEventEntity offerEvent = new PriceMapOfferEventEntity(Instant.now(), offerId,
         Instant.now(), offerPriceMap);
@@ -549,4 +668,159 @@ public class SnPriceMapOfferExecutionServiceTests {
         equalTo(PriceMapOfferExecutionState.COMPLETED));
   }
 
+  @Test
+  public void endOfferViaInstructionStatusTracker() throws Exception {
+    // GIVEN
+    final UUID offerId = UUID.randomUUID();
+    final PriceMapEmbed offerPriceMap = new PriceMapEmbed();
+    offerPriceMap.powerComponents().setRealPower(-1000L); // shed 1kW
+
+    final FacilityPriceMap facPriceMap = new FacilityPriceMap(UUID.randomUUID().toString(),
+        offerPriceMap);
+    facPriceMap.setControlId("/load/1");
+    facPriceMap.setNodeId(123L);
+    given(facilityService.getPriceMap(facPriceMap.getId())).willReturn(facPriceMap);
+
+    final PriceMapOfferEventEntity offerEvent = new PriceMapOfferEventEntity(Instant.now(), offerId,
+        Instant.now(), offerPriceMap);
+    offerEvent.setFacilityPriceMapId(facPriceMap.getId());
+    offerEvent.setExecutionState(PriceMapOfferExecutionState.EXECUTING);
+    given(priceMapOfferDao.findById(offerId)).willReturn(Optional.of(offerEvent));
+
+    // invoke /instr/add API on SolarNetwork, which returns Queued state
+    Resource addResp = new ClassPathResource("instr-add-resp-04.json", getClass());
+    HttpHeaders addRespHeaders = new HttpHeaders();
+    addRespHeaders.setContentLength(addResp.contentLength());
+    MultiValueMap<String, String> addRespExpectedContent = new LinkedMultiValueMap<>(8);
+    addRespExpectedContent.add("topic", "ShedLoad");
+    addRespExpectedContent.add("nodeIds", facPriceMap.getNodeId().toString());
+    addRespExpectedContent.add("parameters[0].name", "/load/1");
+    addRespExpectedContent.add("parameters[0].value", "0");
+    // @formatter:off
+    server.expect(requestTo(startsWith(TEST_BASE_URL + "/solaruser/api/v1/sec/instr/add")))
+        .andExpect(method(HttpMethod.POST))
+        .andExpect(header(HttpHeaders.HOST, "localhost"))
+        .andExpect(header(HttpHeaders.ACCEPT_ENCODING, "gzip,deflate"))
+        .andExpect(header(HttpHeaders.AUTHORIZATION, 
+            startsWith("SNWS2 Credential=" + credProvider.getAuthorizationId() 
+                + ",SignedHeaders=content-type;date;host,Signature=")))
+        .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_FORM_URLENCODED))
+        .andExpect(content().formData(addRespExpectedContent))
+        .andRespond(withSuccess(addResp, APPLICATION_JSON_UTF8).headers(addRespHeaders));
+    // @formatter:on
+
+    given(priceMapOfferDao.save(offerEvent)).willReturn(offerEvent);
+
+    SnInstructionStatusTracker tracker = new SnInstructionStatusTracker(taskScheduler,
+        restTemplate);
+    tracker.setApiBaseUrl(TEST_BASE_URL);
+    tracker.setMinPollMs(1);
+    service.setInstructionStatusTracker(tracker);
+
+    // invoke /instr/view API on SolarNetwork, which returns Completed state
+    Resource viewResp = new ClassPathResource("instr-view-resp-03.json", getClass());
+    HttpHeaders viewRespHeaders = new HttpHeaders();
+    viewRespHeaders.setContentLength(viewResp.contentLength());
+    MultiValueMap<String, String> viewRespExpectedContent = new LinkedMultiValueMap<>(8);
+    viewRespExpectedContent.add("ids", "123456889");
+    // @formatter:off
+    server.expect(requestTo(startsWith(TEST_BASE_URL + "/solaruser/api/v1/sec/instr/view")))
+        .andExpect(method(HttpMethod.GET))
+        .andExpect(header(HttpHeaders.HOST, "localhost"))
+        .andExpect(header(HttpHeaders.ACCEPT_ENCODING, "gzip,deflate"))
+        .andExpect(header(HttpHeaders.AUTHORIZATION, 
+            startsWith("SNWS2 Credential=" + credProvider.getAuthorizationId() 
+                + ",SignedHeaders=date;host,Signature=")))
+        .andRespond(withSuccess(viewResp, APPLICATION_JSON_UTF8).headers(viewRespHeaders));
+    // @formatter:on
+
+    // WHEN
+    CompletableFuture<?> future = service.endPriceMapOfferEvent(offerId,
+        PriceMapOfferExecutionState.COMPLETED);
+
+    // THEN
+    assertThat("Future returned", future, notNullValue());
+
+    assertThat("Instructions tracked", tracker.getTrackedCount(), equalTo(1));
+    verify(taskScheduler, never()).schedule(any(Runnable.class), any(Instant.class));
+
+    // poll the tracker now, so we can wait for future result
+    Thread.sleep(5);
+    tracker.poll();
+
+    Object result = future.get();
+    assertThat("Future result is offer entity", result, sameInstance(offerEvent));
+    assertThat("Offet state completed", offerEvent.getExecutionState(),
+        equalTo(PriceMapOfferExecutionState.COMPLETED));
+
+    // verify state notifications WAITING -> EXECUTING
+    ArgumentCaptor<PriceMapOfferExecutionStateChanged> eventCaptor = ArgumentCaptor
+        .forClass(PriceMapOfferExecutionStateChanged.class);
+    verify(eventPublisher, times(1)).publishEvent(eventCaptor.capture());
+
+    List<PriceMapOfferExecutionStateChanged> evts = eventCaptor.getAllValues();
+    PriceMapOfferExecutionStateChanged evt1 = evts.get(0);
+    assertThat("Event 1 entity same as persisted", evt1.getOfferEvent(),
+        equalTo(new FacilityPriceMapOfferEvent(offerEvent)));
+    assertThat("Event 1 old state", evt1.getOldState(),
+        equalTo(PriceMapOfferExecutionState.EXECUTING));
+    assertThat("Event 1 new state", evt1.getNewState(),
+        equalTo(PriceMapOfferExecutionState.COMPLETED));
+  }
+
+  @Test
+  public void endOfferViaInstructionStatusTrackerError() throws Exception {
+    // GIVEN
+    final UUID offerId = UUID.randomUUID();
+    final PriceMapEmbed offerPriceMap = new PriceMapEmbed();
+    offerPriceMap.powerComponents().setRealPower(-1000L); // shed 1kW
+
+    final FacilityPriceMap facPriceMap = new FacilityPriceMap(UUID.randomUUID().toString(),
+        offerPriceMap);
+    facPriceMap.setControlId("/load/1");
+    facPriceMap.setNodeId(123L);
+    given(facilityService.getPriceMap(facPriceMap.getId())).willReturn(facPriceMap);
+
+    final PriceMapOfferEventEntity offerEvent = new PriceMapOfferEventEntity(Instant.now(), offerId,
+        Instant.now(), offerPriceMap);
+    offerEvent.setFacilityPriceMapId(facPriceMap.getId());
+    offerEvent.setExecutionState(PriceMapOfferExecutionState.EXECUTING);
+    given(priceMapOfferDao.findById(offerId)).willReturn(Optional.of(offerEvent));
+
+    // invoke /instr/add API on SolarNetwork, which returns Queued state
+    Resource addResp = new ClassPathResource("instr-add-resp-04.json", getClass());
+    HttpHeaders addRespHeaders = new HttpHeaders();
+    addRespHeaders.setContentLength(addResp.contentLength());
+    server.expect(requestTo(startsWith(TEST_BASE_URL + "/solaruser/api/v1/sec/instr/add")))
+        .andExpect(method(HttpMethod.POST))
+        .andRespond(withSuccess(addResp, APPLICATION_JSON_UTF8).headers(addRespHeaders));
+
+    given(priceMapOfferDao.save(offerEvent)).willReturn(offerEvent);
+
+    // the tracker fails to view the instruction status
+    SnInstructionStatusTracker tracker = mock(SnInstructionStatusTracker.class);
+    CompletableFuture<JsonNode> trackResult = new CompletableFuture<>();
+    trackResult.completeExceptionally(new RestClientException("Boom"));
+    given(tracker.track(any())).willReturn(trackResult);
+    service.setInstructionStatusTracker(tracker);
+
+    // WHEN
+    CompletableFuture<?> future = service.endPriceMapOfferEvent(offerId,
+        PriceMapOfferExecutionState.COMPLETED);
+
+    // THEN
+    Object result = future.get();
+    assertThat("Future result is aborted offer entity", result, sameInstance(offerEvent));
+    assertThat("Offer state aborted", offerEvent.getExecutionState(),
+        equalTo(PriceMapOfferExecutionState.ABORTED));
+    assertThat("Offer message", offerEvent.getMessage(),
+        startsWith("Error checking instruction status: "));
+
+    ArgumentCaptor<PriceMapOfferExecutionStateChanged> eventCaptor = ArgumentCaptor
+        .forClass(PriceMapOfferExecutionStateChanged.class);
+    verify(eventPublisher, times(1)).publishEvent(eventCaptor.capture());
+    assertThat("Event new state", eventCaptor.getValue().getNewState(),
+        equalTo(PriceMapOfferExecutionState.ABORTED));
+  }
+
 }
@@ -0,0 +1,132 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package net.solarnetwork.esi.solarnet.fac.impl.test;
+
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.solarnetwork.esi.solarnet.fac.impl.WebUtils;
+import net.solarnetwork.web.support.StaticAuthorizationCredentialsProvider;
+
+/**
+ * Test cases for the {@link WebUtils} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class WebUtilsTests {
+
+  private HttpServer server;
+  private List<InetSocketAddress> clientAddresses;
+  private List<String> authorizations;
+  private PoolingHttpClientConnectionManager connectionManager;
+  private HttpComponentsClientHttpRequestFactory requestFactory;
+
+  @Before
+  public void setup() throws IOException {
+    clientAddresses = Collections.synchronizedList(new ArrayList<>());
+    authorizations = Collections.synchronizedList(new ArrayList<>());
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", exchange -> {
+      clientAddresses.add(exchange.getRemoteAddress());
+      authorizations.add(exchange.getRequestHeaders().getFirst(HttpHeaders.AUTHORIZATION));
+      byte[] body = "{\"success\":true}".getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add(HttpHeaders.CONTENT_TYPE, "application/json");
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.start();
+    connectionManager = WebUtils.pooledConnectionManager(4, 2);
+    requestFactory = WebUtils.pooledRequestFactory(connectionManager, 1000, 1000, 5000);
+  }
+
+  @After
+  public void teardown() throws Exception {
+    requestFactory.destroy();
+    server.stop(0);
+  }
+
+  private String url() {
+    return "http://localhost:" + server.getAddress().getPort() + "/test";
+  }
+
+  @Test
+  public void pooledConnectionReused() {
+    // given
+    RestTemplate client = WebUtils.setupSolarNetworkClient(new RestTemplate(requestFactory),
+        new StaticAuthorizationCredentialsProvider(randomUUID().toString(),
+            randomUUID().toString()));
+
+    // when
+    for (int i = 0; i < 3; i++) {
+      client.getForObject(url(), String.class);
+    }
+
+    // then
+    assertThat("Requests received", clientAddresses.size(), equalTo(3));
+    assertThat("Same connection used", clientAddresses.get(2), equalTo(clientAddresses.get(0)));
+    assertThat("Request signed", authorizations.get(2), startsWith("SNWS2 "));
+    assertThat("Connection kept alive", connectionManager.getTotalStats().getAvailable(),
+        equalTo(1));
+    assertThat("No connection leased", connectionManager.getTotalStats().getLeased(),
+        equalTo(0));
+  }
+
+  @Test
+  public void poolMetrics() {
+    // given
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    WebUtils.registerPoolMetrics(connectionManager, registry);
+    RestTemplate client = new RestTemplate(requestFactory);
+
+    // when
+    client.getForObject(url(), String.class);
+
+    // then
+    assertThat("Max gauge", registry.get(WebUtils.METRIC_PREFIX + ".max").gauge().value(),
+        equalTo(4.0));
+    assertThat("Available gauge",
+        registry.get(WebUtils.METRIC_PREFIX + ".available").gauge().value(), equalTo(1.0));
+    assertThat("Leased gauge", registry.get(WebUtils.METRIC_PREFIX + ".leased").gauge().value(),
+        equalTo(0.0));
+  }
+
+}
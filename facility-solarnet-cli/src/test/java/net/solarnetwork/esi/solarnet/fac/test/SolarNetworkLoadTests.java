@@ -0,0 +1,368 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.solarnet.fac.test;
+
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.isOneOf;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.client.RestTemplate;
+
+import net.solarnetwork.esi.domain.jpa.PriceMapEmbed;
+import net.solarnetwork.esi.solarnet.fac.dao.PriceMapOfferEventEntityDao;
+import net.solarnetwork.esi.solarnet.fac.dao.impl.SnFacilityResourceDao;
+import net.solarnetwork.esi.solarnet.fac.domain.FacilityPriceMap;
+import net.solarnetwork.esi.solarnet.fac.domain.FacilityResourceCharacteristics;
+import net.solarnetwork.esi.solarnet.fac.domain.PriceMapOfferEventEntity;
+import net.solarnetwork.esi.solarnet.fac.domain.PriceMapOfferExecutionState;
+import net.solarnetwork.esi.solarnet.fac.impl.SnInstructionStatusTracker;
+import net.solarnetwork.esi.solarnet.fac.impl.SnPriceMapOfferExecutionService;
+import net.solarnetwork.esi.solarnet.fac.impl.WebUtils;
+import net.solarnetwork.esi.solarnet.fac.service.FacilityService;
+import net.solarnetwork.web.support.StaticAuthorizationCredentialsProvider;
+
+/**
+ * Load tests for the SolarNetwork clients, run against a {@link SolarNetworkSimulator}.
+ * 
+ * <p>
+ * The scale defaults to something that runs quickly as part of the normal build. Larger runs can
+ * be made by setting the {@literal esi.load.nodes}, {@literal esi.load.offers},
+ * {@literal esi.load.threads} and {@literal esi.load.latencyMs} system properties.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class SolarNetworkLoadTests {
+
+  private static final int NODE_COUNT = Integer.getInteger("esi.load.nodes", 2000);
+  private static final int OFFER_COUNT = Integer.getInteger("esi.load.offers", 200);
+  private static final int THREAD_COUNT = Integer.getInteger("esi.load.threads", 8);
+  private static final long LATENCY_MS = Long.getLong("esi.load.latencyMs", 2L);
+  private static final long TIMEOUT_SECONDS = 60L;
+
+  private static final Logger log = LoggerFactory.getLogger(SolarNetworkLoadTests.class);
+
+  private SolarNetworkSimulator sim;
+  private PoolingHttpClientConnectionManager connectionManager;
+  private RestTemplate restTemplate;
+  private ThreadPoolTaskScheduler taskScheduler;
+  private SnInstructionStatusTracker tracker;
+
+  @Before
+  public void setup() throws Exception {
+    sim = new SolarNetworkSimulator();
+    sim.setThreads(THREAD_COUNT * 2);
+    sim.setLatencyMs(LATENCY_MS);
+    sim.setLatencyJitterMs(LATENCY_MS);
+    sim.start();
+
+    connectionManager = WebUtils.pooledConnectionManager(THREAD_COUNT * 2, THREAD_COUNT * 2);
+    restTemplate = WebUtils.setupSolarNetworkClient(
+        new RestTemplate(WebUtils.pooledRequestFactory(connectionManager, 1000, 10000, 5000)),
+        new StaticAuthorizationCredentialsProvider(randomUUID().toString(),
+            randomUUID().toString()));
+
+    taskScheduler = new ThreadPoolTaskScheduler();
+    taskScheduler.setPoolSize(THREAD_COUNT);
+    taskScheduler.initialize();
+  }
+
+  /**
+   * Stop the tracker, scheduler, connection pool, and simulator.
+   */
+  @After
+  public void teardown() {
+    if (tracker != null) {
+      tracker.shutdown();
+    }
+    taskScheduler.shutdown();
+    connectionManager.shutdown();
+    sim.stop();
+  }
+
+  private static Map<String, Object> resourceProperties(long loadPowerMax) {
+    Map<String, Object> characteristics = new ConcurrentHashMap<>(4);
+    characteristics.put("loadPowerMax", loadPowerMax);
+    characteristics.put("loadPowerFactor", 0.8);
+    return Collections.singletonMap("characteristics", characteristics);
+  }
+
+  private static String resourceId(long nodeId) {
+    return "rsrc-" + nodeId;
+  }
+
+  private SnFacilityResourceDao populatedResourceDao() {
+    for (long nodeId = 1; nodeId <= NODE_COUNT; nodeId++) {
+      sim.putNodeMetadata(nodeId, SnFacilityResourceDao.RESOURCE_METADATA_ROOT_KEY,
+          resourceId(nodeId), resourceProperties(nodeId));
+    }
+    SnFacilityResourceDao dao = new SnFacilityResourceDao(restTemplate);
+    dao.setApiBaseUrl(sim.getBaseUrl());
+    return dao;
+  }
+
+  @Test
+  public void metadataFullLoad() {
+    // given
+    SnFacilityResourceDao dao = populatedResourceDao();
+
+    // when
+    long start = System.currentTimeMillis();
+    int count = 0;
+    for (FacilityResourceCharacteristics entity : dao.findAll()) {
+      assertThat("Resource node", entity.getNodeId(), greaterThan(0L));
+      count++;
+    }
+    log.info("Loaded {} resources from {} nodes in {}ms", count, NODE_COUNT,
+        System.currentTimeMillis() - start);
+
+    // then
+    assertThat("All resources loaded", count, equalTo(NODE_COUNT));
+    assertThat("Single metadata query", sim.getMetadataRequestCount(), equalTo(1L));
+  }
+
+  @Test
+  public void metadataConcurrentLookups() throws Exception {
+    // given
+    SnFacilityResourceDao dao = populatedResourceDao();
+    dao.findAll();
+    dao.invalidate();
+    final int lookups = Math.min(OFFER_COUNT, NODE_COUNT);
+    final AtomicInteger found = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+
+    // when
+    long start = System.currentTimeMillis();
+    try {
+      List<Future<?>> futures = new ArrayList<>(lookups);
+      for (int i = 0; i < lookups; i++) {
+        final long nodeId = ThreadLocalRandom.current().nextLong(NODE_COUNT) + 1;
+        futures.add(executor.submit(() -> {
+          Optional<FacilityResourceCharacteristics> entity = dao.findById(resourceId(nodeId));
+          if (entity.isPresent() && nodeId == entity.get().getNodeId()) {
+            found.incrementAndGet();
+          }
+        }));
+      }
+      for (Future<?> f : futures) {
+        f.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    log.info("Looked up {} resources from {} nodes on {} threads in {}ms", lookups, NODE_COUNT,
+        THREAD_COUNT, System.currentTimeMillis() - start);
+
+    // then
+    assertThat("All resources found", found.get(), equalTo(lookups));
+    assertThat("Node-scoped metadata queries", sim.getMetadataRequestCount(),
+        equalTo(1L + lookups));
+  }
+
+  private final class OfferFixture {
+
+    private final FacilityService facilityService = mock(FacilityService.class);
+    private final PriceMapOfferEventEntityDao offerDao = mock(PriceMapOfferEventEntityDao.class);
+    private final ConcurrentMap<String, FacilityPriceMap> priceMaps = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, PriceMapOfferEventEntity> offers = new ConcurrentHashMap<>();
+    private final SnPriceMapOfferExecutionService service;
+
+    private OfferFixture() {
+      given(facilityService.getPriceMap(anyString()))
+          .willAnswer(invocation -> priceMaps.get(invocation.getArgument(0)));
+      given(offerDao.findById(any()))
+          .willAnswer(invocation -> Optional.ofNullable(offers.get(invocation.getArgument(0))));
+      given(offerDao.save(any()))
+          .willAnswer(TestUtils.invocationArg(0, PriceMapOfferEventEntity.class));
+
+      tracker = new SnInstructionStatusTracker(taskScheduler, restTemplate);
+      tracker.setApiBaseUrl(sim.getBaseUrl());
+      tracker.setMinPollMs(20);
+      tracker.setMaxPollMs(200);
+      tracker.setMaxRequestsPerSecond(100);
+      tracker.startup();
+
+      service = new SnPriceMapOfferExecutionService(taskScheduler, facilityService, offerDao,
+          restTemplate);
+      service.setApiBaseUrl(sim.getBaseUrl());
+      service.setInstructionStatusTracker(tracker);
+      service.setInstructionBatchWindowMs(20);
+    }
+
+    private UUID createOffer(long nodeId) {
+      PriceMapEmbed priceMap = new PriceMapEmbed();
+      priceMap.powerComponents().setRealPower(-1000L);
+      FacilityPriceMap facPriceMap = new FacilityPriceMap(randomUUID().toString(), priceMap);
+      facPriceMap.setNodeId(nodeId);
+      facPriceMap.setControlId("/load/1");
+      priceMaps.put(facPriceMap.getId(), facPriceMap);
+
+      UUID offerId = randomUUID();
+      PriceMapOfferEventEntity offer = new PriceMapOfferEventEntity(Instant.now(), offerId,
+          Instant.now(), priceMap);
+      offer.setFacilityPriceMapId(facPriceMap.getId());
+      offer.setExecutionState(PriceMapOfferExecutionState.WAITING);
+      offers.put(offerId, offer);
+      return offerId;
+    }
+
+    private List<UUID> createOffers(int count) {
+      List<UUID> offerIds = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        offerIds.add(createOffer((i % NODE_COUNT) + 1));
+      }
+      return offerIds;
+    }
+
+    private List<PriceMapOfferEventEntity> executeOffers(List<UUID> offerIds) throws Exception {
+      long start = System.currentTimeMillis();
+      List<CompletableFuture<?>> futures = new ArrayList<>(offerIds.size());
+      for (UUID offerId : offerIds) {
+        futures.add(service.executePriceMapOfferEvent(offerId));
+      }
+      return await("Executed", offerIds, futures, start);
+    }
+
+    private List<PriceMapOfferEventEntity> endOffers(List<UUID> offerIds) throws Exception {
+      long start = System.currentTimeMillis();
+      List<CompletableFuture<?>> futures = new ArrayList<>(offerIds.size());
+      for (UUID offerId : offerIds) {
+        if (offers.get(offerId).getExecutionState() == PriceMapOfferExecutionState.EXECUTING) {
+          futures.add(service.endPriceMapOfferEvent(offerId,
+              PriceMapOfferExecutionState.COMPLETED));
+        }
+      }
+      return await("Ended", offerIds, futures, start);
+    }
+
+    private List<PriceMapOfferEventEntity> await(String action, List<UUID> offerIds,
+        List<CompletableFuture<?>> futures, long start) throws Exception {
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+          .handle((r, t) -> null).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      log.info("{} {} offers; {} add and {} view requests so far; took {}ms", action,
+          futures.size(), sim.getInstructionAddRequestCount(),
+          sim.getInstructionViewRequestCount(), System.currentTimeMillis() - start);
+      List<PriceMapOfferEventEntity> result = new ArrayList<>(offerIds.size());
+      for (UUID offerId : offerIds) {
+        result.add(offers.get(offerId));
+      }
+      return result;
+    }
+
+  }
+
+  @Test
+  public void offerExecution() throws Exception {
+    // given
+    sim.setInstructionReceivedMs(20);
+    sim.setInstructionCompletedMs(50);
+    OfferFixture fixture = new OfferFixture();
+    List<UUID> offerIds = fixture.createOffers(OFFER_COUNT);
+
+    // when
+    List<PriceMapOfferEventEntity> executed = fixture.executeOffers(offerIds);
+    for (PriceMapOfferEventEntity offer : executed) {
+      assertThat("Offer executing", offer.getExecutionState(),
+          equalTo(PriceMapOfferExecutionState.EXECUTING));
+    }
+    List<PriceMapOfferEventEntity> ended = fixture.endOffers(offerIds);
+
+    // then
+    for (PriceMapOfferEventEntity offer : ended) {
+      assertThat("Offer completed", offer.getExecutionState(),
+          equalTo(PriceMapOfferExecutionState.COMPLETED));
+    }
+    assertThat("Instructions enqueued", sim.getInstructionCount(), equalTo(OFFER_COUNT * 2));
+    assertThat("Instructions batched", sim.getInstructionAddRequestCount(),
+        lessThan((long) OFFER_COUNT));
+    assertThat("Statuses batched", sim.getInstructionViewRequestCount(),
+        lessThan((long) OFFER_COUNT));
+  }
+
+  @Test
+  public void offerExecutionDeclined() throws Exception {
+    // given
+    sim.setInstructionCompletedMs(20);
+    sim.setInstructionDeclineRate(1.0);
+    OfferFixture fixture = new OfferFixture();
+
+    // when
+    List<PriceMapOfferEventEntity> offers = fixture
+        .executeOffers(fixture.createOffers(OFFER_COUNT));
+
+    // then
+    for (PriceMapOfferEventEntity offer : offers) {
+      assertThat("Offer aborted", offer.getExecutionState(),
+          equalTo(PriceMapOfferExecutionState.ABORTED));
+    }
+  }
+
+  @Test
+  public void offerExecutionWithErrors() throws Exception {
+    // given
+    sim.setInstructionCompletedMs(20);
+    sim.setErrorInterval(5);
+    OfferFixture fixture = new OfferFixture();
+    List<UUID> offerIds = fixture.createOffers(OFFER_COUNT);
+
+    // when
+    fixture.executeOffers(offerIds);
+    List<PriceMapOfferEventEntity> offers = fixture.endOffers(offerIds);
+
+    // then
+    for (PriceMapOfferEventEntity offer : offers) {
+      assertThat("Offer finished", offer.getExecutionState(), isOneOf(
+          PriceMapOfferExecutionState.COMPLETED, PriceMapOfferExecutionState.ABORTED));
+    }
+    assertThat("Errors injected", sim.getErrorCount(), greaterThan(0L));
+  }
+
+}
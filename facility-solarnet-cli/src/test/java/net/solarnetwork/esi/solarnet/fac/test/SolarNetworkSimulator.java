@@ -0,0 +1,828 @@
+/* ========================================================================
+ * Copyright 2019 SolarNetwork Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+
+package net.solarnetwork.esi.solarnet.fac.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.http.HttpHeaders;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embeddable stand-in for the parts of the SolarNetwork API used by the facility.
+ * 
+ * <p>
+ * The simulator serves the {@literal /solarquery/api/v1/sec/nodes/meta},
+ * {@literal /solarquery/api/v1/sec/datum/list}, {@literal /solarquery/api/v1/sec/datum/mostRecent},
+ * {@literal /solaruser/api/v1/sec/instr/add} and {@literal /solaruser/api/v1/sec/instr/view}
+ * endpoints from memory, so DAOs and services can be exercised against real HTTP without access to
+ * SolarNetwork. Use is like this:
+ * </p>
+ * 
+ * <pre>
+ * <code>
+ * SolarNetworkSimulator sim = new SolarNetworkSimulator();
+ * sim.putNodeMetadata(123L, "esi-resource", "rsrc1", properties);
+ * sim.start();
+ * dao.setApiBaseUrl(sim.getBaseUrl());
+ * ...
+ * sim.stop();
+ * </code>
+ * </pre>
+ * 
+ * <p>
+ * Every response can be delayed by {@code latencyMs} plus a random {@code latencyJitterMs}, and
+ * every {@code errorInterval}th authorized request fails with a HTTP 500 response. Enqueued
+ * instructions start in the {@literal Queued} state, move to {@literal Received} after
+ * {@code instructionReceivedMs} and then to {@literal Completed} after
+ * {@code instructionCompletedMs}, except for {@code instructionDeclineRate} of them that are
+ * {@literal Declined} instead. Requests without a SolarNetwork {@literal Authorization} header
+ * are denied with a HTTP 401 response.
+ * </p>
+ * 
+ * <p>
+ * Datum are generated on the fly rather than stored: every requested node and source has a datum
+ * at the start of every aggregation period, or every {@code datumIntervalMs} for raw datum, with
+ * power values given by {@link #datumWatts(long, String, long)}. Raw and most recent datum of the
+ * second and later sources of each date are offset by {@code sourceSkewMs} from the previous one.
+ * Datum of the same date are listed in node and source order only when the request sorts by
+ * {@literal created}, {@literal node} and {@literal source}; otherwise their order depends on the
+ * requested offset, as a database gives no stable order for rows that tie on every sort key.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class SolarNetworkSimulator {
+
+  /** The node metadata query path. */
+  public static final String NODE_METADATA_PATH = "/solarquery/api/v1/sec/nodes/meta";
+
+  /** The datum list query path. */
+  public static final String DATUM_LIST_PATH = "/solarquery/api/v1/sec/datum/list";
+
+  /** The most recent datum query path. */
+  public static final String DATUM_MOST_RECENT_PATH = "/solarquery/api/v1/sec/datum/mostRecent";
+
+  /** The source ID of datum generated when no source IDs are requested. */
+  public static final String DEFAULT_DATUM_SOURCE_ID = "/meter/1";
+
+  /** The instruction enqueue path. */
+  public static final String INSTRUCTION_ADD_PATH = "/solaruser/api/v1/sec/instr/add";
+
+  /** The instruction view path. */
+  public static final String INSTRUCTION_VIEW_PATH = "/solaruser/api/v1/sec/instr/view";
+
+  /** The default number of HTTP request threads. */
+  public static final int DEFAULT_THREADS = 16;
+
+  private static final Pattern METADATA_FILTER = Pattern
+      .compile("\\(/pm/([^/]+)(?:/([^/]+))?/\\*~=\\.\\*\\)");
+
+  private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter
+      .ofPattern("yyyy-MM-dd HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private static final Map<String, Long> AGGREGATION_MS = aggregations();
+
+  private final ConcurrentMap<Long, Map<String, Map<String, Object>>> nodeMetadata;
+  private final ConcurrentMap<Long, Instruction> instructions;
+  private final AtomicLong instructionIds = new AtomicLong(1000000L);
+  private final AtomicLong metadataRequestCount = new AtomicLong();
+  private final AtomicLong datumRequestCount = new AtomicLong();
+  private final AtomicLong instructionAddRequestCount = new AtomicLong();
+  private final AtomicLong instructionViewRequestCount = new AtomicLong();
+  private final AtomicLong authorizedRequestCount = new AtomicLong();
+  private final AtomicLong errorCount = new AtomicLong();
+
+  private int threads = DEFAULT_THREADS;
+  private long latencyMs;
+  private long latencyJitterMs;
+  private int errorInterval;
+  private long instructionReceivedMs;
+  private long instructionCompletedMs;
+  private double instructionDeclineRate;
+  private long datumIntervalMs = 60000L;
+  private long sourceSkewMs;
+
+  private HttpServer server;
+  private ExecutorService executor;
+
+  private static final class Instruction {
+
+    private final long id;
+    private final Long nodeId;
+    private final String topic;
+    private final Map<String, String> parameters;
+    private final long created;
+    private final boolean declined;
+
+    private Instruction(long id, Long nodeId, String topic, Map<String, String> parameters,
+        long created, boolean declined) {
+      super();
+      this.id = id;
+      this.nodeId = nodeId;
+      this.topic = topic;
+      this.parameters = parameters;
+      this.created = created;
+      this.declined = declined;
+    }
+
+  }
+
+  /**
+   * Constructor.
+   */
+  public SolarNetworkSimulator() {
+    super();
+    this.nodeMetadata = new ConcurrentSkipListMap<>();
+    this.instructions = new ConcurrentHashMap<>(64);
+  }
+
+  /**
+   * Start serving requests on a random local port.
+   * 
+   * @throws IOException
+   *         if the server cannot be started
+   */
+  public synchronized void start() throws IOException {
+    if (server != null) {
+      return;
+    }
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext(NODE_METADATA_PATH, handler(metadataRequestCount, this::nodeMetadata));
+    server.createContext(DATUM_LIST_PATH, handler(datumRequestCount, this::listDatum));
+    server.createContext(DATUM_MOST_RECENT_PATH,
+        handler(datumRequestCount, this::mostRecentDatum));
+    server.createContext(INSTRUCTION_ADD_PATH,
+        handler(instructionAddRequestCount, this::addInstruction));
+    server.createContext(INSTRUCTION_VIEW_PATH,
+        handler(instructionViewRequestCount, this::viewInstructions));
+    executor = Executors.newFixedThreadPool(threads);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /**
+   * Stop serving requests.
+   */
+  public synchronized void stop() {
+    if (server == null) {
+      return;
+    }
+    server.stop(0);
+    server = null;
+    executor.shutdownNow();
+    executor = null;
+  }
+
+  /**
+   * Get the base URL to configure SolarNetwork clients with.
+   * 
+   * @return the base URL
+   * @throws IllegalStateException
+   *         if the simulator has not been started
+   */
+  public synchronized String getBaseUrl() {
+    if (server == null) {
+      throw new IllegalStateException("The simulator has not been started.");
+    }
+    return "http://localhost:" + server.getAddress().getPort();
+  }
+
+  /**
+   * Add or replace an entity in a node's metadata.
+   * 
+   * <p>
+   * The entity is stored at the {@literal /pm/rootKey/id} metadata path.
+   * </p>
+   * 
+   * @param nodeId
+   *        the ID of the node
+   * @param rootKey
+   *        the metadata root key, for example {@literal esi-resource}
+   * @param id
+   *        the entity ID
+   * @param properties
+   *        the entity properties
+   */
+  public void putNodeMetadata(Long nodeId, String rootKey, String id,
+      Map<String, ?> properties) {
+    nodeMetadata.computeIfAbsent(nodeId, k -> new ConcurrentSkipListMap<>())
+        .computeIfAbsent(rootKey, k -> new ConcurrentSkipListMap<>())
+        .put(id, new LinkedHashMap<>(properties));
+  }
+
+  /**
+   * Remove an entity from a node's metadata.
+   * 
+   * @param nodeId
+   *        the ID of the node
+   * @param rootKey
+   *        the metadata root key
+   * @param id
+   *        the entity ID
+   */
+  public void removeNodeMetadata(Long nodeId, String rootKey, String id) {
+    Map<String, Map<String, Object>> pm = nodeMetadata.get(nodeId);
+    Map<String, Object> entities = (pm != null ? pm.get(rootKey) : null);
+    if (entities != null) {
+      entities.remove(id);
+    }
+  }
+
+  /**
+   * Get the state of an enqueued instruction.
+   * 
+   * @param instructionId
+   *        the instruction ID
+   * @return the current state, or {@literal null} if the instruction is not known
+   */
+  public String getInstructionState(Long instructionId) {
+    Instruction instr = instructions.get(instructionId);
+    return (instr != null ? state(instr, System.currentTimeMillis()) : null);
+  }
+
+  private HttpHandler handler(AtomicLong counter, HttpHandler delegate) {
+    return exchange -> {
+      try {
+        counter.incrementAndGet();
+        delay();
+        String auth = exchange.getRequestHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+        if (auth == null || !auth.startsWith("SNWS2 ")) {
+          respond(exchange, 401, error("Access denied."));
+        } else if (errorInterval > 0
+            && authorizedRequestCount.incrementAndGet() % errorInterval == 0) {
+          errorCount.incrementAndGet();
+          respond(exchange, 500, error("Simulated error."));
+        } else {
+          delegate.handle(exchange);
+        }
+      } catch (RuntimeException e) {
+        respond(exchange, 500, error(e.toString()));
+      } finally {
+        exchange.close();
+      }
+    };
+  }
+
+  private void delay() {
+    long ms = latencyMs;
+    if (latencyJitterMs > 0) {
+      ms += ThreadLocalRandom.current().nextLong(latencyJitterMs + 1);
+    }
+    if (ms > 0) {
+      try {
+        TimeUnit.MILLISECONDS.sleep(ms);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void nodeMetadata(HttpExchange exchange) throws IOException {
+    Map<String, String> params = parseParameters(exchange.getRequestURI().getRawQuery());
+    Set<Long> nodeIds = parseIds(params.get("nodeIds"));
+    String rootKey = null;
+    String entityId = null;
+    String filter = params.get("metadataFilter");
+    if (filter != null) {
+      Matcher m = METADATA_FILTER.matcher(filter);
+      if (!m.matches()) {
+        respond(exchange, 422, error("Unsupported metadata filter: " + filter));
+        return;
+      }
+      rootKey = m.group(1);
+      entityId = m.group(2);
+    }
+
+    // stream the results, as there can be thousands of nodes
+    exchange.getResponseHeaders().add(HttpHeaders.CONTENT_TYPE, "application/json;charset=UTF-8");
+    exchange.sendResponseHeaders(200, 0);
+    try (JsonGenerator gen = OBJECT_MAPPER.getFactory()
+        .createGenerator(exchange.getResponseBody(), JsonEncoding.UTF8)) {
+      gen.writeStartObject();
+      gen.writeBooleanField("success", true);
+      gen.writeObjectFieldStart("data");
+      gen.writeArrayFieldStart("results");
+      for (Map.Entry<Long, Map<String, Map<String, Object>>> me : nodeMetadata.entrySet()) {
+        if (!nodeIds.isEmpty() && !nodeIds.contains(me.getKey())) {
+          continue;
+        }
+        Map<String, Map<String, Object>> pm = filter(me.getValue(), rootKey, entityId);
+        if (pm.isEmpty()) {
+          continue;
+        }
+        gen.writeStartObject();
+        gen.writeNumberField("nodeId", me.getKey());
+        gen.writeObjectField("pm", pm);
+        gen.writeEndObject();
+      }
+      gen.writeEndArray();
+      gen.writeEndObject();
+      gen.writeEndObject();
+    }
+  }
+
+  private static Map<String, Map<String, Object>> filter(Map<String, Map<String, Object>> pm,
+      String rootKey, String entityId) {
+    if (rootKey == null) {
+      return pm;
+    }
+    Map<String, Object> entities = pm.get(rootKey);
+    if (entities == null || entities.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    if (entityId != null) {
+      Object entity = entities.get(entityId);
+      if (entity == null) {
+        return Collections.emptyMap();
+      }
+      entities = Collections.singletonMap(entityId, entity);
+    }
+    return Collections.singletonMap(rootKey, entities);
+  }
+
+  private static Map<String, Long> aggregations() {
+    Map<String, Long> result = new LinkedHashMap<>(8);
+    result.put("Minute", 60000L);
+    result.put("FiveMinute", 300000L);
+    result.put("TenMinute", 600000L);
+    result.put("FifteenMinute", 900000L);
+    result.put("ThirtyMinute", 1800000L);
+    result.put("Hour", 3600000L);
+    return result;
+  }
+
+  /**
+   * Get the real power of a generated datum.
+   * 
+   * <p>
+   * The reactive power of a generated datum is always one tenth of its real power.
+   * </p>
+   * 
+   * @param nodeId
+   *        the node ID
+   * @param sourceId
+   *        the source ID
+   * @param date
+   *        the datum date, in milliseconds since the epoch
+   * @return the real power, in watts
+   */
+  public static double datumWatts(long nodeId, String sourceId, long date) {
+    return nodeId * 1000 + Math.abs(sourceId.hashCode() % 100)
+        + Math.floorMod(date / 60000L, 60L);
+  }
+
+  private void listDatum(HttpExchange exchange) throws IOException {
+    Map<String, String> params = parseParameters(exchange.getRequestURI().getRawQuery());
+    List<Long> nodeIds = new ArrayList<>(parseIds(params.get("nodeIds")));
+    List<String> sourceIds = parseSourceIds(params.get("sourceIds"));
+    String agg = params.get("aggregation");
+    Long step = (agg != null ? AGGREGATION_MS.get(agg) : Long.valueOf(datumIntervalMs));
+    final long skew = (agg != null ? 0L : sourceSkewMs);
+    if (nodeIds.isEmpty() || step == null || !params.containsKey("startDate")
+        || !params.containsKey("endDate")) {
+      respond(exchange, 422,
+          error("The nodeIds, startDate, endDate, and a supported aggregation are required."));
+      return;
+    }
+    final long start = Math.floorDiv(Instant.parse(params.get("startDate")).toEpochMilli(), step)
+        * step;
+    final long end = Instant.parse(params.get("endDate")).toEpochMilli();
+    final long offset = (params.containsKey("offset") ? Long.parseLong(params.get("offset")) : 0);
+    final long max = (params.containsKey("max") ? Long.parseLong(params.get("max")) : 1000);
+    final int perDate = nodeIds.size() * sourceIds.size();
+    final boolean stable = "node".equals(params.get("sorts[1].sortKey"))
+        && "source".equals(params.get("sorts[2].sortKey"));
+    final long shift = (stable ? 0L : offset);
+
+    // stream the results, as there can be thousands of datum
+    exchange.getResponseHeaders().add(HttpHeaders.CONTENT_TYPE, "application/json;charset=UTF-8");
+    exchange.sendResponseHeaders(200, 0);
+    try (JsonGenerator gen = OBJECT_MAPPER.getFactory()
+        .createGenerator(exchange.getResponseBody(), JsonEncoding.UTF8)) {
+      gen.writeStartObject();
+      gen.writeBooleanField("success", true);
+      gen.writeObjectFieldStart("data");
+      gen.writeNumberField("startingOffset", offset);
+      gen.writeArrayFieldStart("results");
+      for (long i = offset, count = 0; count < max; i++, count++) {
+        final long date = start + (i / perDate) * step;
+        if (date >= end) {
+          break;
+        }
+        final int idx = (int) ((i + shift) % perDate);
+        writeDatum(gen, nodeIds.get(idx / sourceIds.size()),
+            sourceIds.get(idx % sourceIds.size()), date + idx * skew);
+      }
+      gen.writeEndArray();
+      gen.writeEndObject();
+      gen.writeEndObject();
+    }
+  }
+
+  private void mostRecentDatum(HttpExchange exchange) throws IOException {
+    Map<String, String> params = parseParameters(exchange.getRequestURI().getRawQuery());
+    Set<Long> nodeIds = parseIds(params.get("nodeIds"));
+    List<String> sourceIds = parseSourceIds(params.get("sourceIds"));
+    if (nodeIds.isEmpty()) {
+      respond(exchange, 422, error("The nodeIds parameter is required."));
+      return;
+    }
+    final long date = Math.floorDiv(System.currentTimeMillis(), datumIntervalMs)
+        * datumIntervalMs;
+    exchange.getResponseHeaders().add(HttpHeaders.CONTENT_TYPE, "application/json;charset=UTF-8");
+    exchange.sendResponseHeaders(200, 0);
+    try (JsonGenerator gen = OBJECT_MAPPER.getFactory()
+        .createGenerator(exchange.getResponseBody(), JsonEncoding.UTF8)) {
+      gen.writeStartObject();
+      gen.writeBooleanField("success", true);
+      gen.writeObjectFieldStart("data");
+      gen.writeArrayFieldStart("results");
+      long skew = 0;
+      for (Long nodeId : nodeIds) {
+        for (String sourceId : sourceIds) {
+          writeDatum(gen, nodeId, sourceId, date + skew);
+          skew += sourceSkewMs;
+        }
+      }
+      gen.writeEndArray();
+      gen.writeEndObject();
+      gen.writeEndObject();
+    }
+  }
+
+  private static void writeDatum(JsonGenerator gen, Long nodeId, String sourceId, long date)
+      throws IOException {
+    final double watts = datumWatts(nodeId, sourceId, date);
+    gen.writeStartObject();
+    gen.writeStringField("created", DATE_FORMAT.format(Instant.ofEpochMilli(date)));
+    gen.writeNumberField("nodeId", nodeId);
+    gen.writeStringField("sourceId", sourceId);
+    gen.writeStringField("localDate", "2019-01-01");
+    gen.writeNumberField("watts", watts);
+    gen.writeNumberField("reactivePower", watts / 10);
+    gen.writeArrayFieldStart("tags");
+    gen.writeString("power");
+    gen.writeEndArray();
+    gen.writeEndObject();
+  }
+
+  private static List<String> parseSourceIds(String sourceIds) {
+    List<String> result = new ArrayList<>(4);
+    if (sourceIds != null) {
+      for (String id : sourceIds.split(",")) {
+        if (!id.trim().isEmpty()) {
+          result.add(id.trim());
+        }
+      }
+    }
+    if (result.isEmpty()) {
+      result.add(DEFAULT_DATUM_SOURCE_ID);
+    }
+    return result;
+  }
+
+  private void addInstruction(HttpExchange exchange) throws IOException {
+    if (!"POST".equals(exchange.getRequestMethod())) {
+      respond(exchange, 405, error("Method not allowed."));
+      return;
+    }
+    Map<String, String> params = parseParameters(readBody(exchange.getRequestBody()));
+    String topic = params.get("topic");
+    Set<Long> nodeIds = parseIds(params.get("nodeIds"));
+    if (topic == null || nodeIds.isEmpty()) {
+      respond(exchange, 422, error("The topic and nodeIds parameters are required."));
+      return;
+    }
+    Map<String, String> instrParams = new LinkedHashMap<>(4);
+    for (int i = 0; params.containsKey("parameters[" + i + "].name"); i++) {
+      instrParams.put(params.get("parameters[" + i + "].name"),
+          params.get("parameters[" + i + "].value"));
+    }
+    final long now = System.currentTimeMillis();
+    List<Map<String, Object>> data = new ArrayList<>(nodeIds.size());
+    for (Long nodeId : nodeIds) {
+      boolean declined = (instructionDeclineRate > 0
+          && ThreadLocalRandom.current().nextDouble() < instructionDeclineRate);
+      Instruction instr = new Instruction(instructionIds.incrementAndGet(), nodeId, topic,
+          instrParams, now, declined);
+      instructions.put(instr.id, instr);
+      data.add(instructionData(instr, now));
+    }
+    respond(exchange, 200, success(data));
+  }
+
+  private void viewInstructions(HttpExchange exchange) throws IOException {
+    Map<String, String> params = parseParameters(exchange.getRequestURI().getRawQuery());
+    Set<Long> ids = parseIds(params.get("ids"));
+    final long now = System.currentTimeMillis();
+    List<Map<String, Object>> data = new ArrayList<>(ids.size());
+    for (Long id : ids) {
+      Instruction instr = instructions.get(id);
+      if (instr != null) {
+        data.add(instructionData(instr, now));
+      }
+    }
+    respond(exchange, 200, success(data));
+  }
+
+  private String state(Instruction instr, long now) {
+    final long age = now - instr.created;
+    if (age < instructionReceivedMs) {
+      return "Queued";
+    } else if (age < instructionCompletedMs) {
+      return "Received";
+    }
+    return (instr.declined ? "Declined" : "Completed");
+  }
+
+  private Map<String, Object> instructionData(Instruction instr, long now) {
+    Map<String, Object> result = new LinkedHashMap<>(8);
+    result.put("id", instr.id);
+    result.put("nodeId", instr.nodeId);
+    result.put("created", DATE_FORMAT.format(Instant.ofEpochMilli(instr.created)));
+    result.put("topic", instr.topic);
+    result.put("instructionDate", DATE_FORMAT.format(Instant.ofEpochMilli(instr.created)));
+    result.put("state", state(instr, now));
+    List<Map<String, String>> params = new ArrayList<>(instr.parameters.size());
+    for (Map.Entry<String, String> me : instr.parameters.entrySet()) {
+      Map<String, String> p = new LinkedHashMap<>(2);
+      p.put("name", me.getKey());
+      p.put("value", me.getValue());
+      params.add(p);
+    }
+    result.put("parameters", params);
+    return result;
+  }
+
+  private static Map<String, Object> success(Object data) {
+    Map<String, Object> result = new LinkedHashMap<>(2);
+    result.put("success", true);
+    result.put("data", data);
+    return result;
+  }
+
+  private static Map<String, Object> error(String message) {
+    Map<String, Object> result = new LinkedHashMap<>(2);
+    result.put("success", false);
+    result.put("message", message);
+    return result;
+  }
+
+  private static void respond(HttpExchange exchange, int status, Object body)
+      throws IOException {
+    byte[] json = OBJECT_MAPPER.writeValueAsBytes(body);
+    exchange.getResponseHeaders().add(HttpHeaders.CONTENT_TYPE, "application/json;charset=UTF-8");
+    exchange.sendResponseHeaders(status, json.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(json);
+    }
+  }
+
+  private static String readBody(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+    byte[] buf = new byte[4096];
+    int len;
+    while ((len = in.read(buf)) >= 0) {
+      out.write(buf, 0, len);
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static Map<String, String> parseParameters(String query)
+      throws UnsupportedEncodingException {
+    Map<String, String> result = new LinkedHashMap<>(8);
+    if (query == null || query.isEmpty()) {
+      return result;
+    }
+    for (String pair : query.split("&")) {
+      int idx = pair.indexOf('=');
+      String name = (idx < 0 ? pair : pair.substring(0, idx));
+      String value = (idx < 0 ? "" : pair.substring(idx + 1));
+      result.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+    }
+    return result;
+  }
+
+  private static Set<Long> parseIds(String ids) {
+    Set<Long> result = new LinkedHashSet<>(8);
+    if (ids != null) {
+      for (String id : ids.split(",")) {
+        if (!id.trim().isEmpty()) {
+          result.add(Long.valueOf(id.trim()));
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Get the number of node metadata requests received.
+   * 
+   * @return the request count
+   */
+  public long getMetadataRequestCount() {
+    return metadataRequestCount.get();
+  }
+
+  /**
+   * Get the number of datum list and most recent datum requests received.
+   * 
+   * @return the request count
+   */
+  public long getDatumRequestCount() {
+    return datumRequestCount.get();
+  }
+
+  /**
+   * Get the number of instruction enqueue requests received.
+   * 
+   * @return the request count
+   */
+  public long getInstructionAddRequestCount() {
+    return instructionAddRequestCount.get();
+  }
+
+  /**
+   * Get the number of instruction view requests received.
+   * 
+   * @return the request count
+   */
+  public long getInstructionViewRequestCount() {
+    return instructionViewRequestCount.get();
+  }
+
+  /**
+   * Get the number of requests that failed because of error injection.
+   * 
+   * @return the error count
+   */
+  public long getErrorCount() {
+    return errorCount.get();
+  }
+
+  /**
+   * Get the number of instructions enqueued.
+   * 
+   * @return the instruction count
+   */
+  public int getInstructionCount() {
+    return instructions.size();
+  }
+
+  /**
+   * Set the number of threads to handle HTTP requests with.
+   * 
+   * <p>
+   * This must be configured before calling {@link #start()}.
+   * </p>
+   * 
+   * @param threads
+   *        the thread count; defaults to {@link #DEFAULT_THREADS}
+   */
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  /**
+   * Set a fixed delay to add to every response.
+   * 
+   * @param latencyMs
+   *        the delay, in milliseconds
+   */
+  public void setLatencyMs(long latencyMs) {
+    this.latencyMs = latencyMs;
+  }
+
+  /**
+   * Set a maximum random delay to add to every response, on top of {@code latencyMs}.
+   * 
+   * @param latencyJitterMs
+   *        the maximum random delay, in milliseconds
+   */
+  public void setLatencyJitterMs(long latencyJitterMs) {
+    this.latencyJitterMs = latencyJitterMs;
+  }
+
+  /**
+   * Set the interval of authorized requests that fail with a HTTP 500 response.
+   * 
+   * <p>
+   * Errors are injected deterministically, so that with an interval of {@literal 5} the 5th, 10th,
+   * 15th, and so on authorized requests fail.
+   * </p>
+   * 
+   * @param errorInterval
+   *        the interval, or {@literal 0} to never fail requests
+   */
+  public void setErrorInterval(int errorInterval) {
+    this.errorInterval = errorInterval;
+  }
+
+  /**
+   * Set the time after which enqueued instructions move to the {@literal Received} state.
+   * 
+   * @param instructionReceivedMs
+   *        the time, in milliseconds
+   */
+  public void setInstructionReceivedMs(long instructionReceivedMs) {
+    this.instructionReceivedMs = instructionReceivedMs;
+  }
+
+  /**
+   * Set the time after which enqueued instructions move to their final state.
+   * 
+   * @param instructionCompletedMs
+   *        the time, in milliseconds
+   */
+  public void setInstructionCompletedMs(long instructionCompletedMs) {
+    this.instructionCompletedMs = instructionCompletedMs;
+  }
+
+  /**
+   * Set the fraction of instructions that end in the {@literal Declined} state.
+   * 
+   * @param instructionDeclineRate
+   *        the decline rate, from {@literal 0} to {@literal 1}
+   */
+  public void setInstructionDeclineRate(double instructionDeclineRate) {
+    this.instructionDeclineRate = instructionDeclineRate;
+  }
+
+  /**
+   * Set the interval between generated raw datum.
+   * 
+   * @param datumIntervalMs
+   *        the interval, in milliseconds; defaults to {@literal 60000}
+   */
+  public void setDatumIntervalMs(long datumIntervalMs) {
+    this.datumIntervalMs = datumIntervalMs;
+  }
+
+  /**
+   * Set the offset between the raw datum of each source generated for the same date.
+   * 
+   * <p>
+   * The offset times the number of requested node and source combinations should be less than
+   * {@code datumIntervalMs}, so the datum remain in date order.
+   * </p>
+   * 
+   * @param sourceSkewMs
+   *        the offset, in milliseconds; defaults to {@literal 0}
+   */
+  public void setSourceSkewMs(long sourceSkewMs) {
+    this.sourceSkewMs = sourceSkewMs;
+  }
+
+}